@@ -19,6 +19,11 @@ public class DbObject extends ZooPC {
      * Flag if object is a first level object or not.
      */
     private boolean firstLevel = false;
+    /**
+     * The database in read-only mode this object was retrieved from, null if
+     * not retrieved in read-only mode. Not persisted.
+     */
+    private transient volatile ObjectsDB readOnlyDB = null;
     
     /**
      * Constructor.
@@ -78,9 +83,48 @@ public class DbObject extends ZooPC {
     }
     
     /**
-     * Sets the ZooDB to read mode
+     * Returns whether the object is a first level object without activating
+     * it. Returns false for hollow objects.
+     *
+     * @return the first level flag of the loaded object
+     */
+    boolean isLoadedFirstLevel() {
+        return firstLevel;
+    }
+
+    /**
+     * Returns an estimate of the memory used by the object in bytes, used by
+     * the cache to control its memory footprint. By default the size is
+     * sampled for every class, classes can override this method to report
+     * their size.
+     *
+     * @return an estimate of the memory used by the object in bytes
+     */
+    public long getSizeEstimate() {
+        return ObjectSizeEstimator.getSizeEstimate(this);
+    }
+
+    /**
+     * Sets the database in read-only mode this object was retrieved from.
+     *
+     * @param objectsDB the database in read-only mode
+     */
+    void setReadOnlyDB(ObjectsDB objectsDB) {
+        readOnlyDB = objectsDB;
+    }
+
+    /**
+     * Sets the ZooDB to read mode. If the object was retrieved from a database
+     * which is still in read-only mode, no commit can happen and the
+     * multithreaded persistence manager synchronizes the activation, the
+     * accesses are not counted.
      */
     public void readDBMode(){
+        ObjectsDB objectsDB = readOnlyDB;
+        if (objectsDB != null && objectsDB.isReadOnly()) {
+            zooActivateRead();
+            return;
+        }
         try {
             ObjectsDB.increaseRWCounter();
             zooActivateRead();
@@ -90,8 +134,6 @@ public class DbObject extends ZooPC {
         }
     }
     
-    
-    
     /**
      * Sets the ZooDB to write mode
      */
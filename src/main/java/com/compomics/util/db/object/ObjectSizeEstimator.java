@@ -0,0 +1,393 @@
+package com.compomics.util.db.object;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.zoodb.api.impl.ZooPC;
+
+/**
+ * Estimates the memory used by objects. The size of the objects of a given
+ * class is sampled by walking the object graph using reflection, and the mean
+ * of the samples is used as estimate for the other objects of the class. The
+ * first objects of every class are sampled, then only one object in
+ * SAMPLING_INTERVAL.
+ *
+ * @author Marc Vaudel
+ */
+public class ObjectSizeEstimator {
+
+    /**
+     * The number of objects of a class sampled before sampling at intervals.
+     */
+    public static final int INITIAL_SAMPLES = 16;
+    /**
+     * The interval at which objects are sampled after the initial samples.
+     */
+    public static final int SAMPLING_INTERVAL = 256;
+    /**
+     * The maximal number of objects visited when sampling an object.
+     */
+    public static final int MAX_VISITED = 100000;
+    /**
+     * The size of an object header in bytes.
+     */
+    private static final int OBJECT_HEADER = 16;
+    /**
+     * The size of an array header in bytes.
+     */
+    private static final int ARRAY_HEADER = 16;
+    /**
+     * The size of a reference in bytes.
+     */
+    private static final int REFERENCE = 8;
+    /**
+     * The overhead of an element in a collection or map in bytes.
+     */
+    private static final int ELEMENT_OVERHEAD = 32;
+    /**
+     * The sampling statistics per class.
+     */
+    private static final ConcurrentHashMap<Class<?>, ClassStatistics> STATISTICS = new ConcurrentHashMap<>();
+    /**
+     * The layout of the instances per class.
+     */
+    private static final ConcurrentHashMap<Class<?>, ClassLayout> LAYOUTS = new ConcurrentHashMap<>();
+
+    /**
+     * Empty default constructor.
+     */
+    private ObjectSizeEstimator() {
+    }
+
+    /**
+     * Returns an estimate of the memory used by the given object in bytes.
+     *
+     * @param object the object
+     *
+     * @return an estimate of the memory used by the object in bytes
+     */
+    public static long getSizeEstimate(Object object) {
+
+        if (object == null) {
+            return 0;
+        }
+
+        ClassStatistics statistics = STATISTICS.computeIfAbsent(object.getClass(), c -> new ClassStatistics());
+
+        if (statistics.sample()) {
+
+            try {
+
+                statistics.addSample(measure(object));
+
+            } catch (RuntimeException e) {
+
+                // object modified while sampled, skip the sample
+            }
+        }
+
+        return statistics.getMean();
+    }
+
+    /**
+     * Measures the memory used by the given object by walking its object
+     * graph. Referenced classes and threads are not included. If the object
+     * is a database object, it is activated so that it is measured with its
+     * content. The walk stops at the other first level database objects,
+     * which are measured on their own, and the other database objects are
+     * measured as loaded, without activating them.
+     *
+     * @param root the object
+     *
+     * @return the memory used by the object in bytes
+     */
+    public static long measure(Object root) {
+
+        IdentityHashMap<Object, Boolean> visited = new IdentityHashMap<>();
+        ArrayDeque<Object> toVisit = new ArrayDeque<>();
+        toVisit.add(root);
+        visited.put(root, Boolean.TRUE);
+        long size = 0;
+
+        while (!toVisit.isEmpty() && visited.size() < MAX_VISITED) {
+
+            Object object = toVisit.poll();
+            Class<?> objectClass = object.getClass();
+
+            if (objectClass.isArray()) {
+
+                int length = Array.getLength(object);
+                Class<?> componentType = objectClass.getComponentType();
+
+                if (componentType.isPrimitive()) {
+
+                    size += align(ARRAY_HEADER + (long) length * getPrimitiveSize(componentType));
+
+                } else {
+
+                    size += align(ARRAY_HEADER + (long) length * REFERENCE);
+
+                    for (int i = 0; i < length; i++) {
+
+                        add(Array.get(object, i), visited, toVisit);
+
+                    }
+                }
+
+            } else if (object instanceof String) {
+
+                size += align(OBJECT_HEADER + 8) + align(ARRAY_HEADER + 2L * ((String) object).length());
+
+            } else if (object instanceof Collection && objectClass.getName().startsWith("java.")) {
+
+                // the internals of the collections of the JDK cannot be accessed, use the public API
+                Collection<?> collection = (Collection<?>) object;
+                size += align(OBJECT_HEADER + 32) + (long) collection.size() * ELEMENT_OVERHEAD;
+
+                for (Object element : collection.toArray()) {
+
+                    add(element, visited, toVisit);
+
+                }
+
+            } else if (object instanceof Map && objectClass.getName().startsWith("java.")) {
+
+                Map<?, ?> map = (Map<?, ?>) object;
+                size += align(OBJECT_HEADER + 32) + (long) map.size() * ELEMENT_OVERHEAD;
+
+                for (Map.Entry<?, ?> entry : new ArrayList<>(map.entrySet())) {
+
+                    add(entry.getKey(), visited, toVisit);
+                    add(entry.getValue(), visited, toVisit);
+
+                }
+
+            } else {
+
+                if (object == root && object instanceof DbObject) {
+
+                    ((DbObject) object).readDBMode();
+
+                }
+
+                ClassLayout layout = getLayout(objectClass);
+                size += layout.shallowSize;
+
+                for (Field field : layout.referenceFields) {
+
+                    try {
+
+                        add(field.get(object), visited, toVisit);
+
+                    } catch (IllegalAccessException e) {
+
+                        // count the reference only
+                    }
+                }
+
+            }
+        }
+
+        return size;
+    }
+
+    /**
+     * Queues an object for visit if not visited already. First level
+     * database objects are not visited.
+     *
+     * @param object the object
+     * @param visited the objects visited
+     * @param toVisit the objects to visit
+     */
+    private static void add(Object object, IdentityHashMap<Object, Boolean> visited, ArrayDeque<Object> toVisit) {
+
+        if (object == null || object instanceof Class || object instanceof Thread || object instanceof ClassLoader || object instanceof Enum) {
+            return;
+        }
+
+        if (object instanceof DbObject && ((DbObject) object).isLoadedFirstLevel()) {
+            return;
+        }
+
+        if (visited.put(object, Boolean.TRUE) == null) {
+
+            toVisit.add(object);
+
+        }
+    }
+
+    /**
+     * Returns the layout of the instances of the given class. The fields of
+     * DbObject, ZooPC and its super classes are shared with other objects by
+     * the persistence framework and the database, only the space of their
+     * references is counted.
+     * The same holds for fields which cannot be made accessible.
+     *
+     * @param objectClass the class
+     *
+     * @return the layout of the instances of the class
+     */
+    private static ClassLayout getLayout(Class<?> objectClass) {
+
+        return LAYOUTS.computeIfAbsent(objectClass, c -> {
+
+            long shallowSize = OBJECT_HEADER;
+            ArrayList<Field> referenceFields = new ArrayList<>();
+            boolean shared = false;
+
+            for (Class<?> currentClass = c; currentClass != null; currentClass = currentClass.getSuperclass()) {
+
+                shared = shared || currentClass == DbObject.class || currentClass == ZooPC.class;
+
+                for (Field field : currentClass.getDeclaredFields()) {
+
+                    if (!Modifier.isStatic(field.getModifiers())) {
+
+                        Class<?> type = field.getType();
+
+                        if (type.isPrimitive()) {
+
+                            shallowSize += getPrimitiveSize(type);
+
+                        } else {
+
+                            shallowSize += REFERENCE;
+
+                            if (!shared) {
+
+                                try {
+
+                                    field.setAccessible(true);
+                                    referenceFields.add(field);
+
+                                } catch (RuntimeException e) {
+
+                                    // fields of modules not open to reflection
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+
+            return new ClassLayout(align(shallowSize), referenceFields.toArray(new Field[referenceFields.size()]));
+
+        });
+    }
+
+    /**
+     * Returns the size of a primitive type in bytes.
+     *
+     * @param type the primitive type
+     *
+     * @return the size of the type in bytes
+     */
+    private static int getPrimitiveSize(Class<?> type) {
+
+        if (type == long.class || type == double.class) {
+            return 8;
+        } else if (type == int.class || type == float.class) {
+            return 4;
+        } else if (type == short.class || type == char.class) {
+            return 2;
+        } else {
+            return 1;
+        }
+    }
+
+    /**
+     * Aligns a size on eight bytes.
+     *
+     * @param size the size
+     *
+     * @return the aligned size
+     */
+    private static long align(long size) {
+        return (size + 7) & ~7L;
+    }
+
+    /**
+     * The layout of the instances of a class.
+     */
+    private static class ClassLayout {
+
+        /**
+         * The size of an instance without the referenced objects in bytes.
+         */
+        private final long shallowSize;
+        /**
+         * The accessible fields referencing other objects.
+         */
+        private final Field[] referenceFields;
+
+        /**
+         * Constructor.
+         *
+         * @param shallowSize the size of an instance without the referenced
+         * objects in bytes
+         * @param referenceFields the accessible fields referencing other
+         * objects
+         */
+        private ClassLayout(long shallowSize, Field[] referenceFields) {
+
+            this.shallowSize = shallowSize;
+            this.referenceFields = referenceFields;
+
+        }
+    }
+
+    /**
+     * The sampling statistics of a class.
+     */
+    private static class ClassStatistics {
+
+        /**
+         * The number of objects estimated.
+         */
+        private long nObjects = 0;
+        /**
+         * The number of objects sampled.
+         */
+        private long nSamples = 0;
+        /**
+         * The sum of the sizes sampled.
+         */
+        private long sizeSum = 0;
+
+        /**
+         * Counts an object and indicates whether it should be sampled.
+         *
+         * @return a boolean indicating whether the object should be sampled
+         */
+        private synchronized boolean sample() {
+            return nObjects++ < INITIAL_SAMPLES || nObjects % SAMPLING_INTERVAL == 0;
+        }
+
+        /**
+         * Adds a sample.
+         *
+         * @param size the size sampled
+         */
+        private synchronized void addSample(long size) {
+
+            nSamples++;
+            sizeSum += size;
+
+        }
+
+        /**
+         * Returns the mean size of the samples.
+         *
+         * @return the mean size of the samples
+         */
+        private synchronized long getMean() {
+            return nSamples == 0 ? OBJECT_HEADER : sizeSum / nSamples;
+        }
+    }
+}
@@ -2,10 +2,16 @@ package com.compomics.util.db.object;
 
 import static com.compomics.util.db.object.DbMutex.loadObjectMutex;
 import com.compomics.util.waiting.WaitingHandler;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
 import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.ListIterator;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.jdo.PersistenceManager;
+import javax.management.NotificationEmitter;
 
 /**
  * An object cache can be combined to an ObjectDB to improve its performance. A
@@ -13,6 +19,23 @@ import javax.jdo.PersistenceManager;
  * serialized. The length of lists/maps in the cache shall stay independent from
  * the number of objects in cache.
  *
+ * The objects are kept in a concurrent map, allowing lookups without locking,
+ * and in an intrusive doubly linked list in order of insertion, allowing
+ * removal and eviction in constant time. Objects accessed since they were
+ * queued are given a second chance and moved to the end of the queue at
+ * eviction, approximating a least recently used policy without reordering
+ * the queue on every access.
+ *
+ * The memory used by the cache is controlled using the size estimates of the
+ * objects: objects are evicted when the estimated memory used by the objects
+ * in cache exceeds the memory budget. In addition, a quarter of the cache is
+ * evicted when the heap usage after garbage collection exceeds the memory
+ * share, as notified by the memory pools.
+ *
+ * In write-behind mode, the objects saved are queued to an ObjectsPersister
+ * which persists them in the background, and remain available from the cache
+ * until persisted.
+ *
  * @author Marc Vaudel
  * @author Dominik Kopczynski
  */
@@ -24,18 +47,50 @@ public class ObjectsCache {
     public ObjectsCache() {
     }
 
+    /**
+     * The number of memory usage threshold notifications received from the
+     * memory pools.
+     */
+    private static final AtomicInteger MEMORY_WARNINGS = new AtomicInteger(0);
+    /**
+     * Boolean indicating whether the memory notification listener is
+     * registered.
+     */
+    private static boolean memoryListenerRegistered = false;
+    /**
+     * The collection usage thresholds set by the caches indexed by memory pool
+     * name.
+     */
+    private static final HashMap<String, Long> THRESHOLDS_SET = new HashMap<>();
     /**
      * Share of the memory to be used.
      */
     private double memoryShare = 0.75;
     /**
-     * Map of the loaded matches. db &gt; table &gt; object key &gt; object.
+     * The memory budget of the cache in bytes, derived from the memory share
+     * if not set.
+     */
+    private long memoryBudget = -1;
+    /**
+     * The estimated memory used by the objects in cache in bytes.
+     */
+    private volatile long residentBytes = 0;
+    /**
+     * The number of memory warnings already handled by this cache.
+     */
+    private int memoryWarningsHandled = MEMORY_WARNINGS.get();
+    /**
+     * Map of the loaded objects. object key &gt; cache entry.
+     */
+    private final ConcurrentHashMap<Long, CacheEntry> loadedObjects = new ConcurrentHashMap<>();
+    /**
+     * The oldest entry of the eviction queue, null if empty.
      */
-    private final HashMap<Long, Object> loadedObjects = new HashMap<>();
+    private CacheEntry queueHead = null;
     /**
-     * Linked list to manage a queue for old entries.
+     * The newest entry of the eviction queue, null if empty.
      */
-    private final LinkedList<Long> objectQueue = new LinkedList<>();
+    private CacheEntry queueTail = null;
     /**
      * Indicates whether the cache is read only.
      */
@@ -44,6 +99,11 @@ public class ObjectsCache {
      * Reference to the objects DB.
      */
     private ObjectsDB objectsDB = null;
+    /**
+     * The persister used in write-behind mode, null if not in write-behind
+     * mode.
+     */
+    private volatile ObjectsPersister persister = null;
     /**
      * Number of objects thats should be at least kept.
      */
@@ -61,6 +121,54 @@ public class ObjectsCache {
      */
     public ObjectsCache(ObjectsDB objectsDB) {
         this.objectsDB = objectsDB;
+        registerMemoryListener(memoryShare);
+    }
+
+    /**
+     * Registers a listener counting the notifications of the heap memory
+     * pools when their usage after garbage collection exceeds the given share
+     * of their maximal size. Note that the thresholds are JVM-global: only the
+     * thresholds not set, or set by a cache, are updated, the thresholds set
+     * by other components are left untouched and their notifications are
+     * counted as well.
+     *
+     * @param memoryShare the share of the memory pools which can be used
+     */
+    private static synchronized void registerMemoryListener(double memoryShare) {
+
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+
+            long max = pool.getUsage().getMax();
+
+            if (pool.getType() == MemoryType.HEAP && pool.isCollectionUsageThresholdSupported() && max > 0) {
+
+                long currentThreshold = pool.getCollectionUsageThreshold();
+                Long thresholdSet = THRESHOLDS_SET.get(pool.getName());
+
+                if (currentThreshold == 0 || thresholdSet != null && thresholdSet == currentThreshold) {
+
+                    long threshold = (long) (memoryShare * max);
+                    pool.setCollectionUsageThreshold(threshold);
+                    THRESHOLDS_SET.put(pool.getName(), threshold);
+
+                }
+            }
+        }
+
+        if (!memoryListenerRegistered) {
+
+            ((NotificationEmitter) ManagementFactory.getMemoryMXBean()).addNotificationListener((notification, handback) -> {
+
+                if (MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(notification.getType())) {
+
+                    MEMORY_WARNINGS.incrementAndGet();
+
+                }
+            }, null, null);
+
+            memoryListenerRegistered = true;
+
+        }
     }
 
     /**
@@ -72,10 +180,49 @@ public class ObjectsCache {
         return loadedObjects.size();
     }
 
+    /**
+     * Returns the estimated memory used by the objects in cache in bytes.
+     *
+     * @return the estimated memory used by the objects in cache in bytes
+     */
+    public long getResidentBytes() {
+        return residentBytes;
+    }
+
+    /**
+     * Returns the memory budget of the cache in bytes. Objects are removed
+     * from the cache when the estimated memory used by the objects in cache
+     * exceeds this budget. If not set, the budget is the memory share of the
+     * maximal heap size.
+     *
+     * @return the memory budget of the cache in bytes
+     */
+    public long getMemoryBudget() {
+        return memoryBudget > 0 ? memoryBudget : (long) (memoryShare * Runtime.getRuntime().maxMemory());
+    }
+
+    /**
+     * Sets the memory budget of the cache in bytes. A negative value sets the
+     * budget back to the memory share of the maximal heap size.
+     *
+     * @param memoryBudget the memory budget of the cache in bytes
+     */
+    public void setMemoryBudget(long memoryBudget) {
+
+        loadObjectMutex.acquire();
+
+        this.memoryBudget = memoryBudget;
+        updateCache();
+
+        loadObjectMutex.release();
+
+    }
+
     /**
      * Returns the share of heap size which can be used before emptying the
      * cache. 0.75 (default) means that objects will be removed from the cache
-     * as long as more than 75% of the heap size is used.
+     * as long as they are estimated to use more than 75% of the heap size, or
+     * when more than 75% of the heap is used after garbage collection.
      *
      * @return the share of heap size which can be used before emptying the
      * cache
@@ -91,12 +238,20 @@ public class ObjectsCache {
      * emptying the cache
      */
     public void setMemoryShare(double memoryShare) {
+
+        loadObjectMutex.acquire();
+
         this.memoryShare = memoryShare;
+        registerMemoryListener(memoryShare);
+
         try {
             updateCache();
         } catch (Exception e) {
             e.printStackTrace();
         }
+
+        loadObjectMutex.release();
+
     }
 
     /**
@@ -110,20 +265,19 @@ public class ObjectsCache {
      */
     public Object getObject(Long objectKey) {
 
-        updateCache();
-        Object object = null;
+        CacheEntry entry = loadedObjects.get(objectKey);
 
-        loadObjectMutex.acquire();
+        if (entry == null) {
 
-        if (loadedObjects.containsKey(objectKey)) {
+            ObjectsPersister currentPersister = persister;
 
-            object = loadedObjects.get(objectKey);
+            return currentPersister == null ? null : currentPersister.getPendingObject(objectKey);
 
         }
 
-        loadObjectMutex.release();
+        entry.referenced = true;
 
-        return object;
+        return entry.object;
     }
 
     /**
@@ -140,10 +294,21 @@ public class ObjectsCache {
         loadObjectMutex.acquire();
 
         if (!readOnly) {
-            if (loadedObjects.containsKey(objectKey)) {
-                className = loadedObjects.get(objectKey).getClass().getSimpleName();
-                loadedObjects.remove(objectKey);
-                objectQueue.removeFirstOccurrence(objectKey);
+
+            CacheEntry entry = loadedObjects.remove(objectKey);
+
+            if (persister != null) {
+
+                persister.removePendingObject(objectKey);
+
+            }
+
+            if (entry != null) {
+
+                className = entry.object.getClass().getSimpleName();
+                unlink(entry);
+                residentBytes -= entry.size;
+
             }
         }
 
@@ -164,23 +329,31 @@ public class ObjectsCache {
 
         loadObjectMutex.acquire();
 
-        if (!readOnly) {
+        try {
 
-            if (!loadedObjects.containsKey(objectKey)) {
+            if (!readOnly) {
 
-                loadedObjects.put(objectKey, object);
-                objectQueue.add(objectKey);
+                if (!loadedObjects.containsKey(objectKey)) {
 
-                if (objectsDB.getCurrentAdded() > numToCommit) {
-                    objectsDB.commit();
+                    CacheEntry entry = new CacheEntry(objectKey, object, getSizeEstimate(object));
+                    loadedObjects.put(objectKey, entry);
+                    append(entry);
+                    residentBytes += entry.size;
+
+                    if (persister == null && objectsDB.getCurrentAdded() > numToCommit) {
+                        objectsDB.commit();
+                    }
                 }
+
+                updateCache();
+
             }
 
-            updateCache();
+        } finally {
 
-        }
+            loadObjectMutex.release();
 
-        loadObjectMutex.release();
+        }
 
     }
 
@@ -196,31 +369,56 @@ public class ObjectsCache {
 
         loadObjectMutex.acquire();
 
-        if (!readOnly) {
+        try {
 
-            loadedObjects.putAll(objects);
-            objectQueue.addAll(objects.keySet());
+            if (!readOnly) {
 
-            if (objectsDB.getCurrentAdded() > numToCommit) {
-                objectsDB.commit();
+                for (Entry<Long, Object> object : objects.entrySet()) {
+
+                    CacheEntry entry = loadedObjects.get(object.getKey());
+
+                    long size = getSizeEstimate(object.getValue());
+
+                    if (entry != null) {
+
+                        entry.object = object.getValue();
+                        residentBytes += size - entry.size;
+                        entry.size = size;
+
+                    } else {
+
+                        entry = new CacheEntry(object.getKey(), object.getValue(), size);
+                        loadedObjects.put(object.getKey(), entry);
+                        append(entry);
+                        residentBytes += size;
+
+                    }
+                }
+
+                if (persister == null && objectsDB.getCurrentAdded() > numToCommit) {
+                    objectsDB.commit();
+                }
+
+                updateCache();
             }
 
-            updateCache();
-        }
+        } finally {
 
-        loadObjectMutex.release();
+            loadObjectMutex.release();
+
+        }
 
     }
 
     /**
-     * Indicates whether the memory used by the application is lower than 99% of
-     * the heap size.
+     * Returns an estimate of the memory used by the given object in bytes.
+     *
+     * @param object the object
      *
-     * @return a boolean indicating whether the memory used by the application
-     * is lower than 75% of the heap
+     * @return an estimate of the memory used by the object in bytes
      */
-    private boolean memoryCheck() {
-        return Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory() < (long) (memoryShare * Runtime.getRuntime().maxMemory());
+    private static long getSizeEstimate(Object object) {
+        return object instanceof DbObject ? ((DbObject) object).getSizeEstimate() : ObjectSizeEstimator.getSizeEstimate(object);
     }
 
     /**
@@ -256,6 +454,37 @@ public class ObjectsCache {
 
         loadObjectMutex.acquire();
 
+        try {
+
+            saveObjectsLocked(numLastEntries, waitingHandler, clearEntries);
+
+            if (persister != null) {
+
+                persister.flush();
+
+            }
+
+        } finally {
+
+            loadObjectMutex.release();
+
+        }
+
+    }
+
+    /**
+     * Saves an entry in the database if modified. In write-behind mode, the
+     * entries are queued to the persister. The load object mutex must be
+     * acquired.
+     *
+     * @param numLastEntries number of keys of the entries
+     * @param waitingHandler a waiting handler displaying progress to the user.
+     * Can be null. Progress will be displayed as secondary.
+     * @param clearEntries a boolean indicating whether the entry shall be
+     * cleared from the cache
+     */
+    private void saveObjectsLocked(int numLastEntries, WaitingHandler waitingHandler, boolean clearEntries) {
+
         if (!readOnly) {
             if (waitingHandler != null) {
 
@@ -264,10 +493,30 @@ public class ObjectsCache {
 
             }
 
-            ListIterator<Long> listIterator = objectQueue.listIterator();
             PersistenceManager pm = objectsDB.getDB();
+            CacheEntry entry = queueHead;
+            int secondChances = loadedObjects.size();
+
+            for (int i = 0; i < numLastEntries && entry != null;) {
+
+                CacheEntry nextEntry = entry.next;
+
+                if (clearEntries && entry.referenced && secondChances > 0) {
+
+                    // accessed since queued, move to the end of the queue
+                    entry.referenced = false;
+                    unlink(entry);
+                    append(entry);
+                    secondChances--;
+
+                    if (nextEntry == null) {
+                        nextEntry = entry;
+                    }
+
+                    entry = nextEntry;
+                    continue;
 
-            for (int i = 0; i < numLastEntries && objectQueue.size() > 0; ++i) {
+                }
 
                 if (waitingHandler != null) {
 
@@ -280,21 +529,44 @@ public class ObjectsCache {
                     }
                 }
 
-                long key = clearEntries ? objectQueue.pollFirst() : listIterator.next();
+                Object obj = entry.object;
 
-                Object obj = loadedObjects.get(key);
-                
                 if (!((DbObject) obj).jdoZooIsPersistent()) {
 
-                    pm.makePersistent(obj);
-                    objectsDB.getIdMap().put(key, ((DbObject) obj).jdoZooGetOid());
+                    if (persister != null) {
+
+                        persister.queue(entry.key, obj);
+
+                    } else {
+
+                        objectsDB.getPmMutex().acquire();
+
+                        try {
+
+                            pm.makePersistent(obj);
 
+                        } finally {
+
+                            objectsDB.getPmMutex().release();
+
+                        }
+
+                        objectsDB.getIdMap().put(entry.key, ((DbObject) obj).jdoZooGetOid());
+
+                    }
                 }
 
                 if (clearEntries) {
-                    loadedObjects.remove(key);
+
+                    loadedObjects.remove(entry.key);
+                    unlink(entry);
+                    residentBytes -= entry.size;
+
                 }
 
+                entry = nextEntry;
+                ++i;
+
             }
 
             if (waitingHandler != null) {
@@ -303,30 +575,111 @@ public class ObjectsCache {
 
             }
 
-            objectsDB.commit();
+            if (persister == null) {
 
+                objectsDB.commit();
+
+            }
         }
+    }
 
-        loadObjectMutex.release();
+    /**
+     * Updates the cache according to the memory settings. The load object
+     * mutex must be acquired.
+     */
+    private void updateCache() {
+
+        int memoryWarnings = MEMORY_WARNINGS.get();
+
+        if (memoryWarnings != memoryWarningsHandled) {
+
+            memoryWarningsHandled = memoryWarnings;
+            int nObjects = loadedObjects.size();
+
+            if (nObjects > keepObjectsThreshold) {
+
+                saveObjectsLocked(nObjects >> 2, null, true);
+
+            }
+        }
 
+        long budget = getMemoryBudget();
+        int nObjects = loadedObjects.size();
+
+        if (residentBytes > budget && nObjects > keepObjectsThreshold) {
+
+            // evict down to 90% of the budget, and at least an eighth of the cache, to avoid evicting at every insertion
+            long meanSize = Math.max(residentBytes / nObjects, 1);
+            long toRemove = Math.max((residentBytes - budget + budget / 10) / meanSize + 1, nObjects >> 3);
+            saveObjectsLocked((int) Math.min(toRemove, nObjects), null, true);
+
+        }
     }
 
     /**
-     * Updates the cache according to the memory settings.
+     * Indicates whether the cache is in write-behind mode.
      *
-     * @throws InterruptedException if the thread is interrupted
+     * @return a boolean indicating whether the cache is in write-behind mode
      */
-    private void updateCache() {
+    public boolean isWriteBehind() {
+        return persister != null;
+    }
+
+    /**
+     * Sets the write-behind mode. In write-behind mode, the objects evicted
+     * from the cache are persisted in batches by a dedicated thread, the
+     * threads adding objects to the cache only wait for the persistence when
+     * the queue of the persister is full. When leaving the write-behind mode,
+     * the queued objects are persisted.
+     *
+     * @param writeBehind boolean indicating whether the cache should be in
+     * write-behind mode
+     * @param queueSize the capacity of the queue of the persister, ignored
+     * when leaving the write-behind mode
+     * @param batchSize the maximal number of objects persisted per
+     * transaction, ignored when leaving the write-behind mode
+     */
+    public void setWriteBehind(boolean writeBehind, int queueSize, int batchSize) {
+
+        loadObjectMutex.acquire();
+
+        try {
+
+            if (writeBehind && persister == null) {
 
-        while (loadedObjects.size() > keepObjectsThreshold && !memoryCheck()) {
+                persister = new ObjectsPersister(objectsDB, queueSize, batchSize);
 
-            int toRemove = loadedObjects.size() >> 2;
-            saveObjects(toRemove, null, true);
+            } else if (!writeBehind && persister != null) {
 
-            // turning on the garbage collector from time to time
-            // helps to keep the memory clean. Performance becomes
-            // better, the mass for cleaning is lower
-            System.gc();
+                try {
+
+                    persister.close();
+
+                } finally {
+
+                    persister = null;
+
+                }
+            }
+
+        } finally {
+
+            loadObjectMutex.release();
+
+        }
+
+    }
+
+    /**
+     * Waits until the objects queued in write-behind mode are persisted.
+     */
+    public void flush() {
+
+        ObjectsPersister currentPersister = persister;
+
+        if (currentPersister != null) {
+
+            currentPersister.flush();
 
         }
     }
@@ -367,8 +720,74 @@ public class ObjectsCache {
      * Clears the cache.
      */
     public void clearCache() {
+
+        loadObjectMutex.acquire();
+
         loadedObjects.clear();
-        objectQueue.clear();
+        queueHead = null;
+        queueTail = null;
+        residentBytes = 0;
+
+        loadObjectMutex.release();
+
+    }
+
+    /**
+     * Appends an entry at the end of the eviction queue. The load object mutex
+     * must be acquired.
+     *
+     * @param entry the entry
+     */
+    private void append(CacheEntry entry) {
+
+        entry.previous = queueTail;
+        entry.next = null;
+
+        if (queueTail == null) {
+
+            queueHead = entry;
+
+        } else {
+
+            queueTail.next = entry;
+
+        }
+
+        queueTail = entry;
+
+    }
+
+    /**
+     * Removes an entry from the eviction queue. The load object mutex must be
+     * acquired.
+     *
+     * @param entry the entry
+     */
+    private void unlink(CacheEntry entry) {
+
+        if (entry.previous == null) {
+
+            queueHead = entry.next;
+
+        } else {
+
+            entry.previous.next = entry.next;
+
+        }
+
+        if (entry.next == null) {
+
+            queueTail = entry.previous;
+
+        } else {
+
+            entry.next.previous = entry.previous;
+
+        }
+
+        entry.previous = null;
+        entry.next = null;
+
     }
 
     /**
@@ -386,4 +805,50 @@ public class ObjectsCache {
         loadObjectMutex.release();
 
     }
-}
+
+    /**
+     * An entry of the cache, linked to its neighbors in the eviction queue.
+     */
+    private static class CacheEntry {
+
+        /**
+         * The key of the object.
+         */
+        private final long key;
+        /**
+         * The object.
+         */
+        private volatile Object object;
+        /**
+         * The estimated memory used by the object in bytes.
+         */
+        private long size;
+        /**
+         * Indicates whether the object was accessed since it was queued.
+         */
+        private volatile boolean referenced = false;
+        /**
+         * The previous entry in the eviction queue.
+         */
+        private CacheEntry previous = null;
+        /**
+         * The next entry in the eviction queue.
+         */
+        private CacheEntry next = null;
+
+        /**
+         * Constructor.
+         *
+         * @param key the key of the object
+         * @param object the object
+         * @param size the estimated memory used by the object in bytes
+         */
+        private CacheEntry(long key, Object object, long size) {
+
+            this.key = key;
+            this.object = object;
+            this.size = size;
+
+        }
+    }
+}
\ No newline at end of file
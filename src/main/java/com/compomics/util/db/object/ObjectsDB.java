@@ -1,6 +1,7 @@
 package com.compomics.util.db.object;
 
 import static com.compomics.util.db.object.DbMutex.dbMutex;
+import com.compomics.util.threading.SimpleSemaphore;
 import com.compomics.util.waiting.WaitingHandler;
 import java.io.*;
 import java.util.ArrayList;
@@ -9,6 +10,7 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.jdo.PersistenceManager;
 import javax.jdo.Query;
@@ -49,9 +51,14 @@ public class ObjectsDB {
      */
     private PersistenceManager pm = null;
     /**
-     * HashMap to map hash IDs of entries into DB ids.
+     * Map of the hash IDs of entries into DB ids. Concurrent as the ids are
+     * set by the persister in write-behind mode.
      */
-    private final HashMap<Long, Long> idMap = new HashMap<>();
+    private final ConcurrentHashMap<Long, Long> idMap = new ConcurrentHashMap<>();
+    /**
+     * The mutex of the persistence manager of this database.
+     */
+    private final SimpleSemaphore pmMutex = new SimpleSemaphore(1);
     /**
      * Boolean indicating if the connection is active.
      */
@@ -72,6 +79,25 @@ public class ObjectsDB {
      * The commit counter.
      */
     private volatile static AtomicBoolean COMMITBLOCKER = new AtomicBoolean(false);
+    /**
+     * Boolean indicating whether the database is in read-only mode.
+     */
+    private volatile boolean readOnly = false;
+    /**
+     * The objects retrieved in read-only mode indexed by key. The objects are
+     * never modified nor saved, they can be dropped at any time.
+     */
+    private final ConcurrentHashMap<Long, ReadOnlyEntry> readOnlyObjects = new ConcurrentHashMap<>();
+    /**
+     * The estimated memory used by the objects retrieved in read-only mode in
+     * bytes.
+     */
+    private final AtomicLong readOnlyBytes = new AtomicLong(0);
+    /**
+     * Boolean indicating whether the objects retrieved in read-only mode are
+     * being trimmed.
+     */
+    private final AtomicBoolean trimming = new AtomicBoolean(false);
 
     /**
      * Empty default constructor.
@@ -100,6 +126,26 @@ public class ObjectsDB {
      */
     public ObjectsDB(String path, String dbName, boolean overwrite) {
 
+        this(path, dbName, overwrite, false);
+
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param path absolute path of the folder where to establish the database
+     * @param dbName name of the database
+     * @param overwrite overwriting old database
+     * @param readOnly open the database in read-only mode, see setReadOnly
+     */
+    public ObjectsDB(String path, String dbName, boolean overwrite, boolean readOnly) {
+
+        if (overwrite && readOnly) {
+
+            throw new IllegalArgumentException("A database cannot be overwritten in read-only mode.");
+
+        }
+
         if (debugInteractions) {
 
             System.out.println(System.currentTimeMillis() + " Creating database");
@@ -131,6 +177,11 @@ public class ObjectsDB {
         establishConnection();
         objectsCache = new ObjectsCache(this);
 
+        if (readOnly) {
+
+            setReadOnly(true);
+
+        }
     }
 
     /**
@@ -158,6 +209,7 @@ public class ObjectsDB {
      */
     public void commit() {
 
+        pmMutex.acquire();
         COMMITBLOCKER.set(true);
 
         while (ACCESSCOUNTER.get() != 0) {
@@ -171,6 +223,7 @@ public class ObjectsDB {
             currentAdded = 0;
         } finally {
             COMMITBLOCKER.set(false);
+            pmMutex.release();
         }
 
     }
@@ -184,15 +237,265 @@ public class ObjectsDB {
         return currentAdded;
     }
 
+    /**
+     * Returns the mutex of the persistence manager of this database.
+     *
+     * @return the mutex of the persistence manager
+     */
+    SimpleSemaphore getPmMutex() {
+        return pmMutex;
+    }
+
     /**
      * Getter for the id map mapping the hashed keys into zoo db ids.
      *
      * @return The id map.
      */
-    public HashMap<Long, Long> getIdMap() {
+    public ConcurrentHashMap<Long, Long> getIdMap() {
         return idMap;
     }
 
+    /**
+     * Sets the write-behind mode. In write-behind mode, the objects evicted
+     * from the cache are persisted in batches by a dedicated thread, so that
+     * threads inserting objects do not wait for the database. When leaving
+     * the write-behind mode, the queued objects are persisted.
+     *
+     * @param writeBehind boolean indicating whether the database should be in
+     * write-behind mode
+     */
+    public void setWriteBehind(boolean writeBehind) {
+
+        objectsCache.setWriteBehind(writeBehind, ObjectsPersister.DEFAULT_QUEUE_SIZE, ObjectsPersister.DEFAULT_BATCH_SIZE);
+
+    }
+
+    /**
+     * Indicates whether the database is in read-only mode.
+     *
+     * @return a boolean indicating whether the database is in read-only mode
+     */
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    /**
+     * Sets the read-only mode. When entering the read-only mode, the cache is
+     * saved and emptied, and the persistence manager is set multithreaded.
+     * The objects are then retrieved without database mutex into a concurrent
+     * cache of unmodified objects, allowing parallel retrieval from multiple
+     * threads. The objects retrieved are tagged with the database and
+     * activated without access counting as long as the database is in
+     * read-only mode, the objects they reference are activated as usual. No object can be inserted or removed in this mode. The
+     * read-only mode can only be left when no thread is reading from the
+     * database.
+     *
+     * @param readOnly boolean indicating whether the database should be in
+     * read-only mode
+     */
+    public void setReadOnly(boolean readOnly) {
+
+        dbMutex.acquire();
+
+        try {
+
+            if (debugInteractions) {
+                System.out.println(System.currentTimeMillis() + " setting read-only mode: " + readOnly);
+            }
+
+            if (readOnly && !this.readOnly) {
+
+                objectsCache.saveCache(null, true);
+                objectsCache.setWriteBehind(false, 0, 0);
+                objectsCache.clearCache();
+                objectsCache.setReadOnly(true);
+
+                pmMutex.acquire();
+                pm.setMultithreaded(true);
+                pmMutex.release();
+
+            } else if (!readOnly && this.readOnly) {
+
+                readOnlyObjects.clear();
+                readOnlyBytes.set(0);
+
+                pmMutex.acquire();
+                pm.setMultithreaded(false);
+                pmMutex.release();
+
+                objectsCache.setReadOnly(false);
+
+            }
+
+            this.readOnly = readOnly;
+
+        } finally {
+
+            dbMutex.release();
+
+        }
+
+    }
+
+    /**
+     * Throws an exception if the database is in read-only mode.
+     */
+    private void checkWritable() {
+
+        if (readOnly) {
+
+            throw new UnsupportedOperationException("The database is in read-only mode.");
+
+        }
+    }
+
+    /**
+     * Returns the object corresponding to the given key in read-only mode. The
+     * object is retrieved from the read-only cache if present, from the
+     * multithreaded persistence manager otherwise.
+     *
+     * @param objectKey the key of the object
+     *
+     * @return the object, null if not in the database
+     */
+    private Object getReadOnlyObject(long objectKey) {
+
+        ReadOnlyEntry entry = readOnlyObjects.get(objectKey);
+
+        if (entry != null) {
+
+            entry.referenced = true;
+            return entry.object;
+
+        }
+
+        Long zooid = idMap.get(objectKey);
+
+        if (zooid == null || zooid == 0) {
+
+            return null;
+
+        }
+
+        Object object = pm.getObjectById(zooid);
+        ((DbObject) object).setReadOnlyDB(this);
+        entry = new ReadOnlyEntry(object, ((DbObject) object).getSizeEstimate());
+        ReadOnlyEntry previous = readOnlyObjects.putIfAbsent(objectKey, entry);
+
+        if (previous != null) {
+
+            return previous.object;
+
+        }
+
+        if (readOnlyBytes.addAndGet(entry.size) > objectsCache.getMemoryBudget()) {
+
+            trimReadOnlyObjects();
+
+        }
+
+        return object;
+    }
+
+    /**
+     * Returns the objects corresponding to the given keys in read-only mode.
+     *
+     * @param keys the keys of the objects
+     * @param waitingHandler the waiting handler allowing displaying progress
+     * and canceling the process
+     *
+     * @return the objects found in the database
+     */
+    private ArrayList<Object> getReadOnlyObjects(Collection<Long> keys, WaitingHandler waitingHandler) {
+
+        ArrayList<Object> objects = new ArrayList<>(keys.size());
+
+        for (long objectKey : keys) {
+
+            if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+
+                break;
+
+            }
+
+            Object object = getReadOnlyObject(objectKey);
+
+            if (object != null) {
+
+                objects.add(object);
+
+            }
+        }
+
+        return objects;
+    }
+
+    /**
+     * Drops objects from the read-only cache until an eighth of the memory
+     * budget is free. As the objects are not modified, they are simply
+     * dropped from the cache, the persistence manager then only holds them
+     * as long as they are referenced. Objects accessed since the last
+     * trimming are given a second chance. Only one thread trims at a time,
+     * the others carry on.
+     */
+    private void trimReadOnlyObjects() {
+
+        if (trimming.compareAndSet(false, true)) {
+
+            try {
+
+                long memoryBudget = objectsCache.getMemoryBudget();
+                long target = memoryBudget - (memoryBudget >> 3);
+
+                for (int pass = 0; pass < 2 && readOnlyBytes.get() > target; pass++) {
+
+                    Iterator<ReadOnlyEntry> iterator = readOnlyObjects.values().iterator();
+
+                    while (readOnlyBytes.get() > target && iterator.hasNext()) {
+
+                        ReadOnlyEntry entry = iterator.next();
+
+                        if (entry.referenced) {
+
+                            entry.referenced = false;
+
+                        } else {
+
+                            iterator.remove();
+                            readOnlyBytes.addAndGet(-entry.size);
+
+                        }
+                    }
+                }
+
+            } finally {
+
+                trimming.set(false);
+
+            }
+        }
+    }
+
+    /**
+     * Returns the persisted object corresponding to the given key. The id is
+     * read again in case the object was persisted in the background since it
+     * was last read.
+     *
+     * @param objectKey the key of the object
+     *
+     * @return the persisted object
+     */
+    private Object getPersistedObject(long objectKey) {
+
+        pmMutex.acquire();
+
+        Object object = pm.getObjectById(idMap.get(objectKey));
+
+        pmMutex.release();
+
+        return object;
+    }
+
     /**
      * Getter for the database file.
      *
@@ -256,44 +559,52 @@ public class ObjectsDB {
      */
     public void insertObject(long objectKey, Object object) {
 
+        checkWritable();
+
         dbMutex.acquire();
 
-        if (debugInteractions) {
-            System.out.println(System.currentTimeMillis() + " Inserting single object " + object.getClass().getSimpleName() + ", key: " + objectKey);
-        }
+        try {
 
-        if (object == null) {
+            if (debugInteractions) {
+                System.out.println(System.currentTimeMillis() + " Inserting single object " + object.getClass().getSimpleName() + ", key: " + objectKey);
+            }
 
-            throw new IllegalArgumentException("error: null insertion: " + objectKey);
+            if (object == null) {
 
-        }
+                throw new IllegalArgumentException("error: null insertion: " + objectKey);
 
-        ((DbObject) object).setId(objectKey);
-        ((DbObject) object).setFirstLevel(true);
+            }
 
-        if (!idMap.containsKey(objectKey)) {
+            ((DbObject) object).setId(objectKey);
+            ((DbObject) object).setFirstLevel(true);
 
-            idMap.put(objectKey, 0l);
-            String simpleName = object.getClass().getSimpleName();
+            if (!idMap.containsKey(objectKey)) {
 
-            if (!classCounter.containsKey(simpleName)) {
+                idMap.put(objectKey, 0l);
+                String simpleName = object.getClass().getSimpleName();
 
-                classCounter.put(simpleName, new HashSet<>());
+                if (!classCounter.containsKey(simpleName)) {
 
-            }
+                    classCounter.put(simpleName, new HashSet<>());
 
-            classCounter.get(simpleName).add(objectKey);
+                }
 
-        } else {
+                classCounter.get(simpleName).add(objectKey);
 
-            throw new IllegalArgumentException("error double insertion: " + objectKey);
+            } else {
 
-        }
+                throw new IllegalArgumentException("error double insertion: " + objectKey);
 
-        currentAdded += 1;
-        objectsCache.addObject(objectKey, object);
+            }
 
-        dbMutex.release();
+            currentAdded += 1;
+            objectsCache.addObject(objectKey, object);
+
+        } finally {
+
+            dbMutex.release();
+
+        }
     }
 
     /**
@@ -315,11 +626,23 @@ public class ObjectsDB {
      */
     public Iterator<?> getObjectsIterator(Class className, String filters) {
         Query q;
+        if (readOnly) {
+            q = pm.newQuery(className, filters);
+            return ((SynchronizedROCollection<?>) q.execute()).iterator();
+        }
         dbMutex.acquire();
-        dumpToDB();
-        q = pm.newQuery(className, filters);
-        dbMutex.release();
-        return ((SynchronizedROCollection<?>) q.execute()).iterator();
+        try {
+            objectsCache.saveCache(null, false);
+            pmMutex.acquire();
+            try {
+                q = pm.newQuery(className, filters);
+                return ((SynchronizedROCollection<?>) q.execute()).iterator();
+            } finally {
+                pmMutex.release();
+            }
+        } finally {
+            dbMutex.release();
+        }
     }
 
     /**
@@ -333,50 +656,58 @@ public class ObjectsDB {
      */
     public void insertObjects(HashMap<Long, Object> objects, WaitingHandler waitingHandler, boolean displayProgress) {
 
+        checkWritable();
+
         dbMutex.acquire();
 
-        for (Entry<Long, Object> entry : objects.entrySet()) {
+        try {
 
-            long objectKey = entry.getKey();
-            Object object = entry.getValue();
+            for (Entry<Long, Object> entry : objects.entrySet()) {
 
-            if (object == null) {
+                long objectKey = entry.getKey();
+                Object object = entry.getValue();
 
-                throw new IllegalArgumentException("error: null insertion: " + objectKey);
+                if (object == null) {
 
-            }
+                    throw new IllegalArgumentException("error: null insertion: " + objectKey);
 
-            if (debugInteractions) {
-                System.out.println(System.currentTimeMillis() + " Inserting single object, table: " + object.getClass().getName() + ", key: " + objectKey);
-            }
+                }
 
-            ((DbObject) object).setId(objectKey);
-            ((DbObject) object).setFirstLevel(true);
+                if (debugInteractions) {
+                    System.out.println(System.currentTimeMillis() + " Inserting single object, table: " + object.getClass().getName() + ", key: " + objectKey);
+                }
 
-            if (!idMap.containsKey(objectKey)) {
+                ((DbObject) object).setId(objectKey);
+                ((DbObject) object).setFirstLevel(true);
 
-                idMap.put(objectKey, 0l);
-                String simpleName = object.getClass().getSimpleName();
+                if (!idMap.containsKey(objectKey)) {
 
-                if (!classCounter.containsKey(simpleName)) {
+                    idMap.put(objectKey, 0l);
+                    String simpleName = object.getClass().getSimpleName();
 
-                    classCounter.put(simpleName, new HashSet<>());
+                    if (!classCounter.containsKey(simpleName)) {
 
-                }
+                        classCounter.put(simpleName, new HashSet<>());
 
-                classCounter.get(simpleName).add(objectKey);
+                    }
 
-            } else {
+                    classCounter.get(simpleName).add(objectKey);
 
-                throw new IllegalArgumentException("error double insertion: " + objectKey);
+                } else {
+
+                    throw new IllegalArgumentException("error double insertion: " + objectKey);
 
+                }
             }
-        }
 
-        currentAdded += objects.size();
-        objectsCache.addObjects(objects);
+            currentAdded += objects.size();
+            objectsCache.addObjects(objects);
 
-        dbMutex.release();
+        } finally {
+
+            dbMutex.release();
+
+        }
     }
 
     /**
@@ -390,36 +721,49 @@ public class ObjectsDB {
      */
     public void loadObjects(Collection<Long> keys, WaitingHandler waitingHandler, boolean displayProgress) {
 
-        dbMutex.acquire();
+        if (readOnly) {
+
+            getReadOnlyObjects(keys, waitingHandler);
+            return;
 
-        if (debugInteractions) {
-            System.out.println(System.currentTimeMillis() + " loading " + keys.size() + " objects");
         }
 
-        HashMap<Long, Object> allObjects = new HashMap<>(keys.size());
+        dbMutex.acquire();
 
-        for (long objectKey : keys) {
+        try {
 
-            if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+            if (debugInteractions) {
+                System.out.println(System.currentTimeMillis() + " loading " + keys.size() + " objects");
+            }
 
-                return;
+            HashMap<Long, Object> allObjects = new HashMap<>(keys.size());
 
-            }
+            for (long objectKey : keys) {
 
-            Long zooid = idMap.get(objectKey);
+                if (waitingHandler != null && waitingHandler.isRunCanceled()) {
 
-            if (zooid != null && zooid != 0 && !objectsCache.inCache(objectKey)) {
+                    return;
 
-                Object obj = pm.getObjectById(zooid);
-                allObjects.put(objectKey, obj);
+                }
+
+                Long zooid = idMap.get(objectKey);
+
+                if (zooid != null && zooid != 0 && !objectsCache.inCache(objectKey)) {
+
+                    Object obj = getPersistedObject(objectKey);
+                    allObjects.put(objectKey, obj);
+
+                }
 
             }
 
-        }
+            objectsCache.addObjects(allObjects);
 
-        objectsCache.addObjects(allObjects);
+        } finally {
 
-        dbMutex.release();
+            dbMutex.release();
+
+        }
     }
 
     /**
@@ -435,34 +779,47 @@ public class ObjectsDB {
 
         HashSet<Long> hashedKeys = classCounter.get(className.getSimpleName());
 
-        dbMutex.acquire();
+        if (readOnly) {
+
+            getReadOnlyObjects(hashedKeys, waitingHandler);
+            return;
 
-        if (debugInteractions) {
-            System.out.println(System.currentTimeMillis() + " retrieving all " + className + " objects");
         }
 
-        HashMap<Long, Object> allObjects = new HashMap<>(hashedKeys.size());
+        dbMutex.acquire();
 
-        for (Long longKey : hashedKeys) {
+        try {
 
-            if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+            if (debugInteractions) {
+                System.out.println(System.currentTimeMillis() + " retrieving all " + className + " objects");
+            }
 
-                return;
+            HashMap<Long, Object> allObjects = new HashMap<>(hashedKeys.size());
 
-            }
+            for (Long longKey : hashedKeys) {
 
-            Long zooid = idMap.get(longKey);
+                if (waitingHandler != null && waitingHandler.isRunCanceled()) {
 
-            if (zooid != null && zooid != 0 && !objectsCache.inCache(longKey)) {
+                    return;
 
-                allObjects.put(longKey, pm.getObjectById(zooid));
+                }
+
+                Long zooid = idMap.get(longKey);
+
+                if (zooid != null && zooid != 0 && !objectsCache.inCache(longKey)) {
+
+                    allObjects.put(longKey, getPersistedObject(longKey));
 
+                }
             }
-        }
 
-        objectsCache.addObjects(allObjects);
+            objectsCache.addObjects(allObjects);
 
-        dbMutex.release();
+        } finally {
+
+            dbMutex.release();
+
+        }
     }
 
     /**
@@ -473,28 +830,41 @@ public class ObjectsDB {
      */
     public Object retrieveObject(long longKey) {
 
+        if (readOnly) {
+
+            return getReadOnlyObject(longKey);
+
+        }
+
         Object obj = null;
 
         dbMutex.acquire();
 
-        if (debugInteractions) {
-            System.out.println(System.currentTimeMillis() + " | retrieving one objects with key: " + longKey);
-        }
+        try {
+
+            if (debugInteractions) {
+                System.out.println(System.currentTimeMillis() + " | retrieving one objects with key: " + longKey);
+            }
 
-        Long zooid = idMap.get(longKey);
+            Long zooid = idMap.get(longKey);
 
-        if (zooid != null) {
+            if (zooid != null) {
 
-            obj = objectsCache.getObject(longKey);
+                obj = objectsCache.getObject(longKey);
 
-            if (obj == null) {
+                if (obj == null) {
 
-                obj = pm.getObjectById(zooid);
-                objectsCache.addObject(longKey, obj);
+                    obj = getPersistedObject(longKey);
+                    objectsCache.addObject(longKey, obj);
 
+                }
             }
+
+        } finally {
+
+            dbMutex.release();
+
         }
-        dbMutex.release();
         return obj;
     }
 
@@ -510,6 +880,13 @@ public class ObjectsDB {
 
         HashSet counter;
 
+        if (readOnly) {
+
+            counter = classCounter.get(className.getSimpleName());
+            return (counter != null ? counter.size() : 0);
+
+        }
+
         dbMutex.acquire();
 
         if (debugInteractions) {
@@ -527,9 +904,15 @@ public class ObjectsDB {
      * Triggers a dump of all objects within the cache into the database.
      */
     public void dumpToDB() {
+        if (readOnly) {
+            return;
+        }
         dbMutex.acquire();
-        objectsCache.saveCache(null, false);
-        dbMutex.release();
+        try {
+            objectsCache.saveCache(null, false);
+        } finally {
+            dbMutex.release();
+        }
     }
 
     /**
@@ -545,45 +928,57 @@ public class ObjectsDB {
      */
     public ArrayList<Object> retrieveObjects(Collection<Long> keys, WaitingHandler waitingHandler, boolean displayProgress) {
 
+        if (readOnly) {
+
+            return getReadOnlyObjects(keys, waitingHandler);
+
+        }
+
         ArrayList<Object> retrievingObjects = new ArrayList<>(keys.size());
 
         dbMutex.acquire();
 
-        if (true || debugInteractions) {
-            System.out.println(System.currentTimeMillis() + " retrieving " + keys.size() + " objects");
-        }
+        try {
 
-        HashMap<Long, Object> objectsNotInCache = new HashMap<>();
+            if (true || debugInteractions) {
+                System.out.println(System.currentTimeMillis() + " retrieving " + keys.size() + " objects");
+            }
 
-        for (Long objectKey : keys) {
+            HashMap<Long, Object> objectsNotInCache = new HashMap<>();
 
-            if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+            for (Long objectKey : keys) {
 
-                return retrievingObjects;
+                if (waitingHandler != null && waitingHandler.isRunCanceled()) {
 
-            }
+                    return retrievingObjects;
 
-            Long zooid = idMap.get(objectKey);
+                }
 
-            if (zooid != null) {
+                Long zooid = idMap.get(objectKey);
 
-                Object obj = objectsCache.getObject(objectKey);
+                if (zooid != null) {
 
-                if (obj == null) {
+                    Object obj = objectsCache.getObject(objectKey);
 
-                    obj = pm.getObjectById(zooid);
-                    objectsNotInCache.put(objectKey, obj);
+                    if (obj == null) {
 
-                }
+                        obj = getPersistedObject(objectKey);
+                        objectsNotInCache.put(objectKey, obj);
+
+                    }
 
-                retrievingObjects.add(obj);
+                    retrievingObjects.add(obj);
 
+                }
             }
-        }
 
-        objectsCache.addObjects(objectsNotInCache);
+            objectsCache.addObjects(objectsNotInCache);
 
-        dbMutex.release();
+        } finally {
+
+            dbMutex.release();
+
+        }
 
         return retrievingObjects;
 
@@ -602,45 +997,57 @@ public class ObjectsDB {
      */
     public ArrayList<Object> retrieveObjects(Class className, WaitingHandler waitingHandler, boolean displayProgress) {
 
+        if (readOnly) {
+
+            return getReadOnlyObjects(classCounter.get(className.getSimpleName()), waitingHandler);
+
+        }
+
         ArrayList<Object> retrievingObjects = new ArrayList<>();
 
         dbMutex.acquire();
 
-        if (debugInteractions) {
-            System.out.println(System.currentTimeMillis() + " retrieving all " + className + " objects");
-        }
+        try {
 
-        HashMap<Long, Object> objectsNotInCache = new HashMap<>();
+            if (debugInteractions) {
+                System.out.println(System.currentTimeMillis() + " retrieving all " + className + " objects");
+            }
 
-        for (long longKey : classCounter.get(className.getSimpleName())) {
+            HashMap<Long, Object> objectsNotInCache = new HashMap<>();
 
-            if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+            for (long longKey : classCounter.get(className.getSimpleName())) {
 
-                return retrievingObjects;
+                if (waitingHandler != null && waitingHandler.isRunCanceled()) {
 
-            }
+                    return retrievingObjects;
 
-            Long zooid = idMap.get(longKey);
+                }
 
-            if (zooid != null) {
+                Long zooid = idMap.get(longKey);
 
-                Object obj = objectsCache.getObject(longKey);
+                if (zooid != null) {
 
-                if (obj == null) {
+                    Object obj = objectsCache.getObject(longKey);
 
-                    obj = pm.getObjectById(zooid);
-                    objectsNotInCache.put(longKey, obj);
+                    if (obj == null) {
 
-                }
+                        obj = getPersistedObject(longKey);
+                        objectsNotInCache.put(longKey, obj);
 
-                retrievingObjects.add(obj);
+                    }
 
+                    retrievingObjects.add(obj);
+
+                }
             }
-        }
 
-        objectsCache.addObjects(objectsNotInCache);
+            objectsCache.addObjects(objectsNotInCache);
 
-        dbMutex.release();
+        } finally {
+
+            dbMutex.release();
+
+        }
 
         return retrievingObjects;
     }
@@ -656,39 +1063,52 @@ public class ObjectsDB {
      */
     public void removeObjects(Collection<Long> keys, WaitingHandler waitingHandler, boolean displayProgress) {
 
-        dbMutex.acquire();
+        checkWritable();
 
-        if (debugInteractions) {
-            System.out.println(System.currentTimeMillis() + " removing " + keys.size() + " objects");
-        }
+        dbMutex.acquire();
 
-        for (long key : keys) {
+        try {
 
-            if (waitingHandler.isRunCanceled()) {
-                break;
+            if (debugInteractions) {
+                System.out.println(System.currentTimeMillis() + " removing " + keys.size() + " objects");
             }
 
-            Long zooid = idMap.get(key);
+            // objects queued for persistence must be persisted before deletion
+            objectsCache.flush();
 
-            if (zooid != null) {
+            for (long key : keys) {
 
-                String className = objectsCache.removeObject(key);
+                if (waitingHandler.isRunCanceled()) {
+                    break;
+                }
 
-                if (zooid != 0) {
+                Long zooid = idMap.get(key);
 
-                    Object obj = pm.getObjectById((zooid));
-                    pm.deletePersistent(obj);
-                    className = obj.getClass().getSimpleName();
+                if (zooid != null) {
 
-                }
+                    String className = objectsCache.removeObject(key);
 
-                classCounter.get(className).remove(key);
-                idMap.remove(key);
+                    if (zooid != 0) {
 
+                        pmMutex.acquire();
+                        Object obj = pm.getObjectById((zooid));
+                        pm.deletePersistent(obj);
+                        pmMutex.release();
+                        className = obj.getClass().getSimpleName();
+
+                    }
+
+                    classCounter.get(className).remove(key);
+                    idMap.remove(key);
+
+                }
             }
-        }
 
-        dbMutex.release();
+        } finally {
+
+            dbMutex.release();
+
+        }
 
     }
 
@@ -699,32 +1119,45 @@ public class ObjectsDB {
      */
     public void removeObject(long key) {
 
+        checkWritable();
+
         dbMutex.acquire();
 
-        if (debugInteractions) {
-            System.out.println(System.currentTimeMillis() + " removing object: " + key);
-        }
+        try {
+
+            if (debugInteractions) {
+                System.out.println(System.currentTimeMillis() + " removing object: " + key);
+            }
+
+            // objects queued for persistence must be persisted before deletion
+            objectsCache.flush();
+
+            Long zooid = idMap.get(key);
 
-        Long zooid = idMap.get(key);
+            if (zooid != null) {
 
-        if (zooid != null) {
+                String className = objectsCache.removeObject(key);
 
-            String className = objectsCache.removeObject(key);
+                if (zooid != 0) {
 
-            if (zooid != 0) {
+                    pmMutex.acquire();
+                    Object obj = pm.getObjectById(zooid);
+                    pm.deletePersistent(obj);
+                    pmMutex.release();
+                    className = obj.getClass().getSimpleName();
+
+                }
 
-                Object obj = pm.getObjectById(zooid);
-                pm.deletePersistent(obj);
-                className = obj.getClass().getSimpleName();
+                classCounter.get(className).remove(key);
+                idMap.remove(key);
 
             }
 
-            classCounter.get(className).remove(key);
-            idMap.remove(key);
+        } finally {
 
-        }
+            dbMutex.release();
 
-        dbMutex.release();
+        }
 
     }
 
@@ -737,6 +1170,12 @@ public class ObjectsDB {
      */
     public boolean inCache(long objectKey) {
 
+        if (readOnly) {
+
+            return readOnlyObjects.containsKey(objectKey);
+
+        }
+
         boolean isInCache;
 
         dbMutex.acquire();
@@ -782,20 +1221,28 @@ public class ObjectsDB {
 
         dbMutex.acquire();
 
-        if (debugInteractions) {
+        try {
 
-            System.out.println("locking database");
+            if (debugInteractions) {
 
-        }
+                System.out.println("locking database");
 
-        connectionActive = false;
+            }
 
-        objectsCache.saveCache(waitingHandler, false);
-        objectsCache.clearCache();
-        
-        pm.currentTransaction().commit();
+            connectionActive = false;
 
-        dbMutex.release();
+            objectsCache.saveCache(waitingHandler, false);
+            objectsCache.clearCache();
+
+            pmMutex.acquire();
+            pm.currentTransaction().commit();
+            pmMutex.release();
+
+        } finally {
+
+            dbMutex.release();
+
+        }
 
     }
 
@@ -813,7 +1260,9 @@ public class ObjectsDB {
         }
 
         connectionActive = true;
+        pmMutex.acquire();
         pm.currentTransaction().begin();
+        pmMutex.release();
 
         dbMutex.release();
 
@@ -837,34 +1286,46 @@ public class ObjectsDB {
 
         dbMutex.acquire();
 
-        if (debugInteractions) {
+        try {
 
-            System.out.println("closing database");
+            if (debugInteractions) {
 
-        }
+                System.out.println("closing database");
 
-        objectsCache.saveCache(null, clearing);
-        objectsCache.clearCache();
+            }
 
-        connectionActive = false;
-        pm.currentTransaction().commit();
+            objectsCache.saveCache(null, clearing);
+            objectsCache.setWriteBehind(false, 0, 0);
+            objectsCache.clearCache();
+            readOnlyObjects.clear();
+            readOnlyBytes.set(0);
+            readOnly = false;
 
-        if (pm.currentTransaction().isActive()) {
+            connectionActive = false;
+            pmMutex.acquire();
+            pm.currentTransaction().commit();
 
-            pm.currentTransaction().rollback();
+            if (pm.currentTransaction().isActive()) {
 
-        }
+                pm.currentTransaction().rollback();
 
-        pm.close();
-        pm.getPersistenceManagerFactory().close();
+            }
 
-        if (clearing) {
+            pm.close();
+            pm.getPersistenceManagerFactory().close();
+            pmMutex.release();
 
-            idMap.clear();
+            if (clearing) {
 
-        }
+                idMap.clear();
 
-        dbMutex.release();
+            }
+
+        } finally {
+
+            dbMutex.release();
+
+        }
 
     }
 
@@ -953,4 +1414,37 @@ public class ObjectsDB {
         debugInteractions = debug;
 
     }
+
+    /**
+     * An object retrieved in read-only mode and its estimated size.
+     */
+    private static class ReadOnlyEntry {
+
+        /**
+         * The object.
+         */
+        private final Object object;
+        /**
+         * The estimated memory used by the object in bytes.
+         */
+        private final long size;
+        /**
+         * Boolean indicating whether the object was accessed since the last
+         * trimming.
+         */
+        private volatile boolean referenced = false;
+
+        /**
+         * Constructor.
+         *
+         * @param object the object
+         * @param size the estimated memory used by the object in bytes
+         */
+        private ReadOnlyEntry(Object object, long size) {
+
+            this.object = object;
+            this.size = size;
+
+        }
+    }
 }
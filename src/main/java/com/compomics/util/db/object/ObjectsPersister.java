@@ -0,0 +1,301 @@
+package com.compomics.util.db.object;
+
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import javax.jdo.PersistenceManager;
+
+/**
+ * Write-behind persister for an objects database. The objects to save are
+ * queued and persisted in batches by a dedicated thread, one transaction per
+ * batch. Threads queuing objects only wait when the queue is full. Objects
+ * waiting to be persisted remain available through getPendingObject.
+ *
+ * @author Marc Vaudel
+ */
+public class ObjectsPersister {
+
+    /**
+     * The default capacity of the queue.
+     */
+    public static final int DEFAULT_QUEUE_SIZE = 100000;
+    /**
+     * The default number of objects persisted per transaction.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 10000;
+    /**
+     * The database where to persist the objects.
+     */
+    private final ObjectsDB objectsDB;
+    /**
+     * The objects waiting to be persisted.
+     */
+    private final ArrayBlockingQueue<PendingObject> queue;
+    /**
+     * The objects waiting to be persisted indexed by key.
+     */
+    private final ConcurrentHashMap<Long, Object> pendingObjects = new ConcurrentHashMap<>();
+    /**
+     * The maximal number of objects persisted per transaction.
+     */
+    private final int batchSize;
+    /**
+     * The persisting thread.
+     */
+    private final Thread persisterThread;
+    /**
+     * The number of objects queued.
+     */
+    private long nQueued = 0;
+    /**
+     * The number of objects processed by the persisting thread.
+     */
+    private long nProcessed = 0;
+    /**
+     * Error encountered by the persisting thread, null if none.
+     */
+    private Throwable error = null;
+
+    /**
+     * Constructor. The persisting thread is started.
+     *
+     * @param objectsDB the database where to persist the objects
+     * @param queueSize the capacity of the queue
+     * @param batchSize the maximal number of objects persisted per transaction
+     */
+    public ObjectsPersister(ObjectsDB objectsDB, int queueSize, int batchSize) {
+
+        this.objectsDB = objectsDB;
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.batchSize = batchSize;
+        this.persisterThread = new Thread(this::persist, "Objects persister " + objectsDB.getName());
+        persisterThread.setDaemon(true);
+        persisterThread.start();
+
+    }
+
+    /**
+     * Queues an object to be persisted. Waits if the queue is full, and throws
+     * the error of the persisting thread if it stopped.
+     *
+     * @param objectKey the key of the object
+     * @param object the object
+     */
+    public void queue(long objectKey, Object object) {
+
+        checkError();
+
+        pendingObjects.put(objectKey, object);
+        PendingObject pendingObject = new PendingObject(objectKey, object);
+
+        try {
+
+            while (!queue.offer(pendingObject, 100, TimeUnit.MILLISECONDS)) {
+
+                checkError();
+
+            }
+
+        } catch (InterruptedException e) {
+
+            pendingObjects.remove(objectKey, object);
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+
+        } catch (RuntimeException e) {
+
+            pendingObjects.remove(objectKey, object);
+            throw e;
+
+        }
+
+        synchronized (this) {
+
+            nQueued++;
+
+        }
+    }
+
+    /**
+     * Returns the object with the given key if waiting to be persisted, null
+     * otherwise.
+     *
+     * @param objectKey the key of the object
+     *
+     * @return the object waiting to be persisted
+     */
+    public Object getPendingObject(long objectKey) {
+        return pendingObjects.get(objectKey);
+    }
+
+    /**
+     * Removes an object from the objects waiting to be persisted.
+     *
+     * @param objectKey the key of the object
+     */
+    public void removePendingObject(long objectKey) {
+        pendingObjects.remove(objectKey);
+    }
+
+    /**
+     * Waits until all objects queued so far are persisted.
+     */
+    public synchronized void flush() {
+
+        long target = nQueued;
+
+        while (nProcessed < target && error == null) {
+
+            try {
+
+                wait();
+
+            } catch (InterruptedException e) {
+
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+
+            }
+        }
+
+        checkError();
+
+    }
+
+    /**
+     * Persists the queued objects and stops the persisting thread.
+     */
+    public void close() {
+
+        try {
+
+            flush();
+
+        } finally {
+
+            persisterThread.interrupt();
+
+        }
+    }
+
+    /**
+     * Throws the error encountered by the persisting thread, if any, as
+     * runtime exception.
+     */
+    private synchronized void checkError() {
+
+        if (error != null) {
+
+            throw new RuntimeException("An error occurred while persisting objects.", error);
+
+        }
+    }
+
+    /**
+     * Persists the queued objects in batches until interrupted.
+     */
+    private void persist() {
+
+        ArrayList<PendingObject> batch = new ArrayList<>(batchSize);
+
+        try {
+
+            while (true) {
+
+                batch.add(queue.take());
+                queue.drainTo(batch, batchSize - 1);
+
+                PersistenceManager pm = objectsDB.getDB();
+
+                objectsDB.getPmMutex().acquire();
+
+                try {
+
+                    for (PendingObject pendingObject : batch) {
+
+                        // objects removed in the meantime are not persisted
+                        if (pendingObjects.get(pendingObject.key) == pendingObject.object
+                                && !((DbObject) pendingObject.object).jdoZooIsPersistent()) {
+
+                            pm.makePersistent(pendingObject.object);
+
+                        }
+                    }
+
+                } finally {
+
+                    objectsDB.getPmMutex().release();
+
+                }
+
+                objectsDB.commit();
+
+                for (PendingObject pendingObject : batch) {
+
+                    DbObject dbObject = (DbObject) pendingObject.object;
+
+                    if (dbObject.jdoZooIsPersistent()) {
+
+                        objectsDB.getIdMap().replace(pendingObject.key, dbObject.jdoZooGetOid());
+
+                    }
+
+                    pendingObjects.remove(pendingObject.key, pendingObject.object);
+
+                }
+
+                synchronized (this) {
+
+                    nProcessed += batch.size();
+                    notifyAll();
+
+                }
+
+                batch.clear();
+
+            }
+
+        } catch (InterruptedException e) {
+
+            // Persister closed
+
+        } catch (Throwable t) {
+
+            synchronized (this) {
+
+                error = t;
+                notifyAll();
+
+            }
+        }
+    }
+
+    /**
+     * An object waiting to be persisted.
+     */
+    private static class PendingObject {
+
+        /**
+         * The key of the object.
+         */
+        private final long key;
+        /**
+         * The object.
+         */
+        private final Object object;
+
+        /**
+         * Constructor.
+         *
+         * @param key the key of the object
+         * @param object the object
+         */
+        private PendingObject(long key, Object object) {
+
+            this.key = key;
+            this.object = object;
+
+        }
+    }
+}
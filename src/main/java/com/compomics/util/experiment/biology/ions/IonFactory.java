@@ -18,13 +18,14 @@ import com.compomics.util.experiment.identification.amino_acid_tags.TagComponent
 import com.compomics.util.parameters.identification.search.ModificationParameters;
 import com.compomics.util.experiment.identification.spectrum_annotation.SpecificAnnotationParameters;
 import com.compomics.util.experiment.io.biology.protein.SequenceProvider;
-import com.compomics.util.experiment.personalization.ExperimentObject;
 import com.compomics.util.parameters.identification.advanced.SequenceMatchingParameters;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 /**
@@ -45,9 +46,10 @@ public class IonFactory {
      */
     private static HashSet<String> defaultNeutralLosses = null;
     /**
-     * Cache for the possible combinations of neutral losses.
+     * The tables of neutral losses combinations indexed by the names of the
+     * neutral losses.
      */
-    private final HashMap<Long, NeutralLossCombination[]> neutralLossesCombinationsCache = new HashMap<>(4);
+    private final ConcurrentHashMap<String, NeutralLossesTable> neutralLossesTables = new ConcurrentHashMap<>(4);
     /**
      * Cache for the mass of NH3.
      */
@@ -1282,75 +1284,34 @@ public class IonFactory {
      * @return the possible neutral losses combinations
      */
     public NeutralLossCombination[] getNeutralLossesCombinations(HashSet<String> possibleNeutralLosses) {
-
-        long lossesKey = getNeutralLossesKey(possibleNeutralLosses);
-        NeutralLossCombination[] neutralLossesCombinations = neutralLossesCombinationsCache.get(lossesKey);
-
-        if (neutralLossesCombinations == null) {
-
-            ArrayList<NeutralLoss[]> neutralLossesCombinationsLists = estimateNeutralLossesCombinations(possibleNeutralLosses);
-            neutralLossesCombinations = new NeutralLossCombination[neutralLossesCombinationsLists.size()];
-            for (int i = 0; i < neutralLossesCombinationsLists.size(); i++) {
-                NeutralLoss[] combination = neutralLossesCombinationsLists.get(i);
-                NeutralLossCombination combinationObject = new NeutralLossCombination(combination);
-                neutralLossesCombinations[i] = combinationObject;
-            }
-            neutralLossesCombinationsCache.put(lossesKey, neutralLossesCombinations);
-        }
-        return neutralLossesCombinations;
+        return getNeutralLossesTable(possibleNeutralLosses).getCombinations();
     }
 
     /**
-     * Convenience method returning the possible neutral losses combination as
-     * accounted by the factory, i.e., for now up to two neutral losses per
-     * peak.
+     * Returns the table of the combinations of up to two neutral losses for
+     * the given neutral losses. Tables are computed once and shared between
+     * threads.
      *
-     * @param possibleNeutralLosses the possible neutral losses
+     * @param possibleNeutralLosses the names of the possible neutral losses
      *
-     * @return the possible combinations
+     * @return the table of neutral losses combinations
      */
-    private ArrayList<NeutralLoss[]> estimateNeutralLossesCombinations(HashSet<String> possibleNeutralLosses) {
-
-        String[] lossesNames = possibleNeutralLosses.stream().sorted().toArray(String[]::new);
-
-        // We will account for up to two neutral losses per ion maximum
-        ArrayList<NeutralLoss[]> neutralLossesCombinations = new ArrayList<>();
-        NeutralLoss[] tempList = new NeutralLoss[0];
-        neutralLossesCombinations.add(tempList);
+    public NeutralLossesTable getNeutralLossesTable(Collection<String> possibleNeutralLosses) {
 
-        for (int i = 0; i < lossesNames.length; i++) {
+        String key = NeutralLossesTable.getKey(possibleNeutralLosses);
+        NeutralLossesTable neutralLossesTable = neutralLossesTables.get(key);
 
-            String name1 = lossesNames[i];
-            NeutralLoss neutralLoss1 = NeutralLoss.getNeutralLoss(name1);
-            tempList = new NeutralLoss[1];
-            tempList[0] = neutralLoss1;
-            neutralLossesCombinations.add(tempList);
+        if (neutralLossesTable == null) {
 
-            for (int j = i + 1; j < lossesNames.length; j++) {
-
-                String name2 = lossesNames[j];
-                tempList = new NeutralLoss[2];
-                tempList[0] = neutralLoss1;
-                tempList[1] = NeutralLoss.getNeutralLoss(name2);
-                neutralLossesCombinations.add(tempList);
+            neutralLossesTable = new NeutralLossesTable(possibleNeutralLosses);
+            NeutralLossesTable previousTable = neutralLossesTables.putIfAbsent(key, neutralLossesTable);
 
+            if (previousTable != null) {
+                neutralLossesTable = previousTable;
             }
         }
 
-        return neutralLossesCombinations;
-    }
-
-    /**
-     * Returns the neutral losses combination cache key corresponding to a set
-     * of neutral losses.
-     *
-     * @param possibleNeutralLosses the possible neutral losses
-     *
-     * @return the corresponding cache key
-     */
-    private long getNeutralLossesKey(HashSet<String> possibleNeutralLosses) {
-        return ExperimentObject.asLong(possibleNeutralLosses.stream()
-                .collect(Collectors.joining()));
+        return neutralLossesTable;
     }
 
     /**
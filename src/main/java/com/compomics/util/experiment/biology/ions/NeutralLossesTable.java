@@ -0,0 +1,205 @@
+package com.compomics.util.experiment.biology.ions;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+
+/**
+ * Immutable table of the combinations of up to two neutral losses that can
+ * be drawn from a set of neutral losses. The first combination is the empty
+ * combination. A loss given more than once, e.g. by the sequence and by a
+ * modification, is also combined with itself. The masses and losses of the combinations are stored in
+ * arrays so that they can be applied without handling sets or lists, and the
+ * table can be shared between threads.
+ *
+ * @author Marc Vaudel
+ */
+public class NeutralLossesTable {
+
+    /**
+     * The names of the distinct neutral losses sorted alphabetically.
+     */
+    private final String[] lossesNames;
+    /**
+     * The combinations of neutral losses.
+     */
+    private final NeutralLossCombination[] combinations;
+    /**
+     * The mass of every combination.
+     */
+    private final double[] masses;
+    /**
+     * The first loss of every combination, null for the empty combination.
+     */
+    private final NeutralLoss[] firstLosses;
+    /**
+     * The second loss of every combination, null if less than two losses.
+     */
+    private final NeutralLoss[] secondLosses;
+
+    /**
+     * Constructor.
+     *
+     * @param possibleNeutralLosses the names of the possible neutral losses
+     * as registered in the NeutralLoss class, a name present more than once
+     * is combined with itself
+     */
+    public NeutralLossesTable(Collection<String> possibleNeutralLosses) {
+
+        String[] names = getSortedNames(possibleNeutralLosses);
+        lossesNames = Arrays.stream(names).distinct().toArray(String[]::new);
+
+        HashSet<String> repeatedNames = new HashSet<>(names.length - lossesNames.length);
+
+        for (int i = 1; i < names.length; i++) {
+            if (names[i].equals(names[i - 1])) {
+                repeatedNames.add(names[i]);
+            }
+        }
+
+        int nLosses = lossesNames.length;
+        int nCombinations = 1 + nLosses + nLosses * (nLosses - 1) / 2 + repeatedNames.size();
+
+        combinations = new NeutralLossCombination[nCombinations];
+        masses = new double[nCombinations];
+        firstLosses = new NeutralLoss[nCombinations];
+        secondLosses = new NeutralLoss[nCombinations];
+
+        combinations[0] = new NeutralLossCombination(new NeutralLoss[0]);
+        int index = 1;
+
+        for (int i = 0; i < nLosses; i++) {
+
+            NeutralLoss neutralLoss1 = NeutralLoss.getNeutralLoss(lossesNames[i]);
+            set(index++, new NeutralLoss[]{neutralLoss1});
+
+            if (repeatedNames.contains(lossesNames[i])) {
+                set(index++, new NeutralLoss[]{neutralLoss1, neutralLoss1});
+            }
+
+            for (int j = i + 1; j < nLosses; j++) {
+
+                NeutralLoss neutralLoss2 = NeutralLoss.getNeutralLoss(lossesNames[j]);
+                set(index++, new NeutralLoss[]{neutralLoss1, neutralLoss2});
+
+            }
+        }
+    }
+
+    /**
+     * Sets the combination at the given index.
+     *
+     * @param index the index of the combination
+     * @param neutralLosses the neutral losses of the combination
+     */
+    private void set(int index, NeutralLoss[] neutralLosses) {
+
+        NeutralLossCombination combination = new NeutralLossCombination(neutralLosses);
+        combinations[index] = combination;
+        masses[index] = combination.getMass();
+        firstLosses[index] = neutralLosses[0];
+
+        if (neutralLosses.length > 1) {
+            secondLosses[index] = neutralLosses[1];
+        }
+    }
+
+    /**
+     * Returns the key of the table corresponding to the given neutral losses.
+     * Collections giving the same table have the same key.
+     *
+     * @param possibleNeutralLosses the names of the possible neutral losses
+     *
+     * @return the key of the table
+     */
+    public static String getKey(Collection<String> possibleNeutralLosses) {
+        return String.join("|", getSortedNames(possibleNeutralLosses));
+    }
+
+    /**
+     * Returns the given names sorted alphabetically where every name is kept
+     * at most twice, as only combinations of up to two losses are considered.
+     *
+     * @param possibleNeutralLosses the names of the possible neutral losses
+     *
+     * @return the sorted names
+     */
+    private static String[] getSortedNames(Collection<String> possibleNeutralLosses) {
+
+        String[] names = possibleNeutralLosses.toArray(new String[possibleNeutralLosses.size()]);
+        Arrays.sort(names);
+
+        int nNames = 0;
+
+        for (String name : names) {
+            if (nNames < 2 || !name.equals(names[nNames - 2])) {
+                names[nNames++] = name;
+            }
+        }
+
+        return Arrays.copyOf(names, nNames);
+    }
+
+    /**
+     * Returns the number of combinations including the empty combination.
+     *
+     * @return the number of combinations
+     */
+    public int size() {
+        return combinations.length;
+    }
+
+    /**
+     * Returns the number of neutral losses.
+     *
+     * @return the number of neutral losses
+     */
+    public int getNLosses() {
+        return lossesNames.length;
+    }
+
+    /**
+     * Returns the combinations of neutral losses. The array is shared and
+     * must not be modified.
+     *
+     * @return the combinations of neutral losses
+     */
+    public NeutralLossCombination[] getCombinations() {
+        return combinations;
+    }
+
+    /**
+     * Returns the mass of the combination at the given index.
+     *
+     * @param index the index of the combination
+     *
+     * @return the mass of the combination
+     */
+    public double getMass(int index) {
+        return masses[index];
+    }
+
+    /**
+     * Returns the first loss of the combination at the given index, null for
+     * the empty combination.
+     *
+     * @param index the index of the combination
+     *
+     * @return the first loss of the combination
+     */
+    public NeutralLoss getFirstLoss(int index) {
+        return firstLosses[index];
+    }
+
+    /**
+     * Returns the second loss of the combination at the given index, null if
+     * the combination has less than two losses.
+     *
+     * @param index the index of the combination
+     *
+     * @return the second loss of the combination
+     */
+    public NeutralLoss getSecondLoss(int index) {
+        return secondLosses[index];
+    }
+}
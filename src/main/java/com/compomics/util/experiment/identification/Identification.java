@@ -69,6 +69,28 @@ public class Identification extends ExperimentObject {
         return objectsDB;
     }
 
+    /**
+     * Indicates whether the identification is in read-only mode.
+     *
+     * @return a boolean indicating whether the identification is in read-only
+     * mode
+     */
+    public boolean isReadOnly() {
+        return objectsDB.isReadOnly();
+    }
+
+    /**
+     * Sets the read-only mode. In read-only mode, the matches can be retrieved
+     * in parallel from multiple threads without locking, but no match can be
+     * added or removed. Use this mode to browse or export a finished project.
+     *
+     * @param readOnly boolean indicating whether the identification should be
+     * in read-only mode
+     */
+    public void setReadOnly(boolean readOnly) {
+        objectsDB.setReadOnly(readOnly);
+    }
+
     /**
      * Returns the identification keys.
      * 
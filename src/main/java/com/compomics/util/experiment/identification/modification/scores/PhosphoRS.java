@@ -7,9 +7,9 @@ import com.compomics.util.experiment.biology.ions.NeutralLoss;
 import com.compomics.util.experiment.biology.modifications.Modification;
 import com.compomics.util.experiment.biology.proteins.Peptide;
 import com.compomics.util.experiment.identification.spectrum_annotation.NeutralLossesMap;
-import com.compomics.util.experiment.identification.matches.IonMatch;
 import com.compomics.util.experiment.identification.matches.ModificationMatch;
 import com.compomics.util.experiment.identification.spectrum_annotation.spectrum_annotators.PeptideSpectrumAnnotator;
+import com.compomics.util.experiment.mass_spectrometry.indexes.SpectrumIndex;
 import com.compomics.util.experiment.mass_spectrometry.spectra.Peak;
 import com.compomics.util.experiment.mass_spectrometry.spectra.Spectrum;
 import com.compomics.util.math.statistics.distributions.BinomialDistribution;
@@ -21,6 +21,7 @@ import com.compomics.util.experiment.io.biology.protein.SequenceProvider;
 import com.compomics.util.experiment.personalization.ExperimentObject;
 import com.compomics.util.math.BasicMathFunctions;
 import com.compomics.util.parameters.identification.search.ModificationParameters;
+import com.compomics.util.waiting.WaitingHandler;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -28,8 +29,12 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map.Entry;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 import org.apache.commons.math.util.FastMath;
 
 /**
@@ -70,6 +75,10 @@ public class PhosphoRS {
      * The binomial distributions cache.
      */
     private static final HashMap<Double, HashMap<Integer, BinomialDistribution>> distributionCache = new HashMap<Double, HashMap<Integer, BinomialDistribution>>();
+    /**
+     * Margin in m/z used when selecting the ions that can match a window.
+     */
+    private static final double MZ_MARGIN = 0.001;
 
     /**
      * Returns the PhosphoRS sequence probabilities for the modification
@@ -88,7 +97,6 @@ public class PhosphoRS {
      * @param modificationParameters the modification parameters
      * @param spectrum the corresponding spectrum
      * @param sequenceProvider a provider for the protein sequences
-     * @param annotationSettings the global annotation settings
      * @param specificAnnotationSettings the annotation settings specific to
      * this peptide and spectrum
      * @param accountNeutralLosses a boolean indicating whether or not the
@@ -102,7 +110,7 @@ public class PhosphoRS {
      *
      * @return a map site &gt; phosphoRS site probability
      */
-    public static HashMap<Integer, Double> getSequenceProbabilities(Peptide peptide, ArrayList<Modification> modifications, ModificationParameters modificationParameters, Spectrum spectrum, SequenceProvider sequenceProvider, AnnotationParameters annotationSettings,
+    public static HashMap<Integer, Double> getSequenceProbabilities(Peptide peptide, ArrayList<Modification> modifications, ModificationParameters modificationParameters, Spectrum spectrum, SequenceProvider sequenceProvider,
             SpecificAnnotationParameters specificAnnotationSettings, boolean accountNeutralLosses, SequenceMatchingParameters sequenceMatchingParameters,
             SequenceMatchingParameters modificationSequenceMatchingParameters, PeptideSpectrumAnnotator spectrumAnnotator) {
 
@@ -189,11 +197,17 @@ public class PhosphoRS {
 
             HashMap<Long, Peptide> profileToPeptide = getPossiblePeptidesMap(peptide, modNames, possibleProfileKeys, possibleProfiles);
             HashMap<Long, HashMap<Integer, HashMap<Integer, ArrayList<Ion>>>> profileToPossibleFragments = getPossiblePeptideFragments(profileToPeptide, scoringAnnotationParameters, modificationParameters, sequenceProvider, modificationSequenceMatchingParameters);
-            HashMap<Long, Integer> profileToN = getPossiblePeptideToN(profileToPeptide, profileToPossibleFragments, spectrumAnnotator, scoringAnnotationParameters, modificationParameters, sequenceProvider, modificationSequenceMatchingParameters);
+            PermutationLadders permutationLadders = new PermutationLadders(possibleProfileKeys, profileToPeptide, profileToPossibleFragments, spectrumAnnotator, scoringAnnotationParameters, modificationParameters, sequenceProvider, modificationSequenceMatchingParameters);
 
-            HashMap<Double, ArrayList<Long>> siteDeterminingIonsMap = getSiteDeterminingIons(profileToPeptide, spectrumAnnotator, scoringAnnotationParameters, modificationParameters, sequenceProvider, modificationSequenceMatchingParameters);
+            HashMap<Double, ArrayList<Long>> siteDeterminingIonsMap = getSiteDeterminingIons(profileToPeptide, profileToPossibleFragments, spectrumAnnotator, scoringAnnotationParameters, modificationParameters, sequenceProvider, modificationSequenceMatchingParameters);
             ArrayList<Double> siteDeterminingIons = new ArrayList<>(siteDeterminingIonsMap.keySet());
 
+            double fragmentIonAccuracy = scoringAnnotationParameters.getFragmentIonAccuracy();
+            boolean fragmentIonPpm = scoringAnnotationParameters.isFragmentIonPpm();
+            Peak[] matchingPeaks = new Peak[MAX_DEPTH + 1];
+            double[] peptideMzs = null;
+            int nPeptideIons = 0;
+
             double minMz = spectrum.getMinMz(), maxMz = spectrum.getMaxMz(), tempMax;
 
             HashMap<Double, Peak> reducedSpectrum = new HashMap<>();
@@ -220,10 +234,16 @@ public class PhosphoRS {
 
                 if (!extractedPeakList.isEmpty()) {
 
-                    Spectrum tempSpectrum = new Spectrum(spectrum.getLevel(), spectrum.getPrecursor(), spectrum.getSpectrumTitle()
-                            + "_PhosphoRS_minMZ_" + minMz, extractedPeakList, spectrum.getFileName());
+                    // The reduced spectra of the different depths are nested, a single index of the most intense peaks is used for all depths
+                    Peak[] rankedPeaks = getRankedPeaks(extractedPeakList);
+                    int nDepths = rankedPeaks.length;
+                    HashMap<Double, Peak> rankedPeaksMap = new HashMap<>(nDepths);
 
-                    ArrayList<Spectrum> spectra = getReducedSpectra(tempSpectrum);
+                    for (Peak peak : rankedPeaks) {
+                        rankedPeaksMap.put(peak.mz, peak);
+                    }
+
+                    SpectrumIndex windowIndex = new SpectrumIndex(rankedPeaksMap, 0.0, fragmentIonAccuracy, fragmentIonPpm);
 
                     HashMap<Long, HashSet<Double>> profileToSiteDeterminingIonsMz = new HashMap<>(siteDeterminingIons.size());
                     for (double ionMz : siteDeterminingIons) {
@@ -242,45 +262,43 @@ public class PhosphoRS {
 
                     if (!profileToSiteDeterminingIonsMz.isEmpty()) {
 
-                        ArrayList<ArrayList<Double>> deltas = new ArrayList<>(spectra.size());
+                        // Select the profiles to score, profiles sharing the same site determining ions get the same score
+                        ArrayList<Integer> scoredProfiles = new ArrayList<>(possibleProfileKeys.length);
+                        ArrayList<HashSet<Double>> scored = new ArrayList<>(possibleProfileKeys.length);
+                        boolean profileWithNoSiteDeterminingIonsScored = false;
+                        for (int i = 0; i < possibleProfileKeys.length; i++) {
+                            HashSet<Double> tempSiteDeterminingIons = profileToSiteDeterminingIonsMz.get(possibleProfileKeys[i]);
+                            if (tempSiteDeterminingIons == null) {
+                                if (!profileWithNoSiteDeterminingIonsScored) {
+                                    profileWithNoSiteDeterminingIonsScored = true;
+                                    scoredProfiles.add(i);
+                                }
+                            } else if (!scored.contains(tempSiteDeterminingIons)) {
+                                scoredProfiles.add(i);
+                                scored.add(tempSiteDeterminingIons);
+                            }
+                        }
+
+                        // Match the shared ions once and the ions specific to every profile, at all depths
+                        int[] sharedMatches = getMatchesPerDepth(permutationLadders.sharedMzs, windowIndex, rankedPeaks, matchingPeaks);
+                        int[][] specificMatches = new int[scoredProfiles.size()][];
+                        for (int j = 0; j < scoredProfiles.size(); j++) {
+                            specificMatches[j] = getMatchesPerDepth(permutationLadders.specificMzs[scoredProfiles.get(j)], windowIndex, rankedPeaks, matchingPeaks);
+                        }
+
+                        ArrayList<ArrayList<Double>> deltas = new ArrayList<>(nDepths);
                         int nDeltas = 0;
 
-                        for (Spectrum currentSpectrum : spectra) {
+                        for (int depth = 0; depth < nDepths; depth++) {
                             TreeSet<Double> bigPs = new TreeSet<>();
-                            ArrayList<Double> currentDeltas = new ArrayList<>(possibleProfileKeys.length);
-                            ArrayList<HashSet<Double>> scored = new ArrayList<>(possibleProfileKeys.length);
-                            boolean profileWithNoSiteDeterminingIonsScored = false;
-                            double currentP = getp(currentSpectrum, WINDOW_SIZE, d, nDecimals);
-                            for (long profileKey : possibleProfileKeys) {
-                                HashSet<Double> tempSiteDeterminingIons = profileToSiteDeterminingIonsMz.get(profileKey);
-                                if (tempSiteDeterminingIons == null) {
-                                    if (!profileWithNoSiteDeterminingIonsScored) {
-                                        profileWithNoSiteDeterminingIonsScored = true;
-                                        Peptide tempPeptide = profileToPeptide.get(profileKey);
-                                        HashMap<Integer, HashMap<Integer, ArrayList<Ion>>> possibleFragmentIons = profileToPossibleFragments.get(profileKey);
-                                        int n = profileToN.get(profileKey);
-                                        double bigP = getPhosphoRsScoreP(tempPeptide, possibleFragmentIons, currentSpectrum, currentP, n, spectrumAnnotator, annotationSettings, scoringAnnotationParameters, modificationParameters, sequenceProvider, modificationSequenceMatchingParameters);
-                                        BasicMathFunctions.checkProbabilityRange(bigP);
-                                        bigPs.add(bigP);
-                                    }
-                                } else {
-                                    boolean alreadyScored = false;
-                                    for (HashSet<Double> scoredIons : scored) {
-                                        if (tempSiteDeterminingIons.equals(scoredIons)) {
-                                            alreadyScored = true;
-                                            break;
-                                        }
-                                    }
-                                    if (!alreadyScored) {
-                                        Peptide tempPeptide = profileToPeptide.get(profileKey);
-                                        int n = profileToN.get(profileKey);
-                                        HashMap<Integer, HashMap<Integer, ArrayList<Ion>>> possibleFragmentIons = profileToPossibleFragments.get(profileKey);
-                                        double bigP = getPhosphoRsScoreP(tempPeptide, possibleFragmentIons, currentSpectrum, currentP, n, spectrumAnnotator, annotationSettings, scoringAnnotationParameters, modificationParameters, sequenceProvider, modificationSequenceMatchingParameters);
-                                        BasicMathFunctions.checkProbabilityRange(bigP);
-                                        bigPs.add(bigP);
-                                        scored.add(tempSiteDeterminingIons);
-                                    }
-                                }
+                            ArrayList<Double> currentDeltas = new ArrayList<>(scoredProfiles.size());
+                            double currentP = getp(depth + 1, WINDOW_SIZE, d, nDecimals);
+                            for (int j = 0; j < scoredProfiles.size(); j++) {
+                                int n = permutationLadders.nExpectedIons[scoredProfiles.get(j)];
+                                int k = sharedMatches[depth] + specificMatches[j][depth];
+                                double bigP = getPhosphoRsScoreP(currentP, n, k);
+                                BasicMathFunctions.checkProbabilityRange(bigP);
+                                bigPs.add(bigP);
                             }
                             double[] bigPArray = bigPs.stream().mapToDouble(a -> a).toArray();
                             for (int j = 0; j < bigPArray.length - 1; j++) {
@@ -308,35 +326,39 @@ public class PhosphoRS {
                             }
                         }
 
-                        if (bestI < MIN_DEPTH - 1 && MIN_DEPTH - 1 < spectra.size()) {
+                        if (bestI < MIN_DEPTH - 1 && MIN_DEPTH - 1 < nDepths) {
                             bestI = MIN_DEPTH - 1;
                         }
                         if (bestI > MAX_DEPTH - 1) {
                             bestI = MAX_DEPTH - 1;
                         }
 
-                        reducedSpectrum.putAll(spectra.get(bestI).getPeakMap());
+                        for (int i = 0; i <= bestI; i++) {
+                            reducedSpectrum.put(rankedPeaks[i].mz, rankedPeaks[i]);
+                        }
 
                     } else {
 
-                        double bestP = 0.0;
-                        int bestI = 0;
+                        if (peptideMzs == null) {
 
-                        HashMap<Integer, ArrayList<Ion>> expectedFragmentIons = spectrumAnnotator.getExpectedIons(scoringAnnotationParameters, peptide, modificationParameters, sequenceProvider, modificationSequenceMatchingParameters);
-                        int nExpectedFragmentIons = 0;
+                            HashMap<Integer, HashMap<Integer, ArrayList<Ion>>> possibleFragmentIons = IonFactory.getInstance().getFragmentIons(peptide, scoringAnnotationParameters, modificationParameters, sequenceProvider, modificationSequenceMatchingParameters);
+                            HashMap<Integer, ArrayList<Ion>> expectedFragmentIons = spectrumAnnotator.getExpectedIons(scoringAnnotationParameters, peptide, modificationParameters, sequenceProvider, modificationSequenceMatchingParameters, possibleFragmentIons);
+                            nPeptideIons = expectedFragmentIons.values().stream()
+                                    .mapToInt(ArrayList::size)
+                                    .sum();
+                            peptideMzs = getFragmentIonsMzs(expectedFragmentIons);
 
-                        for (ArrayList<Ion> expectedIons : expectedFragmentIons.values()) {
-                            nExpectedFragmentIons += expectedIons.size();
                         }
 
-                        IonFactory fragmentFactory = IonFactory.getInstance();
-                        HashMap<Integer, HashMap<Integer, ArrayList<Ion>>> possibleFragmentIons = fragmentFactory.getFragmentIons(peptide, scoringAnnotationParameters, modificationParameters, sequenceProvider, modificationSequenceMatchingParameters);
+                        int[] peptideMatches = getMatchesPerDepth(peptideMzs, windowIndex, rankedPeaks, matchingPeaks);
 
-                        for (int i = 0; i < spectra.size(); i++) {
+                        double bestP = 0.0;
+                        int bestI = 0;
 
-                            Spectrum currentSpectrum = spectra.get(i);
-                            double currentP = getp(currentSpectrum, WINDOW_SIZE, d, nDecimals);
-                            double bigP = getPhosphoRsScoreP(peptide, possibleFragmentIons, currentSpectrum, currentP, nExpectedFragmentIons, spectrumAnnotator, annotationSettings, scoringAnnotationParameters, modificationParameters, sequenceProvider, modificationSequenceMatchingParameters);
+                        for (int i = 0; i < nDepths; i++) {
+
+                            double currentP = getp(i + 1, WINDOW_SIZE, d, nDecimals);
+                            double bigP = getPhosphoRsScoreP(currentP, nPeptideIons, peptideMatches[i]);
                             BasicMathFunctions.checkProbabilityRange(bigP);
 
                             if (bigP < bestP) {
@@ -346,7 +368,9 @@ public class PhosphoRS {
                             }
                         }
 
-                        reducedSpectrum.putAll(spectra.get(bestI).getPeakMap());
+                        for (int i = 0; i <= bestI; i++) {
+                            reducedSpectrum.put(rankedPeaks[i].mz, rankedPeaks[i]);
+                        }
                     }
                 }
 
@@ -354,6 +378,7 @@ public class PhosphoRS {
             }
 
             Spectrum phosphoRsSpectrum = new Spectrum(spectrum.getLevel(), spectrum.getPrecursor(), spectrum.getSpectrumTitle() + "_phosphoRS", reducedSpectrum, spectrum.getFileName());
+            SpectrumIndex phosphoRsSpectrumIndex = new SpectrumIndex(reducedSpectrum, 0.0, fragmentIonAccuracy, fragmentIonPpm);
 
             double w = spectrum.getMaxMz() - spectrum.getMinMz();
             if (specificAnnotationSettings.isFragmentIonPpm()) {
@@ -366,13 +391,12 @@ public class PhosphoRS {
             double currentP = getp(phosphoRsSpectrum, w, d, nDecimals);
             double[] pInvs = new double[possibleProfileKeys.length];
             double pInvTotal = 0.0;
+            int sharedMatches = getMatches(permutationLadders.sharedMzs, phosphoRsSpectrumIndex, matchingPeaks);
 
             for (int i = 0; i < possibleProfileKeys.length; i++) {
-                long profileKey = possibleProfileKeys[i];
-                Peptide tempPeptide = profileToPeptide.get(profileKey);
-                Integer n = profileToN.get(profileKey);
-                HashMap<Integer, HashMap<Integer, ArrayList<Ion>>> possibleFragmentIons = profileToPossibleFragments.get(profileKey);
-                double bigP = getPhosphoRsScoreP(tempPeptide, possibleFragmentIons, phosphoRsSpectrum, currentP, n, spectrumAnnotator, annotationSettings, scoringAnnotationParameters, modificationParameters, sequenceProvider, modificationSequenceMatchingParameters);
+                int n = permutationLadders.nExpectedIons[i];
+                int k = sharedMatches + getMatches(permutationLadders.specificMzs[i], phosphoRsSpectrumIndex, matchingPeaks);
+                double bigP = getPhosphoRsScoreP(currentP, n, k);
                 BasicMathFunctions.checkProbabilityRange(bigP);
                 double pInv = 1.0 / bigP;
                 pInvs[i] = pInv;
@@ -426,49 +450,151 @@ public class PhosphoRS {
     }
 
     /**
-     * Returns the PhosphoRS score of the given peptide on the given spectrum.
-     * This method returns P and not -10.log(P).
+     * Returns the PhosphoRS sequence probabilities for the modification
+     * possible locations, see getSequenceProbabilities for details.
      *
+     * @deprecated the global annotation settings are not used, use the method
+     * without annotation settings instead
      * @param peptide the peptide of interest
-     * @param spectrum the spectrum of interest
-     * @param p the probability for a calculated fragment matching one of the
-     * experimental masses by chance as estimated by PhosphoRS
-     * @param n the number of expected ions
-     * @param spectrumAnnotator spectrum annotator
-     * @param annotationSettings the global annotation settings
-     * @param scoringAnnotationSettings the annotation settings specific to this
-     * peptide and spectrum
+     * @param modifications the modifications to score, for instance different
+     * phosphorylations (the modifications are considered as indistinguishable,
+     * i.e. of same mass)
      * @param modificationParameters the modification parameters
+     * @param spectrum the corresponding spectrum
      * @param sequenceProvider a provider for the protein sequences
+     * @param annotationSettings the global annotation settings, not used
+     * @param specificAnnotationSettings the annotation settings specific to
+     * this peptide and spectrum
+     * @param accountNeutralLosses a boolean indicating whether or not the
+     * calculation shall account for neutral losses.
+     * @param sequenceMatchingParameters the sequence matching preferences for
+     * peptide to protein mapping
      * @param modificationSequenceMatchingParameters the sequence matching
      * preferences for modification to peptide mapping
+     * @param spectrumAnnotator the peptide spectrum annotator to use for
+     * spectrum annotation, can be null
      *
-     * @return the phosphoRS score
+     * @return a map site &gt; phosphoRS site probability
      */
-    private static double getPhosphoRsScoreP(Peptide peptide, HashMap<Integer, HashMap<Integer, ArrayList<Ion>>> possiblePeptideFragments,
-            Spectrum spectrum, double p, int n, PeptideSpectrumAnnotator spectrumAnnotator,
-            AnnotationParameters annotationSettings, SpecificAnnotationParameters scoringAnnotationSettings,
-            ModificationParameters modificationParameters, SequenceProvider sequenceProvider, SequenceMatchingParameters modificationSequenceMatchingParameters) {
+    @Deprecated
+    public static HashMap<Integer, Double> getSequenceProbabilities(Peptide peptide, ArrayList<Modification> modifications, ModificationParameters modificationParameters, Spectrum spectrum, SequenceProvider sequenceProvider, AnnotationParameters annotationSettings,
+            SpecificAnnotationParameters specificAnnotationSettings, boolean accountNeutralLosses, SequenceMatchingParameters sequenceMatchingParameters,
+            SequenceMatchingParameters modificationSequenceMatchingParameters, PeptideSpectrumAnnotator spectrumAnnotator) {
 
-        BinomialDistribution distribution = null;
-        HashMap<Integer, BinomialDistribution> distributionsAtP = distributionCache.get(p);
-        boolean inCache = true;
-        if (distributionsAtP != null) {
-            distribution = distributionsAtP.get(n);
+        return getSequenceProbabilities(peptide, modifications, modificationParameters, spectrum, sequenceProvider, specificAnnotationSettings,
+                accountNeutralLosses, sequenceMatchingParameters, modificationSequenceMatchingParameters, spectrumAnnotator);
+
+    }
+
+    /**
+     * Returns the PhosphoRS sequence probabilities for a batch of peptide
+     * spectrum matches, see getSequenceProbabilities for details. The matches
+     * are localized in parallel, every thread using its own spectrum
+     * annotator. The results are returned in the order of the given matches.
+     *
+     * @param peptides the peptides of interest
+     * @param spectra the corresponding spectra
+     * @param specificAnnotationParameters the annotation settings specific to
+     * every peptide and spectrum
+     * @param modifications the modifications to score, for instance different
+     * phosphorylations (the modifications are considered as indistinguishable,
+     * i.e. of same mass)
+     * @param modificationParameters the modification parameters
+     * @param sequenceProvider a provider for the protein sequences
+     * @param accountNeutralLosses a boolean indicating whether or not the
+     * calculation shall account for neutral losses.
+     * @param sequenceMatchingParameters the sequence matching preferences for
+     * peptide to protein mapping
+     * @param modificationSequenceMatchingParameters the sequence matching
+     * preferences for modification to peptide mapping
+     * @param nThreads the number of threads to use
+     * @param waitingHandler a waiting handler to display progress and allow
+     * canceling the process, can be null
+     *
+     * @return a list of the maps site &gt; phosphoRS site probability of every
+     * match, null if the process was canceled
+     *
+     * @throws InterruptedException exception thrown if a thread gets
+     * interrupted
+     * @throws ExecutionException exception thrown if an error occurred while
+     * scoring the matches
+     */
+    public static ArrayList<HashMap<Integer, Double>> getSequenceProbabilities(Peptide[] peptides, Spectrum[] spectra, SpecificAnnotationParameters[] specificAnnotationParameters,
+            ArrayList<Modification> modifications, ModificationParameters modificationParameters, SequenceProvider sequenceProvider,
+            boolean accountNeutralLosses, SequenceMatchingParameters sequenceMatchingParameters, SequenceMatchingParameters modificationSequenceMatchingParameters,
+            int nThreads, WaitingHandler waitingHandler) throws InterruptedException, ExecutionException {
+
+        int nMatches = peptides.length;
+
+        if (spectra.length != nMatches || specificAnnotationParameters.length != nMatches) {
+            throw new IllegalArgumentException("The number of peptides (" + nMatches + "), spectra (" + spectra.length + "), and annotation parameters (" + specificAnnotationParameters.length + ") differ.");
         }
-        if (distribution == null) {
-            distribution = new BinomialDistribution(n, p);
-            inCache = false;
+
+        if (waitingHandler != null) {
+
+            waitingHandler.resetSecondaryProgressCounter();
+            waitingHandler.setMaxSecondaryProgressCounter(nMatches);
+
         }
 
-        Stream<IonMatch> matches = spectrumAnnotator.getSpectrumAnnotationStream(annotationSettings, scoringAnnotationSettings, spectrum, peptide, modificationParameters, sequenceProvider, modificationSequenceMatchingParameters, possiblePeptideFragments, false);
-        int k = (int) matches
-                .filter(ionMatch -> ionMatch.ion.getType() == Ion.IonType.PEPTIDE_FRAGMENT_ION)
-                .count();
+        ArrayList<HashMap<Integer, Double>> results = new ArrayList<>(Collections.nCopies(nMatches, (HashMap<Integer, Double>) null));
+        AtomicInteger nextMatch = new AtomicInteger(0);
+        ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+
+        try {
+
+            ArrayList<Future<?>> futures = new ArrayList<>(nThreads);
+
+            for (int i = 0; i < nThreads; i++) {
+
+                LocalizationRunnable runnable = new LocalizationRunnable(peptides, spectra, specificAnnotationParameters, results, nextMatch, modifications,
+                        modificationParameters, sequenceProvider, accountNeutralLosses, sequenceMatchingParameters,
+                        modificationSequenceMatchingParameters, waitingHandler);
+                futures.add(pool.submit(runnable));
+
+            }
+
+            for (Future<?> future : futures) {
+                future.get();
+            }
+
+        } finally {
+
+            pool.shutdownNow();
+
+        }
+
+        if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+            return null;
+        }
+
+        return results;
+    }
+
+    /**
+     * Returns the PhosphoRS score of a peptide matching k of its n expected
+     * ions in a spectrum. This method returns P and not -10.log(P).
+     *
+     * @param p the probability for a calculated fragment matching one of the
+     * experimental masses by chance as estimated by PhosphoRS
+     * @param n the number of expected ions
+     * @param k the number of expected ions matched
+     *
+     * @return the phosphoRS score
+     */
+    private static double getPhosphoRsScoreP(double p, int n, int k) {
+
         if (k == 0) {
             return 1.0;
         }
 
+        BinomialDistribution distribution = getDistributionFromCache(p, n);
+        boolean inCache = true;
+        if (distribution == null) {
+            distribution = new BinomialDistribution(n, p);
+            inCache = false;
+        }
+
         double result = distribution.getDescendingCumulativeProbabilityAt((double) k);
         if (!inCache && !distribution.isCacheEmpty()) {
             addDistributionToCache(p, n, distribution);
@@ -476,6 +602,20 @@ public class PhosphoRS {
         return result;
     }
 
+    /**
+     * Returns the distribution in cache for the given p and n, null if not in
+     * cache.
+     *
+     * @param p the distribution p
+     * @param n the distribution n
+     *
+     * @return the distribution in cache
+     */
+    private static synchronized BinomialDistribution getDistributionFromCache(double p, int n) {
+        HashMap<Integer, BinomialDistribution> distributionsAtP = distributionCache.get(p);
+        return distributionsAtP == null ? null : distributionsAtP.get(n);
+    }
+
     /**
      * Adds a distribution to the cache and manages the cache size.
      *
@@ -513,10 +653,25 @@ public class PhosphoRS {
      * experimental masses by chance as estimated in the PhosphoRS algorithm.
      */
     private static double getp(Spectrum spectrum, double w, double d, int nDecimals) {
+        return getp(spectrum.getPeakMap().size(), w, d, nDecimals);
+    }
+
+    /**
+     * The probability p for a calculated fragment matching one of the
+     * experimental masses by chance as estimated in the PhosphoRS algorithm.
+     *
+     * @param N the number of peaks in the spectrum studied
+     * @param w the m/z range considered
+     * @param d the m/z tolerance in daltons
+     * @param nDecimals the number of decimals to use
+     *
+     * @return the probability p for a calculated fragment matching one of the
+     * experimental masses by chance as estimated in the PhosphoRS algorithm.
+     */
+    private static double getp(int N, double w, double d, int nDecimals) {
         if (w == 0.0) {
             return 1.0;
         }
-        int N = spectrum.getPeakMap().size();
         if (N <= 1) {
             return 1.0;
         }
@@ -562,44 +717,6 @@ public class PhosphoRS {
         return result;
     }
 
-    /**
-     * Returns a map of the number of possible fragment ions for every peptide
-     * indexed by the corresponding profile.
-     *
-     * @param possiblePeptides map of the possible peptides for every profile
-     * @param possiblePeptideFragments the possible peptide fragments for every
-     * peptide
-     * @param spectrumAnnotator the spectrum annotator
-     * @param scoringAnnotationSetttings the spectrum scoring annotation
-     * settings
-     * @param modificationParameters the modification parameters
-     * @param sequenceProvider a provider for the protein sequences
-     * @param modificationSequenceMatchingParameters the sequence matching
-     * preferences for modification to peptide mapping
-     *
-     * @return a map of the number of possible fragment ions for every peptide
-     */
-    private static HashMap<Long, Integer> getPossiblePeptideToN(HashMap<Long, Peptide> possiblePeptides, HashMap<Long, HashMap<Integer, HashMap<Integer, ArrayList<Ion>>>> possiblePeptideFragments,
-            PeptideSpectrumAnnotator spectrumAnnotator, SpecificAnnotationParameters scoringAnnotationSetttings,
-            ModificationParameters modificationParameters, SequenceProvider sequenceProvider, SequenceMatchingParameters modificationSequenceMatchingParameters) {
-
-        HashMap<Long, Integer> result = new HashMap<>(possiblePeptides.size());
-
-        for (Entry<Long, Peptide> entry : possiblePeptides.entrySet()) {
-
-            Peptide peptide = entry.getValue();
-            HashMap<Integer, HashMap<Integer, ArrayList<Ion>>> fragmentsForProfile = possiblePeptideFragments.get(entry.getKey());
-            HashMap<Integer, ArrayList<Ion>> expectedFragmentIons = spectrumAnnotator.getExpectedIons(scoringAnnotationSetttings, peptide, modificationParameters, sequenceProvider, modificationSequenceMatchingParameters, fragmentsForProfile);
-            int n = expectedFragmentIons.values().stream()
-                    .mapToInt(ArrayList::size)
-                    .sum();
-            result.put(entry.getKey(), n);
-
-        }
-
-        return result;
-    }
-
     /**
      * Returns a map of the possible ions for every peptide of every profile.
      *
@@ -678,9 +795,8 @@ public class PhosphoRS {
      * m/z.
      *
      * @param profileToPeptide the profile to peptide map
-     * @param profileKeys the keys of the different profiles
-     * @param possibleProfiles the possible modification profiles to inspect
-     * @param modifications the modifications scored
+     * @param profileToPossibleFragments the possible fragment ions of the
+     * peptide of every profile
      * @param spectrumAnnotator the spectrum annotator used throughout the
      * scoring
      * @param scoringAnnotationParameters the annotation settings specific to
@@ -688,7 +804,7 @@ public class PhosphoRS {
      *
      * @return a map of all potential site determining ions indexed by their m/z
      */
-    private static HashMap<Double, ArrayList<Long>> getSiteDeterminingIons(HashMap<Long, Peptide> profileToPeptide,
+    private static HashMap<Double, ArrayList<Long>> getSiteDeterminingIons(HashMap<Long, Peptide> profileToPeptide, HashMap<Long, HashMap<Integer, HashMap<Integer, ArrayList<Ion>>>> profileToPossibleFragments,
             PeptideSpectrumAnnotator spectrumAnnotator, SpecificAnnotationParameters scoringAnnotationParameters,
             ModificationParameters modificationParameters, SequenceProvider sequenceProvider, SequenceMatchingParameters modificationSequenceMatchingParameters) {
 
@@ -700,7 +816,7 @@ public class PhosphoRS {
             long profileKey = entry.getKey();
             Peptide peptide = entry.getValue();
 
-            HashSet<Double> mzs = spectrumAnnotator.getExpectedIons(scoringAnnotationParameters, peptide, modificationParameters, sequenceProvider, modificationSequenceMatchingParameters).values().stream()
+            HashSet<Double> mzs = spectrumAnnotator.getExpectedIons(scoringAnnotationParameters, peptide, modificationParameters, sequenceProvider, modificationSequenceMatchingParameters, profileToPossibleFragments.get(profileKey)).values().stream()
                     .flatMap(ArrayList::stream)
                     .filter(ion -> ion.getType() == Ion.IonType.PEPTIDE_FRAGMENT_ION)
                     .flatMap(ion -> scoringAnnotationParameters.getSelectedCharges().stream()
@@ -736,24 +852,23 @@ public class PhosphoRS {
     }
 
     /**
-     * Returns a list of spectra containing only the most intense ions. The
-     * index of the spectrum in the list corresponds to the increasing number of
-     * peaks, ie the depth, starting with depth 1.
+     * Returns the most intense peaks of a spectrum sorted by decreasing
+     * intensity. The reduced spectrum at a given depth, starting with depth 1,
+     * contains the peaks up to this depth in the array.
      *
-     * @param spectrum the spectrum of interest
+     * @param peakMap the peaks of the spectrum of interest indexed by m/z
      *
-     * @return a list of spectra containing only the most intense ions.
+     * @return the most intense peaks sorted by decreasing intensity
      */
-    private static ArrayList<Spectrum> getReducedSpectra(Spectrum spectrum) {
+    private static Peak[] getRankedPeaks(HashMap<Double, Peak> peakMap) {
 
-        if (spectrum.isEmpty()) {
+        if (peakMap.isEmpty()) {
             throw new IllegalArgumentException("Attempting to extract peaks from an empty spectrum.");
         }
 
-        ArrayList<Spectrum> reducedSpectra = new ArrayList<>(MAX_DEPTH);
-        HashMap<Double, ArrayList<Peak>> intensityToPeakMap = new HashMap<>(spectrum.getPeakMap().size());
+        HashMap<Double, ArrayList<Peak>> intensityToPeakMap = new HashMap<>(peakMap.size());
 
-        for (Peak peak : spectrum.getPeakList()) {
+        for (Peak peak : peakMap.values()) {
             double intensity = peak.intensity;
             ArrayList<Peak> peaks = intensityToPeakMap.get(intensity);
             if (peaks == null) {
@@ -765,28 +880,138 @@ public class PhosphoRS {
 
         ArrayList<Double> intensities = new ArrayList<>(intensityToPeakMap.keySet());
         Collections.sort(intensities, Collections.reverseOrder());
+        Peak[] rankedPeaks = new Peak[Math.min(peakMap.size(), MAX_DEPTH + 1)];
         int depth = 0;
 
-        HashMap<Double, Peak> mzToPeak = new HashMap<>(1);
-
         for (double intensity : intensities) {
             for (Peak peak : intensityToPeakMap.get(intensity)) {
-                mzToPeak.put(peak.mz, peak);
-                depth++;
-                reducedSpectra.add(new Spectrum(spectrum.getLevel(), spectrum.getPrecursor(), spectrum.getSpectrumTitle() + "_" + depth, mzToPeak, spectrum.getFileName()));
-                if (depth > MAX_DEPTH) {
-                    break;
+                rankedPeaks[depth++] = peak;
+                if (depth == rankedPeaks.length) {
+                    return rankedPeaks;
+                }
+            }
+        }
+
+        return rankedPeaks;
+    }
+
+    /**
+     * Returns the number of ions matched in the reduced spectra of the
+     * different depths. The m/z of the ions are looked up once in an index of
+     * the most intense peaks, and every ion is counted from the depth of the
+     * most intense peak it matches.
+     *
+     * @param mzs the m/z of the ions sorted in increasing order
+     * @param spectrumIndex the index of the most intense peaks
+     * @param rankedPeaks the most intense peaks sorted by decreasing
+     * intensity
+     * @param matchingPeaks an array where to store the matching peaks, must be
+     * at least as long as the ranked peaks
+     *
+     * @return the number of ions matched at every depth
+     */
+    private static int[] getMatchesPerDepth(double[] mzs, SpectrumIndex spectrumIndex, Peak[] rankedPeaks, Peak[] matchingPeaks) {
+
+        int[] matches = new int[rankedPeaks.length];
+
+        if (mzs.length == 0) {
+            return matches;
+        }
+
+        // Only ions in the m/z range of the peaks can match
+        double lowestMz = Double.MAX_VALUE, highestMz = 0.0;
+
+        for (Peak peak : rankedPeaks) {
+            lowestMz = Math.min(lowestMz, peak.mz);
+            highestMz = Math.max(highestMz, peak.mz);
+        }
+
+        double tolerance = spectrumIndex.getPrecursorToleance();
+        double minMz, maxMz;
+
+        if (!spectrumIndex.getPpm()) {
+            minMz = lowestMz - tolerance - MZ_MARGIN;
+            maxMz = highestMz + tolerance + MZ_MARGIN;
+        } else if (tolerance < 1000000) {
+            minMz = lowestMz / (1 + tolerance / 1000000) - MZ_MARGIN;
+            maxMz = highestMz / (1 - tolerance / 1000000) + MZ_MARGIN;
+        } else {
+            minMz = 0.0;
+            maxMz = Double.MAX_VALUE;
+        }
+
+        int start = Arrays.binarySearch(mzs, minMz);
+
+        if (start < 0) {
+            start = -start - 1;
+        }
+
+        for (int i = start; i < mzs.length && mzs[i] <= maxMz; i++) {
+
+            int nPeaks = spectrumIndex.getMatchingPeaks(mzs[i], matchingPeaks);
+            int bestRank = rankedPeaks.length;
+
+            for (int j = 0; j < nPeaks; j++) {
+                for (int rank = 0; rank < bestRank; rank++) {
+                    if (rankedPeaks[rank] == matchingPeaks[j]) {
+                        bestRank = rank;
+                        break;
+                    }
                 }
-                HashMap<Double, Peak> newMzToPeak = new HashMap<>(depth + 1);
-                newMzToPeak.putAll(mzToPeak);
-                mzToPeak = newMzToPeak;
             }
-            if (depth > MAX_DEPTH) {
-                break;
+
+            if (bestRank < rankedPeaks.length) {
+                matches[bestRank]++;
             }
         }
 
-        return reducedSpectra;
+        for (int depth = 1; depth < matches.length; depth++) {
+            matches[depth] += matches[depth - 1];
+        }
+
+        return matches;
+    }
+
+    /**
+     * Returns the number of ions matched in a spectrum.
+     *
+     * @param mzs the m/z of the ions
+     * @param spectrumIndex the index of the spectrum
+     * @param matchingPeaks an array where to store the matching peaks
+     *
+     * @return the number of ions matched
+     */
+    private static int getMatches(double[] mzs, SpectrumIndex spectrumIndex, Peak[] matchingPeaks) {
+
+        int matches = 0;
+
+        for (double mz : mzs) {
+            if (spectrumIndex.getMatchingPeaks(mz, matchingPeaks) > 0) {
+                matches++;
+            }
+        }
+
+        return matches;
+    }
+
+    /**
+     * Returns the m/z of the expected peptide fragment ions sorted in
+     * increasing order.
+     *
+     * @param expectedIons the expected ions indexed by charge
+     *
+     * @return the m/z of the expected peptide fragment ions
+     */
+    private static double[] getFragmentIonsMzs(HashMap<Integer, ArrayList<Ion>> expectedIons) {
+
+        double[] mzs = expectedIons.entrySet().stream()
+                .flatMapToDouble(entry -> entry.getValue().stream()
+                .filter(ion -> ion.getType() == Ion.IonType.PEPTIDE_FRAGMENT_ION)
+                .mapToDouble(ion -> ion.getTheoreticMz(entry.getKey())))
+                .toArray();
+        Arrays.sort(mzs);
+
+        return mzs;
     }
 
     /**
@@ -870,4 +1095,269 @@ public class PhosphoRS {
                 .mapToObj(site -> Integer.toString(site))
                 .collect(Collectors.joining("_")));
     }
+
+    /**
+     * The m/z of the expected fragment ions of the peptides of the different
+     * modification profiles. The ions shared by all profiles are stored once
+     * and matched once per spectrum, only the ions specific to every profile
+     * are matched for every profile.
+     */
+    private static class PermutationLadders {
+
+        /**
+         * The m/z of the ions expected for all profiles sorted in increasing
+         * order.
+         */
+        private final double[] sharedMzs;
+        /**
+         * The m/z of the ions specific to every profile sorted in increasing
+         * order.
+         */
+        private final double[][] specificMzs;
+        /**
+         * The number of expected ions for every profile.
+         */
+        private final int[] nExpectedIons;
+
+        /**
+         * Constructor.
+         *
+         * @param profileKeys the keys of the profiles
+         * @param profileToPeptide the profile to peptide map
+         * @param profileToPossibleFragments the possible fragment ions of the
+         * peptide of every profile
+         * @param spectrumAnnotator the spectrum annotator
+         * @param scoringAnnotationParameters the annotation settings used for
+         * scoring
+         * @param modificationParameters the modification parameters
+         * @param sequenceProvider a provider for the protein sequences
+         * @param modificationSequenceMatchingParameters the sequence matching
+         * preferences for modification to peptide mapping
+         */
+        private PermutationLadders(long[] profileKeys, HashMap<Long, Peptide> profileToPeptide, HashMap<Long, HashMap<Integer, HashMap<Integer, ArrayList<Ion>>>> profileToPossibleFragments,
+                PeptideSpectrumAnnotator spectrumAnnotator, SpecificAnnotationParameters scoringAnnotationParameters,
+                ModificationParameters modificationParameters, SequenceProvider sequenceProvider, SequenceMatchingParameters modificationSequenceMatchingParameters) {
+
+            int nProfiles = profileKeys.length;
+            double[][] profileMzs = new double[nProfiles][];
+            nExpectedIons = new int[nProfiles];
+
+            for (int i = 0; i < nProfiles; i++) {
+
+                long profileKey = profileKeys[i];
+                HashMap<Integer, ArrayList<Ion>> expectedIons = spectrumAnnotator.getExpectedIons(scoringAnnotationParameters, profileToPeptide.get(profileKey),
+                        modificationParameters, sequenceProvider, modificationSequenceMatchingParameters, profileToPossibleFragments.get(profileKey));
+                nExpectedIons[i] = expectedIons.values().stream()
+                        .mapToInt(ArrayList::size)
+                        .sum();
+                profileMzs[i] = getFragmentIonsMzs(expectedIons);
+
+            }
+
+            double[] shared = profileMzs[0];
+
+            for (int i = 1; i < nProfiles; i++) {
+                shared = intersection(shared, profileMzs[i]);
+            }
+
+            sharedMzs = shared;
+            specificMzs = new double[nProfiles][];
+
+            for (int i = 0; i < nProfiles; i++) {
+                specificMzs[i] = difference(profileMzs[i], sharedMzs);
+            }
+        }
+
+        /**
+         * Returns the values found in both sorted arrays, duplicates are
+         * retained as many times as they are found in both arrays.
+         *
+         * @param array1 the first array sorted in increasing order
+         * @param array2 the second array sorted in increasing order
+         *
+         * @return the values found in both arrays sorted in increasing order
+         */
+        private static double[] intersection(double[] array1, double[] array2) {
+
+            double[] result = new double[Math.min(array1.length, array2.length)];
+            int i = 0, j = 0, n = 0;
+
+            while (i < array1.length && j < array2.length) {
+
+                if (array1[i] < array2[j]) {
+                    i++;
+                } else if (array1[i] > array2[j]) {
+                    j++;
+                } else {
+                    result[n++] = array1[i];
+                    i++;
+                    j++;
+                }
+            }
+
+            return Arrays.copyOf(result, n);
+        }
+
+        /**
+         * Returns the values of the first sorted array that are not in the
+         * second, duplicates are removed as many times as they are found in
+         * the second array.
+         *
+         * @param array1 the first array sorted in increasing order
+         * @param array2 the second array sorted in increasing order
+         *
+         * @return the values of the first array not in the second sorted in
+         * increasing order
+         */
+        private static double[] difference(double[] array1, double[] array2) {
+
+            double[] result = new double[array1.length];
+            int i = 0, j = 0, n = 0;
+
+            while (i < array1.length) {
+
+                if (j >= array2.length || array1[i] < array2[j]) {
+                    result[n++] = array1[i];
+                    i++;
+                } else if (array1[i] > array2[j]) {
+                    j++;
+                } else {
+                    i++;
+                    j++;
+                }
+            }
+
+            return Arrays.copyOf(result, n);
+        }
+    }
+
+    /**
+     * Runnable localizing the modifications of the peptide spectrum matches
+     * taken from a shared counter. Every runnable has its own spectrum
+     * annotator.
+     *
+     * @author Marc Vaudel
+     */
+    private static class LocalizationRunnable implements Runnable {
+
+        /**
+         * The peptides of the matches.
+         */
+        private final Peptide[] peptides;
+        /**
+         * The spectra of the matches.
+         */
+        private final Spectrum[] spectra;
+        /**
+         * The annotation settings specific to every match.
+         */
+        private final SpecificAnnotationParameters[] specificAnnotationParameters;
+        /**
+         * The list where to store the results.
+         */
+        private final ArrayList<HashMap<Integer, Double>> results;
+        /**
+         * The index of the next match to localize.
+         */
+        private final AtomicInteger nextMatch;
+        /**
+         * The modifications to score.
+         */
+        private final ArrayList<Modification> modifications;
+        /**
+         * The modification parameters.
+         */
+        private final ModificationParameters modificationParameters;
+        /**
+         * A provider for the protein sequences.
+         */
+        private final SequenceProvider sequenceProvider;
+        /**
+         * Boolean indicating whether neutral losses should be accounted for.
+         */
+        private final boolean accountNeutralLosses;
+        /**
+         * The sequence matching preferences for peptide to protein mapping.
+         */
+        private final SequenceMatchingParameters sequenceMatchingParameters;
+        /**
+         * The sequence matching preferences for modification to peptide
+         * mapping.
+         */
+        private final SequenceMatchingParameters modificationSequenceMatchingParameters;
+        /**
+         * The waiting handler.
+         */
+        private final WaitingHandler waitingHandler;
+        /**
+         * The spectrum annotator of this runnable.
+         */
+        private final PeptideSpectrumAnnotator peptideSpectrumAnnotator = new PeptideSpectrumAnnotator();
+
+        /**
+         * Constructor.
+         *
+         * @param peptides the peptides of the matches
+         * @param spectra the spectra of the matches
+         * @param specificAnnotationParameters the annotation settings specific
+         * to every match
+         * @param results the list where to store the results
+         * @param nextMatch the index of the next match to localize
+         * @param modifications the modifications to score
+         * @param modificationParameters the modification parameters
+         * @param sequenceProvider a provider for the protein sequences
+         * @param accountNeutralLosses boolean indicating whether neutral losses
+         * should be accounted for
+         * @param sequenceMatchingParameters the sequence matching preferences
+         * for peptide to protein mapping
+         * @param modificationSequenceMatchingParameters the sequence matching
+         * preferences for modification to peptide mapping
+         * @param waitingHandler the waiting handler
+         */
+        private LocalizationRunnable(Peptide[] peptides, Spectrum[] spectra, SpecificAnnotationParameters[] specificAnnotationParameters,
+                ArrayList<HashMap<Integer, Double>> results, AtomicInteger nextMatch, ArrayList<Modification> modifications,
+                ModificationParameters modificationParameters, SequenceProvider sequenceProvider,
+                boolean accountNeutralLosses, SequenceMatchingParameters sequenceMatchingParameters,
+                SequenceMatchingParameters modificationSequenceMatchingParameters, WaitingHandler waitingHandler) {
+
+            this.peptides = peptides;
+            this.spectra = spectra;
+            this.specificAnnotationParameters = specificAnnotationParameters;
+            this.results = results;
+            this.nextMatch = nextMatch;
+            this.modifications = modifications;
+            this.modificationParameters = modificationParameters;
+            this.sequenceProvider = sequenceProvider;
+            this.accountNeutralLosses = accountNeutralLosses;
+            this.sequenceMatchingParameters = sequenceMatchingParameters;
+            this.modificationSequenceMatchingParameters = modificationSequenceMatchingParameters;
+            this.waitingHandler = waitingHandler;
+
+        }
+
+        @Override
+        public void run() {
+
+            int matchIndex;
+
+            while ((matchIndex = nextMatch.getAndIncrement()) < peptides.length) {
+
+                if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                    return;
+                }
+
+                HashMap<Integer, Double> result = getSequenceProbabilities(peptides[matchIndex], modifications, modificationParameters, spectra[matchIndex],
+                        sequenceProvider, specificAnnotationParameters[matchIndex], accountNeutralLosses, sequenceMatchingParameters,
+                        modificationSequenceMatchingParameters, peptideSpectrumAnnotator);
+
+                synchronized (results) {
+                    results.set(matchIndex, result);
+                }
+
+                if (waitingHandler != null) {
+                    waitingHandler.increaseSecondaryProgressCounter();
+                }
+            }
+        }
+    }
 }
@@ -25,7 +25,14 @@ import com.compomics.util.experiment.identification.peptide_fragmentation.models
 import com.compomics.util.experiment.io.biology.protein.SequenceProvider;
 import com.compomics.util.parameters.identification.advanced.SequenceMatchingParameters;
 import com.compomics.util.parameters.identification.search.ModificationParameters;
+import com.compomics.util.waiting.WaitingHandler;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This class computes the ms2PIP features from a peptide.
@@ -104,34 +111,191 @@ public class FeaturesGenerator {
     public int[] getComplementaryIonsFeatures(Peptide peptide, int charge, int ionIndex, ModificationParameters modificationParameters, SequenceProvider sequenceProvider, SequenceMatchingParameters modificationSequenceMatchingPreferences) {
 
         char[] peptideSequence = peptide.getSequence().toCharArray();
+        char[] reversedSequence = getReversedSequence(peptideSequence);
+
+        String[] fixedModifications = peptide.getFixedModifications(modificationParameters, sequenceProvider, modificationSequenceMatchingPreferences);
+        String[] reversedModifications = getReversedFixedModifications(fixedModifications);
+
+        ModificationMatch[] modificationMatches = peptide.getVariableModifications();
+        ModificationMatch[] reversedModificationMatches = getReversedModificationMatches(modificationMatches, peptideSequence.length);
+
+        return getIonsFeatures(reversedSequence, reversedModifications, reversedModificationMatches, charge, ionIndex);
+    }
+
+    /**
+     * Returns the ms2pip features of all ions of a batch of peptides in a
+     * matrix. The matrix has one row per ion, the rows of every peptide being
+     * contiguous and sorted by ion index, and one column per feature in the
+     * order of the features map. The attributes of every peptide are computed
+     * once and used for all its ions, and peptides are processed in parallel.
+     *
+     * @param peptides the peptides
+     * @param charges the charges of the peptides
+     * @param complementaryIons if true the features are computed for the
+     * complementary ions, for the forward ions otherwise
+     * @param modificationParameters the modification parameters
+     * @param sequenceProvider a provider for the protein sequences
+     * @param modificationSequenceMatchingPreferences the sequence matching
+     * preferences for modification to peptide mapping
+     * @param nThreads the number of threads to use
+     * @param waitingHandler a waiting handler to display progress and allow
+     * canceling the process, can be null
+     *
+     * @return the features matrix, null if the process was canceled
+     *
+     * @throws InterruptedException exception thrown if a thread gets
+     * interrupted
+     * @throws ExecutionException exception thrown if an error occurred while
+     * computing the features
+     */
+    public FeaturesMatrix getIonsFeaturesMatrix(Peptide[] peptides, int[] charges, boolean complementaryIons, ModificationParameters modificationParameters,
+            SequenceProvider sequenceProvider, SequenceMatchingParameters modificationSequenceMatchingPreferences, int nThreads, WaitingHandler waitingHandler)
+            throws InterruptedException, ExecutionException {
+
+        if (peptides.length != charges.length) {
+            throw new IllegalArgumentException("The number of peptides (" + peptides.length + ") and charges (" + charges.length + ") differ.");
+        }
+
+        // One row per ion
+        int[] peptideOffsets = new int[peptides.length + 1];
+
+        for (int i = 0; i < peptides.length; i++) {
+
+            int nIons = Math.max(peptides[i].getSequence().length() - 1, 0);
+            peptideOffsets[i + 1] = peptideOffsets[i] + nIons;
+
+        }
+
+        FeaturesMatrix featuresMatrix = new FeaturesMatrix(peptideOffsets, featuresMap.getnFeatures());
+
+        // Get the features and properties once for all peptides
+        Ms2pipFeature[] features = getSortedFeatures();
+        AminoAcid.Property[] peptideProperties = getAaProperties(PeptideAminoAcidFeature.class);
+        AminoAcid.Property[] forwardIonProperties = getAaProperties(ForwardIonAminoAcidFeature.class);
+        AminoAcid.Property[] complementaryIonProperties = getAaProperties(ComplementaryIonAminoAcidFeature.class);
+        AminoAcid.Property[] individualAaProperties = getAaProperties(AAPropertyFeatureAbsolute.class,
+                AAPropertyFeatureRelative.class,
+                AAPropertyRelationshipFeature.class
+        );
+
+        if (waitingHandler != null) {
+
+            waitingHandler.resetSecondaryProgressCounter();
+            waitingHandler.setMaxSecondaryProgressCounter(peptides.length);
+
+        }
+
+        AtomicInteger nextPeptide = new AtomicInteger(0);
+        ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+
+        try {
+
+            ArrayList<Future<?>> futures = new ArrayList<>(nThreads);
+
+            for (int i = 0; i < nThreads; i++) {
+
+                FeaturesRunnable runnable = new FeaturesRunnable(peptides, charges, complementaryIons, featuresMatrix, nextPeptide, features,
+                        peptideProperties, forwardIonProperties, complementaryIonProperties, individualAaProperties,
+                        modificationParameters, sequenceProvider, modificationSequenceMatchingPreferences, waitingHandler);
+                futures.add(pool.submit(runnable));
+
+            }
+
+            for (Future<?> future : futures) {
+                future.get();
+            }
+
+        } finally {
+
+            pool.shutdownNow();
+
+        }
+
+        if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+            return null;
+        }
+
+        return featuresMatrix;
+    }
+
+    /**
+     * Returns the features of the features map sorted by category.
+     *
+     * @return the features of the features map sorted by category
+     */
+    private Ms2pipFeature[] getSortedFeatures() {
+
+        Ms2pipFeature[] features = new Ms2pipFeature[featuresMap.getnFeatures()];
+        int featureIndex = 0;
+
+        for (String category : featuresMap.getSortedFeaturesList()) {
+            for (Ms2pipFeature ms2pipFeature : featuresMap.getFeatures(category)) {
+                features[featureIndex++] = ms2pipFeature;
+            }
+        }
+
+        return features;
+    }
+
+    /**
+     * Returns the given sequence reversed.
+     *
+     * @param peptideSequence the peptide sequence as char array
+     *
+     * @return the reversed sequence
+     */
+    private static char[] getReversedSequence(char[] peptideSequence) {
+
         int sequenceLength = peptideSequence.length;
         char[] reversedSequence = new char[sequenceLength];
 
-        String[] fixedModifications = peptide.getFixedModifications(modificationParameters, sequenceProvider, modificationSequenceMatchingPreferences);
-        String[] reversedModifications = new String[fixedModifications.length];
-        
-        for (int i = 0; i < fixedModifications.length; i++) {
+        for (int i = 0; i < sequenceLength; i++) {
+            reversedSequence[i] = peptideSequence[sequenceLength - i - 1];
+        }
+
+        return reversedSequence;
+    }
 
-            int j = fixedModifications.length - i - 1;
-            reversedSequence[i] = peptideSequence[j];
-            reversedModifications[i] = fixedModifications[j];
+    /**
+     * Returns the fixed modifications of the reversed sequence. The N- and
+     * C-termini are swapped.
+     *
+     * @param fixedModifications the fixed modifications as provided by the
+     * peptide class
+     *
+     * @return the fixed modifications of the reversed sequence
+     */
+    private static String[] getReversedFixedModifications(String[] fixedModifications) {
+
+        String[] reversedModifications = new String[fixedModifications.length];
 
+        for (int i = 0; i < fixedModifications.length; i++) {
+            reversedModifications[i] = fixedModifications[fixedModifications.length - i - 1];
         }
 
-        ModificationMatch[] modificationMatches = peptide.getVariableModifications();
-        ModificationMatch[] reversedModificationMatches;
+        return reversedModifications;
+    }
 
-        reversedModificationMatches = new ModificationMatch[modificationMatches.length];
+    /**
+     * Returns the variable modifications of the reversed sequence.
+     *
+     * @param modificationMatches the variable modifications
+     * @param sequenceLength the length of the sequence
+     *
+     * @return the variable modifications of the reversed sequence
+     */
+    private static ModificationMatch[] getReversedModificationMatches(ModificationMatch[] modificationMatches, int sequenceLength) {
+
+        ModificationMatch[] reversedModificationMatches = new ModificationMatch[modificationMatches.length];
 
         for (int i = 0; i < modificationMatches.length; i++) {
 
             ModificationMatch modificationMatch = modificationMatches[i];
-            ModificationMatch reversedModificationMatch = new ModificationMatch(modificationMatch.getModification(), sequenceLength - modificationMatch.getSite() + 1);
-            reversedModificationMatches[i] = reversedModificationMatch;
+            reversedModificationMatches[i] = new ModificationMatch(modificationMatch.getModification(), sequenceLength - modificationMatch.getSite() + 1);
 
         }
 
-        return getIonsFeatures(reversedSequence, reversedModifications, reversedModificationMatches, charge, ionIndex);
+        return reversedModificationMatches;
     }
 
     /**
@@ -608,6 +772,169 @@ public class FeaturesGenerator {
 
     }
 
+    /**
+     * Runnable computing the features of the peptides taken from a shared
+     * counter.
+     *
+     * @author Marc Vaudel
+     */
+    private class FeaturesRunnable implements Runnable {
+
+        /**
+         * The peptides.
+         */
+        private final Peptide[] peptides;
+        /**
+         * The charges of the peptides.
+         */
+        private final int[] charges;
+        /**
+         * Boolean indicating whether the features are computed for the
+         * complementary ions.
+         */
+        private final boolean complementaryIons;
+        /**
+         * The matrix where to store the features.
+         */
+        private final FeaturesMatrix featuresMatrix;
+        /**
+         * The index of the next peptide to process.
+         */
+        private final AtomicInteger nextPeptide;
+        /**
+         * The features sorted by category.
+         */
+        private final Ms2pipFeature[] features;
+        /**
+         * The peptide amino acid properties.
+         */
+        private final AminoAcid.Property[] peptideProperties;
+        /**
+         * The forward ion amino acid properties.
+         */
+        private final AminoAcid.Property[] forwardIonProperties;
+        /**
+         * The complementary ion amino acid properties.
+         */
+        private final AminoAcid.Property[] complementaryIonProperties;
+        /**
+         * The individual amino acid properties.
+         */
+        private final AminoAcid.Property[] individualAaProperties;
+        /**
+         * The modification parameters.
+         */
+        private final ModificationParameters modificationParameters;
+        /**
+         * A provider for the protein sequences.
+         */
+        private final SequenceProvider sequenceProvider;
+        /**
+         * The sequence matching preferences for modification to peptide
+         * mapping.
+         */
+        private final SequenceMatchingParameters modificationSequenceMatchingPreferences;
+        /**
+         * The waiting handler.
+         */
+        private final WaitingHandler waitingHandler;
+
+        /**
+         * Constructor.
+         *
+         * @param peptides the peptides
+         * @param charges the charges of the peptides
+         * @param complementaryIons boolean indicating whether the features are
+         * computed for the complementary ions
+         * @param featuresMatrix the matrix where to store the features
+         * @param nextPeptide the index of the next peptide to process
+         * @param features the features sorted by category
+         * @param peptideProperties the peptide amino acid properties
+         * @param forwardIonProperties the forward ion amino acid properties
+         * @param complementaryIonProperties the complementary ion amino acid
+         * properties
+         * @param individualAaProperties the individual amino acid properties
+         * @param modificationParameters the modification parameters
+         * @param sequenceProvider a provider for the protein sequences
+         * @param modificationSequenceMatchingPreferences the sequence matching
+         * preferences for modification to peptide mapping
+         * @param waitingHandler the waiting handler
+         */
+        private FeaturesRunnable(Peptide[] peptides, int[] charges, boolean complementaryIons, FeaturesMatrix featuresMatrix, AtomicInteger nextPeptide,
+                Ms2pipFeature[] features, AminoAcid.Property[] peptideProperties, AminoAcid.Property[] forwardIonProperties,
+                AminoAcid.Property[] complementaryIonProperties, AminoAcid.Property[] individualAaProperties,
+                ModificationParameters modificationParameters, SequenceProvider sequenceProvider,
+                SequenceMatchingParameters modificationSequenceMatchingPreferences, WaitingHandler waitingHandler) {
+
+            this.peptides = peptides;
+            this.charges = charges;
+            this.complementaryIons = complementaryIons;
+            this.featuresMatrix = featuresMatrix;
+            this.nextPeptide = nextPeptide;
+            this.features = features;
+            this.peptideProperties = peptideProperties;
+            this.forwardIonProperties = forwardIonProperties;
+            this.complementaryIonProperties = complementaryIonProperties;
+            this.individualAaProperties = individualAaProperties;
+            this.modificationParameters = modificationParameters;
+            this.sequenceProvider = sequenceProvider;
+            this.modificationSequenceMatchingPreferences = modificationSequenceMatchingPreferences;
+            this.waitingHandler = waitingHandler;
+
+        }
+
+        @Override
+        public void run() {
+
+            int peptideIndex;
+
+            while ((peptideIndex = nextPeptide.getAndIncrement()) < peptides.length) {
+
+                if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                    return;
+                }
+
+                Peptide peptide = peptides[peptideIndex];
+                int charge = charges[peptideIndex];
+                int nIons = featuresMatrix.getNRows(peptideIndex);
+
+                if (nIons > 0) {
+
+                    char[] peptideSequence = peptide.getSequence().toCharArray();
+                    String[] fixedModifications = peptide.getFixedModifications(modificationParameters, sequenceProvider, modificationSequenceMatchingPreferences);
+                    ModificationMatch[] modificationMatches = peptide.getVariableModifications();
+
+                    if (complementaryIons) {
+
+                        fixedModifications = getReversedFixedModifications(fixedModifications);
+                        modificationMatches = getReversedModificationMatches(modificationMatches, peptideSequence.length);
+                        peptideSequence = getReversedSequence(peptideSequence);
+
+                    }
+
+                    PeptideAttributes peptideAttributes = new PeptideAttributes(peptideSequence, fixedModifications, modificationMatches,
+                            peptideProperties, forwardIonProperties, complementaryIonProperties, individualAaProperties);
+                    int firstRow = featuresMatrix.getFirstRow(peptideIndex);
+
+                    for (int ionIndex = 0; ionIndex < nIons; ionIndex++) {
+
+                        int row = firstRow + ionIndex;
+
+                        for (int featureIndex = 0; featureIndex < features.length; featureIndex++) {
+
+                            featuresMatrix.setValue(featureIndex, row, getFeatureValue(features[featureIndex], peptideSequence, charge, peptideAttributes, ionIndex));
+
+                        }
+                    }
+                }
+
+                if (waitingHandler != null) {
+                    waitingHandler.increaseSecondaryProgressCounter();
+                }
+            }
+        }
+    }
+
     /**
      * This class estimates and stores reference attributes of the peptide.
      */
@@ -812,15 +1139,17 @@ public class FeaturesGenerator {
 
                     peptideMass += modificationMass;
 
-                    int modificationSite = i == 0 ? 0 : i - 1;
-                    if (modificationSite == peptideSequence.length) {
-                        modificationSite = peptideSequence.length - 1;
+                    int modificationSite = i;
+                    if (modificationSite == 0) {
+                        modificationSite = 1;
+                    } else if (modificationSite == peptideSequence.length + 1) {
+                        modificationSite = peptideSequence.length;
                     }
 
                     modificationsMasses[modificationSite - 1] += modificationMass;
 
                     for (int j = modificationSite - 1; j < peptideSequence.length; j++) {
-                        forwardIonMass[i] += modificationMass;
+                        forwardIonMass[j] += modificationMass;
                     }
                 }
             }
@@ -0,0 +1,242 @@
+package com.compomics.util.experiment.identification.peptide_fragmentation.models.ms2pip.features_generation;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Matrix of ms2pip features for the ions of a batch of peptides. The matrix
+ * has one row per ion and one column per feature, and is stored by column in
+ * primitive arrays. The rows of a peptide are contiguous, one per ion index.
+ *
+ * The binary export is big-endian and contains: the format version, the
+ * number of features, the number of peptides, the offsets of the rows of
+ * every peptide, and the values of every column.
+ *
+ * @author Marc Vaudel
+ */
+public class FeaturesMatrix {
+
+    /**
+     * The version of the binary format.
+     */
+    public static final int FORMAT_VERSION = 1;
+    /**
+     * The size of the buffers used for reading and writing.
+     */
+    private static final int BUFFER_SIZE = 1024 * 1024;
+    /**
+     * The index of the first row of every peptide, the last element is the
+     * number of rows.
+     */
+    private final int[] peptideOffsets;
+    /**
+     * The values of the features indexed by feature and by row.
+     */
+    private final int[][] columns;
+
+    /**
+     * Constructor allocating an empty matrix.
+     *
+     * @param peptideOffsets the index of the first row of every peptide, the
+     * last element being the number of rows
+     * @param nFeatures the number of features
+     */
+    public FeaturesMatrix(int[] peptideOffsets, int nFeatures) {
+
+        this.peptideOffsets = peptideOffsets;
+        int nRows = peptideOffsets[peptideOffsets.length - 1];
+        columns = new int[nFeatures][nRows];
+
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param peptideOffsets the index of the first row of every peptide, the
+     * last element being the number of rows
+     * @param columns the values of the features indexed by feature and by row
+     */
+    private FeaturesMatrix(int[] peptideOffsets, int[][] columns) {
+
+        this.peptideOffsets = peptideOffsets;
+        this.columns = columns;
+
+    }
+
+    /**
+     * Returns the number of features.
+     *
+     * @return the number of features
+     */
+    public int getNFeatures() {
+        return columns.length;
+    }
+
+    /**
+     * Returns the number of peptides.
+     *
+     * @return the number of peptides
+     */
+    public int getNPeptides() {
+        return peptideOffsets.length - 1;
+    }
+
+    /**
+     * Returns the number of rows.
+     *
+     * @return the number of rows
+     */
+    public int getNRows() {
+        return peptideOffsets[peptideOffsets.length - 1];
+    }
+
+    /**
+     * Returns the index of the first row of the given peptide.
+     *
+     * @param peptideIndex the index of the peptide
+     *
+     * @return the index of the first row of the peptide
+     */
+    public int getFirstRow(int peptideIndex) {
+        return peptideOffsets[peptideIndex];
+    }
+
+    /**
+     * Returns the number of rows of the given peptide.
+     *
+     * @param peptideIndex the index of the peptide
+     *
+     * @return the number of rows of the peptide
+     */
+    public int getNRows(int peptideIndex) {
+        return peptideOffsets[peptideIndex + 1] - peptideOffsets[peptideIndex];
+    }
+
+    /**
+     * Returns the values of a feature for all rows. The array is backing the
+     * matrix.
+     *
+     * @param featureIndex the index of the feature
+     *
+     * @return the values of the feature
+     */
+    public int[] getColumn(int featureIndex) {
+        return columns[featureIndex];
+    }
+
+    /**
+     * Returns the value of a feature at a given row.
+     *
+     * @param featureIndex the index of the feature
+     * @param row the row
+     *
+     * @return the value of the feature
+     */
+    public int getValue(int featureIndex, int row) {
+        return columns[featureIndex][row];
+    }
+
+    /**
+     * Sets the value of a feature at a given row.
+     *
+     * @param featureIndex the index of the feature
+     * @param row the row
+     * @param value the value of the feature
+     */
+    public void setValue(int featureIndex, int row, int value) {
+        columns[featureIndex][row] = value;
+    }
+
+    /**
+     * Returns the features of a given row in the order of the features map.
+     *
+     * @param row the row
+     *
+     * @return the features of the row
+     */
+    public int[] getRow(int row) {
+
+        int[] features = new int[columns.length];
+
+        for (int i = 0; i < columns.length; i++) {
+            features[i] = columns[i][row];
+        }
+
+        return features;
+    }
+
+    /**
+     * Writes the matrix to a binary file.
+     *
+     * @param destinationFile the file where to write the matrix
+     *
+     * @throws IOException exception thrown if an error occurred while writing
+     * the file
+     */
+    public void write(File destinationFile) throws IOException {
+
+        try (DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(destinationFile), BUFFER_SIZE))) {
+
+            outputStream.writeInt(FORMAT_VERSION);
+            outputStream.writeInt(columns.length);
+            outputStream.writeInt(getNPeptides());
+
+            for (int offset : peptideOffsets) {
+                outputStream.writeInt(offset);
+            }
+
+            for (int[] column : columns) {
+                for (int value : column) {
+                    outputStream.writeInt(value);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads a matrix from a binary file.
+     *
+     * @param matrixFile the file containing the matrix
+     *
+     * @return the matrix
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * the file
+     */
+    public static FeaturesMatrix read(File matrixFile) throws IOException {
+
+        try (DataInputStream inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(matrixFile), BUFFER_SIZE))) {
+
+            int version = inputStream.readInt();
+
+            if (version != FORMAT_VERSION) {
+                throw new IOException("Features matrix format version " + version + " not supported.");
+            }
+
+            int nFeatures = inputStream.readInt();
+            int nPeptides = inputStream.readInt();
+            int[] peptideOffsets = new int[nPeptides + 1];
+
+            for (int i = 0; i <= nPeptides; i++) {
+                peptideOffsets[i] = inputStream.readInt();
+            }
+
+            int nRows = peptideOffsets[nPeptides];
+            int[][] columns = new int[nFeatures][nRows];
+
+            for (int[] column : columns) {
+                for (int row = 0; row < nRows; row++) {
+                    column[row] = inputStream.readInt();
+                }
+            }
+
+            return new FeaturesMatrix(peptideOffsets, columns);
+        }
+    }
+}
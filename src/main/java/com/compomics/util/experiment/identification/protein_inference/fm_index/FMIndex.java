@@ -19,6 +19,8 @@ import com.compomics.util.experiment.identification.matches.PeptideVariantMatche
 import com.compomics.util.experiment.identification.protein_inference.PeptideProteinMapping;
 import com.compomics.util.experiment.identification.utils.ProteinUtils;
 import com.compomics.util.experiment.io.biology.protein.FastaParameters;
+import com.compomics.util.experiment.io.biology.protein.FastaSummary;
+import com.compomics.util.experiment.io.biology.protein.FastaSummaryBuilder;
 import com.compomics.util.experiment.io.biology.protein.Header;
 import com.compomics.util.experiment.io.biology.protein.ProteinDatabase;
 import com.compomics.util.experiment.io.biology.protein.ProteinDetailsProvider;
@@ -72,6 +74,11 @@ public class FMIndex extends ExperimentObject implements FastaMapper, SequencePr
      * Byte size of index chuck.
      */
     private final int indexChunkSize = 100 * 1024 * 1024;
+    /**
+     * The summary of the FASTA file gathered while building the index, null if
+     * no FASTA parameters were provided.
+     */
+    private FastaSummary fastaSummary = null;
     /**
      * Sampled suffix array.
      */
@@ -491,6 +498,16 @@ public class FMIndex extends ExperimentObject implements FastaMapper, SequencePr
         return ranges;
     }
 
+    /**
+     * Returns the summary of the FASTA file gathered while building the index,
+     * null if no FASTA parameters were provided.
+     *
+     * @return the summary of the FASTA file
+     */
+    public FastaSummary getFastaSummary() {
+        return fastaSummary;
+    }
+
     /**
      * Computes the number of allocated bytes.
      *
@@ -521,15 +538,15 @@ public class FMIndex extends ExperimentObject implements FastaMapper, SequencePr
      * @param searchParameters the search parameters
      *
      * @throws IOException exception thrown if an error occurs while iterating
-     * the FASTA file.
+     * the FASTA file or while saving its summary.
      */
     public FMIndex(File fastaFile, FastaParameters fastaParameters, WaitingHandler waitingHandler, boolean displayProgress, PeptideVariantsParameters peptideVariantsPreferences, SearchParameters searchParameters) throws IOException {
         if (searchParameters != null) {
             massTolerance = searchParameters.getFragmentIonAccuracy();
             massAccuracyType = searchParameters.getFragmentAccuracyType();
-            init(fastaFile, fastaParameters, waitingHandler, displayProgress, searchParameters.getModificationParameters(), peptideVariantsPreferences);
+            init(new FastaIterator(fastaFile), fastaFile, fastaParameters, waitingHandler, displayProgress, searchParameters.getModificationParameters(), peptideVariantsPreferences);
         } else {
-            init(fastaFile, fastaParameters, waitingHandler, displayProgress, null, peptideVariantsPreferences);
+            init(new FastaIterator(fastaFile), fastaFile, fastaParameters, waitingHandler, displayProgress, null, peptideVariantsPreferences);
         }
     }
 
@@ -546,10 +563,32 @@ public class FMIndex extends ExperimentObject implements FastaMapper, SequencePr
      * @param peptideVariantsPreferences contains all parameters for variants
      *
      * @throws IOException exception thrown if an error occurs while iterating
-     * the FASTA file
+     * the FASTA file or while saving its summary
      */
     public FMIndex(File fastaFile, FastaParameters fastaParameters, WaitingHandler waitingHandler, boolean displayProgress, ModificationParameters modificationSettings, PeptideVariantsParameters peptideVariantsPreferences) throws IOException {
-        init(fastaFile, fastaParameters, waitingHandler, displayProgress, modificationSettings, peptideVariantsPreferences);
+        init(new FastaIterator(fastaFile), fastaFile, fastaParameters, waitingHandler, displayProgress, modificationSettings, peptideVariantsPreferences);
+    }
+
+    /**
+     * Constructor indexing the proteins returned by an iterator, e.g. the open
+     * reading frames of a nucleotide FASTA file translated on the fly. If the
+     * iterator does not provide the headers, they are created from the
+     * protein accessions. If modification settings are provided the index
+     * will contain modification information, ignored if null.
+     *
+     * @param proteinIterator the iterator of the proteins to index
+     * @param fastaParameters the parameters for the FASTA file parsing
+     * @param waitingHandler the waiting handler
+     * @param displayProgress if true, the progress is displayed
+     * @param modificationSettings contains modification parameters for
+     * identification
+     * @param peptideVariantsPreferences contains all parameters for variants
+     *
+     * @throws IOException exception thrown if an error occurs while iterating
+     * the proteins
+     */
+    public FMIndex(ProteinIterator proteinIterator, FastaParameters fastaParameters, WaitingHandler waitingHandler, boolean displayProgress, ModificationParameters modificationSettings, PeptideVariantsParameters peptideVariantsPreferences) throws IOException {
+        init(proteinIterator, null, fastaParameters, waitingHandler, displayProgress, modificationSettings, peptideVariantsPreferences);
     }
 
     /**
@@ -557,7 +596,9 @@ public class FMIndex extends ExperimentObject implements FastaMapper, SequencePr
      * are provided the index will contain modification information, ignored if
      * null.
      *
-     * @param fastaFile the FASTA file to index
+     * @param proteinIterator the iterator of the proteins to index
+     * @param fastaFile the FASTA file iterated, used to estimate the progress
+     * and to save the summary of the file, can be null
      * @param fastaParameters the parameters for the FASTA file parsing
      * @param waitingHandler the waiting handler
      * @param displayProgress if true, the progress is displayed
@@ -567,9 +608,9 @@ public class FMIndex extends ExperimentObject implements FastaMapper, SequencePr
      * @param massTolerance the mass tolerance
      *
      * @throws IOException exception thrown if an error occurs while iterating
-     * the fasta file.
+     * the fasta file or while saving its summary.
      */
-    private void init(File fastaFile, FastaParameters fastaParameters, WaitingHandler waitingHandler, boolean displayProgress, ModificationParameters modificatoinSettings, PeptideVariantsParameters peptideVariantsPreferences) throws IOException {
+    private void init(ProteinIterator proteinIterator, File fastaFile, FastaParameters fastaParameters, WaitingHandler waitingHandler, boolean displayProgress, ModificationParameters modificatoinSettings, PeptideVariantsParameters peptideVariantsPreferences) throws IOException {
 
         // load all variant preferences
         maxNumberVariants = peptideVariantsPreferences.getnVariants();
@@ -1014,43 +1055,62 @@ public class FMIndex extends ExperimentObject implements FastaMapper, SequencePr
             alphabet[sortedAas[i] >> 6] |= 1L << (sortedAas[i] & 63);
         }
 
-        // reading all proteins in a first pass to get information about number and total length
-        ArrayList<Integer> tmpLengths = new ArrayList<>();
-        ArrayList<Integer> tmpProteins = new ArrayList<>();
+        // estimate the number of index parts from the file size, unknown for other iterators
+        int maxProgressBar = fastaFile == null ? 0 : 11 * ((int) (fastaFile.length() / indexChunkSize) + 1);
+
+        if (waitingHandler != null && displayProgress && !waitingHandler.isRunCanceled()) {
+            waitingHandler.setSecondaryProgressCounterIndeterminate(fastaFile == null);
+            waitingHandler.setMaxSecondaryProgressCounter(maxProgressBar);
+            waitingHandler.setSecondaryProgressCounter(0);
+        }
+
+        // reading all proteins in a single pass, the index parts are built as soon as enough sequence is gathered
+        long lastModified = fastaFile == null ? 0 : fastaFile.lastModified();
+        FastaSummaryBuilder fastaSummaryBuilder = fastaFile == null || fastaParameters == null ? null : new FastaSummaryBuilder(fastaParameters);
+        ArrayList<String> partAccessions = new ArrayList<>();
+        ArrayList<String> partHeaders = new ArrayList<>();
+        ArrayList<String> partSequences = new ArrayList<>();
         long ticker = indexChunkSize;
 
         int indexStringLength = 1;
-        int numProteins = 0;
-        ProteinIterator pi = new FastaIterator(fastaFile);
         Protein protein;
-        while ((protein = pi.getNextProtein()) != null) {
+        while ((protein = proteinIterator.getNextProtein()) != null) {
             if (waitingHandler != null && waitingHandler.isRunCanceled()) {
                 return;
             }
-            int proteinLen = protein.getLength();
-            indexStringLength += proteinLen;
-            ++numProteins;
+            Header header = proteinIterator.getLastHeader();
+            if (header == null) {
+                header = Header.parseFromFASTA(">" + protein.getAccession());
+            }
+            if (fastaSummaryBuilder != null) {
+                fastaSummaryBuilder.addHeader(header);
+            }
+            String rawHeader = header.getRawHeader();
+            partAccessions.add(protein.getAccession());
+            partHeaders.add(rawHeader.charAt(0) == '>' ? rawHeader.substring(1) : rawHeader);
+            partSequences.add(protein.getSequence());
+            indexStringLength += protein.getLength();
             if (indexStringLength > ticker) {
-                tmpLengths.add(indexStringLength);
-                tmpProteins.add(numProteins);
+                addDataToIndex(partAccessions, partHeaders, partSequences, indexStringLength, alphabet, fastaParameters, waitingHandler, displayProgress);
+                partAccessions.clear();
+                partHeaders.clear();
+                partSequences.clear();
                 indexStringLength = 1;
-                numProteins = 0;
             }
         }
-        tmpLengths.add(indexStringLength);
-        tmpProteins.add(numProteins);
-
-        int maxProgressBar = 11 * tmpLengths.size();
+        addDataToIndex(partAccessions, partHeaders, partSequences, indexStringLength, alphabet, fastaParameters, waitingHandler, displayProgress);
+        partAccessions = null;
+        partHeaders = null;
+        partSequences = null;
 
-        if (waitingHandler != null && displayProgress && !waitingHandler.isRunCanceled()) {
-            waitingHandler.setSecondaryProgressCounterIndeterminate(false);
-            waitingHandler.setMaxSecondaryProgressCounter(maxProgressBar);
-            waitingHandler.setSecondaryProgressCounter(0);
+        if (waitingHandler != null && displayProgress && !waitingHandler.isRunCanceled() && fastaFile != null) {
+            waitingHandler.setSecondaryProgressCounter(maxProgressBar);
         }
 
-        pi = new FastaIterator(fastaFile);
-        for (int i = 0; i < tmpLengths.size(); ++i) {
-            addDataToIndex(pi, tmpLengths.get(i), tmpProteins.get(i), alphabet, fastaParameters, waitingHandler, displayProgress);
+        // save the summary of the file so that it does not need to be parsed again
+        if (fastaSummaryBuilder != null && (waitingHandler == null || !waitingHandler.isRunCanceled())) {
+            fastaSummary = fastaSummaryBuilder.getSummary(fastaFile, lastModified);
+            FastaSummary.saveSummary(fastaFile.getAbsolutePath(), fastaSummary);
         }
 
         int lookupLength = ((int) ((lookupMaxMass + computeInverseMassValue(massTolerance, lookupMaxMass)) * lookupMultiplier));
@@ -1084,9 +1144,11 @@ public class FMIndex extends ExperimentObject implements FastaMapper, SequencePr
     /**
      * Add data to index
      *
-     * @param pi the protein iterator
+     * @param proteinAccessions the accessions of the proteins of this part of
+     * the index
+     * @param headers the header lines of the proteins without leading '&gt;'
+     * @param sequences the sequences of the proteins
      * @param indexStringLength the index string length
-     * @param numProteins the number of proteins
      * @param alphabet the alphabet
      * @param fastaParameters the parameters for the fasta file parsing
      * @param waitingHandler the waiting handler
@@ -1095,8 +1157,9 @@ public class FMIndex extends ExperimentObject implements FastaMapper, SequencePr
      * @throws IOException exception thrown if an error occurs while iterating
      * the fasta file.
      */
-    void addDataToIndex(ProteinIterator pi, int indexStringLength, int numProteins, long[] alphabet, FastaParameters fastaParameters, WaitingHandler waitingHandler, boolean displayProgress) throws IOException {
+    void addDataToIndex(ArrayList<String> proteinAccessions, ArrayList<String> headers, ArrayList<String> sequences, int indexStringLength, long[] alphabet, FastaParameters fastaParameters, WaitingHandler waitingHandler, boolean displayProgress) throws IOException {
 
+        int numProteins = proteinAccessions.size();
         indexParts += 1;
         indexStringLength += numProteins + 1; // delimiters between protein sequences + sentinal
         indexStringLengths.add(indexStringLength);
@@ -1116,7 +1179,7 @@ public class FMIndex extends ExperimentObject implements FastaMapper, SequencePr
         accessions.add(accssions);
         boundaries.get(0)[0] = 1;
 
-        // reading proteins in a second pass to store their amino acid sequences and their accession numbers
+        // storing the amino acid sequences and the accession numbers of the proteins
         int tmpN = 0;
         int tmpNumProtein = 0;
         HashMap<String, Integer> accessionEndings = new HashMap<>();
@@ -1127,15 +1190,9 @@ public class FMIndex extends ExperimentObject implements FastaMapper, SequencePr
                 return;
             }
 
-            Protein currentProtein = pi.getNextProtein();
-
-            if (currentProtein == null) {
-                throw new IllegalArgumentException("More sequences from database requested than contained.");
-            }
-
-            String accession = currentProtein.getAccession();
-            Header headerObject = ((FastaIterator) pi).getLastHeader();
-            String header = (headerObject.getRawHeader().charAt(0) == '>' ? headerObject.getRawHeader().substring(1) : headerObject.getRawHeader());
+            String accession = proteinAccessions.get(i);
+            String header = headers.get(i);
+            String sequence = sequences.get(i);
             accessionMetaData.put(accession, new AccessionMetaData(header));
 
             if (accession == null || accession.equals("")) {
@@ -1148,11 +1205,11 @@ public class FMIndex extends ExperimentObject implements FastaMapper, SequencePr
 
             }
 
-            int proteinLen = currentProtein.getLength();
+            int proteinLen = sequence.length();
 
             T[tmpN++] = '/'; // adding the delimiters
             accessionEndings.put(accession, tmpN + proteinLen);
-            System.arraycopy(currentProtein.getSequence().toUpperCase().getBytes(), 0, T, tmpN, proteinLen);
+            System.arraycopy(sequence.toUpperCase().getBytes(), 0, T, tmpN, proteinLen);
             tmpN += proteinLen;
             accssions[tmpNumProtein++] = accession;
             bndaries[tmpNumProtein] = tmpN + 1;
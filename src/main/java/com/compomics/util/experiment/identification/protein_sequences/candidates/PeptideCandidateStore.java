@@ -0,0 +1,551 @@
+package com.compomics.util.experiment.identification.protein_sequences.candidates;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+/**
+ * Store of the peptides obtained from the in-silico digestion of a protein
+ * database, indexed by mass. Every distinct peptide, i.e. sequence and fixed
+ * modifications, is stored once with references to the proteins it maps to.
+ * Every peptide is stored with the combinations of variable modifications it
+ * can carry, referred to as variants, sorted by mass. Protein terminal
+ * modifications are included in the variants of a peptide found at the
+ * corresponding terminus of at least one of its proteins, the protein
+ * positions indicate which references they apply to. The store is kept in
+ * primitive arrays, it is immutable and can be shared between threads.
+ *
+ * @author Marc Vaudel
+ */
+public class PeptideCandidateStore {
+
+    /**
+     * The version of the binary format.
+     */
+    public static final int FORMAT_VERSION = 2;
+    /**
+     * The size of the buffers used for reading and writing.
+     */
+    private static final int BUFFER_SIZE = 1024 * 1024;
+    /**
+     * The key of the parameters used to build the store.
+     */
+    private final String parametersKey;
+    /**
+     * The accessions of the proteins.
+     */
+    private final String[] proteinAccessions;
+    /**
+     * The residues of the peptide sequences concatenated.
+     */
+    private final byte[] residues;
+    /**
+     * The offset of the sequence of every peptide in the residues array, the
+     * last element is the number of residues.
+     */
+    private final int[] sequenceOffsets;
+    /**
+     * The distinct fixed modifications arrays as provided by the digestion
+     * iterators.
+     */
+    private final String[][] fixedModificationsTable;
+    /**
+     * The index of the fixed modifications of every peptide in the fixed
+     * modifications table.
+     */
+    private final int[] peptideFixedModifications;
+    /**
+     * The offset of the protein references of every peptide, the last
+     * element is the number of references.
+     */
+    private final int[] referenceOffsets;
+    /**
+     * The index of the protein of every reference.
+     */
+    private final int[] referenceProteins;
+    /**
+     * The 0-based position of the peptide on the protein of every reference.
+     */
+    private final int[] referencePositions;
+    /**
+     * The names of the variable modifications.
+     */
+    private final String[] variableModifications;
+    /**
+     * The number of occurrences of every variable modification in every
+     * variant.
+     */
+    private final int[][] variants;
+    /**
+     * The mass of every entry in ascending order.
+     */
+    private final double[] masses;
+    /**
+     * The index of the peptide of every entry.
+     */
+    private final int[] entryPeptides;
+    /**
+     * The index of the variant of every entry.
+     */
+    private final int[] entryVariants;
+
+    /**
+     * Constructor. Entries must be sorted by mass.
+     *
+     * @param parametersKey the key of the parameters used to build the store
+     * @param proteinAccessions the accessions of the proteins
+     * @param residues the residues of the peptide sequences concatenated
+     * @param sequenceOffsets the offset of the sequence of every peptide
+     * @param fixedModificationsTable the distinct fixed modifications arrays
+     * @param peptideFixedModifications the index of the fixed modifications
+     * of every peptide
+     * @param referenceOffsets the offset of the protein references of every
+     * peptide
+     * @param referenceProteins the index of the protein of every reference
+     * @param referencePositions the position of the peptide on the protein of
+     * every reference
+     * @param variableModifications the names of the variable modifications
+     * @param variants the number of occurrences of every variable
+     * modification in every variant
+     * @param masses the mass of every entry in ascending order
+     * @param entryPeptides the index of the peptide of every entry
+     * @param entryVariants the index of the variant of every entry
+     */
+    public PeptideCandidateStore(String parametersKey, String[] proteinAccessions, byte[] residues, int[] sequenceOffsets,
+            String[][] fixedModificationsTable, int[] peptideFixedModifications, int[] referenceOffsets, int[] referenceProteins,
+            int[] referencePositions, String[] variableModifications, int[][] variants, double[] masses, int[] entryPeptides, int[] entryVariants) {
+
+        this.parametersKey = parametersKey;
+        this.proteinAccessions = proteinAccessions;
+        this.residues = residues;
+        this.sequenceOffsets = sequenceOffsets;
+        this.fixedModificationsTable = fixedModificationsTable;
+        this.peptideFixedModifications = peptideFixedModifications;
+        this.referenceOffsets = referenceOffsets;
+        this.referenceProteins = referenceProteins;
+        this.referencePositions = referencePositions;
+        this.variableModifications = variableModifications;
+        this.variants = variants;
+        this.masses = masses;
+        this.entryPeptides = entryPeptides;
+        this.entryVariants = entryVariants;
+
+    }
+
+    /**
+     * Returns the key of the parameters used to build the store.
+     *
+     * @return the key of the parameters used to build the store
+     */
+    public String getParametersKey() {
+        return parametersKey;
+    }
+
+    /**
+     * Returns the number of entries, i.e. peptide variants.
+     *
+     * @return the number of entries
+     */
+    public int size() {
+        return masses.length;
+    }
+
+    /**
+     * Returns the number of distinct peptides.
+     *
+     * @return the number of distinct peptides
+     */
+    public int getNPeptides() {
+        return sequenceOffsets.length - 1;
+    }
+
+    /**
+     * Returns the number of proteins.
+     *
+     * @return the number of proteins
+     */
+    public int getNProteins() {
+        return proteinAccessions.length;
+    }
+
+    /**
+     * Returns the index of the first entry with a mass higher than or equal
+     * to the given mass, size() if none.
+     *
+     * @param mass the mass
+     *
+     * @return the index of the first entry with a mass higher than or equal
+     * to the given mass
+     */
+    public int getFirstIndex(double mass) {
+
+        int low = 0;
+        int high = masses.length;
+
+        while (low < high) {
+
+            int middle = (low + high) >>> 1;
+
+            if (masses[middle] < mass) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        return low;
+    }
+
+    /**
+     * Returns the index after the last entry with a mass lower than or equal
+     * to the given mass.
+     *
+     * @param mass the mass
+     *
+     * @return the index after the last entry with a mass lower than or equal
+     * to the given mass
+     */
+    public int getLastIndex(double mass) {
+
+        int low = 0;
+        int high = masses.length;
+
+        while (low < high) {
+
+            int middle = (low + high) >>> 1;
+
+            if (masses[middle] <= mass) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        return low;
+    }
+
+    /**
+     * Returns the range of the entries within the given tolerance of a mass
+     * as an array {first index, index after the last}.
+     *
+     * @param mass the mass
+     * @param tolerance the tolerance
+     * @param ppm boolean indicating whether the tolerance is in ppm
+     *
+     * @return the range of the entries within the tolerance
+     */
+    public int[] getRange(double mass, double tolerance, boolean ppm) {
+
+        double deviation = ppm ? mass * tolerance / 1000000 : tolerance;
+
+        return new int[]{getFirstIndex(mass - deviation), getLastIndex(mass + deviation)};
+    }
+
+    /**
+     * Returns the mass of the given entry.
+     *
+     * @param entry the index of the entry
+     *
+     * @return the mass of the entry
+     */
+    public double getMass(int entry) {
+        return masses[entry];
+    }
+
+    /**
+     * Returns the index of the peptide of the given entry.
+     *
+     * @param entry the index of the entry
+     *
+     * @return the index of the peptide
+     */
+    public int getPeptideIndex(int entry) {
+        return entryPeptides[entry];
+    }
+
+    /**
+     * Returns the sequence of the given peptide.
+     *
+     * @param peptideIndex the index of the peptide
+     *
+     * @return the sequence of the peptide
+     */
+    public String getSequence(int peptideIndex) {
+
+        int start = sequenceOffsets[peptideIndex];
+
+        return new String(residues, start, sequenceOffsets[peptideIndex + 1] - start, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Returns the fixed modifications of the given peptide as provided by the
+     * digestion iterators. The array is shared and must not be modified.
+     *
+     * @param peptideIndex the index of the peptide
+     *
+     * @return the fixed modifications of the peptide
+     */
+    public String[] getFixedModifications(int peptideIndex) {
+        return fixedModificationsTable[peptideFixedModifications[peptideIndex]];
+    }
+
+    /**
+     * Returns the number of proteins the given peptide maps to.
+     *
+     * @param peptideIndex the index of the peptide
+     *
+     * @return the number of proteins the peptide maps to
+     */
+    public int getNProteinReferences(int peptideIndex) {
+        return referenceOffsets[peptideIndex + 1] - referenceOffsets[peptideIndex];
+    }
+
+    /**
+     * Returns the accession of the protein of the given reference of a
+     * peptide.
+     *
+     * @param peptideIndex the index of the peptide
+     * @param reference the index of the reference of the peptide
+     *
+     * @return the accession of the protein
+     */
+    public String getProteinAccession(int peptideIndex, int reference) {
+        return proteinAccessions[referenceProteins[referenceOffsets[peptideIndex] + reference]];
+    }
+
+    /**
+     * Returns the 0-based position of the peptide on the protein of the given
+     * reference.
+     *
+     * @param peptideIndex the index of the peptide
+     * @param reference the index of the reference of the peptide
+     *
+     * @return the position of the peptide on the protein
+     */
+    public int getProteinPosition(int peptideIndex, int reference) {
+        return referencePositions[referenceOffsets[peptideIndex] + reference];
+    }
+
+    /**
+     * Returns the names of the variable modifications considered.
+     *
+     * @return the names of the variable modifications considered
+     */
+    public String[] getVariableModifications() {
+        return variableModifications.clone();
+    }
+
+    /**
+     * Returns the variable modifications of the given entry. A modification
+     * occurring multiple times is listed multiple times. Modifications are
+     * not localized.
+     *
+     * @param entry the index of the entry
+     *
+     * @return the variable modifications of the entry
+     */
+    public ArrayList<String> getVariableModifications(int entry) {
+
+        int[] counts = variants[entryVariants[entry]];
+        ArrayList<String> result = new ArrayList<>(1);
+
+        for (int i = 0; i < counts.length; i++) {
+            for (int j = 0; j < counts[i]; j++) {
+                result.add(variableModifications[i]);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Writes the store to a binary file.
+     *
+     * @param destinationFile the file where to write the store
+     *
+     * @throws IOException exception thrown if an error occurred while writing
+     * the file
+     */
+    public void write(File destinationFile) throws IOException {
+
+        try (DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(destinationFile), BUFFER_SIZE))) {
+
+            outputStream.writeInt(FORMAT_VERSION);
+            outputStream.writeUTF(parametersKey);
+
+            outputStream.writeInt(proteinAccessions.length);
+
+            for (String accession : proteinAccessions) {
+                outputStream.writeUTF(accession);
+            }
+
+            writeIntArray(outputStream, sequenceOffsets);
+            outputStream.writeInt(residues.length);
+            outputStream.write(residues);
+
+            outputStream.writeInt(fixedModificationsTable.length);
+
+            for (String[] fixedModifications : fixedModificationsTable) {
+
+                outputStream.writeInt(fixedModifications.length);
+
+                for (String modification : fixedModifications) {
+                    outputStream.writeUTF(modification == null ? "" : modification);
+                }
+            }
+
+            writeIntArray(outputStream, peptideFixedModifications);
+            writeIntArray(outputStream, referenceOffsets);
+            writeIntArray(outputStream, referenceProteins);
+            writeIntArray(outputStream, referencePositions);
+
+            outputStream.writeInt(variableModifications.length);
+
+            for (String modification : variableModifications) {
+                outputStream.writeUTF(modification);
+            }
+
+            outputStream.writeInt(variants.length);
+
+            for (int[] variant : variants) {
+                writeIntArray(outputStream, variant);
+            }
+
+            outputStream.writeInt(masses.length);
+
+            for (double mass : masses) {
+                outputStream.writeDouble(mass);
+            }
+
+            writeIntArray(outputStream, entryPeptides);
+            writeIntArray(outputStream, entryVariants);
+
+        }
+    }
+
+    /**
+     * Reads a store from a binary file.
+     *
+     * @param storeFile the file containing the store
+     *
+     * @return the store, null if the file was written in another format
+     * version
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * the file
+     */
+    public static PeptideCandidateStore read(File storeFile) throws IOException {
+
+        try (DataInputStream inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(storeFile), BUFFER_SIZE))) {
+
+            int version = inputStream.readInt();
+
+            if (version != FORMAT_VERSION) {
+                return null;
+            }
+
+            String parametersKey = inputStream.readUTF();
+
+            String[] proteinAccessions = new String[inputStream.readInt()];
+
+            for (int i = 0; i < proteinAccessions.length; i++) {
+                proteinAccessions[i] = inputStream.readUTF();
+            }
+
+            int[] sequenceOffsets = readIntArray(inputStream);
+            byte[] residues = new byte[inputStream.readInt()];
+            inputStream.readFully(residues);
+
+            String[][] fixedModificationsTable = new String[inputStream.readInt()][];
+
+            for (int i = 0; i < fixedModificationsTable.length; i++) {
+
+                String[] fixedModifications = new String[inputStream.readInt()];
+
+                for (int j = 0; j < fixedModifications.length; j++) {
+
+                    String modification = inputStream.readUTF();
+                    fixedModifications[j] = modification.isEmpty() ? null : modification;
+
+                }
+
+                fixedModificationsTable[i] = fixedModifications;
+
+            }
+
+            int[] peptideFixedModifications = readIntArray(inputStream);
+            int[] referenceOffsets = readIntArray(inputStream);
+            int[] referenceProteins = readIntArray(inputStream);
+            int[] referencePositions = readIntArray(inputStream);
+
+            String[] variableModifications = new String[inputStream.readInt()];
+
+            for (int i = 0; i < variableModifications.length; i++) {
+                variableModifications[i] = inputStream.readUTF();
+            }
+
+            int[][] variants = new int[inputStream.readInt()][];
+
+            for (int i = 0; i < variants.length; i++) {
+                variants[i] = readIntArray(inputStream);
+            }
+
+            double[] masses = new double[inputStream.readInt()];
+
+            for (int i = 0; i < masses.length; i++) {
+                masses[i] = inputStream.readDouble();
+            }
+
+            int[] entryPeptides = readIntArray(inputStream);
+            int[] entryVariants = readIntArray(inputStream);
+
+            return new PeptideCandidateStore(parametersKey, proteinAccessions, residues, sequenceOffsets, fixedModificationsTable,
+                    peptideFixedModifications, referenceOffsets, referenceProteins, referencePositions, variableModifications, variants,
+                    masses, entryPeptides, entryVariants);
+        }
+    }
+
+    /**
+     * Writes an array of integers preceded by its length.
+     *
+     * @param outputStream the output stream
+     * @param array the array
+     *
+     * @throws IOException exception thrown if an error occurred while writing
+     */
+    private static void writeIntArray(DataOutputStream outputStream, int[] array) throws IOException {
+
+        outputStream.writeInt(array.length);
+
+        for (int value : array) {
+            outputStream.writeInt(value);
+        }
+    }
+
+    /**
+     * Reads an array of integers preceded by its length.
+     *
+     * @param inputStream the input stream
+     *
+     * @return the array
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     */
+    private static int[] readIntArray(DataInputStream inputStream) throws IOException {
+
+        int[] array = new int[inputStream.readInt()];
+
+        for (int i = 0; i < array.length; i++) {
+            array[i] = inputStream.readInt();
+        }
+
+        return array;
+    }
+}
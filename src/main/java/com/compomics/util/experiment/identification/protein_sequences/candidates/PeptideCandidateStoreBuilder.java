@@ -0,0 +1,934 @@
+package com.compomics.util.experiment.identification.protein_sequences.candidates;
+
+import com.compomics.util.experiment.biology.aminoacids.sequence.AminoAcidSequence;
+import com.compomics.util.experiment.biology.enzymes.Enzyme;
+import com.compomics.util.experiment.biology.modifications.Modification;
+import com.compomics.util.experiment.biology.modifications.ModificationFactory;
+import com.compomics.util.experiment.biology.modifications.ModificationType;
+import com.compomics.util.experiment.biology.proteins.Protein;
+import com.compomics.util.experiment.identification.protein_sequences.digestion.IteratorFactory;
+import com.compomics.util.experiment.identification.protein_sequences.digestion.SequenceCursor;
+import com.compomics.util.experiment.identification.utils.ModificationUtils;
+import com.compomics.util.experiment.io.biology.protein.ProteinIterator;
+import com.compomics.util.experiment.io.biology.protein.iterators.PipelinedFastaIterator;
+import com.compomics.util.experiment.personalization.ExperimentObject;
+import com.compomics.util.parameters.identification.advanced.SequenceMatchingParameters;
+import com.compomics.util.parameters.identification.search.DigestionParameters;
+import com.compomics.util.parameters.identification.search.ModificationParameters;
+import com.compomics.util.waiting.WaitingHandler;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Builds peptide candidate stores from the in-silico digestion of a fasta
+ * file. Proteins are digested in parallel, identical peptides are merged, and
+ * the combinations of variable modifications are enumerated for every
+ * peptide. Protein terminal modifications are enumerated for peptides found
+ * at the corresponding terminus of at least one protein. Stores can be saved next to the fasta file and reused as long as
+ * the parameters do not change.
+ *
+ * @author Marc Vaudel
+ */
+public class PeptideCandidateStoreBuilder {
+
+    /**
+     * The extension of the store files.
+     */
+    public static final String EXTENSION = ".candidates";
+    /**
+     * The digestion parameters.
+     */
+    private final DigestionParameters digestionParameters;
+    /**
+     * The modification parameters.
+     */
+    private final ModificationParameters modificationParameters;
+    /**
+     * The minimal mass of the candidates.
+     */
+    private final double massMin;
+    /**
+     * The maximal mass of the candidates.
+     */
+    private final double massMax;
+    /**
+     * The maximal number of variable modifications per candidate.
+     */
+    private final int maxVariableModifications;
+    /**
+     * The sequence matching parameters used to find modification sites.
+     */
+    private final SequenceMatchingParameters modificationsSequenceMatchingParameters = SequenceMatchingParameters.getDefaultSequenceMatching();
+
+    /**
+     * Constructor.
+     *
+     * @param digestionParameters the digestion parameters
+     * @param modificationParameters the modification parameters
+     * @param massMin the minimal mass of the candidates
+     * @param massMax the maximal mass of the candidates
+     * @param maxVariableModifications the maximal number of variable
+     * modifications per candidate
+     */
+    public PeptideCandidateStoreBuilder(DigestionParameters digestionParameters, ModificationParameters modificationParameters,
+            double massMin, double massMax, int maxVariableModifications) {
+
+        this.digestionParameters = digestionParameters;
+        this.modificationParameters = modificationParameters;
+        this.massMin = massMin;
+        this.massMax = massMax;
+        this.maxVariableModifications = maxVariableModifications;
+
+    }
+
+    /**
+     * Returns the store for the given fasta file. If a store built with the
+     * same parameters and in the current format is found in the given folder
+     * it is loaded, otherwise the store is built and saved in the folder.
+     *
+     * @param fastaFile the fasta file
+     * @param folder the folder where to look for and save the store
+     * @param nThreads the number of threads to use
+     * @param waitingHandler a waiting handler to display progress and allow
+     * canceling the process
+     *
+     * @return the store, null if the process was canceled
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * or writing a file
+     * @throws InterruptedException exception thrown if a thread was
+     * interrupted
+     */
+    public PeptideCandidateStore getStore(File fastaFile, File folder, int nThreads, WaitingHandler waitingHandler) throws IOException, InterruptedException {
+
+        String parametersKey = getParametersKey(fastaFile);
+        File storeFile = getStoreFile(fastaFile, folder);
+
+        if (storeFile.exists()) {
+
+            PeptideCandidateStore store = PeptideCandidateStore.read(storeFile);
+
+            if (store != null && store.getParametersKey().equals(parametersKey)) {
+                return store;
+            }
+        }
+
+        PeptideCandidateStore store = build(fastaFile, nThreads, waitingHandler);
+
+        if (store != null) {
+            store.write(storeFile);
+        }
+
+        return store;
+    }
+
+    /**
+     * Returns the file where the store of the given fasta file is saved.
+     *
+     * @param fastaFile the fasta file
+     * @param folder the folder where the store is saved
+     *
+     * @return the file where the store is saved
+     */
+    public File getStoreFile(File fastaFile, File folder) {
+
+        String fastaName = fastaFile.getName();
+        int extensionIndex = fastaName.lastIndexOf('.');
+
+        if (extensionIndex > 0) {
+            fastaName = fastaName.substring(0, extensionIndex);
+        }
+
+        String fileName = fastaName + "_" + Long.toHexString(ExperimentObject.asLong(getParametersKey(fastaFile))) + EXTENSION;
+
+        return new File(folder, fileName);
+    }
+
+    /**
+     * Returns a key representing the fasta file and the parameters used to
+     * build the store.
+     *
+     * @param fastaFile the fasta file
+     *
+     * @return a key representing the fasta file and the parameters
+     */
+    public String getParametersKey(File fastaFile) {
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(fastaFile.getName())
+                .append('|').append(fastaFile.length())
+                .append('|').append(fastaFile.lastModified())
+                .append('|').append(digestionParameters.getCleavageParameter());
+
+        if (digestionParameters.getCleavageParameter() == DigestionParameters.CleavageParameter.enzyme) {
+
+            String[] enzymes = digestionParameters.getEnzymes().stream()
+                    .map(Enzyme::getName)
+                    .sorted()
+                    .toArray(String[]::new);
+
+            for (String enzyme : enzymes) {
+
+                sb.append('|').append(enzyme)
+                        .append(',').append(digestionParameters.getSpecificity(enzyme))
+                        .append(',').append(digestionParameters.getnMissedCleavages(enzyme));
+
+            }
+        }
+
+        sb.append("|fixed");
+
+        modificationParameters.getFixedModifications().stream()
+                .sorted()
+                .forEach(modification -> sb.append(',').append(modification));
+
+        sb.append("|variable");
+
+        modificationParameters.getVariableModifications().stream()
+                .sorted()
+                .forEach(modification -> sb.append(',').append(modification));
+
+        sb.append('|').append(massMin)
+                .append('|').append(massMax)
+                .append('|').append(maxVariableModifications);
+
+        return sb.toString();
+    }
+
+    /**
+     * Digests the given fasta file and builds the candidate store.
+     *
+     * @param fastaFile the fasta file
+     * @param nThreads the number of threads to use
+     * @param waitingHandler a waiting handler to display progress and allow
+     * canceling the process
+     *
+     * @return the store, null if the process was canceled
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * the fasta file
+     * @throws InterruptedException exception thrown if a thread was
+     * interrupted
+     */
+    public PeptideCandidateStore build(File fastaFile, int nThreads, WaitingHandler waitingHandler) throws IOException, InterruptedException {
+
+        String[] variableModifications = modificationParameters.getVariableModifications().stream()
+                .distinct()
+                .sorted()
+                .toArray(String[]::new);
+        ModificationFactory modificationFactory = ModificationFactory.getInstance();
+        Modification[] modifications = Arrays.stream(variableModifications)
+                .map(modificationFactory::getModification)
+                .toArray(Modification[]::new);
+
+        // Widen the digestion mass window by the mass the variable modifications can add or remove
+
+        double maxDelta = 0.0, minDelta = 0.0;
+
+        for (Modification modification : modifications) {
+
+            maxDelta = Math.max(maxDelta, maxVariableModifications * modification.getMass());
+            minDelta = Math.min(minDelta, maxVariableModifications * modification.getMass());
+
+        }
+
+        double digestionMassMin = massMin - maxDelta;
+        double digestionMassMax = massMax - minDelta;
+
+        // Digest the proteins
+
+        if (waitingHandler != null) {
+            waitingHandler.setSecondaryProgressCounterIndeterminate(true);
+        }
+
+        PipelinedFastaIterator fastaIterator = new PipelinedFastaIterator(fastaFile, false, nThreads);
+        ArrayList<String> accessions = new ArrayList<>();
+        ConcurrentHashMap<String, PeptideRecord> peptideMap = new ConcurrentHashMap<>();
+        ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+
+        try {
+
+            ArrayList<Future<?>> futures = new ArrayList<>(nThreads);
+
+            for (int i = 0; i < nThreads; i++) {
+
+                DigestionRunnable runnable = new DigestionRunnable(fastaIterator, accessions, peptideMap, digestionMassMin, digestionMassMax, waitingHandler);
+                futures.add(pool.submit(runnable));
+
+            }
+
+            for (Future<?> future : futures) {
+                future.get();
+            }
+
+        } catch (ExecutionException e) {
+
+            throw new IOException("An error occurred while digesting " + fastaFile + ".", e);
+
+        } finally {
+
+            pool.shutdownNow();
+            fastaIterator.close();
+
+        }
+
+        if (waitingHandler != null) {
+
+            waitingHandler.setSecondaryProgressCounterIndeterminate(false);
+
+            if (waitingHandler.isRunCanceled()) {
+                return null;
+            }
+        }
+
+        // Sort the peptides to obtain a deterministic store
+
+        PeptideRecord[] peptides = peptideMap.values().toArray(new PeptideRecord[peptideMap.size()]);
+        Arrays.sort(peptides, Comparator.comparing(peptideRecord -> peptideRecord.key));
+
+        // Peptide sequences, fixed modifications, and protein references
+
+        int nPeptides = peptides.length;
+        int[] sequenceOffsets = new int[nPeptides + 1];
+        int[] referenceOffsets = new int[nPeptides + 1];
+
+        for (int i = 0; i < nPeptides; i++) {
+
+            sequenceOffsets[i + 1] = sequenceOffsets[i] + peptides[i].sequence.length();
+            referenceOffsets[i + 1] = referenceOffsets[i] + peptides[i].nReferences;
+
+        }
+
+        byte[] residues = new byte[sequenceOffsets[nPeptides]];
+        int[] referenceProteins = new int[referenceOffsets[nPeptides]];
+        int[] referencePositions = new int[referenceOffsets[nPeptides]];
+        int[] peptideFixedModifications = new int[nPeptides];
+        HashMap<String, Integer> fixedModificationsIds = new HashMap<>();
+        ArrayList<String[]> fixedModificationsTable = new ArrayList<>();
+
+        for (int i = 0; i < nPeptides; i++) {
+
+            PeptideRecord peptideRecord = peptides[i];
+
+            byte[] sequenceBytes = peptideRecord.sequence.getBytes(StandardCharsets.US_ASCII);
+            System.arraycopy(sequenceBytes, 0, residues, sequenceOffsets[i], sequenceBytes.length);
+
+            String fixedModificationsKey = Arrays.toString(peptideRecord.fixedModifications);
+            Integer fixedModificationsId = fixedModificationsIds.get(fixedModificationsKey);
+
+            if (fixedModificationsId == null) {
+
+                fixedModificationsId = fixedModificationsTable.size();
+                fixedModificationsIds.put(fixedModificationsKey, fixedModificationsId);
+                fixedModificationsTable.add(peptideRecord.fixedModifications);
+
+            }
+
+            peptideFixedModifications[i] = fixedModificationsId;
+
+            peptideRecord.sortReferences();
+            System.arraycopy(peptideRecord.proteins, 0, referenceProteins, referenceOffsets[i], peptideRecord.nReferences);
+            System.arraycopy(peptideRecord.positions, 0, referencePositions, referenceOffsets[i], peptideRecord.nReferences);
+
+        }
+
+        // Variable modification variants
+
+        HashMap<String, Integer> variantsIds = new HashMap<>();
+        ArrayList<int[]> variants = new ArrayList<>();
+        EntriesBuilder entriesBuilder = new EntriesBuilder(nPeptides);
+        int[] nSites = new int[modifications.length];
+        int[] counts = new int[modifications.length];
+
+        for (int i = 0; i < nPeptides; i++) {
+
+            PeptideRecord peptideRecord = peptides[i];
+            AminoAcidSequence aminoAcidSequence = new AminoAcidSequence(peptideRecord.sequence);
+            HashSet<Integer> allSites = new HashSet<>(2);
+
+            for (int j = 0; j < modifications.length; j++) {
+
+                int[] sites = getPossibleModificationSites(peptideRecord, aminoAcidSequence, modifications[j]);
+                nSites[j] = sites.length;
+
+                for (int site : sites) {
+                    allSites.add(site);
+                }
+            }
+
+            addVariants(i, peptideRecord.mass, 0, 0, Math.min(maxVariableModifications, allSites.size()), modifications, nSites, counts, variantsIds, variants, entriesBuilder);
+
+        }
+
+        entriesBuilder.sort();
+
+        return new PeptideCandidateStore(getParametersKey(fastaFile), accessions.toArray(new String[accessions.size()]), residues,
+                sequenceOffsets, fixedModificationsTable.toArray(new String[fixedModificationsTable.size()][]), peptideFixedModifications,
+                referenceOffsets, referenceProteins, referencePositions, variableModifications, variants.toArray(new int[variants.size()][]),
+                entriesBuilder.getMasses(), entriesBuilder.getPeptides(), entriesBuilder.getVariants());
+    }
+
+    /**
+     * Returns the possible sites of a variable modification on a peptide.
+     * Protein terminal modifications are possible if the peptide is at the
+     * corresponding terminus of at least one of its proteins.
+     *
+     * @param peptideRecord the peptide
+     * @param aminoAcidSequence the sequence of the peptide
+     * @param modification the modification
+     *
+     * @return the possible sites of the modification
+     */
+    private int[] getPossibleModificationSites(PeptideRecord peptideRecord, AminoAcidSequence aminoAcidSequence, Modification modification) {
+
+        String sequence = peptideRecord.sequence;
+        ModificationType modificationType = modification.getModificationType();
+
+        if (modificationType == ModificationType.modn_protein) {
+
+            return peptideRecord.proteinNTerm ? new int[]{0} : new int[0];
+
+        } else if (modificationType == ModificationType.modnaa_protein) {
+
+            return peptideRecord.proteinNTerm && modification.getPattern().matchesAt(sequence, modificationsSequenceMatchingParameters, 0)
+                    ? new int[]{0} : new int[0];
+
+        } else if (modificationType == ModificationType.modc_protein) {
+
+            return peptideRecord.proteinCTerm ? new int[]{sequence.length() + 1} : new int[0];
+
+        } else if (modificationType == ModificationType.modcaa_protein) {
+
+            return peptideRecord.proteinCTerm && modification.getPattern().matchesAt(sequence, modificationsSequenceMatchingParameters, sequence.length() - 1)
+                    ? new int[]{sequence.length() + 1} : new int[0];
+
+        }
+
+        return ModificationUtils.getPossibleModificationSites(aminoAcidSequence, true, true, modification, modificationsSequenceMatchingParameters);
+    }
+
+    /**
+     * Recursively enumerates the combinations of variable modifications of a
+     * peptide and adds the ones within the mass range to the entries.
+     *
+     * @param peptideIndex the index of the peptide
+     * @param mass the mass of the peptide with the modifications of the
+     * current combination
+     * @param modificationIndex the index of the modification to enumerate
+     * @param nModifications the number of modifications in the current
+     * combination
+     * @param maxModifications the maximal number of modifications for this
+     * peptide
+     * @param modifications the variable modifications
+     * @param nSites the number of possible sites of every modification
+     * @param counts the number of occurrences of every modification in the
+     * current combination
+     * @param variantsIds the indexes of the variants indexed by their string
+     * representation
+     * @param variants the variants
+     * @param entriesBuilder the builder of the entries
+     */
+    private void addVariants(int peptideIndex, double mass, int modificationIndex, int nModifications, int maxModifications,
+            Modification[] modifications, int[] nSites, int[] counts, HashMap<String, Integer> variantsIds, ArrayList<int[]> variants,
+            EntriesBuilder entriesBuilder) {
+
+        if (modificationIndex == modifications.length) {
+
+            if (mass >= massMin && mass <= massMax) {
+
+                String variantKey = Arrays.toString(counts);
+                Integer variantId = variantsIds.get(variantKey);
+
+                if (variantId == null) {
+
+                    variantId = variants.size();
+                    variantsIds.put(variantKey, variantId);
+                    variants.add(counts.clone());
+
+                }
+
+                entriesBuilder.add(mass, peptideIndex, variantId);
+
+            }
+
+            return;
+
+        }
+
+        int maxCount = Math.min(nSites[modificationIndex], maxModifications - nModifications);
+        double modificationMass = modifications[modificationIndex].getMass();
+
+        for (int count = 0; count <= maxCount; count++) {
+
+            counts[modificationIndex] = count;
+            addVariants(peptideIndex, mass + count * modificationMass, modificationIndex + 1, nModifications + count, maxModifications,
+                    modifications, nSites, counts, variantsIds, variants, entriesBuilder);
+
+        }
+
+        counts[modificationIndex] = 0;
+
+    }
+
+    /**
+     * A distinct peptide and the proteins it maps to.
+     */
+    private static class PeptideRecord {
+
+        /**
+         * The key of the peptide.
+         */
+        private final String key;
+        /**
+         * The sequence of the peptide.
+         */
+        private final String sequence;
+        /**
+         * The fixed modifications of the peptide.
+         */
+        private final String[] fixedModifications;
+        /**
+         * The mass of the peptide including fixed modifications, as computed
+         * at the first reference. The masses computed at different references
+         * can differ by rounding.
+         */
+        private double mass;
+        /**
+         * The index of the protein of the reference where the mass was
+         * computed.
+         */
+        private int massProtein = Integer.MAX_VALUE;
+        /**
+         * The position of the reference where the mass was computed.
+         */
+        private int massPosition = Integer.MAX_VALUE;
+        /**
+         * The indexes of the proteins.
+         */
+        private int[] proteins = new int[1];
+        /**
+         * The positions on the proteins.
+         */
+        private int[] positions = new int[1];
+        /**
+         * The number of references.
+         */
+        private int nReferences = 0;
+        /**
+         * Indicates whether the peptide is at the N-terminus of a protein.
+         */
+        private boolean proteinNTerm = false;
+        /**
+         * Indicates whether the peptide is at the C-terminus of a protein.
+         */
+        private boolean proteinCTerm = false;
+
+        /**
+         * Constructor.
+         *
+         * @param key the key of the peptide
+         * @param sequence the sequence of the peptide
+         * @param fixedModifications the fixed modifications of the peptide
+         */
+        private PeptideRecord(String key, String sequence, String[] fixedModifications) {
+
+            this.key = key;
+            this.sequence = sequence;
+            this.fixedModifications = fixedModifications;
+
+        }
+
+        /**
+         * Adds a reference to a protein.
+         *
+         * @param protein the index of the protein
+         * @param position the position of the peptide on the protein
+         * @param proteinLength the length of the protein
+         * @param mass the mass of the peptide computed at this reference
+         */
+        private synchronized void add(int protein, int position, int proteinLength, double mass) {
+
+            // Keep the mass of the first reference so that the store does not depend on the order of digestion
+            if (protein < massProtein || protein == massProtein && position < massPosition) {
+
+                this.mass = mass;
+                massProtein = protein;
+                massPosition = position;
+
+            }
+
+            proteinNTerm = proteinNTerm || position == 0;
+            proteinCTerm = proteinCTerm || position + sequence.length() == proteinLength;
+
+            if (nReferences == proteins.length) {
+
+                proteins = Arrays.copyOf(proteins, 2 * nReferences);
+                positions = Arrays.copyOf(positions, 2 * nReferences);
+
+            }
+
+            proteins[nReferences] = protein;
+            positions[nReferences] = position;
+            nReferences++;
+
+        }
+
+        /**
+         * Sorts the references by protein and position.
+         */
+        private void sortReferences() {
+
+            for (int i = 1; i < nReferences; i++) {
+
+                int protein = proteins[i];
+                int position = positions[i];
+                int j = i - 1;
+
+                while (j >= 0 && (proteins[j] > protein || proteins[j] == protein && positions[j] > position)) {
+
+                    proteins[j + 1] = proteins[j];
+                    positions[j + 1] = positions[j];
+                    j--;
+
+                }
+
+                proteins[j + 1] = protein;
+                positions[j + 1] = position;
+
+            }
+        }
+    }
+
+    /**
+     * Builder for the entries of the store.
+     */
+    private static class EntriesBuilder {
+
+        /**
+         * The mass of every entry.
+         */
+        private double[] masses;
+        /**
+         * The index of the peptide of every entry.
+         */
+        private int[] peptides;
+        /**
+         * The index of the variant of every entry.
+         */
+        private int[] variants;
+        /**
+         * The number of entries.
+         */
+        private int size = 0;
+
+        /**
+         * Constructor.
+         *
+         * @param initialCapacity the initial capacity
+         */
+        private EntriesBuilder(int initialCapacity) {
+
+            int capacity = Math.max(initialCapacity, 16);
+            masses = new double[capacity];
+            peptides = new int[capacity];
+            variants = new int[capacity];
+
+        }
+
+        /**
+         * Adds an entry.
+         *
+         * @param mass the mass
+         * @param peptideIndex the index of the peptide
+         * @param variantIndex the index of the variant
+         */
+        private void add(double mass, int peptideIndex, int variantIndex) {
+
+            if (size == masses.length) {
+
+                int capacity = 2 * size;
+                masses = Arrays.copyOf(masses, capacity);
+                peptides = Arrays.copyOf(peptides, capacity);
+                variants = Arrays.copyOf(variants, capacity);
+
+            }
+
+            masses[size] = mass;
+            peptides[size] = peptideIndex;
+            variants[size] = variantIndex;
+            size++;
+
+        }
+
+        /**
+         * Sorts the entries by mass, peptide, and variant.
+         */
+        private void sort() {
+            sort(0, size - 1);
+        }
+
+        /**
+         * Sorts the entries between the given indexes, inclusive.
+         *
+         * @param low the first index
+         * @param high the last index
+         */
+        private void sort(int low, int high) {
+
+            while (high - low > 16) {
+
+                int middle = (low + high) >>> 1;
+
+                if (compare(middle, low) < 0) {
+                    swap(middle, low);
+                }
+                if (compare(high, low) < 0) {
+                    swap(high, low);
+                }
+                if (compare(high, middle) < 0) {
+                    swap(high, middle);
+                }
+
+                swap(middle, high - 1);
+                int pivot = high - 1;
+                int i = low;
+                int j = high - 1;
+
+                while (true) {
+
+                    while (compare(++i, pivot) < 0) {
+                    }
+                    while (compare(--j, pivot) > 0) {
+                    }
+
+                    if (i >= j) {
+                        break;
+                    }
+
+                    swap(i, j);
+
+                }
+
+                swap(i, high - 1);
+
+                // Recurse on the smaller part to bound the stack depth
+
+                if (i - low < high - i) {
+
+                    sort(low, i - 1);
+                    low = i + 1;
+
+                } else {
+
+                    sort(i + 1, high);
+                    high = i - 1;
+
+                }
+            }
+
+            for (int i = low + 1; i <= high; i++) {
+                for (int j = i; j > low && compare(j, j - 1) < 0; j--) {
+                    swap(j, j - 1);
+                }
+            }
+        }
+
+        /**
+         * Compares two entries by mass, peptide, and variant.
+         *
+         * @param i the index of the first entry
+         * @param j the index of the second entry
+         *
+         * @return a negative integer, zero, or a positive integer as the first
+         * entry is lower than, equal to, or higher than the second
+         */
+        private int compare(int i, int j) {
+
+            int result = Double.compare(masses[i], masses[j]);
+
+            if (result == 0) {
+                result = Integer.compare(peptides[i], peptides[j]);
+            }
+            if (result == 0) {
+                result = Integer.compare(variants[i], variants[j]);
+            }
+
+            return result;
+        }
+
+        /**
+         * Swaps two entries.
+         *
+         * @param i the index of the first entry
+         * @param j the index of the second entry
+         */
+        private void swap(int i, int j) {
+
+            double mass = masses[i];
+            masses[i] = masses[j];
+            masses[j] = mass;
+
+            int peptide = peptides[i];
+            peptides[i] = peptides[j];
+            peptides[j] = peptide;
+
+            int variant = variants[i];
+            variants[i] = variants[j];
+            variants[j] = variant;
+
+        }
+
+        /**
+         * Returns the masses of the entries.
+         *
+         * @return the masses of the entries
+         */
+        private double[] getMasses() {
+            return Arrays.copyOf(masses, size);
+        }
+
+        /**
+         * Returns the peptide indexes of the entries.
+         *
+         * @return the peptide indexes of the entries
+         */
+        private int[] getPeptides() {
+            return Arrays.copyOf(peptides, size);
+        }
+
+        /**
+         * Returns the variant indexes of the entries.
+         *
+         * @return the variant indexes of the entries
+         */
+        private int[] getVariants() {
+            return Arrays.copyOf(variants, size);
+        }
+    }
+
+    /**
+     * Runnable digesting the proteins of a fasta iterator.
+     *
+     * @author Marc Vaudel
+     */
+    private class DigestionRunnable implements Runnable {
+
+        /**
+         * The iterator of the proteins.
+         */
+        private final ProteinIterator fastaIterator;
+        /**
+         * The accessions of the proteins in the order of the fasta file.
+         */
+        private final ArrayList<String> accessions;
+        /**
+         * The distinct peptides indexed by key.
+         */
+        private final ConcurrentHashMap<String, PeptideRecord> peptideMap;
+        /**
+         * The minimal mass of the peptides to digest.
+         */
+        private final double digestionMassMin;
+        /**
+         * The maximal mass of the peptides to digest.
+         */
+        private final double digestionMassMax;
+        /**
+         * The waiting handler.
+         */
+        private final WaitingHandler waitingHandler;
+        /**
+         * The factory for the digestion iterators.
+         */
+        private final IteratorFactory iteratorFactory = new IteratorFactory(modificationParameters.getFixedModifications());
+
+        /**
+         * Constructor.
+         *
+         * @param fastaIterator the iterator of the proteins
+         * @param accessions the accessions of the proteins in the order of
+         * the fasta file
+         * @param peptideMap the distinct peptides indexed by key
+         * @param digestionMassMin the minimal mass of the peptides to digest
+         * @param digestionMassMax the maximal mass of the peptides to digest
+         * @param waitingHandler the waiting handler
+         */
+        public DigestionRunnable(ProteinIterator fastaIterator, ArrayList<String> accessions, ConcurrentHashMap<String, PeptideRecord> peptideMap,
+                double digestionMassMin, double digestionMassMax, WaitingHandler waitingHandler) {
+
+            this.fastaIterator = fastaIterator;
+            this.accessions = accessions;
+            this.peptideMap = peptideMap;
+            this.digestionMassMin = digestionMassMin;
+            this.digestionMassMax = digestionMassMax;
+            this.waitingHandler = waitingHandler;
+
+        }
+
+        @Override
+        public void run() {
+
+            try {
+
+                while (waitingHandler == null || !waitingHandler.isRunCanceled()) {
+
+                    Protein protein;
+                    int proteinIndex;
+
+                    synchronized (accessions) {
+
+                        protein = fastaIterator.getNextProtein();
+
+                        if (protein == null) {
+                            return;
+                        }
+
+                        proteinIndex = accessions.size();
+                        accessions.add(protein.getAccession());
+
+                    }
+
+                    String proteinSequence = protein.getSequence();
+                    SequenceCursor sequenceCursor = iteratorFactory.getSequenceCursor(proteinSequence, digestionParameters, digestionMassMin, digestionMassMax);
+
+                    while (sequenceCursor.next()) {
+
+                        String sequence = sequenceCursor.getSequence();
+                        String[] fixedModifications = sequenceCursor.getFixedModifications();
+                        String key = sequence + Arrays.toString(fixedModifications);
+                        PeptideRecord peptideRecord = peptideMap.get(key);
+
+                        if (peptideRecord == null) {
+
+                            peptideRecord = new PeptideRecord(key, sequence, fixedModifications);
+                            PeptideRecord previousRecord = peptideMap.putIfAbsent(key, peptideRecord);
+
+                            if (previousRecord != null) {
+                                peptideRecord = previousRecord;
+                            }
+                        }
+
+                        peptideRecord.add(proteinIndex, sequenceCursor.getStart(), proteinSequence.length(), sequenceCursor.getMass());
+
+                    }
+                }
+
+            } catch (InterruptedException e) {
+
+                throw new RuntimeException(e);
+
+            }
+        }
+    }
+}
@@ -2,6 +2,10 @@ package com.compomics.util.experiment.identification.protein_sequences.digestion
 
 import com.compomics.util.experiment.biology.aminoacids.sequence.AminoAcidSequence;
 import com.compomics.util.experiment.biology.enzymes.Enzyme;
+import com.compomics.util.experiment.identification.protein_sequences.digestion.cursors.NoDigestionCursor;
+import com.compomics.util.experiment.identification.protein_sequences.digestion.cursors.SequenceIteratorCursor;
+import com.compomics.util.experiment.identification.protein_sequences.digestion.cursors.SpecificSingleEnzymeCursor;
+import com.compomics.util.experiment.identification.protein_sequences.digestion.cursors.UnspecificCursor;
 import com.compomics.util.experiment.identification.protein_sequences.digestion.iterators.SpecificSingleEnzymeIterator;
 import com.compomics.util.experiment.identification.protein_sequences.digestion.iterators.NoDigestionIterator;
 import com.compomics.util.experiment.identification.protein_sequences.digestion.iterators.NoDigestionCombinationIterator;
@@ -100,4 +104,52 @@ public class IteratorFactory {
 
         throw new UnsupportedOperationException("Cleavage preference of type " + digestionPreferences.getCleavageParameter() + " not supported.");
     }
+
+    /**
+     * Returns a sequence cursor for the given protein sequence and digestion
+     * preferences. Sequences containing ambiguous amino acids are handled by
+     * the sequence iterators.
+     *
+     * @param sequence the sequence to iterate
+     * @param digestionPreferences the digestion preferences to use
+     * @param massMin the minimal mass of a peptide
+     * @param massMax the maximal mass of a peptide
+     *
+     * @return a sequence cursor
+     *
+     * @throws java.lang.InterruptedException exception thrown if a thread is
+     * interrupted
+     */
+    public SequenceCursor getSequenceCursor(String sequence, DigestionParameters digestionPreferences, double massMin, double massMax) throws InterruptedException {
+
+        if (AminoAcidSequence.hasCombination(sequence)) {
+            return new SequenceIteratorCursor(getSequenceIterator(sequence, digestionPreferences, massMin, massMax));
+        }
+
+        DigestionParameters.CleavageParameter cleavageParameter = digestionPreferences.getCleavageParameter();
+
+        if (cleavageParameter == DigestionParameters.CleavageParameter.enzyme) {
+
+            ArrayList<Enzyme> enzymes = digestionPreferences.getEnzymes();
+
+            if (enzymes.size() == 1) {
+
+                Enzyme enzyme = enzymes.get(0);
+                int nMissedCleavages = digestionPreferences.getnMissedCleavages(enzyme.getName());
+
+                return new SpecificSingleEnzymeCursor(proteinIteratorUtils, sequence, enzyme, nMissedCleavages, massMin, massMax);
+            }
+
+        } else if (cleavageParameter == DigestionParameters.CleavageParameter.unSpecific) {
+
+            return new UnspecificCursor(proteinIteratorUtils, sequence, massMin, massMax);
+
+        } else if (cleavageParameter == DigestionParameters.CleavageParameter.wholeProtein) {
+
+            return new NoDigestionCursor(proteinIteratorUtils, sequence, massMin, massMax);
+
+        }
+
+        throw new UnsupportedOperationException("Cleavage preference of type " + digestionPreferences.getCleavageParameter() + " not supported.");
+    }
 }
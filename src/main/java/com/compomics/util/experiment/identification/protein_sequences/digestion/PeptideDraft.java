@@ -351,7 +351,7 @@ public class PeptideDraft {
 
         if (cTermModification != null) {
 
-            result[sequence.length + 1] = nTermModification;
+            result[sequence.length + 1] = cTermModification;
 
         }
 
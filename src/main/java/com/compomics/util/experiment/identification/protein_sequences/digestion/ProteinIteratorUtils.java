@@ -295,19 +295,38 @@ public class ProteinIteratorUtils {
     public String getCtermModification(PeptideDraft peptideDraft, String proteinSequence, int indexOnProtein) {
 
         char[] peptideSequence = peptideDraft.getSequence();
-        char aaChar = peptideSequence[peptideSequence.length - 1];
 
-        if (indexOnProtein == proteinSequence.length() - peptideDraft.length()) {
+        return getCtermModification(peptideSequence[peptideSequence.length - 1], peptideDraft.length(), proteinSequence, indexOnProtein);
+    }
+
+    /**
+     * Returns the c-terminal modification for the peptide of the given length
+     * at the given index on the protein.
+     *
+     * @param aaChar the c-terminal amino acid of the peptide
+     * @param peptideLength the length of the peptide
+     * @param proteinSequence the protein sequence
+     * @param indexOnProtein the index of the peptide on the protein
+     *
+     * @return the c-terminal modification for the peptide
+     */
+    public String getCtermModification(char aaChar, int peptideLength, String proteinSequence, int indexOnProtein) {
+
+        if (indexOnProtein == proteinSequence.length() - peptideLength) {
 
             if (fixedProteinCtermModification != null) {
                 return fixedProteinCtermModification;
             }
 
             String fixedProteinCtermModificationAtAa = fixedProteinCtermModificationsAtAa.get(aaChar);
-            AminoAcidPattern aminoAcidPattern = modificationPatternMap.get(fixedProteinCtermModificationAtAa);
 
-            if (aminoAcidPattern == null || aminoAcidPattern.matchesAt(proteinSequence, SequenceMatchingParameters.defaultStringMatching, proteinSequence.length() - 1)) {
-                return fixedProteinCtermModification;
+            if (fixedProteinCtermModificationAtAa != null) {
+
+                AminoAcidPattern aminoAcidPattern = modificationPatternMap.get(fixedProteinCtermModificationAtAa);
+
+                if (aminoAcidPattern == null || aminoAcidPattern.matchesAt(proteinSequence, SequenceMatchingParameters.defaultStringMatching, proteinSequence.length() - 1)) {
+                    return fixedProteinCtermModificationAtAa;
+                }
             }
         }
 
@@ -321,7 +340,7 @@ public class ProteinIteratorUtils {
 
             AminoAcidPattern aminoAcidPattern = modificationPatternMap.get(fixedPeptideCtermModificationAtAa);
 
-            if (aminoAcidPattern == null || aminoAcidPattern.matchesAt(proteinSequence, SequenceMatchingParameters.defaultStringMatching, indexOnProtein + peptideDraft.length())) {
+            if (aminoAcidPattern == null || aminoAcidPattern.matchesAt(proteinSequence, SequenceMatchingParameters.defaultStringMatching, indexOnProtein + peptideLength)) {
                 return fixedPeptideCtermModificationAtAa;
             }
         }
@@ -329,6 +348,63 @@ public class ProteinIteratorUtils {
         return null;
     }
 
+    /**
+     * Returns the fixed modification at the given index of the protein
+     * sequence, taking the modification patterns into account. Null if none.
+     *
+     * @param proteinSequence the protein sequence
+     * @param index the index on the protein sequence
+     *
+     * @return the fixed modification at the given index of the protein
+     */
+    public String getFixedModificationAt(String proteinSequence, int index) {
+
+        String modificationAtAa = fixedModificationsAtAa.get(proteinSequence.charAt(index));
+
+        if (modificationAtAa != null) {
+
+            AminoAcidPattern aminoAcidPattern = modificationPatternMap.get(modificationAtAa);
+
+            if (aminoAcidPattern == null || aminoAcidPattern.matchesAt(proteinSequence, SequenceMatchingParameters.defaultStringMatching, index)) {
+                return modificationAtAa;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns the cumulative masses of the residues of a protein sequence
+     * including their fixed modifications. The element at index i is the
+     * mass of the i first residues, the difference between two elements
+     * therefore gives the mass of the residues of a peptide without termini
+     * and water. The sequence should not contain ambiguous amino acids.
+     *
+     * @param proteinSequence the protein sequence
+     *
+     * @return the cumulative masses of the residues
+     */
+    public double[] getCumulativeResidueMasses(String proteinSequence) {
+
+        double[] cumulativeMasses = new double[proteinSequence.length() + 1];
+
+        for (int i = 0; i < proteinSequence.length(); i++) {
+
+            char aaChar = proteinSequence.charAt(i);
+            double residueMass = AminoAcid.getAminoAcid(aaChar).getMonoisotopicMass();
+            String modificationAtAa = getFixedModificationAt(proteinSequence, i);
+
+            if (modificationAtAa != null) {
+                residueMass += modificationsMasses.get(modificationAtAa);
+            }
+
+            cumulativeMasses[i + 1] = cumulativeMasses[i] + residueMass;
+
+        }
+
+        return cumulativeMasses;
+    }
+
     /**
      * Returns the mass corresponding to a given modification.
      *
@@ -457,7 +533,7 @@ public class ProteinIteratorUtils {
                 
                 
                 AminoAcidPattern aminoAcidPattern = modificationPatternMap.get(modificationAtAa);
-                if (aminoAcidPattern == null || aminoAcidPattern.matchesAt(proteinSequence, SequenceMatchingParameters.defaultStringMatching, i)) {
+                if (aminoAcidPattern == null || aminoAcidPattern.matchesAt(proteinSequence, SequenceMatchingParameters.defaultStringMatching, indexOnProtein + i)) {
                 
                     peptideModifications.put(i + 1, modificationAtAa);
                     peptideMass += modificationsMasses.get(modificationAtAa);
@@ -0,0 +1,86 @@
+package com.compomics.util.experiment.identification.protein_sequences.digestion;
+
+/**
+ * Interface for a cursor moving along the peptides of a protein sequence.
+ * Contrary to the sequence iterators, the cursor exposes the current peptide
+ * as indexes and mass on the protein and only creates objects on demand.
+ * Peptides outside the mass range are skipped before any object is created.
+ *
+ * @author Marc Vaudel
+ */
+public interface SequenceCursor {
+
+    /**
+     * Moves the cursor to the next peptide within the mass range.
+     *
+     * @return a boolean indicating whether a peptide was found, false if none
+     * left
+     *
+     * @throws java.lang.InterruptedException exception thrown if a thread is
+     * interrupted
+     */
+    public boolean next() throws InterruptedException;
+
+    /**
+     * Returns the 0-based index of the first residue of the current peptide
+     * on the protein.
+     *
+     * @return the index of the first residue of the current peptide
+     */
+    public int getStart();
+
+    /**
+     * Returns the 0-based index after the last residue of the current peptide
+     * on the protein.
+     *
+     * @return the index after the last residue of the current peptide
+     */
+    public int getEnd();
+
+    /**
+     * Returns the mass of the current peptide including fixed modifications.
+     *
+     * @return the mass of the current peptide
+     */
+    public double getMass();
+
+    /**
+     * Returns the fixed modification at the N-terminus of the current
+     * peptide, null if none.
+     *
+     * @return the fixed modification at the N-terminus of the current peptide
+     */
+    public String getNTermModification();
+
+    /**
+     * Returns the fixed modification at the C-terminus of the current
+     * peptide, null if none.
+     *
+     * @return the fixed modification at the C-terminus of the current peptide
+     */
+    public String getCTermModification();
+
+    /**
+     * Returns the sequence of the current peptide.
+     *
+     * @return the sequence of the current peptide
+     */
+    public String getSequence();
+
+    /**
+     * Returns the fixed modifications of the current peptide in the format
+     * of the extended peptides: index 0 for the N-terminus, 1 to length for
+     * the residues, and length + 1 for the C-terminus.
+     *
+     * @return the fixed modifications of the current peptide
+     */
+    public String[] getFixedModifications();
+
+    /**
+     * Returns the current peptide as extended peptide.
+     *
+     * @return the current peptide as extended peptide
+     */
+    public ExtendedPeptide getPeptide();
+
+}
@@ -0,0 +1,43 @@
+package com.compomics.util.experiment.identification.protein_sequences.digestion.cursors;
+
+import com.compomics.util.experiment.identification.protein_sequences.digestion.ProteinIteratorUtils;
+
+/**
+ * Cursor returning the whole protein sequence as a single peptide.
+ *
+ * @author Marc Vaudel
+ */
+public class NoDigestionCursor extends ProteinSequenceCursor {
+
+    /**
+     * Boolean indicating whether the protein was already iterated.
+     */
+    private boolean done = false;
+
+    /**
+     * Constructor.
+     *
+     * @param proteinIteratorUtils utils for the creation of the peptides
+     * @param proteinSequence the sequence to iterate
+     * @param massMin the minimal mass of a peptide
+     * @param massMax the maximal mass of a peptide
+     */
+    public NoDigestionCursor(ProteinIteratorUtils proteinIteratorUtils, String proteinSequence, double massMin, double massMax) {
+        super(proteinIteratorUtils, proteinSequence, massMin, massMax);
+    }
+
+    @Override
+    public boolean next() {
+
+        if (done || proteinSequence.isEmpty()) {
+            return false;
+        }
+
+        done = true;
+
+        String nTermModification = getNTermModificationAt(0);
+        double massWithoutCterm = getMassWithoutCterm(0, proteinSequence.length(), proteinIteratorUtils.getModificationMass(nTermModification));
+
+        return set(0, proteinSequence.length(), nTermModification, massWithoutCterm);
+    }
+}
@@ -0,0 +1,201 @@
+package com.compomics.util.experiment.identification.protein_sequences.digestion.cursors;
+
+import com.compomics.util.experiment.biology.proteins.Peptide;
+import com.compomics.util.experiment.identification.protein_sequences.digestion.ExtendedPeptide;
+import com.compomics.util.experiment.identification.protein_sequences.digestion.ProteinIteratorUtils;
+import com.compomics.util.experiment.identification.protein_sequences.digestion.SequenceCursor;
+
+/**
+ * Base class for the cursors moving along a protein sequence without
+ * ambiguous amino acids. The masses of the peptides are obtained from the
+ * cumulative masses of the residues of the protein.
+ *
+ * @author Marc Vaudel
+ */
+public abstract class ProteinSequenceCursor implements SequenceCursor {
+
+    /**
+     * Utilities classes for the digestion.
+     */
+    protected final ProteinIteratorUtils proteinIteratorUtils;
+    /**
+     * The protein sequence.
+     */
+    protected final String proteinSequence;
+    /**
+     * The cumulative masses of the residues of the protein.
+     */
+    protected final double[] cumulativeMasses;
+    /**
+     * The minimal mass to consider.
+     */
+    protected final double massMin;
+    /**
+     * The maximal mass to consider.
+     */
+    protected final double massMax;
+    /**
+     * The start index of the current peptide.
+     */
+    private int start = -1;
+    /**
+     * The end index of the current peptide.
+     */
+    private int end = -1;
+    /**
+     * The mass of the current peptide.
+     */
+    private double mass = 0.0;
+    /**
+     * The N-terminal modification of the current peptide.
+     */
+    private String nTermModification = null;
+    /**
+     * The C-terminal modification of the current peptide.
+     */
+    private String cTermModification = null;
+
+    /**
+     * Constructor.
+     *
+     * @param proteinIteratorUtils utils for the creation of the peptides
+     * @param proteinSequence the sequence to iterate
+     * @param massMin the minimal mass of a peptide
+     * @param massMax the maximal mass of a peptide
+     */
+    protected ProteinSequenceCursor(ProteinIteratorUtils proteinIteratorUtils, String proteinSequence, double massMin, double massMax) {
+
+        this.proteinIteratorUtils = proteinIteratorUtils;
+        this.proteinSequence = proteinSequence;
+        this.cumulativeMasses = proteinIteratorUtils.getCumulativeResidueMasses(proteinSequence);
+        this.massMin = massMin;
+        this.massMax = massMax;
+
+    }
+
+    /**
+     * Returns the N-terminal modification of a peptide starting at the given
+     * index.
+     *
+     * @param peptideStart the start index of the peptide
+     *
+     * @return the N-terminal modification
+     */
+    protected String getNTermModificationAt(int peptideStart) {
+        return proteinIteratorUtils.getNtermModification(peptideStart == 0, proteinSequence.charAt(peptideStart), proteinSequence);
+    }
+
+    /**
+     * Returns the mass of a peptide without C-terminal modification, i.e.
+     * the mass of the residues, of the N-terminal modification, and of
+     * water.
+     *
+     * @param peptideStart the start index of the peptide
+     * @param peptideEnd the end index of the peptide
+     * @param nTermModificationMass the mass of the N-terminal modification
+     *
+     * @return the mass of the peptide without C-terminal modification
+     */
+    protected double getMassWithoutCterm(int peptideStart, int peptideEnd, double nTermModificationMass) {
+        return cumulativeMasses[peptideEnd] - cumulativeMasses[peptideStart] + nTermModificationMass + ProteinIteratorUtils.WATER_MASS;
+    }
+
+    /**
+     * Indicates whether a peptide and all its extensions at the C-terminus
+     * are too heavy for the mass range.
+     *
+     * @param massWithoutCterm the mass of the peptide without C-terminal
+     * modification
+     *
+     * @return a boolean indicating whether the peptide is too heavy
+     */
+    protected boolean isTooHeavy(double massWithoutCterm) {
+        return massWithoutCterm + proteinIteratorUtils.getMinCtermMass() > massMax;
+    }
+
+    /**
+     * Completes the given peptide with its C-terminal modification and sets
+     * it as current peptide if its mass is within the mass range.
+     *
+     * @param peptideStart the start index of the peptide
+     * @param peptideEnd the end index of the peptide
+     * @param peptideNTermModification the N-terminal modification of the
+     * peptide
+     * @param massWithoutCterm the mass of the peptide without C-terminal
+     * modification
+     *
+     * @return a boolean indicating whether the peptide was set as current
+     * peptide
+     */
+    protected boolean set(int peptideStart, int peptideEnd, String peptideNTermModification, double massWithoutCterm) {
+
+        int length = peptideEnd - peptideStart;
+        String peptideCTermModification = proteinIteratorUtils.getCtermModification(proteinSequence.charAt(peptideEnd - 1), length, proteinSequence, peptideStart);
+        double peptideMass = massWithoutCterm + proteinIteratorUtils.getModificationMass(peptideCTermModification);
+
+        if (peptideMass < massMin || peptideMass > massMax) {
+            return false;
+        }
+
+        start = peptideStart;
+        end = peptideEnd;
+        mass = peptideMass;
+        nTermModification = peptideNTermModification;
+        cTermModification = peptideCTermModification;
+
+        return true;
+    }
+
+    @Override
+    public int getStart() {
+        return start;
+    }
+
+    @Override
+    public int getEnd() {
+        return end;
+    }
+
+    @Override
+    public double getMass() {
+        return mass;
+    }
+
+    @Override
+    public String getNTermModification() {
+        return nTermModification;
+    }
+
+    @Override
+    public String getCTermModification() {
+        return cTermModification;
+    }
+
+    @Override
+    public String getSequence() {
+        return proteinSequence.substring(start, end);
+    }
+
+    @Override
+    public String[] getFixedModifications() {
+
+        int length = end - start;
+        String[] fixedModifications = new String[length + 2];
+        fixedModifications[0] = nTermModification;
+        fixedModifications[length + 1] = cTermModification;
+
+        for (int i = 0; i < length; i++) {
+            fixedModifications[i + 1] = proteinIteratorUtils.getFixedModificationAt(proteinSequence, start + i);
+        }
+
+        return fixedModifications;
+    }
+
+    @Override
+    public ExtendedPeptide getPeptide() {
+
+        Peptide peptide = new Peptide(getSequence(), null, false, mass);
+
+        return new ExtendedPeptide(peptide, start, getFixedModifications());
+    }
+}
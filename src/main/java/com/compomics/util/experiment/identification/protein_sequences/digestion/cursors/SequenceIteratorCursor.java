@@ -0,0 +1,81 @@
+package com.compomics.util.experiment.identification.protein_sequences.digestion.cursors;
+
+import com.compomics.util.experiment.identification.protein_sequences.digestion.ExtendedPeptide;
+import com.compomics.util.experiment.identification.protein_sequences.digestion.SequenceCursor;
+import com.compomics.util.experiment.identification.protein_sequences.digestion.SequenceIterator;
+
+/**
+ * Cursor wrapping a sequence iterator. Used for the sequences containing
+ * ambiguous amino acids where the combinations of amino acids are
+ * enumerated by the iterators.
+ *
+ * @author Marc Vaudel
+ */
+public class SequenceIteratorCursor implements SequenceCursor {
+
+    /**
+     * The wrapped iterator.
+     */
+    private final SequenceIterator sequenceIterator;
+    /**
+     * The current peptide.
+     */
+    private ExtendedPeptide extendedPeptide = null;
+
+    /**
+     * Constructor.
+     *
+     * @param sequenceIterator the iterator to wrap
+     */
+    public SequenceIteratorCursor(SequenceIterator sequenceIterator) {
+        this.sequenceIterator = sequenceIterator;
+    }
+
+    @Override
+    public boolean next() throws InterruptedException {
+
+        extendedPeptide = sequenceIterator.getNextPeptide();
+
+        return extendedPeptide != null;
+    }
+
+    @Override
+    public int getStart() {
+        return extendedPeptide.position;
+    }
+
+    @Override
+    public int getEnd() {
+        return extendedPeptide.position + extendedPeptide.peptide.getSequence().length();
+    }
+
+    @Override
+    public double getMass() {
+        return extendedPeptide.peptide.getMass();
+    }
+
+    @Override
+    public String getNTermModification() {
+        return extendedPeptide.fixedModifications[0];
+    }
+
+    @Override
+    public String getCTermModification() {
+        return extendedPeptide.fixedModifications[extendedPeptide.fixedModifications.length - 1];
+    }
+
+    @Override
+    public String getSequence() {
+        return extendedPeptide.peptide.getSequence();
+    }
+
+    @Override
+    public String[] getFixedModifications() {
+        return extendedPeptide.fixedModifications;
+    }
+
+    @Override
+    public ExtendedPeptide getPeptide() {
+        return extendedPeptide;
+    }
+}
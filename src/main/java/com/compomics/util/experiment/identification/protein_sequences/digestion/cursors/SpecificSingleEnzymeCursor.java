@@ -0,0 +1,124 @@
+package com.compomics.util.experiment.identification.protein_sequences.digestion.cursors;
+
+import com.compomics.util.experiment.biology.enzymes.Enzyme;
+import com.compomics.util.experiment.identification.protein_sequences.digestion.ProteinIteratorUtils;
+import java.util.Arrays;
+
+/**
+ * Cursor for enzymatic digestion using a single enzyme.
+ *
+ * @author Marc Vaudel
+ */
+public class SpecificSingleEnzymeCursor extends ProteinSequenceCursor {
+
+    /**
+     * The maximal number of missed cleavages.
+     */
+    private final int nMissedCleavages;
+    /**
+     * The boundaries of the fragments obtained by cleaving at every site, the
+     * first element is 0 and the last the length of the protein.
+     */
+    private final int[] boundaries;
+    /**
+     * The index of the boundary ending the peptides being iterated.
+     */
+    private int endBoundary = 1;
+    /**
+     * The number of missed cleavages of the last peptide iterated.
+     */
+    private int missedCleavages = -1;
+
+    /**
+     * Constructor.
+     *
+     * @param proteinIteratorUtils utils for the creation of the peptides
+     * @param proteinSequence the sequence to iterate
+     * @param enzyme the enzyme to use
+     * @param nMissedCleavages the allowed number of missed cleavages
+     * @param massMin the minimal mass of a peptide
+     * @param massMax the maximal mass of a peptide
+     */
+    public SpecificSingleEnzymeCursor(ProteinIteratorUtils proteinIteratorUtils, String proteinSequence, Enzyme enzyme, int nMissedCleavages, double massMin, double massMax) {
+
+        super(proteinIteratorUtils, proteinSequence, massMin, massMax);
+
+        this.nMissedCleavages = nMissedCleavages;
+        this.boundaries = getBoundaries(proteinSequence, enzyme);
+
+    }
+
+    /**
+     * Returns the boundaries of the fragments obtained by cleaving the given
+     * sequence at every site.
+     *
+     * @param proteinSequence the protein sequence
+     * @param enzyme the enzyme
+     *
+     * @return the boundaries of the fragments
+     */
+    private static int[] getBoundaries(String proteinSequence, Enzyme enzyme) {
+
+        int length = proteinSequence.length();
+
+        if (length == 0) {
+            return new int[]{0};
+        }
+
+        int[] boundaries = new int[Math.min(length, 64) + 1];
+        int nBoundaries = 1;
+
+        for (int i = 1; i < length; i++) {
+
+            if (enzyme.isCleavageSiteNoCombination(proteinSequence.charAt(i - 1), proteinSequence.charAt(i))) {
+
+                if (nBoundaries == boundaries.length - 1) {
+                    boundaries = Arrays.copyOf(boundaries, 2 * boundaries.length);
+                }
+
+                boundaries[nBoundaries++] = i;
+
+            }
+        }
+
+        boundaries[nBoundaries++] = length;
+
+        return Arrays.copyOf(boundaries, nBoundaries);
+    }
+
+    @Override
+    public boolean next() {
+
+        while (endBoundary < boundaries.length) {
+
+            int peptideEnd = boundaries[endBoundary];
+
+            while (++missedCleavages <= nMissedCleavages) {
+
+                int startBoundary = endBoundary - 1 - missedCleavages;
+
+                if (startBoundary < 0) {
+                    break;
+                }
+
+                int peptideStart = boundaries[startBoundary];
+                String nTermModification = getNTermModificationAt(peptideStart);
+                double massWithoutCterm = getMassWithoutCterm(peptideStart, peptideEnd, proteinIteratorUtils.getModificationMass(nTermModification));
+
+                if (isTooHeavy(massWithoutCterm)) {
+                    break;
+                }
+
+                if (set(peptideStart, peptideEnd, nTermModification, massWithoutCterm)) {
+                    return true;
+                }
+            }
+
+            endBoundary++;
+            missedCleavages = -1;
+
+        }
+
+        return false;
+    }
+}
@@ -0,0 +1,86 @@
+package com.compomics.util.experiment.identification.protein_sequences.digestion.cursors;
+
+import com.compomics.util.experiment.identification.protein_sequences.digestion.ProteinIteratorUtils;
+
+/**
+ * Cursor for unspecific cleavage.
+ *
+ * @author Marc Vaudel
+ */
+public class UnspecificCursor extends ProteinSequenceCursor {
+
+    /**
+     * The start index of the peptides being iterated.
+     */
+    private int index1 = 0;
+    /**
+     * The end index of the last peptide iterated.
+     */
+    private int index2 = 0;
+    /**
+     * The N-terminal modification of the peptides starting at index1.
+     */
+    private String nTermModification;
+    /**
+     * The mass of the N-terminal modification of the peptides starting at
+     * index1.
+     */
+    private double nTermModificationMass;
+
+    /**
+     * Constructor.
+     *
+     * @param proteinIteratorUtils utils for the creation of the peptides
+     * @param proteinSequence the sequence to iterate
+     * @param massMin the minimal mass of a peptide
+     * @param massMax the maximal mass of a peptide
+     */
+    public UnspecificCursor(ProteinIteratorUtils proteinIteratorUtils, String proteinSequence, double massMin, double massMax) {
+
+        super(proteinIteratorUtils, proteinSequence, massMin, massMax);
+
+        if (!proteinSequence.isEmpty()) {
+            setStart();
+        }
+    }
+
+    @Override
+    public boolean next() {
+
+        int length = proteinSequence.length();
+
+        while (index1 < length) {
+
+            while (++index2 <= length) {
+
+                double massWithoutCterm = getMassWithoutCterm(index1, index2, nTermModificationMass);
+
+                if (isTooHeavy(massWithoutCterm)) {
+                    break;
+                }
+
+                if (set(index1, index2, nTermModification, massWithoutCterm)) {
+                    return true;
+                }
+            }
+
+            if (++index1 < length) {
+                setStart();
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Sets the N-terminal attributes for the peptides starting at index1 and
+     * resets index2.
+     */
+    private void setStart() {
+
+        index2 = index1;
+        nTermModification = getNTermModificationAt(index1);
+        nTermModificationMass = proteinIteratorUtils.getModificationMass(nTermModification);
+
+    }
+}
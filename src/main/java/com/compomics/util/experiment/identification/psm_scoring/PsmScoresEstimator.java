@@ -4,13 +4,25 @@ import com.compomics.util.experiment.biology.proteins.Peptide;
 import com.compomics.util.experiment.identification.peptide_fragmentation.PeptideFragmentationModel;
 import com.compomics.util.experiment.identification.psm_scoring.psm_scores.HyperScore;
 import com.compomics.util.experiment.identification.psm_scoring.psm_scores.PrecursorAccuracy;
+import com.compomics.util.experiment.identification.spectrum_annotation.AnnotationParameters;
 import com.compomics.util.experiment.identification.spectrum_annotation.SpecificAnnotationParameters;
+import com.compomics.util.experiment.identification.spectrum_annotation.simple_annotators.IonMatchBuffer;
 import com.compomics.util.experiment.identification.spectrum_annotation.spectrum_annotators.PeptideSpectrumAnnotator;
+import com.compomics.util.experiment.identification.spectrum_assumptions.PeptideAssumption;
 import com.compomics.util.experiment.io.biology.protein.SequenceProvider;
+import com.compomics.util.experiment.mass_spectrometry.SpectrumFactory;
 import com.compomics.util.experiment.mass_spectrometry.spectra.Spectrum;
 import com.compomics.util.parameters.identification.IdentificationParameters;
 import com.compomics.util.parameters.identification.advanced.SequenceMatchingParameters;
 import com.compomics.util.parameters.identification.search.ModificationParameters;
+import com.compomics.util.waiting.WaitingHandler;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This class can be used to estimate PSM scores.
@@ -155,4 +167,309 @@ public class PsmScoresEstimator {
                 throw new UnsupportedOperationException("Score not implemented.");
         }
     }
+
+    /**
+     * Scores a batch of PSMs in parallel. The PSMs are given as aligned arrays
+     * of spectrum keys, peptides, and charges, and are grouped by spectrum so
+     * that every spectrum is loaded from the spectrum factory and indexed only
+     * once. Every thread uses its own spectrum annotator and thereby its own
+     * spectrum index. The scores are returned as a table where the first
+     * dimension corresponds to the given score indexes and the second to the
+     * PSMs in the order given. The ions of a PSM are annotated once and
+     * stored in a buffer where the hyperscore is computed on primitives.
+     *
+     * @param spectrumKeys the keys of the spectra
+     * @param peptides the peptides
+     * @param charges the charges of the peptides
+     * @param scoreIndexes the indexes of the scores to compute
+     * @param identificationParameters the identification parameters
+     * @param modificationParameters the modification parameters
+     * @param sequenceProvider a provider for the protein sequences
+     * @param modificationSequenceMatchingParameters the sequence matching
+     * preferences for modification to peptide mapping
+     * @param nThreads the number of threads to use
+     * @param waitingHandler a waiting handler to display progress and allow
+     * canceling the process, can be null
+     *
+     * @return the scores of the PSMs, null if the process was canceled
+     *
+     * @throws InterruptedException exception thrown if a thread gets
+     * interrupted
+     * @throws ExecutionException exception thrown if an error occurred while
+     * scoring the PSMs
+     */
+    public double[][] getScores(String[] spectrumKeys, Peptide[] peptides, int[] charges, int[] scoreIndexes,
+            IdentificationParameters identificationParameters, ModificationParameters modificationParameters, SequenceProvider sequenceProvider,
+            SequenceMatchingParameters modificationSequenceMatchingParameters, int nThreads, WaitingHandler waitingHandler)
+            throws InterruptedException, ExecutionException {
+
+        int nPsms = spectrumKeys.length;
+
+        if (peptides.length != nPsms || charges.length != nPsms) {
+            throw new IllegalArgumentException("The number of spectrum keys (" + nPsms + "), peptides (" + peptides.length + "), and charges (" + charges.length + ") differ.");
+        }
+
+        PsmScore[] psmScores = new PsmScore[scoreIndexes.length];
+
+        for (int i = 0; i < scoreIndexes.length; i++) {
+
+            psmScores[i] = PsmScore.getScore(scoreIndexes[i]);
+
+            if (psmScores[i] == PsmScore.native_score) {
+                throw new IllegalArgumentException("Impossible to compute the native score of an algorithm");
+            }
+        }
+
+        // Group the PSMs by spectrum using a counting sort on the spectrum index
+        HashMap<String, Integer> spectrumIndexes = new HashMap<>();
+        ArrayList<String> spectra = new ArrayList<>();
+        int[] psmSpectrum = new int[nPsms];
+
+        for (int i = 0; i < nPsms; i++) {
+
+            Integer spectrumIndex = spectrumIndexes.get(spectrumKeys[i]);
+
+            if (spectrumIndex == null) {
+
+                spectrumIndex = spectra.size();
+                spectrumIndexes.put(spectrumKeys[i], spectrumIndex);
+                spectra.add(spectrumKeys[i]);
+
+            }
+
+            psmSpectrum[i] = spectrumIndex;
+
+        }
+
+        int nSpectra = spectra.size();
+        int[] offsets = new int[nSpectra + 1];
+
+        for (int i = 0; i < nPsms; i++) {
+            offsets[psmSpectrum[i] + 1]++;
+        }
+
+        for (int i = 0; i < nSpectra; i++) {
+            offsets[i + 1] += offsets[i];
+        }
+
+        int[] psmsBySpectrum = new int[nPsms];
+        int[] positions = new int[nSpectra];
+
+        for (int i = 0; i < nPsms; i++) {
+
+            int spectrumIndex = psmSpectrum[i];
+            psmsBySpectrum[offsets[spectrumIndex] + positions[spectrumIndex]] = i;
+            positions[spectrumIndex]++;
+
+        }
+
+        if (waitingHandler != null) {
+
+            waitingHandler.resetSecondaryProgressCounter();
+            waitingHandler.setMaxSecondaryProgressCounter(nSpectra);
+
+        }
+
+        // Score the spectra in parallel
+        double[][] scores = new double[psmScores.length][nPsms];
+        AtomicInteger nextSpectrum = new AtomicInteger(0);
+        ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+
+        try {
+
+            ArrayList<Future<?>> futures = new ArrayList<>(nThreads);
+
+            for (int i = 0; i < nThreads; i++) {
+
+                ScoringRunnable runnable = new ScoringRunnable(spectra, offsets, psmsBySpectrum, peptides, charges, psmScores, scores, nextSpectrum,
+                        identificationParameters, modificationParameters, sequenceProvider, modificationSequenceMatchingParameters, waitingHandler);
+                futures.add(pool.submit(runnable));
+
+            }
+
+            for (Future<?> future : futures) {
+                future.get();
+            }
+
+        } finally {
+
+            pool.shutdownNow();
+
+        }
+
+        if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+            return null;
+        }
+
+        return scores;
+    }
+
+    /**
+     * Runnable scoring the PSMs of the spectra taken from a shared counter.
+     * Every runnable has its own spectrum annotator.
+     *
+     * @author Marc Vaudel
+     */
+    private class ScoringRunnable implements Runnable {
+
+        /**
+         * The keys of the spectra to score.
+         */
+        private final ArrayList<String> spectra;
+        /**
+         * The offsets of the PSMs of every spectrum.
+         */
+        private final int[] offsets;
+        /**
+         * The indexes of the PSMs sorted by spectrum.
+         */
+        private final int[] psmsBySpectrum;
+        /**
+         * The peptides of the PSMs.
+         */
+        private final Peptide[] peptides;
+        /**
+         * The charges of the PSMs.
+         */
+        private final int[] charges;
+        /**
+         * The scores to compute.
+         */
+        private final PsmScore[] psmScores;
+        /**
+         * The table where to store the scores.
+         */
+        private final double[][] scores;
+        /**
+         * The index of the next spectrum to score.
+         */
+        private final AtomicInteger nextSpectrum;
+        /**
+         * The identification parameters.
+         */
+        private final IdentificationParameters identificationParameters;
+        /**
+         * The modification parameters.
+         */
+        private final ModificationParameters modificationParameters;
+        /**
+         * A provider for the protein sequences.
+         */
+        private final SequenceProvider sequenceProvider;
+        /**
+         * The sequence matching preferences for modification to peptide
+         * mapping.
+         */
+        private final SequenceMatchingParameters modificationSequenceMatchingParameters;
+        /**
+         * The waiting handler.
+         */
+        private final WaitingHandler waitingHandler;
+        /**
+         * The spectrum annotator of this runnable.
+         */
+        private final PeptideSpectrumAnnotator peptideSpectrumAnnotator = new PeptideSpectrumAnnotator();
+        /**
+         * The buffer where this runnable stores the ion matches of a PSM.
+         */
+        private final IonMatchBuffer ionMatchBuffer = new IonMatchBuffer();
+
+        /**
+         * Constructor.
+         *
+         * @param spectra the keys of the spectra to score
+         * @param offsets the offsets of the PSMs of every spectrum
+         * @param psmsBySpectrum the indexes of the PSMs sorted by spectrum
+         * @param peptides the peptides of the PSMs
+         * @param charges the charges of the PSMs
+         * @param psmScores the scores to compute
+         * @param scores the table where to store the scores
+         * @param nextSpectrum the index of the next spectrum to score
+         * @param identificationParameters the identification parameters
+         * @param modificationParameters the modification parameters
+         * @param sequenceProvider a provider for the protein sequences
+         * @param modificationSequenceMatchingParameters the sequence matching
+         * preferences for modification to peptide mapping
+         * @param waitingHandler the waiting handler
+         */
+        private ScoringRunnable(ArrayList<String> spectra, int[] offsets, int[] psmsBySpectrum, Peptide[] peptides, int[] charges,
+                PsmScore[] psmScores, double[][] scores, AtomicInteger nextSpectrum, IdentificationParameters identificationParameters,
+                ModificationParameters modificationParameters, SequenceProvider sequenceProvider,
+                SequenceMatchingParameters modificationSequenceMatchingParameters, WaitingHandler waitingHandler) {
+
+            this.spectra = spectra;
+            this.offsets = offsets;
+            this.psmsBySpectrum = psmsBySpectrum;
+            this.peptides = peptides;
+            this.charges = charges;
+            this.psmScores = psmScores;
+            this.scores = scores;
+            this.nextSpectrum = nextSpectrum;
+            this.identificationParameters = identificationParameters;
+            this.modificationParameters = modificationParameters;
+            this.sequenceProvider = sequenceProvider;
+            this.modificationSequenceMatchingParameters = modificationSequenceMatchingParameters;
+            this.waitingHandler = waitingHandler;
+
+        }
+
+        @Override
+        public void run() {
+
+            SpectrumFactory spectrumFactory = SpectrumFactory.getInstance();
+            AnnotationParameters annotationParameters = identificationParameters.getAnnotationParameters();
+            int spectrumIndex;
+
+            while ((spectrumIndex = nextSpectrum.getAndIncrement()) < spectra.size()) {
+
+                if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                    return;
+                }
+
+                String spectrumKey = spectra.get(spectrumIndex);
+                Spectrum spectrum = spectrumFactory.getSpectrum(spectrumKey);
+                double totalIntensity = spectrum.getTotalIntensity();
+
+                for (int j = offsets[spectrumIndex]; j < offsets[spectrumIndex + 1]; j++) {
+
+                    int psmIndex = psmsBySpectrum[j];
+                    Peptide peptide = peptides[psmIndex];
+                    int charge = charges[psmIndex];
+                    PeptideAssumption peptideAssumption = new PeptideAssumption(peptide, charge);
+                    SpecificAnnotationParameters specificAnnotationParameters = annotationParameters.getSpecificAnnotationParameters(spectrumKey,
+                            peptideAssumption, modificationParameters, sequenceProvider, modificationSequenceMatchingParameters);
+
+                    boolean annotated = false;
+
+                    for (int k = 0; k < psmScores.length; k++) {
+
+                        if (psmScores[k] == PsmScore.hyperScore) {
+
+                            if (!annotated) {
+
+                                ionMatchBuffer.clear();
+                                peptideSpectrumAnnotator.getSpectrumAnnotationStream(annotationParameters, specificAnnotationParameters, spectrum, peptide,
+                                        modificationParameters, sequenceProvider, modificationSequenceMatchingParameters)
+                                        .forEach(ionMatchBuffer::add);
+                                annotated = true;
+
+                            }
+
+                            scores[k][psmIndex] = crossCorrelation.getScore(specificAnnotationParameters.getPrecursorCharge(), totalIntensity, ionMatchBuffer);
+
+                        } else {
+
+                            scores[k][psmIndex] = getScore(peptide, charge, spectrum, identificationParameters, specificAnnotationParameters,
+                                    modificationParameters, sequenceProvider, modificationSequenceMatchingParameters, peptideSpectrumAnnotator, psmScores[k]);
+
+                        }
+                    }
+                }
+
+                if (waitingHandler != null) {
+                    waitingHandler.increaseSecondaryProgressCounter();
+                }
+            }
+        }
+    }
 }
@@ -8,11 +8,11 @@ import com.compomics.util.experiment.identification.matches.IonMatch;
 import com.compomics.util.experiment.identification.peptide_fragmentation.PeptideFragmentationModel;
 import com.compomics.util.experiment.identification.spectrum_annotation.AnnotationParameters;
 import com.compomics.util.experiment.identification.spectrum_annotation.SpecificAnnotationParameters;
+import com.compomics.util.experiment.identification.spectrum_annotation.simple_annotators.IonMatchBuffer;
 import com.compomics.util.experiment.identification.spectrum_annotation.spectrum_annotators.PeptideSpectrumAnnotator;
 import com.compomics.util.experiment.io.biology.protein.SequenceProvider;
 import com.compomics.util.experiment.mass_spectrometry.spectra.Peak;
 import com.compomics.util.experiment.mass_spectrometry.spectra.Spectrum;
-import com.compomics.util.math.BasicMathFunctions;
 import com.compomics.util.math.HistogramUtils;
 import com.compomics.util.math.statistics.linear_regression.LinearRegression;
 import com.compomics.util.math.statistics.linear_regression.RegressionStatistics;
@@ -20,6 +20,7 @@ import com.compomics.util.parameters.identification.advanced.SequenceMatchingPar
 import com.compomics.util.parameters.identification.search.ModificationParameters;
 import com.google.common.collect.Lists;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -42,6 +43,40 @@ import org.apache.commons.math.util.FastMath;
  */
 public class HyperScore {
 
+    /**
+     * The maximal number of ions per series accounted for in the score.
+     */
+    private static final int MAX_IONS = 20;
+    /**
+     * The factorials used in the score indexed by number of ions. For
+     * consistency with BasicMathFunctions.factorial, 0! is 0.
+     */
+    private static final long[] FACTORIALS = new long[MAX_IONS + 1];
+
+    static {
+        FACTORIALS[0] = 0L;
+        FACTORIALS[1] = 1L;
+        for (int n = 2; n <= MAX_IONS; n++) {
+            FACTORIALS[n] = n * FACTORIALS[n - 1];
+        }
+    }
+
+    /**
+     * The natural logarithms of the factorials indexed by number of ions, as
+     * sums of logarithms so that the table does not overflow if the maximal
+     * number of ions is raised. As above 0! is 0, its logarithm is negative
+     * infinity.
+     */
+    private static final double[] LOG_FACTORIALS = new double[MAX_IONS + 1];
+
+    static {
+        LOG_FACTORIALS[0] = Double.NEGATIVE_INFINITY;
+        LOG_FACTORIALS[1] = 0.0;
+        for (int n = 2; n <= MAX_IONS; n++) {
+            LOG_FACTORIALS[n] = LOG_FACTORIALS[n - 1] + FastMath.log(n);
+        }
+    }
+
     /**
      * The peptide fragmentation model to use.
      */
@@ -160,11 +195,126 @@ public class HyperScore {
         }
         int nForward = ionsForward.size() / (Math.max(charge - 1, 1));
         int nRewind = ionsRewind.size() / (Math.max(charge - 1, 1));
-        nForward = nForward > 20 ? 20 : nForward;
-        nRewind = nRewind > 20 ? 20 : nRewind;
-        long forwardFactorial = BasicMathFunctions.factorial(nForward);
-        long rewindFactorial = BasicMathFunctions.factorial(nRewind);
-        return xCorr * forwardFactorial * rewindFactorial;
+        nForward = nForward > MAX_IONS ? MAX_IONS : nForward;
+        nRewind = nRewind > MAX_IONS ? MAX_IONS : nRewind;
+        return xCorr * FACTORIALS[nForward] * FACTORIALS[nRewind];
+    }
+
+    /**
+     * Returns the hyperscore using the ion matches stored in a buffer. This
+     * method gives the same score as the method using a list of ion matches,
+     * up to rounding, without instantiating ion matches or boxing values.
+     * Peaks are deduplicated using a sorted array of m/z, ion numbers are
+     * tracked in bitsets, and the product of the factorials is computed from
+     * a log-factorial table.
+     *
+     * @param charge the charge
+     * @param totalIntensity the total intensity of the spectrum
+     * @param ionMatchBuffer the buffer containing the ion matches obtained
+     * from spectrum annotation
+     *
+     * @return the score of the match
+     */
+    public double getScore(int charge, double totalIntensity, IonMatchBuffer ionMatchBuffer) {
+
+        int nMatches = ionMatchBuffer.getNMatches();
+        int fragmentIonType = Ion.IonType.PEPTIDE_FRAGMENT_ION.index;
+
+        boolean peakMatched = false;
+        double coveredIntensity = 0.0;
+        double[] coveredMz = new double[nMatches];
+        int nCovered = 0;
+        int maxNumber = 0;
+
+        for (int i = 0; i < nMatches; i++) {
+
+            double mz = ionMatchBuffer.getPeakMz(i);
+            int insertionPoint = Arrays.binarySearch(coveredMz, 0, nCovered, mz);
+
+            if (insertionPoint < 0) {
+
+                insertionPoint = -insertionPoint - 1;
+                System.arraycopy(coveredMz, insertionPoint, coveredMz, insertionPoint + 1, nCovered - insertionPoint);
+                coveredMz[insertionPoint] = mz;
+                nCovered++;
+                coveredIntensity += ionMatchBuffer.getPeakIntensity(i);
+
+            }
+
+            if (ionMatchBuffer.getIonType(i) == fragmentIonType && !ionMatchBuffer.hasNeutralLosses(i)) {
+
+                int number = ionMatchBuffer.getIonNumber(i);
+
+                if (number >= 2) {
+
+                    peakMatched = true;
+
+                    if (number > maxNumber) {
+                        maxNumber = number;
+                    }
+                }
+            }
+        }
+
+        if (!peakMatched) {
+            return 0.0;
+        }
+
+        double consideredIntensity = totalIntensity - coveredIntensity;
+
+        double xCorr = 0;
+        long[] ionsForward = new long[(maxNumber >> 6) + 1];
+        long[] ionsRewind = new long[(maxNumber >> 6) + 1];
+        double[] accountedFor = coveredMz;
+        int nAccountedFor = 0;
+
+        for (int i = 0; i < nMatches; i++) {
+
+            if (ionMatchBuffer.getIonType(i) == fragmentIonType && !ionMatchBuffer.hasNeutralLosses(i)) {
+
+                int number = ionMatchBuffer.getIonNumber(i);
+
+                if (number > 1) {
+
+                    double mz = ionMatchBuffer.getPeakMz(i);
+                    int insertionPoint = Arrays.binarySearch(accountedFor, 0, nAccountedFor, mz);
+
+                    if (insertionPoint < 0) {
+
+                        insertionPoint = -insertionPoint - 1;
+                        System.arraycopy(accountedFor, insertionPoint, accountedFor, insertionPoint + 1, nAccountedFor - insertionPoint);
+                        accountedFor[insertionPoint] = mz;
+                        nAccountedFor++;
+
+                        xCorr += ionMatchBuffer.getPeakIntensity(i) / consideredIntensity;
+
+                        int subType = ionMatchBuffer.getIonSubType(i);
+
+                        if (subType == PeptideFragmentIon.X_ION
+                                || subType == PeptideFragmentIon.Y_ION
+                                || subType == PeptideFragmentIon.Z_ION) {
+                            ionsForward[number >> 6] |= 1L << number;
+                        } else if (subType == PeptideFragmentIon.A_ION
+                                || subType == PeptideFragmentIon.B_ION
+                                || subType == PeptideFragmentIon.C_ION) {
+                            ionsRewind[number >> 6] |= 1L << number;
+                        }
+                    }
+                }
+            }
+        }
+
+        int nForwardIons = 0;
+        int nRewindIons = 0;
+
+        for (int i = 0; i < ionsForward.length; i++) {
+            nForwardIons += Long.bitCount(ionsForward[i]);
+            nRewindIons += Long.bitCount(ionsRewind[i]);
+        }
+
+        int nForward = Math.min(nForwardIons / (Math.max(charge - 1, 1)), MAX_IONS);
+        int nRewind = Math.min(nRewindIons / (Math.max(charge - 1, 1)), MAX_IONS);
+        return xCorr * FastMath.exp(LOG_FACTORIALS[nForward] + LOG_FACTORIALS[nRewind]);
     }
 
     /**
@@ -244,6 +394,51 @@ public class HyperScore {
         return getInterpolation(hyperScores, ab[0], ab[1]);
     }
 
+    /**
+     * Returns the e-values corresponding to the hyperscores of all the
+     * candidates of a spectrum. The e-values are estimated in the same way as
+     * in getEValueMap but using primitive arrays, and are returned in the
+     * order of the given scores. If not enough scores are present or if they
+     * are not spread the method returns null.
+     *
+     * @param hyperScores the hyperscores of all the candidates of a spectrum
+     * @param useCache if true the interpolation values will be stored in the
+     * histograms in cache
+     *
+     * @return the e-values corresponding to the given scores
+     */
+    public double[] getEValues(double[] hyperScores, boolean useCache) {
+
+        int[] bins = new int[hyperScores.length];
+        int nBins = 0;
+
+        for (double score : hyperScores) {
+
+            int bin = (int) score;
+
+            if (bin > 0) {
+                bins[nBins++] = bin;
+            }
+        }
+
+        double[] ab = getInterpolationValues(bins, nBins, useCache);
+
+        if (ab == null) {
+            return null;
+        }
+
+        double[] eValues = new double[hyperScores.length];
+
+        for (int i = 0; i < hyperScores.length; i++) {
+
+            double hyperScore = hyperScores[i];
+            eValues[i] = hyperScore > 0 ? getInterpolation(FastMath.log10(hyperScore), ab[0], ab[1]) : hyperScores.length;
+
+        }
+
+        return eValues;
+    }
+
     /**
      * Returns the interpolation values for the given scores in the form {a, b}.
      *
@@ -254,49 +449,126 @@ public class HyperScore {
      * @return the interpolation values for the given scores
      */
     public double[] getInterpolationValues(int[] scores, boolean useCache) {
-        HashMap<Integer, Integer> scoreHistogram = new HashMap<>();
-        int maxScore = 0;
-        int minScore = Integer.MAX_VALUE;
-        for (int score : scores) {
+        return getInterpolationValues(Arrays.copyOf(scores, scores.length), scores.length, useCache);
+    }
+
+    /**
+     * Returns the interpolation values for the first scores of the given
+     * array in the form {a, b}. Scores lower than one are ignored. The scores
+     * are sorted in place and the histogram is built on primitive arrays.
+     *
+     * @param scores the scores, will be sorted
+     * @param nScores the number of scores to consider
+     * @param useCache if true the interpolation values will be stored in the
+     * histograms in cache
+     *
+     * @return the interpolation values for the given scores
+     */
+    private double[] getInterpolationValues(int[] scores, int nScores, boolean useCache) {
+
+        Arrays.sort(scores, 0, nScores);
+
+        // Histogram of the scores as sorted distinct bins and counts
+        int[] bins = new int[nScores];
+        int[] counts = new int[nScores];
+        int nBins = 0;
+
+        for (int i = 0; i < nScores; i++) {
+
+            int score = scores[i];
+
             if (score > 0) {
-                Integer nScores = scoreHistogram.get(score);
-                if (nScores == null) {
-                    nScores = 1;
+
+                if (nBins > 0 && bins[nBins - 1] == score) {
+
+                    counts[nBins - 1]++;
+
                 } else {
-                    nScores++;
-                }
-                scoreHistogram.put(score, nScores);
-                if (score > maxScore) {
-                    maxScore = score;
-                }
-                if (score < minScore) {
-                    minScore = score;
+
+                    bins[nBins] = score;
+                    counts[nBins] = 1;
+                    nBins++;
+
                 }
             }
         }
-        Integer secondEmptybin = maxScore;
-        Integer firstEmptybin = maxScore;
+
+        if (nBins == 0) {
+            return null;
+        }
+
+        // Truncate the histogram at the second empty bin
+        int highestBin = bins[nBins - 1];
+        int firstEmptyBin = highestBin;
+        int secondEmptyBin = highestBin;
         boolean emptyBin = false;
-        for (int bin = minScore; bin <= maxScore; bin++) {
-            if (!scoreHistogram.containsKey(bin)) {
+
+        gaps:
+        for (int i = 1; i < nBins; i++) {
+
+            for (int bin = bins[i - 1] + 1; bin < bins[i]; bin++) {
+
                 if (!emptyBin) {
+
                     emptyBin = true;
-                    firstEmptybin = bin;
+                    firstEmptyBin = bin;
+
                 } else {
-                    secondEmptybin = bin;
-                    break;
+
+                    secondEmptyBin = bin;
+                    break gaps;
+
                 }
             }
         }
-        ArrayList<Integer> bins = new ArrayList<>(scoreHistogram.keySet());
-        for (Integer bin : bins) {
-            if (bin > secondEmptybin) {
-                scoreHistogram.remove(bin);
-            } else if (bin > firstEmptybin) {
-                scoreHistogram.put(bin, 1);
+
+        for (int i = 0; i < nBins; i++) {
+
+            if (bins[i] > secondEmptyBin) {
+
+                nBins = i;
+                break;
+
+            } else if (bins[i] > firstEmptyBin) {
+
+                counts[i] = 1;
+
             }
         }
-        return getInterpolationValues(scoreHistogram, useCache);
+
+        // Linear regression of the log of the cumulative counts against the log of the scores
+        if (nBins <= 1) {
+            return null;
+        }
+
+        double sumXY = 0.0;
+        double sumX = 0.0;
+        double sumX2 = 0.0;
+        double sumY = 0.0;
+        int currentSum = 0;
+
+        for (int i = nBins - 1; i >= 0; i--) {
+
+            currentSum += counts[i];
+            double x = FastMath.log10(bins[i]);
+            double y = FastMath.log10(currentSum);
+            sumXY += x * y;
+            sumX += x;
+            sumX2 += x * x;
+            sumY += y;
+
+        }
+
+        double xMean = sumX / nBins;
+        double yMean = sumY / nBins;
+        double a = (sumXY - (xMean * sumY)) / (sumX2 - (sumX * sumX / nBins));
+        double b = yMean - (a * xMean);
+
+        if (useCache) {
+            addToCache(a, b);
+        }
+
+        return new double[]{a, b};
     }
 
     /**
@@ -335,24 +607,34 @@ public class HyperScore {
         }
         RegressionStatistics regressionStatistics = LinearRegression.getSimpleLinearRegression(evalueFunctionX, evalueFunctionY);
         if (useCache) {
-            Double roundedA = Util.roundDouble(regressionStatistics.a, 2);
-            Double roundedB = Util.roundDouble(regressionStatistics.b, 2);
-            Integer nA = as.get(roundedA);
-            if (nA == null) {
-                as.put(roundedA, 1);
-            } else {
-                as.put(roundedA, nA + 1);
-            }
-            Integer nB = bs.get(roundedB);
-            if (nB == null) {
-                bs.put(roundedB, 1);
-            } else {
-                bs.put(roundedB, nB + 1);
-            }
+            addToCache(regressionStatistics.a, regressionStatistics.b);
         }
         return new double[]{regressionStatistics.a, regressionStatistics.b};
     }
 
+    /**
+     * Adds the given interpolation values to the histograms in cache.
+     *
+     * @param a the slope of the interpolation
+     * @param b the offset of the interpolation
+     */
+    private synchronized void addToCache(double a, double b) {
+        Double roundedA = Util.roundDouble(a, 2);
+        Double roundedB = Util.roundDouble(b, 2);
+        Integer nA = as.get(roundedA);
+        if (nA == null) {
+            as.put(roundedA, 1);
+        } else {
+            as.put(roundedA, nA + 1);
+        }
+        Integer nB = bs.get(roundedB);
+        if (nB == null) {
+            bs.put(roundedB, 1);
+        } else {
+            bs.put(roundedB, nB + 1);
+        }
+    }
+
     /**
      * Returns the interpolation of a list of hyperscores using a linear
      * interpolation of the form result = a * log(score) + b. If the score is
@@ -4,21 +4,66 @@ import com.compomics.util.experiment.biology.ions.Ion;
 import com.compomics.util.experiment.biology.ions.impl.PeptideFragmentIon;
 import com.compomics.util.experiment.biology.ions.impl.TagFragmentIon;
 import com.compomics.util.experiment.identification.matches.IonMatch;
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
- * Cache for the keys of the ions. Warning: the cache is not thread safe,
- * separate caches should be used for different threads. Using a single cache
- * results in locks or concurrent modifications.
+ * Cache for the keys of the ions. The ion type, subtype, number, neutral
+ * losses, and charge are packed in a primitive long used to look up the key
+ * in an open addressing table. Lookups are lock free and insertions are
+ * synchronized, the cache can therefore be shared between threads. Keys are
+ * interned so that caches of different annotators share the same strings.
  *
  * @author Marc Vaudel
  */
 public class IonMatchKeysCache {
 
     /**
-     * Cache for the ion type keys.
+     * The number of bits used for the ion type.
      */
-    private final HashMap<Integer, HashMap<Integer, HashMap<Integer, HashMap<String, HashMap<Integer, String>>>>> ionKeysCache = new HashMap<>(8);
+    private static final int TYPE_BITS = 4;
+    /**
+     * The number of bits used for the ion subtype.
+     */
+    private static final int SUBTYPE_BITS = 14;
+    /**
+     * The number of bits used for the ion number.
+     */
+    private static final int NUMBER_BITS = 16;
+    /**
+     * The number of bits used for the neutral losses.
+     */
+    private static final int LOSSES_BITS = 14;
+    /**
+     * The number of bits used for the charge.
+     */
+    private static final int CHARGE_BITS = 15;
+    /**
+     * Bit set on all packed keys to distinguish them from empty slots.
+     */
+    private static final long USED = 1L << 63;
+    /**
+     * Value of an empty slot.
+     */
+    private static final long EMPTY = 0L;
+    /**
+     * The initial capacity of the table, must be a power of two.
+     */
+    private static final int INITIAL_CAPACITY = 256;
+    /**
+     * The identifiers of the neutral losses combinations indexed by their
+     * string representation.
+     */
+    private final ConcurrentHashMap<String, Integer> neutralLossesIds = new ConcurrentHashMap<>(8);
+    /**
+     * The table of packed keys and ion match keys.
+     */
+    private volatile Table table = new Table(INITIAL_CAPACITY);
+    /**
+     * The number of keys in cache.
+     */
+    private int size = 0;
 
     /**
      * Constructor.
@@ -51,32 +96,264 @@ public class IonMatchKeysCache {
             fragmentIonNumber = 0;
         }
         String neutralLossesAsString = ion.getNeutralLossesAsString();
+        return getMatchKey(ionTypeIndex, ionSubType, fragmentIonNumber, neutralLossesAsString, charge);
+    }
+
+    /**
+     * Returns the key for the ion match uniquely representing a peak
+     * annotation based on the different attributes of a match.
+     *
+     * @param ionTypeIndex the index of the ion type
+     * @param ionSubType the index of the ion subtype
+     * @param fragmentIonNumber the number of the ion, 0 if none
+     * @param neutralLossesAsString the neutral losses as a string
+     * @param charge the charge
+     *
+     * @return the key for the ion match
+     */
+    public String getMatchKey(int ionTypeIndex, int ionSubType, int fragmentIonNumber, String neutralLossesAsString, int charge) {
+
+        int neutralLossesId = getNeutralLossesId(neutralLossesAsString);
+        long packedKey = pack(ionTypeIndex, ionSubType, fragmentIonNumber, neutralLossesId, charge);
+
+        if (packedKey == EMPTY) {
+
+            // Attributes out of the packable range, not cached
+            return IonMatch.getMatchKey(ionTypeIndex, ionSubType, fragmentIonNumber, neutralLossesAsString, charge).intern();
 
-        HashMap<Integer, HashMap<Integer, HashMap<String, HashMap<Integer, String>>>> ionTypeMap = ionKeysCache.get(ionTypeIndex);
-        if (ionTypeMap == null) {
-            ionTypeMap = new HashMap<>(8);
-            ionKeysCache.put(ionTypeIndex, ionTypeMap);
         }
-        HashMap<Integer, HashMap<String, HashMap<Integer, String>>> ionSubTypeMap = ionTypeMap.get(ionSubType);
-        if (ionSubTypeMap == null) {
-            ionSubTypeMap = new HashMap<>(2);
-            ionTypeMap.put(ionSubType, ionSubTypeMap);
+
+        String key = table.get(packedKey);
+
+        if (key == null) {
+
+            key = add(packedKey, ionTypeIndex, ionSubType, fragmentIonNumber, neutralLossesAsString, charge);
+
         }
-        HashMap<String, HashMap<Integer, String>> ionNumberMap = ionSubTypeMap.get(fragmentIonNumber);
-        if (ionNumberMap == null) {
-            ionNumberMap = new HashMap<>(8);
-            ionSubTypeMap.put(fragmentIonNumber, ionNumberMap);
+
+        return key;
+    }
+
+    /**
+     * Returns the number of keys in cache.
+     *
+     * @return the number of keys in cache
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Returns the identifier of the given neutral losses combination, 0 for
+     * no loss. Null is written as such in the key and cannot share the
+     * identifier of the empty string, -1 is returned so that it is not
+     * packed.
+     *
+     * @param neutralLossesAsString the neutral losses as a string
+     *
+     * @return the identifier of the given neutral losses combination
+     */
+    private int getNeutralLossesId(String neutralLossesAsString) {
+
+        if (neutralLossesAsString == null) {
+            return -1;
         }
-        HashMap<Integer, String> ionNeutralLossesMap = ionNumberMap.get(neutralLossesAsString);
-        if (ionNeutralLossesMap == null) {
-            ionNeutralLossesMap = new HashMap<>(4);
-            ionNumberMap.put(neutralLossesAsString, ionNeutralLossesMap);
+
+        if (neutralLossesAsString.isEmpty()) {
+            return 0;
         }
-        String key = ionNeutralLossesMap.get(charge);
-        if (key == null) {
-            key = IonMatch.getMatchKey(ionTypeIndex, ionSubType, fragmentIonNumber, neutralLossesAsString, charge);
-            ionNeutralLossesMap.put(charge, key);
+
+        Integer id = neutralLossesIds.get(neutralLossesAsString);
+
+        if (id == null) {
+
+            synchronized (neutralLossesIds) {
+
+                id = neutralLossesIds.get(neutralLossesAsString);
+
+                if (id == null) {
+
+                    id = neutralLossesIds.size() + 1;
+                    neutralLossesIds.put(neutralLossesAsString, id);
+
+                }
+            }
+        }
+
+        return id;
+    }
+
+    /**
+     * Packs the attributes of an ion match in a long. Returns EMPTY if an
+     * attribute does not fit in the number of bits allocated.
+     *
+     * @param ionTypeIndex the index of the ion type
+     * @param ionSubType the index of the ion subtype
+     * @param fragmentIonNumber the number of the ion, 0 if none
+     * @param neutralLossesId the identifier of the neutral losses
+     * @param charge the charge
+     *
+     * @return the packed attributes
+     */
+    private static long pack(int ionTypeIndex, int ionSubType, int fragmentIonNumber, int neutralLossesId, int charge) {
+
+        if (ionTypeIndex < 0 || ionTypeIndex >= 1 << TYPE_BITS
+                || ionSubType < 0 || ionSubType >= 1 << SUBTYPE_BITS
+                || fragmentIonNumber < 0 || fragmentIonNumber >= 1 << NUMBER_BITS
+                || neutralLossesId < 0 || neutralLossesId >= 1 << LOSSES_BITS
+                || charge < 0 || charge >= 1 << CHARGE_BITS) {
+            return EMPTY;
+        }
+
+        long packedKey = ionTypeIndex;
+        packedKey = (packedKey << SUBTYPE_BITS) | ionSubType;
+        packedKey = (packedKey << NUMBER_BITS) | fragmentIonNumber;
+        packedKey = (packedKey << LOSSES_BITS) | neutralLossesId;
+        packedKey = (packedKey << CHARGE_BITS) | charge;
+
+        return packedKey | USED;
+    }
+
+    /**
+     * Creates the key of an ion match and adds it to the table, or returns
+     * the key added by another thread.
+     *
+     * @param packedKey the packed attributes of the ion match
+     * @param ionTypeIndex the index of the ion type
+     * @param ionSubType the index of the ion subtype
+     * @param fragmentIonNumber the number of the ion, 0 if none
+     * @param neutralLossesAsString the neutral losses as a string
+     * @param charge the charge
+     *
+     * @return the key for the ion match
+     */
+    private synchronized String add(long packedKey, int ionTypeIndex, int ionSubType, int fragmentIonNumber, String neutralLossesAsString, int charge) {
+
+        Table currentTable = table;
+        String key = currentTable.get(packedKey);
+
+        if (key != null) {
+            return key;
         }
+
+        key = IonMatch.getMatchKey(ionTypeIndex, ionSubType, fragmentIonNumber, neutralLossesAsString, charge).intern();
+
+        if (2 * (size + 1) > currentTable.capacity) {
+
+            Table newTable = new Table(2 * currentTable.capacity);
+
+            for (int i = 0; i < currentTable.capacity; i++) {
+
+                long oldKey = currentTable.keys.get(i);
+
+                if (oldKey != EMPTY) {
+                    newTable.put(oldKey, currentTable.values.get(i));
+                }
+            }
+
+            currentTable = newTable;
+
+        }
+
+        currentTable.put(packedKey, key);
+        size++;
+        table = currentTable;
+
         return key;
     }
+
+    /**
+     * Open addressing table with linear probing. Values are published before
+     * their keys so that a reader finding a key always sees its value.
+     */
+    private static final class Table {
+
+        /**
+         * The capacity of the table, a power of two.
+         */
+        private final int capacity;
+        /**
+         * The mask used to get the slot of a hash.
+         */
+        private final int mask;
+        /**
+         * The packed keys.
+         */
+        private final AtomicLongArray keys;
+        /**
+         * The ion match keys.
+         */
+        private final AtomicReferenceArray<String> values;
+
+        /**
+         * Constructor.
+         *
+         * @param capacity the capacity of the table, a power of two
+         */
+        private Table(int capacity) {
+
+            this.capacity = capacity;
+            this.mask = capacity - 1;
+            this.keys = new AtomicLongArray(capacity);
+            this.values = new AtomicReferenceArray<>(capacity);
+
+        }
+
+        /**
+         * Returns the first slot to probe for the given packed key.
+         *
+         * @param packedKey the packed key
+         *
+         * @return the first slot to probe
+         */
+        private int getSlot(long packedKey) {
+
+            long hash = packedKey * 0x9E3779B97F4A7C15L;
+
+            return (int) (hash ^ (hash >>> 32)) & mask;
+        }
+
+        /**
+         * Returns the ion match key for the given packed key, null if not
+         * found.
+         *
+         * @param packedKey the packed key
+         *
+         * @return the ion match key
+         */
+        private String get(long packedKey) {
+
+            for (int slot = getSlot(packedKey);; slot = (slot + 1) & mask) {
+
+                long slotKey = keys.get(slot);
+
+                if (slotKey == packedKey) {
+                    return values.get(slot);
+                }
+                if (slotKey == EMPTY) {
+                    return null;
+                }
+            }
+        }
+
+        /**
+         * Puts an ion match key in the table. The table must contain an empty
+         * slot and must not contain the packed key.
+         *
+         * @param packedKey the packed key
+         * @param value the ion match key
+         */
+        private void put(long packedKey, String value) {
+
+            int slot = getSlot(packedKey);
+
+            while (keys.get(slot) != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+
+            values.set(slot, value);
+            keys.set(slot, packedKey);
+
+        }
+    }
 }
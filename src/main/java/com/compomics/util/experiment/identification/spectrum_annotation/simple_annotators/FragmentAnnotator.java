@@ -11,7 +11,6 @@ import com.compomics.util.experiment.biology.ions.impl.PeptideFragmentIon;
 import com.compomics.util.experiment.identification.matches.IonMatch;
 import com.compomics.util.experiment.identification.matches.ModificationMatch;
 import com.compomics.util.experiment.identification.spectrum_annotation.spectrum_annotators.SimplePeptideAnnotator.IonSeries;
-import com.compomics.util.experiment.mass_spectrometry.spectra.Peak;
 import com.compomics.util.experiment.mass_spectrometry.indexes.SpectrumIndex;
 import java.util.ArrayList;
 
@@ -180,36 +179,44 @@ public class FragmentAnnotator {
      */
     public ArrayList<IonMatch> getIonMatches(SpectrumIndex spectrumIndex, int peptideCharge) {
 
-        ArrayList<IonMatch> results = new ArrayList<>(0);
+        IonMatchBuffer ionMatchBuffer = new IonMatchBuffer();
+        addIonMatches(spectrumIndex, peptideCharge, ionMatchBuffer);
+
+        return ionMatchBuffer.getIonMatches();
+    }
+
+    /**
+     * Adds the ions matched in the given spectrum at the given charge to the
+     * buffer.
+     *
+     * @param spectrumIndex the index of the spectrum
+     * @param peptideCharge the charge of the peptide
+     * @param ionMatchBuffer the buffer where to store the matches
+     */
+    public void addIonMatches(SpectrumIndex spectrumIndex, int peptideCharge, IonMatchBuffer ionMatchBuffer) {
+
+        int ionType = Ion.IonType.PEPTIDE_FRAGMENT_ION.index;
 
         for (int i = 0; i < peptideLength; i++) {
 
             double ionMz = forwardIonMz1[i];
-            ArrayList<Peak> peaks = spectrumIndex.getMatchingPeaks(ionMz);
 
-            if (!peaks.isEmpty()) {
+            if (ionMatchBuffer.match(spectrumIndex, ionMz) > 0) {
 
                 int ionNumber = i + 1;
                 double ionMass = ionMz - ElementaryIon.proton.getTheoreticMass();
+                ionMatchBuffer.addCandidates(ionType, forwardIonType, ionNumber, ionMass, 1, null, null);
 
-                for (Peak peak : peaks) {
-                    Ion ion = new PeptideFragmentIon(forwardIonType, ionNumber, ionMass, null);
-                    results.add(new IonMatch(peak, ion, 1));
-                }
             }
 
             ionMz = complementaryIonMz1[i];
-            peaks = spectrumIndex.getMatchingPeaks(ionMz);
 
-            if (!peaks.isEmpty()) {
+            if (ionMatchBuffer.match(spectrumIndex, ionMz) > 0) {
 
                 double ionMass = ionMz - ElementaryIon.proton.getTheoreticMass();
                 int ionNumber = peptideLength - i - 1;
+                ionMatchBuffer.addCandidates(ionType, complementaryIonType, ionNumber, ionMass, 1, null, null);
 
-                for (Peak peak : peaks) {
-                    Ion ion = new PeptideFragmentIon(complementaryIonType, ionNumber, ionMass, null);
-                    results.add(new IonMatch(peak, ion, 1));
-                }
             }
         }
 
@@ -222,37 +229,27 @@ public class FragmentAnnotator {
 
                 double ionMz1 = forwardIonMz1[i];
                 double ionMz = (ionMz1 + protonContribution) / ionCharge;
-                ArrayList<Peak> peaks = spectrumIndex.getMatchingPeaks(ionMz);
 
-                if (!peaks.isEmpty()) {
+                if (ionMatchBuffer.match(spectrumIndex, ionMz) > 0) {
 
                     int ionNumber = i + 1;
                     double ionMass = ionMz1 - ElementaryIon.proton.getTheoreticMass();
+                    ionMatchBuffer.addCandidates(ionType, forwardIonType, ionNumber, ionMass, ionCharge, null, null);
 
-                    for (Peak peak : peaks) {
-                        Ion ion = new PeptideFragmentIon(forwardIonType, ionNumber, ionMass, null);
-                        results.add(new IonMatch(peak, ion, ionCharge));
-                    }
                 }
 
                 ionMz1 = complementaryIonMz1[i];
                 ionMz = (ionMz1 + protonContribution) / ionCharge;
-                peaks = spectrumIndex.getMatchingPeaks(ionMz);
 
-                if (!peaks.isEmpty()) {
+                if (ionMatchBuffer.match(spectrumIndex, ionMz) > 0) {
 
                     double ionMass = ionMz1 - ElementaryIon.proton.getTheoreticMass();
                     int ionNumber = peptideLength - i - 1;
+                    ionMatchBuffer.addCandidates(ionType, complementaryIonType, ionNumber, ionMass, ionCharge, null, null);
 
-                    for (Peak peak : peaks) {
-                        Ion ion = new PeptideFragmentIon(complementaryIonType, ionNumber, ionMass, null);
-                        results.add(new IonMatch(peak, ion, ionCharge));
-                    }
                 }
             }
         }
-
-        return results;
     }
 
 }
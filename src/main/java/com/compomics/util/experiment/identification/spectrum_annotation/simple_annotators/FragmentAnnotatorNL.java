@@ -2,7 +2,9 @@ package com.compomics.util.experiment.identification.spectrum_annotation.simple_
 
 import com.compomics.util.experiment.biology.aminoacids.AminoAcid;
 import com.compomics.util.experiment.biology.ions.Ion;
+import com.compomics.util.experiment.biology.ions.IonFactory;
 import com.compomics.util.experiment.biology.ions.NeutralLoss;
+import com.compomics.util.experiment.biology.ions.NeutralLossesTable;
 import com.compomics.util.experiment.biology.modifications.Modification;
 import com.compomics.util.experiment.biology.modifications.ModificationFactory;
 import com.compomics.util.experiment.biology.proteins.Peptide;
@@ -13,7 +15,6 @@ import com.compomics.util.experiment.identification.matches.IonMatch;
 import com.compomics.util.experiment.identification.matches.ModificationMatch;
 import com.compomics.util.experiment.identification.spectrum_annotation.spectrum_annotators.SimplePeptideAnnotator.IonSeries;
 import com.compomics.util.experiment.identification.utils.ModificationUtils;
-import com.compomics.util.experiment.mass_spectrometry.spectra.Peak;
 import com.compomics.util.experiment.mass_spectrometry.indexes.SpectrumIndex;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -34,10 +35,8 @@ public class FragmentAnnotatorNL {
         peptideLength = 0;
         forwardIonType = 0;
         complementaryIonType = 0;
-        forwardNeutralLossesMasses = null;
-        forwardNeutralLosses = null;
-        complementaryNeutralLossesMasses = null;
-        complementaryNeutralLosses = null;
+        forwardNeutralLossesTables = null;
+        complementaryNeutralLossesTables = null;
     }
 
     /**
@@ -65,23 +64,19 @@ public class FragmentAnnotatorNL {
      */
     private final int complementaryIonType;
     /**
-     * Array of the masses that can be lost by every forward fragment ion.
+     * The ion factory.
      */
-    private final ArrayList<double[]> forwardNeutralLossesMasses;
+    private final IonFactory ionFactory = IonFactory.getInstance();
     /**
-     * List of the neutral losses that can be lost by every forward fragment
-     * ion.
-     */
-    private final ArrayList<ArrayList<NeutralLoss>> forwardNeutralLosses;
-    /**
-     * Array of the masses that can be lost by every complementary fragment ion.
+     * The combinations of neutral losses that can be lost by every forward
+     * fragment ion.
      */
-    private final ArrayList<double[]> complementaryNeutralLossesMasses;
+    private final NeutralLossesTable[] forwardNeutralLossesTables;
     /**
-     * List of the neutral losses that can be lost by every complementary
-     * fragment ion.
+     * The combinations of neutral losses that can be lost by every
+     * complementary fragment ion.
      */
-    private final ArrayList<ArrayList<NeutralLoss>> complementaryNeutralLosses;
+    private final NeutralLossesTable[] complementaryNeutralLossesTables;
 
     /**
      * Constructor. Fixed modifications must be indexed as provided by the peptide class.
@@ -198,7 +193,7 @@ public class FragmentAnnotatorNL {
             for (String lossName : modificationLossesSites.keySet()) {
 
                 int[] sites = modificationLossesSites.get(lossName);
-                newIndexes[index][1] = sites[0];
+                newIndexes[index][0] = sites[0];
                 newIndexes[index][1] = sites[1];
                 newLosses[index] = NeutralLoss.getNeutralLoss(lossName);
                 index++;
@@ -240,11 +235,6 @@ public class FragmentAnnotatorNL {
 
         }
 
-        forwardNeutralLossesMasses = new ArrayList<>(peptideLength);
-        forwardNeutralLosses = new ArrayList<>(peptideLength);
-        complementaryNeutralLossesMasses = new ArrayList<>(peptideLength);
-        complementaryNeutralLosses = new ArrayList<>(peptideLength);
-
         for (int i = 0; i < peptideLength; i++) {
 
             char aa = aas[i];
@@ -256,29 +246,10 @@ public class FragmentAnnotatorNL {
             forwardIonMz1[i] = forwardMass;
             complementaryIonMz1[i] = complementaryMass - forwardMass;
 
-            ArrayList<NeutralLoss> forwardIonlosses = new ArrayList<>(lossesIndexes.length);
-            ArrayList<NeutralLoss> complementaryIonlosses = new ArrayList<>(lossesIndexes.length);
-            double[] forwardMasses = new double[lossesIndexes.length];
-            double[] complementaryMasses = new double[lossesIndexes.length];
-            int indexForward = 0;
-            int indexComplementary = 0;
-            for (int j = 0; j < lossesIndexes.length; j++) {
-                int[] indexes = lossesIndexes[j];
-                NeutralLoss neutralLoss = losses[j];
-                if (i >= indexes[0]) {
-                    forwardIonlosses.add(neutralLoss);
-                    forwardMasses[indexForward++] = neutralLoss.getMass();
-                }
-                if (i <= indexes[j]) {
-                    complementaryIonlosses.add(neutralLoss);
-                    complementaryMasses[indexComplementary++] = neutralLoss.getMass();
-                }
-            }
-            forwardNeutralLossesMasses.add(forwardMasses);
-            forwardNeutralLosses.add(forwardIonlosses);
-            complementaryNeutralLossesMasses.add(complementaryMasses);
-            complementaryNeutralLosses.add(complementaryIonlosses);
         }
+
+        forwardNeutralLossesTables = getNeutralLossesTables(losses, lossesIndexes, true);
+        complementaryNeutralLossesTables = getNeutralLossesTables(losses, lossesIndexes, false);
     }
 
     /**
@@ -396,7 +367,7 @@ public class FragmentAnnotatorNL {
             int index = lossesIndexes.length;
             for (String lossName : modificationLossesSites.keySet()) {
                 int[] sites = modificationLossesSites.get(lossName);
-                newIndexes[index][1] = sites[0];
+                newIndexes[index][0] = sites[0];
                 newIndexes[index][1] = sites[1];
                 newLosses[index] = NeutralLoss.getNeutralLoss(lossName);
                 index++;
@@ -435,74 +406,81 @@ public class FragmentAnnotatorNL {
 
         }
 
-        if (forward) {
+        for (int i = 0; i < peptideLength; i++) {
 
-            forwardNeutralLossesMasses = new ArrayList<>(peptideLength);
-            forwardNeutralLosses = new ArrayList<>(peptideLength);
+            char aa = aas[i];
+            AminoAcid aminoAcid = AminoAcid.getAminoAcid(aa);
+            forwardMass += aminoAcid.getMonoisotopicMass();
 
-        } else {
+            forwardMass += modificationsMasses[i];
 
-            forwardNeutralLossesMasses = null;
-            forwardNeutralLosses = null;
+            if (forward) {
 
-        }
-        if (complementary) {
+                forwardIonMz1[i] = forwardMass;
 
-            complementaryNeutralLossesMasses = new ArrayList<>(peptideLength);
-            complementaryNeutralLosses = new ArrayList<>(peptideLength);
+            }
 
-        } else {
+            if (complementary) {
 
-            complementaryNeutralLossesMasses = null;
-            complementaryNeutralLosses = null;
+                complementaryIonMz1[i] = complementaryMass - forwardMass;
 
+            }
         }
 
-        for (int i = 0; i < peptideLength; i++) {
-
-            char aa = aas[i];
-            AminoAcid aminoAcid = AminoAcid.getAminoAcid(aa);
-            forwardMass += aminoAcid.getMonoisotopicMass();
+        forwardNeutralLossesTables = forward ? getNeutralLossesTables(losses, lossesIndexes, true) : null;
+        complementaryNeutralLossesTables = complementary ? getNeutralLossesTables(losses, lossesIndexes, false) : null;
+    }
 
-            forwardMass += modificationsMasses[i];
+    /**
+     * Returns the tables of the neutral losses combinations of the forward or
+     * complementary ions at every position. Along the peptide, the possible
+     * losses only grow for the forward ions and only shrink for the
+     * complementary ions. A table is therefore only resolved where the number
+     * of possible losses changes, and shared with the following positions.
+     *
+     * @param losses the neutral losses
+     * @param lossesIndexes the first and last sites of every neutral loss
+     * @param forward boolean indicating whether the tables of the forward ions
+     * or of the complementary ions should be returned
+     *
+     * @return the tables of the neutral losses combinations
+     */
+    private NeutralLossesTable[] getNeutralLossesTables(NeutralLoss[] losses, int[][] lossesIndexes, boolean forward) {
 
-            if (forward) {
+        NeutralLossesTable[] neutralLossesTables = new NeutralLossesTable[peptideLength];
+        NeutralLossesTable neutralLossesTable = null;
+        int nLosses = -1;
 
-                forwardIonMz1[i] = forwardMass;
+        for (int i = 0; i < peptideLength; i++) {
 
-                ArrayList<NeutralLoss> forwardIonlosses = new ArrayList<>(lossesIndexes.length);
-                double[] forwardMasses = new double[lossesIndexes.length];
-                int indexForward = 0;
-                for (int j = 0; j < lossesIndexes.length; j++) {
-                    int[] indexes = lossesIndexes[j];
-                    NeutralLoss neutralLoss = losses[j];
-                    if (i >= indexes[0]) {
-                        forwardIonlosses.add(neutralLoss);
-                        forwardMasses[indexForward++] = neutralLoss.getMass();
-                    }
+            // the forward ion at i contains the residue i, the complementary ion starts after it
+            int nIonLosses = 0;
+            for (int[] indexes : lossesIndexes) {
+                if (forward ? i >= indexes[0] : i < indexes[1]) {
+                    nIonLosses++;
                 }
-                forwardNeutralLossesMasses.add(forwardMasses);
-                forwardNeutralLosses.add(forwardIonlosses);
             }
 
-            if (complementary) {
-                complementaryIonMz1[i] = complementaryMass - forwardMass;
+            if (nIonLosses != nLosses) {
 
-                ArrayList<NeutralLoss> complementaryIonlosses = new ArrayList<>(lossesIndexes.length);
-                double[] complementaryMasses = new double[lossesIndexes.length];
-                int indexComplementary = 0;
+                ArrayList<String> ionLosses = new ArrayList<>(nIonLosses);
                 for (int j = 0; j < lossesIndexes.length; j++) {
                     int[] indexes = lossesIndexes[j];
-                    NeutralLoss neutralLoss = losses[j];
-                    if (i <= indexes[j]) {
-                        complementaryIonlosses.add(neutralLoss);
-                        complementaryMasses[indexComplementary++] = neutralLoss.getMass();
+                    if (forward ? i >= indexes[0] : i < indexes[1]) {
+                        ionLosses.add(losses[j].name);
                     }
                 }
-                complementaryNeutralLossesMasses.add(complementaryMasses);
-                complementaryNeutralLosses.add(complementaryIonlosses);
+
+                neutralLossesTable = ionFactory.getNeutralLossesTable(ionLosses);
+                nLosses = nIonLosses;
+
             }
+
+            neutralLossesTables[i] = neutralLossesTable;
+
         }
+
+        return neutralLossesTables;
     }
 
     /**
@@ -581,149 +559,72 @@ public class FragmentAnnotatorNL {
      */
     public ArrayList<IonMatch> getIonMatches(SpectrumIndex spectrumIndex, int peptideCharge) {
 
-        ArrayList<IonMatch> results = new ArrayList<>(0);
+        IonMatchBuffer ionMatchBuffer = new IonMatchBuffer();
+        addIonMatches(spectrumIndex, peptideCharge, ionMatchBuffer);
 
-        for (int i = 0; i < peptideLength; i++) {
+        return ionMatchBuffer.getIonMatches();
+    }
 
-            double ionMz1 = forwardIonMz1[i];
-            int ionNumber = i + 1;
-            ArrayList<NeutralLoss> neutralLosses = forwardNeutralLosses.get(i);
-            double[] neutralLossesMasses = forwardNeutralLossesMasses.get(i);
-            for (int j = 0; j < neutralLosses.size(); j++) {
-                double lossMass1 = neutralLossesMasses[j];
-                double mz1WithLoss = ionMz1 - lossMass1;
-                ArrayList<Peak> peaks = spectrumIndex.getMatchingPeaks(mz1WithLoss);
-                if (!peaks.isEmpty()) {
-                    NeutralLoss[] ionLosses = {neutralLosses.get(j)};
-                    double ionMass = mz1WithLoss - ElementaryIon.proton.getTheoreticMass();
-                    for (Peak peak : peaks) {
-                        Ion ion = new PeptideFragmentIon(forwardIonType, ionNumber, ionMass, ionLosses);
-                        results.add(new IonMatch(peak, ion, 1));
-                    }
-                }
-                for (int k = j + 1; k < neutralLosses.size(); k++) {
-                    double lossMass2 = neutralLossesMasses[k];
-                    double mz1WithLoss2 = mz1WithLoss - lossMass2;
-                    peaks = spectrumIndex.getMatchingPeaks(mz1WithLoss2);
-                    if (!peaks.isEmpty()) {
-                        NeutralLoss[] ionLosses = {neutralLosses.get(j), neutralLosses.get(k)};
-                        double ionMass = mz1WithLoss2 - ElementaryIon.proton.getTheoreticMass();
-                        for (Peak peak : peaks) {
-                            Ion ion = new PeptideFragmentIon(forwardIonType, ionNumber, ionMass, ionLosses);
-                            results.add(new IonMatch(peak, ion, 1));
-                        }
-                    }
-                }
-            }
+    /**
+     * Adds the ions matched in the given spectrum at the given charge to the
+     * buffer.
+     *
+     * @param spectrumIndex the index of the spectrum
+     * @param peptideCharge the charge of the peptide
+     * @param ionMatchBuffer the buffer where to store the matches
+     */
+    public void addIonMatches(SpectrumIndex spectrumIndex, int peptideCharge, IonMatchBuffer ionMatchBuffer) {
+
+        for (int ionCharge = 1; ionCharge == 1 || ionCharge < peptideCharge; ionCharge++) {
+
+            double protonContribution = ElementaryIon.getProtonMassMultiple(ionCharge - 1);
+
+            for (int i = 0; i < peptideLength; i++) {
+
+                if (forwardNeutralLossesTables != null) {
+
+                    addIonMatches(spectrumIndex, forwardIonType, i + 1, forwardIonMz1[i], forwardNeutralLossesTables[i], ionCharge, protonContribution, ionMatchBuffer);
 
-            ionMz1 = complementaryIonMz1[i];
-            ionNumber = peptideLength - ionNumber;
-            neutralLosses = complementaryNeutralLosses.get(i);
-            neutralLossesMasses = complementaryNeutralLossesMasses.get(i);
-            for (int j = 0; j < neutralLosses.size(); j++) {
-                double lossMass1 = neutralLossesMasses[j];
-                double mz1WithLoss = ionMz1 - lossMass1;
-                ArrayList<Peak> peaks = spectrumIndex.getMatchingPeaks(mz1WithLoss);
-                if (!peaks.isEmpty()) {
-                    NeutralLoss[] ionLosses = {neutralLosses.get(j)};
-                    double ionMass = mz1WithLoss - ElementaryIon.proton.getTheoreticMass();
-                    for (Peak peak : peaks) {
-                        Ion ion = new PeptideFragmentIon(complementaryIonType, ionNumber, ionMass, ionLosses);
-                        results.add(new IonMatch(peak, ion, 1));
-                    }
                 }
-                for (int k = j + 1; k < neutralLosses.size(); k++) {
-                    double lossMass2 = neutralLossesMasses[k];
-                    double mz1WithLoss2 = mz1WithLoss - lossMass2;
-                    peaks = spectrumIndex.getMatchingPeaks(mz1WithLoss2);
-                    double ionMass = mz1WithLoss2 - ElementaryIon.proton.getTheoreticMass();
-                    if (!peaks.isEmpty()) {
-                        NeutralLoss[] ionLosses = {neutralLosses.get(j), neutralLosses.get(k)};
-                        for (Peak peak : peaks) {
-                            Ion ion = new PeptideFragmentIon(complementaryIonType, ionNumber, ionMass, ionLosses);
-                            results.add(new IonMatch(peak, ion, 1));
-                        }
-                    }
+
+                if (complementaryNeutralLossesTables != null) {
+
+                    addIonMatches(spectrumIndex, complementaryIonType, peptideLength - i - 1, complementaryIonMz1[i], complementaryNeutralLossesTables[i], ionCharge, protonContribution, ionMatchBuffer);
+
                 }
             }
         }
+    }
 
-        for (int ionCharge = 2; ionCharge < peptideCharge; ionCharge++) {
+    /**
+     * Adds the matches of an ion with one or two neutral losses to the buffer.
+     *
+     * @param spectrumIndex the index of the spectrum
+     * @param fragmentIonType the fragment ion type
+     * @param ionNumber the ion number
+     * @param ionMz1 the m/z of the ion at charge 1 without loss
+     * @param neutralLossesTable the combinations of neutral losses possible
+     * for this ion
+     * @param ionCharge the charge of the ion
+     * @param protonContribution the mass of the extra protons
+     * @param ionMatchBuffer the buffer where to store the matches
+     */
+    private void addIonMatches(SpectrumIndex spectrumIndex, int fragmentIonType, int ionNumber, double ionMz1, NeutralLossesTable neutralLossesTable, int ionCharge, double protonContribution, IonMatchBuffer ionMatchBuffer) {
 
-            int extraProtons = ionCharge - 1;
-            double protonContribution = ElementaryIon.getProtonMassMultiple(extraProtons);
+        int ionType = Ion.IonType.PEPTIDE_FRAGMENT_ION.index;
 
-            for (int i = 0; i < peptideLength; i++) {
+        // The first combination is the empty combination
+        for (int j = 1; j < neutralLossesTable.size(); j++) {
 
-                double ionMz1 = forwardIonMz1[i];
-                int ionNumber = i + 1;
-                ArrayList<NeutralLoss> neutralLosses = forwardNeutralLosses.get(i);
-                double[] neutralLossesMasses = forwardNeutralLossesMasses.get(i);
-                for (int j = 0; j < neutralLosses.size(); j++) {
-                    double lossMass1 = neutralLossesMasses[j];
-                    double mz1WithLoss = ionMz1 - lossMass1;
-                    double mzWithLoss = (mz1WithLoss + protonContribution) / ionCharge;
-                    ArrayList<Peak> peaks = spectrumIndex.getMatchingPeaks(mzWithLoss);
-                    if (!peaks.isEmpty()) {
-                        NeutralLoss[] ionLosses = {neutralLosses.get(j)};
-                        double ionMass = mz1WithLoss - ElementaryIon.proton.getTheoreticMass();
-                        for (Peak peak : peaks) {
-                            Ion ion = new PeptideFragmentIon(forwardIonType, ionNumber, ionMass, ionLosses);
-                            results.add(new IonMatch(peak, ion, ionCharge));
-                        }
-                    }
-                    for (int k = j + 1; k < neutralLosses.size(); k++) {
-                        double lossMass2 = neutralLossesMasses[k];
-                        double mz1WithLoss2 = mz1WithLoss - lossMass2;
-                        double mzWithLoss2 = (mz1WithLoss2 + protonContribution) / ionCharge;
-                        peaks = spectrumIndex.getMatchingPeaks(mzWithLoss2);
-                        if (!peaks.isEmpty()) {
-                            NeutralLoss[] ionLosses = {neutralLosses.get(j), neutralLosses.get(k)};
-                            double ionMass = mz1WithLoss2 - ElementaryIon.proton.getTheoreticMass();
-                            for (Peak peak : peaks) {
-                                Ion ion = new PeptideFragmentIon(forwardIonType, ionNumber, ionMass, ionLosses);
-                                results.add(new IonMatch(peak, ion, ionCharge));
-                            }
-                        }
-                    }
-                }
+            double mz1WithLoss = ionMz1 - neutralLossesTable.getMass(j);
+
+            if (ionMatchBuffer.match(spectrumIndex, (mz1WithLoss + protonContribution) / ionCharge) > 0) {
+
+                double ionMass = mz1WithLoss - ElementaryIon.proton.getTheoreticMass();
+                ionMatchBuffer.addCandidates(ionType, fragmentIonType, ionNumber, ionMass, ionCharge, neutralLossesTable.getFirstLoss(j), neutralLossesTable.getSecondLoss(j));
 
-                ionMz1 = complementaryIonMz1[i];
-                ionNumber = peptideLength - ionNumber;
-                neutralLosses = complementaryNeutralLosses.get(i);
-                neutralLossesMasses = complementaryNeutralLossesMasses.get(i);
-                for (int j = 0; j < neutralLosses.size(); j++) {
-                    double lossMass1 = neutralLossesMasses[j];
-                    double mz1WithLoss = ionMz1 - lossMass1;
-                    double mzWithLoss = (mz1WithLoss + protonContribution) / ionCharge;
-                    ArrayList<Peak> peaks = spectrumIndex.getMatchingPeaks(mzWithLoss);
-                    if (!peaks.isEmpty()) {
-                        NeutralLoss[] ionLosses = {neutralLosses.get(j)};
-                        double ionMass = mz1WithLoss - ElementaryIon.proton.getTheoreticMass();
-                        for (Peak peak : peaks) {
-                            Ion ion = new PeptideFragmentIon(complementaryIonType, ionNumber, ionMass, ionLosses);
-                            results.add(new IonMatch(peak, ion, ionCharge));
-                        }
-                    }
-                    for (int k = j + 1; k < neutralLosses.size(); k++) {
-                        double lossMass2 = neutralLossesMasses[k];
-                        double mz1WithLoss2 = mz1WithLoss - lossMass2;
-                        double mzWithLoss2 = (mz1WithLoss2 + protonContribution) / ionCharge;
-                        peaks = spectrumIndex.getMatchingPeaks(mzWithLoss2);
-                        double ionMass = mz1WithLoss2 - ElementaryIon.proton.getTheoreticMass();
-                        if (!peaks.isEmpty()) {
-                            NeutralLoss[] ionLosses = {neutralLosses.get(j), neutralLosses.get(k)};
-                            for (Peak peak : peaks) {
-                                Ion ion = new PeptideFragmentIon(complementaryIonType, ionNumber, ionMass, ionLosses);
-                                results.add(new IonMatch(peak, ion, ionCharge));
-                            }
-                        }
-                    }
-                }
             }
         }
-
-        return results;
     }
 
 }
@@ -0,0 +1,360 @@
+package com.compomics.util.experiment.identification.spectrum_annotation.simple_annotators;
+
+import com.compomics.util.experiment.biology.proteins.Peptide;
+import com.compomics.util.experiment.identification.matches.ModificationMatch;
+import com.compomics.util.experiment.identification.spectrum_annotation.spectrum_annotators.SimplePeptideAnnotator.IonSeries;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache for the fragment ladders of peptides. The fragment annotators
+ * hold the m/z of the fragment ions at charge one and the masses of the
+ * neutral losses as primitive arrays, and are not modified after
+ * construction. They can therefore be shared between threads and reused for
+ * all spectra and charges. Ladders are indexed by peptide key, fixed
+ * modifications, localization of the variable modifications, and ion series.
+ * When the cache is full, the oldest ladders are evicted first.
+ *
+ * @author Marc Vaudel
+ */
+public class FragmentLadderCache {
+
+    /**
+     * The default number of ladders to keep in cache.
+     */
+    public static final int DEFAULT_CAPACITY = 100000;
+    /**
+     * The maximal number of ladders to keep in cache.
+     */
+    private final int capacity;
+    /**
+     * The ladders in cache indexed by key.
+     */
+    private final ConcurrentHashMap<LadderKey, Object> ladders;
+    /**
+     * The keys of the ladders in cache in the order of insertion.
+     */
+    private final ConcurrentLinkedQueue<LadderKey> insertionOrder = new ConcurrentLinkedQueue<>();
+    /**
+     * The number of ladders found in cache.
+     */
+    private final LongAdder nHits = new LongAdder();
+    /**
+     * The number of ladders not found in cache.
+     */
+    private final LongAdder nMisses = new LongAdder();
+
+    /**
+     * Constructor.
+     *
+     * @param capacity the maximal number of ladders to keep in cache
+     */
+    public FragmentLadderCache(int capacity) {
+
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("The capacity of the cache must be strictly positive.");
+        }
+
+        this.capacity = capacity;
+        this.ladders = new ConcurrentHashMap<>(Math.min(capacity, 1024));
+
+    }
+
+    /**
+     * Constructor using the default capacity.
+     */
+    public FragmentLadderCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Returns the annotator for the fragment ions without neutral losses of
+     * the given peptide. Fixed modifications must be indexed as provided by
+     * the peptide class.
+     *
+     * @param peptide the peptide
+     * @param fixedModifications the fixed modifications on the peptide
+     * @param ionSeries the ion series to annotate
+     * @param forward boolean indicating whether forward ions should be
+     * annotated
+     * @param complementary boolean indicating whether complementary ions should
+     * be annotated
+     *
+     * @return the fragment annotator
+     */
+    public FragmentAnnotator getFragmentAnnotator(Peptide peptide, String[] fixedModifications, IonSeries ionSeries, boolean forward, boolean complementary) {
+
+        LadderKey key = new LadderKey(peptide, fixedModifications, getFlags(false, ionSeries, false, forward, complementary));
+        FragmentAnnotator fragmentAnnotator = (FragmentAnnotator) ladders.get(key);
+
+        if (fragmentAnnotator != null) {
+
+            nHits.increment();
+            return fragmentAnnotator;
+
+        }
+
+        nMisses.increment();
+        fragmentAnnotator = new FragmentAnnotator(peptide, fixedModifications, ionSeries, forward, complementary);
+        add(key, fragmentAnnotator);
+
+        return fragmentAnnotator;
+    }
+
+    /**
+     * Returns the annotator for the fragment ions with neutral losses of the
+     * given peptide. Fixed modifications must be indexed as provided by the
+     * peptide class.
+     *
+     * @param peptide the peptide
+     * @param fixedModifications the fixed modifications on the peptide
+     * @param ionSeries the ion series to annotate
+     * @param sequenceDependent boolean indicating whether the H2O and NH3
+     * losses should be adapted to the sequence
+     * @param forward boolean indicating whether forward ions should be
+     * annotated
+     * @param complementary boolean indicating whether complementary ions should
+     * be annotated
+     *
+     * @return the fragment annotator
+     */
+    public FragmentAnnotatorNL getFragmentAnnotatorNL(Peptide peptide, String[] fixedModifications, IonSeries ionSeries, boolean sequenceDependent, boolean forward, boolean complementary) {
+
+        LadderKey key = new LadderKey(peptide, fixedModifications, getFlags(true, ionSeries, sequenceDependent, forward, complementary));
+        FragmentAnnotatorNL fragmentAnnotator = (FragmentAnnotatorNL) ladders.get(key);
+
+        if (fragmentAnnotator != null) {
+
+            nHits.increment();
+            return fragmentAnnotator;
+
+        }
+
+        nMisses.increment();
+        fragmentAnnotator = new FragmentAnnotatorNL(peptide, fixedModifications, ionSeries, sequenceDependent, forward, complementary);
+        add(key, fragmentAnnotator);
+
+        return fragmentAnnotator;
+    }
+
+    /**
+     * Adds a ladder to the cache and evicts the oldest ladders if the cache
+     * is full.
+     *
+     * @param key the key of the ladder
+     * @param ladder the ladder
+     */
+    private void add(LadderKey key, Object ladder) {
+
+        if (ladders.putIfAbsent(key, ladder) == null) {
+
+            insertionOrder.add(key);
+
+            while (ladders.size() > capacity) {
+
+                LadderKey oldestKey = insertionOrder.poll();
+
+                if (oldestKey == null) {
+                    break;
+                }
+
+                ladders.remove(oldestKey);
+
+            }
+        }
+    }
+
+    /**
+     * Returns the flags of a ladder as an integer.
+     *
+     * @param neutralLosses boolean indicating whether the ladder includes
+     * neutral losses
+     * @param ionSeries the ion series
+     * @param sequenceDependent boolean indicating whether the neutral losses
+     * are sequence dependent
+     * @param forward boolean indicating whether forward ions are annotated
+     * @param complementary boolean indicating whether complementary ions are
+     * annotated
+     *
+     * @return the flags of the ladder
+     */
+    private static int getFlags(boolean neutralLosses, IonSeries ionSeries, boolean sequenceDependent, boolean forward, boolean complementary) {
+
+        int flags = ionSeries.ordinal() << 4;
+
+        if (neutralLosses) {
+            flags |= 1;
+        }
+        if (sequenceDependent) {
+            flags |= 2;
+        }
+        if (forward) {
+            flags |= 4;
+        }
+        if (complementary) {
+            flags |= 8;
+        }
+
+        return flags;
+    }
+
+    /**
+     * Returns the number of ladders in cache.
+     *
+     * @return the number of ladders in cache
+     */
+    public int size() {
+        return ladders.size();
+    }
+
+    /**
+     * Returns the maximal number of ladders to keep in cache.
+     *
+     * @return the maximal number of ladders to keep in cache
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns the number of ladders found in cache.
+     *
+     * @return the number of ladders found in cache
+     */
+    public long getNHits() {
+        return nHits.sum();
+    }
+
+    /**
+     * Returns the number of ladders not found in cache.
+     *
+     * @return the number of ladders not found in cache
+     */
+    public long getNMisses() {
+        return nMisses.sum();
+    }
+
+    /**
+     * Returns the share of ladders found in cache, 0 if no ladder was queried.
+     *
+     * @return the share of ladders found in cache
+     */
+    public double getHitRate() {
+
+        long hits = nHits.sum();
+        long total = hits + nMisses.sum();
+
+        return total == 0 ? 0.0 : ((double) hits) / total;
+    }
+
+    /**
+     * Empties the cache and resets the statistics.
+     */
+    public void clear() {
+
+        ladders.clear();
+        insertionOrder.clear();
+        nHits.reset();
+        nMisses.reset();
+
+    }
+
+    /**
+     * Key of a fragment ladder. The peptide key does not account for the
+     * localization of modifications that are not confidently localized, the
+     * sequence and the sites of the modifications are therefore part of the
+     * key.
+     */
+    private static final class LadderKey {
+
+        /**
+         * The key of the peptide.
+         */
+        private final long peptideKey;
+        /**
+         * The sequence of the peptide.
+         */
+        private final String sequence;
+        /**
+         * The fixed modifications indexed as provided by the peptide class.
+         */
+        private final String[] fixedModifications;
+        /**
+         * The names of the variable modifications.
+         */
+        private final String[] variableModifications;
+        /**
+         * The sites of the variable modifications.
+         */
+        private final int[] variableModificationSites;
+        /**
+         * The flags of the ladder.
+         */
+        private final int flags;
+        /**
+         * The hash code of the key.
+         */
+        private final int hashCode;
+
+        /**
+         * Constructor.
+         *
+         * @param peptide the peptide
+         * @param fixedModifications the fixed modifications of the peptide
+         * @param flags the flags of the ladder
+         */
+        private LadderKey(Peptide peptide, String[] fixedModifications, int flags) {
+
+            this.peptideKey = peptide.getKey();
+            this.sequence = peptide.getSequence();
+            this.fixedModifications = fixedModifications == null ? null : fixedModifications.clone();
+            this.flags = flags;
+
+            ModificationMatch[] modificationMatches = peptide.getVariableModifications();
+            variableModifications = new String[modificationMatches.length];
+            variableModificationSites = new int[modificationMatches.length];
+
+            for (int i = 0; i < modificationMatches.length; i++) {
+
+                variableModifications[i] = modificationMatches[i].getModification();
+                variableModificationSites[i] = modificationMatches[i].getSite();
+
+            }
+
+            int hash = Long.hashCode(peptideKey);
+            hash = 31 * hash + Arrays.hashCode(fixedModifications);
+            hash = 31 * hash + Arrays.hashCode(variableModificationSites);
+            hash = 31 * hash + flags;
+            hashCode = hash;
+
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+
+            if (this == obj) {
+                return true;
+            }
+
+            if (!(obj instanceof LadderKey)) {
+                return false;
+            }
+
+            LadderKey other = (LadderKey) obj;
+
+            return peptideKey == other.peptideKey
+                    && flags == other.flags
+                    && sequence.equals(other.sequence)
+                    && Arrays.equals(variableModificationSites, other.variableModificationSites)
+                    && Arrays.equals(variableModifications, other.variableModifications)
+                    && Arrays.equals(fixedModifications, other.fixedModifications);
+        }
+    }
+}
@@ -1,11 +1,9 @@
 package com.compomics.util.experiment.identification.spectrum_annotation.simple_annotators;
 
-import com.compomics.util.experiment.biology.ions.Ion;
 import com.compomics.util.experiment.biology.ions.impl.ElementaryIon;
 import com.compomics.util.experiment.biology.ions.impl.ImmoniumIon;
 import com.compomics.util.experiment.biology.ions.impl.RelatedIon;
 import com.compomics.util.experiment.identification.matches.IonMatch;
-import com.compomics.util.experiment.mass_spectrometry.spectra.Peak;
 import com.compomics.util.experiment.mass_spectrometry.indexes.SpectrumIndex;
 import java.util.ArrayList;
 
@@ -106,19 +104,26 @@ public class ImmoniumIonAnnotator {
      */
     public ArrayList<IonMatch> getIonMatches(SpectrumIndex spectrumIndex) {
 
-        ArrayList<IonMatch> results = new ArrayList<>(0);
+        IonMatchBuffer ionMatchBuffer = new IonMatchBuffer();
+        addIonMatches(spectrumIndex, ionMatchBuffer);
+
+        return ionMatchBuffer.getIonMatches();
+    }
+
+    /**
+     * Adds the ions matched in the given spectrum to the buffer.
+     *
+     * @param spectrumIndex the index of the spectrum
+     * @param ionMatchBuffer the buffer where to store the matches
+     */
+    public void addIonMatches(SpectrumIndex spectrumIndex, IonMatchBuffer ionMatchBuffer) {
 
         // Immonium ions
         for (int i = 0; i < aas.length; i++) {
 
-            double ionMz = immoniumIonsMz[i];
-            char aa = aas[i];
-            ArrayList<Peak> peaks = spectrumIndex.getMatchingPeaks(ionMz);
-
-            for (Peak peak : peaks) {
+            if (ionMatchBuffer.match(spectrumIndex, immoniumIonsMz[i]) > 0) {
 
-                Ion ion = ImmoniumIon.getImmoniumIon(aa);
-                results.add(new IonMatch(peak, ion, 1));
+                ionMatchBuffer.addCandidates(ImmoniumIon.getImmoniumIon(aas[i]), 1);
 
             }
         }
@@ -126,18 +131,11 @@ public class ImmoniumIonAnnotator {
         // Related ions
         for (int i = 0; i < relatedIons.length; i++) {
 
-            double ionMz = relatedIonsMz[i];
-            RelatedIon relatedIon = relatedIons[i];
-            ArrayList<Peak> peaks = spectrumIndex.getMatchingPeaks(ionMz);
+            if (ionMatchBuffer.match(spectrumIndex, relatedIonsMz[i]) > 0) {
 
-            for (Peak peak : peaks) {
-
-                results.add(new IonMatch(peak, relatedIon, 1));
+                ionMatchBuffer.addCandidates(relatedIons[i], 1);
 
             }
-
         }
-
-        return results;
     }
 }
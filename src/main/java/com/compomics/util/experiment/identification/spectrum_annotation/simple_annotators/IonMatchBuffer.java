@@ -0,0 +1,401 @@
+package com.compomics.util.experiment.identification.spectrum_annotation.simple_annotators;
+
+import com.compomics.util.experiment.biology.ions.Ion;
+import com.compomics.util.experiment.biology.ions.NeutralLoss;
+import com.compomics.util.experiment.biology.ions.impl.PeptideFragmentIon;
+import com.compomics.util.experiment.biology.ions.impl.PrecursorIon;
+import com.compomics.util.experiment.identification.matches.IonMatch;
+import com.compomics.util.experiment.mass_spectrometry.indexes.SpectrumIndex;
+import com.compomics.util.experiment.mass_spectrometry.spectra.Peak;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Reusable buffer where the simple annotators store the ions matched in a
+ * spectrum as primitives. Ion matches are only instantiated on request. The
+ * buffer is not thread-safe, every thread should use its own buffer and clear
+ * it between spectra.
+ *
+ * @author Marc Vaudel
+ */
+public class IonMatchBuffer {
+
+    /**
+     * The initial capacity of the buffer.
+     */
+    private static final int INITIAL_CAPACITY = 64;
+    /**
+     * The number of matches.
+     */
+    private int nMatches = 0;
+    /**
+     * The summed intensity of the matched peaks.
+     */
+    private double matchedIntensity = 0.0;
+    /**
+     * The matched peaks.
+     */
+    private Peak[] peaks = new Peak[INITIAL_CAPACITY];
+    /**
+     * The ion types as indexed in Ion.IonType.
+     */
+    private int[] ionTypes = new int[INITIAL_CAPACITY];
+    /**
+     * The ion subtypes, e.g. the fragment ion type for peptide fragment ions.
+     */
+    private int[] ionSubTypes = new int[INITIAL_CAPACITY];
+    /**
+     * The ion numbers, 0 if not applicable.
+     */
+    private int[] ionNumbers = new int[INITIAL_CAPACITY];
+    /**
+     * The ion charges.
+     */
+    private int[] charges = new int[INITIAL_CAPACITY];
+    /**
+     * The theoretic masses of the ions.
+     */
+    private double[] ionMasses = new double[INITIAL_CAPACITY];
+    /**
+     * The first neutral loss of the ions, null if none.
+     */
+    private NeutralLoss[] firstLosses = new NeutralLoss[INITIAL_CAPACITY];
+    /**
+     * The second neutral loss of the ions, null if none.
+     */
+    private NeutralLoss[] secondLosses = new NeutralLoss[INITIAL_CAPACITY];
+    /**
+     * The ions when an instance is shared, null otherwise.
+     */
+    private Ion[] ions = new Ion[INITIAL_CAPACITY];
+    /**
+     * The peaks matching the last queried m/z.
+     */
+    private Peak[] candidates = new Peak[8];
+    /**
+     * The number of peaks matching the last queried m/z.
+     */
+    private int nCandidates = 0;
+
+    /**
+     * Constructor.
+     */
+    public IonMatchBuffer() {
+    }
+
+    /**
+     * Clears the buffer.
+     */
+    public void clear() {
+
+        Arrays.fill(peaks, 0, nMatches, null);
+        Arrays.fill(firstLosses, 0, nMatches, null);
+        Arrays.fill(secondLosses, 0, nMatches, null);
+        Arrays.fill(ions, 0, nMatches, null);
+        nMatches = 0;
+        nCandidates = 0;
+        matchedIntensity = 0.0;
+
+    }
+
+    /**
+     * Looks up the peaks matching the given m/z in the spectrum index. The
+     * peaks are kept as candidates until the next query.
+     *
+     * @param spectrumIndex the spectrum index
+     * @param mz the m/z
+     *
+     * @return the number of matching peaks
+     */
+    int match(SpectrumIndex spectrumIndex, double mz) {
+
+        nCandidates = spectrumIndex.getMatchingPeaks(mz, candidates);
+
+        if (nCandidates > candidates.length) {
+
+            candidates = new Peak[Math.max(nCandidates, 2 * candidates.length)];
+            nCandidates = spectrumIndex.getMatchingPeaks(mz, candidates);
+
+        }
+
+        return nCandidates;
+    }
+
+    /**
+     * Adds the candidate peaks as matches of the given ion.
+     *
+     * @param ionType the ion type as indexed in Ion.IonType
+     * @param ionSubType the ion subtype
+     * @param ionNumber the ion number, 0 if not applicable
+     * @param ionMass the theoretic mass of the ion
+     * @param charge the charge of the ion
+     * @param firstLoss the first neutral loss, null if none
+     * @param secondLoss the second neutral loss, null if none
+     */
+    void addCandidates(int ionType, int ionSubType, int ionNumber, double ionMass, int charge, NeutralLoss firstLoss, NeutralLoss secondLoss) {
+
+        ensureCapacity(nMatches + nCandidates);
+
+        for (int i = 0; i < nCandidates; i++) {
+
+            Peak peak = candidates[i];
+            peaks[nMatches] = peak;
+            ionTypes[nMatches] = ionType;
+            ionSubTypes[nMatches] = ionSubType;
+            ionNumbers[nMatches] = ionNumber;
+            charges[nMatches] = charge;
+            ionMasses[nMatches] = ionMass;
+            firstLosses[nMatches] = firstLoss;
+            secondLosses[nMatches] = secondLoss;
+            ions[nMatches] = null;
+            matchedIntensity += peak.intensity;
+            nMatches++;
+
+        }
+    }
+
+    /**
+     * Adds the candidate peaks as matches of the given ion.
+     *
+     * @param ion the ion
+     * @param charge the charge of the ion
+     */
+    void addCandidates(Ion ion, int charge) {
+
+        ensureCapacity(nMatches + nCandidates);
+
+        for (int i = 0; i < nCandidates; i++) {
+
+            Peak peak = candidates[i];
+            peaks[nMatches] = peak;
+            ionTypes[nMatches] = ion.getType().index;
+            ionSubTypes[nMatches] = ion.getSubType();
+            ionNumbers[nMatches] = 0;
+            charges[nMatches] = charge;
+            ionMasses[nMatches] = ion.getTheoreticMass();
+            firstLosses[nMatches] = null;
+            secondLosses[nMatches] = null;
+            ions[nMatches] = ion;
+            matchedIntensity += peak.intensity;
+            nMatches++;
+
+        }
+    }
+
+    /**
+     * Adds an ion match obtained from another annotator. The ion instance is
+     * kept and returned as is by getIonMatch.
+     *
+     * @param ionMatch the ion match
+     */
+    public void add(IonMatch ionMatch) {
+
+        ensureCapacity(nMatches + 1);
+
+        Ion ion = ionMatch.ion;
+        NeutralLoss[] neutralLosses = ion.hasNeutralLosses() ? ion.getNeutralLosses() : null;
+
+        peaks[nMatches] = ionMatch.peak;
+        ionTypes[nMatches] = ion.getType().index;
+        ionSubTypes[nMatches] = ion.getSubType();
+        ionNumbers[nMatches] = ion.getType() == Ion.IonType.PEPTIDE_FRAGMENT_ION ? ((PeptideFragmentIon) ion).getNumber() : 0;
+        charges[nMatches] = ionMatch.charge;
+        ionMasses[nMatches] = ion.getTheoreticMass();
+        firstLosses[nMatches] = neutralLosses == null ? null : neutralLosses[0];
+        secondLosses[nMatches] = neutralLosses == null || neutralLosses.length < 2 ? null : neutralLosses[1];
+        ions[nMatches] = ion;
+        matchedIntensity += ionMatch.peak.intensity;
+        nMatches++;
+
+    }
+
+    /**
+     * Makes sure that the buffer can hold the given number of matches.
+     *
+     * @param capacity the number of matches
+     */
+    private void ensureCapacity(int capacity) {
+
+        if (capacity > peaks.length) {
+
+            int newCapacity = Math.max(capacity, 2 * peaks.length);
+            peaks = Arrays.copyOf(peaks, newCapacity);
+            ionTypes = Arrays.copyOf(ionTypes, newCapacity);
+            ionSubTypes = Arrays.copyOf(ionSubTypes, newCapacity);
+            ionNumbers = Arrays.copyOf(ionNumbers, newCapacity);
+            charges = Arrays.copyOf(charges, newCapacity);
+            ionMasses = Arrays.copyOf(ionMasses, newCapacity);
+            firstLosses = Arrays.copyOf(firstLosses, newCapacity);
+            secondLosses = Arrays.copyOf(secondLosses, newCapacity);
+            ions = Arrays.copyOf(ions, newCapacity);
+
+        }
+    }
+
+    /**
+     * Returns the number of matches.
+     *
+     * @return the number of matches
+     */
+    public int getNMatches() {
+        return nMatches;
+    }
+
+    /**
+     * Returns the summed intensity of the matched peaks. Peaks matched by
+     * multiple ions are counted multiple times.
+     *
+     * @return the summed intensity of the matched peaks
+     */
+    public double getMatchedIntensity() {
+        return matchedIntensity;
+    }
+
+    /**
+     * Returns the matched peak of the given match.
+     *
+     * @param i the index of the match
+     *
+     * @return the matched peak
+     */
+    public Peak getPeak(int i) {
+        return peaks[i];
+    }
+
+    /**
+     * Returns the m/z of the peak of the given match.
+     *
+     * @param i the index of the match
+     *
+     * @return the m/z of the peak
+     */
+    public double getPeakMz(int i) {
+        return peaks[i].mz;
+    }
+
+    /**
+     * Returns the intensity of the peak of the given match.
+     *
+     * @param i the index of the match
+     *
+     * @return the intensity of the peak
+     */
+    public double getPeakIntensity(int i) {
+        return peaks[i].intensity;
+    }
+
+    /**
+     * Returns the ion type of the given match as indexed in Ion.IonType.
+     *
+     * @param i the index of the match
+     *
+     * @return the ion type
+     */
+    public int getIonType(int i) {
+        return ionTypes[i];
+    }
+
+    /**
+     * Returns the ion subtype of the given match.
+     *
+     * @param i the index of the match
+     *
+     * @return the ion subtype
+     */
+    public int getIonSubType(int i) {
+        return ionSubTypes[i];
+    }
+
+    /**
+     * Returns the ion number of the given match, 0 if not applicable.
+     *
+     * @param i the index of the match
+     *
+     * @return the ion number
+     */
+    public int getIonNumber(int i) {
+        return ionNumbers[i];
+    }
+
+    /**
+     * Returns the charge of the ion of the given match.
+     *
+     * @param i the index of the match
+     *
+     * @return the charge
+     */
+    public int getCharge(int i) {
+        return charges[i];
+    }
+
+    /**
+     * Returns the theoretic mass of the ion of the given match.
+     *
+     * @param i the index of the match
+     *
+     * @return the theoretic mass
+     */
+    public double getIonMass(int i) {
+        return ionMasses[i];
+    }
+
+    /**
+     * Indicates whether the ion of the given match has neutral losses.
+     *
+     * @param i the index of the match
+     *
+     * @return a boolean indicating whether the ion has neutral losses
+     */
+    public boolean hasNeutralLosses(int i) {
+        return firstLosses[i] != null;
+    }
+
+    /**
+     * Returns the ion match at the given index.
+     *
+     * @param i the index of the match
+     *
+     * @return the ion match
+     */
+    public IonMatch getIonMatch(int i) {
+
+        Ion ion = ions[i];
+
+        if (ion == null) {
+
+            NeutralLoss[] neutralLosses;
+
+            if (firstLosses[i] == null) {
+                neutralLosses = null;
+            } else if (secondLosses[i] == null) {
+                neutralLosses = new NeutralLoss[]{firstLosses[i]};
+            } else {
+                neutralLosses = new NeutralLoss[]{firstLosses[i], secondLosses[i]};
+            }
+
+            if (ionTypes[i] == Ion.IonType.PRECURSOR_ION.index) {
+                ion = new PrecursorIon(ionMasses[i], neutralLosses);
+            } else {
+                ion = new PeptideFragmentIon(ionSubTypes[i], ionNumbers[i], ionMasses[i], neutralLosses);
+            }
+        }
+
+        return new IonMatch(peaks[i], ion, charges[i]);
+    }
+
+    /**
+     * Returns all ion matches in the buffer.
+     *
+     * @return the ion matches in a list
+     */
+    public ArrayList<IonMatch> getIonMatches() {
+
+        ArrayList<IonMatch> result = new ArrayList<>(nMatches);
+
+        for (int i = 0; i < nMatches; i++) {
+            result.add(getIonMatch(i));
+        }
+
+        return result;
+    }
+}
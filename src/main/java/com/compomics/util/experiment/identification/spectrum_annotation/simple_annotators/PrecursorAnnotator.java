@@ -6,10 +6,8 @@ import com.compomics.util.experiment.biology.ions.NeutralLoss;
 import com.compomics.util.experiment.biology.modifications.ModificationFactory;
 import com.compomics.util.experiment.biology.proteins.Peptide;
 import com.compomics.util.experiment.biology.ions.impl.ElementaryIon;
-import com.compomics.util.experiment.biology.ions.impl.PrecursorIon;
 import com.compomics.util.experiment.identification.matches.IonMatch;
 import com.compomics.util.experiment.identification.matches.ModificationMatch;
-import com.compomics.util.experiment.mass_spectrometry.spectra.Peak;
 import com.compomics.util.experiment.mass_spectrometry.indexes.SpectrumIndex;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -112,63 +110,60 @@ public class PrecursorAnnotator {
      */
     public ArrayList<IonMatch> getIonMatches(SpectrumIndex spectrumIndex, int peptideCharge, int isotopeMax) {
 
-        ArrayList<IonMatch> results = new ArrayList<>(0);
+        IonMatchBuffer ionMatchBuffer = new IonMatchBuffer();
+        addIonMatches(spectrumIndex, peptideCharge, isotopeMax, ionMatchBuffer);
 
+        return ionMatchBuffer.getIonMatches();
+    }
+
+    /**
+     * Adds the ions matched in the given spectrum at the given charge to the
+     * buffer.
+     *
+     * @param spectrumIndex the index of the spectrum
+     * @param peptideCharge the charge of the peptide
+     * @param isotopeMax the maximal isotopic value to annotate (inclusive)
+     * @param ionMatchBuffer the buffer where to store the matches
+     */
+    public void addIonMatches(SpectrumIndex spectrumIndex, int peptideCharge, int isotopeMax, IonMatchBuffer ionMatchBuffer) {
+
+        int ionType = Ion.IonType.PRECURSOR_ION.index;
         double protonatedMass = precursorMass + ElementaryIon.getProtonMassMultiple(peptideCharge);
 
         for (int isotope = 0; isotope <= isotopeMax; isotope++) {
 
             double mass = protonatedMass + ElementaryElement.getNeutronMassMultiple(isotope);
 
-            double mz = mass / peptideCharge;
+            if (ionMatchBuffer.match(spectrumIndex, mass / peptideCharge) > 0) {
+
+                ionMatchBuffer.addCandidates(ionType, 0, 0, precursorMass, peptideCharge, null, null);
 
-            ArrayList<Peak> peaks = spectrumIndex.getMatchingPeaks(mz);
-            for (Peak peak : peaks) {
-                Ion ion = new PrecursorIon(precursorMass, null);
-                results.add(new IonMatch(peak, ion, peptideCharge));
             }
 
             for (int i = 0; i < neutralLosses.length; i++) {
 
                 NeutralLoss neutralLoss1 = neutralLosses[i];
+                double massWithLoss1 = mass - neutralLossesMasses[i];
 
-                double massWithLoss1 = mass - neutralLoss1.getMass();
-                mz = massWithLoss1 / peptideCharge;
-                peaks = spectrumIndex.getMatchingPeaks(mz);
-
-                if (!peaks.isEmpty()) {
-
-                    NeutralLoss[] ionLosses = {neutralLoss1};
+                if (ionMatchBuffer.match(spectrumIndex, massWithLoss1 / peptideCharge) > 0) {
 
-                    for (Peak peak : peaks) {
+                    ionMatchBuffer.addCandidates(ionType, 0, 0, massWithLoss1, peptideCharge, neutralLoss1, null);
 
-                        Ion ion = new PrecursorIon(massWithLoss1, ionLosses);
-                        results.add(new IonMatch(peak, ion, peptideCharge));
-                    }
                 }
 
                 for (int j = i + 1; j < neutralLosses.length; j++) {
 
                     NeutralLoss neutralLoss2 = neutralLosses[j];
-                    double massWithLoss2 = massWithLoss1 - neutralLoss2.getMass();
-                    mz = massWithLoss1 / peptideCharge;
-                    peaks = spectrumIndex.getMatchingPeaks(mz);
-
-                    if (!peaks.isEmpty()) {
+                    double massWithLoss2 = massWithLoss1 - neutralLossesMasses[j];
 
-                        NeutralLoss[] ionLosses = {neutralLoss1, neutralLoss2};
+                    if (ionMatchBuffer.match(spectrumIndex, massWithLoss2 / peptideCharge) > 0) {
 
-                        for (Peak peak : peaks) {
+                        ionMatchBuffer.addCandidates(ionType, 0, 0, massWithLoss2, peptideCharge, neutralLoss1, neutralLoss2);
 
-                            Ion ion = new PrecursorIon(massWithLoss2, ionLosses);
-                            results.add(new IonMatch(peak, ion, peptideCharge));
-                        }
                     }
                 }
             }
         }
-
-        return results;
     }
 
 }
@@ -3,7 +3,6 @@ package com.compomics.util.experiment.identification.spectrum_annotation.simple_
 import com.compomics.util.experiment.biology.ions.impl.ElementaryIon;
 import com.compomics.util.experiment.biology.ions.impl.ReporterIon;
 import com.compomics.util.experiment.identification.matches.IonMatch;
-import com.compomics.util.experiment.mass_spectrometry.spectra.Peak;
 import com.compomics.util.experiment.mass_spectrometry.indexes.SpectrumIndex;
 import java.util.ArrayList;
 
@@ -56,22 +55,28 @@ public class ReporterIonAnnotator {
      */
     public ArrayList<IonMatch> getIonMatches(SpectrumIndex spectrumIndex) {
 
-        ArrayList<IonMatch> results = new ArrayList<>(reporterIons.length);
+        IonMatchBuffer ionMatchBuffer = new IonMatchBuffer();
+        addIonMatches(spectrumIndex, ionMatchBuffer);
 
-        for (int i = 0; i < reporterIons.length; i++) {
+        return ionMatchBuffer.getIonMatches();
+    }
 
-            ReporterIon reporterIon = reporterIons[i];
-            double ionMz = reporterIonsMz[i];
-            ArrayList<Peak> peaks = spectrumIndex.getMatchingPeaks(ionMz);
+    /**
+     * Adds the ions matched in the given spectrum to the buffer.
+     *
+     * @param spectrumIndex the index of the spectrum
+     * @param ionMatchBuffer the buffer where to store the matches
+     */
+    public void addIonMatches(SpectrumIndex spectrumIndex, IonMatchBuffer ionMatchBuffer) {
+
+        for (int i = 0; i < reporterIons.length; i++) {
 
-            for (Peak peak : peaks) {
+            if (ionMatchBuffer.match(spectrumIndex, reporterIonsMz[i]) > 0) {
 
-                results.add(new IonMatch(peak, reporterIon, 1));
+                ionMatchBuffer.addCandidates(reporterIons[i], 1);
 
             }
         }
-
-        return results;
     }
     
 }
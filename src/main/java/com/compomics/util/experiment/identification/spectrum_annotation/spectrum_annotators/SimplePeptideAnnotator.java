@@ -10,6 +10,8 @@ import com.compomics.util.experiment.identification.matches.IonMatch;
 import com.compomics.util.experiment.identification.spectrum_annotation.AnnotationParameters;
 import com.compomics.util.experiment.identification.spectrum_annotation.simple_annotators.FragmentAnnotator;
 import com.compomics.util.experiment.identification.spectrum_annotation.simple_annotators.FragmentAnnotatorNL;
+import com.compomics.util.experiment.identification.spectrum_annotation.simple_annotators.FragmentLadderCache;
+import com.compomics.util.experiment.identification.spectrum_annotation.simple_annotators.IonMatchBuffer;
 import com.compomics.util.experiment.identification.spectrum_annotation.simple_annotators.ImmoniumIonAnnotator;
 import com.compomics.util.experiment.identification.spectrum_annotation.simple_annotators.PrecursorAnnotator;
 import com.compomics.util.experiment.identification.spectrum_annotation.simple_annotators.ReporterIonAnnotator;
@@ -102,6 +104,20 @@ public class SimplePeptideAnnotator {
      * @param annotationSettings the annotation preferences
      */
     public SimplePeptideAnnotator(Peptide peptide, String[] fixedModifications, int charge, AnnotationParameters annotationSettings) {
+        this(peptide, fixedModifications, charge, annotationSettings, null);
+    }
+    
+    /**
+     * Constructor. Fixed modifications must be indexed as provided by the peptide class.
+     * The fragment ladders are taken from the given cache when available.
+     * 
+     * @param peptide the peptide to annotate
+     * @param fixedModifications the fixed modifications of the peptide
+     * @param charge the charge of the peptide
+     * @param annotationSettings the annotation preferences
+     * @param fragmentLadderCache a cache for the fragment ladders, ignored if null
+     */
+    public SimplePeptideAnnotator(Peptide peptide, String[] fixedModifications, int charge, AnnotationParameters annotationSettings, FragmentLadderCache fragmentLadderCache) {
 
         boolean neutralLossesSequence = annotationSettings.areNeutralLossesSequenceAuto();
         ArrayList<NeutralLoss> neutralLosses = annotationSettings.getNeutralLosses();
@@ -119,9 +135,9 @@ public class SimplePeptideAnnotator {
                     case PeptideFragmentIon.X_ION:
                         ionSeries = IonSeries.ax;
                         if (axFragmentAnnotator == null) {
-                            axFragmentAnnotator = new FragmentAnnotator(peptide, fixedModifications, ionSeries, peptideFragmentIons.contains(PeptideFragmentIon.A_ION), peptideFragmentIons.contains(PeptideFragmentIon.X_ION));
+                            axFragmentAnnotator = getFragmentAnnotator(peptide, fixedModifications, ionSeries, peptideFragmentIons.contains(PeptideFragmentIon.A_ION), peptideFragmentIons.contains(PeptideFragmentIon.X_ION), fragmentLadderCache);
                             if (!neutralLosses.isEmpty()) {
-                                axFragmentAnnotatorNL = new FragmentAnnotatorNL(peptide, fixedModifications, ionSeries, neutralLossesSequence, peptideFragmentIons.contains(PeptideFragmentIon.A_ION), peptideFragmentIons.contains(PeptideFragmentIon.X_ION));
+                                axFragmentAnnotatorNL = getFragmentAnnotatorNL(peptide, fixedModifications, ionSeries, neutralLossesSequence, peptideFragmentIons.contains(PeptideFragmentIon.A_ION), peptideFragmentIons.contains(PeptideFragmentIon.X_ION), fragmentLadderCache);
                             }
                         }
                         break;
@@ -129,9 +145,9 @@ public class SimplePeptideAnnotator {
                     case PeptideFragmentIon.Y_ION:
                         ionSeries = IonSeries.by;
                         if (byFragmentAnnotator == null) {
-                            byFragmentAnnotator = new FragmentAnnotator(peptide, fixedModifications, ionSeries, peptideFragmentIons.contains(PeptideFragmentIon.B_ION), peptideFragmentIons.contains(PeptideFragmentIon.Y_ION));
+                            byFragmentAnnotator = getFragmentAnnotator(peptide, fixedModifications, ionSeries, peptideFragmentIons.contains(PeptideFragmentIon.B_ION), peptideFragmentIons.contains(PeptideFragmentIon.Y_ION), fragmentLadderCache);
                             if (!neutralLosses.isEmpty()) {
-                                byFragmentAnnotatorNL = new FragmentAnnotatorNL(peptide, fixedModifications, ionSeries, neutralLossesSequence, peptideFragmentIons.contains(PeptideFragmentIon.B_ION), peptideFragmentIons.contains(PeptideFragmentIon.Y_ION));
+                                byFragmentAnnotatorNL = getFragmentAnnotatorNL(peptide, fixedModifications, ionSeries, neutralLossesSequence, peptideFragmentIons.contains(PeptideFragmentIon.B_ION), peptideFragmentIons.contains(PeptideFragmentIon.Y_ION), fragmentLadderCache);
                             }
                         }
                         break;
@@ -139,9 +155,9 @@ public class SimplePeptideAnnotator {
                     case PeptideFragmentIon.Z_ION:
                         ionSeries = IonSeries.cz;
                         if (czFragmentAnnotator == null) {
-                            czFragmentAnnotator = new FragmentAnnotator(peptide, fixedModifications, ionSeries, peptideFragmentIons.contains(PeptideFragmentIon.C_ION), peptideFragmentIons.contains(PeptideFragmentIon.Z_ION));
+                            czFragmentAnnotator = getFragmentAnnotator(peptide, fixedModifications, ionSeries, peptideFragmentIons.contains(PeptideFragmentIon.C_ION), peptideFragmentIons.contains(PeptideFragmentIon.Z_ION), fragmentLadderCache);
                             if (!neutralLosses.isEmpty()) {
-                                czFragmentAnnotatorNL = new FragmentAnnotatorNL(peptide, fixedModifications, ionSeries, neutralLossesSequence, peptideFragmentIons.contains(PeptideFragmentIon.C_ION), peptideFragmentIons.contains(PeptideFragmentIon.Z_ION));
+                                czFragmentAnnotatorNL = getFragmentAnnotatorNL(peptide, fixedModifications, ionSeries, neutralLossesSequence, peptideFragmentIons.contains(PeptideFragmentIon.C_ION), peptideFragmentIons.contains(PeptideFragmentIon.Z_ION), fragmentLadderCache);
                             }
                         }
                         break;
@@ -171,6 +187,45 @@ public class SimplePeptideAnnotator {
         }
     }
 
+    /**
+     * Returns the annotator for the fragment ions without neutral losses,
+     * taken from the cache if provided.
+     *
+     * @param peptide the peptide to annotate
+     * @param fixedModifications the fixed modifications of the peptide
+     * @param ionSeries the ion series to annotate
+     * @param forward boolean indicating whether forward ions should be annotated
+     * @param complementary boolean indicating whether complementary ions should be annotated
+     * @param fragmentLadderCache a cache for the fragment ladders, ignored if null
+     *
+     * @return the fragment annotator
+     */
+    private static FragmentAnnotator getFragmentAnnotator(Peptide peptide, String[] fixedModifications, IonSeries ionSeries, 
+            boolean forward, boolean complementary, FragmentLadderCache fragmentLadderCache) {
+        return fragmentLadderCache == null ? new FragmentAnnotator(peptide, fixedModifications, ionSeries, forward, complementary)
+                : fragmentLadderCache.getFragmentAnnotator(peptide, fixedModifications, ionSeries, forward, complementary);
+    }
+
+    /**
+     * Returns the annotator for the fragment ions with neutral losses, taken
+     * from the cache if provided.
+     *
+     * @param peptide the peptide to annotate
+     * @param fixedModifications the fixed modifications of the peptide
+     * @param ionSeries the ion series to annotate
+     * @param sequenceDependent boolean indicating whether the neutral losses should be selected depending on the sequence
+     * @param forward boolean indicating whether forward ions should be annotated
+     * @param complementary boolean indicating whether complementary ions should be annotated
+     * @param fragmentLadderCache a cache for the fragment ladders, ignored if null
+     *
+     * @return the fragment annotator
+     */
+    private static FragmentAnnotatorNL getFragmentAnnotatorNL(Peptide peptide, String[] fixedModifications, IonSeries ionSeries, 
+            boolean sequenceDependent, boolean forward, boolean complementary, FragmentLadderCache fragmentLadderCache) {
+        return fragmentLadderCache == null ? new FragmentAnnotatorNL(peptide, fixedModifications, ionSeries, sequenceDependent, forward, complementary)
+                : fragmentLadderCache.getFragmentAnnotatorNL(peptide, fixedModifications, ionSeries, sequenceDependent, forward, complementary);
+    }
+
     /**
      * Empty default constructor
      */
@@ -286,5 +341,45 @@ public class SimplePeptideAnnotator {
         }
         return result;
     }
+
+    /**
+     * Adds the ion matches for the given spectrum to the buffer. No ion match
+     * object is created, the buffer is not cleared.
+     *
+     * @param spectrumIndex the spectrum index
+     * @param peptideCharge the peptide charge
+     * @param precursorIsotopeMax the number of isotopes to test for the precursor ion
+     * @param ionMatchBuffer the buffer where to store the matches
+     */
+    public void addIonMatches(SpectrumIndex spectrumIndex, int peptideCharge, int precursorIsotopeMax, IonMatchBuffer ionMatchBuffer) {
+
+        if (axFragmentAnnotator != null) {
+            axFragmentAnnotator.addIonMatches(spectrumIndex, peptideCharge, ionMatchBuffer);
+        }
+        if (axFragmentAnnotatorNL != null) {
+            axFragmentAnnotatorNL.addIonMatches(spectrumIndex, peptideCharge, ionMatchBuffer);
+        }
+        if (byFragmentAnnotator != null) {
+            byFragmentAnnotator.addIonMatches(spectrumIndex, peptideCharge, ionMatchBuffer);
+        }
+        if (byFragmentAnnotatorNL != null) {
+            byFragmentAnnotatorNL.addIonMatches(spectrumIndex, peptideCharge, ionMatchBuffer);
+        }
+        if (czFragmentAnnotator != null) {
+            czFragmentAnnotator.addIonMatches(spectrumIndex, peptideCharge, ionMatchBuffer);
+        }
+        if (czFragmentAnnotatorNL != null) {
+            czFragmentAnnotatorNL.addIonMatches(spectrumIndex, peptideCharge, ionMatchBuffer);
+        }
+        if (precursorAnnotator != null) {
+            precursorAnnotator.addIonMatches(spectrumIndex, peptideCharge, precursorIsotopeMax, ionMatchBuffer);
+        }
+        if (immoniumIonAnnotator != null) {
+            immoniumIonAnnotator.addIonMatches(spectrumIndex, ionMatchBuffer);
+        }
+        if (reporterIonAnnotator != null) {
+            reporterIonAnnotator.addIonMatches(spectrumIndex, ionMatchBuffer);
+        }
+    }
     
 }
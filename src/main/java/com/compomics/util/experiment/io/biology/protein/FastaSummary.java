@@ -1,6 +1,5 @@
 package com.compomics.util.experiment.io.biology.protein;
 
-import com.compomics.util.experiment.identification.utils.ProteinUtils;
 import com.compomics.util.experiment.io.biology.protein.iterators.HeaderIterator;
 import com.compomics.util.io.json.JsonMarshaller;
 import com.compomics.util.parameters.UtilitiesUserParameters;
@@ -99,6 +98,13 @@ public class FastaSummary {
 
            fastaSummary = getSavedSummary(fastaFile);
 
+           if (fastaSummary != null && fastaSummary.lastModified != new File(fastaFile).lastModified()) {
+
+               // The file was modified since the summary was saved
+               fastaSummary = null;
+
+           }
+
         } catch (Exception e) {
 
             // ignore and overwrite corrupted file
@@ -154,15 +160,16 @@ public class FastaSummary {
     }
 
     /**
-     * Saves the summary in the user folder.
+     * Saves the summary in the user folder. This allows reusing a summary
+     * gathered while reading the file for another purpose.
      *
-     * @param fastaFile the FASTA file
+     * @param fastaFile path to the FASTA file
      * @param fastaSummary the summary
      *
      * @throws IOException exception thrown if an error occurred while writing
      * the file
      */
-    private static void saveSummary(String fastaFile, FastaSummary fastaSummary) throws IOException {
+    public static void saveSummary(String fastaFile, FastaSummary fastaSummary) throws IOException {
 
         File destinationFile = getSummaryFile(fastaFile);
         File destinationFolder = destinationFile.getParentFile();
@@ -220,63 +227,14 @@ public class FastaSummary {
         
         long lastModified = fastaFile.lastModified();
         
-        TreeMap<String, Integer> speciesOccurrence = new TreeMap<>();
-        HashMap<ProteinDatabase, Integer> databaseType = new HashMap<>(1);
-        int nSequences = 0;
-        int nTarget = 0;
+        FastaSummaryBuilder fastaSummaryBuilder = new FastaSummaryBuilder(fastaParameters);
 
         HeaderIterator headerIterator = new HeaderIterator(fastaFile);
         String fastaHeader;
 
         while ((fastaHeader = headerIterator.getNextHeader()) != null) {
 
-            Header header = Header.parseFromFASTA(fastaHeader);
-
-            String species = header.getTaxonomy();
-
-            if (species == null) {
-                species = "Unknown";
-            }
-            
-            Integer occurrence = speciesOccurrence.get(species);
-
-            if (occurrence == null) {
-
-                speciesOccurrence.put(species, 1);
-
-            } else {
-
-                speciesOccurrence.put(species, occurrence + 1);
-
-            }
-
-            ProteinDatabase proteinDatabase = header.getDatabaseType();
-
-            if (proteinDatabase == null) {
-                proteinDatabase = ProteinDatabase.Unknown;
-            }
-            
-            occurrence = databaseType.get(proteinDatabase);
-
-            if (occurrence == null) {
-
-                databaseType.put(proteinDatabase, 1);
-
-            } else {
-
-                databaseType.put(proteinDatabase, occurrence + 1);
-
-            }
-
-            String accession = header.getAccessionOrRest();
-
-            if (!ProteinUtils.isDecoy(accession, fastaParameters)) {
-
-                nTarget++;
-
-            }
-
-            nSequences++;
+            fastaSummaryBuilder.addHeader(Header.parseFromFASTA(fastaHeader));
 
             if (waitingHandler != null) {
 
@@ -291,7 +249,7 @@ public class FastaSummary {
             }
         }
 
-        return new FastaSummary(fastaFile, speciesOccurrence, databaseType, nSequences, nTarget, lastModified);
+        return fastaSummaryBuilder.getSummary(fastaFile, lastModified);
 
     }
     
@@ -0,0 +1,118 @@
+package com.compomics.util.experiment.io.biology.protein;
+
+import com.compomics.util.experiment.identification.utils.ProteinUtils;
+import java.io.File;
+import java.util.HashMap;
+import java.util.TreeMap;
+
+/**
+ * Builder gathering the summary statistics of a FASTA file from its headers.
+ * The headers can be provided while the file is read for another purpose,
+ * avoiding a dedicated pass through the file.
+ *
+ * @author Marc Vaudel
+ */
+public class FastaSummaryBuilder {
+
+    /**
+     * The parameters to use to parse the file.
+     */
+    private final FastaParameters fastaParameters;
+    /**
+     * The species occurrence.
+     */
+    private final TreeMap<String, Integer> speciesOccurrence = new TreeMap<>();
+    /**
+     * The database type occurrence.
+     */
+    private final HashMap<ProteinDatabase, Integer> databaseType = new HashMap<>(1);
+    /**
+     * The number of sequences.
+     */
+    private int nSequences = 0;
+    /**
+     * The number of target sequences.
+     */
+    private int nTarget = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param fastaParameters the parameters to use to parse the file
+     */
+    public FastaSummaryBuilder(FastaParameters fastaParameters) {
+        this.fastaParameters = fastaParameters;
+    }
+
+    /**
+     * Adds the header of a sequence to the summary.
+     *
+     * @param header the header of the sequence
+     */
+    public void addHeader(Header header) {
+
+        countSequence(header);
+
+        String accession = header.getAccessionOrRest();
+
+        if (!ProteinUtils.isDecoy(accession, fastaParameters)) {
+
+            nTarget++;
+
+        }
+    }
+
+    /**
+     * Adds a decoy sequence generated from the target sequence with the given
+     * header to the summary. The decoy is counted for the species and database
+     * type of the target.
+     *
+     * @param targetHeader the header of the target sequence
+     */
+    public void addDecoyHeader(Header targetHeader) {
+
+        countSequence(targetHeader);
+
+    }
+
+    /**
+     * Counts a sequence for the species and database type of the given
+     * header.
+     *
+     * @param header the header
+     */
+    private void countSequence(Header header) {
+
+        String species = header.getTaxonomy();
+
+        if (species == null) {
+            species = "Unknown";
+        }
+
+        speciesOccurrence.merge(species, 1, Integer::sum);
+
+        ProteinDatabase proteinDatabase = header.getDatabaseType();
+
+        if (proteinDatabase == null) {
+            proteinDatabase = ProteinDatabase.Unknown;
+        }
+
+        databaseType.merge(proteinDatabase, 1, Integer::sum);
+
+        nSequences++;
+
+    }
+
+    /**
+     * Returns the summary of the headers added.
+     *
+     * @param fastaFile the FASTA file
+     * @param lastModified the last time the file was modified, as read before
+     * parsing the file
+     *
+     * @return the summary of the headers added
+     */
+    public FastaSummary getSummary(File fastaFile, long lastModified) {
+        return new FastaSummary(fastaFile, new TreeMap<>(speciesOccurrence), new HashMap<>(databaseType), nSequences, nTarget, lastModified);
+    }
+}
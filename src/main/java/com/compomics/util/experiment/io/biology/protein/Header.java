@@ -15,6 +15,7 @@ package com.compomics.util.experiment.io.biology.protein;
 import org.apache.log4j.Logger;
 
 import java.util.StringTokenizer;
+import java.util.regex.Pattern;
 
 /**
  * This class represents the header for a Protein instance. It is meant to work
@@ -37,6 +38,70 @@ public class Header implements Cloneable {
      * Class specific log4j logger for Header instances.
      */
     static Logger logger = Logger.getLogger(Header.class);
+    /**
+     * Pattern of the Drosophila headers.
+     */
+    private static final Pattern DROSOPHILA_PATTERN = Pattern.compile("^CG.* pep:.*");
+    /**
+     * Pattern of the SGD headers.
+     */
+    private static final Pattern SGD_PATTERN = Pattern.compile(".*SGDID:[^\\s]+,.*");
+    /**
+     * Pattern of the SwissProt headers before release 9.0.
+     */
+    private static final Pattern OLD_SWISSPROT_PATTERN = Pattern.compile("^[^\\s]+_[^\\s]+ \\([PQOA][^\\s]+\\) .*");
+    /**
+     * Pattern of the SwissProt headers.
+     */
+    private static final Pattern SWISSPROT_PATTERN = Pattern.compile("^sp\\|[^|]*\\|[^\\s]+_[^\\s]+ .*");
+    /**
+     * Pattern of the TrEMBL headers.
+     */
+    private static final Pattern TREMBL_PATTERN = Pattern.compile("^tr\\|[^|]*\\|[^\\s]+_[^\\s]+ .*");
+    /**
+     * Pattern of the Ensembl Genomes headers.
+     */
+    private static final Pattern ENSEMBL_GENOMES_PATTERN = Pattern.compile("^en\\|[^|]*\\|.*");
+    /**
+     * Pattern of the UniProt headers without database prefix.
+     */
+    private static final Pattern UNIPROT_PATTERN = Pattern.compile("^[^\\s]*\\|[^\\s]+_[^\\s]+ .*");
+    /**
+     * Pattern of the Flybase headers.
+     */
+    private static final Pattern FLYBASE_PATTERN = Pattern.compile("^FB.+\\stype=.*");
+    /**
+     * Pattern of the genome translation headers.
+     */
+    private static final Pattern GENOME_TRANSLATION_PATTERN = Pattern.compile(".* [.]*\\[[\\d]+[ ]?\\-[ ]?[\\d]+\\].*");
+    /**
+     * Pattern of the Arabidopsis thaliana TAIR headers.
+     */
+    private static final Pattern TAIR_PATTERN = Pattern.compile("^[^|\t]* [|] Symbol[^|]*[|] [^|]* [|].*");
+    /**
+     * Pattern of the PSB Arabidopsis thaliana headers.
+     */
+    private static final Pattern PSB_ARABIDOPSIS_PATTERN = Pattern.compile("^nrAt[^\t]*\t.*");
+    /**
+     * Pattern of the Listeria headers.
+     */
+    private static final Pattern LISTERIA_PATTERN = Pattern.compile("^L. monocytogenes[^|]*[|][^|]*[|].*");
+    /**
+     * Pattern of an accession followed by a location where the end is a single digit.
+     */
+    private static final Pattern SINGLE_DIGIT_LOCATION_PATTERN = Pattern.compile("[^\\(]+\\([\\d]+ [\\d]\\)$");
+    /**
+     * Pattern of an accession followed by a location separated by a space.
+     */
+    private static final Pattern SPACE_LOCATION_PATTERN = Pattern.compile("[^\\(]+\\([\\d]+ [\\d]+\\)$");
+    /**
+     * Pattern of an accession followed by a location separated by a dash.
+     */
+    private static final Pattern DASH_LOCATION_PATTERN = Pattern.compile("[^\\(]+\\([\\d]+-[\\d]+\\)$");
+    /**
+     * Pattern of a location between brackets.
+     */
+    private static final Pattern LOCATION_PATTERN = Pattern.compile("[(][0-9]+-[0-9]+[)]");
 
     /**
      * Private constructor to force use of factory methods.
@@ -190,7 +255,9 @@ public class Header implements Cloneable {
             }
             try {
                 // First determine what kind of Header we've got.
-                if (aFASTAHeader.startsWith("sw|") || aFASTAHeader.startsWith("SW|")) {
+                if (parseFromDatabasePrefix(result, aFASTAHeader)) {
+                    // Parsed based on the database prefix.
+                } else if (aFASTAHeader.startsWith("sw|") || aFASTAHeader.startsWith("SW|")) {
                     // SwissProt.
                     // We need to find three elements:
                     //   - the ID (sw, we already know that one).
@@ -463,7 +530,7 @@ public class Header implements Cloneable {
                         result.iEnd = Integer.parseInt(temp.substring(minus + 1, end));
                     }
                     result.iDescription = aFASTAHeader.substring(accessionEndLoc + 1).trim();
-                } else if (aFASTAHeader.matches("^CG.* pep:.*")) {
+                } else if (DROSOPHILA_PATTERN.matcher(aFASTAHeader).matches()) {
                     // Drosophile DB.
                     // We need to find two elements:
                     //   - the accession String (retrieved as the trimmed version of everything
@@ -491,7 +558,7 @@ public class Header implements Cloneable {
                         result.iEnd = Integer.parseInt(temp.substring(minus + 1, end));
                     }
                     result.iDescription = possibleDescriptionPrefix + aFASTAHeader.substring(pepLoc).trim();
-                } else if (aFASTAHeader.matches(".*SGDID:[^\\s]+,.*")) {
+                } else if (SGD_PATTERN.matcher(aFASTAHeader).matches()) {
                     // OK, SGD entry. The text up to but not including the first space is deemed accession,
                     // everything else is taken as description.
                     // So we need to find two elements:
@@ -523,24 +590,8 @@ public class Header implements Cloneable {
                     }
                     result.iDescription = aFASTAHeader.substring(accessionEndLoc).trim();
                 } else if (aFASTAHeader.startsWith("generic")) {
-
-                    // try to parse as a generic header with splitters
-                    // should look something like this: 
-                    // >generic_some_tag|proten_accession|a description for this protein
-                    result.databaseType = ProteinDatabase.Generic_Split_Header;
-                    result.iID = aFASTAHeader.substring(0, aFASTAHeader.indexOf("|"));
-
-                    String subHeader = aFASTAHeader.substring(aFASTAHeader.indexOf("|") + 1);
-
-                    if (subHeader.contains("|")) {
-                        result.iAccession = subHeader.substring(0, subHeader.indexOf("|"));
-                        result.iDescription = subHeader.substring(subHeader.indexOf("|") + 1).trim();
-                    } else {
-                        result.iAccession = subHeader;
-                        result.iDescription = "";
-                    }
-
-                } else if (aFASTAHeader.matches("^[^\\s]+_[^\\s]+ \\([PQOA][^\\s]+\\) .*") && aFASTAHeader.lastIndexOf("|") == -1) {
+                    parseGenericSplitHeader(result, aFASTAHeader);
+                } else if (OLD_SWISSPROT_PATTERN.matcher(aFASTAHeader).matches() && aFASTAHeader.lastIndexOf("|") == -1) {
                     // Old (everything before 9.0 release (31 Oct 2006)) standard SwissProt header as
                     // present in the Expasy FTP FASTA file.
                     // Is formatted something like this:
@@ -554,112 +605,24 @@ public class Header implements Cloneable {
 
                     // try to get the gene name and taxonomy
                     //parseUniProtDescription(result);  // @TOOD: not sure if the header has the right format...
-                } else if (aFASTAHeader.matches("^sp\\|[^|]*\\|[^\\s]+_[^\\s]+ .*")) {
-                    // New (September 2008 and beyond) standard SwissProt header as
-                    // present in the Expasy FTP FASTA file.
-                    // Is formatted something like this:
-                    //  >sp|accession|ID descr rest (including taxonomy, if available)
-                    String tempHeader = aFASTAHeader.substring(3);
-                    result.iAccession = tempHeader.substring(0, tempHeader.indexOf("|")).trim();
-                    // See if there is location information.
-                    if (result.iAccession.matches("[^\\(]+\\([\\d]+ [\\d]\\)$")) {
-                        int openBracket = result.iAccession.indexOf("(");
-                        result.iStart = Integer.parseInt(result.iAccession.substring(openBracket, result.iAccession.indexOf(" ", openBracket)).trim());
-                        result.iEnd = Integer.parseInt(result.iAccession.substring(result.iAccession.indexOf(" ", openBracket), result.iAccession.indexOf(")")).trim());
-                        result.iAccession = result.iAccession.substring(0, openBracket).trim();
-                    } else if (result.iAccession.matches("[^\\(]+\\([\\d]+-[\\d]+\\)$")) {
-                        int openBracket = result.iAccession.indexOf("(");
-                        result.iStart = Integer.parseInt(result.iAccession.substring(openBracket + 1, result.iAccession.indexOf("-", openBracket)).trim());
-                        result.iEnd = Integer.parseInt(result.iAccession.substring(result.iAccession.indexOf("-", openBracket) + 1, result.iAccession.indexOf(")")).trim());
-                        result.iAccession = result.iAccession.substring(0, openBracket).trim();
-                    }
-                    result.databaseType = ProteinDatabase.UniProt;
-                    result.iID = "sp";
-                    result.iDescription = tempHeader.substring(tempHeader.indexOf("|") + 1);
-
-                    // try to get the gene name and taxonomy
-                    parseUniProtDescription(result);
-
-                } else if (aFASTAHeader.matches("^tr\\|[^|]*\\|[^\\s]+_[^\\s]+ .*")) {
-                    // New (September 2008 and beyond) standard SwissProt header as
-                    // present in the Expasy FTP FASTA file.
-                    // Is formatted something like this:
-                    //  >tr|accession|ID descr rest (including taxonomy, if available)
-                    String tempHeader = aFASTAHeader.substring(3);
-                    result.iAccession = tempHeader.substring(0, tempHeader.indexOf("|")).trim();
-                    // See if there is location information.
-                    if (result.iAccession.matches("[^\\(]+\\([\\d]+ [\\d]+\\)$")) {
-                        int openBracket = result.iAccession.indexOf("(");
-                        result.iStart = Integer.parseInt(result.iAccession.substring(openBracket + 1, result.iAccession.indexOf(" ", openBracket)).trim());
-                        result.iEnd = Integer.parseInt(result.iAccession.substring(result.iAccession.indexOf(" ", openBracket), result.iAccession.indexOf(")")).trim());
-                        result.iAccession = result.iAccession.substring(0, openBracket).trim();
-                    } else if (result.iAccession.matches("[^\\(]+\\([\\d]+-[\\d]+\\)$")) {
-                        int openBracket = result.iAccession.indexOf("(");
-                        result.iStart = Integer.parseInt(result.iAccession.substring(openBracket + 1, result.iAccession.indexOf("-", openBracket)).trim());
-                        result.iEnd = Integer.parseInt(result.iAccession.substring(result.iAccession.indexOf("-", openBracket) + 1, result.iAccession.indexOf(")")).trim());
-                        result.iAccession = result.iAccession.substring(0, openBracket).trim();
-                    }
-                    result.databaseType = ProteinDatabase.UniProt;
-                    result.iID = "tr";
-                    result.iDescription = tempHeader.substring(tempHeader.indexOf("|") + 1);
-
-                    // try to get the gene name and taxonomy
-                    parseUniProtDescription(result);
-                }  else if (aFASTAHeader.matches("^en\\|[^|]*\\|.*")) {
-                        // Ensembl Genomes header
-                        // Is formatted something like this:
-                        //  >en|CCF76815|pCol1B9_SL1344:3971-4420 conserved hypothetical plasmid protein
-                        String tempHeader = aFASTAHeader.substring(3);
-                        result.iAccession = tempHeader.substring(0, tempHeader.indexOf("|")).trim();
-                        // See if there is location information.
-                        if (result.iAccession.matches("[^\\(]+\\([\\d]+ [\\d]+\\)$")) {
-                            int openBracket = result.iAccession.indexOf("(");
-                            result.iStart = Integer.parseInt(result.iAccession.substring(openBracket + 1, result.iAccession.indexOf(" ", openBracket)).trim());
-                            result.iEnd = Integer.parseInt(result.iAccession.substring(result.iAccession.indexOf(" ", openBracket), result.iAccession.indexOf(")")).trim());
-                            result.iAccession = result.iAccession.substring(0, openBracket).trim();
-                        } else if (result.iAccession.matches("[^\\(]+\\([\\d]+-[\\d]+\\)$")) {
-                            int openBracket = result.iAccession.indexOf("(");
-                            result.iStart = Integer.parseInt(result.iAccession.substring(openBracket + 1, result.iAccession.indexOf("-", openBracket)).trim());
-                            result.iEnd = Integer.parseInt(result.iAccession.substring(result.iAccession.indexOf("-", openBracket) + 1, result.iAccession.indexOf(")")).trim());
-                            result.iAccession = result.iAccession.substring(0, openBracket).trim();
-                        }
-                        result.databaseType = ProteinDatabase.EnsemblGenomes;
-                        result.iID = "en";
-                        result.iDescription = tempHeader.substring(tempHeader.indexOf("|") + 1);
-
-                        // try to get the gene name and taxonomy
-                        parseUniProtDescription(result);
-
+                } else if (SWISSPROT_PATTERN.matcher(aFASTAHeader).matches()) {
+                    parseSwissProtHeader(result, aFASTAHeader);
+                } else if (TREMBL_PATTERN.matcher(aFASTAHeader).matches()) {
+                    parseTremblHeader(result, aFASTAHeader);
+                } else if (ENSEMBL_GENOMES_PATTERN.matcher(aFASTAHeader).matches()) {
+                    parseEnsemblGenomesHeader(result, aFASTAHeader);
                 } else if (aFASTAHeader.startsWith("nxp|NX_") && aFASTAHeader.split("\\|").length == 5) { // @TODO: replace by regular expression?
-                    // header should look like this:
-                    // >nxp|NX_P02768-1|ALB|Serum albumin|Iso 1
-                    result.databaseType = ProteinDatabase.NextProt;
-                    result.iID = "nxp";
-
-                    String[] headerElements = aFASTAHeader.split("\\|");
-
-                    result.iAccession = headerElements[1];
-                    result.iGeneName = headerElements[2];
-                    result.iDescription = headerElements[3] + "|" + headerElements[4];
-
+                    parseNextProtHeader(result, aFASTAHeader);
                 } else if (aFASTAHeader.startsWith("UniRef") && aFASTAHeader.contains(" ")) { // @TODO: replace by regular expression?
-
-                    // header should look like this:
-                    // >UniRef100_U3PVA8 Protein IroK n=22 Tax=Escherichia coli RepID=IROK_ECOL
-                    result.databaseType = ProteinDatabase.UniRef;
-                    result.iID = ""; // @TODO: could be UniRef or UniRef100 etc?
-
-                    result.iAccession = aFASTAHeader.substring(0, aFASTAHeader.indexOf(" "));
-                    result.iDescription = aFASTAHeader.substring(aFASTAHeader.indexOf(" ") + 1);
-
-                } else if (aFASTAHeader.matches("^[^\\s]*\\|[^\\s]+_[^\\s]+ .*")) {
+                    parseUniRefHeader(result, aFASTAHeader);
+                } else if (UNIPROT_PATTERN.matcher(aFASTAHeader).matches()) {
                     // New (9.0 release (31 Oct 2006) and beyond) standard SwissProt header as
                     // present in the Expasy FTP FASTA file.
                     // Is formatted something like this:
                     //  >accession|ID descr rest (including taxonomy, if available)
                     result.iAccession = aFASTAHeader.substring(0, aFASTAHeader.indexOf("|")).trim();
                     // See if there is location information.
-                    if (aFASTAHeader.matches("[^\\(]+\\([\\d]+ [\\d]\\)$")) {
+                    if (SINGLE_DIGIT_LOCATION_PATTERN.matcher(aFASTAHeader).matches()) {
                         int openBracket = aFASTAHeader.indexOf("(");
                         result.iAccession = aFASTAHeader.substring(0, openBracket).trim();
                         result.iStart = Integer.parseInt(aFASTAHeader.substring(openBracket, aFASTAHeader.indexOf(" ", openBracket)).trim());
@@ -671,11 +634,11 @@ public class Header implements Cloneable {
 
                     // try to get the gene name and taxonomy
                     parseUniProtDescription(result);
-                } else if (aFASTAHeader.matches("^FB.+\\stype=.*")) {
+                } else if (FLYBASE_PATTERN.matcher(aFASTAHeader).matches()) {
                     // Flybase FASTA format.
                     // Accession number
                     result.iAccession = aFASTAHeader.substring(0, aFASTAHeader.indexOf("type")).trim();
-                    if (result.iAccession.matches("[^\\(]+\\([\\d]+-[\\d]+\\)$")) {
+                    if (DASH_LOCATION_PATTERN.matcher(result.iAccession).matches()) {
                         int openBracket = result.iAccession.indexOf("(");
                         result.iStart = Integer.parseInt(result.iAccession.substring(openBracket + 1, result.iAccession.indexOf("-", openBracket)).trim());
                         result.iEnd = Integer.parseInt(result.iAccession.substring(result.iAccession.indexOf("-", openBracket) + 1, result.iAccession.indexOf(")")).trim());
@@ -684,7 +647,7 @@ public class Header implements Cloneable {
                     result.databaseType = ProteinDatabase.Flybase;
                     result.iID = "";
                     result.iDescription = aFASTAHeader.substring(aFASTAHeader.indexOf("type="));
-                } else if (aFASTAHeader.matches(".* [.]*\\[[\\d]+[ ]?\\-[ ]?[\\d]+\\].*")) {
+                } else if (GENOME_TRANSLATION_PATTERN.matcher(aFASTAHeader).matches()) {
                     // A header translating a genome sequence into a protein sequences.
                     // We need to find two elements, separated by a space:
                     //   - the accession string (retrieved as the first part of a space delimited String).
@@ -718,7 +681,7 @@ public class Header implements Cloneable {
                     }
 
                     result.iDescription = aFASTAHeader.substring(accessionEndLoc + 1).trim();
-                } else if (aFASTAHeader.matches("^[^|\t]* [|] Symbol[^|]*[|] [^|]* [|].*")) {
+                } else if (TAIR_PATTERN.matcher(aFASTAHeader).matches()) {
                     // The Arabidopsis thaliana database; TAIR format
                     // We need to find two elements, separated by pipes:
                     //   - the accession number with version (retrieved as the part before the first pipe).
@@ -743,7 +706,7 @@ public class Header implements Cloneable {
                         result.iStart = Integer.parseInt(temp.substring(open, minus));
                         result.iEnd = Integer.parseInt(temp.substring(minus + 1, end));
                     }
-                } else if (aFASTAHeader.matches("^nrAt[^\t]*\t.*")) {
+                } else if (PSB_ARABIDOPSIS_PATTERN.matcher(aFASTAHeader).matches()) {
                     // The PSB Arabidopsis thaliana database; proprietary format
                     // We need to find three elements:
                     //   - the internal accession (at the start, separated by 'tab' and space from the next part).
@@ -774,7 +737,7 @@ public class Header implements Cloneable {
                         result.iStart = Integer.parseInt(temp.substring(open, minus));
                         result.iEnd = Integer.parseInt(temp.substring(minus + 1, end));
                     }
-                } else if (aFASTAHeader.matches("^L. monocytogenes[^|]*[|][^|]*[|].*")) {
+                } else if (LISTERIA_PATTERN.matcher(aFASTAHeader).matches()) {
                     // The Listeria database; proprietary format
                     // We need to find three elements:
                     //   - the leader element (at the start, separated by '|' from the next part).
@@ -864,7 +827,7 @@ public class Header implements Cloneable {
 
                     if ((accessionEndLoc > 0) && (aFASTAHeader.contains("(")) && (aFASTAHeader.indexOf(")", aFASTAHeader.indexOf("(") + 1) >= 0)) {
                         // Now we have to see if there is location information present.
-                        if (aFASTAHeader.substring(accessionEndLoc + 1, aFASTAHeader.indexOf(")", accessionEndLoc + 2) + 1).matches("[(][0-9]+-[0-9]+[)]") && !aFASTAHeader.substring(accessionEndLoc + 2, aFASTAHeader.indexOf(")", accessionEndLoc + 2)).equals(aFASTAHeader.substring(0, accessionEndLoc).trim())) {
+                        if (LOCATION_PATTERN.matcher(aFASTAHeader.substring(accessionEndLoc + 1, aFASTAHeader.indexOf(")", accessionEndLoc + 2) + 1)).matches() && !aFASTAHeader.substring(accessionEndLoc + 2, aFASTAHeader.indexOf(")", accessionEndLoc + 2)).equals(aFASTAHeader.substring(0, accessionEndLoc).trim())) {
                             // start and end found. Add it to the accession number and remove it from the description.
                             accessionEndLoc = aFASTAHeader.indexOf(")", accessionEndLoc) + 1;
                         }
@@ -945,6 +908,244 @@ public class Header implements Cloneable {
         return result;
     }
 
+    /**
+     * Parses the headers of the most common formats based on their database
+     * prefix. The header is only parsed if it would be parsed with the same
+     * format when trying the formats one after the other.
+     *
+     * @param result the header to fill
+     * @param aFASTAHeader the FASTA header line without leading '>' and
+     * addenda
+     *
+     * @return a boolean indicating whether the header was parsed
+     */
+    private static boolean parseFromDatabasePrefix(Header result, String aFASTAHeader) {
+
+        // SGD headers are tested before the formats dispatched here
+        if (aFASTAHeader.length() < 3 || aFASTAHeader.contains("SGDID:")) {
+            return false;
+        }
+
+        switch (aFASTAHeader.charAt(0)) {
+
+            case 's':
+                if (aFASTAHeader.startsWith("sp|") && SWISSPROT_PATTERN.matcher(aFASTAHeader).matches()) {
+                    parseSwissProtHeader(result, aFASTAHeader);
+                    return true;
+                }
+                return false;
+
+            case 't':
+                if (aFASTAHeader.startsWith("tr|") && TREMBL_PATTERN.matcher(aFASTAHeader).matches()) {
+                    parseTremblHeader(result, aFASTAHeader);
+                    return true;
+                }
+                return false;
+
+            case 'e':
+                if (aFASTAHeader.startsWith("en|") && ENSEMBL_GENOMES_PATTERN.matcher(aFASTAHeader).matches()) {
+                    parseEnsemblGenomesHeader(result, aFASTAHeader);
+                    return true;
+                }
+                return false;
+
+            case 'n':
+                if (aFASTAHeader.startsWith("nxp|NX_") && aFASTAHeader.split("\\|").length == 5) {
+                    parseNextProtHeader(result, aFASTAHeader);
+                    return true;
+                }
+                return false;
+
+            case 'U':
+                // Old SwissProt headers are tested before UniRef
+                if (aFASTAHeader.startsWith("UniRef") && aFASTAHeader.contains(" ")
+                        && (aFASTAHeader.lastIndexOf("|") != -1 || !OLD_SWISSPROT_PATTERN.matcher(aFASTAHeader).matches())) {
+                    parseUniRefHeader(result, aFASTAHeader);
+                    return true;
+                }
+                return false;
+
+            case 'g':
+                if (aFASTAHeader.startsWith("generic")) {
+                    parseGenericSplitHeader(result, aFASTAHeader);
+                    return true;
+                }
+                return false;
+
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Parses a SwissProt header.
+     *
+     * @param result the header to fill
+     * @param aFASTAHeader the FASTA header line without leading '>' and
+     * addenda
+     */
+    private static void parseSwissProtHeader(Header result, String aFASTAHeader) {
+
+        // New (September 2008 and beyond) standard SwissProt header as
+        // present in the Expasy FTP FASTA file.
+        // Is formatted something like this:
+        //  >sp|accession|ID descr rest (including taxonomy, if available)
+        String tempHeader = aFASTAHeader.substring(3);
+        result.iAccession = tempHeader.substring(0, tempHeader.indexOf("|")).trim();
+        // See if there is location information.
+        if (SINGLE_DIGIT_LOCATION_PATTERN.matcher(result.iAccession).matches()) {
+            int openBracket = result.iAccession.indexOf("(");
+            result.iStart = Integer.parseInt(result.iAccession.substring(openBracket, result.iAccession.indexOf(" ", openBracket)).trim());
+            result.iEnd = Integer.parseInt(result.iAccession.substring(result.iAccession.indexOf(" ", openBracket), result.iAccession.indexOf(")")).trim());
+            result.iAccession = result.iAccession.substring(0, openBracket).trim();
+        } else if (DASH_LOCATION_PATTERN.matcher(result.iAccession).matches()) {
+            int openBracket = result.iAccession.indexOf("(");
+            result.iStart = Integer.parseInt(result.iAccession.substring(openBracket + 1, result.iAccession.indexOf("-", openBracket)).trim());
+            result.iEnd = Integer.parseInt(result.iAccession.substring(result.iAccession.indexOf("-", openBracket) + 1, result.iAccession.indexOf(")")).trim());
+            result.iAccession = result.iAccession.substring(0, openBracket).trim();
+        }
+        result.databaseType = ProteinDatabase.UniProt;
+        result.iID = "sp";
+        result.iDescription = tempHeader.substring(tempHeader.indexOf("|") + 1);
+
+        // try to get the gene name and taxonomy
+        parseUniProtDescription(result);
+    }
+
+    /**
+     * Parses a TrEMBL header.
+     *
+     * @param result the header to fill
+     * @param aFASTAHeader the FASTA header line without leading '>' and
+     * addenda
+     */
+    private static void parseTremblHeader(Header result, String aFASTAHeader) {
+
+        // New (September 2008 and beyond) standard SwissProt header as
+        // present in the Expasy FTP FASTA file.
+        // Is formatted something like this:
+        //  >tr|accession|ID descr rest (including taxonomy, if available)
+        String tempHeader = aFASTAHeader.substring(3);
+        result.iAccession = tempHeader.substring(0, tempHeader.indexOf("|")).trim();
+        // See if there is location information.
+        if (SPACE_LOCATION_PATTERN.matcher(result.iAccession).matches()) {
+            int openBracket = result.iAccession.indexOf("(");
+            result.iStart = Integer.parseInt(result.iAccession.substring(openBracket + 1, result.iAccession.indexOf(" ", openBracket)).trim());
+            result.iEnd = Integer.parseInt(result.iAccession.substring(result.iAccession.indexOf(" ", openBracket), result.iAccession.indexOf(")")).trim());
+            result.iAccession = result.iAccession.substring(0, openBracket).trim();
+        } else if (DASH_LOCATION_PATTERN.matcher(result.iAccession).matches()) {
+            int openBracket = result.iAccession.indexOf("(");
+            result.iStart = Integer.parseInt(result.iAccession.substring(openBracket + 1, result.iAccession.indexOf("-", openBracket)).trim());
+            result.iEnd = Integer.parseInt(result.iAccession.substring(result.iAccession.indexOf("-", openBracket) + 1, result.iAccession.indexOf(")")).trim());
+            result.iAccession = result.iAccession.substring(0, openBracket).trim();
+        }
+        result.databaseType = ProteinDatabase.UniProt;
+        result.iID = "tr";
+        result.iDescription = tempHeader.substring(tempHeader.indexOf("|") + 1);
+
+        // try to get the gene name and taxonomy
+        parseUniProtDescription(result);
+    }
+
+    /**
+     * Parses an Ensembl Genomes header.
+     *
+     * @param result the header to fill
+     * @param aFASTAHeader the FASTA header line without leading '>' and
+     * addenda
+     */
+    private static void parseEnsemblGenomesHeader(Header result, String aFASTAHeader) {
+
+        // Ensembl Genomes header
+        // Is formatted something like this:
+        //  >en|CCF76815|pCol1B9_SL1344:3971-4420 conserved hypothetical plasmid protein
+        String tempHeader = aFASTAHeader.substring(3);
+        result.iAccession = tempHeader.substring(0, tempHeader.indexOf("|")).trim();
+        // See if there is location information.
+        if (SPACE_LOCATION_PATTERN.matcher(result.iAccession).matches()) {
+            int openBracket = result.iAccession.indexOf("(");
+            result.iStart = Integer.parseInt(result.iAccession.substring(openBracket + 1, result.iAccession.indexOf(" ", openBracket)).trim());
+            result.iEnd = Integer.parseInt(result.iAccession.substring(result.iAccession.indexOf(" ", openBracket), result.iAccession.indexOf(")")).trim());
+            result.iAccession = result.iAccession.substring(0, openBracket).trim();
+        } else if (DASH_LOCATION_PATTERN.matcher(result.iAccession).matches()) {
+            int openBracket = result.iAccession.indexOf("(");
+            result.iStart = Integer.parseInt(result.iAccession.substring(openBracket + 1, result.iAccession.indexOf("-", openBracket)).trim());
+            result.iEnd = Integer.parseInt(result.iAccession.substring(result.iAccession.indexOf("-", openBracket) + 1, result.iAccession.indexOf(")")).trim());
+            result.iAccession = result.iAccession.substring(0, openBracket).trim();
+        }
+        result.databaseType = ProteinDatabase.EnsemblGenomes;
+        result.iID = "en";
+        result.iDescription = tempHeader.substring(tempHeader.indexOf("|") + 1);
+
+        // try to get the gene name and taxonomy
+        parseUniProtDescription(result);
+    }
+
+    /**
+     * Parses a neXtProt header.
+     *
+     * @param result the header to fill
+     * @param aFASTAHeader the FASTA header line without leading '>' and
+     * addenda
+     */
+    private static void parseNextProtHeader(Header result, String aFASTAHeader) {
+
+        // header should look like this:
+        // >nxp|NX_P02768-1|ALB|Serum albumin|Iso 1
+        result.databaseType = ProteinDatabase.NextProt;
+        result.iID = "nxp";
+
+        String[] headerElements = aFASTAHeader.split("\\|");
+
+        result.iAccession = headerElements[1];
+        result.iGeneName = headerElements[2];
+        result.iDescription = headerElements[3] + "|" + headerElements[4];
+    }
+
+    /**
+     * Parses a UniRef header.
+     *
+     * @param result the header to fill
+     * @param aFASTAHeader the FASTA header line without leading '>' and
+     * addenda
+     */
+    private static void parseUniRefHeader(Header result, String aFASTAHeader) {
+
+        // header should look like this:
+        // >UniRef100_U3PVA8 Protein IroK n=22 Tax=Escherichia coli RepID=IROK_ECOL
+        result.databaseType = ProteinDatabase.UniRef;
+        result.iID = ""; // @TODO: could be UniRef or UniRef100 etc?
+
+        result.iAccession = aFASTAHeader.substring(0, aFASTAHeader.indexOf(" "));
+        result.iDescription = aFASTAHeader.substring(aFASTAHeader.indexOf(" ") + 1);
+    }
+
+    /**
+     * Parses a generic header with splitters.
+     *
+     * @param result the header to fill
+     * @param aFASTAHeader the FASTA header line without leading '>' and
+     * addenda
+     */
+    private static void parseGenericSplitHeader(Header result, String aFASTAHeader) {
+
+        // try to parse as a generic header with splitters
+        // should look something like this: 
+        // >generic_some_tag|proten_accession|a description for this protein
+        result.databaseType = ProteinDatabase.Generic_Split_Header;
+        result.iID = aFASTAHeader.substring(0, aFASTAHeader.indexOf("|"));
+
+        String subHeader = aFASTAHeader.substring(aFASTAHeader.indexOf("|") + 1);
+
+        if (subHeader.contains("|")) {
+            result.iAccession = subHeader.substring(0, subHeader.indexOf("|"));
+            result.iDescription = subHeader.substring(subHeader.indexOf("|") + 1).trim();
+        } else {
+            result.iAccession = subHeader;
+            result.iDescription = "";
+        }
+    }
+
     /**
      * Returns the ID.
      * 
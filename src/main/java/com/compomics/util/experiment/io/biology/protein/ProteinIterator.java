@@ -16,5 +16,15 @@ public interface ProteinIterator {
      * @return the next protein
      */
     public Protein getNextProtein();
-    
+
+    /**
+     * Returns the header corresponding to the last protein returned. Null if
+     * not available.
+     *
+     * @return the header corresponding to the last protein returned
+     */
+    public default Header getLastHeader() {
+        return null;
+    }
+
 }
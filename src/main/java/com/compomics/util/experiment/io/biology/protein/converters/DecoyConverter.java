@@ -1,15 +1,10 @@
 package com.compomics.util.experiment.io.biology.protein.converters;
 
-import com.compomics.util.experiment.biology.proteins.Protein;
 import com.compomics.util.experiment.io.biology.protein.FastaParameters;
 import com.compomics.util.experiment.io.biology.protein.FastaSummary;
-import com.compomics.util.experiment.io.biology.protein.Header;
 import com.compomics.util.experiment.io.biology.protein.ProteinDatabase;
-import com.compomics.util.experiment.io.biology.protein.iterators.FastaIterator;
 import com.compomics.util.waiting.WaitingHandler;
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map.Entry;
@@ -35,74 +30,26 @@ public class DecoyConverter {
     public static final String decoyFlag = "-REVERSED";
 
     /**
-     * Appends decoy sequences to the provided FASTA file.
+     * Appends decoy sequences to the provided FASTA file. The decoy sequences
+     * are the reversed target sequences.
      *
      * @param fastaIn the FASTA file to read
      * @param fastaOut the FASTA file to write
      * @param waitingHandler a handler to allow canceling the import and
      * displaying progress
      *
+     * @return the summary of the target-decoy FASTA file, null if the process
+     * was canceled
+     *
      * @throws IOException exception thrown whenever an error happened while
      * reading or writing a FASTA file
      */
-    public static void appendDecoySequences(File fastaIn, File fastaOut, WaitingHandler waitingHandler) throws IOException {
-
-        FastaIterator fastaIterator = new FastaIterator(fastaIn);
-
-        try (BufferedWriter bw = new BufferedWriter(new FileWriter(fastaOut))) {
-
-            Protein protein;
-            while ((protein = fastaIterator.getNextProtein()) != null) {
-
-                String accession = protein.getAccession();
-                String sequence = protein.getSequence();
-
-                Header header = fastaIterator.getLastHeader();
-                String rawHeader = header.getRawHeader();
-
-                bw.write(rawHeader);
-                bw.newLine();
-                bw.write(sequence);
-
-                bw.newLine();
-                bw.newLine();
-
-                int accessionEndIndex = rawHeader.indexOf(accession) + accession.length();
-                String part1 = rawHeader.substring(0, accessionEndIndex);
-                String part2 = rawHeader.substring(accessionEndIndex);
-
-                bw.write(part1);
-                bw.write(decoyFlag);
-                bw.write(part2);
-                bw.newLine();
-
-                char[] sequenceAsArray = protein.getSequence().toCharArray();
-
-                for (int i = sequenceAsArray.length - 1; i >= 0; i--) {
-
-                    char aa = sequenceAsArray[i];
-
-                    bw.write(aa);
-
-                }
-
-                bw.newLine();
-                bw.newLine();
-
-                if (waitingHandler != null) {
-
-                    if (waitingHandler.isRunCanceled()) {
-
-                        return;
-
-                    }
+    public static FastaSummary appendDecoySequences(File fastaIn, File fastaOut, WaitingHandler waitingHandler) throws IOException {
 
-                    waitingHandler.increaseSecondaryProgressCounter();
+        DecoyGenerator decoyGenerator = new DecoyGenerator(DecoyStrategy.Reverse, null, 0);
 
-                }
+        return decoyGenerator.writeTargetDecoyFasta(fastaIn, fastaOut, false, Runtime.getRuntime().availableProcessors(), waitingHandler);
 
-            }
-        }
     }
 
     /**
@@ -0,0 +1,408 @@
+package com.compomics.util.experiment.io.biology.protein.converters;
+
+import com.compomics.util.experiment.biology.enzymes.Enzyme;
+import com.compomics.util.experiment.biology.proteins.Protein;
+import com.compomics.util.experiment.io.biology.protein.FastaParameters;
+import com.compomics.util.experiment.io.biology.protein.FastaSummary;
+import com.compomics.util.experiment.io.biology.protein.FastaSummaryBuilder;
+import com.compomics.util.experiment.io.biology.protein.Header;
+import com.compomics.util.experiment.io.biology.protein.indexed.BgzfCompressor;
+import com.compomics.util.experiment.io.biology.protein.iterators.PipelinedFastaIterator;
+import com.compomics.util.waiting.WaitingHandler;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
+
+/**
+ * Generates target-decoy FASTA files. The proteins are read and parsed by a
+ * pipelined iterator, and the target and decoy records are formatted, and
+ * compressed if needed, in parallel in batches. The batches are written in
+ * the order of the input file. The threads are shared between the parsing
+ * and the formatting. All strategies are deterministic, the output does not
+ * depend on the number of threads. Like the FileWriter used previously, the
+ * records are encoded using the platform charset.
+ *
+ * @author Marc Vaudel
+ */
+public class DecoyGenerator {
+
+    /**
+     * The maximal number of residues per batch.
+     */
+    public static final int BATCH_RESIDUES = 4 * 1024 * 1024;
+    /**
+     * The maximal number of proteins per batch.
+     */
+    public static final int BATCH_PROTEINS = 10000;
+    /**
+     * The line separator to use.
+     */
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+    /**
+     * The charset used to encode the records.
+     */
+    private static final Charset CHARSET = Charset.defaultCharset();
+    /**
+     * The strategy to use to generate the decoy sequences.
+     */
+    private final DecoyStrategy decoyStrategy;
+    /**
+     * The residues kept in place by the pseudo-reversal.
+     */
+    private final boolean[] cleavageResidues = new boolean[128];
+    /**
+     * The seed of the shuffling.
+     */
+    private final long seed;
+
+    /**
+     * Constructor.
+     *
+     * @param decoyStrategy the strategy to use to generate the decoy sequences
+     * @param enzyme the enzyme whose cleavage sites are kept in place by the
+     * pseudo-reversal, ignored for the other strategies
+     * @param seed the seed of the shuffling, ignored for the other strategies
+     */
+    public DecoyGenerator(DecoyStrategy decoyStrategy, Enzyme enzyme, long seed) {
+
+        this.decoyStrategy = decoyStrategy;
+        this.seed = seed;
+
+        if (decoyStrategy == DecoyStrategy.PseudoReverse) {
+
+            if (enzyme == null) {
+
+                throw new IllegalArgumentException("An enzyme must be provided for the pseudo-reversal.");
+
+            }
+
+            HashSet<Character> residues = new HashSet<>(enzyme.getAminoAcidBefore());
+            residues.addAll(enzyme.getAminoAcidAfter());
+
+            for (char aa : residues) {
+
+                if (aa < 128) {
+
+                    cleavageResidues[aa] = true;
+                    cleavageResidues[Character.toLowerCase(aa)] = true;
+
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the decoy sequence of the given protein.
+     *
+     * @param accession the accession of the target protein
+     * @param sequence the sequence of the target protein
+     *
+     * @return the decoy sequence
+     */
+    public String getDecoySequence(String accession, String sequence) {
+
+        char[] residues = sequence.toCharArray();
+
+        switch (decoyStrategy) {
+
+            case Reverse:
+                reverse(residues, 0, residues.length);
+                break;
+
+            case PseudoReverse:
+                int segmentStart = 0;
+
+                for (int i = 0; i < residues.length; i++) {
+
+                    char aa = residues[i];
+
+                    if (aa < 128 && cleavageResidues[aa]) {
+
+                        reverse(residues, segmentStart, i);
+                        segmentStart = i + 1;
+
+                    }
+                }
+
+                reverse(residues, segmentStart, residues.length);
+                break;
+
+            case Shuffle:
+                Random random = new Random(seed * 31 + accession.hashCode());
+
+                for (int i = residues.length - 1; i > 0; i--) {
+
+                    int j = random.nextInt(i + 1);
+                    char aa = residues[i];
+                    residues[i] = residues[j];
+                    residues[j] = aa;
+
+                }
+
+                break;
+
+            default:
+                throw new UnsupportedOperationException("Decoy strategy " + decoyStrategy + " not implemented.");
+
+        }
+
+        return new String(residues);
+    }
+
+    /**
+     * Reverses the given residues between the given indexes.
+     *
+     * @param residues the residues
+     * @param start the start index, inclusive
+     * @param end the end index, exclusive
+     */
+    private static void reverse(char[] residues, int start, int end) {
+
+        for (int i = start, j = end - 1; i < j; i++, j--) {
+
+            char aa = residues[i];
+            residues[i] = residues[j];
+            residues[j] = aa;
+
+        }
+    }
+
+    /**
+     * Returns the header of the decoy protein, where the decoy flag is
+     * appended to the accession.
+     *
+     * @param rawHeader the raw header of the target protein
+     * @param accession the accession of the target protein
+     *
+     * @return the header of the decoy protein
+     */
+    public static String getDecoyHeader(String rawHeader, String accession) {
+
+        int accessionEndIndex = rawHeader.indexOf(accession) + accession.length();
+
+        return rawHeader.substring(0, accessionEndIndex) + DecoyConverter.decoyFlag + rawHeader.substring(accessionEndIndex);
+
+    }
+
+    /**
+     * Writes a FASTA file containing the target proteins of the given file,
+     * each followed by its decoy, and returns the summary of the new file. The
+     * summary is also saved for later use.
+     *
+     * @param fastaIn the FASTA file to read
+     * @param fastaOut the FASTA file to write
+     * @param gzip if true, the output is compressed in the blocked gzip format
+     * @param nThreads the number of threads to use, half of them parse the
+     * input, the others format the output
+     * @param waitingHandler a handler to allow canceling the process and
+     * displaying progress
+     *
+     * @return the summary of the target-decoy file, null if the process was
+     * canceled
+     *
+     * @throws IOException exception thrown whenever an error happened while
+     * reading or writing a FASTA file
+     */
+    public FastaSummary writeTargetDecoyFasta(File fastaIn, File fastaOut, boolean gzip, int nThreads, WaitingHandler waitingHandler) throws IOException {
+
+        FastaParameters decoyParameters = new FastaParameters();
+        decoyParameters.setTargetDecoy(true);
+        decoyParameters.setDecoyFlag(DecoyConverter.decoyFlag);
+        decoyParameters.setDecoySuffix(true);
+        FastaSummaryBuilder fastaSummaryBuilder = new FastaSummaryBuilder(decoyParameters);
+
+        int parsingThreads = Math.max(1, nThreads / 2);
+        int formattingThreads = Math.max(1, nThreads - parsingThreads);
+        PipelinedFastaIterator fastaIterator = new PipelinedFastaIterator(fastaIn, false, parsingThreads);
+        ExecutorService pool = Executors.newFixedThreadPool(formattingThreads);
+        ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>();
+
+        try (FileChannel channel = FileChannel.open(fastaOut.toPath(), StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+
+            ArrayList<Protein> proteins = new ArrayList<>();
+            ArrayList<Header> headers = new ArrayList<>();
+            int batchResidues = 0;
+            Protein protein;
+
+            while ((protein = fastaIterator.getNextProtein()) != null) {
+
+                Header header = fastaIterator.getLastHeader();
+                fastaSummaryBuilder.addHeader(header);
+                fastaSummaryBuilder.addDecoyHeader(header);
+
+                proteins.add(protein);
+                headers.add(header);
+                batchResidues += protein.getLength();
+
+                if (batchResidues >= BATCH_RESIDUES || proteins.size() >= BATCH_PROTEINS) {
+
+                    if (!submit(proteins, headers, gzip, pool, pending, channel, formattingThreads, waitingHandler)) {
+
+                        return null;
+
+                    }
+
+                    proteins = new ArrayList<>();
+                    headers = new ArrayList<>();
+                    batchResidues = 0;
+
+                }
+            }
+
+            if (!proteins.isEmpty() && !submit(proteins, headers, gzip, pool, pending, channel, formattingThreads, waitingHandler)) {
+
+                return null;
+
+            }
+
+            while (!pending.isEmpty()) {
+
+                write(channel, pending.poll().get());
+
+            }
+
+            if (gzip) {
+
+                write(channel, BgzfCompressor.EOF_BLOCK);
+
+            }
+
+        } catch (InterruptedException | ExecutionException e) {
+
+            throw new IOException("An error occurred while writing " + fastaOut + ".", e);
+
+        } finally {
+
+            pool.shutdownNow();
+            fastaIterator.close();
+
+        }
+
+        FastaSummary fastaSummary = fastaSummaryBuilder.getSummary(fastaOut, fastaOut.lastModified());
+
+        try {
+
+            FastaSummary.saveSummary(fastaOut.getAbsolutePath(), fastaSummary);
+
+        } catch (Exception e) {
+
+            // ignore, the summary will be parsed again when needed
+        }
+
+        return fastaSummary;
+    }
+
+    /**
+     * Submits a batch of proteins for formatting and writes the batches
+     * completed when too many batches are pending.
+     *
+     * @param proteins the proteins of the batch
+     * @param headers the headers of the proteins
+     * @param gzip if true, the output is compressed
+     * @param pool the pool formatting the batches
+     * @param pending the batches pending in the order of the file
+     * @param channel the channel where to write
+     * @param nThreads the number of formatting threads
+     * @param waitingHandler a handler to allow canceling the process and
+     * displaying progress
+     *
+     * @return false if the process was canceled
+     *
+     * @throws IOException exception thrown whenever an error happened while
+     * writing the file
+     * @throws InterruptedException exception thrown if the thread was
+     * interrupted while waiting for a batch
+     * @throws ExecutionException exception thrown if an error occurred while
+     * formatting a batch
+     */
+    private boolean submit(ArrayList<Protein> proteins, ArrayList<Header> headers, boolean gzip, ExecutorService pool, ArrayDeque<Future<byte[]>> pending, FileChannel channel, int nThreads, WaitingHandler waitingHandler) throws IOException, InterruptedException, ExecutionException {
+
+        pending.add(pool.submit(() -> format(proteins, headers, gzip)));
+
+        while (pending.size() > 2 * nThreads) {
+
+            write(channel, pending.poll().get());
+
+        }
+
+        if (waitingHandler != null) {
+
+            if (waitingHandler.isRunCanceled()) {
+
+                return false;
+
+            }
+
+            waitingHandler.increaseSecondaryProgressCounter(proteins.size());
+
+        }
+
+        return true;
+    }
+
+    /**
+     * Formats a batch of proteins and their decoys as FASTA records.
+     *
+     * @param proteins the proteins
+     * @param headers the headers of the proteins
+     * @param gzip if true, the records are compressed
+     *
+     * @return the bytes to write
+     */
+    private byte[] format(ArrayList<Protein> proteins, ArrayList<Header> headers, boolean gzip) {
+
+        StringBuilder records = new StringBuilder();
+
+        for (int i = 0; i < proteins.size(); i++) {
+
+            Protein protein = proteins.get(i);
+            String accession = protein.getAccession();
+            String sequence = protein.getSequence();
+            String rawHeader = headers.get(i).getRawHeader();
+
+            records.append(rawHeader).append(LINE_SEPARATOR)
+                    .append(sequence).append(LINE_SEPARATOR)
+                    .append(LINE_SEPARATOR)
+                    .append(getDecoyHeader(rawHeader, accession)).append(LINE_SEPARATOR)
+                    .append(getDecoySequence(accession, sequence)).append(LINE_SEPARATOR)
+                    .append(LINE_SEPARATOR);
+
+        }
+
+        byte[] bytes = records.toString().getBytes(CHARSET);
+
+        return gzip ? BgzfCompressor.compress(bytes, 0, bytes.length, Deflater.DEFAULT_COMPRESSION) : bytes;
+    }
+
+    /**
+     * Writes the given bytes to the channel.
+     *
+     * @param channel the channel
+     * @param bytes the bytes to write
+     *
+     * @throws IOException exception thrown whenever an error happened while
+     * writing the file
+     */
+    private static void write(FileChannel channel, byte[] bytes) throws IOException {
+
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+
+        while (buffer.hasRemaining()) {
+
+            channel.write(buffer);
+
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.compomics.util.experiment.io.biology.protein.converters;
+
+/**
+ * Enum of the strategies available to generate decoy sequences.
+ *
+ * @author Marc Vaudel
+ */
+public enum DecoyStrategy {
+
+    Reverse("Reversed", "The sequence is reversed."),
+    PseudoReverse("Pseudo-reversed", "The sequence is reversed, keeping the cleavage sites in place."),
+    Shuffle("Shuffled", "The residues are shuffled using a seeded random generator.");
+
+    /**
+     * The full name of the strategy.
+     */
+    public final String fullName;
+    /**
+     * The description of the strategy.
+     */
+    public final String description;
+
+    /**
+     * Constructor.
+     *
+     * @param fullName the full name of the strategy
+     * @param description the description of the strategy
+     */
+    private DecoyStrategy(String fullName, String description) {
+        this.fullName = fullName;
+        this.description = description;
+    }
+}
@@ -0,0 +1,131 @@
+package com.compomics.util.experiment.io.biology.protein.indexed;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses content in the blocked gzip format (BGZF) as produced by bgzip.
+ * Every block is an independent gzip member, the blocks of different parts of
+ * a file can therefore be compressed in parallel and concatenated. The
+ * resulting files can be decompressed using any gzip tool and read using the
+ * BgzfFileReader.
+ *
+ * @author Marc Vaudel
+ */
+public class BgzfCompressor {
+
+    /**
+     * The maximal number of uncompressed bytes per block.
+     */
+    public static final int MAX_BLOCK_CONTENT = 0xff00;
+    /**
+     * The length of the block header.
+     */
+    private static final int HEADER_LENGTH = 18;
+    /**
+     * The length of the block trailer.
+     */
+    private static final int TRAILER_LENGTH = 8;
+    /**
+     * The empty block marking the end of a BGZF file.
+     */
+    public static final byte[] EOF_BLOCK = new byte[]{
+        (byte) 0x1f, (byte) 0x8b, 8, 4, 0, 0, 0, 0, 0, (byte) 0xff, 6, 0, 'B', 'C', 2, 0,
+        0x1b, 0, 3, 0, 0, 0, 0, 0, 0, 0, 0, 0
+    };
+
+    /**
+     * Empty default constructor.
+     */
+    private BgzfCompressor() {
+    }
+
+    /**
+     * Compresses the given content in BGZF blocks. The end of file block is
+     * not included.
+     *
+     * @param content the content to compress
+     * @param offset the offset of the content to compress
+     * @param length the length of the content to compress
+     * @param compressionLevel the compression level as defined in the
+     * Deflater
+     *
+     * @return the compressed blocks
+     */
+    public static byte[] compress(byte[] content, int offset, int length, int compressionLevel) {
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(length / 2 + HEADER_LENGTH + TRAILER_LENGTH);
+        byte[] block = new byte[HEADER_LENGTH + MAX_BLOCK_CONTENT + 1024 + TRAILER_LENGTH];
+        Deflater deflater = new Deflater(compressionLevel, true);
+        CRC32 crc = new CRC32();
+
+        try {
+
+            for (int start = offset; start < offset + length; start += MAX_BLOCK_CONTENT) {
+
+                int blockContent = Math.min(MAX_BLOCK_CONTENT, offset + length - start);
+
+                deflater.reset();
+                deflater.setInput(content, start, blockContent);
+                deflater.finish();
+
+                int dataLength = 0;
+
+                while (!deflater.finished()) {
+
+                    dataLength += deflater.deflate(block, HEADER_LENGTH + dataLength, block.length - HEADER_LENGTH - TRAILER_LENGTH - dataLength);
+
+                }
+
+                crc.reset();
+                crc.update(content, start, blockContent);
+
+                int blockSize = HEADER_LENGTH + dataLength + TRAILER_LENGTH;
+
+                System.arraycopy(EOF_BLOCK, 0, block, 0, 16);
+                putShort(block, 16, blockSize - 1);
+                putInt(block, HEADER_LENGTH + dataLength, (int) crc.getValue());
+                putInt(block, HEADER_LENGTH + dataLength + 4, blockContent);
+
+                compressed.write(block, 0, blockSize);
+
+            }
+
+        } finally {
+
+            deflater.end();
+
+        }
+
+        return compressed.toByteArray();
+    }
+
+    /**
+     * Writes a little endian short at the given index.
+     *
+     * @param bytes the bytes
+     * @param index the index
+     * @param value the value
+     */
+    private static void putShort(byte[] bytes, int index, int value) {
+
+        bytes[index] = (byte) value;
+        bytes[index + 1] = (byte) (value >>> 8);
+
+    }
+
+    /**
+     * Writes a little endian int at the given index.
+     *
+     * @param bytes the bytes
+     * @param index the index
+     * @param value the value
+     */
+    private static void putInt(byte[] bytes, int index, int value) {
+
+        putShort(bytes, index, value);
+        putShort(bytes, index + 2, value >>> 16);
+
+    }
+}
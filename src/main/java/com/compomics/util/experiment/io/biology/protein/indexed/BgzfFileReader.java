@@ -0,0 +1,416 @@
+package com.compomics.util.experiment.io.biology.protein.indexed;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Positional reader for a file compressed in the blocked gzip format (BGZF)
+ * as produced by bgzip. The file is a series of gzip members of at most 64 kB
+ * which can be decompressed independently. The reader keeps a table of the
+ * compressed and uncompressed offsets of the blocks, a read only decompresses
+ * the blocks overlapping the requested bytes.
+ *
+ * @author Marc Vaudel
+ */
+public class BgzfFileReader implements PositionalReader {
+
+    /**
+     * The gzip magic number and flags expected at the start of a block.
+     */
+    private static final byte[] BLOCK_MAGIC = new byte[]{(byte) 0x1f, (byte) 0x8b, 8, 4};
+    /**
+     * The length of the fixed part of a block header.
+     */
+    private static final int HEADER_LENGTH = 12;
+    /**
+     * The channel to the file.
+     */
+    private final FileChannel fileChannel;
+    /**
+     * The offsets of the blocks in the compressed file.
+     */
+    private final long[] compressedOffsets;
+    /**
+     * The offsets of the blocks in the uncompressed content, with the length
+     * of the uncompressed content at the end.
+     */
+    private final long[] uncompressedOffsets;
+    /**
+     * The last block decompressed.
+     */
+    private volatile InflatedBlock lastBlock = null;
+
+    /**
+     * Constructor. The table of blocks is built by scanning the block headers.
+     *
+     * @param file the file to read
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * the file, or if the file is not in the BGZF format
+     */
+    public BgzfFileReader(File file) throws IOException {
+
+        fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+
+        try {
+
+            long[] compressed = new long[1024];
+            long[] uncompressed = new long[1025];
+            int nBlocks = 0;
+            long compressedOffset = 0;
+            long uncompressedOffset = 0;
+            long fileLength = fileChannel.size();
+            ByteBuffer trailer = ByteBuffer.allocate(4);
+
+            while (compressedOffset < fileLength) {
+
+                int blockSize = getBlockSize(compressedOffset);
+
+                trailer.clear();
+                readFully(trailer, compressedOffset + blockSize - 4);
+                int uncompressedSize = getInt(trailer.array(), 0);
+
+                if (nBlocks == compressed.length) {
+
+                    compressed = Arrays.copyOf(compressed, 2 * nBlocks);
+                    uncompressed = Arrays.copyOf(uncompressed, 2 * nBlocks + 1);
+
+                }
+
+                compressed[nBlocks] = compressedOffset;
+                uncompressed[nBlocks] = uncompressedOffset;
+                nBlocks++;
+
+                compressedOffset += blockSize;
+                uncompressedOffset += uncompressedSize;
+
+            }
+
+            uncompressed[nBlocks] = uncompressedOffset;
+
+            compressedOffsets = Arrays.copyOf(compressed, nBlocks);
+            uncompressedOffsets = Arrays.copyOf(uncompressed, nBlocks + 1);
+
+        } catch (IOException | RuntimeException e) {
+
+            fileChannel.close();
+            throw e;
+
+        }
+    }
+
+    /**
+     * Returns a boolean indicating whether the given file is in the BGZF
+     * format.
+     *
+     * @param file the file
+     *
+     * @return a boolean indicating whether the given file is in the BGZF
+     * format
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * the file
+     */
+    public static boolean isBgzf(File file) throws IOException {
+
+        byte[] header = new byte[HEADER_LENGTH + 4];
+        int nRead = 0;
+
+        try (InputStream inputStream = new FileInputStream(file)) {
+
+            int read;
+
+            while (nRead < header.length && (read = inputStream.read(header, nRead, header.length - nRead)) != -1) {
+
+                nRead += read;
+
+            }
+        }
+
+        return nRead == header.length
+                && startsWithBlockMagic(header)
+                && header[HEADER_LENGTH] == 'B'
+                && header[HEADER_LENGTH + 1] == 'C';
+    }
+
+    /**
+     * Returns a boolean indicating whether the given bytes start with the gzip
+     * magic number and the flags of a BGZF block.
+     *
+     * @param header the bytes
+     *
+     * @return a boolean indicating whether the given bytes start with the
+     * magic number of a BGZF block
+     */
+    private static boolean startsWithBlockMagic(byte[] header) {
+
+        for (int i = 0; i < BLOCK_MAGIC.length; i++) {
+
+            if (header[i] != BLOCK_MAGIC[i]) {
+
+                return false;
+
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns the total size of the block starting at the given offset.
+     *
+     * @param compressedOffset the offset of the block in the compressed file
+     *
+     * @return the total size of the block
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * the file, or if the block header is not a BGZF block header
+     */
+    private int getBlockSize(long compressedOffset) throws IOException {
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        readFully(header, compressedOffset);
+        byte[] headerBytes = header.array();
+
+        if (!startsWithBlockMagic(headerBytes)) {
+
+            throw new IOException("Block at position " + compressedOffset + " is not a BGZF block.");
+
+        }
+
+        int extraLength = getShort(headerBytes, 10);
+        ByteBuffer extra = ByteBuffer.allocate(extraLength);
+        readFully(extra, compressedOffset + HEADER_LENGTH);
+        byte[] extraBytes = extra.array();
+
+        int i = 0;
+
+        while (i + 4 <= extraLength) {
+
+            int subfieldLength = getShort(extraBytes, i + 2);
+
+            if (extraBytes[i] == 'B' && extraBytes[i + 1] == 'C' && subfieldLength == 2) {
+
+                return getShort(extraBytes, i + 4) + 1;
+
+            }
+
+            i += 4 + subfieldLength;
+
+        }
+
+        throw new IOException("No block size found for the block at position " + compressedOffset + ".");
+    }
+
+    /**
+     * Fills the given buffer with the bytes of the file at the given position.
+     *
+     * @param buffer the buffer
+     * @param position the position in the compressed file
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * the file, or if the end of the file was reached
+     */
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+
+        while (buffer.hasRemaining()) {
+
+            int read = fileChannel.read(buffer, position + buffer.position());
+
+            if (read == -1) {
+
+                throw new IOException("Unexpected end of file at position " + (position + buffer.position()) + ".");
+
+            }
+        }
+    }
+
+    /**
+     * Returns the unsigned little endian short at the given index.
+     *
+     * @param bytes the bytes
+     * @param index the index
+     *
+     * @return the unsigned short as int
+     */
+    private static int getShort(byte[] bytes, int index) {
+        return (bytes[index] & 0xff) | ((bytes[index + 1] & 0xff) << 8);
+    }
+
+    /**
+     * Returns the little endian int at the given index.
+     *
+     * @param bytes the bytes
+     * @param index the index
+     *
+     * @return the int
+     */
+    private static int getInt(byte[] bytes, int index) {
+        return getShort(bytes, index) | (getShort(bytes, index + 2) << 16);
+    }
+
+    /**
+     * Returns the uncompressed content of the given block.
+     *
+     * @param blockIndex the index of the block
+     *
+     * @return the uncompressed content of the block
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * or decompressing the block
+     */
+    private byte[] inflate(int blockIndex) throws IOException {
+
+        InflatedBlock block = lastBlock;
+
+        if (block != null && block.index == blockIndex) {
+
+            return block.content;
+
+        }
+
+        long compressedOffset = compressedOffsets[blockIndex];
+        int blockSize = getBlockSize(compressedOffset);
+        ByteBuffer blockBuffer = ByteBuffer.allocate(blockSize);
+        readFully(blockBuffer, compressedOffset);
+        byte[] blockBytes = blockBuffer.array();
+
+        int dataStart = HEADER_LENGTH + getShort(blockBytes, 10);
+        int dataLength = blockSize - dataStart - 8;
+        byte[] content = new byte[(int) (uncompressedOffsets[blockIndex + 1] - uncompressedOffsets[blockIndex])];
+
+        Inflater inflater = new Inflater(true);
+
+        try {
+
+            inflater.setInput(blockBytes, dataStart, dataLength);
+            int nInflated = 0;
+
+            while (nInflated < content.length) {
+
+                int inflated = inflater.inflate(content, nInflated, content.length - nInflated);
+
+                if (inflated == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+
+                    throw new IOException("Block at position " + compressedOffset + " is truncated.");
+
+                }
+
+                nInflated += inflated;
+
+            }
+
+        } catch (DataFormatException e) {
+
+            throw new IOException("Block at position " + compressedOffset + " could not be decompressed.", e);
+
+        } finally {
+
+            inflater.end();
+
+        }
+
+        lastBlock = new InflatedBlock(blockIndex, content);
+
+        return content;
+    }
+
+    /**
+     * Returns the index of the block containing the given position of the
+     * uncompressed content.
+     *
+     * @param position the position in the uncompressed content
+     *
+     * @return the index of the block
+     */
+    private int getBlockIndex(long position) {
+
+        int index = Arrays.binarySearch(uncompressedOffsets, 0, compressedOffsets.length, position);
+
+        if (index < 0) {
+
+            index = -index - 2;
+
+        }
+
+        // Skip the empty blocks
+        while (index < compressedOffsets.length - 1 && uncompressedOffsets[index + 1] == position) {
+
+            index++;
+
+        }
+
+        return index;
+    }
+
+    @Override
+    public int read(long position, byte[] buffer, int offset, int length) throws IOException {
+
+        if (position >= length()) {
+            return -1;
+        }
+
+        int nRead = 0;
+        int blockIndex = getBlockIndex(position);
+
+        while (nRead < length && blockIndex < compressedOffsets.length) {
+
+            byte[] content = inflate(blockIndex);
+            int start = (int) (position + nRead - uncompressedOffsets[blockIndex]);
+            int toCopy = Math.min(content.length - start, length - nRead);
+
+            System.arraycopy(content, start, buffer, offset + nRead, toCopy);
+            nRead += toCopy;
+            blockIndex++;
+
+        }
+
+        return nRead;
+    }
+
+    @Override
+    public long length() {
+        return uncompressedOffsets[compressedOffsets.length];
+    }
+
+    @Override
+    public void close() throws IOException {
+        fileChannel.close();
+    }
+
+    /**
+     * The uncompressed content of a block.
+     */
+    private static class InflatedBlock {
+
+        /**
+         * The index of the block.
+         */
+        private final int index;
+        /**
+         * The uncompressed content.
+         */
+        private final byte[] content;
+
+        /**
+         * Constructor.
+         *
+         * @param index the index of the block
+         * @param content the uncompressed content
+         */
+        private InflatedBlock(int index, byte[] content) {
+
+            this.index = index;
+            this.content = content;
+
+        }
+    }
+}
@@ -0,0 +1,680 @@
+package com.compomics.util.experiment.io.biology.protein.indexed;
+
+import com.compomics.util.experiment.io.biology.protein.Header;
+import com.compomics.util.waiting.WaitingHandler;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Index of the positions of the headers and sequences in a FASTA file in the
+ * spirit of the faidx index. For every protein the index stores the position
+ * of the header line and of the sequence. When all sequence lines of a protein
+ * but the last have the same length, the number of residues and bytes per line
+ * are stored, allowing the computation of the position of any residue. The
+ * positions are in the uncompressed content of the file.
+ *
+ * @author Marc Vaudel
+ */
+public class FastaIndex {
+
+    /**
+     * The version of the format of the index files.
+     */
+    public static final int FORMAT_VERSION = 1;
+    /**
+     * The size of the buffers used to read and write files.
+     */
+    public static final int BUFFER_SIZE = 1024 * 1024;
+    /**
+     * The accessions of the proteins in the order of the file.
+     */
+    private final String[] accessions;
+    /**
+     * The positions of the header lines.
+     */
+    private final long[] headerOffsets;
+    /**
+     * The lengths of the header lines without line terminator.
+     */
+    private final int[] headerLengths;
+    /**
+     * The positions of the first sequence line.
+     */
+    private final long[] sequenceOffsets;
+    /**
+     * The number of bytes between the first sequence line and the next header.
+     */
+    private final int[] sequenceBytes;
+    /**
+     * The lengths of the sequences.
+     */
+    private final int[] sequenceLengths;
+    /**
+     * The number of residues per sequence line, 0 if the lines are not
+     * regular.
+     */
+    private final int[] lineBases;
+    /**
+     * The number of bytes per sequence line including line terminator, 0 if
+     * the lines are not regular.
+     */
+    private final int[] lineWidths;
+    /**
+     * Map of the index of every accession. If an accession is found multiple
+     * times, the last occurrence is indexed.
+     */
+    private final HashMap<String, Integer> accessionIndexes;
+
+    /**
+     * Constructor.
+     *
+     * @param accessions the accessions of the proteins in the order of the
+     * file
+     * @param headerOffsets the positions of the header lines
+     * @param headerLengths the lengths of the header lines without line
+     * terminator
+     * @param sequenceOffsets the positions of the first sequence line
+     * @param sequenceBytes the number of bytes between the first sequence line
+     * and the next header
+     * @param sequenceLengths the lengths of the sequences
+     * @param lineBases the number of residues per sequence line, 0 if the
+     * lines are not regular
+     * @param lineWidths the number of bytes per sequence line including line
+     * terminator, 0 if the lines are not regular
+     */
+    public FastaIndex(String[] accessions, long[] headerOffsets, int[] headerLengths, long[] sequenceOffsets, int[] sequenceBytes, int[] sequenceLengths, int[] lineBases, int[] lineWidths) {
+
+        this.accessions = accessions;
+        this.headerOffsets = headerOffsets;
+        this.headerLengths = headerLengths;
+        this.sequenceOffsets = sequenceOffsets;
+        this.sequenceBytes = sequenceBytes;
+        this.sequenceLengths = sequenceLengths;
+        this.lineBases = lineBases;
+        this.lineWidths = lineWidths;
+
+        accessionIndexes = new HashMap<>(accessions.length);
+
+        for (int i = 0; i < accessions.length; i++) {
+
+            accessionIndexes.put(accessions[i], i);
+
+        }
+    }
+
+    /**
+     * Returns the number of proteins in the index.
+     *
+     * @return the number of proteins in the index
+     */
+    public int size() {
+        return accessions.length;
+    }
+
+    /**
+     * Returns the accessions of the proteins in the order of the file.
+     *
+     * @return the accessions of the proteins in the order of the file
+     */
+    public String[] getAccessions() {
+        return accessions;
+    }
+
+    /**
+     * Returns the index of the given accession, -1 if not found.
+     *
+     * @param accession the accession
+     *
+     * @return the index of the given accession
+     */
+    public int getIndex(String accession) {
+
+        Integer index = accessionIndexes.get(accession);
+
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * Returns the length of the sequence of the protein at the given index.
+     *
+     * @param index the index of the protein
+     *
+     * @return the length of the sequence
+     */
+    public int getSequenceLength(int index) {
+        return sequenceLengths[index];
+    }
+
+    /**
+     * Reads the header line of the protein at the given index, without
+     * leading '&gt;' as returned by the sequence providers.
+     *
+     * @param reader the reader for the FASTA file
+     * @param index the index of the protein
+     *
+     * @return the header line
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * the file
+     */
+    public String readHeader(PositionalReader reader, int index) throws IOException {
+
+        byte[] headerLine = reader.readFully(headerOffsets[index], headerLengths[index]);
+
+        return new String(headerLine, StandardCharsets.UTF_8).trim().substring(1);
+    }
+
+    /**
+     * Reads the sequence of the protein at the given index between the given
+     * positions.
+     *
+     * @param reader the reader for the FASTA file
+     * @param index the index of the protein
+     * @param start the start of the subsequence, inclusive
+     * @param end the end of the subsequence, exclusive
+     *
+     * @return the subsequence
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * the file
+     */
+    public String readSequence(PositionalReader reader, int index, int start, int end) throws IOException {
+
+        if (start >= end) {
+
+            return "";
+
+        }
+
+        int bases = lineBases[index];
+
+        if (bases == 0) {
+
+            return readIrregularSequence(reader, index).substring(start, end);
+
+        }
+
+        int width = lineWidths[index];
+        long startPosition = sequenceOffsets[index] + ((long) (start / bases)) * width + start % bases;
+        long endPosition = sequenceOffsets[index] + ((long) ((end - 1) / bases)) * width + (end - 1) % bases + 1;
+        byte[] bytes = reader.readFully(startPosition, (int) (endPosition - startPosition));
+
+        int length = 0;
+
+        for (byte b : bytes) {
+
+            if (b != '\n' && b != '\r') {
+
+                bytes[length++] = b;
+
+            }
+        }
+
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads the sequence of a protein where the sequence lines are not
+     * regular. Lines are trimmed and concatenated as done by the FastaIterator.
+     *
+     * @param reader the reader for the FASTA file
+     * @param index the index of the protein
+     *
+     * @return the sequence
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * the file
+     */
+    private String readIrregularSequence(PositionalReader reader, int index) throws IOException {
+
+        String text = new String(reader.readFully(sequenceOffsets[index], sequenceBytes[index]), StandardCharsets.UTF_8);
+        StringBuilder sequence = new StringBuilder(sequenceLengths[index]);
+        int lineStart = 0;
+
+        while (lineStart < text.length()) {
+
+            int lineEnd = text.indexOf('\n', lineStart);
+
+            if (lineEnd == -1) {
+                lineEnd = text.length();
+            }
+
+            sequence.append(text.substring(lineStart, lineEnd).trim());
+            lineStart = lineEnd + 1;
+
+        }
+
+        return sequence.toString();
+    }
+
+    /**
+     * Indexes the content of the given reader.
+     *
+     * @param reader the reader for the FASTA file
+     * @param waitingHandler a waiting handler allowing canceling the process,
+     * ignored if null
+     *
+     * @return the index, null if the process was canceled
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * the file
+     */
+    public static FastaIndex index(PositionalReader reader, WaitingHandler waitingHandler) throws IOException {
+
+        IndexBuilder builder = new IndexBuilder();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long position = 0;
+        int read;
+
+        while ((read = reader.read(position, buffer, 0, buffer.length)) != -1) {
+
+            if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+
+                return null;
+
+            }
+
+            for (int i = 0; i < read; i++) {
+
+                builder.add(buffer[i], position + i);
+
+            }
+
+            position += read;
+
+        }
+
+        return builder.getIndex(position);
+    }
+
+    /**
+     * Writes the index to a file.
+     *
+     * @param destinationFile the file where to write the index
+     * @param fastaLength the length of the FASTA file
+     * @param fastaLastModified the last time the FASTA file was modified
+     *
+     * @throws IOException exception thrown if an error occurred while writing
+     * the file
+     */
+    public void write(File destinationFile, long fastaLength, long fastaLastModified) throws IOException {
+
+        try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(destinationFile), BUFFER_SIZE))) {
+
+            dos.writeInt(FORMAT_VERSION);
+            dos.writeLong(fastaLength);
+            dos.writeLong(fastaLastModified);
+            dos.writeInt(accessions.length);
+
+            for (int i = 0; i < accessions.length; i++) {
+
+                dos.writeUTF(accessions[i]);
+                dos.writeLong(headerOffsets[i]);
+                dos.writeInt(headerLengths[i]);
+                dos.writeLong(sequenceOffsets[i]);
+                dos.writeInt(sequenceBytes[i]);
+                dos.writeInt(sequenceLengths[i]);
+                dos.writeInt(lineBases[i]);
+                dos.writeInt(lineWidths[i]);
+
+            }
+        }
+    }
+
+    /**
+     * Reads an index from a file. Returns null if the index was built for a
+     * different version of the FASTA file.
+     *
+     * @param indexFile the file containing the index
+     * @param fastaLength the length of the FASTA file
+     * @param fastaLastModified the last time the FASTA file was modified
+     *
+     * @return the index, null if the index does not correspond to the FASTA
+     * file
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * the file, or if the format is not supported
+     */
+    public static FastaIndex read(File indexFile, long fastaLength, long fastaLastModified) throws IOException {
+
+        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile), BUFFER_SIZE))) {
+
+            int version = dis.readInt();
+
+            if (version != FORMAT_VERSION) {
+
+                throw new IOException("Fasta index format version " + version + " not supported.");
+
+            }
+
+            if (dis.readLong() != fastaLength || dis.readLong() != fastaLastModified) {
+
+                return null;
+
+            }
+
+            int size = dis.readInt();
+            String[] accessions = new String[size];
+            long[] headerOffsets = new long[size];
+            int[] headerLengths = new int[size];
+            long[] sequenceOffsets = new long[size];
+            int[] sequenceBytes = new int[size];
+            int[] sequenceLengths = new int[size];
+            int[] lineBases = new int[size];
+            int[] lineWidths = new int[size];
+
+            for (int i = 0; i < size; i++) {
+
+                accessions[i] = dis.readUTF();
+                headerOffsets[i] = dis.readLong();
+                headerLengths[i] = dis.readInt();
+                sequenceOffsets[i] = dis.readLong();
+                sequenceBytes[i] = dis.readInt();
+                sequenceLengths[i] = dis.readInt();
+                lineBases[i] = dis.readInt();
+                lineWidths[i] = dis.readInt();
+
+            }
+
+            return new FastaIndex(accessions, headerOffsets, headerLengths, sequenceOffsets, sequenceBytes, sequenceLengths, lineBases, lineWidths);
+
+        }
+    }
+
+    /**
+     * Builder gathering the index entries while scanning the content of a
+     * FASTA file byte by byte.
+     */
+    private static class IndexBuilder {
+
+        /**
+         * The number of proteins indexed.
+         */
+        private int size = 0;
+        /**
+         * The accessions of the proteins.
+         */
+        private String[] accessions = new String[1024];
+        /**
+         * The positions of the header lines.
+         */
+        private long[] headerOffsets = new long[1024];
+        /**
+         * The lengths of the header lines.
+         */
+        private int[] headerLengths = new int[1024];
+        /**
+         * The positions of the first sequence line.
+         */
+        private long[] sequenceOffsets = new long[1024];
+        /**
+         * The number of bytes of the sequence lines.
+         */
+        private int[] sequenceBytes = new int[1024];
+        /**
+         * The lengths of the sequences.
+         */
+        private int[] sequenceLengths = new int[1024];
+        /**
+         * The number of residues per sequence line.
+         */
+        private int[] lineBases = new int[1024];
+        /**
+         * The number of bytes per sequence line.
+         */
+        private int[] lineWidths = new int[1024];
+        /**
+         * The header line being read.
+         */
+        private final ByteArrayOutputStream headerLine = new ByteArrayOutputStream();
+        /**
+         * Boolean indicating whether the next byte starts a line.
+         */
+        private boolean lineStart = true;
+        /**
+         * Boolean indicating whether the current line is a header line.
+         */
+        private boolean inHeader = false;
+        /**
+         * The position of the current line.
+         */
+        private long lineOffset = 0;
+        /**
+         * The number of bytes read in the current line.
+         */
+        private int column = 0;
+        /**
+         * The column of the first non white space character of the current
+         * line, -1 if none.
+         */
+        private int firstResidue = -1;
+        /**
+         * The column of the last non white space character of the current
+         * line.
+         */
+        private int lastResidue = -1;
+        /**
+         * The last byte read.
+         */
+        private byte lastByte = 0;
+        /**
+         * Boolean indicating whether the lines of the current sequence are
+         * regular.
+         */
+        private boolean regular = true;
+        /**
+         * Boolean indicating whether the last line of the current sequence
+         * was reached, i.e. a line shorter than the first or an empty line.
+         */
+        private boolean lastLineReached = false;
+
+        /**
+         * Adds a byte of the file.
+         *
+         * @param b the byte
+         * @param position the position of the byte
+         */
+        private void add(byte b, long position) {
+
+            if (lineStart) {
+
+                lineStart = false;
+                lineOffset = position;
+                column = 0;
+                firstResidue = -1;
+                lastResidue = -1;
+                inHeader = b == '>';
+
+                if (inHeader) {
+
+                    endProtein(position);
+                    headerLine.reset();
+
+                }
+            }
+
+            if (b == '\n') {
+
+                endLine(true);
+                lineStart = true;
+
+            } else {
+
+                if (inHeader) {
+
+                    headerLine.write(b);
+
+                } else if (b > ' ') {
+
+                    if (firstResidue == -1) {
+                        firstResidue = column;
+                    }
+
+                    lastResidue = column;
+
+                }
+
+                lastByte = b;
+                column++;
+
+            }
+        }
+
+        /**
+         * Processes the end of the current line.
+         *
+         * @param terminated boolean indicating whether the line was terminated
+         * by a line break
+         */
+        private void endLine(boolean terminated) {
+
+            if (inHeader) {
+
+                newProtein(terminated);
+
+            } else if (size > 0) {
+
+                int residues = firstResidue == -1 ? 0 : lastResidue - firstResidue + 1;
+                int width = terminated ? column + 1 : column;
+                int trailing = column - lastResidue - 1;
+                boolean clean = firstResidue == 0 && (trailing == 0 || trailing == 1 && lastByte == '\r');
+                int index = size - 1;
+
+                sequenceLengths[index] += residues;
+
+                if (residues == 0) {
+
+                    lastLineReached = true;
+
+                } else if (lastLineReached || !clean) {
+
+                    regular = false;
+
+                } else if (lineBases[index] == 0) {
+
+                    lineBases[index] = residues;
+                    lineWidths[index] = width;
+                    lastLineReached = !terminated;
+
+                } else if (residues > lineBases[index] || residues == lineBases[index] && terminated && width != lineWidths[index]) {
+
+                    regular = false;
+
+                } else if (residues < lineBases[index] || !terminated) {
+
+                    lastLineReached = true;
+
+                }
+            }
+        }
+
+        /**
+         * Registers a new protein from the header line read.
+         *
+         * @param terminated boolean indicating whether the header line was
+         * terminated by a line break
+         */
+        private void newProtein(boolean terminated) {
+
+            if (size == accessions.length) {
+
+                int newLength = 2 * size;
+                accessions = Arrays.copyOf(accessions, newLength);
+                headerOffsets = Arrays.copyOf(headerOffsets, newLength);
+                headerLengths = Arrays.copyOf(headerLengths, newLength);
+                sequenceOffsets = Arrays.copyOf(sequenceOffsets, newLength);
+                sequenceBytes = Arrays.copyOf(sequenceBytes, newLength);
+                sequenceLengths = Arrays.copyOf(sequenceLengths, newLength);
+                lineBases = Arrays.copyOf(lineBases, newLength);
+                lineWidths = Arrays.copyOf(lineWidths, newLength);
+
+            }
+
+            String header = new String(headerLine.toByteArray(), StandardCharsets.UTF_8).trim();
+            String accession = Header.parseFromFASTA(header).getAccessionOrRest();
+
+            if (accession == null || accession.equals("")) {
+                accession = header.substring(1);
+            }
+
+            accessions[size] = accession;
+            headerOffsets[size] = lineOffset;
+            headerLengths[size] = column;
+            sequenceOffsets[size] = lineOffset + column + (terminated ? 1 : 0);
+            size++;
+
+            regular = true;
+            lastLineReached = false;
+
+        }
+
+        /**
+         * Processes the end of the current protein.
+         *
+         * @param position the position of the next header or the end of the
+         * file
+         */
+        private void endProtein(long position) {
+
+            if (size > 0) {
+
+                int index = size - 1;
+                long length = position - sequenceOffsets[index];
+
+                if (length > Integer.MAX_VALUE) {
+
+                    throw new IllegalArgumentException("Sequence of protein " + accessions[index] + " too long to be indexed.");
+
+                }
+
+                sequenceBytes[index] = (int) length;
+
+                if (!regular) {
+
+                    lineBases[index] = 0;
+                    lineWidths[index] = 0;
+
+                }
+            }
+        }
+
+        /**
+         * Returns the index.
+         *
+         * @param length the length of the content
+         *
+         * @return the index
+         */
+        private FastaIndex getIndex(long length) {
+
+            if (!lineStart) {
+
+                endLine(false);
+
+            }
+
+            endProtein(length);
+
+            return new FastaIndex(
+                    Arrays.copyOf(accessions, size),
+                    Arrays.copyOf(headerOffsets, size),
+                    Arrays.copyOf(headerLengths, size),
+                    Arrays.copyOf(sequenceOffsets, size),
+                    Arrays.copyOf(sequenceBytes, size),
+                    Arrays.copyOf(sequenceLengths, size),
+                    Arrays.copyOf(lineBases, size),
+                    Arrays.copyOf(lineWidths, size)
+            );
+        }
+    }
+}
@@ -0,0 +1,370 @@
+package com.compomics.util.experiment.io.biology.protein.indexed;
+
+import com.compomics.util.experiment.identification.utils.ProteinUtils;
+import com.compomics.util.experiment.io.biology.protein.FastaParameters;
+import com.compomics.util.experiment.io.biology.protein.Header;
+import com.compomics.util.experiment.io.biology.protein.ProteinDatabase;
+import com.compomics.util.experiment.io.biology.protein.ProteinDetailsProvider;
+import com.compomics.util.experiment.io.biology.protein.SequenceProvider;
+import com.compomics.util.waiting.WaitingHandler;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Sequence and protein details provider reading the sequences and headers of
+ * a FASTA file on demand using an index of their positions in the file. The
+ * file can be uncompressed or compressed using bgzip. Only the index and a
+ * small cache of the most recently used proteins are kept in memory.
+ *
+ * @author Marc Vaudel
+ */
+public class IndexedFastaProvider implements SequenceProvider, ProteinDetailsProvider, Closeable {
+
+    /**
+     * The extension of the index files.
+     */
+    public static final String EXTENSION = ".cfai";
+    /**
+     * The default number of proteins to keep in cache.
+     */
+    public static final int DEFAULT_CACHE_SIZE = 1000;
+    /**
+     * The reader for the FASTA file.
+     */
+    private final PositionalReader reader;
+    /**
+     * The index of the FASTA file.
+     */
+    private final FastaIndex fastaIndex;
+    /**
+     * The parameters used to parse the FASTA file, null if not set.
+     */
+    private final FastaParameters fastaParameters;
+    /**
+     * The decoy accessions, lazily computed.
+     */
+    private HashSet<String> decoyAccessions = null;
+    /**
+     * The proteins recently used in order of access.
+     */
+    private final LinkedHashMap<String, CachedProtein> cache;
+
+    /**
+     * Constructor. The index is loaded from the index file next to the FASTA
+     * file, or built and saved if not found or outdated.
+     *
+     * @param fastaFile the FASTA file, uncompressed or compressed using bgzip
+     * @param fastaParameters the parameters used to parse the FASTA file, can
+     * be null if decoy accessions are not needed
+     * @param cacheSize the number of proteins to keep in cache
+     * @param waitingHandler a waiting handler allowing canceling the indexing,
+     * ignored if null
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * the file
+     */
+    public IndexedFastaProvider(File fastaFile, FastaParameters fastaParameters, int cacheSize, WaitingHandler waitingHandler) throws IOException {
+
+        this.fastaParameters = fastaParameters;
+        this.reader = BgzfFileReader.isBgzf(fastaFile) ? new BgzfFileReader(fastaFile) : new PlainFileReader(fastaFile);
+        this.cache = new LinkedHashMap<String, CachedProtein>(2 * cacheSize, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedProtein> eldest) {
+                return size() > cacheSize;
+            }
+        };
+
+        File indexFile = getIndexFile(fastaFile);
+        long fastaLength = fastaFile.length();
+        long lastModified = fastaFile.lastModified();
+        FastaIndex savedIndex = null;
+
+        if (indexFile.exists()) {
+
+            try {
+
+                savedIndex = FastaIndex.read(indexFile, fastaLength, lastModified);
+
+            } catch (Exception e) {
+
+                // ignore and overwrite corrupted file
+            }
+        }
+
+        if (savedIndex == null) {
+
+            try {
+
+                savedIndex = FastaIndex.index(reader, waitingHandler);
+
+            } catch (IOException | RuntimeException e) {
+
+                reader.close();
+                throw e;
+
+            }
+
+            if (savedIndex != null) {
+
+                try {
+
+                    savedIndex.write(indexFile, fastaLength, lastModified);
+
+                } catch (Exception e) {
+
+                    // ignore, the index will be built again next time
+                }
+
+            } else {
+
+                reader.close();
+
+            }
+        }
+
+        fastaIndex = savedIndex;
+
+    }
+
+    /**
+     * Returns the file used to store the index of the given FASTA file.
+     *
+     * @param fastaFile the FASTA file
+     *
+     * @return the file used to store the index
+     */
+    public static File getIndexFile(File fastaFile) {
+        return new File(fastaFile.getAbsolutePath() + EXTENSION);
+    }
+
+    /**
+     * Returns a boolean indicating whether the indexing was canceled.
+     *
+     * @return a boolean indicating whether the indexing was canceled
+     */
+    public boolean isCanceled() {
+        return fastaIndex == null;
+    }
+
+    /**
+     * Returns the protein corresponding to the given accession, from the cache
+     * if available.
+     *
+     * @param accession the accession of the protein
+     *
+     * @return the protein
+     */
+    private CachedProtein getProtein(String accession) {
+
+        synchronized (cache) {
+
+            CachedProtein cachedProtein = cache.get(accession);
+
+            if (cachedProtein != null) {
+
+                return cachedProtein;
+
+            }
+        }
+
+        int index = getIndex(accession);
+
+        try {
+
+            CachedProtein cachedProtein = new CachedProtein(
+                    fastaIndex.readHeader(reader, index),
+                    fastaIndex.readSequence(reader, index, 0, fastaIndex.getSequenceLength(index)).toUpperCase()
+            );
+
+            synchronized (cache) {
+
+                cache.put(accession, cachedProtein);
+
+            }
+
+            return cachedProtein;
+
+        } catch (IOException e) {
+
+            throw new RuntimeException(e);
+
+        }
+    }
+
+    /**
+     * Returns the index of the given accession.
+     *
+     * @param accession the accession of the protein
+     *
+     * @return the index of the given accession
+     */
+    private int getIndex(String accession) {
+
+        int index = fastaIndex.getIndex(accession);
+
+        if (index == -1) {
+
+            throw new UnsupportedOperationException("Protein accession '" + accession + "' not found in index.");
+
+        }
+
+        return index;
+    }
+
+    @Override
+    public Collection<String> getAccessions() {
+        return Collections.unmodifiableList(Arrays.asList(fastaIndex.getAccessions()));
+    }
+
+    @Override
+    public synchronized HashSet<String> getDecoyAccessions() {
+
+        if (decoyAccessions == null) {
+
+            decoyAccessions = new HashSet<>();
+
+            if (fastaParameters != null) {
+
+                for (String accession : fastaIndex.getAccessions()) {
+
+                    if (ProteinUtils.isDecoy(accession, fastaParameters)) {
+
+                        decoyAccessions.add(accession);
+
+                    }
+                }
+            }
+        }
+
+        return decoyAccessions;
+    }
+
+    @Override
+    public String getSequence(String proteinAccession) {
+        return getProtein(proteinAccession).sequence;
+    }
+
+    @Override
+    public String getSubsequence(String accession, int start, int end) {
+
+        synchronized (cache) {
+
+            CachedProtein cachedProtein = cache.get(accession);
+
+            if (cachedProtein != null) {
+
+                String proteinSequence = cachedProtein.sequence;
+                return proteinSequence.substring(Math.max(start, 0), Math.min(end, proteinSequence.length()));
+
+            }
+        }
+
+        // Read only the requested part of the sequence
+        int index = getIndex(accession);
+
+        try {
+
+            return fastaIndex.readSequence(reader, index, Math.max(start, 0), Math.min(end, fastaIndex.getSequenceLength(index))).toUpperCase();
+
+        } catch (IOException e) {
+
+            throw new RuntimeException(e);
+
+        }
+    }
+
+    @Override
+    public String getHeader(String proteinAccession) {
+        return getProtein(proteinAccession).header;
+    }
+
+    @Override
+    public String getDescription(String accession) {
+        return getProtein(accession).getParsedHeader().getDescription();
+    }
+
+    @Override
+    public String getSimpleDescription(String accession) {
+        return getProtein(accession).getParsedHeader().getSimpleProteinDescription();
+    }
+
+    @Override
+    public ProteinDatabase getProteinDatabase(String accession) {
+        return getProtein(accession).getParsedHeader().getDatabaseType();
+    }
+
+    @Override
+    public String getGeneName(String accession) {
+        return getProtein(accession).getParsedHeader().getGeneName();
+    }
+
+    @Override
+    public String getTaxonomy(String accession) {
+        return getProtein(accession).getParsedHeader().getTaxonomy();
+    }
+
+    @Override
+    public Integer getProteinEvidence(String accession) {
+        return getProtein(accession).getParsedHeader().getProteinEvidence();
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    /**
+     * A protein kept in cache.
+     */
+    private static class CachedProtein {
+
+        /**
+         * The header line without leading '&gt;'.
+         */
+        private final String header;
+        /**
+         * The sequence.
+         */
+        private final String sequence;
+        /**
+         * The parsed header, lazily computed.
+         */
+        private Header parsedHeader = null;
+
+        /**
+         * Constructor.
+         *
+         * @param header the header line without leading '&gt;'
+         * @param sequence the sequence
+         */
+        private CachedProtein(String header, String sequence) {
+
+            this.header = header;
+            this.sequence = sequence;
+
+        }
+
+        /**
+         * Returns the parsed header.
+         *
+         * @return the parsed header
+         */
+        private synchronized Header getParsedHeader() {
+
+            if (parsedHeader == null) {
+
+                parsedHeader = Header.parseFromFASTA(header);
+
+            }
+
+            return parsedHeader;
+        }
+    }
+}
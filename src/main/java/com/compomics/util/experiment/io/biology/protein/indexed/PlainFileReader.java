@@ -0,0 +1,60 @@
+package com.compomics.util.experiment.io.biology.protein.indexed;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Positional reader for an uncompressed file.
+ *
+ * @author Marc Vaudel
+ */
+public class PlainFileReader implements PositionalReader {
+
+    /**
+     * The channel to the file.
+     */
+    private final FileChannel fileChannel;
+    /**
+     * The length of the file.
+     */
+    private final long length;
+
+    /**
+     * Constructor.
+     *
+     * @param file the file to read
+     *
+     * @throws IOException exception thrown if an error occurred while opening
+     * the file
+     */
+    public PlainFileReader(File file) throws IOException {
+
+        fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        length = fileChannel.size();
+
+    }
+
+    @Override
+    public int read(long position, byte[] buffer, int offset, int length) throws IOException {
+
+        if (position >= this.length) {
+            return -1;
+        }
+
+        return fileChannel.read(ByteBuffer.wrap(buffer, offset, length), position);
+
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    @Override
+    public void close() throws IOException {
+        fileChannel.close();
+    }
+}
@@ -0,0 +1,72 @@
+package com.compomics.util.experiment.io.biology.protein.indexed;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Interface for a reader allowing reading the uncompressed content of a file
+ * at a given position. Implementations must allow concurrent reads.
+ *
+ * @author Marc Vaudel
+ */
+public interface PositionalReader extends Closeable {
+
+    /**
+     * Reads bytes at the given position of the uncompressed content.
+     *
+     * @param position the position in the uncompressed content
+     * @param buffer the buffer where to write the bytes
+     * @param offset the offset in the buffer
+     * @param length the maximal number of bytes to read
+     *
+     * @return the number of bytes read, -1 if the position is after the end of
+     * the content
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * the file
+     */
+    public int read(long position, byte[] buffer, int offset, int length) throws IOException;
+
+    /**
+     * Reads the given number of bytes at the given position of the
+     * uncompressed content.
+     *
+     * @param position the position in the uncompressed content
+     * @param length the number of bytes to read
+     *
+     * @return the bytes read
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * the file, or if the end of the content was reached before the given
+     * number of bytes could be read
+     */
+    public default byte[] readFully(long position, int length) throws IOException {
+
+        byte[] buffer = new byte[length];
+        int nRead = 0;
+
+        while (nRead < length) {
+
+            int read = read(position + nRead, buffer, nRead, length - nRead);
+
+            if (read == -1) {
+
+                throw new IOException("End of file reached while reading " + length + " bytes at position " + position + ".");
+
+            }
+
+            nRead += read;
+
+        }
+
+        return buffer;
+    }
+
+    /**
+     * Returns the length of the uncompressed content.
+     *
+     * @return the length of the uncompressed content
+     */
+    public long length();
+
+}
@@ -176,7 +176,7 @@ public class FastaIterator implements ProteinIterator {
      *
      * @return the cleaned sequence
      */
-    private String getCleanedSequence(String sequence) {
+    static String getCleanedSequence(String sequence) {
 
         char[] lineAsCharArray = sequence.toCharArray();
         StringBuilder cleanedSequence = new StringBuilder(sequence.length());
@@ -0,0 +1,241 @@
+package com.compomics.util.experiment.io.biology.protein.iterators;
+
+import com.compomics.util.experiment.biology.proteins.Protein;
+import com.compomics.util.experiment.io.biology.protein.Header;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Iterator for a fasta file where reading and parsing are pipelined. One
+ * thread reads the file in chunks and splits it in batches of complete
+ * records, and a pool of threads parses the headers and sequences of the
+ * batches. Batches are delivered in the order of the file through a bounded
+ * queue, the proteins are therefore returned in the same order as by the
+ * FastaIterator. Like the FastaIterator, the file is decoded using the
+ * platform charset.
+ *
+ * @author Marc Vaudel
+ */
+public class PipelinedFastaIterator extends PipelinedProteinIterator {
+
+    /**
+     * The size of the chunks read from the file.
+     */
+    public static final int CHUNK_SIZE = 1024 * 1024;
+    /**
+     * Boolean indicating whether sanity check should be conducted on the
+     * protein sequences.
+     */
+    private final boolean sanityCheck;
+
+    /**
+     * Constructor.
+     *
+     * @param fastaFile the fasta file
+     * @param sanityCheck boolean indicating whether sanity check should be
+     * conducted
+     * @param nThreads the number of threads to use for parsing
+     *
+     * @throws FileNotFoundException exception thrown if the file could not be
+     * found
+     */
+    public PipelinedFastaIterator(File fastaFile, boolean sanityCheck, int nThreads) throws FileNotFoundException {
+
+        super(new FileInputStream(fastaFile), nThreads);
+        this.sanityCheck = sanityCheck;
+        start();
+
+    }
+
+    /**
+     * Reads the file in chunks, splits it in batches of complete records, and
+     * queues the parsing of the batches.
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * the file
+     * @throws InterruptedException exception thrown if the iterator was closed
+     * while waiting for space in the queue
+     */
+    @Override
+    protected void read() throws IOException, InterruptedException {
+
+        byte[] buffer = new byte[CHUNK_SIZE];
+        int length = 0;
+        int read;
+
+        while ((read = inputStream.read(buffer, length, buffer.length - length)) != -1) {
+
+            length += read;
+            int recordStart = getLastRecordStart(buffer, length);
+
+            if (recordStart > 0) {
+
+                submit(Arrays.copyOfRange(buffer, 0, recordStart));
+                System.arraycopy(buffer, recordStart, buffer, 0, length - recordStart);
+                length -= recordStart;
+
+            } else if (length == buffer.length) {
+
+                // Record larger than the buffer
+                buffer = Arrays.copyOf(buffer, 2 * buffer.length);
+
+            }
+        }
+
+        if (length > 0) {
+            submit(Arrays.copyOf(buffer, length));
+        }
+    }
+
+    /**
+     * Queues the parsing of a batch of records.
+     *
+     * @param batch the batch of records
+     *
+     * @throws InterruptedException exception thrown if the thread is
+     * interrupted while waiting for space in the queue
+     */
+    private void submit(byte[] batch) throws InterruptedException {
+        submit(() -> parse(batch));
+    }
+
+    /**
+     * Returns the index of the last header start in the given buffer, 0 if
+     * none after the first character.
+     *
+     * @param buffer the buffer
+     * @param length the number of bytes in the buffer
+     *
+     * @return the index of the last header start
+     */
+    private static int getLastRecordStart(byte[] buffer, int length) {
+
+        for (int i = length - 1; i > 0; i--) {
+
+            if (buffer[i] == '>' && (buffer[i - 1] == '\n' || buffer[i - 1] == '\r')) {
+                return i;
+            }
+        }
+
+        return 0;
+    }
+
+    /**
+     * Parses a batch of complete records.
+     *
+     * @param batch the batch of records
+     *
+     * @return the parsed batch
+     */
+    private ProteinBatch parse(byte[] batch) {
+
+        String text = new String(batch, Charset.defaultCharset());
+        ArrayList<Protein> proteins = new ArrayList<>();
+        ArrayList<Header> headers = new ArrayList<>();
+        Header header = null;
+        StringBuilder sequenceBuilder = new StringBuilder();
+        RuntimeException exception = null;
+
+        try {
+
+            int lineStart = 0;
+
+            while (lineStart < text.length()) {
+
+                int lineEnd = getLineEnd(text, lineStart);
+
+                String line = text.substring(lineStart, lineEnd).trim();
+                lineStart = lineEnd + 1;
+
+                if (line.length() > 0) {
+
+                    if (line.charAt(0) == '>') {
+
+                        if (header != null) {
+
+                            add(header, sequenceBuilder, proteins, headers);
+                            sequenceBuilder.setLength(0);
+
+                        }
+
+                        header = Header.parseFromFASTA(line);
+
+                    } else {
+
+                        sequenceBuilder.append(line);
+
+                    }
+                }
+            }
+
+            if (header != null) {
+                add(header, sequenceBuilder, proteins, headers);
+            }
+
+        } catch (RuntimeException e) {
+
+            exception = e;
+
+        }
+
+        return new ProteinBatch(proteins.toArray(new Protein[proteins.size()]), headers.toArray(new Header[headers.size()]), exception);
+    }
+
+    /**
+     * Returns the index of the end of the line starting at the given index,
+     * i.e. of the next line feed or carriage return, the length of the text
+     * if none.
+     *
+     * @param text the text
+     * @param lineStart the start of the line
+     *
+     * @return the index of the end of the line
+     */
+    private static int getLineEnd(String text, int lineStart) {
+
+        for (int i = lineStart; i < text.length(); i++) {
+
+            char c = text.charAt(i);
+
+            if (c == '\n' || c == '\r') {
+                return i;
+            }
+        }
+
+        return text.length();
+    }
+
+    /**
+     * Adds a protein to the parsed proteins.
+     *
+     * @param header the header of the protein
+     * @param sequenceBuilder the sequence of the protein
+     * @param proteins the parsed proteins
+     * @param headers the headers of the parsed proteins
+     */
+    private void add(Header header, StringBuilder sequenceBuilder, ArrayList<Protein> proteins, ArrayList<Header> headers) {
+
+        String sequence = sequenceBuilder.toString();
+
+        if (sanityCheck) {
+
+            sequence = FastaIterator.getCleanedSequence(sequence);
+
+        }
+
+        if (sequence.length() == 0) {
+
+            throw new IllegalArgumentException("No sequence found for protein accession " + header.getAccessionOrRest() + ".");
+
+        }
+
+        proteins.add(new Protein(header.getAccessionOrRest(), sequence));
+        headers.add(header);
+
+    }
+}
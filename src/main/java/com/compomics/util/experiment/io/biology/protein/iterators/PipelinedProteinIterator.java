@@ -0,0 +1,293 @@
+package com.compomics.util.experiment.io.biology.protein.iterators;
+
+import com.compomics.util.experiment.biology.proteins.Protein;
+import com.compomics.util.experiment.io.biology.protein.Header;
+import com.compomics.util.experiment.io.biology.protein.ProteinIterator;
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Base class for the iterators where one thread reads a file and a pool of
+ * threads makes batches of proteins out of it. The batches are delivered in
+ * the order they were submitted through a bounded queue, and the proteins are
+ * returned in the order of the batches.
+ *
+ * Implementations read the file in the read method, submit the processing of
+ * every batch, and call start at the end of their constructor.
+ *
+ * @author Marc Vaudel
+ */
+public abstract class PipelinedProteinIterator implements ProteinIterator {
+
+    /**
+     * Batch marking the end of the file.
+     */
+    private static final ProteinBatch END_OF_FILE = new ProteinBatch(new Protein[0], new Header[0], null);
+    /**
+     * The stream of the file.
+     */
+    protected final InputStream inputStream;
+    /**
+     * The executor reading the file.
+     */
+    private final ExecutorService readingPool;
+    /**
+     * The executor processing the batches.
+     */
+    private final ExecutorService processingPool;
+    /**
+     * The processed batches in the order of the file.
+     */
+    private final ArrayBlockingQueue<Future<ProteinBatch>> queue;
+    /**
+     * The batch being iterated.
+     */
+    private ProteinBatch currentBatch = null;
+    /**
+     * The index of the next protein in the current batch.
+     */
+    private int proteinIndex = 0;
+    /**
+     * The header corresponding to the last protein returned.
+     */
+    private Header lastHeader = null;
+    /**
+     * Boolean indicating whether the end of the file has been reached.
+     */
+    private boolean endOfFileReached = false;
+    /**
+     * Boolean indicating whether the iterator was closed.
+     */
+    private volatile boolean closed = false;
+
+    /**
+     * Constructor.
+     *
+     * @param inputStream the stream of the file
+     * @param nThreads the number of threads to use to process the batches
+     */
+    protected PipelinedProteinIterator(InputStream inputStream, int nThreads) {
+
+        this.inputStream = inputStream;
+        this.queue = new ArrayBlockingQueue<>(2 * nThreads + 1);
+        this.processingPool = Executors.newFixedThreadPool(nThreads, PipelinedProteinIterator::newDaemonThread);
+        this.readingPool = Executors.newSingleThreadExecutor(PipelinedProteinIterator::newDaemonThread);
+
+    }
+
+    /**
+     * Starts reading the file. To be called once the implementation is
+     * initialized.
+     */
+    protected void start() {
+        readingPool.submit(this::readFile);
+    }
+
+    /**
+     * Returns a daemon thread for the given runnable so that an iterator that
+     * is not closed does not prevent the application from exiting.
+     *
+     * @param runnable the runnable
+     *
+     * @return a daemon thread
+     */
+    private static Thread newDaemonThread(Runnable runnable) {
+
+        Thread thread = new Thread(runnable);
+        thread.setDaemon(true);
+
+        return thread;
+    }
+
+    @Override
+    public synchronized Protein getNextProtein() {
+
+        if (closed) {
+            return null;
+        }
+
+        try {
+
+            while (currentBatch == null || proteinIndex == currentBatch.proteins.length) {
+
+                if (currentBatch != null && currentBatch.exception != null) {
+
+                    RuntimeException exception = currentBatch.exception;
+                    currentBatch = null;
+                    close();
+                    throw exception;
+
+                }
+
+                if (endOfFileReached) {
+                    return null;
+                }
+
+                currentBatch = queue.take().get();
+                proteinIndex = 0;
+
+                if (closed) {
+                    return null;
+                }
+
+                if (currentBatch == END_OF_FILE) {
+
+                    endOfFileReached = true;
+                    close();
+
+                }
+            }
+
+            lastHeader = currentBatch.headers[proteinIndex];
+
+            return currentBatch.proteins[proteinIndex++];
+
+        } catch (InterruptedException | ExecutionException | CancellationException e) {
+
+            if (closed) {
+                return null;
+            }
+
+            close();
+            throw new RuntimeException(e);
+
+        }
+    }
+
+    @Override
+    public synchronized Header getLastHeader() {
+        return lastHeader;
+    }
+
+    /**
+     * Closes the iterator and stops the reading and processing threads.
+     * Proteins are no longer returned once the iterator is closed, a thread
+     * waiting for the next protein gets null.
+     */
+    public void close() {
+
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+        readingPool.shutdownNow();
+
+        for (Runnable task : processingPool.shutdownNow()) {
+
+            // release a thread waiting for a batch that will not be processed
+            ((Future<?>) task).cancel(false);
+
+        }
+
+        // wake up a thread waiting for a batch, the interrupted reader cannot queue more batches
+        queue.clear();
+        queue.offer(CompletableFuture.completedFuture(END_OF_FILE));
+
+        try {
+
+            inputStream.close();
+
+        } catch (Exception e) {
+
+            e.printStackTrace();
+
+        }
+    }
+
+    /**
+     * Reads the file and queues the end of the file, or the error encountered
+     * while reading.
+     */
+    private void readFile() {
+
+        try {
+
+            read();
+
+            queue.put(CompletableFuture.completedFuture(END_OF_FILE));
+
+        } catch (InterruptedException e) {
+
+            // Iterator closed
+
+        } catch (Throwable t) {
+
+            CompletableFuture<ProteinBatch> failed = new CompletableFuture<>();
+            failed.completeExceptionally(t);
+
+            try {
+
+                queue.put(failed);
+
+            } catch (InterruptedException e) {
+
+                // Iterator closed
+
+            }
+        }
+    }
+
+    /**
+     * Reads the file and submits the processing of its batches in the order
+     * of the file.
+     *
+     * @throws Exception exception thrown if an error occurred while reading
+     * the file, or an InterruptedException if the iterator was closed
+     */
+    protected abstract void read() throws Exception;
+
+    /**
+     * Queues the processing of a batch.
+     *
+     * @param task the task returning the batch of proteins
+     *
+     * @throws InterruptedException exception thrown if the thread is
+     * interrupted while waiting for space in the queue
+     */
+    protected void submit(Callable<ProteinBatch> task) throws InterruptedException {
+        queue.put(processingPool.submit(task));
+    }
+
+    /**
+     * A batch of proteins with their headers.
+     */
+    protected static class ProteinBatch {
+
+        /**
+         * The proteins.
+         */
+        private final Protein[] proteins;
+        /**
+         * The headers of the proteins.
+         */
+        private final Header[] headers;
+        /**
+         * Exception encountered after the last protein, null if none.
+         */
+        private final RuntimeException exception;
+
+        /**
+         * Constructor.
+         *
+         * @param proteins the proteins
+         * @param headers the headers of the proteins
+         * @param exception exception encountered after the last protein, null
+         * if none
+         */
+        protected ProteinBatch(Protein[] proteins, Header[] headers, RuntimeException exception) {
+
+            this.proteins = proteins;
+            this.headers = headers;
+            this.exception = exception;
+
+        }
+    }
+}
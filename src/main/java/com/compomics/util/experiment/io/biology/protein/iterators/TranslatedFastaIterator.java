@@ -0,0 +1,607 @@
+package com.compomics.util.experiment.io.biology.protein.iterators;
+
+import com.compomics.util.experiment.biology.proteins.Protein;
+import com.compomics.util.experiment.io.biology.protein.Header;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Properties;
+
+/**
+ * Iterator translating the records of a nucleotide fasta file, genome or
+ * transcripts, in three or six frames and returning the open reading frames
+ * as proteins. The frames are split at stop codons, and open reading frames
+ * shorter than a given length are discarded. One thread reads the file and a
+ * pool of threads translates batches of records, the frames of large records
+ * being translated in parallel. The proteins are returned in the order of the
+ * file, frame after frame, from the start to the end of the frame.
+ *
+ * The accession of an open reading frame is made of the first word of the
+ * nucleotide header, the frame, and the positions of the first and last
+ * nucleotides of the open reading frame on the forward strand, stop codon
+ * excluded, e.g. chr1_r2_18457-18326. Frames f1 to f3 are read on the forward
+ * strand and frames r1 to r3 on the reverse strand, where the start is
+ * therefore after the end.
+ *
+ * @author Marc Vaudel
+ */
+public class TranslatedFastaIterator extends PipelinedProteinIterator {
+
+    /**
+     * The number of nucleotides per batch of records.
+     */
+    public static final int BATCH_SIZE = 1024 * 1024;
+    /**
+     * The name of the resource containing the codon table.
+     */
+    public static final String CODON_TABLE = "DNA_Protein_Translation.properties";
+    /**
+     * The character used for stop codons in the codon table.
+     */
+    public static final char STOP = '_';
+    /**
+     * The amino acid used for codons containing unknown nucleotides.
+     */
+    public static final char UNKNOWN = 'X';
+    /**
+     * The code of the nucleotides: 0 to 3 for A, C, G, and T or U, -1
+     * otherwise.
+     */
+    private static final byte[] NUCLEOTIDE_CODE = new byte[256];
+
+    static {
+        Arrays.fill(NUCLEOTIDE_CODE, (byte) -1);
+        NUCLEOTIDE_CODE['A'] = NUCLEOTIDE_CODE['a'] = 0;
+        NUCLEOTIDE_CODE['C'] = NUCLEOTIDE_CODE['c'] = 1;
+        NUCLEOTIDE_CODE['G'] = NUCLEOTIDE_CODE['g'] = 2;
+        NUCLEOTIDE_CODE['T'] = NUCLEOTIDE_CODE['t'] = 3;
+        NUCLEOTIDE_CODE['U'] = NUCLEOTIDE_CODE['u'] = 3;
+    }
+
+    /**
+     * The amino acid encoded by the codons indexed by 16 * first + 4 * second
+     * + third nucleotide code.
+     */
+    private final char[] codonTable;
+    /**
+     * Boolean indicating whether the reverse strand should be translated.
+     */
+    private final boolean sixFrames;
+    /**
+     * The minimal length of the open reading frames in amino acids.
+     */
+    private final int minLength;
+    /**
+     * The records gathered by the reading thread for the next batch.
+     */
+    private ArrayList<NucleotideRecord> batch = new ArrayList<>();
+    /**
+     * The number of nucleotides in the records gathered for the next batch.
+     */
+    private int batchNucleotides = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param nucleotideFile the nucleotide fasta file
+     * @param sixFrames if true the six frames are translated, only the three
+     * frames of the forward strand otherwise
+     * @param minLength the minimal length of the open reading frames in amino
+     * acids
+     * @param nThreads the number of threads to use for translation
+     *
+     * @throws IOException exception thrown if the file could not be opened or
+     * the codon table could not be loaded
+     */
+    public TranslatedFastaIterator(File nucleotideFile, boolean sixFrames, int minLength, int nThreads) throws IOException {
+
+        this(loadCodonTable(), nucleotideFile, sixFrames, minLength, nThreads);
+
+    }
+
+    /**
+     * Constructor, the codon table being loaded before the file is opened.
+     *
+     * @param codonTable the amino acid encoded by the codons indexed by
+     * nucleotide code
+     * @param nucleotideFile the nucleotide fasta file
+     * @param sixFrames if true the six frames are translated, only the three
+     * frames of the forward strand otherwise
+     * @param minLength the minimal length of the open reading frames in amino
+     * acids
+     * @param nThreads the number of threads to use for translation
+     *
+     * @throws IOException exception thrown if the file could not be opened
+     */
+    private TranslatedFastaIterator(char[] codonTable, File nucleotideFile, boolean sixFrames, int minLength, int nThreads) throws IOException {
+
+        super(new FileInputStream(nucleotideFile), nThreads);
+        this.codonTable = codonTable;
+        this.sixFrames = sixFrames;
+        this.minLength = Math.max(minLength, 1);
+        start();
+
+    }
+
+    /**
+     * Loads the codon table from the resources.
+     *
+     * @return the amino acid encoded by the codons indexed by nucleotide code
+     *
+     * @throws IOException exception thrown if the codon table could not be
+     * loaded
+     */
+    private static char[] loadCodonTable() throws IOException {
+
+        Properties properties = new Properties();
+
+        try (InputStream codonStream = TranslatedFastaIterator.class.getClassLoader().getResourceAsStream(CODON_TABLE)) {
+
+            if (codonStream == null) {
+
+                throw new IOException("Codon table " + CODON_TABLE + " not found.");
+
+            }
+
+            properties.load(codonStream);
+
+        }
+
+        char[] table = new char[64];
+        Arrays.fill(table, UNKNOWN);
+
+        for (String codon : properties.stringPropertyNames()) {
+
+            String aminoAcid = properties.getProperty(codon).trim();
+
+            if (codon.length() == 3 && aminoAcid.length() == 1) {
+
+                int index = getCodonIndex(NUCLEOTIDE_CODE[codon.charAt(0)], NUCLEOTIDE_CODE[codon.charAt(1)], NUCLEOTIDE_CODE[codon.charAt(2)]);
+
+                if (index >= 0) {
+
+                    table[index] = aminoAcid.charAt(0);
+
+                }
+            }
+        }
+
+        return table;
+    }
+
+    /**
+     * Returns the index of a codon in the codon table, -1 if one of the
+     * nucleotides is unknown.
+     *
+     * @param code1 the code of the first nucleotide
+     * @param code2 the code of the second nucleotide
+     * @param code3 the code of the third nucleotide
+     *
+     * @return the index of the codon in the codon table
+     */
+    private static int getCodonIndex(int code1, int code2, int code3) {
+
+        if (code1 < 0 || code2 < 0 || code3 < 0) {
+            return -1;
+        }
+
+        return (code1 << 4) | (code2 << 2) | code3;
+    }
+
+    /**
+     * Reads the records of the file and queues their translation.
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * the file
+     * @throws InterruptedException exception thrown if the iterator was closed
+     * while waiting for space in the queue
+     */
+    @Override
+    protected void read() throws IOException, InterruptedException {
+
+        StringBuilder headerBuilder = new StringBuilder();
+        String name = null;
+        byte[] sequence = new byte[BATCH_SIZE];
+        int sequenceLength = 0;
+        boolean inHeader = false;
+        boolean lineStart = true;
+        byte[] buffer = new byte[BATCH_SIZE];
+        int read;
+
+        while ((read = inputStream.read(buffer)) != -1) {
+
+            for (int i = 0; i < read; i++) {
+
+                byte b = buffer[i];
+
+                if (b == '\n' || b == '\r') {
+
+                    if (inHeader) {
+
+                        name = getName(headerBuilder);
+                        inHeader = false;
+
+                    }
+
+                    lineStart = true;
+
+                } else if (inHeader) {
+
+                    headerBuilder.append((char) (b & 0xff));
+
+                } else if (lineStart && b == '>') {
+
+                    if (name != null) {
+
+                        add(new NucleotideRecord(name, Arrays.copyOf(sequence, sequenceLength)));
+
+                    }
+
+                    headerBuilder.setLength(0);
+                    name = null;
+                    sequenceLength = 0;
+                    inHeader = true;
+                    lineStart = false;
+
+                } else {
+
+                    lineStart = false;
+
+                    if (b > ' ') {
+
+                        if (name == null) {
+
+                            throw new IllegalArgumentException("Nucleotide sequence found before the first header.");
+
+                        }
+
+                        if (sequenceLength == sequence.length) {
+
+                            sequence = Arrays.copyOf(sequence, 2 * sequence.length);
+
+                        }
+
+                        sequence[sequenceLength++] = b;
+
+                    }
+                }
+            }
+        }
+
+        if (inHeader) {
+
+            name = getName(headerBuilder);
+
+        }
+
+        if (name != null) {
+
+            add(new NucleotideRecord(name, Arrays.copyOf(sequence, sequenceLength)));
+
+        }
+
+        if (!batch.isEmpty()) {
+
+            submit(batch);
+
+        }
+    }
+
+    /**
+     * Adds a record to the batch being gathered and queues the translation of
+     * the batch when large enough. The frames of records larger than a batch
+     * are queued separately.
+     *
+     * @param record the record
+     *
+     * @throws InterruptedException exception thrown if the thread is
+     * interrupted while waiting for space in the queue
+     */
+    private void add(NucleotideRecord record) throws InterruptedException {
+
+        if (record.sequence.length >= BATCH_SIZE) {
+
+            if (!batch.isEmpty()) {
+
+                submit(batch);
+                batch = new ArrayList<>();
+                batchNucleotides = 0;
+
+            }
+
+            submitFrames(record);
+
+        } else {
+
+            batch.add(record);
+            batchNucleotides += record.sequence.length;
+
+            if (batchNucleotides >= BATCH_SIZE) {
+
+                submit(batch);
+                batch = new ArrayList<>();
+                batchNucleotides = 0;
+
+            }
+        }
+    }
+
+    /**
+     * Returns the name of a nucleotide record, i.e., the first word of its
+     * header where '|' are replaced by '_'.
+     *
+     * @param headerBuilder the header without leading '&gt;'
+     *
+     * @return the name of the record
+     */
+    private static String getName(StringBuilder headerBuilder) {
+
+        String header = headerBuilder.toString().trim();
+        int end = 0;
+
+        while (end < header.length() && !Character.isWhitespace(header.charAt(end))) {
+            end++;
+        }
+
+        if (end == 0) {
+
+            throw new IllegalArgumentException("Empty header found in nucleotide fasta file.");
+
+        }
+
+        return header.substring(0, end).replace('|', '_');
+    }
+
+    /**
+     * Queues the translation of all frames of a batch of records.
+     *
+     * @param records the batch of records
+     *
+     * @throws InterruptedException exception thrown if the thread is
+     * interrupted while waiting for space in the queue
+     */
+    private void submit(ArrayList<NucleotideRecord> records) throws InterruptedException {
+
+        submit(() -> {
+
+            TranslationResult result = new TranslationResult();
+
+            try {
+
+                for (NucleotideRecord record : records) {
+
+                    for (int frame = 0; frame < 3; frame++) {
+
+                        translate(record, frame, false, result);
+
+                    }
+
+                    if (sixFrames) {
+
+                        for (int frame = 0; frame < 3; frame++) {
+
+                            translate(record, frame, true, result);
+
+                        }
+                    }
+                }
+
+            } catch (RuntimeException e) {
+
+                result.exception = e;
+
+            }
+
+            return result.getBatch();
+
+        });
+    }
+
+    /**
+     * Queues the translation of the frames of a record separately.
+     *
+     * @param record the record
+     *
+     * @throws InterruptedException exception thrown if the thread is
+     * interrupted while waiting for space in the queue
+     */
+    private void submitFrames(NucleotideRecord record) throws InterruptedException {
+
+        int nStrands = sixFrames ? 2 : 1;
+
+        for (int strand = 0; strand < nStrands; strand++) {
+
+            boolean reverse = strand == 1;
+
+            for (int frame = 0; frame < 3; frame++) {
+
+                int finalFrame = frame;
+
+                submit(() -> {
+
+                    TranslationResult result = new TranslationResult();
+
+                    try {
+
+                        translate(record, finalFrame, reverse, result);
+
+                    } catch (RuntimeException e) {
+
+                        result.exception = e;
+
+                    }
+
+                    return result.getBatch();
+
+                });
+            }
+        }
+    }
+
+    /**
+     * Translates a frame of a record and adds the open reading frames found to
+     * the result.
+     *
+     * @param record the record
+     * @param frame the offset of the frame, 0, 1, or 2
+     * @param reverse if true, the frame is read on the reverse strand
+     * @param result the result where to add the open reading frames
+     */
+    private void translate(NucleotideRecord record, int frame, boolean reverse, TranslationResult result) {
+
+        byte[] sequence = record.sequence;
+        int length = sequence.length;
+        int nCodons = (length - frame) / 3;
+        StringBuilder orf = new StringBuilder();
+        int orfStart = 0;
+
+        for (int codon = 0; codon < nCodons; codon++) {
+
+            int position = frame + 3 * codon;
+            int codonIndex;
+
+            if (reverse) {
+
+                int index1 = NUCLEOTIDE_CODE[sequence[length - 1 - position] & 0xff];
+                int index2 = NUCLEOTIDE_CODE[sequence[length - 2 - position] & 0xff];
+                int index3 = NUCLEOTIDE_CODE[sequence[length - 3 - position] & 0xff];
+                codonIndex = getCodonIndex(
+                        index1 < 0 ? -1 : 3 - index1,
+                        index2 < 0 ? -1 : 3 - index2,
+                        index3 < 0 ? -1 : 3 - index3
+                );
+
+            } else {
+
+                codonIndex = getCodonIndex(
+                        NUCLEOTIDE_CODE[sequence[position] & 0xff],
+                        NUCLEOTIDE_CODE[sequence[position + 1] & 0xff],
+                        NUCLEOTIDE_CODE[sequence[position + 2] & 0xff]
+                );
+
+            }
+
+            char aminoAcid = codonIndex == -1 ? UNKNOWN : codonTable[codonIndex];
+
+            if (aminoAcid == STOP) {
+
+                addOrf(record, frame, reverse, orfStart, codon, orf, result);
+                orf.setLength(0);
+                orfStart = codon + 1;
+
+            } else {
+
+                orf.append(aminoAcid);
+
+            }
+        }
+
+        addOrf(record, frame, reverse, orfStart, nCodons, orf, result);
+
+    }
+
+    /**
+     * Adds an open reading frame to the result if long enough.
+     *
+     * @param record the record
+     * @param frame the offset of the frame
+     * @param reverse if true, the frame is read on the reverse strand
+     * @param startCodon the index of the first codon of the open reading
+     * frame
+     * @param endCodon the index of the codon after the open reading frame
+     * @param orf the sequence of the open reading frame
+     * @param result the result where to add the open reading frame
+     */
+    private void addOrf(NucleotideRecord record, int frame, boolean reverse, int startCodon, int endCodon, StringBuilder orf, TranslationResult result) {
+
+        if (orf.length() < minLength) {
+            return;
+        }
+
+        int length = record.sequence.length;
+        int start, end;
+
+        if (reverse) {
+
+            start = length - frame - 3 * startCodon;
+            end = length - frame - 3 * endCodon + 1;
+
+        } else {
+
+            start = frame + 3 * startCodon + 1;
+            end = frame + 3 * endCodon;
+
+        }
+
+        String frameName = (reverse ? "r" : "f") + (frame + 1);
+        String accession = new StringBuilder(record.name.length() + 24)
+                .append(record.name).append('_')
+                .append(frameName).append('_')
+                .append(start).append('-').append(end)
+                .toString();
+        String description = "ORF " + record.name + " frame " + frameName + " nucleotides " + start + "-" + end;
+
+        result.proteins.add(new Protein(accession, orf.toString()));
+        result.headers.add(Header.parseFromFASTA(">generic|" + accession + "|" + description));
+
+    }
+
+    /**
+     * A record of the nucleotide fasta file.
+     */
+    private static class NucleotideRecord {
+
+        /**
+         * The name of the record.
+         */
+        private final String name;
+        /**
+         * The nucleotide sequence.
+         */
+        private final byte[] sequence;
+
+        /**
+         * Constructor.
+         *
+         * @param name the name of the record
+         * @param sequence the nucleotide sequence
+         */
+        private NucleotideRecord(String name, byte[] sequence) {
+
+            this.name = name;
+            this.sequence = sequence;
+
+        }
+    }
+
+    /**
+     * The open reading frames gathered during the translation of a batch.
+     */
+    private static class TranslationResult {
+
+        /**
+         * The proteins.
+         */
+        private final ArrayList<Protein> proteins = new ArrayList<>();
+        /**
+         * The headers of the proteins.
+         */
+        private final ArrayList<Header> headers = new ArrayList<>();
+        /**
+         * Exception encountered after the last protein, null if none.
+         */
+        private RuntimeException exception = null;
+
+        /**
+         * Returns the translated batch.
+         *
+         * @return the translated batch
+         */
+        private ProteinBatch getBatch() {
+            return new ProteinBatch(proteins.toArray(new Protein[proteins.size()]), headers.toArray(new Header[headers.size()]), exception);
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.compomics.util.experiment.io.mass_spectrometry.cms;
+
+import com.compomics.util.experiment.io.mass_spectrometry.mgf.MgfFileIterator;
+import com.compomics.util.experiment.io.mass_spectrometry.msp.MspFileIterator;
+import com.compomics.util.experiment.mass_spectrometry.SpectrumFactory;
+import com.compomics.util.waiting.WaitingHandler;
+import java.io.File;
+import java.io.IOException;
+import java.util.Set;
+import uk.ac.ebi.jmzml.xml.io.MzMLUnmarshaller;
+
+/**
+ * Converts spectrum files to cms files.
+ *
+ * @author Marc Vaudel
+ */
+public class CmsConverter {
+
+    /**
+     * Empty default constructor.
+     */
+    public CmsConverter() {
+    }
+
+    /**
+     * Converts the given spectrum file to a cms file in the same folder, see
+     * CmsFormat.getCmsFileName for the name of the file.
+     *
+     * @param spectrumFile the spectrum file, can be mgf, msp or mzML
+     * @param waitingHandler a waiting handler, can be null
+     *
+     * @return the cms file, null if the process was canceled
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * or writing a file
+     */
+    public static File convert(File spectrumFile, WaitingHandler waitingHandler) throws IOException {
+
+        File cmsFile = new File(spectrumFile.getParentFile(), CmsFormat.getCmsFileName(spectrumFile.getName()));
+
+        return convert(spectrumFile, cmsFile, waitingHandler) ? cmsFile : null;
+    }
+
+    /**
+     * Converts the given spectrum file to a cms file.
+     *
+     * @param spectrumFile the spectrum file, can be mgf, msp or mzML
+     * @param cmsFile the cms file to write
+     * @param waitingHandler a waiting handler, can be null
+     *
+     * @return true if the conversion completed, false if it was canceled
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * or writing a file
+     */
+    public static boolean convert(File spectrumFile, File cmsFile, WaitingHandler waitingHandler) throws IOException {
+
+        String fileName = spectrumFile.getName();
+        String lowerCaseName = fileName.toLowerCase();
+        boolean completed = true;
+        boolean written = false;
+
+        if (waitingHandler != null) {
+            waitingHandler.setSecondaryProgressCounterIndeterminate(true);
+        }
+
+        CmsFileWriter writer = new CmsFileWriter(cmsFile, fileName);
+
+        try {
+
+            if (lowerCaseName.endsWith(".mgf")) {
+
+                MgfFileIterator iterator = new MgfFileIterator(spectrumFile);
+
+                while (iterator.hasNext()) {
+
+                    writer.addSpectrum(iterator.next());
+
+                    if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                        completed = false;
+                        break;
+                    }
+                }
+
+            } else if (lowerCaseName.endsWith(".msp")) {
+
+                MspFileIterator iterator = new MspFileIterator(spectrumFile);
+
+                while (iterator.hasNext()) {
+
+                    writer.addSpectrum(iterator.next());
+
+                    if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                        completed = false;
+                        break;
+                    }
+                }
+
+            } else if (lowerCaseName.endsWith(".mzml")) {
+
+                MzMLUnmarshaller mzMLUnmarshaller = new MzMLUnmarshaller(spectrumFile);
+                Set<String> spectrumIds = mzMLUnmarshaller.getSpectrumIDs();
+
+                if (waitingHandler != null) {
+                    waitingHandler.setSecondaryProgressCounterIndeterminate(false);
+                    waitingHandler.setMaxSecondaryProgressCounter(spectrumIds.size());
+                    waitingHandler.setSecondaryProgressCounter(0);
+                }
+
+                for (String spectrumId : spectrumIds) {
+
+                    try {
+                        writer.addSpectrum(SpectrumFactory.convertMzMLSpectrum(mzMLUnmarshaller.getSpectrumById(spectrumId), spectrumId, fileName));
+                    } catch (Exception e) {
+                        throw new IOException("An error occurred while reading spectrum " + spectrumId + " of " + fileName + ".", e);
+                    }
+
+                    if (waitingHandler != null) {
+                        if (waitingHandler.isRunCanceled()) {
+                            completed = false;
+                            break;
+                        }
+                        waitingHandler.increaseSecondaryProgressCounter();
+                    }
+                }
+
+            } else {
+
+                throw new IllegalArgumentException("Spectrum file format not supported.");
+
+            }
+
+            if (completed) {
+                writer.close();
+                written = true;
+            }
+
+        } finally {
+
+            // do not leave truncated files behind when canceled or failing
+            if (!written) {
+                writer.delete();
+            }
+        }
+
+        if (waitingHandler != null) {
+            waitingHandler.setSecondaryProgressCounterIndeterminate(true);
+        }
+
+        return completed;
+    }
+}
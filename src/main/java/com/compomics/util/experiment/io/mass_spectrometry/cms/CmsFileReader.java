@@ -0,0 +1,650 @@
+package com.compomics.util.experiment.io.mass_spectrometry.cms;
+
+import com.compomics.util.experiment.io.mass_spectrometry.mgf.MgfIndex;
+import com.compomics.util.experiment.mass_spectrometry.spectra.Peak;
+import com.compomics.util.experiment.mass_spectrometry.spectra.Precursor;
+import com.compomics.util.experiment.mass_spectrometry.spectra.Spectrum;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reader for cms files. The precursor table is memory mapped and peak lists
+ * are retrieved with a single positional read. The reader can be used by
+ * multiple threads simultaneously. See CmsFormat for the layout of the file.
+ *
+ * @author Marc Vaudel
+ */
+public class CmsFileReader implements AutoCloseable {
+
+    /**
+     * The maximal number of records per mapped segment of the precursor table.
+     */
+    private static final int RECORDS_PER_SEGMENT = Integer.MAX_VALUE / CmsFormat.RECORD_LENGTH;
+    /**
+     * The cms file.
+     */
+    private final File cmsFile;
+    /**
+     * The random access file.
+     */
+    private final RandomAccessFile raf;
+    /**
+     * The channel to the file.
+     */
+    private final FileChannel fileChannel;
+    /**
+     * The number of spectra in the file.
+     */
+    private final int nSpectra;
+    /**
+     * The flags of the file.
+     */
+    private final int flags;
+    /**
+     * The mapped segments of the precursor table.
+     */
+    private final MappedByteBuffer[] precursorTable;
+    /**
+     * The name of the file the spectra originate from.
+     */
+    private final String originalFileName;
+    /**
+     * The spectrum titles.
+     */
+    private final String[] titles;
+    /**
+     * The scan numbers.
+     */
+    private final String[] scanNumbers;
+
+    /**
+     * Constructor.
+     *
+     * @param cmsFile the cms file
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * the file
+     */
+    public CmsFileReader(File cmsFile) throws IOException {
+
+        this.cmsFile = cmsFile;
+        raf = new RandomAccessFile(cmsFile, "r");
+        fileChannel = raf.getChannel();
+
+        ByteBuffer header = ByteBuffer.allocate(CmsFormat.HEADER_LENGTH);
+        readFully(header, 0);
+
+        if (header.getInt(0) != CmsFormat.MAGIC_NUMBER) {
+            close();
+            throw new IllegalArgumentException(cmsFile.getName() + " is not a cms file.");
+        }
+
+        int version = header.getInt(4);
+
+        if (version != CmsFormat.VERSION) {
+            close();
+            throw new IllegalArgumentException("Cms file version " + version + " not supported.");
+        }
+
+        nSpectra = header.getInt(CmsFormat.HEADER_N_SPECTRA);
+        flags = header.getInt(CmsFormat.HEADER_FLAGS);
+        long precursorTableOffset = header.getLong(CmsFormat.HEADER_PRECURSOR_TABLE);
+        long stringTableOffset = header.getLong(CmsFormat.HEADER_STRING_TABLE);
+        long stringTableLength = header.getLong(CmsFormat.HEADER_STRING_TABLE_LENGTH);
+
+        // map the precursor table
+        int nSegments = nSpectra / RECORDS_PER_SEGMENT + 1;
+        precursorTable = new MappedByteBuffer[nSegments];
+
+        for (int i = 0; i < nSegments; i++) {
+            int nRecords = Math.min(RECORDS_PER_SEGMENT, nSpectra - i * RECORDS_PER_SEGMENT);
+            long segmentOffset = precursorTableOffset + ((long) i) * RECORDS_PER_SEGMENT * CmsFormat.RECORD_LENGTH;
+            precursorTable[i] = fileChannel.map(FileChannel.MapMode.READ_ONLY, segmentOffset, ((long) nRecords) * CmsFormat.RECORD_LENGTH);
+        }
+
+        // read the strings
+        titles = new String[nSpectra];
+        scanNumbers = new String[nSpectra];
+        StringTableReader stringTableReader = new StringTableReader(stringTableOffset, stringTableLength);
+        originalFileName = stringTableReader.next();
+
+        for (int i = 0; i < nSpectra; i++) {
+            titles[i] = stringTableReader.next();
+            scanNumbers[i] = stringTableReader.next();
+        }
+    }
+
+    /**
+     * Returns the cms file.
+     *
+     * @return the cms file
+     */
+    public File getFile() {
+        return cmsFile;
+    }
+
+    /**
+     * Returns the name of the file the spectra originate from.
+     *
+     * @return the name of the file the spectra originate from
+     */
+    public String getOriginalFileName() {
+        return originalFileName;
+    }
+
+    /**
+     * Returns the number of spectra in the file.
+     *
+     * @return the number of spectra in the file
+     */
+    public int getNSpectra() {
+        return nSpectra;
+    }
+
+    /**
+     * Returns the title of the spectrum at the given rank, 0 being the first
+     * spectrum.
+     *
+     * @param spectrumNumber the rank of the spectrum in the file
+     *
+     * @return the title of the spectrum
+     */
+    public String getSpectrumTitle(int spectrumNumber) {
+        return titles[spectrumNumber];
+    }
+
+    /**
+     * Returns the precursor m/z of the spectrum at the given rank, NaN if the
+     * spectrum has no precursor.
+     *
+     * @param spectrumNumber the rank of the spectrum in the file
+     *
+     * @return the precursor m/z
+     */
+    public double getPrecursorMz(int spectrumNumber) {
+        return getRecordDouble(spectrumNumber, CmsFormat.RECORD_MZ);
+    }
+
+    /**
+     * Returns the precursor of the spectrum at the given rank, null if the
+     * spectrum has no precursor.
+     *
+     * @param spectrumNumber the rank of the spectrum in the file
+     *
+     * @return the precursor
+     */
+    public Precursor getPrecursor(int spectrumNumber) {
+
+        double mz = getRecordDouble(spectrumNumber, CmsFormat.RECORD_MZ);
+
+        if (Double.isNaN(mz)) {
+            return null;
+        }
+
+        int chargeBits = getRecordInt(spectrumNumber, CmsFormat.RECORD_CHARGES);
+        int negativeChargeBits = getRecordInt(spectrumNumber, CmsFormat.RECORD_NEGATIVE_CHARGES);
+        ArrayList<Integer> charges = new ArrayList<>(Integer.bitCount(chargeBits) + Integer.bitCount(negativeChargeBits));
+
+        for (int charge = 0; charge <= CmsFormat.MAX_CHARGE; charge++) {
+            if ((chargeBits & (1 << charge)) != 0) {
+                charges.add(charge);
+            }
+        }
+
+        for (int charge = 1; charge <= CmsFormat.MAX_CHARGE; charge++) {
+            if ((negativeChargeBits & (1 << charge)) != 0) {
+                charges.add(-charge);
+            }
+        }
+
+        return new Precursor(
+                getRecordDouble(spectrumNumber, CmsFormat.RECORD_RT),
+                mz,
+                getRecordDouble(spectrumNumber, CmsFormat.RECORD_INTENSITY),
+                charges,
+                getRecordDouble(spectrumNumber, CmsFormat.RECORD_RT_MIN),
+                getRecordDouble(spectrumNumber, CmsFormat.RECORD_RT_MAX));
+    }
+
+    /**
+     * Returns the spectrum at the given rank.
+     *
+     * @param spectrumNumber the rank of the spectrum in the file
+     *
+     * @return the spectrum
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * the file
+     */
+    public Spectrum getSpectrum(int spectrumNumber) throws IOException {
+
+        double[][] peaks = readPeaks(spectrumNumber, true);
+        HashMap<Double, Peak> peakMap = new HashMap<>(peaks[0].length);
+
+        for (int i = 0; i < peaks[0].length; i++) {
+            double mz = peaks[0][i];
+            peakMap.put(mz, new Peak(mz, peaks[1][i], peaks[2][i]));
+        }
+
+        Spectrum spectrum = new Spectrum(
+                getRecordInt(spectrumNumber, CmsFormat.RECORD_LEVEL),
+                getPrecursor(spectrumNumber),
+                titles[spectrumNumber],
+                peakMap,
+                cmsFile.getName(),
+                getRecordDouble(spectrumNumber, CmsFormat.RECORD_SCAN_START_TIME));
+
+        if (scanNumbers[spectrumNumber] != null) {
+            spectrum.setScanNumber(scanNumbers[spectrumNumber]);
+        }
+
+        return spectrum;
+    }
+
+    /**
+     * Returns the peaks of the spectrum at the given rank as arrays of m/z and
+     * intensities sorted by m/z.
+     *
+     * @param spectrumNumber the rank of the spectrum in the file
+     *
+     * @return the peaks of the spectrum as m/z and intensity arrays
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * the file
+     */
+    public double[][] getPeaks(int spectrumNumber) throws IOException {
+        return readPeaks(spectrumNumber, false);
+    }
+
+    /**
+     * Returns the peaks of the spectrum at the given rank as arrays of m/z,
+     * intensities, and optionally retention times, sorted by m/z.
+     *
+     * @param spectrumNumber the rank of the spectrum in the file
+     * @param retentionTimes if true, the retention times of the peaks are
+     * returned as third array
+     *
+     * @return the peaks of the spectrum as m/z, intensity, and retention time
+     * arrays
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * the file
+     */
+    private double[][] readPeaks(int spectrumNumber, boolean retentionTimes) throws IOException {
+
+        long peaksOffset = getRecordLong(spectrumNumber, CmsFormat.RECORD_PEAKS_OFFSET);
+        int compressedLength = getRecordInt(spectrumNumber, CmsFormat.RECORD_PEAKS_LENGTH);
+        int nPeaks = getRecordInt(spectrumNumber, CmsFormat.RECORD_N_PEAKS);
+        double peaksRt = getRecordDouble(spectrumNumber, CmsFormat.RECORD_PEAKS_RT);
+        boolean peakRts = Double.isNaN(peaksRt);
+
+        ByteBuffer compressed = ByteBuffer.allocate(compressedLength);
+        readFully(compressed, peaksOffset);
+
+        byte[] encoded = new byte[5 + (peakRts ? 22 : 14) * nPeaks];
+        Inflater inflater = new Inflater();
+        int length = 0;
+
+        try {
+
+            inflater.setInput(compressed.array(), 0, compressedLength);
+
+            while (!inflater.finished() && length < encoded.length) {
+
+                int inflated = inflater.inflate(encoded, length, encoded.length - length);
+
+                if (inflated == 0 && inflater.needsInput()) {
+                    break;
+                }
+
+                length += inflated;
+            }
+
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupted peak list for spectrum " + titles[spectrumNumber] + " in " + cmsFile.getName() + ".", e);
+        } finally {
+            inflater.end();
+        }
+
+        // decode the m/z
+        int[] offset = new int[1];
+        int nEncodedPeaks = (int) readVarLong(encoded, offset);
+
+        if (nEncodedPeaks != nPeaks) {
+            throw new IOException("Corrupted peak list for spectrum " + titles[spectrumNumber] + " in " + cmsFile.getName() + ".");
+        }
+
+        double[] mzs = new double[nPeaks];
+        long quantizedMz = 0;
+
+        for (int i = 0; i < nPeaks; i++) {
+            quantizedMz += readVarLong(encoded, offset);
+            mzs[i] = quantizedMz * CmsFormat.MZ_RESOLUTION;
+        }
+
+        // decode the intensities
+        double[] intensities = new double[nPeaks];
+        ByteBuffer intensityBuffer = ByteBuffer.wrap(encoded, offset[0], 4 * nPeaks);
+
+        for (int i = 0; i < nPeaks; i++) {
+            intensities[i] = intensityBuffer.getFloat();
+        }
+
+        if (!retentionTimes) {
+            return new double[][]{mzs, intensities};
+        }
+
+        // decode the retention times
+        double[] rts = new double[nPeaks];
+
+        if (peakRts) {
+
+            ByteBuffer rtBuffer = ByteBuffer.wrap(encoded, offset[0] + 4 * nPeaks, 8 * nPeaks);
+
+            for (int i = 0; i < nPeaks; i++) {
+                rts[i] = rtBuffer.getDouble();
+            }
+
+        } else {
+
+            Arrays.fill(rts, peaksRt);
+
+        }
+
+        return new double[][]{mzs, intensities, rts};
+    }
+
+    /**
+     * Returns an index of the file, where the index of every spectrum is its
+     * rank in the file. Titles found multiple times are renamed like in the
+     * indexes of mgf files.
+     *
+     * @return an index of the file
+     */
+    public MgfIndex getIndex() {
+
+        ArrayList<String> spectrumTitles = new ArrayList<>(nSpectra);
+        HashMap<String, Long> indexMap = new HashMap<>(nSpectra);
+        HashMap<String, Integer> spectrumNumberIndexMap = new HashMap<>(nSpectra);
+        HashMap<Integer, Double> precursorMzMap = new HashMap<>(nSpectra);
+        HashMap<String, Integer> duplicateTitles = new HashMap<>();
+        double maxRT = -1, minRT = Double.MAX_VALUE, maxMz = -1, maxIntensity = 0;
+        int maxCharge = 0, maxPeakCount = 0;
+
+        for (int i = 0; i < nSpectra; i++) {
+
+            String title = titles[i];
+
+            if (title != null) {
+
+                Integer nDuplicates = duplicateTitles.get(title);
+
+                if (nDuplicates != null || indexMap.containsKey(title)) {
+                    if (nDuplicates == null) {
+                        nDuplicates = 0;
+                        System.err.println("Warning: Spectrum title " + title + " is not unique in " + cmsFile.getName() + "!");
+                    }
+                    duplicateTitles.put(title, ++nDuplicates);
+                    title += "_" + nDuplicates;
+                }
+
+                spectrumTitles.add(title);
+                indexMap.put(title, (long) i);
+                spectrumNumberIndexMap.put(title, i);
+            }
+
+            double mz = getRecordDouble(i, CmsFormat.RECORD_MZ);
+
+            if (!Double.isNaN(mz)) {
+
+                precursorMzMap.put(i, mz);
+
+                if (mz > maxMz) {
+                    maxMz = mz;
+                }
+
+                double intensity = getRecordDouble(i, CmsFormat.RECORD_INTENSITY);
+
+                if (intensity > maxIntensity) {
+                    maxIntensity = intensity;
+                }
+
+                double rtMin = getRecordDouble(i, CmsFormat.RECORD_RT_MIN);
+                double rtMax = getRecordDouble(i, CmsFormat.RECORD_RT_MAX);
+
+                if (rtMin != -1 && rtMin < minRT) {
+                    minRT = rtMin;
+                }
+                if (rtMax > maxRT) {
+                    maxRT = rtMax;
+                }
+
+                int chargeBits = getRecordInt(i, CmsFormat.RECORD_CHARGES);
+                int charge = 31 - Integer.numberOfLeadingZeros(chargeBits);
+
+                if (charge > maxCharge) {
+                    maxCharge = charge;
+                }
+            }
+
+            int nPeaks = getRecordInt(i, CmsFormat.RECORD_N_PEAKS);
+
+            if (nPeaks > maxPeakCount) {
+                maxPeakCount = nPeaks;
+            }
+        }
+
+        if (minRT == Double.MAX_VALUE) {
+            minRT = 0;
+        }
+
+        return new MgfIndex(spectrumTitles, duplicateTitles, indexMap, spectrumNumberIndexMap, precursorMzMap, cmsFile.getName(), minRT, maxRT,
+                maxMz, maxIntensity, maxCharge, maxPeakCount, (flags & CmsFormat.FLAG_NOT_PEAK_PICKED) == 0, (flags & CmsFormat.FLAG_CHARGES_MISSING) != 0,
+                cmsFile.lastModified(), nSpectra);
+    }
+
+    /**
+     * Closes the file.
+     *
+     * @throws IOException exception thrown if an error occurred while closing
+     * the file
+     */
+    @Override
+    public void close() throws IOException {
+        raf.close();
+    }
+
+    /**
+     * Returns a double from the record of the given spectrum.
+     *
+     * @param spectrumNumber the rank of the spectrum in the file
+     * @param fieldOffset the offset of the field in the record
+     *
+     * @return the value
+     */
+    private double getRecordDouble(int spectrumNumber, int fieldOffset) {
+        return precursorTable[spectrumNumber / RECORDS_PER_SEGMENT].getDouble((spectrumNumber % RECORDS_PER_SEGMENT) * CmsFormat.RECORD_LENGTH + fieldOffset);
+    }
+
+    /**
+     * Returns a long from the record of the given spectrum.
+     *
+     * @param spectrumNumber the rank of the spectrum in the file
+     * @param fieldOffset the offset of the field in the record
+     *
+     * @return the value
+     */
+    private long getRecordLong(int spectrumNumber, int fieldOffset) {
+        return precursorTable[spectrumNumber / RECORDS_PER_SEGMENT].getLong((spectrumNumber % RECORDS_PER_SEGMENT) * CmsFormat.RECORD_LENGTH + fieldOffset);
+    }
+
+    /**
+     * Returns an int from the record of the given spectrum.
+     *
+     * @param spectrumNumber the rank of the spectrum in the file
+     * @param fieldOffset the offset of the field in the record
+     *
+     * @return the value
+     */
+    private int getRecordInt(int spectrumNumber, int fieldOffset) {
+        return precursorTable[spectrumNumber / RECORDS_PER_SEGMENT].getInt((spectrumNumber % RECORDS_PER_SEGMENT) * CmsFormat.RECORD_LENGTH + fieldOffset);
+    }
+
+    /**
+     * Fills the given buffer with the content of the file at the given
+     * position.
+     *
+     * @param buffer the buffer to fill
+     * @param position the position in the file
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * the file
+     */
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+
+        long filePosition = position;
+
+        while (buffer.hasRemaining()) {
+
+            int nRead = fileChannel.read(buffer, filePosition);
+
+            if (nRead < 0) {
+                throw new IOException("Unexpected end of file " + cmsFile.getName() + ".");
+            }
+
+            filePosition += nRead;
+        }
+    }
+
+    /**
+     * Reads a varint from the given buffer.
+     *
+     * @param buffer the buffer
+     * @param offset the offset where to read, updated to the offset after the
+     * value
+     *
+     * @return the value
+     */
+    private static long readVarLong(byte[] buffer, int[] offset) {
+
+        long value = 0;
+        int shift = 0;
+        byte b;
+
+        do {
+            b = buffer[offset[0]++];
+            value |= ((long) (b & 0x7F)) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+
+        return value;
+    }
+
+    /**
+     * Sequential reader of the string table.
+     */
+    private class StringTableReader {
+
+        /**
+         * The buffer used to read the table.
+         */
+        private final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        /**
+         * The position of the buffer in the file.
+         */
+        private long bufferPosition;
+        /**
+         * The end of the table.
+         */
+        private final long end;
+
+        /**
+         * Constructor.
+         *
+         * @param offset the offset of the table in the file
+         * @param length the length of the table
+         *
+         * @throws IOException exception thrown if an error occurred while
+         * reading the file
+         */
+        private StringTableReader(long offset, long length) throws IOException {
+            bufferPosition = offset;
+            end = offset + length;
+            buffer.limit(0);
+        }
+
+        /**
+         * Makes sure that the given number of bytes can be read from the
+         * buffer.
+         *
+         * @param nBytes the number of bytes needed
+         *
+         * @return the buffer to read from
+         *
+         * @throws IOException exception thrown if an error occurred while
+         * reading the file
+         */
+        private ByteBuffer ensureAvailable(int nBytes) throws IOException {
+
+            if (buffer.remaining() >= nBytes) {
+                return buffer;
+            }
+
+            if (nBytes > buffer.capacity()) {
+                ByteBuffer largeBuffer = ByteBuffer.allocate(nBytes);
+                long position = bufferPosition - buffer.remaining();
+                readFully(largeBuffer, position);
+                largeBuffer.flip();
+                bufferPosition = position + nBytes;
+                buffer.limit(0);
+                return largeBuffer;
+            }
+
+            buffer.compact();
+            int toRead = (int) Math.min(buffer.remaining(), end - bufferPosition);
+            buffer.limit(buffer.position() + toRead);
+            readFully(buffer, bufferPosition);
+            bufferPosition += toRead;
+            buffer.flip();
+
+            if (buffer.remaining() < nBytes) {
+                throw new IOException("Unexpected end of the string table in " + cmsFile.getName() + ".");
+            }
+
+            return buffer;
+        }
+
+        /**
+         * Returns the next string of the table.
+         *
+         * @return the next string of the table
+         *
+         * @throws IOException exception thrown if an error occurred while
+         * reading the file
+         */
+        private String next() throws IOException {
+
+            int length = ensureAvailable(4).getInt();
+
+            if (length == -1) {
+                return null;
+            }
+
+            ByteBuffer source = ensureAvailable(length);
+            String result = new String(source.array(), source.arrayOffset() + source.position(), length, StandardCharsets.UTF_8);
+            source.position(source.position() + length);
+
+            return result;
+        }
+    }
+}
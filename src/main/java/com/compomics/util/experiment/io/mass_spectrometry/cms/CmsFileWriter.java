@@ -0,0 +1,445 @@
+package com.compomics.util.experiment.io.mass_spectrometry.cms;
+
+import com.compomics.util.experiment.mass_spectrometry.spectra.Peak;
+import com.compomics.util.experiment.mass_spectrometry.spectra.Precursor;
+import com.compomics.util.experiment.mass_spectrometry.spectra.Spectrum;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.zip.Deflater;
+
+/**
+ * Writer for cms files. Spectra are appended one by one, the tables are
+ * written upon closing the writer. See CmsFormat for the layout of the file.
+ *
+ * @author Marc Vaudel
+ */
+public class CmsFileWriter implements AutoCloseable {
+
+    /**
+     * The size of the output buffers.
+     */
+    private static final int BUFFER_SIZE = 1024 * 1024;
+    /**
+     * The cms file.
+     */
+    private final File cmsFile;
+    /**
+     * Temporary file for the precursor table.
+     */
+    private final File precursorTableFile;
+    /**
+     * Temporary file for the string table.
+     */
+    private final File stringTableFile;
+    /**
+     * The stream to the cms file.
+     */
+    private final DataOutputStream peaksStream;
+    /**
+     * The stream to the precursor table.
+     */
+    private final DataOutputStream precursorStream;
+    /**
+     * The stream to the string table.
+     */
+    private final DataOutputStream stringStream;
+    /**
+     * The current position in the cms file.
+     */
+    private long position = CmsFormat.HEADER_LENGTH;
+    /**
+     * The length of the string table.
+     */
+    private long stringTableLength = 0;
+    /**
+     * The number of spectra written.
+     */
+    private int nSpectra = 0;
+    /**
+     * The flags of the file.
+     */
+    private int flags = 0;
+    /**
+     * The deflater used to compress the peak lists.
+     */
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    /**
+     * Buffer for the encoded peak lists.
+     */
+    private byte[] encodingBuffer = new byte[1024];
+    /**
+     * Buffer for the compressed peak lists.
+     */
+    private byte[] compressionBuffer = new byte[1024];
+
+    /**
+     * Constructor.
+     *
+     * @param cmsFile the file to write
+     * @param originalFileName the name of the file the spectra originate from
+     *
+     * @throws IOException exception thrown if an error occurred while opening
+     * the file
+     */
+    public CmsFileWriter(File cmsFile, String originalFileName) throws IOException {
+
+        this.cmsFile = cmsFile;
+        precursorTableFile = new File(cmsFile.getParentFile(), cmsFile.getName() + ".precursors_temp");
+        stringTableFile = new File(cmsFile.getParentFile(), cmsFile.getName() + ".strings_temp");
+
+        peaksStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(cmsFile), BUFFER_SIZE));
+        precursorStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(precursorTableFile), BUFFER_SIZE));
+        stringStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(stringTableFile), BUFFER_SIZE));
+
+        // placeholder for the header
+        peaksStream.write(new byte[CmsFormat.HEADER_LENGTH]);
+
+        writeString(originalFileName);
+    }
+
+    /**
+     * Adds a spectrum to the file.
+     *
+     * @param spectrum the spectrum
+     *
+     * @throws IOException exception thrown if an error occurred while writing
+     * the file
+     */
+    public void addSpectrum(Spectrum spectrum) throws IOException {
+
+        HashMap<Double, Peak> peakMap = spectrum.getPeakMap();
+        int nPeaks = peakMap == null ? 0 : peakMap.size();
+        double[] mzs = new double[nPeaks];
+        int i = 0;
+
+        if (peakMap != null) {
+            for (double mz : peakMap.keySet()) {
+                mzs[i++] = mz;
+            }
+        }
+
+        Arrays.sort(mzs);
+
+        // the retention time of the peaks, NaN if it differs between peaks
+        double peaksRt = nPeaks == 0 ? -1.0 : peakMap.get(mzs[0]).rt;
+
+        for (double mz : mzs) {
+            if (Double.compare(peakMap.get(mz).rt, peaksRt) != 0) {
+                peaksRt = Double.NaN;
+                break;
+            }
+        }
+
+        boolean peakRts = Double.isNaN(peaksRt);
+
+        // encode the peaks
+        ensureEncodingCapacity(5 + (peakRts ? 22 : 14) * nPeaks);
+        int length = writeVarLong(nPeaks, encodingBuffer, 0);
+        long previousMz = 0;
+
+        for (double mz : mzs) {
+            long quantizedMz = Math.round(mz / CmsFormat.MZ_RESOLUTION);
+            length = writeVarLong(quantizedMz - previousMz, encodingBuffer, length);
+            previousMz = quantizedMz;
+        }
+
+        ByteBuffer intensityBuffer = ByteBuffer.wrap(encodingBuffer, length, 4 * nPeaks);
+
+        for (double mz : mzs) {
+
+            double intensity = peakMap.get(mz).intensity;
+
+            if (intensity == 0.0) {
+                flags |= CmsFormat.FLAG_NOT_PEAK_PICKED;
+            }
+
+            intensityBuffer.putFloat((float) intensity);
+        }
+
+        length += 4 * nPeaks;
+
+        if (peakRts) {
+
+            ByteBuffer rtBuffer = ByteBuffer.wrap(encodingBuffer, length, 8 * nPeaks);
+
+            for (double mz : mzs) {
+                rtBuffer.putDouble(peakMap.get(mz).rt);
+            }
+
+            length += 8 * nPeaks;
+        }
+
+        // compress
+        deflater.reset();
+        deflater.setInput(encodingBuffer, 0, length);
+        deflater.finish();
+        int compressedLength = 0;
+
+        while (!deflater.finished()) {
+            if (compressedLength == compressionBuffer.length) {
+                compressionBuffer = Arrays.copyOf(compressionBuffer, 2 * compressionBuffer.length);
+            }
+            compressedLength += deflater.deflate(compressionBuffer, compressedLength, compressionBuffer.length - compressedLength);
+        }
+
+        long peaksOffset = position;
+        peaksStream.write(compressionBuffer, 0, compressedLength);
+        position += compressedLength;
+
+        // precursor record
+        Precursor precursor = spectrum.getPrecursor();
+
+        if (precursor != null) {
+
+            double[] rtWindow = precursor.getRtWindow();
+            int charges = 0, negativeCharges = 0;
+
+            for (int charge : precursor.getPossibleCharges()) {
+
+                if (Math.abs(charge) > CmsFormat.MAX_CHARGE) {
+                    throw new IllegalArgumentException("Charge " + charge + " of spectrum " + spectrum.getSpectrumTitle() + " cannot be stored in a cms file.");
+                }
+
+                if (charge >= 0) {
+                    charges |= 1 << charge;
+                } else {
+                    negativeCharges |= 1 << -charge;
+                }
+            }
+
+            if (charges == 0 && negativeCharges == 0) {
+                flags |= CmsFormat.FLAG_CHARGES_MISSING;
+            }
+
+            precursorStream.writeDouble(precursor.getMz());
+            precursorStream.writeDouble(precursor.getIntensity());
+            precursorStream.writeDouble(precursor.getRt());
+            precursorStream.writeDouble(rtWindow[0]);
+            precursorStream.writeDouble(rtWindow[1]);
+            precursorStream.writeDouble(spectrum.getScanStartTime());
+            precursorStream.writeLong(peaksOffset);
+            precursorStream.writeInt(compressedLength);
+            precursorStream.writeInt(charges);
+            precursorStream.writeInt(spectrum.getLevel());
+            precursorStream.writeInt(nPeaks);
+            precursorStream.writeInt(negativeCharges);
+            precursorStream.writeDouble(peaksRt);
+
+        } else {
+
+            precursorStream.writeDouble(Double.NaN);
+            precursorStream.writeDouble(0.0);
+            precursorStream.writeDouble(-1.0);
+            precursorStream.writeDouble(-1.0);
+            precursorStream.writeDouble(-1.0);
+            precursorStream.writeDouble(spectrum.getScanStartTime());
+            precursorStream.writeLong(peaksOffset);
+            precursorStream.writeInt(compressedLength);
+            precursorStream.writeInt(0);
+            precursorStream.writeInt(spectrum.getLevel());
+            precursorStream.writeInt(nPeaks);
+            precursorStream.writeInt(0);
+            precursorStream.writeDouble(peaksRt);
+
+        }
+
+        writeString(spectrum.getSpectrumTitle());
+        writeString(spectrum.getScanNumber());
+
+        nSpectra++;
+    }
+
+    /**
+     * Returns the number of spectra written.
+     *
+     * @return the number of spectra written
+     */
+    public int getNSpectra() {
+        return nSpectra;
+    }
+
+    /**
+     * Writes the tables and the header and closes the file. If an error
+     * occurs, the cms file and the temporary files are deleted.
+     *
+     * @throws IOException exception thrown if an error occurred while writing
+     * the file
+     */
+    @Override
+    public void close() throws IOException {
+
+        try {
+
+            finish();
+
+        } catch (IOException | RuntimeException e) {
+
+            delete();
+            throw e;
+
+        }
+    }
+
+    /**
+     * Closes the streams and deletes the cms file and the temporary files,
+     * typically when the conversion failed or was canceled. Can be called
+     * after close.
+     */
+    public void delete() {
+
+        deflater.end();
+        closeQuietly(precursorStream);
+        closeQuietly(stringStream);
+        closeQuietly(peaksStream);
+
+        cmsFile.delete();
+        precursorTableFile.delete();
+        stringTableFile.delete();
+    }
+
+    /**
+     * Closes a stream, ignoring errors.
+     *
+     * @param stream the stream to close
+     */
+    private static void closeQuietly(DataOutputStream stream) {
+
+        try {
+            stream.close();
+        } catch (IOException e) {
+            // the file is deleted anyway
+        }
+    }
+
+    /**
+     * Writes the tables and the header and closes the file.
+     *
+     * @throws IOException exception thrown if an error occurred while writing
+     * the file
+     */
+    private void finish() throws IOException {
+
+        deflater.end();
+        precursorStream.close();
+        stringStream.close();
+        peaksStream.close();
+
+        long precursorTableOffset = position;
+        long stringTableOffset = precursorTableOffset + precursorTableFile.length();
+
+        try (RandomAccessFile raf = new RandomAccessFile(cmsFile, "rw")) {
+
+            FileChannel outputChannel = raf.getChannel();
+
+            appendFile(precursorTableFile, outputChannel, precursorTableOffset);
+            appendFile(stringTableFile, outputChannel, stringTableOffset);
+
+            ByteBuffer header = ByteBuffer.allocate(CmsFormat.HEADER_LENGTH);
+            header.putInt(0, CmsFormat.MAGIC_NUMBER);
+            header.putInt(4, CmsFormat.VERSION);
+            header.putInt(CmsFormat.HEADER_N_SPECTRA, nSpectra);
+            header.putInt(CmsFormat.HEADER_FLAGS, flags);
+            header.putLong(CmsFormat.HEADER_PRECURSOR_TABLE, precursorTableOffset);
+            header.putLong(CmsFormat.HEADER_STRING_TABLE, stringTableOffset);
+            header.putLong(CmsFormat.HEADER_STRING_TABLE_LENGTH, stringTableLength);
+
+            while (header.hasRemaining()) {
+                outputChannel.write(header, header.position());
+            }
+        }
+
+        precursorTableFile.delete();
+        stringTableFile.delete();
+    }
+
+    /**
+     * Copies the content of a file at the given position of a channel.
+     *
+     * @param file the file to copy
+     * @param outputChannel the destination channel
+     * @param position the position where to copy the file
+     *
+     * @throws IOException exception thrown if an error occurred while copying
+     * the file
+     */
+    private static void appendFile(File file, FileChannel outputChannel, long position) throws IOException {
+
+        try (FileChannel inputChannel = new FileInputStream(file).getChannel()) {
+
+            long length = inputChannel.size();
+            long transferred = 0;
+
+            while (transferred < length) {
+                transferred += outputChannel.transferFrom(inputChannel, position + transferred, length - transferred);
+            }
+        }
+    }
+
+    /**
+     * Writes a string to the string table.
+     *
+     * @param string the string, can be null
+     *
+     * @throws IOException exception thrown if an error occurred while writing
+     * the file
+     */
+    private void writeString(String string) throws IOException {
+
+        if (string == null) {
+
+            stringStream.writeInt(-1);
+            stringTableLength += 4;
+
+        } else {
+
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            stringStream.writeInt(bytes.length);
+            stringStream.write(bytes);
+            stringTableLength += 4 + bytes.length;
+
+        }
+    }
+
+    /**
+     * Makes sure that the encoding buffer has the given capacity.
+     *
+     * @param capacity the capacity needed
+     */
+    private void ensureEncodingCapacity(int capacity) {
+
+        if (encodingBuffer.length < capacity) {
+            encodingBuffer = new byte[Math.max(capacity, 2 * encodingBuffer.length)];
+        }
+    }
+
+    /**
+     * Writes a positive long as varint in the given buffer.
+     *
+     * @param value the value
+     * @param buffer the buffer
+     * @param offset the offset where to write
+     *
+     * @return the offset after the value
+     */
+    private static int writeVarLong(long value, byte[] buffer, int offset) {
+
+        while ((value & ~0x7FL) != 0) {
+            buffer[offset++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+
+        buffer[offset++] = (byte) value;
+
+        return offset;
+    }
+}
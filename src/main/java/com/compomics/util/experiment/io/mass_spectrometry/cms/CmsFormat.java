@@ -0,0 +1,170 @@
+package com.compomics.util.experiment.io.mass_spectrometry.cms;
+
+/**
+ * Layout of the compomics mass spectrometry (cms) files.
+ *
+ * A cms file starts with a header of fixed length, followed by the compressed
+ * peak lists of the spectra, the precursor table, and the string table.
+ * <br>
+ * The header contains: the magic number (int), the format version (int), the
+ * number of spectra (int), the flags (int), the offset of the precursor table
+ * (long), the offset of the string table (long), and the length of the string
+ * table (long).
+ * <br>
+ * Every peak list is deflated and contains the number of peaks (varint), the
+ * m/z values rounded to the m/z resolution and delta encoded (varints), the
+ * intensities (floats), and, only if the peaks of the spectrum have different
+ * retention times, the retention times of the peaks (doubles).
+ * <br>
+ * The precursor table contains one record of fixed length per spectrum, see
+ * the offsets below. A NaN precursor m/z indicates that the spectrum has no
+ * precursor. The positive and negative precursor charges are stored in two
+ * bit fields. The retention time shared by the peaks of a spectrum is stored
+ * in the record, NaN indicating that the retention times are stored per peak
+ * in the peak list.
+ * <br>
+ * The string table contains the name of the original spectrum file followed
+ * by the title and the scan number of every spectrum, stored as UTF-8 bytes
+ * preceded by their length (int), -1 indicating a null value.
+ *
+ * @author Marc Vaudel
+ */
+public class CmsFormat {
+
+    /**
+     * Empty default constructor.
+     */
+    private CmsFormat() {
+    }
+
+    /**
+     * The extension of cms files.
+     */
+    public static final String EXTENSION = ".cms";
+    /**
+     * The magic number at the start of cms files.
+     */
+    public static final int MAGIC_NUMBER = 0x434D5331;
+    /**
+     * The version of the format.
+     */
+    public static final int VERSION = 3;
+    /**
+     * The length of the header.
+     */
+    public static final int HEADER_LENGTH = 64;
+    /**
+     * The resolution used to store m/z values.
+     */
+    public static final double MZ_RESOLUTION = 1e-6;
+    /**
+     * Flag indicating that peaks of zero intensity were found.
+     */
+    public static final int FLAG_NOT_PEAK_PICKED = 1;
+    /**
+     * Flag indicating that spectra without precursor charge were found.
+     */
+    public static final int FLAG_CHARGES_MISSING = 2;
+    /**
+     * The offset of the number of spectra in the header.
+     */
+    public static final int HEADER_N_SPECTRA = 8;
+    /**
+     * The offset of the flags in the header.
+     */
+    public static final int HEADER_FLAGS = 12;
+    /**
+     * The offset of the precursor table offset in the header.
+     */
+    public static final int HEADER_PRECURSOR_TABLE = 16;
+    /**
+     * The offset of the string table offset in the header.
+     */
+    public static final int HEADER_STRING_TABLE = 24;
+    /**
+     * The offset of the string table length in the header.
+     */
+    public static final int HEADER_STRING_TABLE_LENGTH = 32;
+    /**
+     * The length of a record in the precursor table.
+     */
+    public static final int RECORD_LENGTH = 84;
+    /**
+     * The offset of the precursor m/z in a record.
+     */
+    public static final int RECORD_MZ = 0;
+    /**
+     * The offset of the precursor intensity in a record.
+     */
+    public static final int RECORD_INTENSITY = 8;
+    /**
+     * The offset of the precursor retention time in a record.
+     */
+    public static final int RECORD_RT = 16;
+    /**
+     * The offset of the minimal precursor retention time in a record.
+     */
+    public static final int RECORD_RT_MIN = 24;
+    /**
+     * The offset of the maximal precursor retention time in a record.
+     */
+    public static final int RECORD_RT_MAX = 32;
+    /**
+     * The offset of the scan start time in a record.
+     */
+    public static final int RECORD_SCAN_START_TIME = 40;
+    /**
+     * The offset of the offset of the peak list in a record.
+     */
+    public static final int RECORD_PEAKS_OFFSET = 48;
+    /**
+     * The offset of the length of the compressed peak list in a record.
+     */
+    public static final int RECORD_PEAKS_LENGTH = 56;
+    /**
+     * The offset of the positive precursor charges in a record, the charges
+     * are stored as bits, bit i set for charge i.
+     */
+    public static final int RECORD_CHARGES = 60;
+    /**
+     * The offset of the spectrum level in a record.
+     */
+    public static final int RECORD_LEVEL = 64;
+    /**
+     * The offset of the number of peaks in a record.
+     */
+    public static final int RECORD_N_PEAKS = 68;
+    /**
+     * The offset of the negative precursor charges in a record, the charges
+     * are stored as bits, bit i set for charge -i.
+     */
+    public static final int RECORD_NEGATIVE_CHARGES = 72;
+    /**
+     * The offset of the retention time of the peaks in a record, NaN if the
+     * peaks of the spectrum have different retention times.
+     */
+    public static final int RECORD_PEAKS_RT = 76;
+    /**
+     * The maximal absolute value of the charges that can be stored.
+     */
+    public static final int MAX_CHARGE = 31;
+
+    /**
+     * Returns the name of the cms file corresponding to the given spectrum
+     * file.
+     *
+     * @param spectrumFileName the name of the spectrum file
+     *
+     * @return the name of the cms file
+     */
+    public static String getCmsFileName(String spectrumFileName) {
+
+        int extensionIndex = spectrumFileName.lastIndexOf('.');
+
+        if (extensionIndex > 0) {
+            return spectrumFileName.substring(0, extensionIndex) + EXTENSION;
+        }
+
+        return spectrumFileName + EXTENSION;
+    }
+}
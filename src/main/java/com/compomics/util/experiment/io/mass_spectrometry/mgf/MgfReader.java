@@ -8,10 +8,18 @@ import com.compomics.util.waiting.WaitingHandler;
 
 import java.io.*;
 import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import uk.ac.ebi.pride.tools.braf.BufferedRandomAccessFile;
 
 /**
@@ -1033,6 +1041,412 @@ public class MgfReader {
         }
     }
 
+    /**
+     * Splits an mgf file into smaller ones using the index of the file and
+     * returns the indexes of the generated files. The byte ranges of the
+     * spectra are copied in parallel without parsing the spectra, and the
+     * indexes of the generated files are derived from the index of the
+     * original file. Note that the retention time, precursor intensity,
+     * charge, peak count and peak picking statistics of the returned indexes
+     * are the ones of the original file. If the original file contains
+     * duplicate spectrum titles, or if its index does not provide the
+     * duplicate titles, the generated files are indexed from their content
+     * instead. Null is returned if the process is canceled, in which case the
+     * generated files are deleted.
+     *
+     * @param mgfFile the mgf file to split
+     * @param mgfIndex the index of the mgf file
+     * @param nSpectra the number of spectra allowed in the smaller files
+     * @param nThreads the number of threads to use
+     * @param waitingHandler the waitingHandler showing the progress, can be
+     * null
+     *
+     * @return a list of indexes of the generated files
+     *
+     * @throws FileNotFoundException exception thrown whenever a file was not
+     * found
+     * @throws IOException exception thrown whenever a problem occurred while
+     * reading/writing a file
+     * @throws InterruptedException exception thrown whenever a thread was
+     * interrupted while copying the spectra
+     */
+    public ArrayList<MgfIndex> splitFile(File mgfFile, MgfIndex mgfIndex, int nSpectra, int nThreads, WaitingHandler waitingHandler) throws FileNotFoundException, IOException, InterruptedException {
+
+        if (nSpectra <= 0) {
+            throw new IllegalArgumentException("The number of spectra per file must be positive, " + nSpectra + " found.");
+        }
+
+        String fileName = mgfFile.getName();
+
+        if (!fileName.toLowerCase().endsWith(".mgf")) {
+            throw new IllegalArgumentException("Spectrum file format not supported.");
+        }
+
+        String splittedName = fileName.substring(0, fileName.lastIndexOf("."));
+        ArrayList<String> spectrumTitles = mgfIndex.getSpectrumTitles();
+        int nTitles = spectrumTitles.size();
+
+        // renamed duplicate titles cannot be mapped back to the titles of the new files
+        HashMap<String, Integer> duplicatedTitles = mgfIndex.getDuplicatedSpectrumTitles();
+        boolean reindex = duplicatedTitles == null || !duplicatedTitles.isEmpty();
+
+        // get the rank of the first spectrum of every file, try to avoid small leftovers
+        ArrayList<Integer> firstSpectra = new ArrayList<>();
+        firstSpectra.add(0);
+
+        for (int i = nSpectra; i < nTitles; i += nSpectra) {
+            if (nTitles - i > nSpectra / 2) {
+                firstSpectra.add(i);
+            }
+        }
+
+        int nFiles = firstSpectra.size();
+
+        if (waitingHandler != null) {
+            waitingHandler.setSecondaryProgressCounterIndeterminate(false);
+            waitingHandler.setMaxSecondaryProgressCounter(nFiles);
+            waitingHandler.setSecondaryProgressCounter(0);
+        }
+
+        ArrayList<MgfIndex> mgfIndexes = new ArrayList<>(nFiles);
+        ArrayList<File> splittedFiles = new ArrayList<>(nFiles);
+        boolean completed = false;
+
+        try (FileChannel inputChannel = new FileInputStream(mgfFile).getChannel()) {
+
+            long fileLength = inputChannel.size();
+            long[] startPositions = new long[nFiles + 1];
+            int[] spectrumNumbers = new int[nFiles + 1];
+
+            for (int i = 1; i < nFiles; i++) {
+                String title = spectrumTitles.get(firstSpectra.get(i));
+                startPositions[i] = getBeginIonsPosition(inputChannel, mgfIndex.getIndex(title));
+                spectrumNumbers[i] = mgfIndex.getSpectrumIndex(title);
+            }
+
+            startPositions[nFiles] = fileLength;
+            spectrumNumbers[nFiles] = mgfIndex.getNSpectra();
+
+            ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+            ArrayList<Future<MgfIndex>> futures = new ArrayList<>(nFiles);
+
+            try {
+
+                for (int i = 0; i < nFiles; i++) {
+
+                    File splittedFile = new File(mgfFile.getParent(), splittedName + "_" + (i + 1) + ".mgf");
+                    splittedFiles.add(splittedFile);
+
+                    long start = startPositions[i];
+                    long length = startPositions[i + 1] - start;
+
+                    futures.add(pool.submit(() -> {
+                        try (FileChannel outputChannel = new FileOutputStream(splittedFile).getChannel()) {
+                            long transferred = 0;
+                            while (transferred < length) {
+                                long n = inputChannel.transferTo(start + transferred, length - transferred, outputChannel);
+                                if (n <= 0) {
+                                    throw new IOException("Unexpected end of " + fileName + " at position " + (start + transferred) + ".");
+                                }
+                                transferred += n;
+                            }
+                        }
+                        return reindex ? getIndexMap(splittedFile, null) : null;
+                    }));
+                }
+
+                for (int i = 0; i < nFiles; i++) {
+
+                    MgfIndex splittedIndex;
+
+                    try {
+                        splittedIndex = futures.get(i).get();
+                    } catch (ExecutionException e) {
+                        throw new IOException("An error occurred while writing or indexing " + splittedFiles.get(i).getName() + ".", e.getCause());
+                    }
+
+                    if (waitingHandler != null) {
+                        if (waitingHandler.isRunCanceled()) {
+                            return null;
+                        }
+                        waitingHandler.increaseSecondaryProgressCounter();
+                    }
+
+                    if (splittedIndex == null) {
+                        int lastTitle = i < nFiles - 1 ? firstSpectra.get(i + 1) : nTitles;
+                        splittedIndex = getSplittedIndex(mgfIndex, firstSpectra.get(i), lastTitle, spectrumNumbers[i], spectrumNumbers[i + 1], startPositions[i], splittedFiles.get(i));
+                    }
+
+                    mgfIndexes.add(splittedIndex);
+                }
+
+                completed = true;
+
+            } finally {
+
+                // let the running copies finish, an interrupt would close the shared input channel
+                for (Future<MgfIndex> future : futures) {
+                    future.cancel(false);
+                }
+
+                pool.shutdown();
+                pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+
+            }
+
+        } finally {
+
+            // do not leave partial files behind when canceled or failing
+            if (!completed) {
+                for (File splittedFile : splittedFiles) {
+                    splittedFile.delete();
+                }
+            }
+        }
+
+        if (waitingHandler != null) {
+            waitingHandler.setSecondaryProgressCounterIndeterminate(true);
+        }
+
+        return mgfIndexes;
+    }
+
+    /**
+     * Returns the index of a file generated by splitting an mgf file, derived
+     * from the index of the original file. The original file should not
+     * contain duplicate spectrum titles.
+     *
+     * @param mgfIndex the index of the original file
+     * @param firstTitle the rank of the first spectrum title of the new file
+     * in the original index
+     * @param lastTitle the rank of the first spectrum title after the new file
+     * in the original index
+     * @param firstSpectrum the number of the first spectrum of the new file in
+     * the original file
+     * @param lastSpectrum the number of the first spectrum after the new file
+     * in the original file
+     * @param startPosition the position of the new file in the original file
+     * @param splittedFile the new file
+     *
+     * @return the index of the new file
+     */
+    private static MgfIndex getSplittedIndex(MgfIndex mgfIndex, int firstTitle, int lastTitle, int firstSpectrum, int lastSpectrum, long startPosition, File splittedFile) {
+
+        ArrayList<String> spectrumTitles = mgfIndex.getSpectrumTitles();
+        ArrayList<String> newTitles = new ArrayList<>(spectrumTitles.subList(firstTitle, lastTitle));
+        HashMap<String, Long> newIndexes = new HashMap<>(newTitles.size());
+        HashMap<String, Integer> newSpectrumIndexes = new HashMap<>(newTitles.size());
+
+        for (String title : newTitles) {
+            newIndexes.put(title, mgfIndex.getIndex(title) - startPosition);
+            newSpectrumIndexes.put(title, mgfIndex.getSpectrumIndex(title) - firstSpectrum);
+        }
+
+        // the precursors are indexed by spectrum number, untitled spectra included
+        HashMap<Integer, Double> newPrecursorMzMap = new HashMap<>(lastSpectrum - firstSpectrum);
+        double maxMz = -1;
+
+        for (int spectrumNumber = firstSpectrum; spectrumNumber < lastSpectrum; spectrumNumber++) {
+
+            Double precursorMz = mgfIndex.getPrecursorMz(spectrumNumber);
+
+            if (precursorMz != null) {
+                newPrecursorMzMap.put(spectrumNumber - firstSpectrum, precursorMz);
+                if (precursorMz > maxMz) {
+                    maxMz = precursorMz;
+                }
+            }
+        }
+
+        Boolean precursorChargesMissing = mgfIndex.isPrecursorChargesMissing();
+        Boolean peakPicked = mgfIndex.isPeakPicked();
+
+        return new MgfIndex(newTitles, new HashMap<>(0), newIndexes, newSpectrumIndexes, newPrecursorMzMap, splittedFile.getName(),
+                mgfIndex.getMinRT(), mgfIndex.getMaxRT(), maxMz, mgfIndex.getMaxIntensity(), mgfIndex.getMaxCharge(), mgfIndex.getMaxPeakCount(),
+                peakPicked == null || peakPicked, precursorChargesMissing != null && precursorChargesMissing, splittedFile.lastModified(), lastSpectrum - firstSpectrum);
+    }
+
+    /**
+     * Merges mgf files into a single file. The files are copied in parallel
+     * without parsing the spectra, a line break is added after files not
+     * ending with one. If the process is canceled or fails, the destination
+     * file is deleted.
+     *
+     * @param mgfFiles the mgf files to merge in the desired order
+     * @param destinationFile the file where to write the merged mgf
+     * @param nThreads the number of threads to use
+     * @param waitingHandler the waitingHandler showing the progress, can be
+     * null
+     *
+     * @throws FileNotFoundException exception thrown whenever a file was not
+     * found
+     * @throws IOException exception thrown whenever a problem occurred while
+     * reading/writing a file
+     * @throws InterruptedException exception thrown whenever a thread was
+     * interrupted while copying the spectra
+     */
+    public static void mergeFiles(ArrayList<File> mgfFiles, File destinationFile, int nThreads, WaitingHandler waitingHandler) throws FileNotFoundException, IOException, InterruptedException {
+
+        int nFiles = mgfFiles.size();
+        long[] lengths = new long[nFiles];
+        long[] positions = new long[nFiles];
+        boolean[] addLineBreak = new boolean[nFiles];
+        byte[] lineBreak = System.getProperty("line.separator").getBytes(StandardCharsets.US_ASCII);
+        long totalLength = 0;
+
+        for (int i = 0; i < nFiles; i++) {
+
+            File mgfFile = mgfFiles.get(i);
+
+            try (FileChannel inputChannel = new FileInputStream(mgfFile).getChannel()) {
+
+                lengths[i] = inputChannel.size();
+
+                if (lengths[i] > 0) {
+                    ByteBuffer lastByte = ByteBuffer.allocate(1);
+                    inputChannel.read(lastByte, lengths[i] - 1);
+                    addLineBreak[i] = lastByte.get(0) != '\n';
+                }
+            }
+
+            positions[i] = totalLength;
+            totalLength += lengths[i];
+
+            if (addLineBreak[i]) {
+                totalLength += lineBreak.length;
+            }
+        }
+
+        if (waitingHandler != null) {
+            waitingHandler.setSecondaryProgressCounterIndeterminate(false);
+            waitingHandler.setMaxSecondaryProgressCounter(nFiles);
+            waitingHandler.setSecondaryProgressCounter(0);
+        }
+
+        boolean completed = false;
+
+        try (RandomAccessFile destination = new RandomAccessFile(destinationFile, "rw")) {
+
+            // allocate the final size so that the positional writes do not change the file size
+            destination.setLength(totalLength);
+            FileChannel outputChannel = destination.getChannel();
+            ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+            ArrayList<Future<?>> futures = new ArrayList<>(nFiles);
+
+            try {
+
+                for (int i = 0; i < nFiles; i++) {
+
+                    File mgfFile = mgfFiles.get(i);
+                    long position = positions[i];
+                    long length = lengths[i];
+                    boolean appendLineBreak = addLineBreak[i];
+
+                    futures.add(pool.submit(() -> {
+                        try (FileChannel inputChannel = new FileInputStream(mgfFile).getChannel()) {
+                            long transferred = 0;
+                            while (transferred < length) {
+                                long n = outputChannel.transferFrom(inputChannel, position + transferred, length - transferred);
+                                if (n <= 0) {
+                                    throw new IOException("Unexpected end of " + mgfFile.getName() + " at position " + transferred + ".");
+                                }
+                                transferred += n;
+                            }
+                        }
+                        if (appendLineBreak) {
+                            outputChannel.write(ByteBuffer.wrap(lineBreak), position + length);
+                        }
+                        return null;
+                    }));
+                }
+
+                for (int i = 0; i < nFiles; i++) {
+
+                    try {
+                        futures.get(i).get();
+                    } catch (ExecutionException e) {
+                        throw new IOException("An error occurred while copying " + mgfFiles.get(i).getName() + ".", e.getCause());
+                    }
+
+                    if (waitingHandler != null) {
+                        if (waitingHandler.isRunCanceled()) {
+                            return;
+                        }
+                        waitingHandler.increaseSecondaryProgressCounter();
+                    }
+                }
+
+                completed = true;
+
+            } finally {
+
+                // let the running copies finish, an interrupt would close the shared output channel
+                for (Future<?> future : futures) {
+                    future.cancel(false);
+                }
+
+                pool.shutdown();
+                pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+
+            }
+
+        } finally {
+
+            // do not leave a partial file behind when canceled or failing
+            if (!completed) {
+                destinationFile.delete();
+            }
+        }
+
+        if (waitingHandler != null) {
+            waitingHandler.setSecondaryProgressCounterIndeterminate(true);
+        }
+    }
+
+    /**
+     * Returns the position of the BEGIN IONS tag preceding the given spectrum
+     * index.
+     *
+     * @param fileChannel the channel of the mgf file
+     * @param spectrumIndex the index of the spectrum as provided by the mgf
+     * index, i.e., the position following the BEGIN IONS line
+     *
+     * @return the position of the BEGIN IONS tag
+     *
+     * @throws IOException exception thrown whenever a problem occurred while
+     * reading the file
+     */
+    private static long getBeginIonsPosition(FileChannel fileChannel, long spectrumIndex) throws IOException {
+
+        byte[] tag = "BEGIN IONS".getBytes(StandardCharsets.US_ASCII);
+        int windowLength = (int) Math.min(spectrumIndex, 64);
+        long windowStart = spectrumIndex - windowLength;
+        ByteBuffer buffer = ByteBuffer.allocate(windowLength);
+
+        while (buffer.hasRemaining()) {
+            if (fileChannel.read(buffer, windowStart + buffer.position()) < 0) {
+                break;
+            }
+        }
+
+        byte[] window = buffer.array();
+
+        for (int i = windowLength - tag.length; i >= 0; i--) {
+
+            boolean match = true;
+
+            for (int j = 0; j < tag.length && match; j++) {
+                match = window[i + j] == tag[j];
+            }
+
+            if (match) {
+                return windowStart + i;
+            }
+        }
+
+        throw new IllegalArgumentException("BEGIN IONS tag not found before index " + spectrumIndex + ". Please verify that the index corresponds to the file.");
+    }
+
     /**
      * Returns the next spectrum starting from the given index.
      *
@@ -1160,7 +1574,7 @@ public class MgfReader {
      * @return the possible charges found
      * @throws IllegalArgumentException
      */
-    private static ArrayList<Integer> parseCharges(String chargeLine) throws IllegalArgumentException {
+    static ArrayList<Integer> parseCharges(String chargeLine) throws IllegalArgumentException {
 
         ArrayList<Integer> result = new ArrayList<>(1);
         String tempLine = chargeLine.substring(chargeLine.indexOf("=") + 1);
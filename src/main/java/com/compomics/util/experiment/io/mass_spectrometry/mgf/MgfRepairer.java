@@ -0,0 +1,713 @@
+package com.compomics.util.experiment.io.mass_spectrometry.mgf;
+
+import com.compomics.util.experiment.mass_spectrometry.SpectrumFactory;
+import com.compomics.util.io.file.SerializationUtils;
+import com.compomics.util.parameters.UtilitiesUserParameters;
+import com.compomics.util.waiting.WaitingHandler;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+
+/**
+ * Applies a set of repairs to an mgf file in a single streaming pass and
+ * indexes the repaired file on the fly. The combination of repairs replaces
+ * successive calls to the corresponding methods of the MgfReader which each
+ * need to read and write the entire file.
+ *
+ * @author Marc Vaudel
+ * @author Harald Barsnes
+ */
+public class MgfRepairer {
+
+    /**
+     * The repairs that can be applied to an mgf file.
+     */
+    public enum Repair {
+
+        /**
+         * Removes spectra with a title already used in the file, the first
+         * occurrence is kept.
+         */
+        REMOVE_DUPLICATE_TITLES,
+        /**
+         * Renames duplicate spectrum titles by adding (2), (3), etc.
+         */
+        RENAME_DUPLICATE_TITLES,
+        /**
+         * Adds a title to the spectra missing one.
+         */
+        ADD_MISSING_TITLES,
+        /**
+         * Adds the default charge range to the spectra missing a precursor
+         * charge.
+         */
+        ADD_MISSING_CHARGES,
+        /**
+         * Removes the peaks of zero intensity.
+         */
+        REMOVE_ZEROES;
+    }
+
+    /**
+     * The size of the read and write buffers in bytes.
+     */
+    public static final int BUFFER_SIZE = 8 * 1024 * 1024;
+    /**
+     * The repairs to apply.
+     */
+    private final EnumSet<Repair> repairs;
+    /**
+     * The line break used when writing the repaired file.
+     */
+    private final String lineBreak = System.getProperty("line.separator");
+    /**
+     * The charge line to add when the charge is missing, lazily loaded from
+     * the user parameters.
+     */
+    private String defaultChargeLine = null;
+
+    /**
+     * Constructor.
+     *
+     * @param repairs the repairs to apply
+     */
+    public MgfRepairer(EnumSet<Repair> repairs) {
+
+        if (repairs.contains(Repair.REMOVE_DUPLICATE_TITLES) && repairs.contains(Repair.RENAME_DUPLICATE_TITLES)) {
+            throw new IllegalArgumentException("Duplicate spectrum titles cannot be both removed and renamed.");
+        }
+
+        this.repairs = repairs;
+    }
+
+    /**
+     * Returns the repairs applied by this repairer.
+     *
+     * @return the repairs applied by this repairer
+     */
+    public EnumSet<Repair> getRepairs() {
+        return repairs;
+    }
+
+    /**
+     * Repairs the given mgf file, replaces it by the repaired version, and
+     * saves the index of the repaired file next to it. Null is returned if the
+     * process is canceled, in which case the original file is left untouched.
+     * Spectra missing the END IONS tag are closed, and a warning is printed.
+     *
+     * @param mgfFile the mgf file to repair
+     * @param waitingHandler a waitingHandler showing the progress, can be null
+     *
+     * @return the index of the repaired file
+     *
+     * @throws FileNotFoundException Exception thrown whenever the file is not
+     * found
+     * @throws IOException Exception thrown whenever an error occurs while
+     * reading or writing the file
+     * @throws UnsupportedEncodingException if the decoding of a spectrum title
+     * fails
+     */
+    public MgfIndex repair(File mgfFile, WaitingHandler waitingHandler) throws FileNotFoundException, IOException, UnsupportedEncodingException {
+
+        File tempSpectrumFile = new File(mgfFile.getParentFile(), mgfFile.getName() + "_temp");
+
+        if (waitingHandler != null) {
+            waitingHandler.setSecondaryProgressCounterIndeterminate(false);
+            waitingHandler.setMaxSecondaryProgressCounter(100);
+            waitingHandler.setSecondaryProgressCounter(0);
+        }
+
+        IndexBuilder indexBuilder = new IndexBuilder(mgfFile.getName());
+        boolean canceled = false;
+
+        // ISO-8859-1 maps every byte to one char, the file is hence copied byte for byte and char counts are byte offsets
+        FileInputStream inputStream = new FileInputStream(mgfFile);
+        BufferedReader br = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.ISO_8859_1), BUFFER_SIZE);
+
+        try {
+
+            Writer bw = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tempSpectrumFile), StandardCharsets.ISO_8859_1), BUFFER_SIZE);
+
+            try {
+
+                long progressUnit = Math.max(mgfFile.length() / 100, 1);
+                long outputPosition = 0;
+                ArrayList<String> spectrumLines = new ArrayList<>();
+                boolean insideSpectrum = false;
+                int spectrumCounter = 0;
+                String line;
+
+                while ((line = br.readLine()) != null) {
+
+                    if (line.startsWith("BEGIN IONS")) {
+
+                        if (insideSpectrum) {
+
+                            System.err.println("Warning: END IONS missing for spectrum " + spectrumCounter + " of " + mgfFile.getName() + ", the spectrum was closed.");
+                            outputPosition = writeSpectrum(bw, spectrumLines, spectrumCounter, outputPosition, indexBuilder);
+
+                        }
+
+                        insideSpectrum = true;
+                        spectrumLines.clear();
+                        spectrumCounter++;
+
+                        if (waitingHandler != null) {
+                            if (waitingHandler.isRunCanceled()) {
+                                canceled = true;
+                                break;
+                            }
+                            // the bytes consumed from the file, independently of the line breaks
+                            waitingHandler.setSecondaryProgressCounter((int) (inputStream.getChannel().position() / progressUnit));
+                        }
+
+                    } else if (line.startsWith("END IONS")) {
+
+                        if (insideSpectrum) {
+                            outputPosition = writeSpectrum(bw, spectrumLines, spectrumCounter, outputPosition, indexBuilder);
+                        }
+
+                        insideSpectrum = false;
+
+                    } else if (insideSpectrum) {
+
+                        spectrumLines.add(line);
+
+                    } else {
+
+                        bw.write(line);
+                        bw.write(lineBreak);
+                        outputPosition += line.length() + lineBreak.length();
+
+                    }
+                }
+
+                if (insideSpectrum && !canceled) {
+
+                    System.err.println("Warning: END IONS missing for spectrum " + spectrumCounter + " of " + mgfFile.getName() + ", the spectrum was closed.");
+                    writeSpectrum(bw, spectrumLines, spectrumCounter, outputPosition, indexBuilder);
+
+                }
+
+            } finally {
+                bw.close();
+            }
+        } finally {
+            br.close();
+        }
+
+        if (waitingHandler != null) {
+            waitingHandler.setSecondaryProgressCounterIndeterminate(true);
+        }
+
+        if (canceled) {
+            tempSpectrumFile.delete();
+            return null;
+        }
+
+        // replace the old file
+        String orignalFilePath = mgfFile.getAbsolutePath();
+        boolean fileDeleted = mgfFile.delete();
+
+        if (!fileDeleted) {
+            throw new IOException("Failed to delete the original spectrum file.");
+        }
+
+        File repairedFile = new File(orignalFilePath);
+        boolean fileRenamed = tempSpectrumFile.renameTo(repairedFile);
+
+        if (!fileRenamed) {
+            throw new IOException("Failed to replace the original spectrum file.");
+        }
+
+        MgfIndex mgfIndex = indexBuilder.getIndex(repairedFile.lastModified());
+        File indexFile = new File(repairedFile.getParentFile(), SpectrumFactory.getIndexName(repairedFile.getName()));
+        SerializationUtils.writeObject(mgfIndex, indexFile);
+
+        return mgfIndex;
+    }
+
+    /**
+     * Applies the repairs to a spectrum and writes it.
+     *
+     * @param bw the writer
+     * @param spectrumLines the lines of the spectrum between the BEGIN IONS and
+     * END IONS tags
+     * @param spectrumCounter the number of the spectrum in the original file, 1
+     * being the first spectrum
+     * @param outputPosition the position in the output file
+     * @param indexBuilder the builder of the index of the repaired file
+     *
+     * @return the position in the output file after writing the spectrum
+     *
+     * @throws IOException Exception thrown whenever an error occurs while
+     * writing the file
+     */
+    private long writeSpectrum(Writer bw, ArrayList<String> spectrumLines, int spectrumCounter, long outputPosition, IndexBuilder indexBuilder) throws IOException {
+
+        int titleLineIndex = -1;
+        boolean chargeFound = false;
+        String rawTitle = null, title = null;
+
+        for (int i = 0; i < spectrumLines.size(); i++) {
+
+            String line = spectrumLines.get(i);
+
+            if (titleLineIndex == -1 && line.startsWith("TITLE")) {
+
+                titleLineIndex = i;
+                rawTitle = line.substring(line.indexOf('=') + 1);
+
+                try {
+                    title = URLDecoder.decode(rawTitle, "utf-8");
+                } catch (UnsupportedEncodingException e) {
+                    e.printStackTrace();
+                    throw new UnsupportedEncodingException("An exception was thrown when trying to decode an mgf title: " + rawTitle);
+                }
+
+            } else if (line.startsWith("CHARGE")) {
+
+                chargeFound = true;
+
+            }
+        }
+
+        String newTitleLine = null;
+
+        if (title == null) {
+
+            if (repairs.contains(Repair.ADD_MISSING_TITLES)) {
+
+                int titleNumber = spectrumCounter;
+                title = "Spectrum " + titleNumber;
+
+                while (indexBuilder.containsTitle(title)) {
+                    title = "Spectrum " + ++titleNumber;
+                }
+
+                newTitleLine = "TITLE=" + title;
+
+            }
+
+        } else if (indexBuilder.containsTitle(title)) {
+
+            if (repairs.contains(Repair.REMOVE_DUPLICATE_TITLES)) {
+
+                return outputPosition;
+
+            } else if (repairs.contains(Repair.RENAME_DUPLICATE_TITLES)) {
+
+                int counter = 2;
+                String tempTitle = title + " (" + counter + ")";
+
+                while (indexBuilder.containsTitle(tempTitle)) {
+                    tempTitle = title + " (" + ++counter + ")";
+                }
+
+                newTitleLine = "TITLE=" + rawTitle + " (" + counter + ")";
+                title = tempTitle;
+
+            }
+        }
+
+        bw.write("BEGIN IONS");
+        bw.write(lineBreak);
+        outputPosition += 10 + lineBreak.length();
+
+        indexBuilder.newSpectrum(title, outputPosition);
+
+        if (newTitleLine != null && titleLineIndex == -1) {
+            bw.write(newTitleLine);
+            bw.write(lineBreak);
+            outputPosition += newTitleLine.length() + lineBreak.length();
+        }
+
+        for (int i = 0; i < spectrumLines.size(); i++) {
+
+            String line = spectrumLines.get(i);
+
+            if (i == titleLineIndex) {
+
+                if (newTitleLine != null) {
+                    line = newTitleLine;
+                }
+
+            } else if (line.startsWith("CHARGE")) {
+
+                indexBuilder.addCharges(MgfReader.parseCharges(line));
+
+            } else if (line.startsWith("PEPMASS")) {
+
+                indexBuilder.addPepMass(line);
+
+            } else if (line.startsWith("RTINSECONDS")) {
+
+                indexBuilder.addRt(line);
+
+            } else if (!line.isEmpty() && line.indexOf('=') == -1) {
+
+                double intensity = parsePeakIntensity(line);
+
+                if (!Double.isNaN(intensity)) {
+
+                    if (intensity == 0.0 && repairs.contains(Repair.REMOVE_ZEROES)) {
+                        continue;
+                    }
+
+                    if (!chargeFound && repairs.contains(Repair.ADD_MISSING_CHARGES)) {
+
+                        String chargeLine = getDefaultChargeLine();
+                        bw.write(chargeLine);
+                        bw.write(lineBreak);
+                        outputPosition += chargeLine.length() + lineBreak.length();
+                        indexBuilder.addCharges(MgfReader.parseCharges(chargeLine));
+                        chargeFound = true;
+
+                    }
+
+                    indexBuilder.addPeak(intensity);
+
+                }
+            }
+
+            bw.write(line);
+            bw.write(lineBreak);
+            outputPosition += line.length() + lineBreak.length();
+        }
+
+        bw.write("END IONS");
+        bw.write(lineBreak);
+        outputPosition += 8 + lineBreak.length();
+
+        indexBuilder.endSpectrum(chargeFound);
+
+        return outputPosition;
+    }
+
+    /**
+     * Returns the intensity of the peak on the given line, NaN if the line is
+     * not a peak.
+     *
+     * @param line the line
+     *
+     * @return the intensity of the peak
+     */
+    private static double parsePeakIntensity(String line) {
+
+        int length = line.length(), start = 0;
+
+        while (start < length && Character.isWhitespace(line.charAt(start))) {
+            start++;
+        }
+
+        int mzEnd = start;
+
+        while (mzEnd < length && !Character.isWhitespace(line.charAt(mzEnd))) {
+            mzEnd++;
+        }
+
+        int intensityStart = mzEnd;
+
+        while (intensityStart < length && Character.isWhitespace(line.charAt(intensityStart))) {
+            intensityStart++;
+        }
+
+        int intensityEnd = intensityStart;
+
+        while (intensityEnd < length && !Character.isWhitespace(line.charAt(intensityEnd))) {
+            intensityEnd++;
+        }
+
+        if (mzEnd == start || intensityEnd == intensityStart) {
+            return Double.NaN;
+        }
+
+        try {
+            Double.parseDouble(line.substring(start, mzEnd));
+            return Double.parseDouble(line.substring(intensityStart, intensityEnd));
+        } catch (NumberFormatException e) {
+            // not a peak
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * Returns the charge line to add when the charge is missing.
+     *
+     * @return the charge line to add when the charge is missing
+     */
+    private String getDefaultChargeLine() {
+
+        if (defaultChargeLine == null) {
+
+            UtilitiesUserParameters userPreferences = UtilitiesUserParameters.loadUserParameters();
+            StringBuilder chargeLine = new StringBuilder("CHARGE=");
+
+            for (int i = userPreferences.getMinSpectrumChargeRange(); i <= userPreferences.getMaxSpectrumChargeRange(); i++) {
+                if (i > userPreferences.getMinSpectrumChargeRange()) {
+                    chargeLine.append(" and ");
+                }
+                chargeLine.append(i).append('+');
+            }
+
+            defaultChargeLine = chargeLine.toString();
+        }
+
+        return defaultChargeLine;
+    }
+
+    /**
+     * Gathers the information of the index while writing the repaired file.
+     */
+    private static class IndexBuilder {
+
+        /**
+         * The name of the file.
+         */
+        private final String fileName;
+        /**
+         * Spectrum title to index in the file.
+         */
+        private final HashMap<String, Long> indexes = new HashMap<>();
+        /**
+         * Spectrum title to spectrum number in the file.
+         */
+        private final HashMap<String, Integer> spectrumIndexes = new HashMap<>();
+        /**
+         * Spectrum number to precursor m/z.
+         */
+        private final HashMap<Integer, Double> precursorMzMap = new HashMap<>();
+        /**
+         * The ordered spectrum titles.
+         */
+        private final LinkedHashSet<String> spectrumTitles = new LinkedHashSet<>();
+        /**
+         * The spectrum titles as they appear in the repaired file.
+         */
+        private final HashSet<String> writtenTitles = new HashSet<>();
+        /**
+         * Map of the titles remaining duplicated after repair.
+         */
+        private final HashMap<String, Integer> duplicateTitles = new HashMap<>();
+        /**
+         * The number of spectra written.
+         */
+        private int spectrumCounter = 0;
+        /**
+         * The title of the current spectrum.
+         */
+        private String title;
+        /**
+         * Statistics on the file.
+         */
+        private double maxRT = -1, minRT = Double.MAX_VALUE, maxMz = -1, maxIntensity = 0;
+        /**
+         * Statistics on the file.
+         */
+        private int maxCharge = 0, maxPeakCount = 0, peakCount = 0;
+        /**
+         * Indicates whether the spectra seem peak picked.
+         */
+        private boolean peakPicked = true;
+        /**
+         * Indicates whether a spectrum lacks a precursor charge.
+         */
+        private boolean precursorChargesMissing = false;
+
+        /**
+         * Constructor.
+         *
+         * @param fileName the name of the file
+         */
+        private IndexBuilder(String fileName) {
+            this.fileName = fileName;
+        }
+
+        /**
+         * Indicates whether the given title was already written.
+         *
+         * @param title the spectrum title
+         *
+         * @return a boolean indicating whether the given title was already
+         * written
+         */
+        private boolean containsTitle(String title) {
+            return writtenTitles.contains(title);
+        }
+
+        /**
+         * Registers a new spectrum.
+         *
+         * @param title the title of the spectrum, can be null
+         * @param index the index of the spectrum in the repaired file
+         */
+        private void newSpectrum(String title, long index) {
+
+            spectrumCounter++;
+            peakCount = 0;
+
+            if (title != null) {
+
+                writtenTitles.add(title);
+
+                Integer nDuplicates = duplicateTitles.get(title);
+
+                if (nDuplicates != null || spectrumTitles.contains(title)) {
+                    if (nDuplicates == null) {
+                        nDuplicates = 0;
+                        System.err.println("Warning: Spectrum title " + title + " is not unique in " + fileName + "!");
+                    }
+                    duplicateTitles.put(title, ++nDuplicates);
+                    title += "_" + nDuplicates;
+                }
+
+                spectrumTitles.add(title);
+                indexes.put(title, index);
+                spectrumIndexes.put(title, spectrumCounter - 1);
+            }
+
+            this.title = title;
+        }
+
+        /**
+         * Registers precursor charges of the current spectrum.
+         *
+         * @param charges the precursor charges
+         */
+        private void addCharges(ArrayList<Integer> charges) {
+            for (int charge : charges) {
+                if (charge > maxCharge) {
+                    maxCharge = charge;
+                }
+            }
+        }
+
+        /**
+         * Registers the PEPMASS line of the current spectrum.
+         *
+         * @param line the PEPMASS line
+         */
+        private void addPepMass(String line) {
+
+            String temp = line.substring(line.indexOf("=") + 1);
+            String[] values = temp.split("\\s");
+            double precursorMz = Double.parseDouble(values[0]);
+
+            if (precursorMz > maxMz) {
+                maxMz = precursorMz;
+            }
+
+            if (values.length > 1) {
+                double precursorIntensity = Double.parseDouble(values[1]);
+                if (precursorIntensity > maxIntensity) {
+                    maxIntensity = precursorIntensity;
+                }
+            }
+
+            precursorMzMap.put(spectrumCounter - 1, precursorMz);
+        }
+
+        /**
+         * Registers the RTINSECONDS line of the current spectrum.
+         *
+         * @param line the RTINSECONDS line
+         */
+        private void addRt(String line) {
+
+            String rtInput = line.substring(line.indexOf('=') + 1);
+
+            try {
+
+                String[] rtWindow = rtInput.split("-");
+
+                if (rtWindow.length == 1) {
+                    String tempRt = rtWindow[0];
+                    // possible fix for values like RTINSECONDS=PT121.250000S
+                    if (tempRt.startsWith("PT") && tempRt.endsWith("S")) {
+                        tempRt = tempRt.substring(2, tempRt.length() - 1);
+                    }
+                    addRt(Double.parseDouble(tempRt));
+                } else if (rtWindow.length == 2 && !rtWindow[0].equals("")) {
+                    addRt(Double.parseDouble(rtWindow[0]));
+                    addRt(Double.parseDouble(rtWindow[1]));
+                }
+
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Cannot parse retention time: " + rtInput);
+            }
+        }
+
+        /**
+         * Registers a retention time.
+         *
+         * @param rt the retention time
+         */
+        private void addRt(double rt) {
+            if (rt > maxRT) {
+                maxRT = rt;
+            }
+            if (rt < minRT) {
+                minRT = rt;
+            }
+        }
+
+        /**
+         * Registers a peak of the current spectrum.
+         *
+         * @param intensity the intensity of the peak
+         */
+        private void addPeak(double intensity) {
+            if (peakPicked && intensity == 0) {
+                peakPicked = false;
+            }
+            peakCount++;
+        }
+
+        /**
+         * Registers the end of the current spectrum.
+         *
+         * @param chargeFound indicates whether a precursor charge was found
+         */
+        private void endSpectrum(boolean chargeFound) {
+            if (title != null && peakCount > maxPeakCount) {
+                maxPeakCount = peakCount;
+            }
+            if (!chargeFound) {
+                precursorChargesMissing = true;
+            }
+            title = null;
+        }
+
+        /**
+         * Returns the index.
+         *
+         * @param lastModified the last modification time of the repaired file
+         *
+         * @return the index
+         */
+        private MgfIndex getIndex(long lastModified) {
+
+            if (minRT == Double.MAX_VALUE) {
+                minRT = 0;
+            }
+
+            return new MgfIndex(new ArrayList<>(spectrumTitles), duplicateTitles, indexes, spectrumIndexes, precursorMzMap, fileName, minRT, maxRT,
+                    maxMz, maxIntensity, maxCharge, maxPeakCount, peakPicked, precursorChargesMissing, lastModified, spectrumCounter);
+        }
+    }
+}
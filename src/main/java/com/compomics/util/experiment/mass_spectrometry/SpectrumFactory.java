@@ -3,6 +3,7 @@ package com.compomics.util.experiment.mass_spectrometry;
 import com.compomics.util.experiment.mass_spectrometry.spectra.Precursor;
 import com.compomics.util.experiment.mass_spectrometry.spectra.Spectrum;
 import com.compomics.util.experiment.mass_spectrometry.spectra.Peak;
+import com.compomics.util.experiment.io.mass_spectrometry.cms.CmsFileReader;
 import com.compomics.util.experiment.io.mass_spectrometry.mgf.MgfIndex;
 import com.compomics.util.experiment.io.mass_spectrometry.mgf.MgfReader;
 import com.compomics.util.experiment.io.mass_spectrometry.msp.MspReader;
@@ -69,6 +70,10 @@ public class SpectrumFactory {
      * Map of the mzML unmarshallers (fileName &gt; unmarshaller).
      */
     private final HashMap<String, MzMLUnmarshaller> mzMLUnmarshallers = new HashMap<>();
+    /**
+     * Map of the readers of the cms files (fileName &gt; reader).
+     */
+    private final HashMap<String, CmsFileReader> cmsFileReadersMap = new HashMap<>();
     /**
      * Map of the spectrum file mapped according to the name used by the search
      * engine.
@@ -123,6 +128,7 @@ public class SpectrumFactory {
         mgfRandomAccessFilesMap.clear();
         mgfIndexesMap.clear();
         mzMLUnmarshallers.clear();
+        cmsFileReadersMap.clear();
         idToSpectrumName.clear();
     }
 
@@ -156,7 +162,7 @@ public class SpectrumFactory {
     /**
      * Add spectra to the factory.
      *
-     * @param spectrumFile The spectrum file, can be mgf or mzML
+     * @param spectrumFile The spectrum file, can be mgf, msp, mzML or cms
      *
      * @throws IOException Exception thrown whenever an error occurred while
      * reading the file
@@ -169,7 +175,7 @@ public class SpectrumFactory {
     /**
      * Add spectra to the factory.
      *
-     * @param spectrumFile the spectrum file, can be mgf or mzML
+     * @param spectrumFile the spectrum file, can be mgf, msp, mzML or cms
      * @param waitingHandler the waiting handler
      *
      * @throws IOException Exception thrown whenever an error occurred while
@@ -228,6 +234,16 @@ public class SpectrumFactory {
         } else if (fileName.toLowerCase().endsWith(".mzml")) {
             MzMLUnmarshaller mzMLUnmarshaller = new MzMLUnmarshaller(spectrumFile);
             mzMLUnmarshallers.put(fileName, mzMLUnmarshaller);
+        } else if (fileName.toLowerCase().endsWith(".cms")) {
+            // the cms files contain their own index
+            CmsFileReader cmsFileReader = new CmsFileReader(spectrumFile);
+            CmsFileReader previousReader = cmsFileReadersMap.put(fileName, cmsFileReader);
+
+            if (previousReader != null) {
+                previousReader.close();
+            }
+
+            mgfIndexesMap.put(fileName, cmsFileReader.getIndex());
         } else {
             throw new IllegalArgumentException("Spectrum file format not supported.");
         }
@@ -670,6 +686,20 @@ public class SpectrumFactory {
                     throw new IllegalArgumentException("Error while loading precursor of spectrum " + spectrumTitle + " of file " + fileName + ".");
                 }
             }
+        } else if (fileName.toLowerCase().endsWith(".cms")) {
+
+            // a special fix for mgf files with strange titles...
+            spectrumTitle = fixMgfTitle(spectrumTitle, fileName);
+
+            if (mgfIndexesMap.get(fileName) == null) {
+                throw new IOException("cms file not found: \'" + fileName + "\'.");
+            }
+            if (mgfIndexesMap.get(fileName).getIndex(spectrumTitle) == null) {
+                throw new IOException("Spectrum \'" + spectrumTitle + "\' in cms file \'" + fileName + "\' not found.");
+            }
+
+            currentPrecursor = cmsFileReadersMap.get(fileName).getPrecursor(mgfIndexesMap.get(fileName).getIndex(spectrumTitle).intValue());
+
         } else if (fileName.toLowerCase().endsWith(".mzml")) {
             uk.ac.ebi.jmzml.model.mzml.Spectrum mzMLSpectrum = mzMLUnmarshallers.get(fileName).getSpectrumById(spectrumTitle);
             int level = 2;
@@ -861,55 +891,22 @@ public class SpectrumFactory {
             }
 
             uk.ac.ebi.jmzml.model.mzml.Spectrum mzMLSpectrum = mzMLUnmarshallers.get(spectrumFile).getSpectrumById(spectrumTitle);
-            int level = 2;
-            double mzPrec = 0.0;
-            double scanTime = -1.0;
-            int chargePrec = 0;
-            for (CVParam cvParam : mzMLSpectrum.getCvParam()) {
-                if (cvParam.getAccession().equals("MS:1000511")) {
-                    level = new Integer(cvParam.getValue());
-                    break;
-                }
-            }
-            ScanList scanList = mzMLSpectrum.getScanList();
-            if (scanList != null) {
-                for (CVParam cvParam : scanList.getScan().get(scanList.getScan().size() - 1).getCvParam()) {
-                    if (cvParam.getAccession().equals("MS:1000016")) {
-                        scanTime = new Double(cvParam.getValue());
-                        break;
-                    }
-                }
-            }
-            PrecursorList precursorList = mzMLSpectrum.getPrecursorList();
-            if (precursorList != null) {
-                if (precursorList.getCount().intValue() == 1) {
-                    SelectedIonList sIonList = precursorList.getPrecursor().get(0).getSelectedIonList();
-                    if (sIonList != null) {
-                        for (CVParam cvParam : sIonList.getSelectedIon().get(0).getCvParam()) {
-                            if (cvParam.getAccession().equals("MS:1000744")
-                                    || cvParam.getAccession().equals("MS:1000040")) {
-                                mzPrec = new Double(cvParam.getValue());
-                            } else if (cvParam.getAccession().equals("MS:1000041")) {
-                                chargePrec = new Integer(cvParam.getValue());
-                            }
-                        }
-                    }
-                }
+            currentSpectrum = convertMzMLSpectrum(mzMLSpectrum, spectrumTitle, spectrumFile);
+
+        } else if (spectrumFile.toLowerCase().endsWith(".cms")) {
+
+            // a special fix for mgf files with strange titles...
+            spectrumTitle = fixMgfTitle(spectrumTitle, spectrumFile);
+
+            if (mgfIndexesMap.get(spectrumFile) == null) {
+                throw new FileNotFoundException("cms file not found: \'" + spectrumFile + "\'!");
             }
-            List<BinaryDataArray> bdal = mzMLSpectrum.getBinaryDataArrayList().getBinaryDataArray();
-            BinaryDataArray mzBinaryDataArray = (BinaryDataArray) bdal.get(0);
-            Number[] mzNumbers = mzBinaryDataArray.getBinaryDataAsNumberArray();
-            BinaryDataArray intBinaryDataArray = (BinaryDataArray) bdal.get(1);
-            Number[] intNumbers = intBinaryDataArray.getBinaryDataAsNumberArray();
-            HashMap<Double, Peak> peakList = new HashMap<>();
-            for (int i = 0; i < mzNumbers.length; i++) {
-                peakList.put(mzNumbers[i].doubleValue(), new Peak(mzNumbers[i].doubleValue(), intNumbers[i].doubleValue(), scanTime));
+            if (mgfIndexesMap.get(spectrumFile).getIndex(spectrumTitle) == null) {
+                throw new IOException("Spectrum \'" + spectrumTitle + "\' in cms file \'" + spectrumFile + "\' not found!");
             }
-            ArrayList<Integer> charges = new ArrayList<>();
-            charges.add(chargePrec);
-            Precursor precursor = level == 1 ? null : new Precursor(scanTime, mzPrec, charges);
-            currentSpectrum = new Spectrum(level, precursor, spectrumTitle, peakList, spectrumFile, scanTime);
-            
+
+            currentSpectrum = cmsFileReadersMap.get(spectrumFile).getSpectrum(mgfIndexesMap.get(spectrumFile).getIndex(spectrumTitle).intValue());
+
         } else {
             throw new IllegalArgumentException("Spectrum file format not supported.");
         }
@@ -933,6 +930,67 @@ public class SpectrumFactory {
         return currentSpectrum;
     }
 
+    /**
+     * Converts an mzML spectrum.
+     *
+     * @param mzMLSpectrum the mzML spectrum
+     * @param spectrumTitle the title of the spectrum
+     * @param fileName the name of the mzML file
+     *
+     * @return the spectrum
+     */
+    public static Spectrum convertMzMLSpectrum(uk.ac.ebi.jmzml.model.mzml.Spectrum mzMLSpectrum, String spectrumTitle, String fileName) {
+
+        int level = 2;
+        double mzPrec = 0.0;
+        double scanTime = -1.0;
+        int chargePrec = 0;
+        for (CVParam cvParam : mzMLSpectrum.getCvParam()) {
+            if (cvParam.getAccession().equals("MS:1000511")) {
+                level = new Integer(cvParam.getValue());
+                break;
+            }
+        }
+        ScanList scanList = mzMLSpectrum.getScanList();
+        if (scanList != null) {
+            for (CVParam cvParam : scanList.getScan().get(scanList.getScan().size() - 1).getCvParam()) {
+                if (cvParam.getAccession().equals("MS:1000016")) {
+                    scanTime = new Double(cvParam.getValue());
+                    break;
+                }
+            }
+        }
+        PrecursorList precursorList = mzMLSpectrum.getPrecursorList();
+        if (precursorList != null) {
+            if (precursorList.getCount().intValue() == 1) {
+                SelectedIonList sIonList = precursorList.getPrecursor().get(0).getSelectedIonList();
+                if (sIonList != null) {
+                    for (CVParam cvParam : sIonList.getSelectedIon().get(0).getCvParam()) {
+                        if (cvParam.getAccession().equals("MS:1000744")
+                                || cvParam.getAccession().equals("MS:1000040")) {
+                            mzPrec = new Double(cvParam.getValue());
+                        } else if (cvParam.getAccession().equals("MS:1000041")) {
+                            chargePrec = new Integer(cvParam.getValue());
+                        }
+                    }
+                }
+            }
+        }
+        List<BinaryDataArray> bdal = mzMLSpectrum.getBinaryDataArrayList().getBinaryDataArray();
+        BinaryDataArray mzBinaryDataArray = (BinaryDataArray) bdal.get(0);
+        Number[] mzNumbers = mzBinaryDataArray.getBinaryDataAsNumberArray();
+        BinaryDataArray intBinaryDataArray = (BinaryDataArray) bdal.get(1);
+        Number[] intNumbers = intBinaryDataArray.getBinaryDataAsNumberArray();
+        HashMap<Double, Peak> peakList = new HashMap<>();
+        for (int i = 0; i < mzNumbers.length; i++) {
+            peakList.put(mzNumbers[i].doubleValue(), new Peak(mzNumbers[i].doubleValue(), intNumbers[i].doubleValue(), scanTime));
+        }
+        ArrayList<Integer> charges = new ArrayList<>();
+        charges.add(chargePrec);
+        Precursor precursor = level == 1 ? null : new Precursor(scanTime, mzPrec, charges);
+        return new Spectrum(level, precursor, spectrumTitle, peakList, fileName, scanTime);
+    }
+
     /**
      * Writes the given mgf file index in the given directory.
      *
@@ -973,6 +1031,9 @@ public class SpectrumFactory {
         for (BufferedRandomAccessFile randomAccessFile : mgfRandomAccessFilesMap.values()) {
             randomAccessFile.close();
         }
+        for (CmsFileReader cmsFileReader : cmsFileReadersMap.values()) {
+            cmsFileReader.close();
+        }
     }
 
     /**
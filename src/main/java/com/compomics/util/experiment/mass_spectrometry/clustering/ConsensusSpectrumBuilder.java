@@ -0,0 +1,189 @@
+package com.compomics.util.experiment.mass_spectrometry.clustering;
+
+import com.compomics.util.experiment.mass_spectrometry.similarity.BinnedSpectrum;
+import com.compomics.util.experiment.mass_spectrometry.spectra.Peak;
+import com.compomics.util.experiment.mass_spectrometry.spectra.Precursor;
+import com.compomics.util.experiment.mass_spectrometry.spectra.Spectrum;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.TreeSet;
+
+/**
+ * Builds the consensus spectrum of a cluster. The peaks of the spectra are
+ * gathered by m/z bin, the consensus keeps the bins found in a minimal share
+ * of the spectra with their intensity weighted m/z and average intensity.
+ *
+ * @author Marc Vaudel
+ */
+public class ConsensusSpectrumBuilder {
+
+    /**
+     * The bin width in Th.
+     */
+    private final double binWidth;
+    /**
+     * The minimal share of spectra where a peak must be found to be kept.
+     */
+    private final double minPeakShare;
+    /**
+     * The peaks indexed by bin: sum of the intensity weighted m/z, sum of the
+     * intensities, and number of spectra.
+     */
+    private final HashMap<Integer, double[]> peaks = new HashMap<>();
+    /**
+     * The possible charges of the precursors.
+     */
+    private final TreeSet<Integer> charges = new TreeSet<>();
+    /**
+     * The sum of the precursor m/z.
+     */
+    private double precursorMzSum = 0.0;
+    /**
+     * The sum of the precursor intensities.
+     */
+    private double precursorIntensitySum = 0.0;
+    /**
+     * The sum of the retention times.
+     */
+    private double rtSum = 0.0;
+    /**
+     * The number of spectra with retention time.
+     */
+    private int nRt = 0;
+    /**
+     * The minimal retention time.
+     */
+    private double rtMin = Double.NaN;
+    /**
+     * The maximal retention time.
+     */
+    private double rtMax = Double.NaN;
+    /**
+     * The number of spectra added.
+     */
+    private int nSpectra = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param binWidth the bin width in Th
+     * @param minPeakShare the minimal share of spectra where a peak must be
+     * found to be kept
+     */
+    public ConsensusSpectrumBuilder(double binWidth, double minPeakShare) {
+        this.binWidth = binWidth;
+        this.minPeakShare = minPeakShare;
+    }
+
+    /**
+     * Adds a spectrum to the consensus.
+     *
+     * @param spectrum the spectrum
+     */
+    public void addSpectrum(Spectrum spectrum) {
+
+        nSpectra++;
+
+        Precursor precursor = spectrum.getPrecursor();
+
+        if (precursor != null) {
+
+            precursorMzSum += precursor.getMz();
+            precursorIntensitySum += precursor.getIntensity();
+            charges.addAll(precursor.getPossibleCharges());
+
+            double rt = precursor.getRt();
+
+            if (rt >= 0.0) {
+
+                rtSum += rt;
+                nRt++;
+
+                if (Double.isNaN(rtMin) || rt < rtMin) {
+                    rtMin = rt;
+                }
+                if (Double.isNaN(rtMax) || rt > rtMax) {
+                    rtMax = rt;
+                }
+            }
+        }
+
+        // count every bin once per spectrum
+        HashMap<Integer, double[]> spectrumPeaks = new HashMap<>(spectrum.getNPeaks());
+
+        for (Peak peak : spectrum.getPeakList()) {
+
+            int bin = BinnedSpectrum.getBin(peak.mz, binWidth);
+            double[] binPeaks = spectrumPeaks.get(bin);
+
+            if (binPeaks == null) {
+                binPeaks = new double[2];
+                spectrumPeaks.put(bin, binPeaks);
+            }
+
+            binPeaks[0] += peak.mz * peak.intensity;
+            binPeaks[1] += peak.intensity;
+
+        }
+
+        for (Integer bin : spectrumPeaks.keySet()) {
+
+            double[] spectrumBinPeaks = spectrumPeaks.get(bin);
+            double[] binPeaks = peaks.get(bin);
+
+            if (binPeaks == null) {
+                binPeaks = new double[3];
+                peaks.put(bin, binPeaks);
+            }
+
+            binPeaks[0] += spectrumBinPeaks[0];
+            binPeaks[1] += spectrumBinPeaks[1];
+            binPeaks[2]++;
+
+        }
+    }
+
+    /**
+     * Returns the number of spectra added.
+     *
+     * @return the number of spectra added
+     */
+    public int getNSpectra() {
+        return nSpectra;
+    }
+
+    /**
+     * Returns the consensus spectrum.
+     *
+     * @param spectrumTitle the title to give to the consensus spectrum
+     * @param fileName the name of the file of the consensus spectrum
+     *
+     * @return the consensus spectrum
+     */
+    public Spectrum getConsensusSpectrum(String spectrumTitle, String fileName) {
+
+        double minCount = minPeakShare * nSpectra;
+        HashMap<Double, Peak> peakMap = new HashMap<>();
+
+        for (double[] binPeaks : peaks.values()) {
+
+            if (binPeaks[2] >= minCount && binPeaks[1] > 0.0) {
+
+                double mz = binPeaks[0] / binPeaks[1];
+                peakMap.put(mz, new Peak(mz, binPeaks[1] / nSpectra));
+
+            }
+        }
+
+        Precursor precursor;
+        ArrayList<Integer> precursorCharges = new ArrayList<>(charges);
+
+        if (nRt == 0) {
+            precursor = new Precursor(-1.0, precursorMzSum / nSpectra, precursorIntensitySum / nSpectra, precursorCharges);
+        } else {
+            precursor = new Precursor(rtSum / nRt, precursorMzSum / nSpectra, precursorIntensitySum / nSpectra, precursorCharges, rtMin, rtMax);
+        }
+
+        return new Spectrum(2, precursor, spectrumTitle, peakMap, fileName);
+    }
+}
@@ -0,0 +1,473 @@
+package com.compomics.util.experiment.mass_spectrometry.clustering;
+
+import com.compomics.util.experiment.io.mass_spectrometry.mgf.MgfFileIterator;
+import com.compomics.util.experiment.mass_spectrometry.similarity.BinnedSpectrum;
+import com.compomics.util.experiment.mass_spectrometry.spectra.Precursor;
+import com.compomics.util.experiment.mass_spectrometry.spectra.Spectrum;
+import com.compomics.util.waiting.WaitingHandler;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.IntStream;
+
+/**
+ * Clusters the near identical spectra of an mgf file. The spectra are binned
+ * into normalized vectors and processed in the order of the file: a spectrum
+ * joins the cluster of the most similar preceding cluster representative
+ * within the precursor tolerance, of compatible charge, and with a cosine
+ * similarity above the threshold, otherwise it becomes the representative of
+ * a new cluster. Every spectrum is hence similar to the representative of its
+ * cluster, the first spectrum of the cluster, and clusters cannot grow by
+ * chaining similar spectra. Clusters can be exported as mgf with one
+ * consensus spectrum per cluster.
+ *
+ * @author Marc Vaudel
+ */
+public class SpectrumClusterer {
+
+    /**
+     * The number of spectra processed by a task.
+     */
+    private static final int CHUNK_SIZE = 256;
+    /**
+     * The precursor m/z tolerance.
+     */
+    private final double precursorTolerance;
+    /**
+     * Boolean indicating whether the precursor m/z tolerance is in ppm.
+     */
+    private final boolean ppm;
+    /**
+     * The bin width in Th.
+     */
+    private final double binWidth;
+    /**
+     * The minimal cosine similarity between a spectrum and the representative
+     * of its cluster.
+     */
+    private final double minSimilarity;
+    /**
+     * The minimal share of spectra where a peak must be found to be kept in
+     * the consensus spectrum.
+     */
+    private final double minPeakShare;
+    /**
+     * The number of threads to use.
+     */
+    private final int nThreads;
+
+    /**
+     * Constructor.
+     *
+     * @param precursorTolerance the precursor m/z tolerance
+     * @param ppm boolean indicating whether the precursor m/z tolerance is in
+     * ppm
+     * @param binWidth the bin width in Th
+     * @param minSimilarity the minimal cosine similarity between a spectrum
+     * and the representative of its cluster
+     * @param minPeakShare the minimal share of spectra where a peak must be
+     * found to be kept in the consensus spectrum
+     * @param nThreads the number of threads to use
+     */
+    public SpectrumClusterer(double precursorTolerance, boolean ppm, double binWidth, double minSimilarity, double minPeakShare, int nThreads) {
+        this.precursorTolerance = precursorTolerance;
+        this.ppm = ppm;
+        this.binWidth = binWidth;
+        this.minSimilarity = minSimilarity;
+        this.minPeakShare = minPeakShare;
+        this.nThreads = nThreads;
+    }
+
+    /**
+     * Clusters the spectra of the given mgf file.
+     *
+     * @param mgfFile the mgf file
+     * @param waitingHandler a waiting handler, can be null
+     *
+     * @return the index of the cluster of every spectrum in the order of the
+     * file, clusters are numbered from 0 in the order of their first spectrum,
+     * null if the process was canceled
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * the file
+     */
+    public int[] cluster(File mgfFile, WaitingHandler waitingHandler) throws IOException {
+
+        if (waitingHandler != null) {
+            waitingHandler.setSecondaryProgressCounterIndeterminate(true);
+        }
+
+        // bin the spectra, the precursors are indexed by rank in the file
+        ArrayList<BinnedSpectrum> binnedSpectra = new ArrayList<>();
+        ArrayList<Precursor> precursors = new ArrayList<>();
+        MgfFileIterator iterator = new MgfFileIterator(mgfFile);
+
+        while (iterator.hasNext()) {
+
+            Spectrum spectrum = iterator.next();
+            precursors.add(spectrum.getPrecursor());
+            binnedSpectra.add(BinnedSpectrum.getBinnedSpectrum(spectrum, binWidth, true));
+
+            if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                return null;
+            }
+        }
+
+        int nSpectra = precursors.size();
+
+        // sort the ranks of the spectra with precursor by precursor m/z
+        int[] sortedRanks = IntStream.range(0, nSpectra)
+                .filter(i -> precursors.get(i) != null)
+                .boxed()
+                .sorted((i, j) -> Double.compare(precursors.get(i).getMz(), precursors.get(j).getMz()))
+                .mapToInt(Integer::intValue)
+                .toArray();
+        double[] sortedMzs = new double[sortedRanks.length];
+
+        for (int i = 0; i < sortedRanks.length; i++) {
+            sortedMzs[i] = precursors.get(sortedRanks[i]).getMz();
+        }
+
+        // assign the spectra to the representatives in the order of the file
+        int[] representatives = new int[nSpectra];
+
+        if (waitingHandler != null) {
+            waitingHandler.setSecondaryProgressCounterIndeterminate(false);
+            waitingHandler.setMaxSecondaryProgressCounter(nSpectra);
+            waitingHandler.setSecondaryProgressCounter(0);
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+
+        try {
+
+            ArrayList<Future<int[][]>> futures = new ArrayList<>(nSpectra / CHUNK_SIZE + 1);
+
+            for (int start = 0; start < nSpectra; start += CHUNK_SIZE) {
+
+                final int chunkStart = start;
+                final int chunkEnd = Math.min(start + CHUNK_SIZE, nSpectra);
+
+                futures.add(pool.submit(() -> getCandidates(chunkStart, chunkEnd, precursors, binnedSpectra, sortedRanks, sortedMzs)));
+
+            }
+
+            int rank = 0;
+
+            for (Future<int[][]> future : futures) {
+
+                int[][] chunkCandidates = future.get();
+
+                for (int[] candidates : chunkCandidates) {
+
+                    representatives[rank] = rank;
+
+                    for (int candidate : candidates) {
+
+                        if (representatives[candidate] == candidate) {
+                            representatives[rank] = candidate;
+                            break;
+                        }
+                    }
+
+                    rank++;
+
+                }
+
+                if (waitingHandler != null) {
+
+                    if (waitingHandler.isRunCanceled()) {
+                        return null;
+                    }
+
+                    waitingHandler.increaseSecondaryProgressCounter(chunkCandidates.length);
+
+                }
+            }
+
+        } catch (InterruptedException e) {
+            throw new IOException("Spectrum clustering interrupted.", e);
+        } catch (ExecutionException e) {
+            throw new IOException("An error occurred while clustering the spectra.", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+
+        // number the clusters, representatives precede the other spectra of their cluster
+        int[] clusters = new int[nSpectra];
+        int nClusters = 0;
+
+        for (int i = 0; i < nSpectra; i++) {
+
+            int representative = representatives[i];
+            clusters[i] = representative == i ? nClusters++ : clusters[representative];
+
+        }
+
+        if (waitingHandler != null) {
+            waitingHandler.setSecondaryProgressCounterIndeterminate(true);
+        }
+
+        return clusters;
+    }
+
+    /**
+     * Returns for every spectrum of the given range the preceding spectra
+     * within the precursor tolerance, of compatible charge, and with a cosine
+     * similarity above the threshold, sorted by decreasing similarity and
+     * increasing rank.
+     *
+     * @param start the rank of the first spectrum
+     * @param end the rank of the last spectrum, excluded
+     * @param precursors the precursors
+     * @param binnedSpectra the binned spectra
+     * @param sortedRanks the ranks of the spectra with precursor sorted by
+     * precursor m/z
+     * @param sortedMzs the precursor m/z of the sorted spectra
+     *
+     * @return the ranks of the candidate representatives of every spectrum
+     */
+    private int[][] getCandidates(int start, int end, ArrayList<Precursor> precursors, ArrayList<BinnedSpectrum> binnedSpectra, int[] sortedRanks, double[] sortedMzs) {
+
+        int[][] result = new int[end - start][];
+        ArrayList<Integer> candidates = new ArrayList<>();
+        HashMap<Integer, Double> similarities = new HashMap<>();
+
+        for (int j = start; j < end; j++) {
+
+            Precursor precursor = precursors.get(j);
+
+            if (precursor == null) {
+                result[j - start] = new int[0];
+                continue;
+            }
+
+            BinnedSpectrum binnedSpectrum = binnedSpectra.get(j);
+            double precursorMz = precursor.getMz();
+            double window = ppm ? precursorMz * precursorTolerance / 1000000 : precursorTolerance;
+            double maxMz = precursorMz + window;
+            candidates.clear();
+            similarities.clear();
+
+            for (int k = getFirstIndex(sortedMzs, precursorMz - window); k < sortedMzs.length && sortedMzs[k] <= maxMz; k++) {
+
+                int i = sortedRanks[k];
+
+                if (i < j && chargesCompatible(precursor.getPossibleCharges(), precursors.get(i).getPossibleCharges())) {
+
+                    double similarity = binnedSpectrum.dotProduct(binnedSpectra.get(i));
+
+                    if (similarity >= minSimilarity) {
+                        candidates.add(i);
+                        similarities.put(i, similarity);
+                    }
+                }
+            }
+
+            candidates.sort((i1, i2) -> {
+                int comparison = Double.compare(similarities.get(i2), similarities.get(i1));
+                return comparison != 0 ? comparison : Integer.compare(i1, i2);
+            });
+
+            result[j - start] = candidates.stream()
+                    .mapToInt(Integer::intValue)
+                    .toArray();
+
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the index of the first m/z higher than or equal to the given
+     * m/z, the length of the array if none.
+     *
+     * @param sortedMzs the m/z values in ascending order
+     * @param mz the m/z
+     *
+     * @return the index of the first m/z higher than or equal to the given m/z
+     */
+    private static int getFirstIndex(double[] sortedMzs, double mz) {
+
+        int low = 0;
+        int high = sortedMzs.length;
+
+        while (low < high) {
+
+            int middle = (low + high) >>> 1;
+
+            if (sortedMzs[middle] < mz) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        return low;
+    }
+
+    /**
+     * Indicates whether two lists of possible charges are compatible, i.e.
+     * share a charge or are not known.
+     *
+     * @param charges1 the first list of charges
+     * @param charges2 the second list of charges
+     *
+     * @return a boolean indicating whether the charges are compatible
+     */
+    private static boolean chargesCompatible(ArrayList<Integer> charges1, ArrayList<Integer> charges2) {
+
+        if (charges1.isEmpty() || charges2.isEmpty()) {
+            return true;
+        }
+
+        for (Integer charge : charges1) {
+            if (charges2.contains(charge)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Writes the clusters as mgf file. Spectra alone in their cluster are
+     * written as is, clusters of multiple spectra are written as consensus
+     * spectrum named after the cluster. The members of every cluster are
+     * written to a separate tab separated file. If the process is canceled or
+     * fails, the files are deleted.
+     *
+     * @param mgfFile the mgf file that was clustered
+     * @param clusters the index of the cluster of every spectrum as returned
+     * by the cluster method
+     * @param destinationFile the mgf file where to write the clusters
+     * @param clustersFile the file where to write the members of the
+     * clusters, ignored if null
+     * @param waitingHandler a waiting handler, can be null
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * or writing a file
+     */
+    public void writeClusters(File mgfFile, int[] clusters, File destinationFile, File clustersFile, WaitingHandler waitingHandler) throws IOException {
+
+        int nClusters = 0;
+
+        for (int cluster : clusters) {
+            nClusters = Math.max(nClusters, cluster + 1);
+        }
+
+        int[] clusterSizes = new int[nClusters];
+
+        for (int cluster : clusters) {
+            clusterSizes[cluster]++;
+        }
+
+        if (waitingHandler != null) {
+            waitingHandler.setSecondaryProgressCounterIndeterminate(false);
+            waitingHandler.setMaxSecondaryProgressCounter(clusters.length);
+            waitingHandler.setSecondaryProgressCounter(0);
+        }
+
+        String destinationFileName = destinationFile.getName();
+        HashMap<Integer, ConsensusSpectrumBuilder> openClusters = new HashMap<>();
+        MgfFileIterator iterator = new MgfFileIterator(mgfFile);
+
+        boolean completed = false;
+
+        try {
+
+            try (BufferedWriter mgfWriter = new BufferedWriter(new FileWriter(destinationFile));
+                    BufferedWriter clustersWriter = clustersFile == null ? null : new BufferedWriter(new FileWriter(clustersFile))) {
+
+                if (clustersWriter != null) {
+                    clustersWriter.write("Cluster\tSpectrum Title");
+                    clustersWriter.newLine();
+                }
+
+                int rank = 0;
+
+                while (iterator.hasNext()) {
+
+                    Spectrum spectrum = iterator.next();
+                    int cluster = clusters[rank++];
+                    int clusterSize = clusterSizes[cluster];
+
+                    if (clustersWriter != null) {
+                        clustersWriter.write(getClusterTitle(cluster));
+                        clustersWriter.write('\t');
+                        clustersWriter.write(spectrum.getSpectrumTitle());
+                        clustersWriter.newLine();
+                    }
+
+                    if (clusterSize == 1) {
+
+                        spectrum.writeMgf(mgfWriter);
+
+                    } else {
+
+                        ConsensusSpectrumBuilder consensusSpectrumBuilder = openClusters.get(cluster);
+
+                        if (consensusSpectrumBuilder == null) {
+                            consensusSpectrumBuilder = new ConsensusSpectrumBuilder(binWidth, minPeakShare);
+                            openClusters.put(cluster, consensusSpectrumBuilder);
+                        }
+
+                        consensusSpectrumBuilder.addSpectrum(spectrum);
+
+                        // write the consensus as soon as all spectra were found
+                        if (consensusSpectrumBuilder.getNSpectra() == clusterSize) {
+                            consensusSpectrumBuilder.getConsensusSpectrum(getClusterTitle(cluster), destinationFileName).writeMgf(mgfWriter);
+                            openClusters.remove(cluster);
+                        }
+                    }
+
+                    if (waitingHandler != null) {
+
+                        if (waitingHandler.isRunCanceled()) {
+                            return;
+                        }
+
+                        waitingHandler.increaseSecondaryProgressCounter();
+
+                    }
+                }
+            }
+
+            completed = true;
+
+        } finally {
+
+            // do not leave truncated files behind when canceled or failing
+            if (!completed) {
+
+                destinationFile.delete();
+
+                if (clustersFile != null) {
+                    clustersFile.delete();
+                }
+            }
+        }
+
+        if (waitingHandler != null) {
+            waitingHandler.setSecondaryProgressCounterIndeterminate(true);
+        }
+    }
+
+    /**
+     * Returns the title of the consensus spectrum of the given cluster.
+     *
+     * @param cluster the index of the cluster
+     *
+     * @return the title of the consensus spectrum
+     */
+    public static String getClusterTitle(int cluster) {
+        return "cluster_" + (cluster + 1);
+    }
+}
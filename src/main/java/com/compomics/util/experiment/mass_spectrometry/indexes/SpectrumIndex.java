@@ -285,6 +285,52 @@ public class SpectrumIndex extends DbObject implements UrParameter {
         
     }
 
+    /**
+     * Stores the peaks matching the given m/z in the given array and returns
+     * the number of matching peaks. If the array is too small, only the first
+     * peaks are stored but the total number of matching peaks is returned.
+     *
+     * @param mz a m/z to query
+     * @param matchingPeaks the array where to store the matching peaks
+     *
+     * @return the number of peaks matching the given m/z
+     */
+    public int getMatchingPeaks(double mz, Peak[] matchingPeaks) {
+
+        readDBMode();
+
+        int bin0 = ppm ? getBinPpm(mz) : getBinAbsolute(mz);
+        int nPeaks = 0;
+
+        for (int bin = bin0 - 1; bin <= bin0 + 1; bin++) {
+
+            HashMap<Double, Peak> binContent = peaksMap.get(bin);
+
+            if (binContent != null) {
+
+                for (Peak peak : binContent.values()) {
+
+                    double error = ppm ? 1000000 * (peak.mz - mz) / mz : peak.mz - mz;
+
+                    if (Math.abs(error) <= precursorTolerance) {
+
+                        if (nPeaks < matchingPeaks.length) {
+
+                            matchingPeaks[nPeaks] = peak;
+
+                        }
+
+                        nPeaks++;
+
+                    }
+                }
+            }
+        }
+
+        return nPeaks;
+
+    }
+
     /**
      * Returns the bins in the map as a list. The list is created every time me method is called.
      *
@@ -0,0 +1,202 @@
+package com.compomics.util.experiment.mass_spectrometry.similarity;
+
+import com.compomics.util.experiment.mass_spectrometry.spectra.Spectrum;
+import java.util.Arrays;
+
+/**
+ * A spectrum binned on the m/z axis and stored as a sparse vector of unit
+ * length. Only the non-empty bins are stored, in ascending order.
+ *
+ * @author Marc Vaudel
+ */
+public class BinnedSpectrum {
+
+    /**
+     * The default bin width in Th.
+     */
+    public static final double DEFAULT_BIN_WIDTH = 1.0005;
+    /**
+     * The indexes of the non-empty bins in ascending order.
+     */
+    private final int[] bins;
+    /**
+     * The normalized weights of the bins.
+     */
+    private final float[] weights;
+
+    /**
+     * Constructor. The bins must be in ascending order and the weights
+     * normalized.
+     *
+     * @param bins the indexes of the non-empty bins in ascending order
+     * @param weights the normalized weights of the bins
+     */
+    public BinnedSpectrum(int[] bins, float[] weights) {
+        this.bins = bins;
+        this.weights = weights;
+    }
+
+    /**
+     * Returns the binned spectrum corresponding to the given spectrum.
+     *
+     * @param spectrum the spectrum
+     * @param binWidth the bin width in Th
+     * @param squareRoot if true the square root of the intensities is used
+     *
+     * @return the binned spectrum
+     */
+    public static BinnedSpectrum getBinnedSpectrum(Spectrum spectrum, double binWidth, boolean squareRoot) {
+
+        double[][] mzAndIntensities = spectrum.getMzAndIntensityAsArray();
+
+        return getBinnedSpectrum(mzAndIntensities[0], mzAndIntensities[1], binWidth, squareRoot);
+    }
+
+    /**
+     * Returns the binned spectrum corresponding to the given peaks. Intensities
+     * falling in the same bin are summed and the resulting vector normalized to
+     * unit length.
+     *
+     * @param mzs the m/z values in ascending order
+     * @param intensities the intensities
+     * @param binWidth the bin width in Th
+     * @param squareRoot if true the square root of the intensities is used
+     *
+     * @return the binned spectrum
+     */
+    public static BinnedSpectrum getBinnedSpectrum(double[] mzs, double[] intensities, double binWidth, boolean squareRoot) {
+
+        int[] bins = new int[mzs.length];
+        float[] weights = new float[mzs.length];
+        int nBins = 0;
+        int previousBin = Integer.MIN_VALUE;
+
+        for (int i = 0; i < mzs.length; i++) {
+
+            double intensity = intensities[i];
+
+            if (intensity <= 0.0) {
+                continue;
+            }
+
+            int bin = getBin(mzs[i], binWidth);
+
+            if (bin < previousBin) {
+                throw new IllegalArgumentException("The m/z values must be sorted in ascending order.");
+            }
+
+            float weight = (float) (squareRoot ? Math.sqrt(intensity) : intensity);
+
+            if (bin == previousBin) {
+
+                weights[nBins - 1] += weight;
+
+            } else {
+
+                bins[nBins] = bin;
+                weights[nBins] = weight;
+                nBins++;
+                previousBin = bin;
+
+            }
+        }
+
+        double norm = 0.0;
+
+        for (int i = 0; i < nBins; i++) {
+            norm += weights[i] * weights[i];
+        }
+
+        if (norm > 0.0) {
+
+            float factor = (float) (1.0 / Math.sqrt(norm));
+
+            for (int i = 0; i < nBins; i++) {
+                weights[i] *= factor;
+            }
+        }
+
+        return new BinnedSpectrum(Arrays.copyOf(bins, nBins), Arrays.copyOf(weights, nBins));
+    }
+
+    /**
+     * Returns the bin of the given m/z.
+     *
+     * @param mz the m/z
+     * @param binWidth the bin width in Th
+     *
+     * @return the bin of the given m/z
+     */
+    public static int getBin(double mz, double binWidth) {
+        return (int) (mz / binWidth);
+    }
+
+    /**
+     * Returns the indexes of the non-empty bins in ascending order. The array
+     * is not copied and should not be modified.
+     *
+     * @return the indexes of the non-empty bins
+     */
+    public int[] getBins() {
+        return bins;
+    }
+
+    /**
+     * Returns the normalized weights of the bins. The array is not copied and
+     * should not be modified.
+     *
+     * @return the normalized weights of the bins
+     */
+    public float[] getWeights() {
+        return weights;
+    }
+
+    /**
+     * Returns the number of non-empty bins.
+     *
+     * @return the number of non-empty bins
+     */
+    public int size() {
+        return bins.length;
+    }
+
+    /**
+     * Returns the dot product between this spectrum and another binned
+     * spectrum. As both vectors are normalized, this is the cosine similarity.
+     *
+     * @param other the other binned spectrum
+     *
+     * @return the dot product
+     */
+    public double dotProduct(BinnedSpectrum other) {
+
+        int[] otherBins = other.bins;
+        float[] otherWeights = other.weights;
+        double result = 0.0;
+        int i = 0, j = 0;
+
+        while (i < bins.length && j < otherBins.length) {
+
+            int bin1 = bins[i];
+            int bin2 = otherBins[j];
+
+            if (bin1 == bin2) {
+
+                result += weights[i] * otherWeights[j];
+                i++;
+                j++;
+
+            } else if (bin1 < bin2) {
+
+                i++;
+
+            } else {
+
+                j++;
+
+            }
+        }
+
+        return result;
+    }
+}
@@ -0,0 +1,84 @@
+package com.compomics.util.experiment.mass_spectrometry.similarity;
+
+/**
+ * Enum of the implemented spectrum similarity scores.
+ *
+ * @author Marc Vaudel
+ */
+public enum SimilarityScore {
+
+    dotProduct(0, "Dot Product", "Normalized dot product of the binned spectra.") {
+
+        @Override
+        public double getScore(BinnedSpectrum spectrum1, BinnedSpectrum spectrum2) {
+            return spectrum1.dotProduct(spectrum2);
+        }
+    },
+    spectralContrastAngle(1, "Spectral Contrast Angle", "Spectral contrast angle between the binned spectra.") {
+
+        @Override
+        public double getScore(BinnedSpectrum spectrum1, BinnedSpectrum spectrum2) {
+            return getSpectralContrastAngle(spectrum1.dotProduct(spectrum2));
+        }
+    };
+
+    /**
+     * The index of the score.
+     */
+    public final int index;
+    /**
+     * The name of the score.
+     */
+    public final String name;
+    /**
+     * The description of the score.
+     */
+    public final String description;
+
+    /**
+     * Constructor.
+     *
+     * @param index the index of the score
+     * @param name the name of the score
+     * @param description the description of the score
+     */
+    private SimilarityScore(int index, String name, String description) {
+        this.index = index;
+        this.name = name;
+        this.description = description;
+    }
+
+    /**
+     * Empty default constructor
+     */
+    private SimilarityScore() {
+        index = 0;
+        name = "";
+        description = "";
+    }
+
+    /**
+     * Returns the similarity between two binned spectra, between 0 and 1.
+     *
+     * @param spectrum1 the first spectrum
+     * @param spectrum2 the second spectrum
+     *
+     * @return the similarity between the two spectra
+     */
+    public abstract double getScore(BinnedSpectrum spectrum1, BinnedSpectrum spectrum2);
+
+    /**
+     * Returns the spectral contrast angle score corresponding to the given
+     * normalized dot product, 1 - 2 &times; acos(dotProduct) / &pi;.
+     *
+     * @param dotProduct the normalized dot product
+     *
+     * @return the spectral contrast angle score
+     */
+    public static double getSpectralContrastAngle(double dotProduct) {
+
+        double cosine = Math.min(1.0, Math.max(0.0, dotProduct));
+
+        return 1.0 - 2.0 * Math.acos(cosine) / Math.PI;
+    }
+}
@@ -0,0 +1,35 @@
+package com.compomics.util.experiment.mass_spectrometry.spectral_library;
+
+/**
+ * A match between a spectrum and an entry of a spectral library.
+ *
+ * @author Marc Vaudel
+ */
+public class LibraryMatch {
+
+    /**
+     * The index of the entry in the library.
+     */
+    public final int libraryIndex;
+    /**
+     * The title of the entry in the library.
+     */
+    public final String libraryTitle;
+    /**
+     * The similarity score.
+     */
+    public final double score;
+
+    /**
+     * Constructor.
+     *
+     * @param libraryIndex the index of the entry in the library
+     * @param libraryTitle the title of the entry in the library
+     * @param score the similarity score
+     */
+    public LibraryMatch(int libraryIndex, String libraryTitle, double score) {
+        this.libraryIndex = libraryIndex;
+        this.libraryTitle = libraryTitle;
+        this.score = score;
+    }
+}
@@ -0,0 +1,350 @@
+package com.compomics.util.experiment.mass_spectrometry.spectral_library;
+
+import com.compomics.util.experiment.io.mass_spectrometry.msp.MspFileIterator;
+import com.compomics.util.experiment.mass_spectrometry.similarity.BinnedSpectrum;
+import com.compomics.util.experiment.mass_spectrometry.spectra.Precursor;
+import com.compomics.util.experiment.mass_spectrometry.spectra.Spectrum;
+import com.compomics.util.waiting.WaitingHandler;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.stream.IntStream;
+
+/**
+ * Index of a spectral library. The entries are sorted by precursor m/z and
+ * charge, and their peaks are stored as binned normalized vectors. The index
+ * is immutable and can be shared between threads.
+ *
+ * @author Marc Vaudel
+ */
+public class SpectralLibraryIndex {
+
+    /**
+     * The name of the library file.
+     */
+    private final String fileName;
+    /**
+     * The bin width in Th.
+     */
+    private final double binWidth;
+    /**
+     * Boolean indicating whether the square root of the intensities is used.
+     */
+    private final boolean squareRoot;
+    /**
+     * The precursor m/z of the entries in ascending order.
+     */
+    private final double[] precursorMzs;
+    /**
+     * The precursor charges of the entries, 0 if not known.
+     */
+    private final int[] charges;
+    /**
+     * The titles of the entries.
+     */
+    private final String[] titles;
+    /**
+     * The binned spectra of the entries.
+     */
+    private final BinnedSpectrum[] binnedSpectra;
+
+    /**
+     * Constructor.
+     *
+     * @param spectra the spectra of the library
+     * @param fileName the name of the library file
+     * @param binWidth the bin width in Th
+     * @param squareRoot if true the square root of the intensities is used
+     */
+    public SpectralLibraryIndex(Collection<Spectrum> spectra, String fileName, double binWidth, boolean squareRoot) {
+
+        this(fileName, binWidth, squareRoot, getEntries(spectra, binWidth, squareRoot));
+
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param fileName the name of the library file
+     * @param binWidth the bin width in Th
+     * @param squareRoot if true the square root of the intensities is used
+     * @param entries the entries of the library
+     */
+    private SpectralLibraryIndex(String fileName, double binWidth, boolean squareRoot, EntriesBuilder entries) {
+
+        this.fileName = fileName;
+        this.binWidth = binWidth;
+        this.squareRoot = squareRoot;
+
+        int nEntries = entries.size();
+
+        int[] order = IntStream.range(0, nEntries)
+                .boxed()
+                .sorted((i, j) -> {
+                    int comparison = Double.compare(entries.precursorMzs.get(i), entries.precursorMzs.get(j));
+                    return comparison != 0 ? comparison : Integer.compare(entries.charges.get(i), entries.charges.get(j));
+                })
+                .mapToInt(Integer::intValue)
+                .toArray();
+
+        precursorMzs = new double[nEntries];
+        charges = new int[nEntries];
+        titles = new String[nEntries];
+        binnedSpectra = new BinnedSpectrum[nEntries];
+
+        for (int i = 0; i < nEntries; i++) {
+
+            int index = order[i];
+            precursorMzs[i] = entries.precursorMzs.get(index);
+            charges[i] = entries.charges.get(index);
+            titles[i] = entries.titles.get(index);
+            binnedSpectra[i] = entries.binnedSpectra.get(index);
+
+        }
+    }
+
+    /**
+     * Builds the entries for a collection of spectra.
+     *
+     * @param spectra the spectra
+     * @param binWidth the bin width in Th
+     * @param squareRoot if true the square root of the intensities is used
+     *
+     * @return the entries
+     */
+    private static EntriesBuilder getEntries(Collection<Spectrum> spectra, double binWidth, boolean squareRoot) {
+
+        EntriesBuilder entries = new EntriesBuilder(spectra.size());
+
+        for (Spectrum spectrum : spectra) {
+            entries.add(spectrum, binWidth, squareRoot);
+        }
+
+        return entries;
+    }
+
+    /**
+     * Indexes the given msp file.
+     *
+     * @param mspFile the msp file
+     * @param binWidth the bin width in Th
+     * @param squareRoot if true the square root of the intensities is used
+     * @param waitingHandler a waiting handler, can be null
+     *
+     * @return the index of the library, null if the process was canceled
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * the file
+     */
+    public static SpectralLibraryIndex getIndex(File mspFile, double binWidth, boolean squareRoot, WaitingHandler waitingHandler) throws IOException {
+
+        if (waitingHandler != null) {
+            waitingHandler.setSecondaryProgressCounterIndeterminate(true);
+        }
+
+        EntriesBuilder entries = new EntriesBuilder(1024);
+        MspFileIterator iterator = new MspFileIterator(mspFile);
+
+        while (iterator.hasNext()) {
+
+            entries.add(iterator.next(), binWidth, squareRoot);
+
+            if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                return null;
+            }
+        }
+
+        return new SpectralLibraryIndex(mspFile.getName(), binWidth, squareRoot, entries);
+    }
+
+    /**
+     * Returns the name of the library file.
+     *
+     * @return the name of the library file
+     */
+    public String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * Returns the bin width in Th.
+     *
+     * @return the bin width in Th
+     */
+    public double getBinWidth() {
+        return binWidth;
+    }
+
+    /**
+     * Indicates whether the square root of the intensities is used.
+     *
+     * @return a boolean indicating whether the square root of the intensities
+     * is used
+     */
+    public boolean isSquareRoot() {
+        return squareRoot;
+    }
+
+    /**
+     * Returns the number of entries in the library.
+     *
+     * @return the number of entries in the library
+     */
+    public int size() {
+        return precursorMzs.length;
+    }
+
+    /**
+     * Returns the precursor m/z of the entry at the given index.
+     *
+     * @param index the index of the entry
+     *
+     * @return the precursor m/z
+     */
+    public double getPrecursorMz(int index) {
+        return precursorMzs[index];
+    }
+
+    /**
+     * Returns the precursor charge of the entry at the given index, 0 if not
+     * known.
+     *
+     * @param index the index of the entry
+     *
+     * @return the precursor charge
+     */
+    public int getCharge(int index) {
+        return charges[index];
+    }
+
+    /**
+     * Returns the title of the entry at the given index.
+     *
+     * @param index the index of the entry
+     *
+     * @return the title
+     */
+    public String getTitle(int index) {
+        return titles[index];
+    }
+
+    /**
+     * Returns the binned spectrum of the entry at the given index.
+     *
+     * @param index the index of the entry
+     *
+     * @return the binned spectrum
+     */
+    public BinnedSpectrum getBinnedSpectrum(int index) {
+        return binnedSpectra[index];
+    }
+
+    /**
+     * Returns the binned spectrum of the given spectrum using the binning
+     * parameters of the library.
+     *
+     * @param spectrum the spectrum
+     *
+     * @return the binned spectrum
+     */
+    public BinnedSpectrum getBinnedSpectrum(Spectrum spectrum) {
+        return BinnedSpectrum.getBinnedSpectrum(spectrum, binWidth, squareRoot);
+    }
+
+    /**
+     * Returns the index of the first entry with a precursor m/z higher than or
+     * equal to the given m/z, size() if none.
+     *
+     * @param mz the m/z
+     *
+     * @return the index of the first entry with a precursor m/z higher than or
+     * equal to the given m/z
+     */
+    public int getFirstIndex(double mz) {
+
+        int low = 0;
+        int high = precursorMzs.length;
+
+        while (low < high) {
+
+            int middle = (low + high) >>> 1;
+
+            if (precursorMzs[middle] < mz) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        return low;
+    }
+
+    /**
+     * Convenience class used to gather the entries before sorting.
+     */
+    private static class EntriesBuilder {
+
+        /**
+         * The precursor m/z of the entries.
+         */
+        private final ArrayList<Double> precursorMzs;
+        /**
+         * The precursor charges of the entries.
+         */
+        private final ArrayList<Integer> charges;
+        /**
+         * The titles of the entries.
+         */
+        private final ArrayList<String> titles;
+        /**
+         * The binned spectra of the entries.
+         */
+        private final ArrayList<BinnedSpectrum> binnedSpectra;
+
+        /**
+         * Constructor.
+         *
+         * @param capacity the initial capacity
+         */
+        private EntriesBuilder(int capacity) {
+            precursorMzs = new ArrayList<>(capacity);
+            charges = new ArrayList<>(capacity);
+            titles = new ArrayList<>(capacity);
+            binnedSpectra = new ArrayList<>(capacity);
+        }
+
+        /**
+         * Adds a spectrum, spectra without precursor are ignored.
+         *
+         * @param spectrum the spectrum
+         * @param binWidth the bin width in Th
+         * @param squareRoot if true the square root of the intensities is used
+         */
+        private void add(Spectrum spectrum, double binWidth, boolean squareRoot) {
+
+            Precursor precursor = spectrum.getPrecursor();
+
+            if (precursor == null) {
+                return;
+            }
+
+            ArrayList<Integer> possibleCharges = precursor.getPossibleCharges();
+
+            precursorMzs.add(precursor.getMz());
+            charges.add(possibleCharges.isEmpty() ? 0 : possibleCharges.get(0));
+            titles.add(spectrum.getSpectrumTitle());
+            binnedSpectra.add(BinnedSpectrum.getBinnedSpectrum(spectrum, binWidth, squareRoot));
+
+        }
+
+        /**
+         * Returns the number of entries.
+         *
+         * @return the number of entries
+         */
+        private int size() {
+            return precursorMzs.size();
+        }
+    }
+}
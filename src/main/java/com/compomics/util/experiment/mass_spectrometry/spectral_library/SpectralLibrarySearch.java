@@ -0,0 +1,404 @@
+package com.compomics.util.experiment.mass_spectrometry.spectral_library;
+
+import com.compomics.util.experiment.io.mass_spectrometry.cms.CmsFileReader;
+import com.compomics.util.experiment.io.mass_spectrometry.mgf.MgfFileIterator;
+import com.compomics.util.experiment.mass_spectrometry.similarity.BinnedSpectrum;
+import com.compomics.util.experiment.mass_spectrometry.similarity.SimilarityScore;
+import com.compomics.util.experiment.mass_spectrometry.spectra.Precursor;
+import com.compomics.util.experiment.mass_spectrometry.spectra.Spectrum;
+import com.compomics.util.waiting.WaitingHandler;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Searches spectra against a spectral library. The spectra are compared to
+ * all library entries within the precursor tolerance and of compatible
+ * charge.
+ *
+ * @author Marc Vaudel
+ */
+public class SpectralLibrarySearch {
+
+    /**
+     * The number of spectra processed by a task.
+     */
+    private static final int CHUNK_SIZE = 128;
+    /**
+     * The number of spectra read from a file at once.
+     */
+    private static final int BATCH_SIZE = 16384;
+    /**
+     * The library index.
+     */
+    private final SpectralLibraryIndex libraryIndex;
+    /**
+     * The precursor m/z tolerance.
+     */
+    private final double precursorTolerance;
+    /**
+     * Boolean indicating whether the precursor m/z tolerance is in ppm.
+     */
+    private final boolean ppm;
+    /**
+     * The similarity score to use.
+     */
+    private final SimilarityScore similarityScore;
+    /**
+     * The maximal number of matches to return per spectrum.
+     */
+    private final int nMatches;
+    /**
+     * The minimal score for a match to be returned.
+     */
+    private final double minScore;
+
+    /**
+     * Constructor.
+     *
+     * @param libraryIndex the library index
+     * @param precursorTolerance the precursor m/z tolerance
+     * @param ppm boolean indicating whether the precursor m/z tolerance is in
+     * ppm
+     * @param similarityScore the similarity score to use
+     * @param nMatches the maximal number of matches to return per spectrum
+     * @param minScore the minimal score for a match to be returned
+     */
+    public SpectralLibrarySearch(SpectralLibraryIndex libraryIndex, double precursorTolerance, boolean ppm, SimilarityScore similarityScore, int nMatches, double minScore) {
+
+        if (nMatches < 1) {
+            throw new IllegalArgumentException("At least one match must be returned per spectrum.");
+        }
+
+        this.libraryIndex = libraryIndex;
+        this.precursorTolerance = precursorTolerance;
+        this.ppm = ppm;
+        this.similarityScore = similarityScore;
+        this.nMatches = nMatches;
+        this.minScore = minScore;
+    }
+
+    /**
+     * Returns the best matches of the given spectrum in the library sorted by
+     * decreasing score. This method is thread-safe.
+     *
+     * @param spectrum the spectrum
+     *
+     * @return the best matches of the spectrum
+     */
+    public LibraryMatch[] search(Spectrum spectrum) {
+
+        Precursor precursor = spectrum.getPrecursor();
+
+        if (precursor == null) {
+            return new LibraryMatch[0];
+        }
+
+        double precursorMz = precursor.getMz();
+        double window = ppm ? precursorMz * precursorTolerance / 1000000 : precursorTolerance;
+        double maxMz = precursorMz + window;
+        ArrayList<Integer> possibleCharges = precursor.getPossibleCharges();
+
+        BinnedSpectrum binnedSpectrum = libraryIndex.getBinnedSpectrum(spectrum);
+
+        int[] bestIndexes = new int[nMatches];
+        double[] bestScores = new double[nMatches];
+        int nFound = 0;
+
+        for (int i = libraryIndex.getFirstIndex(precursorMz - window); i < libraryIndex.size() && libraryIndex.getPrecursorMz(i) <= maxMz; i++) {
+
+            int libraryCharge = libraryIndex.getCharge(i);
+
+            if (libraryCharge != 0 && !possibleCharges.isEmpty() && !possibleCharges.contains(libraryCharge)) {
+                continue;
+            }
+
+            double score = similarityScore.getScore(binnedSpectrum, libraryIndex.getBinnedSpectrum(i));
+
+            if (score < minScore || nFound == nMatches && score <= bestScores[nFound - 1]) {
+                continue;
+            }
+
+            // insert the match in the sorted list of best matches
+            int position = nFound < nMatches ? nFound++ : nFound - 1;
+
+            while (position > 0 && bestScores[position - 1] < score) {
+                bestScores[position] = bestScores[position - 1];
+                bestIndexes[position] = bestIndexes[position - 1];
+                position--;
+            }
+
+            bestScores[position] = score;
+            bestIndexes[position] = i;
+
+        }
+
+        LibraryMatch[] result = new LibraryMatch[nFound];
+
+        for (int i = 0; i < nFound; i++) {
+            result[i] = new LibraryMatch(bestIndexes[i], libraryIndex.getTitle(bestIndexes[i]), bestScores[i]);
+        }
+
+        return result;
+    }
+
+    /**
+     * Searches the given spectra using multiple threads.
+     *
+     * @param spectra the spectra to search
+     * @param nThreads the number of threads to use
+     * @param waitingHandler a waiting handler, can be null
+     *
+     * @return the best matches of every spectrum in the order of the given
+     * spectra, null if the process was canceled
+     *
+     * @throws IOException exception thrown if an error occurred while
+     * searching
+     */
+    public LibraryMatch[][] search(List<Spectrum> spectra, int nThreads, WaitingHandler waitingHandler) throws IOException {
+
+        if (waitingHandler != null) {
+            waitingHandler.setSecondaryProgressCounterIndeterminate(false);
+            waitingHandler.setMaxSecondaryProgressCounter(spectra.size());
+            waitingHandler.setSecondaryProgressCounter(0);
+        }
+
+        LibraryMatch[][] results = new LibraryMatch[spectra.size()][];
+        ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+
+        try {
+
+            ArrayList<Future<Integer>> futures = submit(spectra, results, pool);
+
+            if (!waitForCompletion(futures, pool, waitingHandler)) {
+                return null;
+            }
+
+        } finally {
+            pool.shutdownNow();
+        }
+
+        if (waitingHandler != null) {
+            waitingHandler.setSecondaryProgressCounterIndeterminate(true);
+        }
+
+        return results;
+    }
+
+    /**
+     * Searches the spectra of the given file using multiple threads. Spectra
+     * are read by batch while the previous batch is being searched.
+     *
+     * @param spectrumFile the spectrum file, can be mgf or cms
+     * @param nThreads the number of threads to use
+     * @param waitingHandler a waiting handler, can be null
+     *
+     * @return the best matches of every spectrum in the order of the file,
+     * null if the process was canceled
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * the file
+     */
+    public ArrayList<LibraryMatch[]> search(File spectrumFile, int nThreads, WaitingHandler waitingHandler) throws IOException {
+
+        if (waitingHandler != null) {
+            waitingHandler.setSecondaryProgressCounterIndeterminate(true);
+        }
+
+        ArrayList<LibraryMatch[]> results = new ArrayList<>();
+        ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+
+        try (SpectrumBatchReader reader = new SpectrumBatchReader(spectrumFile)) {
+
+            ArrayList<Spectrum> batch = reader.nextBatch();
+
+            while (!batch.isEmpty()) {
+
+                LibraryMatch[][] batchResults = new LibraryMatch[batch.size()][];
+                ArrayList<Future<Integer>> futures = submit(batch, batchResults, pool);
+
+                // read the next batch while searching the current one
+                ArrayList<Spectrum> nextBatch = reader.nextBatch();
+
+                if (!waitForCompletion(futures, pool, waitingHandler)) {
+                    return null;
+                }
+
+                results.addAll(Arrays.asList(batchResults));
+
+                batch = nextBatch;
+
+            }
+
+        } finally {
+            pool.shutdownNow();
+        }
+
+        return results;
+    }
+
+    /**
+     * Submits the search of the given spectra to the pool by chunks.
+     *
+     * @param spectra the spectra to search
+     * @param results the array where to store the results
+     * @param pool the pool
+     *
+     * @return the futures of the tasks, returning the number of spectra
+     * processed
+     */
+    private ArrayList<Future<Integer>> submit(List<Spectrum> spectra, LibraryMatch[][] results, ExecutorService pool) {
+
+        ArrayList<Future<Integer>> futures = new ArrayList<>(spectra.size() / CHUNK_SIZE + 1);
+
+        for (int start = 0; start < spectra.size(); start += CHUNK_SIZE) {
+
+            final int chunkStart = start;
+            final int chunkEnd = Math.min(start + CHUNK_SIZE, spectra.size());
+
+            futures.add(pool.submit(() -> {
+
+                for (int i = chunkStart; i < chunkEnd; i++) {
+                    results[i] = search(spectra.get(i));
+                }
+
+                return chunkEnd - chunkStart;
+
+            }));
+        }
+
+        return futures;
+    }
+
+    /**
+     * Waits for the given tasks to complete.
+     *
+     * @param futures the futures of the tasks
+     * @param pool the pool
+     * @param waitingHandler a waiting handler, can be null
+     *
+     * @return true if the tasks completed, false if the process was canceled
+     *
+     * @throws IOException exception thrown if an error occurred while
+     * searching
+     */
+    private boolean waitForCompletion(ArrayList<Future<Integer>> futures, ExecutorService pool, WaitingHandler waitingHandler) throws IOException {
+
+        try {
+
+            for (Future<Integer> future : futures) {
+
+                int nProcessed = future.get();
+
+                if (waitingHandler != null) {
+
+                    if (waitingHandler.isRunCanceled()) {
+                        pool.shutdownNow();
+                        return false;
+                    }
+
+                    waitingHandler.increaseSecondaryProgressCounter(nProcessed);
+
+                }
+            }
+
+        } catch (InterruptedException e) {
+            throw new IOException("Spectral library search interrupted.", e);
+        } catch (ExecutionException e) {
+            throw new IOException("An error occurred while searching the spectral library.", e.getCause());
+        }
+
+        return true;
+    }
+
+    /**
+     * Convenience class reading spectra by batch from an mgf or cms file.
+     */
+    private static class SpectrumBatchReader implements AutoCloseable {
+
+        /**
+         * The iterator of the mgf file.
+         */
+        private final MgfFileIterator mgfFileIterator;
+        /**
+         * The reader of the cms file.
+         */
+        private final CmsFileReader cmsFileReader;
+        /**
+         * The index of the next spectrum in the cms file.
+         */
+        private int cmsIndex = 0;
+
+        /**
+         * Constructor.
+         *
+         * @param spectrumFile the spectrum file
+         *
+         * @throws IOException exception thrown if an error occurred while
+         * opening the file
+         */
+        private SpectrumBatchReader(File spectrumFile) throws IOException {
+
+            String lowerCaseName = spectrumFile.getName().toLowerCase();
+
+            if (lowerCaseName.endsWith(".mgf")) {
+
+                mgfFileIterator = new MgfFileIterator(spectrumFile);
+                cmsFileReader = null;
+
+            } else if (lowerCaseName.endsWith(".cms")) {
+
+                mgfFileIterator = null;
+                cmsFileReader = new CmsFileReader(spectrumFile);
+
+            } else {
+
+                throw new IllegalArgumentException("Spectrum file format not supported.");
+
+            }
+        }
+
+        /**
+         * Returns the next batch of spectra, an empty list if none.
+         *
+         * @return the next batch of spectra
+         *
+         * @throws IOException exception thrown if an error occurred while
+         * reading the file
+         */
+        private ArrayList<Spectrum> nextBatch() throws IOException {
+
+            ArrayList<Spectrum> batch = new ArrayList<>(BATCH_SIZE);
+
+            if (mgfFileIterator != null) {
+
+                while (batch.size() < BATCH_SIZE && mgfFileIterator.hasNext()) {
+                    batch.add(mgfFileIterator.next());
+                }
+
+            } else {
+
+                while (batch.size() < BATCH_SIZE && cmsIndex < cmsFileReader.getNSpectra()) {
+                    batch.add(cmsFileReader.getSpectrum(cmsIndex++));
+                }
+
+            }
+
+            return batch;
+        }
+
+        @Override
+        public void close() throws IOException {
+
+            if (cmsFileReader != null) {
+                cmsFileReader.close();
+            }
+        }
+    }
+}
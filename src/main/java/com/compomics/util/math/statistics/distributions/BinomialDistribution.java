@@ -1,8 +1,8 @@
 package com.compomics.util.math.statistics.distributions;
 
 import com.compomics.util.math.statistics.Distribution;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
 import org.apache.commons.math.distribution.BinomialDistributionImpl;
 import org.apache.commons.math.special.Beta;
 
@@ -39,13 +39,15 @@ public class BinomialDistribution implements Distribution {
      */
     private final int cacheSize = 1000;
     /**
-     * A cache for the probabilities.
+     * A cache for the probabilities. Concurrent as distributions are shared
+     * between threads.
      */
-    private final HashMap<Integer, Double> pCache = new HashMap<>();
+    private final ConcurrentHashMap<Integer, Double> pCache = new ConcurrentHashMap<>();
     /**
-     * A cache for the cumulative probabilities.
+     * A cache for the cumulative probabilities. Concurrent as distributions
+     * are shared between threads.
      */
-    private final HashMap<Integer, Double> descendingCumulativePCache = new HashMap<>();
+    private final ConcurrentHashMap<Integer, Double> descendingCumulativePCache = new ConcurrentHashMap<>();
 
     /**
      * Constructor.
@@ -90,20 +92,13 @@ public class BinomialDistribution implements Distribution {
      */
     private synchronized void addPToCache(int k, Double p) {
         
-        if (pCache.size() >= cacheSize) {
+        Iterator<Integer> keys = pCache.keySet().iterator();
         
-            HashSet<Integer> keys = new HashSet<>(pCache.keySet());
-            
-            for (Integer key : keys) {
+        while (pCache.size() >= cacheSize && keys.hasNext()) {
+        
+            keys.next();
+            keys.remove();
             
-                pCache.remove(key);
-                
-                if (pCache.size() < cacheSize) {
-                
-                    break;
-                
-                }
-            }
         }
         
         pCache.put(k, p);
@@ -131,7 +126,7 @@ public class BinomialDistribution implements Distribution {
         
         }
         
-        Double result = pCache.get(k);
+        Double result = descendingCumulativePCache.get(k);
         
         if (result == null) {
             // adapted from http://commons.apache.org/proper/commons-math/apidocs/src-html/org/apache/commons/math3/distribution/BinomialDistribution.html#line.130
@@ -161,20 +156,13 @@ public class BinomialDistribution implements Distribution {
      */
     private synchronized void addDescendingCumulativePToCache(int k, Double p) {
         
-        if (descendingCumulativePCache.size() >= cacheSize) {
+        Iterator<Integer> keys = descendingCumulativePCache.keySet().iterator();
         
-            HashSet<Integer> keys = new HashSet<>(descendingCumulativePCache.keySet());
-            
-            for (Integer key : keys) {
+        while (descendingCumulativePCache.size() >= cacheSize && keys.hasNext()) {
+        
+            keys.next();
+            keys.remove();
             
-                descendingCumulativePCache.remove(key);
-                
-                if (descendingCumulativePCache.size() < cacheSize) {
-                
-                    break;
-                
-                }
-            }
         }
         
         descendingCumulativePCache.put(k, p);
@@ -0,0 +1,216 @@
+package com.compomics.util.test.experiment.identification;
+
+import com.compomics.util.Util;
+import com.compomics.util.experiment.biology.modifications.ModificationFactory;
+import com.compomics.util.experiment.biology.proteins.Peptide;
+import com.compomics.util.experiment.identification.matches.ModificationMatch;
+import com.compomics.util.experiment.identification.peptide_fragmentation.models.ms2pip.features_configuration.FeaturesMap;
+import com.compomics.util.experiment.identification.peptide_fragmentation.models.ms2pip.features_configuration.FeaturesMapManager;
+import com.compomics.util.experiment.identification.peptide_fragmentation.models.ms2pip.features_configuration.features.ModificationFeature;
+import com.compomics.util.experiment.identification.peptide_fragmentation.models.ms2pip.features_generation.FeaturesGenerator;
+import com.compomics.util.experiment.identification.peptide_fragmentation.models.ms2pip.features_generation.FeaturesMatrix;
+import com.compomics.util.parameters.identification.advanced.SequenceMatchingParameters;
+import com.compomics.util.parameters.identification.search.ModificationParameters;
+import java.io.File;
+import java.util.Arrays;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * This class tests the ms2pip features matrix of a batch of peptides against
+ * the features computed per peptide and ion.
+ *
+ * @author Marc Vaudel
+ */
+public class FeaturesGeneratorTest extends TestCase {
+
+    /**
+     * The folder where the test files are written.
+     */
+    private static final String TEMP_FOLDER = "src/test/resources/experiment/featuresGenerator";
+
+    /**
+     * Compares the rows of the features matrix of forward and complementary
+     * ions to the features of every ion, for peptides carrying fixed and
+     * variable modifications, and with different numbers of threads.
+     *
+     * @throws Exception exception thrown if a thread failed or was interrupted
+     */
+    public void testFeaturesMatrix() throws Exception {
+
+        ModificationFactory modificationFactory = ModificationFactory.getInstance();
+        ModificationParameters modificationParameters = new ModificationParameters();
+        modificationParameters.addFixedModification(modificationFactory.getModification("Carbamidomethylation of C"));
+        modificationParameters.addVariableModification(modificationFactory.getModification("Oxidation of M"));
+        SequenceMatchingParameters sequenceMatchingParameters = SequenceMatchingParameters.getDefaultSequenceMatching();
+
+        Peptide[] peptides = getPeptides();
+        int[] charges = new int[peptides.length];
+
+        for (int i = 0; i < peptides.length; i++) {
+            charges[i] = 1 + i % 3;
+        }
+
+        FeaturesGenerator featuresGenerator = new FeaturesGenerator(getFeaturesMap());
+
+        for (boolean complementaryIons : new boolean[]{false, true}) {
+
+            for (int nThreads = 1; nThreads <= 3; nThreads += 2) {
+
+                FeaturesMatrix featuresMatrix = featuresGenerator.getIonsFeaturesMatrix(peptides, charges, complementaryIons, modificationParameters,
+                        null, sequenceMatchingParameters, nThreads, null);
+
+                Assert.assertEquals(peptides.length, featuresMatrix.getNPeptides());
+
+                int nRows = 0;
+
+                for (int i = 0; i < peptides.length; i++) {
+
+                    Peptide peptide = peptides[i];
+                    int nIons = peptide.getSequence().length() - 1;
+
+                    Assert.assertEquals(nRows, featuresMatrix.getFirstRow(i));
+                    Assert.assertEquals(nIons, featuresMatrix.getNRows(i));
+
+                    for (int ionIndex = 0; ionIndex < nIons; ionIndex++) {
+
+                        int[] expected = complementaryIons
+                                ? featuresGenerator.getComplementaryIonsFeatures(peptide, charges[i], ionIndex, modificationParameters, null, sequenceMatchingParameters)
+                                : featuresGenerator.getForwardIonsFeatures(peptide, charges[i], ionIndex, modificationParameters, null, sequenceMatchingParameters);
+
+                        Assert.assertTrue(Arrays.equals(expected, featuresMatrix.getRow(nRows + ionIndex)));
+
+                    }
+
+                    nRows += nIons;
+
+                }
+
+                Assert.assertEquals(nRows, featuresMatrix.getNRows());
+
+            }
+        }
+    }
+
+    /**
+     * Tests that the fixed modifications are accounted for in the features of
+     * the forward and complementary ions.
+     *
+     * @throws Exception exception thrown if a thread failed or was interrupted
+     */
+    public void testFixedModifications() throws Exception {
+
+        ModificationParameters modificationParameters = new ModificationParameters();
+        modificationParameters.addFixedModification(ModificationFactory.getInstance().getModification("Carbamidomethylation of C"));
+        ModificationParameters noModificationParameters = new ModificationParameters();
+        SequenceMatchingParameters sequenceMatchingParameters = SequenceMatchingParameters.getDefaultSequenceMatching();
+
+        Peptide[] peptides = new Peptide[]{new Peptide("ACDEFGHIK")};
+        int[] charges = new int[]{2};
+        FeaturesGenerator featuresGenerator = new FeaturesGenerator(getFeaturesMap());
+
+        for (boolean complementaryIons : new boolean[]{false, true}) {
+
+            FeaturesMatrix modifiedMatrix = featuresGenerator.getIonsFeaturesMatrix(peptides, charges, complementaryIons, modificationParameters,
+                    null, sequenceMatchingParameters, 1, null);
+            FeaturesMatrix unmodifiedMatrix = featuresGenerator.getIonsFeaturesMatrix(peptides, charges, complementaryIons, noModificationParameters,
+                    null, sequenceMatchingParameters, 1, null);
+
+            for (int ionIndex = 0; ionIndex < modifiedMatrix.getNRows(); ionIndex++) {
+
+                Assert.assertFalse(Arrays.equals(unmodifiedMatrix.getRow(ionIndex), modifiedMatrix.getRow(ionIndex)));
+
+                int[] expected = complementaryIons
+                        ? featuresGenerator.getComplementaryIonsFeatures(peptides[0], charges[0], ionIndex, modificationParameters, null, sequenceMatchingParameters)
+                        : featuresGenerator.getForwardIonsFeatures(peptides[0], charges[0], ionIndex, modificationParameters, null, sequenceMatchingParameters);
+
+                Assert.assertTrue(Arrays.equals(expected, modifiedMatrix.getRow(ionIndex)));
+
+            }
+        }
+    }
+
+    /**
+     * Writes a features matrix to a file and compares the matrix read from the
+     * file to the original.
+     *
+     * @throws Exception exception thrown if an error occurred while writing or
+     * reading the file, or if a thread failed or was interrupted
+     */
+    public void testReadWrite() throws Exception {
+
+        File folder = new File(TEMP_FOLDER);
+        folder.mkdir();
+
+        try {
+
+            ModificationParameters modificationParameters = new ModificationParameters();
+            modificationParameters.addFixedModification(ModificationFactory.getInstance().getModification("Carbamidomethylation of C"));
+            SequenceMatchingParameters sequenceMatchingParameters = SequenceMatchingParameters.getDefaultSequenceMatching();
+
+            Peptide[] peptides = getPeptides();
+            int[] charges = new int[peptides.length];
+            Arrays.fill(charges, 2);
+
+            FeaturesMatrix featuresMatrix = new FeaturesGenerator(getFeaturesMap()).getIonsFeaturesMatrix(peptides, charges, false, modificationParameters,
+                    null, sequenceMatchingParameters, 2, null);
+
+            File matrixFile = new File(folder, "features.bin");
+            featuresMatrix.write(matrixFile);
+            FeaturesMatrix readMatrix = FeaturesMatrix.read(matrixFile);
+
+            Assert.assertEquals(featuresMatrix.getNFeatures(), readMatrix.getNFeatures());
+            Assert.assertEquals(featuresMatrix.getNPeptides(), readMatrix.getNPeptides());
+
+            for (int i = 0; i < peptides.length; i++) {
+
+                Assert.assertEquals(featuresMatrix.getFirstRow(i), readMatrix.getFirstRow(i));
+                Assert.assertEquals(featuresMatrix.getNRows(i), readMatrix.getNRows(i));
+
+            }
+
+            for (int featureIndex = 0; featureIndex < featuresMatrix.getNFeatures(); featureIndex++) {
+
+                Assert.assertTrue(Arrays.equals(featuresMatrix.getColumn(featureIndex), readMatrix.getColumn(featureIndex)));
+
+            }
+
+        } finally {
+
+            Util.deleteDir(folder);
+
+        }
+    }
+
+    /**
+     * Returns the default features map with the modification mass feature.
+     *
+     * @return the features map
+     */
+    private FeaturesMap getFeaturesMap() {
+
+        FeaturesMap featuresMap = FeaturesMapManager.getDefaultFeaturesMap();
+        featuresMap.addFeature(new ModificationFeature(ModificationFeature.Property.mass));
+
+        return featuresMap;
+    }
+
+    /**
+     * Returns peptides with cysteines at the termini and inside the sequence,
+     * oxidized methionines, and sequences too short to have ions.
+     *
+     * @return the peptides
+     */
+    private Peptide[] getPeptides() {
+
+        return new Peptide[]{
+            new Peptide("ACDEFGHICK"),
+            new Peptide("CPEPTMIDEK", new ModificationMatch[]{new ModificationMatch("Oxidation of M", 6)}),
+            new Peptide("LMNPQRSTVWYC", new ModificationMatch[]{new ModificationMatch("Oxidation of M", 2)}),
+            new Peptide("PEPTIDEK"),
+            new Peptide("CK"),
+            new Peptide("K"),
+            new Peptide("MCMCR", new ModificationMatch[]{new ModificationMatch("Oxidation of M", 1), new ModificationMatch("Oxidation of M", 3)})
+        };
+    }
+}
@@ -0,0 +1,164 @@
+package com.compomics.util.test.experiment.identification;
+
+import com.compomics.util.experiment.biology.aminoacids.AminoAcid;
+import com.compomics.util.experiment.biology.ions.IonFactory;
+import com.compomics.util.experiment.biology.ions.NeutralLoss;
+import com.compomics.util.experiment.biology.ions.NeutralLossesTable;
+import com.compomics.util.experiment.biology.ions.impl.ElementaryIon;
+import com.compomics.util.experiment.biology.ions.impl.PeptideFragmentIon;
+import com.compomics.util.experiment.biology.modifications.Modification;
+import com.compomics.util.experiment.biology.modifications.ModificationFactory;
+import com.compomics.util.experiment.biology.proteins.Peptide;
+import com.compomics.util.experiment.identification.matches.IonMatch;
+import com.compomics.util.experiment.identification.matches.ModificationMatch;
+import com.compomics.util.experiment.identification.spectrum_annotation.simple_annotators.FragmentAnnotatorNL;
+import com.compomics.util.experiment.identification.spectrum_annotation.spectrum_annotators.SimplePeptideAnnotator.IonSeries;
+import com.compomics.util.experiment.mass_spectrometry.indexes.SpectrumIndex;
+import com.compomics.util.experiment.mass_spectrometry.spectra.Peak;
+import com.compomics.util.parameters.identification.advanced.SequenceMatchingParameters;
+import com.compomics.util.parameters.identification.search.ModificationParameters;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.TreeSet;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * This class tests the annotation of fragment ions with neutral losses.
+ *
+ * @author Marc Vaudel
+ */
+public class FragmentAnnotatorNLTest extends TestCase {
+
+    /**
+     * The sequence of the peptide to annotate.
+     */
+    private static final String SEQUENCE = "PEPTSIDEK";
+    /**
+     * The site of the phosphorylation on the sequence, 1-based.
+     */
+    private static final int SITE = 5;
+
+    /**
+     * Tests that the loss of a modification is only annotated on the forward
+     * and complementary ions containing the modified residue.
+     */
+    public void testModificationLossSites() {
+
+        ModificationFactory modificationFactory = ModificationFactory.getInstance();
+        Modification modification = modificationFactory.getModification("Phosphorylation of S");
+        ModificationParameters modificationParameters = new ModificationParameters();
+        modificationParameters.addVariableModification(modification);
+
+        Peptide peptide = new Peptide(SEQUENCE, new ModificationMatch[]{new ModificationMatch(modification.getName(), SITE)});
+        peptide.estimateTheoreticMass(modificationParameters, null, SequenceMatchingParameters.getDefaultSequenceMatching());
+
+        // add a peak for every b and y ion with the phosphoric acid loss
+        int length = SEQUENCE.length();
+        double[] prefixMasses = new double[length + 1];
+
+        for (int i = 0; i < length; i++) {
+
+            prefixMasses[i + 1] = prefixMasses[i] + AminoAcid.getAminoAcid(SEQUENCE.charAt(i)).getMonoisotopicMass();
+
+            if (i == SITE - 1) {
+
+                prefixMasses[i + 1] += modification.getMass();
+
+            }
+        }
+
+        double protonMass = ElementaryIon.proton.getTheoreticMass();
+        double lossMass = NeutralLoss.H3PO4.getMass();
+        HashMap<Double, Peak> peaks = new HashMap<>();
+
+        for (int number = 1; number < length; number++) {
+
+            double bMz = protonMass + prefixMasses[number] - lossMass;
+            peaks.put(bMz, new Peak(bMz, 100.0));
+
+            double yMz = peptide.getMass() + protonMass - prefixMasses[length - number] - lossMass;
+            peaks.put(yMz, new Peak(yMz, 100.0));
+
+        }
+
+        SpectrumIndex spectrumIndex = new SpectrumIndex(peaks, 0.0, 0.005, false);
+        String[] fixedModifications = new String[length + 2];
+
+        // only the ions containing the modified serine can lose the phosphoric acid
+        TreeSet<Integer> expectedNumbers = new TreeSet<>(Arrays.asList(5, 6, 7, 8));
+
+        FragmentAnnotatorNL fragmentAnnotator = new FragmentAnnotatorNL(peptide, fixedModifications, IonSeries.by, true);
+        Assert.assertEquals(expectedNumbers, getIonNumbers(fragmentAnnotator, spectrumIndex, PeptideFragmentIon.B_ION));
+        Assert.assertEquals(expectedNumbers, getIonNumbers(fragmentAnnotator, spectrumIndex, PeptideFragmentIon.Y_ION));
+
+        fragmentAnnotator = new FragmentAnnotatorNL(peptide, fixedModifications, IonSeries.by, false, true, true);
+        Assert.assertEquals(expectedNumbers, getIonNumbers(fragmentAnnotator, spectrumIndex, PeptideFragmentIon.B_ION));
+        Assert.assertEquals(expectedNumbers, getIonNumbers(fragmentAnnotator, spectrumIndex, PeptideFragmentIon.Y_ION));
+
+        fragmentAnnotator = new FragmentAnnotatorNL(peptide, fixedModifications, IonSeries.by, false, false, true);
+        Assert.assertTrue(getIonNumbers(fragmentAnnotator, spectrumIndex, PeptideFragmentIon.B_ION).isEmpty());
+        Assert.assertEquals(expectedNumbers, getIonNumbers(fragmentAnnotator, spectrumIndex, PeptideFragmentIon.Y_ION));
+
+    }
+
+    /**
+     * Tests that a loss given twice is combined with itself, and that the
+     * tables are shared.
+     */
+    public void testDuplicateLosses() {
+
+        IonFactory ionFactory = IonFactory.getInstance();
+
+        NeutralLossesTable table = ionFactory.getNeutralLossesTable(Arrays.asList("H2O", "NH3"));
+        Assert.assertEquals(4, table.size());
+
+        NeutralLossesTable duplicateTable = ionFactory.getNeutralLossesTable(Arrays.asList("H2O", "NH3", "H2O"));
+        Assert.assertEquals(5, duplicateTable.size());
+        Assert.assertTrue(duplicateTable == ionFactory.getNeutralLossesTable(Arrays.asList("NH3", "H2O", "H2O", "H2O")));
+
+        boolean doubleWater = false;
+
+        for (int i = 1; i < duplicateTable.size(); i++) {
+
+            if (duplicateTable.getFirstLoss(i) == NeutralLoss.H2O && duplicateTable.getSecondLoss(i) == NeutralLoss.H2O) {
+
+                Assert.assertEquals(2 * NeutralLoss.H2O.getMass(), duplicateTable.getMass(i), 1e-10);
+                doubleWater = true;
+
+            }
+        }
+
+        Assert.assertTrue(doubleWater);
+
+    }
+
+    /**
+     * Returns the numbers of the ions of the given type matched with the
+     * phosphoric acid loss only.
+     *
+     * @param fragmentAnnotator the fragment annotator
+     * @param spectrumIndex the spectrum index
+     * @param ionType the fragment ion type
+     *
+     * @return the numbers of the matched ions
+     */
+    private TreeSet<Integer> getIonNumbers(FragmentAnnotatorNL fragmentAnnotator, SpectrumIndex spectrumIndex, int ionType) {
+
+        TreeSet<Integer> ionNumbers = new TreeSet<>();
+
+        for (IonMatch ionMatch : fragmentAnnotator.getIonMatches(spectrumIndex, 2)) {
+
+            PeptideFragmentIon ion = (PeptideFragmentIon) ionMatch.ion;
+            NeutralLoss[] neutralLosses = ion.getNeutralLosses();
+
+            if (ion.getSubType() == ionType && neutralLosses != null && neutralLosses.length == 1 && neutralLosses[0].name.equals(NeutralLoss.H3PO4.name)) {
+
+                ionNumbers.add(ion.getNumber());
+
+            }
+        }
+
+        return ionNumbers;
+    }
+}
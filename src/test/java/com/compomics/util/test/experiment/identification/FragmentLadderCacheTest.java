@@ -0,0 +1,343 @@
+package com.compomics.util.test.experiment.identification;
+
+import com.compomics.util.experiment.biology.ions.Ion;
+import com.compomics.util.experiment.biology.ions.NeutralLoss;
+import com.compomics.util.experiment.biology.ions.impl.PeptideFragmentIon;
+import com.compomics.util.experiment.biology.modifications.ModificationFactory;
+import com.compomics.util.experiment.biology.proteins.Peptide;
+import com.compomics.util.experiment.identification.matches.IonMatch;
+import com.compomics.util.experiment.identification.matches.ModificationMatch;
+import com.compomics.util.experiment.identification.spectrum_annotation.AnnotationParameters;
+import com.compomics.util.experiment.identification.spectrum_annotation.simple_annotators.FragmentAnnotator;
+import com.compomics.util.experiment.identification.spectrum_annotation.simple_annotators.FragmentLadderCache;
+import com.compomics.util.experiment.identification.spectrum_annotation.spectrum_annotators.SimplePeptideAnnotator;
+import com.compomics.util.experiment.identification.spectrum_annotation.spectrum_annotators.SimplePeptideAnnotator.IonSeries;
+import com.compomics.util.experiment.mass_spectrometry.indexes.SpectrumIndex;
+import com.compomics.util.experiment.mass_spectrometry.spectra.Peak;
+import com.compomics.util.parameters.identification.advanced.SequenceMatchingParameters;
+import com.compomics.util.parameters.identification.search.ModificationParameters;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * This class tests that the annotators obtained from the fragment ladder cache
+ * match the same ions as annotators built for every peptide.
+ *
+ * @author Marc Vaudel
+ */
+public class FragmentLadderCacheTest extends TestCase {
+
+    /**
+     * The sequences of the peptides.
+     */
+    private static final String[] SEQUENCES = {"PEPTMSMCK", "ACDMEFGHIK", "LMNPQRSTVWYR"};
+    /**
+     * The m/z step between the peaks of the spectrum.
+     */
+    private static final double PEAK_STEP = 0.02;
+    /**
+     * The maximal peptide charge to test.
+     */
+    private static final int MAX_CHARGE = 4;
+
+    /**
+     * Compares the ions matched with and without cache for peptides sharing a
+     * sequence with different modification sites, with and without neutral
+     * losses, and with a cache smaller than the number of ladders.
+     */
+    public void testCachedAnnotators() {
+
+        ArrayList<Peptide> peptides = getPeptides();
+        ArrayList<String[]> fixedModifications = getFixedModifications(peptides);
+        AnnotationParameters[] annotationParameters = {getAnnotationParameters(true), getAnnotationParameters(false)};
+        SpectrumIndex spectrumIndex = getSpectrumIndex();
+
+        for (int capacity : new int[]{3, FragmentLadderCache.DEFAULT_CAPACITY}) {
+
+            FragmentLadderCache fragmentLadderCache = new FragmentLadderCache(capacity);
+
+            for (int pass = 0; pass < 2; pass++) {
+
+                for (int i = 0; i < peptides.size(); i++) {
+
+                    for (AnnotationParameters parameters : annotationParameters) {
+
+                        for (int charge = 1; charge <= MAX_CHARGE; charge++) {
+
+                            SimplePeptideAnnotator expectedAnnotator = new SimplePeptideAnnotator(peptides.get(i), fixedModifications.get(i), charge, parameters);
+                            SimplePeptideAnnotator cachedAnnotator = new SimplePeptideAnnotator(peptides.get(i), fixedModifications.get(i), charge, parameters, fragmentLadderCache);
+
+                            ArrayList<IonMatch> expected = expectedAnnotator.getIonMatches(spectrumIndex, charge, 0);
+                            Assert.assertFalse(expected.isEmpty());
+                            compare(expected, cachedAnnotator.getIonMatches(spectrumIndex, charge, 0));
+
+                        }
+                    }
+                }
+
+                Assert.assertTrue(fragmentLadderCache.size() <= capacity);
+
+            }
+
+            // per peptide and charge, the first parameters use six ladders and the second two
+            long nQueries = 2L * peptides.size() * MAX_CHARGE * 8;
+            Assert.assertEquals(nQueries, fragmentLadderCache.getNHits() + fragmentLadderCache.getNMisses());
+
+            if (capacity == FragmentLadderCache.DEFAULT_CAPACITY) {
+
+                // the second parameters share the by and cz ladders without losses with the first
+                long nLadders = peptides.size() * 6L;
+                Assert.assertEquals(nLadders, fragmentLadderCache.size());
+                Assert.assertEquals(nLadders, fragmentLadderCache.getNMisses());
+
+            }
+
+            fragmentLadderCache.clear();
+            Assert.assertEquals(0, fragmentLadderCache.size());
+            Assert.assertEquals(0.0, fragmentLadderCache.getHitRate());
+
+        }
+    }
+
+    /**
+     * Tests that a ladder is built once and shared, and that the ladders of
+     * peptides with the same sequence but different modification sites are
+     * not shared.
+     */
+    public void testKeys() {
+
+        ArrayList<Peptide> peptides = getPeptides();
+        FragmentLadderCache fragmentLadderCache = new FragmentLadderCache();
+
+        FragmentAnnotator annotator1 = fragmentLadderCache.getFragmentAnnotator(peptides.get(0), null, IonSeries.by, true, true);
+        Assert.assertSame(annotator1, fragmentLadderCache.getFragmentAnnotator(peptides.get(0), null, IonSeries.by, true, true));
+        Assert.assertNotSame(annotator1, fragmentLadderCache.getFragmentAnnotator(peptides.get(1), null, IonSeries.by, true, true));
+        Assert.assertNotSame(annotator1, fragmentLadderCache.getFragmentAnnotator(peptides.get(0), null, IonSeries.by, true, false));
+        Assert.assertNotSame(annotator1, fragmentLadderCache.getFragmentAnnotator(peptides.get(0), null, IonSeries.cz, true, true));
+
+        // the oxidation on the first and on the second M of the first sequence
+        Assert.assertEquals(peptides.get(1).getSequence(), peptides.get(2).getSequence());
+        Assert.assertNotSame(fragmentLadderCache.getFragmentAnnotator(peptides.get(1), null, IonSeries.by, true, true), fragmentLadderCache.getFragmentAnnotator(peptides.get(2), null, IonSeries.by, true, true));
+
+        Assert.assertEquals(2, fragmentLadderCache.getNHits());
+        Assert.assertEquals(5, fragmentLadderCache.getNMisses());
+        Assert.assertEquals(2.0 / 7, fragmentLadderCache.getHitRate(), 1e-12);
+
+        try {
+            new FragmentLadderCache(0);
+            Assert.fail("No exception thrown for a capacity of 0.");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Compares the ions matched with annotators obtained concurrently from a
+     * small shared cache to the ions matched without cache.
+     *
+     * @throws Exception exception thrown if a thread failed or was interrupted
+     */
+    public void testConcurrentAccess() throws Exception {
+
+        ArrayList<Peptide> peptides = getPeptides();
+        ArrayList<String[]> fixedModifications = getFixedModifications(peptides);
+        AnnotationParameters annotationParameters = getAnnotationParameters(true);
+        SpectrumIndex spectrumIndex = getSpectrumIndex();
+        int charge = 3;
+
+        ArrayList<ArrayList<IonMatch>> expected = new ArrayList<>(peptides.size());
+
+        for (int i = 0; i < peptides.size(); i++) {
+
+            SimplePeptideAnnotator annotator = new SimplePeptideAnnotator(peptides.get(i), fixedModifications.get(i), charge, annotationParameters);
+            expected.add(annotator.getIonMatches(spectrumIndex, charge, 0));
+
+        }
+
+        FragmentLadderCache fragmentLadderCache = new FragmentLadderCache(5);
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+
+        try {
+
+            ArrayList<Future<?>> futures = new ArrayList<>(4);
+
+            for (int thread = 0; thread < 4; thread++) {
+
+                int offset = thread;
+
+                futures.add(pool.submit(() -> {
+
+                    for (int j = 0; j < 50; j++) {
+
+                        int i = (offset + j) % peptides.size();
+                        SimplePeptideAnnotator annotator = new SimplePeptideAnnotator(peptides.get(i), fixedModifications.get(i), charge, annotationParameters, fragmentLadderCache);
+                        compare(expected.get(i), annotator.getIonMatches(spectrumIndex, charge, 0));
+
+                    }
+                }));
+            }
+
+            for (Future<?> future : futures) {
+                future.get();
+            }
+
+        } finally {
+
+            pool.shutdownNow();
+
+        }
+
+        Assert.assertTrue(fragmentLadderCache.size() <= 5);
+
+    }
+
+    /**
+     * Returns peptides with a fixed carbamidomethylation, and peptides
+     * sharing a sequence with an oxidation on different sites.
+     *
+     * @return the peptides
+     */
+    private ArrayList<Peptide> getPeptides() {
+
+        ModificationParameters modificationParameters = getModificationParameters();
+        ArrayList<Peptide> peptides = new ArrayList<>();
+
+        for (String sequence : SEQUENCES) {
+
+            peptides.add(new Peptide(sequence));
+
+            for (int site = 1; site <= sequence.length(); site++) {
+
+                if (sequence.charAt(site - 1) == 'M') {
+
+                    peptides.add(new Peptide(sequence, new ModificationMatch[]{new ModificationMatch("Oxidation of M", site)}));
+
+                }
+            }
+        }
+
+        for (Peptide peptide : peptides) {
+
+            peptide.estimateTheoreticMass(modificationParameters, null, SequenceMatchingParameters.getDefaultSequenceMatching());
+
+        }
+
+        return peptides;
+    }
+
+    /**
+     * Returns the fixed modifications of the given peptides.
+     *
+     * @param peptides the peptides
+     *
+     * @return the fixed modifications of the peptides
+     */
+    private ArrayList<String[]> getFixedModifications(ArrayList<Peptide> peptides) {
+
+        ModificationParameters modificationParameters = getModificationParameters();
+        ArrayList<String[]> fixedModifications = new ArrayList<>(peptides.size());
+
+        for (Peptide peptide : peptides) {
+
+            fixedModifications.add(peptide.getFixedModifications(modificationParameters, null, SequenceMatchingParameters.getDefaultSequenceMatching()));
+
+        }
+
+        return fixedModifications;
+    }
+
+    /**
+     * Returns modification parameters with a fixed carbamidomethylation of C
+     * and a variable oxidation of M.
+     *
+     * @return the modification parameters
+     */
+    private ModificationParameters getModificationParameters() {
+
+        ModificationFactory modificationFactory = ModificationFactory.getInstance();
+        ModificationParameters modificationParameters = new ModificationParameters();
+        modificationParameters.addFixedModification(modificationFactory.getModification("Carbamidomethylation of C"));
+        modificationParameters.addVariableModification(modificationFactory.getModification("Oxidation of M"));
+
+        return modificationParameters;
+    }
+
+    /**
+     * Returns annotation parameters annotating b and y ions, a ions only, and
+     * c and z ions, with or without sequence dependent neutral losses.
+     *
+     * @param neutralLosses boolean indicating whether neutral losses should
+     * be annotated
+     *
+     * @return the annotation parameters
+     */
+    private AnnotationParameters getAnnotationParameters(boolean neutralLosses) {
+
+        AnnotationParameters annotationParameters = new AnnotationParameters();
+        annotationParameters.clearIonTypes();
+        annotationParameters.clearNeutralLosses();
+
+        if (neutralLosses) {
+
+            annotationParameters.addIonType(Ion.IonType.PEPTIDE_FRAGMENT_ION, PeptideFragmentIon.A_ION);
+            annotationParameters.addNeutralLoss(NeutralLoss.H2O);
+            annotationParameters.addNeutralLoss(NeutralLoss.NH3);
+            annotationParameters.setNeutralLossesSequenceAuto(true);
+
+        }
+
+        annotationParameters.addIonType(Ion.IonType.PEPTIDE_FRAGMENT_ION, PeptideFragmentIon.B_ION);
+        annotationParameters.addIonType(Ion.IonType.PEPTIDE_FRAGMENT_ION, PeptideFragmentIon.Y_ION);
+        annotationParameters.addIonType(Ion.IonType.PEPTIDE_FRAGMENT_ION, PeptideFragmentIon.C_ION);
+        annotationParameters.addIonType(Ion.IonType.PEPTIDE_FRAGMENT_ION, PeptideFragmentIon.Z_ION);
+
+        return annotationParameters;
+    }
+
+    /**
+     * Returns the index of a spectrum with regularly spaced peaks, where every
+     * ion matches at least one peak.
+     *
+     * @return the index of the spectrum
+     */
+    private SpectrumIndex getSpectrumIndex() {
+
+        HashMap<Double, Peak> peaks = new HashMap<>();
+
+        for (int i = 0; i < 50000; i++) {
+
+            double mz = 50.0 + PEAK_STEP * i;
+            peaks.put(mz, new Peak(mz, 1.0 + i % 7));
+
+        }
+
+        return new SpectrumIndex(peaks, 0.0, 0.6 * PEAK_STEP, false);
+    }
+
+    /**
+     * Compares ion matches to the expected ion matches.
+     *
+     * @param expected the expected ion matches
+     * @param actual the ion matches
+     */
+    private static void compare(ArrayList<IonMatch> expected, ArrayList<IonMatch> actual) {
+
+        Assert.assertEquals(expected.size(), actual.size());
+
+        for (int i = 0; i < expected.size(); i++) {
+
+            IonMatch expectedMatch = expected.get(i);
+            IonMatch actualMatch = actual.get(i);
+
+            Assert.assertSame(expectedMatch.peak, actualMatch.peak);
+            Assert.assertEquals(IonMatch.getMatchKey(expectedMatch.ion, expectedMatch.charge), IonMatch.getMatchKey(actualMatch.ion, actualMatch.charge));
+            Assert.assertEquals(expectedMatch.ion.getTheoreticMass(), actualMatch.ion.getTheoreticMass(), 1e-9);
+
+        }
+    }
+}
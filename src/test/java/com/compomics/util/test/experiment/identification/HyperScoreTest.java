@@ -0,0 +1,189 @@
+package com.compomics.util.test.experiment.identification;
+
+import com.compomics.util.experiment.biology.ions.Ion;
+import com.compomics.util.experiment.biology.ions.NeutralLoss;
+import com.compomics.util.experiment.biology.ions.impl.PeptideFragmentIon;
+import com.compomics.util.experiment.biology.ions.impl.PrecursorIon;
+import com.compomics.util.experiment.biology.proteins.Peptide;
+import com.compomics.util.experiment.identification.matches.IonMatch;
+import com.compomics.util.experiment.identification.psm_scoring.psm_scores.HyperScore;
+import com.compomics.util.experiment.identification.spectrum_annotation.simple_annotators.IonMatchBuffer;
+import com.compomics.util.experiment.mass_spectrometry.spectra.Peak;
+import com.compomics.util.experiment.mass_spectrometry.spectra.Spectrum;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * This class tests the hyperscore computed from an ion match buffer against
+ * the hyperscore computed from a list of ion matches.
+ *
+ * @author Marc Vaudel
+ */
+public class HyperScoreTest extends TestCase {
+
+    /**
+     * The number of random PSMs to test.
+     */
+    private static final int N_PSMS = 500;
+
+    /**
+     * Compares the scores of random ion matches with shared peaks, neutral
+     * losses, precursor ions, and more ions than accounted for in the score.
+     */
+    public void testBufferScore() {
+
+        Random random = new Random(42);
+        HyperScore hyperScore = new HyperScore();
+        IonMatchBuffer ionMatchBuffer = new IonMatchBuffer();
+        Peptide peptide = new Peptide("PEPTIDEK");
+        int nPositive = 0;
+
+        for (int i = 0; i < N_PSMS; i++) {
+
+            // a pool of peaks so that some peaks are matched by several ions
+            int nPeaks = 1 + random.nextInt(80);
+            Peak[] peaks = new Peak[nPeaks];
+            HashMap<Double, Peak> peakMap = new HashMap<>(nPeaks);
+
+            for (int j = 0; j < nPeaks; j++) {
+
+                double mz = 100.0 + 1500.0 * random.nextDouble();
+                peaks[j] = new Peak(mz, 1.0 + 1000.0 * random.nextDouble());
+                peakMap.put(mz, peaks[j]);
+
+            }
+
+            // peaks which are not matched
+            for (int j = 0; j < 20; j++) {
+
+                double mz = 100.0 + 1500.0 * random.nextDouble();
+                peakMap.put(mz, new Peak(mz, 1.0 + 1000.0 * random.nextDouble()));
+
+            }
+
+            Spectrum spectrum = new Spectrum(2, null, "spectrum " + i, peakMap, "test.mgf", 0.0);
+
+            int nMatches = random.nextInt(120);
+            ArrayList<IonMatch> ionMatches = new ArrayList<>(nMatches);
+
+            for (int j = 0; j < nMatches; j++) {
+
+                Ion ion;
+
+                if (random.nextInt(20) == 0) {
+
+                    ion = new PrecursorIon(1000.0 * random.nextDouble(), random.nextBoolean() ? null : new NeutralLoss[]{NeutralLoss.H2O});
+
+                } else {
+
+                    NeutralLoss[] neutralLosses = random.nextInt(5) == 0 ? new NeutralLoss[]{NeutralLoss.NH3} : null;
+                    ion = new PeptideFragmentIon(random.nextInt(6), 1 + random.nextInt(60), 1000.0 * random.nextDouble(), neutralLosses);
+
+                }
+
+                ionMatches.add(new IonMatch(peaks[random.nextInt(nPeaks)], ion, 1 + random.nextInt(3)));
+
+            }
+
+            int charge = 1 + random.nextInt(4);
+
+            ionMatchBuffer.clear();
+
+            for (IonMatch ionMatch : ionMatches) {
+
+                ionMatchBuffer.add(ionMatch);
+
+            }
+
+            double expected = hyperScore.getScore(peptide, charge, spectrum, ionMatches);
+            double score = hyperScore.getScore(charge, spectrum.getTotalIntensity(), ionMatchBuffer);
+
+            Assert.assertEquals(expected, score, 1e-12 * Math.abs(expected));
+
+            if (expected > 0.0) {
+                nPositive++;
+            }
+        }
+
+        Assert.assertTrue(nPositive > N_PSMS / 2);
+
+    }
+
+    /**
+     * Tests the scores when no peak is matched by a fragment ion without
+     * neutral losses, when only one ion series is matched, and when the
+     * number of ions exceeds the number accounted for in the score.
+     */
+    public void testFactorials() {
+
+        HyperScore hyperScore = new HyperScore();
+        IonMatchBuffer ionMatchBuffer = new IonMatchBuffer();
+        Peptide peptide = new Peptide("PEPTIDEK");
+        HashMap<Double, Peak> peakMap = new HashMap<>();
+        ArrayList<IonMatch> ionMatches = new ArrayList<>();
+
+        // 30 b ions and 25 y ions on distinct peaks of intensity 1
+        for (int i = 0; i < 55; i++) {
+
+            double mz = 100.0 + i;
+            Peak peak = new Peak(mz, 1.0);
+            peakMap.put(mz, peak);
+            int subType = i < 30 ? PeptideFragmentIon.B_ION : PeptideFragmentIon.Y_ION;
+            int number = i < 30 ? i + 2 : i - 28;
+            ionMatches.add(new IonMatch(peak, new PeptideFragmentIon(subType, number, mz, null), 1));
+
+        }
+
+        // one unmatched peak
+        peakMap.put(1000.0, new Peak(1000.0, 1.0));
+        Spectrum spectrum = new Spectrum(2, null, "spectrum", peakMap, "test.mgf", 0.0);
+
+        // only the unmatched peak is in the denominator and both series are capped at 20 ions
+        long factorial20 = 2432902008176640000L;
+        double expected = 55.0 * factorial20 * factorial20;
+        addAll(ionMatches, ionMatchBuffer);
+        Assert.assertEquals(expected, hyperScore.getScore(peptide, 1, spectrum, ionMatches), 1e-12 * expected);
+        Assert.assertEquals(expected, hyperScore.getScore(1, spectrum.getTotalIntensity(), ionMatchBuffer), 1e-12 * expected);
+
+        // at charge 3 the number of ions is halved, 15 b ions and 12 y ions
+        expected = 55.0 * 1307674368000L * 479001600L;
+        Assert.assertEquals(expected, hyperScore.getScore(peptide, 3, spectrum, ionMatches), 1e-12 * expected);
+        Assert.assertEquals(expected, hyperScore.getScore(3, spectrum.getTotalIntensity(), ionMatchBuffer), 1e-12 * expected);
+
+        // with only b ions, 0! is 0 and so is the score
+        ArrayList<IonMatch> forwardMatches = new ArrayList<>(ionMatches.subList(0, 30));
+        addAll(forwardMatches, ionMatchBuffer);
+        Assert.assertEquals(0.0, hyperScore.getScore(peptide, 1, spectrum, forwardMatches));
+        Assert.assertEquals(0.0, hyperScore.getScore(1, spectrum.getTotalIntensity(), ionMatchBuffer));
+
+        // ions of number 1 and ions with neutral losses do not count as matched
+        ArrayList<IonMatch> unmatched = new ArrayList<>(2);
+        Peak peak = peakMap.get(100.0);
+        unmatched.add(new IonMatch(peak, new PeptideFragmentIon(PeptideFragmentIon.B_ION, 1, 100.0, null), 1));
+        unmatched.add(new IonMatch(peak, new PeptideFragmentIon(PeptideFragmentIon.Y_ION, 5, 100.0, new NeutralLoss[]{NeutralLoss.H2O}), 1));
+        addAll(unmatched, ionMatchBuffer);
+        Assert.assertEquals(0.0, hyperScore.getScore(peptide, 2, spectrum, unmatched));
+        Assert.assertEquals(0.0, hyperScore.getScore(2, spectrum.getTotalIntensity(), ionMatchBuffer));
+
+    }
+
+    /**
+     * Clears the buffer and adds the given ion matches.
+     *
+     * @param ionMatches the ion matches
+     * @param ionMatchBuffer the buffer
+     */
+    private void addAll(ArrayList<IonMatch> ionMatches, IonMatchBuffer ionMatchBuffer) {
+
+        ionMatchBuffer.clear();
+
+        for (IonMatch ionMatch : ionMatches) {
+
+            ionMatchBuffer.add(ionMatch);
+
+        }
+    }
+}
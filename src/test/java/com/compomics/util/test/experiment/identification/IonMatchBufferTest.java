@@ -0,0 +1,313 @@
+package com.compomics.util.test.experiment.identification;
+
+import com.compomics.util.experiment.biology.aminoacids.AminoAcid;
+import com.compomics.util.experiment.biology.ions.Ion;
+import com.compomics.util.experiment.biology.ions.impl.ElementaryIon;
+import com.compomics.util.experiment.biology.ions.impl.PeptideFragmentIon;
+import com.compomics.util.experiment.biology.modifications.Modification;
+import com.compomics.util.experiment.biology.modifications.ModificationFactory;
+import com.compomics.util.experiment.biology.proteins.Peptide;
+import com.compomics.util.experiment.identification.matches.IonMatch;
+import com.compomics.util.experiment.identification.matches.ModificationMatch;
+import com.compomics.util.experiment.identification.spectrum_annotation.simple_annotators.FragmentAnnotator;
+import com.compomics.util.experiment.identification.spectrum_annotation.simple_annotators.IonMatchBuffer;
+import com.compomics.util.experiment.identification.spectrum_annotation.spectrum_annotators.SimplePeptideAnnotator.IonSeries;
+import com.compomics.util.experiment.mass_spectrometry.indexes.SpectrumIndex;
+import com.compomics.util.experiment.mass_spectrometry.spectra.Peak;
+import com.compomics.util.parameters.identification.advanced.SequenceMatchingParameters;
+import com.compomics.util.parameters.identification.search.ModificationParameters;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * This class tests the matching of ions in a reusable buffer against the
+ * matching of ions as objects using the list based peak lookup.
+ *
+ * @author Marc Vaudel
+ */
+public class IonMatchBufferTest extends TestCase {
+
+    /**
+     * The sequence of the peptide to annotate.
+     */
+    private static final String SEQUENCE = "PEPTMIDEKR";
+    /**
+     * The site of the oxidation on the sequence, 1-based.
+     */
+    private static final int SITE = 5;
+    /**
+     * The number of random spectra to test.
+     */
+    private static final int N_SPECTRA = 20;
+    /**
+     * The number of peaks added around some ions, more than the initial
+     * number of candidates of the buffer.
+     */
+    private static final int CLUSTER_SIZE = 12;
+
+    /**
+     * Compares the ions matched by the fragment annotator in a reused buffer
+     * to the ions matched one by one as objects, with absolute and relative
+     * tolerances.
+     */
+    public void testFragmentIons() {
+
+        ModificationFactory modificationFactory = ModificationFactory.getInstance();
+        Modification modification = modificationFactory.getModification("Oxidation of M");
+        ModificationParameters modificationParameters = new ModificationParameters();
+        modificationParameters.addVariableModification(modification);
+
+        Peptide peptide = new Peptide(SEQUENCE, new ModificationMatch[]{new ModificationMatch(modification.getName(), SITE)});
+        peptide.estimateTheoreticMass(modificationParameters, null, SequenceMatchingParameters.getDefaultSequenceMatching());
+
+        double[] forwardMz1 = getForwardMz1(modification.getMass());
+        double[] complementaryMz1 = new double[forwardMz1.length];
+
+        for (int i = 0; i < forwardMz1.length; i++) {
+
+            complementaryMz1[i] = peptide.getMass() + ElementaryIon.protonMassMultiples[2] - forwardMz1[i];
+
+        }
+
+        FragmentAnnotator fragmentAnnotator = new FragmentAnnotator(peptide, null, IonSeries.by);
+        IonMatchBuffer ionMatchBuffer = new IonMatchBuffer();
+        Random random = new Random(42);
+
+        for (boolean ppm : new boolean[]{false, true}) {
+
+            double tolerance = ppm ? 20.0 : 0.02;
+
+            for (int i = 0; i < N_SPECTRA; i++) {
+
+                HashMap<Double, Peak> peaks = getPeaks(forwardMz1, complementaryMz1, tolerance, ppm, random);
+                SpectrumIndex spectrumIndex = new SpectrumIndex(peaks, 0.0, tolerance, ppm);
+
+                for (int peptideCharge = 1; peptideCharge <= 4; peptideCharge++) {
+
+                    ArrayList<IonMatch> expected = getIonMatches(forwardMz1, complementaryMz1, spectrumIndex, peptideCharge);
+
+                    ionMatchBuffer.clear();
+                    fragmentAnnotator.addIonMatches(spectrumIndex, peptideCharge, ionMatchBuffer);
+                    compare(expected, ionMatchBuffer);
+
+                    // matching a second time without clearing appends the same matches
+                    fragmentAnnotator.addIonMatches(spectrumIndex, peptideCharge, ionMatchBuffer);
+                    ArrayList<IonMatch> expectedTwice = new ArrayList<>(expected);
+                    expectedTwice.addAll(expected);
+                    compare(expectedTwice, ionMatchBuffer);
+
+                    compare(expected, fragmentAnnotator.getIonMatches(spectrumIndex, peptideCharge));
+
+                }
+            }
+        }
+
+        ionMatchBuffer.clear();
+        Assert.assertEquals(0, ionMatchBuffer.getNMatches());
+        Assert.assertEquals(0.0, ionMatchBuffer.getMatchedIntensity());
+        Assert.assertTrue(ionMatchBuffer.getIonMatches().isEmpty());
+
+    }
+
+    /**
+     * Returns the m/z at charge 1 of the b ions, computed from the amino acid
+     * masses.
+     *
+     * @param modificationMass the mass of the modification on the peptide
+     *
+     * @return the m/z at charge 1 of the b ions
+     */
+    private double[] getForwardMz1(double modificationMass) {
+
+        double[] forwardMz1 = new double[SEQUENCE.length()];
+        double mass = ElementaryIon.proton.getTheoreticMass();
+
+        for (int i = 0; i < SEQUENCE.length(); i++) {
+
+            mass += AminoAcid.getAminoAcid(SEQUENCE.charAt(i)).getMonoisotopicMass();
+
+            if (i == SITE - 1) {
+
+                mass += modificationMass;
+
+            }
+
+            forwardMz1[i] = mass;
+
+        }
+
+        return forwardMz1;
+    }
+
+    /**
+     * Returns random peaks containing some of the ions at charges 1 to 3,
+     * clusters of peaks within tolerance of some ions, and noise.
+     *
+     * @param forwardMz1 the m/z at charge 1 of the forward ions
+     * @param complementaryMz1 the m/z at charge 1 of the complementary ions
+     * @param tolerance the tolerance
+     * @param ppm boolean indicating whether the tolerance is in ppm
+     * @param random the random number generator
+     *
+     * @return random peaks
+     */
+    private HashMap<Double, Peak> getPeaks(double[] forwardMz1, double[] complementaryMz1, double tolerance, boolean ppm, Random random) {
+
+        HashMap<Double, Peak> peaks = new HashMap<>();
+
+        for (int i = 0; i < forwardMz1.length; i++) {
+
+            for (double mz1 : new double[]{forwardMz1[i], complementaryMz1[i]}) {
+
+                for (int charge = 1; charge <= 3; charge++) {
+
+                    double mz = (mz1 + ElementaryIon.getProtonMassMultiple(charge - 1)) / charge;
+                    double absoluteTolerance = ppm ? tolerance * mz / 1000000 : tolerance;
+                    int draw = random.nextInt(4);
+
+                    if (draw == 0) {
+
+                        addPeak(peaks, mz, random);
+
+                    } else if (draw == 1) {
+
+                        for (int j = 0; j < CLUSTER_SIZE; j++) {
+
+                            addPeak(peaks, mz + 0.9 * absoluteTolerance * (2 * random.nextDouble() - 1), random);
+
+                        }
+                    }
+                }
+            }
+        }
+
+        for (int i = 0; i < 100; i++) {
+
+            addPeak(peaks, 50.0 + 1500.0 * random.nextDouble(), random);
+
+        }
+
+        return peaks;
+    }
+
+    /**
+     * Adds a peak of random intensity to the given map.
+     *
+     * @param peaks the peaks
+     * @param mz the m/z of the peak
+     * @param random the random number generator
+     */
+    private void addPeak(HashMap<Double, Peak> peaks, double mz, Random random) {
+
+        peaks.put(mz, new Peak(mz, 1.0 + 1000.0 * random.nextDouble()));
+
+    }
+
+    /**
+     * Returns the b and y ions matched in the spectrum, creating an ion match
+     * for every peak returned by the list based lookup of the spectrum index.
+     *
+     * @param forwardMz1 the m/z at charge 1 of the forward ions
+     * @param complementaryMz1 the m/z at charge 1 of the complementary ions
+     * @param spectrumIndex the spectrum index
+     * @param peptideCharge the charge of the peptide
+     *
+     * @return the ions matched in the spectrum
+     */
+    private ArrayList<IonMatch> getIonMatches(double[] forwardMz1, double[] complementaryMz1, SpectrumIndex spectrumIndex, int peptideCharge) {
+
+        ArrayList<IonMatch> results = new ArrayList<>();
+        int length = forwardMz1.length;
+        double protonMass = ElementaryIon.proton.getTheoreticMass();
+
+        for (int ionCharge = 1; ionCharge == 1 || ionCharge < peptideCharge; ionCharge++) {
+
+            double protonContribution = ElementaryIon.getProtonMassMultiple(ionCharge - 1);
+
+            for (int i = 0; i < length; i++) {
+
+                for (Peak peak : spectrumIndex.getMatchingPeaks((forwardMz1[i] + protonContribution) / ionCharge)) {
+
+                    Ion ion = new PeptideFragmentIon(PeptideFragmentIon.B_ION, i + 1, forwardMz1[i] - protonMass, null);
+                    results.add(new IonMatch(peak, ion, ionCharge));
+
+                }
+
+                for (Peak peak : spectrumIndex.getMatchingPeaks((complementaryMz1[i] + protonContribution) / ionCharge)) {
+
+                    Ion ion = new PeptideFragmentIon(PeptideFragmentIon.Y_ION, length - i - 1, complementaryMz1[i] - protonMass, null);
+                    results.add(new IonMatch(peak, ion, ionCharge));
+
+                }
+            }
+        }
+
+        return results;
+    }
+
+    /**
+     * Compares the content of the buffer to the expected ion matches.
+     *
+     * @param expected the expected ion matches
+     * @param ionMatchBuffer the buffer
+     */
+    private void compare(ArrayList<IonMatch> expected, IonMatchBuffer ionMatchBuffer) {
+
+        Assert.assertEquals(expected.size(), ionMatchBuffer.getNMatches());
+
+        double matchedIntensity = 0.0;
+
+        for (int i = 0; i < expected.size(); i++) {
+
+            IonMatch ionMatch = expected.get(i);
+            PeptideFragmentIon ion = (PeptideFragmentIon) ionMatch.ion;
+
+            Assert.assertSame(ionMatch.peak, ionMatchBuffer.getPeak(i));
+            Assert.assertEquals(ionMatch.peak.mz, ionMatchBuffer.getPeakMz(i));
+            Assert.assertEquals(ionMatch.peak.intensity, ionMatchBuffer.getPeakIntensity(i));
+            Assert.assertEquals(Ion.IonType.PEPTIDE_FRAGMENT_ION.index, ionMatchBuffer.getIonType(i));
+            Assert.assertEquals(ion.getSubType(), ionMatchBuffer.getIonSubType(i));
+            Assert.assertEquals(ion.getNumber(), ionMatchBuffer.getIonNumber(i));
+            Assert.assertEquals(ionMatch.charge.intValue(), ionMatchBuffer.getCharge(i));
+            Assert.assertEquals(ion.getTheoreticMass(), ionMatchBuffer.getIonMass(i), 1e-9);
+            Assert.assertFalse(ionMatchBuffer.hasNeutralLosses(i));
+
+            matchedIntensity += ionMatch.peak.intensity;
+
+        }
+
+        Assert.assertEquals(matchedIntensity, ionMatchBuffer.getMatchedIntensity(), 1e-6);
+
+        compare(expected, ionMatchBuffer.getIonMatches());
+
+    }
+
+    /**
+     * Compares ion matches to the expected ion matches.
+     *
+     * @param expected the expected ion matches
+     * @param actual the ion matches
+     */
+    private void compare(ArrayList<IonMatch> expected, ArrayList<IonMatch> actual) {
+
+        Assert.assertEquals(expected.size(), actual.size());
+
+        for (int i = 0; i < expected.size(); i++) {
+
+            IonMatch expectedMatch = expected.get(i);
+            IonMatch actualMatch = actual.get(i);
+
+            Assert.assertSame(expectedMatch.peak, actualMatch.peak);
+            Assert.assertEquals(expectedMatch.charge, actualMatch.charge);
+            Assert.assertEquals(expectedMatch.ion.getType(), actualMatch.ion.getType());
+            Assert.assertEquals(expectedMatch.ion.getSubType(), actualMatch.ion.getSubType());
+            Assert.assertEquals(((PeptideFragmentIon) expectedMatch.ion).getNumber(), ((PeptideFragmentIon) actualMatch.ion).getNumber());
+            Assert.assertEquals(expectedMatch.ion.getTheoreticMass(), actualMatch.ion.getTheoreticMass(), 1e-9);
+            Assert.assertEquals(IonMatch.getMatchKey(expectedMatch.ion, expectedMatch.charge), IonMatch.getMatchKey(actualMatch.ion, actualMatch.charge));
+
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.compomics.util.test.experiment.identification;
+
+import com.compomics.util.experiment.biology.ions.Ion;
+import com.compomics.util.experiment.biology.ions.NeutralLoss;
+import com.compomics.util.experiment.biology.ions.impl.ImmoniumIon;
+import com.compomics.util.experiment.biology.ions.impl.PeptideFragmentIon;
+import com.compomics.util.experiment.biology.ions.impl.PrecursorIon;
+import com.compomics.util.experiment.biology.ions.impl.TagFragmentIon;
+import com.compomics.util.experiment.identification.matches.IonMatch;
+import com.compomics.util.experiment.identification.spectrum_annotation.IonMatchKeysCache;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * This class tests the keys returned by the ion match keys cache against the
+ * keys built without cache.
+ *
+ * @author Marc Vaudel
+ */
+public class IonMatchKeysCacheTest extends TestCase {
+
+    /**
+     * Ion types, including values out of the packable range.
+     */
+    private static final int[] TYPES = {0, 1, 2, 4, 8, 15, 16};
+    /**
+     * Ion subtypes, including values out of the packable range.
+     */
+    private static final int[] SUBTYPES = {0, 1, 5, 16383, 16384, -1};
+    /**
+     * Ion numbers, including values out of the packable range.
+     */
+    private static final int[] NUMBERS = {0, 1, 42, 65535, 65536};
+    /**
+     * Neutral losses, the empty string and null are different keys.
+     */
+    private static final String[] LOSSES = {"", null, "-H2O", "-H2O-NH3"};
+    /**
+     * Charges, including negative charges and values out of the packable
+     * range.
+     */
+    private static final int[] CHARGES = {-3, -1, 0, 1, 2, 32767, 32768};
+
+    /**
+     * Compares the keys of the cache to the keys built without cache for
+     * packable attributes and for attributes falling back to the uncached
+     * key, and checks that only packable keys are stored.
+     */
+    public void testKeys() {
+
+        IonMatchKeysCache ionMatchKeysCache = new IonMatchKeysCache();
+        int nPackable = 0;
+
+        for (int pass = 0; pass < 2; pass++) {
+
+            for (int type : TYPES) {
+                for (int subType : SUBTYPES) {
+                    for (int number : NUMBERS) {
+                        for (String losses : LOSSES) {
+                            for (int charge : CHARGES) {
+
+                                String expected = IonMatch.getMatchKey(type, subType, number, losses, charge);
+                                String key = ionMatchKeysCache.getMatchKey(type, subType, number, losses, charge);
+
+                                Assert.assertEquals(expected, key);
+                                Assert.assertSame(expected.intern(), key);
+
+                                if (pass == 0 && type < 16 && subType >= 0 && subType < 16384 && number < 65536 && losses != null && charge >= 0 && charge < 32768) {
+                                    nPackable++;
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+
+            Assert.assertEquals(nPackable, ionMatchKeysCache.size());
+
+        }
+    }
+
+    /**
+     * Compares the keys of ions to the keys built without cache, including
+     * negative charges.
+     */
+    public void testIons() {
+
+        IonMatchKeysCache ionMatchKeysCache = new IonMatchKeysCache();
+        ArrayList<Ion> ions = new ArrayList<>();
+        ions.add(new PeptideFragmentIon(PeptideFragmentIon.B_ION, 3, 300.0, null));
+        ions.add(new PeptideFragmentIon(PeptideFragmentIon.Y_ION, 12, 1200.0, new NeutralLoss[]{NeutralLoss.H2O}));
+        ions.add(new PeptideFragmentIon(PeptideFragmentIon.Y_ION, 12, 1200.0, new NeutralLoss[]{NeutralLoss.NH3, NeutralLoss.H2O}));
+        ions.add(new TagFragmentIon(PeptideFragmentIon.A_ION, 2, 1, 200.0, null, 0.0));
+        ions.add(new PrecursorIon(1000.0, new NeutralLoss[]{NeutralLoss.H3PO4}));
+        ions.add(ImmoniumIon.getImmoniumIon('K'));
+
+        for (Ion ion : ions) {
+
+            for (int charge : CHARGES) {
+
+                String expected = IonMatch.getMatchKey(ion, charge);
+                Assert.assertEquals(expected, ionMatchKeysCache.getMatchKey(ion, charge));
+                Assert.assertEquals(expected, IonMatch.getMatchKey(ion, charge, ionMatchKeysCache));
+                Assert.assertSame(ionMatchKeysCache.getMatchKey(ion, charge), ionMatchKeysCache.getMatchKey(ion, charge));
+
+            }
+        }
+    }
+
+    /**
+     * Tests that neutral losses combinations beyond the number that can be
+     * packed still give the right keys.
+     */
+    public void testManyNeutralLosses() {
+
+        IonMatchKeysCache ionMatchKeysCache = new IonMatchKeysCache();
+        int nLosses = (1 << 14) + 100;
+
+        for (int pass = 0; pass < 2; pass++) {
+
+            for (int i = 0; i < nLosses; i++) {
+
+                String losses = "-loss" + i;
+                Assert.assertEquals(IonMatch.getMatchKey(0, 1, 2, losses, 1), ionMatchKeysCache.getMatchKey(0, 1, 2, losses, 1));
+
+            }
+        }
+
+        // the identifier 0 is kept for the empty string
+        Assert.assertEquals((1 << 14) - 1, ionMatchKeysCache.size());
+
+    }
+
+    /**
+     * Queries the keys from several threads and compares them to the keys
+     * built without cache.
+     *
+     * @throws Exception exception thrown if a thread failed or was interrupted
+     */
+    public void testConcurrentAccess() throws Exception {
+
+        IonMatchKeysCache ionMatchKeysCache = new IonMatchKeysCache();
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+
+        try {
+
+            ArrayList<Future<?>> futures = new ArrayList<>(4);
+
+            for (int thread = 0; thread < 4; thread++) {
+
+                int offset = thread;
+
+                futures.add(pool.submit(() -> {
+
+                    for (int i = 0; i < 20000; i++) {
+
+                        int number = (offset * 7919 + i) % 5000;
+                        int charge = 1 + i % 4;
+                        String losses = LOSSES[i % 4];
+                        String key = ionMatchKeysCache.getMatchKey(0, i % 6, number, losses, charge);
+                        Assert.assertSame(IonMatch.getMatchKey(0, i % 6, number, losses, charge).intern(), key);
+
+                    }
+                }));
+            }
+
+            for (Future<?> future : futures) {
+                future.get();
+            }
+
+        } finally {
+
+            pool.shutdownNow();
+
+        }
+    }
+}
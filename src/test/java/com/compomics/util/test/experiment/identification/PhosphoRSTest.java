@@ -0,0 +1,195 @@
+package com.compomics.util.test.experiment.identification;
+
+import com.compomics.util.experiment.biology.aminoacids.AminoAcid;
+import com.compomics.util.experiment.biology.ions.Ion;
+import com.compomics.util.experiment.biology.ions.impl.ElementaryIon;
+import com.compomics.util.experiment.biology.ions.impl.PeptideFragmentIon;
+import com.compomics.util.experiment.biology.modifications.Modification;
+import com.compomics.util.experiment.biology.modifications.ModificationFactory;
+import com.compomics.util.experiment.biology.proteins.Peptide;
+import com.compomics.util.experiment.biology.proteins.Protein;
+import com.compomics.util.experiment.identification.matches.ModificationMatch;
+import com.compomics.util.experiment.identification.modification.scores.PhosphoRS;
+import com.compomics.util.experiment.identification.protein_sequences.SingleProteinSequenceProvider;
+import com.compomics.util.experiment.identification.spectrum_annotation.SpecificAnnotationParameters;
+import com.compomics.util.experiment.identification.spectrum_assumptions.PeptideAssumption;
+import com.compomics.util.experiment.mass_spectrometry.spectra.Peak;
+import com.compomics.util.experiment.mass_spectrometry.spectra.Precursor;
+import com.compomics.util.experiment.mass_spectrometry.spectra.Spectrum;
+import com.compomics.util.parameters.identification.advanced.SequenceMatchingParameters;
+import com.compomics.util.parameters.identification.search.ModificationParameters;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * This class tests the PhosphoRS localization.
+ *
+ * @author Marc Vaudel
+ */
+public class PhosphoRSTest extends TestCase {
+
+    /**
+     * Tests that the batch localization returns the same probabilities as the
+     * localization of the matches one by one.
+     *
+     * @throws Exception exception thrown whenever an error occurred while
+     * scoring
+     */
+    public void testBatchLocalization() throws Exception {
+
+        ModificationFactory modificationFactory = ModificationFactory.getInstance();
+        ArrayList<Modification> modifications = new ArrayList<>(3);
+        ModificationParameters modificationParameters = new ModificationParameters();
+
+        for (String modificationName : new String[]{"Phosphorylation of S", "Phosphorylation of T", "Phosphorylation of Y"}) {
+
+            Modification modification = modificationFactory.getModification(modificationName);
+            modifications.add(modification);
+            modificationParameters.addVariableModification(modification);
+
+        }
+
+        SequenceMatchingParameters sequenceMatchingParameters = SequenceMatchingParameters.getDefaultSequenceMatching();
+        String[] sequences = new String[]{"SAPSTYSEK", "TSPSGYSPTSPK", "ASSTPSEYR", "YSSPTLSTEK"};
+        int nMatches = 24;
+        Peptide[] peptides = new Peptide[nMatches];
+        Spectrum[] spectra = new Spectrum[nMatches];
+        SpecificAnnotationParameters[] annotationParameters = new SpecificAnnotationParameters[nMatches];
+        Random random = new Random(42);
+
+        for (int i = 0; i < nMatches; i++) {
+
+            String sequence = sequences[i % sequences.length];
+            peptides[i] = new Peptide(sequence, new ModificationMatch[]{new ModificationMatch("Phosphorylation of S", sequence.indexOf('S') + 1)});
+
+            HashMap<Double, Peak> peaks = new HashMap<>();
+
+            for (int j = 0; j < 300; j++) {
+
+                double mz = 100.0 + 1200.0 * random.nextDouble();
+                peaks.put(mz, new Peak(mz, 1000.0 * random.nextDouble()));
+
+            }
+
+            spectra[i] = new Spectrum(2, new Precursor(0.0, 600.0, new ArrayList<>(Arrays.asList(2))), "spectrum_" + i, peaks, "test_file");
+
+            SpecificAnnotationParameters specificAnnotationParameters = new SpecificAnnotationParameters(spectra[i].getSpectrumKey(), new PeptideAssumption(peptides[i], 1, 0, 2, 0.0, "test_file"));
+            specificAnnotationParameters.addIonType(Ion.IonType.PEPTIDE_FRAGMENT_ION, PeptideFragmentIon.B_ION);
+            specificAnnotationParameters.addIonType(Ion.IonType.PEPTIDE_FRAGMENT_ION, PeptideFragmentIon.Y_ION);
+            specificAnnotationParameters.setSelectedCharges(new ArrayList<>(Arrays.asList(1)));
+            specificAnnotationParameters.setFragmentIonAccuracy(0.02);
+            specificAnnotationParameters.setFragmentIonPpm(false);
+            annotationParameters[i] = specificAnnotationParameters;
+
+        }
+
+        ArrayList<HashMap<Integer, Double>> batchResults = PhosphoRS.getSequenceProbabilities(peptides, spectra, annotationParameters, modifications,
+                modificationParameters, new SingleProteinSequenceProvider(new Protein("test_protein", "MK")), false, sequenceMatchingParameters,
+                sequenceMatchingParameters, 4, null);
+
+        Assert.assertTrue(batchResults.size() == nMatches);
+
+        for (int i = 0; i < nMatches; i++) {
+
+            HashMap<Integer, Double> singleResult = PhosphoRS.getSequenceProbabilities(peptides[i], modifications, modificationParameters, spectra[i],
+                    new SingleProteinSequenceProvider(new Protein("test_protein", "MK")), annotationParameters[i], false, sequenceMatchingParameters,
+                    sequenceMatchingParameters, null);
+
+            Assert.assertTrue(!singleResult.isEmpty());
+            Assert.assertEquals(singleResult, batchResults.get(i));
+
+        }
+    }
+
+    /**
+     * Tests the site probabilities of a phosphopeptide against fixed values.
+     * The spectrum contains the b and y ions of the peptide phosphorylated on
+     * the second serine and noise peaks. The tyrosine and the first serine
+     * are the other possible sites.
+     *
+     * @throws Exception exception thrown whenever an error occurred while
+     * scoring
+     */
+    public void testSiteProbabilities() throws Exception {
+
+        ModificationFactory modificationFactory = ModificationFactory.getInstance();
+        ArrayList<Modification> modifications = new ArrayList<>(3);
+        ModificationParameters modificationParameters = new ModificationParameters();
+
+        for (String modificationName : new String[]{"Phosphorylation of S", "Phosphorylation of T", "Phosphorylation of Y"}) {
+
+            Modification modification = modificationFactory.getModification(modificationName);
+            modifications.add(modification);
+            modificationParameters.addVariableModification(modification);
+
+        }
+
+        SequenceMatchingParameters sequenceMatchingParameters = SequenceMatchingParameters.getDefaultSequenceMatching();
+        String sequence = "SAPGLSGYEK";
+        int site = 6;
+        Peptide peptide = new Peptide(sequence, new ModificationMatch[]{new ModificationMatch("Phosphorylation of S", site)});
+        peptide.estimateTheoreticMass(modificationParameters, null, sequenceMatchingParameters);
+
+        double phosphoMass = modifications.get(0).getMass();
+        double protonMass = ElementaryIon.proton.getTheoreticMass();
+        HashMap<Double, Peak> peaks = new HashMap<>();
+        double prefixMass = 0.0;
+
+        for (int i = 0; i < sequence.length() - 1; i++) {
+
+            prefixMass += AminoAcid.getAminoAcid(sequence.charAt(i)).getMonoisotopicMass();
+
+            if (i == site - 1) {
+                prefixMass += phosphoMass;
+            }
+
+            double bMz = prefixMass + protonMass;
+            double yMz = peptide.getMass() - prefixMass + protonMass;
+            peaks.put(bMz, new Peak(bMz, 500.0 + 100.0 * i));
+            peaks.put(yMz, new Peak(yMz, 550.0 + 100.0 * i));
+
+        }
+
+        Random random = new Random(42);
+
+        for (int i = 0; i < 100; i++) {
+
+            double mz = 100.0 + 1000.0 * random.nextDouble();
+            peaks.put(mz, new Peak(mz, 1000.0 * random.nextDouble()));
+
+        }
+
+        double precursorMz = (peptide.getMass() + 2 * protonMass) / 2;
+        Spectrum spectrum = new Spectrum(2, new Precursor(0.0, precursorMz, new ArrayList<>(Arrays.asList(2))), "spectrum", peaks, "test_file");
+
+        SpecificAnnotationParameters specificAnnotationParameters = new SpecificAnnotationParameters(spectrum.getSpectrumKey(), new PeptideAssumption(peptide, 1, 0, 2, 0.0, "test_file"));
+        specificAnnotationParameters.addIonType(Ion.IonType.PEPTIDE_FRAGMENT_ION, PeptideFragmentIon.B_ION);
+        specificAnnotationParameters.addIonType(Ion.IonType.PEPTIDE_FRAGMENT_ION, PeptideFragmentIon.Y_ION);
+        specificAnnotationParameters.setSelectedCharges(new ArrayList<>(Arrays.asList(1)));
+        specificAnnotationParameters.setFragmentIonAccuracy(0.02);
+        specificAnnotationParameters.setFragmentIonPpm(false);
+
+        HashMap<Integer, Double> result = PhosphoRS.getSequenceProbabilities(peptide, modifications, modificationParameters, spectrum,
+                new SingleProteinSequenceProvider(new Protein("test_protein", "MK")), specificAnnotationParameters, false, sequenceMatchingParameters,
+                sequenceMatchingParameters, null);
+
+        HashMap<Integer, Double> expected = new HashMap<>(3);
+        expected.put(1, 4.0799020242135825E-14);
+        expected.put(6, 99.99996313530836);
+        expected.put(8, 3.6864691587674645E-5);
+
+        Assert.assertEquals(expected.keySet(), result.keySet());
+
+        for (Integer possibleSite : expected.keySet()) {
+
+            double expectedProbability = expected.get(possibleSite);
+            Assert.assertEquals(expectedProbability, result.get(possibleSite), 1e-6 * expectedProbability);
+
+        }
+
+    }
+}
@@ -0,0 +1,216 @@
+package com.compomics.util.test.experiment.identification;
+
+import com.compomics.util.Util;
+import com.compomics.util.experiment.biology.aminoacids.AminoAcid;
+import com.compomics.util.experiment.biology.ions.impl.ElementaryIon;
+import com.compomics.util.experiment.biology.proteins.Peptide;
+import com.compomics.util.experiment.identification.psm_scoring.PsmScore;
+import com.compomics.util.experiment.identification.psm_scoring.PsmScoresEstimator;
+import com.compomics.util.experiment.identification.spectrum_annotation.AnnotationParameters;
+import com.compomics.util.experiment.identification.spectrum_annotation.SpecificAnnotationParameters;
+import com.compomics.util.experiment.identification.spectrum_annotation.spectrum_annotators.PeptideSpectrumAnnotator;
+import com.compomics.util.experiment.identification.spectrum_assumptions.PeptideAssumption;
+import com.compomics.util.experiment.mass_spectrometry.SpectrumFactory;
+import com.compomics.util.experiment.mass_spectrometry.spectra.Spectrum;
+import com.compomics.util.parameters.identification.IdentificationParameters;
+import com.compomics.util.parameters.identification.advanced.SequenceMatchingParameters;
+import com.compomics.util.parameters.identification.search.ModificationParameters;
+import com.compomics.util.parameters.identification.search.SearchParameters;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map.Entry;
+import java.util.Random;
+import java.util.TreeMap;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * This class tests the batch scoring of PSMs against the scoring of PSMs one
+ * by one.
+ *
+ * @author Marc Vaudel
+ */
+public class PsmScoresEstimatorTest extends TestCase {
+
+    /**
+     * The folder where the test files are written.
+     */
+    private static final String TEMP_FOLDER = "src/test/resources/experiment/psmScoresEstimator";
+    /**
+     * The sequences of the peptides used to generate the spectra and as
+     * candidates.
+     */
+    private static final String[] SEQUENCES = {"PEPTIDEK", "ACDEFGHIK", "LMNPQRSTVWYR", "SAMPLEPEPTIDER", "GGGAAAK", "TESTPEPTIDEK"};
+    /**
+     * The number of candidates scored against every spectrum.
+     */
+    private static final int N_CANDIDATES = 4;
+
+    /**
+     * Scores several candidates for every spectrum in a batch with different
+     * numbers of threads and compares the scores to the scores of the PSMs
+     * computed one by one.
+     *
+     * @throws Exception exception thrown if an error occurred while writing or
+     * reading the spectra, or if a thread was interrupted
+     */
+    public void testBatchScoring() throws Exception {
+
+        File folder = new File(TEMP_FOLDER);
+        folder.mkdir();
+
+        SpectrumFactory spectrumFactory = SpectrumFactory.getInstance();
+
+        try {
+
+            SearchParameters searchParameters = new SearchParameters();
+            IdentificationParameters identificationParameters = new IdentificationParameters(searchParameters);
+            ModificationParameters modificationParameters = searchParameters.getModificationParameters();
+            SequenceMatchingParameters sequenceMatchingParameters = SequenceMatchingParameters.getDefaultSequenceMatching();
+
+            Peptide[] sequencePeptides = new Peptide[SEQUENCES.length];
+
+            for (int i = 0; i < SEQUENCES.length; i++) {
+
+                sequencePeptides[i] = new Peptide(SEQUENCES[i]);
+                sequencePeptides[i].estimateTheoreticMass(modificationParameters, null, sequenceMatchingParameters);
+
+            }
+
+            File mgfFile = writeMgf(new File(folder, "test.mgf"), sequencePeptides);
+            spectrumFactory.addSpectra(mgfFile);
+
+            // Interleave the candidates of the spectra
+            int nPsms = SEQUENCES.length * N_CANDIDATES;
+            String[] spectrumKeys = new String[nPsms];
+            Peptide[] peptides = new Peptide[nPsms];
+            int[] charges = new int[nPsms];
+
+            for (int i = 0; i < nPsms; i++) {
+
+                int spectrumIndex = i % SEQUENCES.length;
+                spectrumKeys[i] = Spectrum.getSpectrumKey(mgfFile.getName(), "spectrum " + spectrumIndex);
+                peptides[i] = sequencePeptides[(spectrumIndex + i / SEQUENCES.length) % SEQUENCES.length];
+                charges[i] = 2 + i % 2;
+
+            }
+
+            int[] scoreIndexes = {PsmScore.hyperScore.index, PsmScore.precursor_accuracy.index};
+
+            PsmScoresEstimator psmScoresEstimator = new PsmScoresEstimator();
+            PeptideSpectrumAnnotator peptideSpectrumAnnotator = new PeptideSpectrumAnnotator();
+            AnnotationParameters annotationParameters = identificationParameters.getAnnotationParameters();
+            double[][] expected = new double[scoreIndexes.length][nPsms];
+            boolean matched = false;
+
+            for (int i = 0; i < nPsms; i++) {
+
+                Spectrum spectrum = spectrumFactory.getSpectrum(spectrumKeys[i]);
+                SpecificAnnotationParameters specificAnnotationParameters = annotationParameters.getSpecificAnnotationParameters(spectrumKeys[i],
+                        new PeptideAssumption(peptides[i], charges[i]), modificationParameters, null, sequenceMatchingParameters);
+
+                for (int k = 0; k < scoreIndexes.length; k++) {
+
+                    expected[k][i] = psmScoresEstimator.getScore(peptides[i], charges[i], spectrum, identificationParameters, specificAnnotationParameters,
+                            modificationParameters, null, sequenceMatchingParameters, peptideSpectrumAnnotator, scoreIndexes[k]);
+
+                }
+
+                matched = matched || expected[0][i] > 0.0;
+
+            }
+
+            Assert.assertTrue(matched);
+
+            for (int nThreads = 1; nThreads <= 3; nThreads++) {
+
+                double[][] scores = psmScoresEstimator.getScores(spectrumKeys, peptides, charges, scoreIndexes, identificationParameters,
+                        modificationParameters, null, sequenceMatchingParameters, nThreads, null);
+
+                Assert.assertEquals(scoreIndexes.length, scores.length);
+
+                for (int k = 0; k < scoreIndexes.length; k++) {
+
+                    Assert.assertEquals(nPsms, scores[k].length);
+
+                    for (int i = 0; i < nPsms; i++) {
+
+                        Assert.assertEquals(expected[k][i], scores[k][i], 1e-9 * Math.abs(expected[k][i]));
+
+                    }
+                }
+            }
+
+        } finally {
+
+            spectrumFactory.closeFiles();
+            spectrumFactory.clearFactory();
+            Util.deleteDir(folder);
+
+        }
+    }
+
+    /**
+     * Writes an mgf file with one spectrum per peptide containing the b and y
+     * ions of the peptide at charge 1 and less intense noise.
+     *
+     * @param file the file
+     * @param peptides the peptides
+     *
+     * @return the file
+     *
+     * @throws IOException exception thrown if an error occurred while writing
+     * the file
+     */
+    private File writeMgf(File file, Peptide[] peptides) throws IOException {
+
+        Random random = new Random(42);
+        double protonMass = ElementaryIon.proton.getTheoreticMass();
+        StringBuilder content = new StringBuilder();
+
+        for (int i = 0; i < peptides.length; i++) {
+
+            Peptide peptide = peptides[i];
+            String sequence = peptide.getSequence();
+            TreeMap<Double, Double> peaks = new TreeMap<>();
+            double prefixMass = 0.0;
+
+            for (int j = 0; j < sequence.length() - 1; j++) {
+
+                prefixMass += AminoAcid.getAminoAcid(sequence.charAt(j)).getMonoisotopicMass();
+                peaks.put(prefixMass + protonMass, 1000.0 + 1000.0 * random.nextDouble());
+                peaks.put(peptide.getMass() - prefixMass + protonMass, 1000.0 + 1000.0 * random.nextDouble());
+
+            }
+
+            for (int j = 0; j < 20; j++) {
+
+                peaks.put(100.0 + 1200.0 * random.nextDouble(), 1.0 + 100.0 * random.nextDouble());
+
+            }
+
+            content.append("BEGIN IONS\n");
+            content.append("TITLE=spectrum ").append(i).append('\n');
+            content.append("PEPMASS=").append((peptide.getMass() + 2 * protonMass) / 2).append('\n');
+            content.append("CHARGE=2+\n");
+            content.append("RTINSECONDS=").append(10.0 * i).append('\n');
+
+            for (Entry<Double, Double> peak : peaks.entrySet()) {
+
+                content.append(peak.getKey()).append(' ').append(peak.getValue()).append('\n');
+
+            }
+
+            content.append("END IONS\n\n");
+
+        }
+
+        try (FileOutputStream outputStream = new FileOutputStream(file)) {
+            outputStream.write(content.toString().getBytes(StandardCharsets.US_ASCII));
+        }
+
+        return file;
+    }
+}
@@ -0,0 +1,291 @@
+package com.compomics.util.test.experiment.io;
+
+import com.compomics.util.Util;
+import com.compomics.util.experiment.biology.enzymes.Enzyme;
+import com.compomics.util.experiment.biology.proteins.Protein;
+import com.compomics.util.experiment.io.biology.protein.FastaSummary;
+import com.compomics.util.experiment.io.biology.protein.Header;
+import com.compomics.util.experiment.io.biology.protein.converters.DecoyConverter;
+import com.compomics.util.experiment.io.biology.protein.converters.DecoyGenerator;
+import com.compomics.util.experiment.io.biology.protein.converters.DecoyStrategy;
+import com.compomics.util.experiment.io.biology.protein.iterators.FastaIterator;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * This class tests the generation of target-decoy FASTA files.
+ *
+ * @author Marc Vaudel
+ */
+public class DecoyGeneratorTest extends TestCase {
+
+    /**
+     * The FASTA files used for the tests.
+     */
+    private static final String[] FASTA_FILES = {"src/test/resources/experiment/indexedFasta.fasta", "src/test/resources/experiment/testSequences.fasta"};
+    /**
+     * The folder where the files derived from the test files are written.
+     */
+    private static final String TEMP_FOLDER = "src/test/resources/experiment/decoyGenerator";
+    /**
+     * The number of proteins of the generated FASTA file, enough to have
+     * several batches.
+     */
+    private static final int N_GENERATED = 2 * DecoyGenerator.BATCH_PROTEINS + 500;
+    /**
+     * The numbers of threads to test.
+     */
+    private static final int[] N_THREADS = {1, 2, 4};
+
+    /**
+     * Tests that the reversed target-decoy files are identical to the ones
+     * written by the previous implementation of the decoy converter.
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * or writing a file
+     */
+    public void testReverse() throws IOException {
+
+        File folder = new File(TEMP_FOLDER);
+        folder.mkdir();
+
+        try {
+
+            for (File fastaIn : getTestFiles(folder)) {
+
+                File expectedFile = new File(folder, "expected.fasta");
+                int nProteins = writeReference(fastaIn, expectedFile);
+                byte[] expected = Files.readAllBytes(expectedFile.toPath());
+
+                File fastaOut = new File(folder, "decoy.fasta");
+                FastaSummary fastaSummary = DecoyConverter.appendDecoySequences(fastaIn, fastaOut, null);
+                Assert.assertTrue(Arrays.equals(expected, Files.readAllBytes(fastaOut.toPath())));
+                Assert.assertEquals(2 * nProteins, fastaSummary.nSequences);
+
+                for (int nThreads : N_THREADS) {
+
+                    new DecoyGenerator(DecoyStrategy.Reverse, null, 0).writeTargetDecoyFasta(fastaIn, fastaOut, false, nThreads, null);
+                    Assert.assertTrue(Arrays.equals(expected, Files.readAllBytes(fastaOut.toPath())));
+
+                }
+            }
+
+        } finally {
+
+            Util.deleteDir(folder);
+
+        }
+    }
+
+    /**
+     * Tests that the pseudo-reversed and shuffled target-decoy files do not
+     * depend on the number of threads or on the run.
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * or writing a file
+     */
+    public void testDeterminism() throws IOException {
+
+        Enzyme trypsin = new Enzyme("Trypsin");
+        trypsin.addAminoAcidBefore('K');
+        trypsin.addAminoAcidBefore('R');
+
+        File folder = new File(TEMP_FOLDER);
+        folder.mkdir();
+
+        try {
+
+            for (File fastaIn : getTestFiles(folder)) {
+
+                for (boolean gzip : new boolean[]{false, true}) {
+
+                    byte[] pseudoReversed = testDeterminism(new DecoyGenerator(DecoyStrategy.PseudoReverse, trypsin, 0), fastaIn, gzip, folder);
+                    byte[] shuffled = testDeterminism(new DecoyGenerator(DecoyStrategy.Shuffle, null, 42), fastaIn, gzip, folder);
+                    byte[] otherSeed = testDeterminism(new DecoyGenerator(DecoyStrategy.Shuffle, null, 43), fastaIn, gzip, folder);
+
+                    Assert.assertFalse(Arrays.equals(pseudoReversed, shuffled));
+                    Assert.assertFalse(Arrays.equals(shuffled, otherSeed));
+
+                }
+            }
+
+            // the cleavage sites stay in place and the residues are kept
+            DecoyGenerator pseudoReverse = new DecoyGenerator(DecoyStrategy.PseudoReverse, trypsin, 0);
+            Assert.assertEquals("CBAKFEDRRIHG", pseudoReverse.getDecoySequence("test", "ABCKDEFRRGHI"));
+
+            DecoyGenerator shuffle = new DecoyGenerator(DecoyStrategy.Shuffle, null, 42);
+            String sequence = "ABCKDEFRRGHILMNPQSTVWY";
+            String decoySequence = shuffle.getDecoySequence("test", sequence);
+            Assert.assertEquals(decoySequence, new DecoyGenerator(DecoyStrategy.Shuffle, null, 42).getDecoySequence("test", sequence));
+            char[] residues = sequence.toCharArray();
+            char[] decoyResidues = decoySequence.toCharArray();
+            Arrays.sort(residues);
+            Arrays.sort(decoyResidues);
+            Assert.assertTrue(Arrays.equals(residues, decoyResidues));
+
+        } finally {
+
+            Util.deleteDir(folder);
+
+        }
+    }
+
+    /**
+     * Writes the target-decoy file of the given file with different numbers
+     * of threads and verifies that the outputs are identical.
+     *
+     * @param decoyGenerator the decoy generator
+     * @param fastaIn the FASTA file to read
+     * @param gzip if true, the output is compressed
+     * @param folder the folder where to write the files
+     *
+     * @return the content of the target-decoy file
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * or writing a file
+     */
+    private byte[] testDeterminism(DecoyGenerator decoyGenerator, File fastaIn, boolean gzip, File folder) throws IOException {
+
+        File fastaOut = new File(folder, gzip ? "decoy.fasta.gz" : "decoy.fasta");
+        byte[] reference = null;
+
+        for (int run = 0; run < 2; run++) {
+
+            for (int nThreads : N_THREADS) {
+
+                decoyGenerator.writeTargetDecoyFasta(fastaIn, fastaOut, gzip, nThreads, null);
+                byte[] content = Files.readAllBytes(fastaOut.toPath());
+
+                if (reference == null) {
+
+                    reference = content;
+
+                } else {
+
+                    Assert.assertTrue(Arrays.equals(reference, content));
+
+                }
+            }
+        }
+
+        return reference;
+    }
+
+    /**
+     * Returns the FASTA files to test: the test resources and a generated file
+     * large enough to be processed in several batches.
+     *
+     * @param folder the folder where to write the generated file
+     *
+     * @return the FASTA files to test
+     *
+     * @throws IOException exception thrown if an error occurred while writing
+     * the file
+     */
+    private ArrayList<File> getTestFiles(File folder) throws IOException {
+
+        ArrayList<File> files = new ArrayList<>();
+
+        for (String fastaFile : FASTA_FILES) {
+
+            files.add(new File(fastaFile));
+
+        }
+
+        File generatedFile = new File(folder, "generated.fasta");
+        String aminoAcids = "ACDEFGHIKLMNPQRSTVWY";
+        Random random = new Random(0);
+
+        try (BufferedWriter bw = new BufferedWriter(new FileWriter(generatedFile))) {
+
+            for (int i = 0; i < N_GENERATED; i++) {
+
+                bw.write(">sp|P" + i + "|PROT" + i + "_HUMAN Generated protein " + i + " OS=Homo sapiens");
+                bw.write('\n');
+
+                int length = 20 + random.nextInt(400);
+
+                for (int j = 0; j < length; j++) {
+
+                    bw.write(aminoAcids.charAt(random.nextInt(aminoAcids.length())));
+
+                    if ((j + 1) % 60 == 0 || j == length - 1) {
+
+                        bw.write('\n');
+
+                    }
+                }
+            }
+        }
+
+        files.add(generatedFile);
+
+        return files;
+    }
+
+    /**
+     * Writes a reversed target-decoy file the way the previous implementation
+     * of the decoy converter did.
+     *
+     * @param fastaIn the FASTA file to read
+     * @param fastaOut the FASTA file to write
+     *
+     * @return the number of proteins in the input file
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * or writing a file
+     */
+    private int writeReference(File fastaIn, File fastaOut) throws IOException {
+
+        FastaIterator fastaIterator = new FastaIterator(fastaIn);
+        int nProteins = 0;
+
+        try (BufferedWriter bw = new BufferedWriter(new FileWriter(fastaOut))) {
+
+            Protein protein;
+            while ((protein = fastaIterator.getNextProtein()) != null) {
+
+                nProteins++;
+                String accession = protein.getAccession();
+                String sequence = protein.getSequence();
+
+                Header header = fastaIterator.getLastHeader();
+                String rawHeader = header.getRawHeader();
+
+                bw.write(rawHeader);
+                bw.newLine();
+                bw.write(sequence);
+
+                bw.newLine();
+                bw.newLine();
+
+                int accessionEndIndex = rawHeader.indexOf(accession) + accession.length();
+
+                bw.write(rawHeader.substring(0, accessionEndIndex));
+                bw.write(DecoyConverter.decoyFlag);
+                bw.write(rawHeader.substring(accessionEndIndex));
+                bw.newLine();
+
+                for (int i = sequence.length() - 1; i >= 0; i--) {
+
+                    bw.write(sequence.charAt(i));
+
+                }
+
+                bw.newLine();
+                bw.newLine();
+
+            }
+        }
+
+        return nProteins;
+    }
+}
@@ -21,6 +21,9 @@ import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import junit.framework.TestCase;
 
 /**
@@ -167,4 +170,77 @@ public class IdentificationDBTest extends TestCase {
             Util.deleteDir(dbFolder);
         }
     }
+
+    public void testReadOnlyConcurrentRetrieval() throws Exception {
+
+        String path = this.getClass().getResource("IdentificationDBTest.class").getPath();
+        path = path.substring(1, path.indexOf("/target/"));
+        path += "/src/test/resources/experiment/identificationDB";
+        File dbFolder = new File(path);
+        if (!dbFolder.exists()) {
+            dbFolder.mkdir();
+        }
+
+        try {
+            ObjectsDB objectsDB = new ObjectsDB(path, "readOnlyTestDB.zdb", true);
+            Identification identification = new Identification(objectsDB);
+
+            int nMatches = 1000;
+            long[] keys = new long[nMatches];
+
+            for (int i = 0; i < nMatches; i++) {
+                SpectrumMatch spectrumMatch = new SpectrumMatch(Spectrum.getSpectrumKey("spectrum_file", "spectrum_" + i));
+                spectrumMatch.addPeptideAssumption(Advocate.mascot.getIndex(), new PeptideAssumption(new Peptide("PEPTIDE"), 1, Advocate.mascot.getIndex(), 2, i, "no file"));
+                keys[i] = spectrumMatch.getKey();
+                identification.addObject(keys[i], spectrumMatch);
+            }
+
+            // closing and reopening the database in read-only mode
+            identification.getObjectsDB().dumpToDB();
+            identification.close();
+            objectsDB = new ObjectsDB(path, "readOnlyTestDB.zdb", false, true);
+            final Identification readOnlyIdentification = new Identification(objectsDB);
+            Assert.assertTrue(readOnlyIdentification.isReadOnly());
+
+            // small budget to trim the read-only cache while reading
+            objectsDB.getObjectsCache().setMemoryBudget(64 * 1024);
+
+            int nThreads = 4;
+            ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+            ArrayList<Future<Boolean>> results = new ArrayList<>(nThreads);
+
+            for (int thread = 0; thread < nThreads; thread++) {
+                final int offset = thread;
+                results.add(pool.submit(() -> {
+                    for (int j = 0; j < 5 * nMatches; j++) {
+                        int i = (7 * j + offset) % nMatches;
+                        SpectrumMatch spectrumMatch = readOnlyIdentification.getSpectrumMatch(keys[i]);
+                        if (spectrumMatch == null || spectrumMatch.getKey() != keys[i]
+                                || spectrumMatch.getPeptideAssumptionsMap().get(Advocate.mascot.getIndex()).firstKey() != i) {
+                            return false;
+                        }
+                    }
+                    return readOnlyIdentification.retrieveObjects(SpectrumMatch.class, null, false).size() == nMatches;
+                }));
+            }
+
+            for (Future<Boolean> result : results) {
+                Assert.assertTrue(result.get());
+            }
+
+            pool.shutdown();
+
+            try {
+                readOnlyIdentification.addObject(ProjectParameters.key, new ProjectParameters("read_only"));
+                Assert.fail("Insertion allowed in read-only mode.");
+            } catch (UnsupportedOperationException e) {
+                // expected
+            }
+
+            readOnlyIdentification.close();
+
+        } finally {
+            Util.deleteDir(dbFolder);
+        }
+    }
 }
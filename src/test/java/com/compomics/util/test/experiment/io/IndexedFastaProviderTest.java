@@ -0,0 +1,242 @@
+package com.compomics.util.test.experiment.io;
+
+import com.compomics.util.Util;
+import com.compomics.util.experiment.biology.proteins.Protein;
+import com.compomics.util.experiment.io.biology.protein.indexed.BgzfCompressor;
+import com.compomics.util.experiment.io.biology.protein.indexed.BgzfFileReader;
+import com.compomics.util.experiment.io.biology.protein.indexed.IndexedFastaProvider;
+import com.compomics.util.experiment.io.biology.protein.iterators.FastaIterator;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * This class tests the indexed FASTA provider against the FASTA iterator on
+ * plain and bgzipped files.
+ *
+ * @author Marc Vaudel
+ */
+public class IndexedFastaProviderTest extends TestCase {
+
+    /**
+     * The FASTA file used for the tests. It contains sequences with regular
+     * and irregular line layouts.
+     */
+    private static final String FASTA_FILE = "src/test/resources/experiment/indexedFasta.fasta";
+    /**
+     * The folder where the files derived from the test file are written.
+     */
+    private static final String TEMP_FOLDER = "src/test/resources/experiment/indexedFasta";
+    /**
+     * The size of the content of the BGZF blocks written by the tests. Small
+     * blocks make sequences span several blocks.
+     */
+    private static final int BLOCK_CONTENT = 100;
+
+    /**
+     * Tests a plain FASTA file with line feeds.
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * or writing a file
+     */
+    public void testPlainFile() throws IOException {
+
+        String content = new String(Files.readAllBytes(new File(FASTA_FILE).toPath()), StandardCharsets.UTF_8);
+        testContent(content, "plain.fasta", false);
+
+    }
+
+    /**
+     * Tests a plain FASTA file with Windows line breaks.
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * or writing a file
+     */
+    public void testCrLf() throws IOException {
+
+        String content = new String(Files.readAllBytes(new File(FASTA_FILE).toPath()), StandardCharsets.UTF_8);
+        testContent(content.replace("\n", "\r\n"), "crlf.fasta", false);
+
+    }
+
+    /**
+     * Tests FASTA files without line break at the end of the file.
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * or writing a file
+     */
+    public void testNoFinalNewLine() throws IOException {
+
+        String content = new String(Files.readAllBytes(new File(FASTA_FILE).toPath()), StandardCharsets.UTF_8).trim();
+        testContent(content, "noFinalNewLine.fasta", false);
+        testContent(content.replace("\n", "\r\n"), "noFinalNewLineCrLf.fasta", false);
+
+    }
+
+    /**
+     * Tests bgzipped FASTA files where the sequences span several blocks.
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * or writing a file
+     */
+    public void testBgzipFile() throws IOException {
+
+        String content = new String(Files.readAllBytes(new File(FASTA_FILE).toPath()), StandardCharsets.UTF_8);
+        testContent(content, "bgzip.fasta", true);
+        testContent(content.replace("\n", "\r\n"), "bgzipCrLf.fasta", true);
+        testContent(content.trim(), "bgzipNoFinalNewLine.fasta", true);
+
+    }
+
+    /**
+     * Tests that the BGZF reader rejects files that are not in the BGZF
+     * format and releases the file.
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * or writing a file
+     */
+    public void testInvalidBgzipFile() throws IOException {
+
+        File folder = new File(TEMP_FOLDER);
+        folder.mkdir();
+
+        try {
+
+            byte[] content = Files.readAllBytes(new File(FASTA_FILE).toPath());
+            byte[] compressed = BgzfCompressor.compress(content, 0, content.length, Deflater.DEFAULT_COMPRESSION);
+            File truncatedFile = new File(folder, "truncated.fasta.gz");
+
+            try (FileOutputStream outputStream = new FileOutputStream(truncatedFile)) {
+                outputStream.write(compressed);
+                outputStream.write(content, 0, 100);
+            }
+
+            try {
+                new BgzfFileReader(truncatedFile).close();
+                Assert.fail("No exception thrown for an invalid BGZF file.");
+            } catch (IOException e) {
+                // expected
+            }
+
+            Assert.assertTrue(truncatedFile.delete());
+
+        } finally {
+
+            Util.deleteDir(folder);
+
+        }
+    }
+
+    /**
+     * Writes the given content to a file, indexes it, and compares the
+     * sequences and headers returned by the indexed provider to the ones of
+     * the FASTA iterator.
+     *
+     * @param content the content of the FASTA file
+     * @param fileName the name of the file to write
+     * @param bgzip boolean indicating whether the file should be compressed
+     * using bgzip
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * or writing a file
+     */
+    private void testContent(String content, String fileName, boolean bgzip) throws IOException {
+
+        File folder = new File(TEMP_FOLDER);
+        folder.mkdir();
+
+        try {
+
+            byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+            File plainFile = new File(folder, fileName);
+
+            try (FileOutputStream outputStream = new FileOutputStream(plainFile)) {
+                outputStream.write(bytes);
+            }
+
+            File indexedFile = plainFile;
+
+            if (bgzip) {
+
+                indexedFile = new File(folder, fileName + ".gz");
+
+                try (FileOutputStream outputStream = new FileOutputStream(indexedFile)) {
+
+                    for (int start = 0; start < bytes.length; start += BLOCK_CONTENT) {
+                        outputStream.write(BgzfCompressor.compress(bytes, start, Math.min(BLOCK_CONTENT, bytes.length - start), Deflater.DEFAULT_COMPRESSION));
+                    }
+
+                    outputStream.write(BgzfCompressor.EOF_BLOCK);
+
+                }
+            }
+
+            // get the expected proteins and headers
+            ArrayList<Protein> proteins = new ArrayList<>();
+            ArrayList<String> headers = new ArrayList<>();
+            FastaIterator fastaIterator = new FastaIterator(plainFile);
+            Protein protein;
+
+            while ((protein = fastaIterator.getNextProtein()) != null) {
+
+                proteins.add(protein);
+                headers.add(fastaIterator.getLastHeader().getRawHeader().substring(1));
+
+            }
+
+            Assert.assertEquals(6, proteins.size());
+
+            // compare to the indexed provider, once after indexing and once with the saved index
+            for (int i = 0; i < 2; i++) {
+
+                try (IndexedFastaProvider provider = new IndexedFastaProvider(indexedFile, null, 0, null)) {
+
+                    ArrayList<String> accessions = new ArrayList<>(provider.getAccessions());
+                    Assert.assertEquals(proteins.size(), accessions.size());
+
+                    for (int j = 0; j < proteins.size(); j++) {
+
+                        Protein expectedProtein = proteins.get(j);
+                        String accession = expectedProtein.getAccession();
+                        String sequence = expectedProtein.getSequence();
+
+                        Assert.assertEquals(accession, accessions.get(j));
+
+                        // subsequences are read from the file as long as the protein is not cached
+                        for (int start : Arrays.asList(0, 1, 59, 60, 61, 99, 100, sequence.length() / 2, sequence.length() - 1)) {
+                            for (int length : Arrays.asList(1, 8, 60, 61, 150, sequence.length())) {
+
+                                if (start >= 0 && start < sequence.length()) {
+
+                                    int end = Math.min(start + length, sequence.length());
+                                    Assert.assertEquals(sequence.substring(start, end), provider.getSubsequence(accession, start, end));
+
+                                }
+                            }
+                        }
+
+                        Assert.assertEquals(sequence, provider.getSubsequence(accession, -5, sequence.length() + 5));
+                        Assert.assertEquals(sequence, provider.getSequence(accession));
+                        Assert.assertEquals(headers.get(j), provider.getHeader(accession));
+
+                    }
+                }
+
+                Assert.assertTrue(IndexedFastaProvider.getIndexFile(indexedFile).exists());
+
+            }
+
+        } finally {
+
+            Util.deleteDir(folder);
+
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package com.compomics.util.test.experiment.io;
+
+import com.compomics.util.Util;
+import com.compomics.util.experiment.biology.proteins.Protein;
+import com.compomics.util.experiment.io.biology.protein.iterators.FastaIterator;
+import com.compomics.util.experiment.io.biology.protein.iterators.PipelinedFastaIterator;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * This class tests the pipelined FASTA iterator against the FASTA iterator.
+ *
+ * @author Marc Vaudel
+ */
+public class PipelinedFastaIteratorTest extends TestCase {
+
+    /**
+     * The FASTA file used for the tests.
+     */
+    private static final String FASTA_FILE = "src/test/resources/experiment/indexedFasta.fasta";
+    /**
+     * The folder where the files derived from the test file are written.
+     */
+    private static final String TEMP_FOLDER = "src/test/resources/experiment/pipelinedFasta";
+    /**
+     * The number of copies of the test file to write, enough to have several
+     * chunks.
+     */
+    private static final int N_COPIES = 1000;
+
+    /**
+     * Tests files with line feeds, Windows line breaks, and carriage returns
+     * only.
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * or writing a file
+     */
+    public void testLineBreaks() throws IOException {
+
+        String content = getContent();
+
+        File folder = new File(TEMP_FOLDER);
+        folder.mkdir();
+
+        try {
+
+            testContent(content, new File(folder, "lf.fasta"));
+            testContent(content.replace("\n", "\r\n"), new File(folder, "crlf.fasta"));
+            testContent(content.replace("\n", "\r"), new File(folder, "cr.fasta"));
+
+        } finally {
+
+            Util.deleteDir(folder);
+
+        }
+    }
+
+    /**
+     * Tests that no protein is returned once the iterator is closed, also
+     * when it is closed by another thread.
+     *
+     * @throws Exception exception thrown if an error occurred while reading or
+     * writing a file, or if the test was interrupted
+     */
+    public void testClose() throws Exception {
+
+        File folder = new File(TEMP_FOLDER);
+        folder.mkdir();
+
+        try {
+
+            File fastaFile = new File(folder, "close.fasta");
+            write(getContent(), fastaFile);
+
+            PipelinedFastaIterator fastaIterator = new PipelinedFastaIterator(fastaFile, false, 2);
+            Assert.assertNotNull(fastaIterator.getNextProtein());
+            fastaIterator.close();
+            Assert.assertNull(fastaIterator.getNextProtein());
+            Assert.assertNull(fastaIterator.getNextProtein());
+
+            for (int nThreads = 1; nThreads <= 4; nThreads++) {
+
+                PipelinedFastaIterator closedIterator = new PipelinedFastaIterator(fastaFile, false, nThreads);
+                Thread thread = new Thread(() -> {
+
+                    while (closedIterator.getNextProtein() != null) {
+                        // keep reading until closed
+                    }
+                });
+
+                thread.start();
+                closedIterator.close();
+                thread.join(10000);
+
+                Assert.assertFalse(thread.isAlive());
+                Assert.assertNull(closedIterator.getNextProtein());
+
+            }
+
+        } finally {
+
+            Util.deleteDir(folder);
+
+        }
+    }
+
+    /**
+     * Returns copies of the test file content.
+     *
+     * @return copies of the test file content
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * the file
+     */
+    private String getContent() throws IOException {
+
+        String content = new String(Files.readAllBytes(new File(FASTA_FILE).toPath()), StandardCharsets.UTF_8);
+        StringBuilder copies = new StringBuilder(N_COPIES * content.length());
+
+        for (int i = 0; i < N_COPIES; i++) {
+
+            copies.append(content);
+
+        }
+
+        return copies.toString();
+    }
+
+    /**
+     * Writes the given content to a file.
+     *
+     * @param content the content
+     * @param file the file
+     *
+     * @throws IOException exception thrown if an error occurred while writing
+     * the file
+     */
+    private void write(String content, File file) throws IOException {
+
+        try (FileOutputStream outputStream = new FileOutputStream(file)) {
+            outputStream.write(content.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Writes the given content to a file and compares the proteins and
+     * headers returned by the pipelined iterator to the ones of the FASTA
+     * iterator.
+     *
+     * @param content the content of the FASTA file
+     * @param fastaFile the file to write
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * or writing a file
+     */
+    private void testContent(String content, File fastaFile) throws IOException {
+
+        write(content, fastaFile);
+
+        for (int nThreads = 1; nThreads <= 4; nThreads++) {
+
+            FastaIterator fastaIterator = new FastaIterator(fastaFile, true);
+            PipelinedFastaIterator pipelinedIterator = new PipelinedFastaIterator(fastaFile, true, nThreads);
+            int nProteins = 0;
+            Protein expected;
+
+            while ((expected = fastaIterator.getNextProtein()) != null) {
+
+                Protein actual = pipelinedIterator.getNextProtein();
+
+                Assert.assertNotNull(actual);
+                Assert.assertEquals(expected.getAccession(), actual.getAccession());
+                Assert.assertEquals(expected.getSequence(), actual.getSequence());
+                Assert.assertEquals(fastaIterator.getLastHeader().getRawHeader(), pipelinedIterator.getLastHeader().getRawHeader());
+                nProteins++;
+
+            }
+
+            Assert.assertNull(pipelinedIterator.getNextProtein());
+            Assert.assertEquals(6 * N_COPIES, nProteins);
+
+        }
+    }
+}
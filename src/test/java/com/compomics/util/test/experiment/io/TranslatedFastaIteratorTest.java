@@ -0,0 +1,168 @@
+package com.compomics.util.test.experiment.io;
+
+import com.compomics.util.experiment.biology.proteins.Protein;
+import com.compomics.util.experiment.io.biology.protein.iterators.TranslatedFastaIterator;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * This class tests the translation of nucleotide FASTA files.
+ *
+ * @author Marc Vaudel
+ */
+public class TranslatedFastaIteratorTest extends TestCase {
+
+    /**
+     * The nucleotide FASTA file used for the tests. The first record contains
+     * a forward and a reverse open reading frame between stop codons in all
+     * frames, the second record is a lowercase copy of the forward open
+     * reading frame with an unknown nucleotide.
+     */
+    private static final String FASTA_FILE = "src/test/resources/experiment/translatedFasta.fasta";
+    /**
+     * The minimal length of the open reading frames.
+     */
+    private static final int MIN_LENGTH = 6;
+    /**
+     * The accessions and sequences of the open reading frames of the six
+     * frames in the order of the file.
+     */
+    private static final String[][] SIX_FRAMES = {
+        {"seq1_f1_13-36", "MAKRWELS"},
+        {"seq1_f1_52-87", "LVSELIMRHLIN"},
+        {"seq1_f2_5-40", "LIKWLRGGSLAN"},
+        {"seq1_f3_48-83", "LTSLRTDNAAFN"},
+        {"seq1_r1_78-55", "MPHYQFGD"},
+        {"seq1_r1_39-4", "LAKLPPLSHLIN"},
+        {"seq1_r2_86-51", "LIKCRIISSETS"},
+        {"seq1_r2_35-12", "LSSHLLAI"},
+        {"seq1_r3_82-47", "LNAALSVRRLVN"},
+        {"gene_2_f1_13-36", "MAKRWXLS"},
+        {"gene_2_f2_5-40", "LIKWLRGGXLAN"},
+        {"gene_2_r1_39-4", "LAKXPPLSHLIN"},
+        {"gene_2_r2_35-12", "LSXHLLAI"}
+    };
+    /**
+     * The numbers of threads to test.
+     */
+    private static final int[] N_THREADS = {1, 2, 4};
+
+    /**
+     * Tests the accessions and sequences of the open reading frames of the
+     * six frames.
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * the file
+     */
+    public void testSixFrames() throws IOException {
+
+        for (int nThreads : N_THREADS) {
+
+            Assert.assertEquals(toString(SIX_FRAMES, true), getOrfs(new TranslatedFastaIterator(new File(FASTA_FILE), true, MIN_LENGTH, nThreads)));
+
+        }
+    }
+
+    /**
+     * Tests the accessions and sequences of the open reading frames of the
+     * forward strand only.
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * the file
+     */
+    public void testThreeFrames() throws IOException {
+
+        for (int nThreads : N_THREADS) {
+
+            Assert.assertEquals(toString(SIX_FRAMES, false), getOrfs(new TranslatedFastaIterator(new File(FASTA_FILE), false, MIN_LENGTH, nThreads)));
+
+        }
+    }
+
+    /**
+     * Tests that no protein is returned once the iterator is closed, also
+     * when it is closed by another thread.
+     *
+     * @throws Exception exception thrown if an error occurred while reading
+     * the file, or if the test was interrupted
+     */
+    public void testClose() throws Exception {
+
+        TranslatedFastaIterator iterator = new TranslatedFastaIterator(new File(FASTA_FILE), true, MIN_LENGTH, 2);
+        Assert.assertNotNull(iterator.getNextProtein());
+        iterator.close();
+        Assert.assertNull(iterator.getNextProtein());
+        Assert.assertNull(iterator.getNextProtein());
+
+        for (int nThreads : N_THREADS) {
+
+            TranslatedFastaIterator closedIterator = new TranslatedFastaIterator(new File(FASTA_FILE), true, MIN_LENGTH, nThreads);
+            Thread thread = new Thread(() -> {
+
+                while (closedIterator.getNextProtein() != null) {
+                    // keep reading until closed
+                }
+            });
+
+            thread.start();
+            closedIterator.close();
+            thread.join(10000);
+
+            Assert.assertFalse(thread.isAlive());
+            Assert.assertNull(closedIterator.getNextProtein());
+
+        }
+    }
+
+    /**
+     * Returns the accessions and sequences of the proteins returned by the
+     * given iterator, one per line.
+     *
+     * @param iterator the iterator
+     *
+     * @return the accessions and sequences of the proteins
+     */
+    private String getOrfs(TranslatedFastaIterator iterator) {
+
+        ArrayList<String[]> orfs = new ArrayList<>();
+        Protein protein;
+
+        while ((protein = iterator.getNextProtein()) != null) {
+
+            Assert.assertEquals(protein.getAccession(), iterator.getLastHeader().getAccession());
+            orfs.add(new String[]{protein.getAccession(), protein.getSequence()});
+
+        }
+
+        return toString(orfs.toArray(new String[orfs.size()][]), true);
+    }
+
+    /**
+     * Returns the given accessions and sequences, one per line.
+     *
+     * @param orfs the accessions and sequences
+     * @param reverse if false, the open reading frames of the reverse strand
+     * are skipped
+     *
+     * @return the accessions and sequences
+     */
+    private String toString(String[][] orfs, boolean reverse) {
+
+        StringBuilder stringBuilder = new StringBuilder();
+
+        for (String[] orf : orfs) {
+
+            if (reverse || !orf[0].contains("_r")) {
+
+                stringBuilder.append(Arrays.toString(orf)).append('\n');
+
+            }
+        }
+
+        return stringBuilder.toString();
+    }
+}
@@ -0,0 +1,86 @@
+package com.compomics.util.test.experiment.io;
+
+import com.compomics.util.Util;
+import com.compomics.util.db.object.ObjectsDB;
+import com.compomics.util.experiment.biology.proteins.Peptide;
+import com.compomics.util.experiment.identification.Advocate;
+import com.compomics.util.experiment.identification.Identification;
+import com.compomics.util.experiment.identification.matches.SpectrumMatch;
+import com.compomics.util.experiment.identification.spectrum_assumptions.PeptideAssumption;
+import com.compomics.util.experiment.mass_spectrometry.spectra.Spectrum;
+import java.io.File;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * Tests the write-behind mode of the objects database.
+ *
+ * @author Marc Vaudel
+ */
+public class WriteBehindDBTest extends TestCase {
+
+    public void testWriteBehindRoundTrip() throws Exception {
+
+        String path = this.getClass().getResource("WriteBehindDBTest.class").getPath();
+        path = path.substring(1, path.indexOf("/target/"));
+        path += "/src/test/resources/experiment/identificationDB";
+        File dbFolder = new File(path);
+        if (!dbFolder.exists()) {
+            dbFolder.mkdir();
+        }
+
+        try {
+            ObjectsDB objectsDB = new ObjectsDB(path, "writeBehindTestDB.zdb", true);
+            Identification identification = new Identification(objectsDB);
+
+            // small budget and queue so that objects are evicted and queued while inserting
+            objectsDB.getObjectsCache().setMemoryBudget(64 * 1024);
+            objectsDB.getObjectsCache().setWriteBehind(true, 100, 10);
+            Assert.assertTrue(objectsDB.getObjectsCache().isWriteBehind());
+
+            int nMatches = 2000;
+            long[] keys = new long[nMatches];
+
+            for (int i = 0; i < nMatches; i++) {
+                SpectrumMatch spectrumMatch = new SpectrumMatch(Spectrum.getSpectrumKey("spectrum_file", "spectrum_" + i));
+                spectrumMatch.addPeptideAssumption(Advocate.mascot.getIndex(), new PeptideAssumption(new Peptide("PEPTIDE"), 1, Advocate.mascot.getIndex(), 2, i, "no file"));
+                keys[i] = spectrumMatch.getKey();
+                identification.addObject(keys[i], spectrumMatch);
+
+                // retrieve a previous match, in cache, queued, or persisted
+                int j = i / 2;
+                Assert.assertTrue(identification.getSpectrumMatch(keys[j]).getKey() == keys[j]);
+            }
+
+            // retrieve while the persister is still working
+            for (int i = 0; i < nMatches; i++) {
+                SpectrumMatch spectrumMatch = identification.getSpectrumMatch(keys[i]);
+                Assert.assertTrue(spectrumMatch.getPeptideAssumptionsMap().get(Advocate.mascot.getIndex()).firstKey() == i);
+            }
+
+            // retrieve after flushing
+            objectsDB.dumpToDB();
+            for (int i = 0; i < nMatches; i++) {
+                Assert.assertTrue(objectsDB.getIdMap().get(keys[i]) != 0 || objectsDB.inCache(keys[i]));
+                SpectrumMatch spectrumMatch = identification.getSpectrumMatch(keys[i]);
+                Assert.assertTrue(spectrumMatch.getPeptideAssumptionsMap().get(Advocate.mascot.getIndex()).firstKey() == i);
+            }
+
+            // close and reopen
+            identification.close();
+            objectsDB = new ObjectsDB(path, "writeBehindTestDB.zdb", false);
+            identification = new Identification(objectsDB);
+            Assert.assertTrue(objectsDB.getNumber(SpectrumMatch.class) == nMatches);
+
+            for (int i = 0; i < nMatches; i++) {
+                SpectrumMatch spectrumMatch = identification.getSpectrumMatch(keys[i]);
+                Assert.assertTrue(spectrumMatch.getPeptideAssumptionsMap().get(Advocate.mascot.getIndex()).firstKey() == i);
+            }
+
+            identification.close();
+
+        } finally {
+            Util.deleteDir(dbFolder);
+        }
+    }
+}
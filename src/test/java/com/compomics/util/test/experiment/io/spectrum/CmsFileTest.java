@@ -0,0 +1,303 @@
+package com.compomics.util.test.experiment.io.spectrum;
+
+import com.compomics.util.Util;
+import com.compomics.util.experiment.io.mass_spectrometry.cms.CmsConverter;
+import com.compomics.util.experiment.io.mass_spectrometry.cms.CmsFileReader;
+import com.compomics.util.experiment.io.mass_spectrometry.cms.CmsFileWriter;
+import com.compomics.util.experiment.io.mass_spectrometry.cms.CmsFormat;
+import com.compomics.util.experiment.io.mass_spectrometry.mgf.MgfFileIterator;
+import com.compomics.util.experiment.io.mass_spectrometry.mgf.MgfIndex;
+import com.compomics.util.experiment.mass_spectrometry.SpectrumFactory;
+import com.compomics.util.experiment.mass_spectrometry.spectra.Peak;
+import com.compomics.util.experiment.mass_spectrometry.spectra.Precursor;
+import com.compomics.util.experiment.mass_spectrometry.spectra.Spectrum;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * This class tests the writing and reading of cms files.
+ *
+ * @author Marc Vaudel
+ */
+public class CmsFileTest extends TestCase {
+
+    /**
+     * The folder where the test files are written.
+     */
+    private static final String TEMP_FOLDER = "src/test/resources/experiment/cmsFile";
+    /**
+     * The number of spectra of the generated mgf file.
+     */
+    private static final int N_SPECTRA = 100;
+
+    /**
+     * Converts an mgf file and compares the spectra of the cms file to the
+     * spectra of the mgf file.
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * or writing a file
+     */
+    public void testMgfRoundTrip() throws IOException {
+
+        File folder = new File(TEMP_FOLDER);
+        folder.mkdir();
+
+        try {
+
+            File mgfFile = writeMgf(new File(folder, "test.mgf"));
+            File cmsFile = CmsConverter.convert(mgfFile, null);
+            Assert.assertEquals(new File(folder, "test" + CmsFormat.EXTENSION), cmsFile);
+
+            try (CmsFileReader cmsFileReader = new CmsFileReader(cmsFile)) {
+
+                Assert.assertEquals(N_SPECTRA, cmsFileReader.getNSpectra());
+                Assert.assertEquals(mgfFile.getName(), cmsFileReader.getOriginalFileName());
+
+                MgfFileIterator iterator = new MgfFileIterator(mgfFile);
+                int spectrumNumber = 0;
+
+                while (iterator.hasNext()) {
+
+                    Spectrum expected = iterator.next();
+                    compare(expected, cmsFileReader.getSpectrum(spectrumNumber));
+                    Assert.assertEquals(expected.getSpectrumTitle(), cmsFileReader.getSpectrumTitle(spectrumNumber));
+                    Assert.assertEquals(expected.getPrecursor().getMz(), cmsFileReader.getPrecursorMz(spectrumNumber));
+                    spectrumNumber++;
+
+                }
+
+                Assert.assertEquals(N_SPECTRA, spectrumNumber);
+
+                MgfIndex cmsIndex = cmsFileReader.getIndex();
+                Assert.assertEquals(N_SPECTRA, cmsIndex.getNSpectra());
+                Assert.assertFalse(cmsIndex.isPeakPicked());
+                Assert.assertTrue(cmsIndex.isPrecursorChargesMissing());
+                Assert.assertEquals(4, cmsIndex.getMaxCharge().intValue());
+
+                for (int i = 0; i < N_SPECTRA; i++) {
+                    Assert.assertEquals(i, cmsIndex.getSpectrumIndex("spectrum " + i).intValue());
+                }
+            }
+
+        } finally {
+
+            Util.deleteDir(folder);
+
+        }
+    }
+
+    /**
+     * Tests that the retention times of the peaks are stored, both when the
+     * peaks of a spectrum share a retention time and when they do not.
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * or writing a file
+     */
+    public void testPeakRetentionTimes() throws IOException {
+
+        File folder = new File(TEMP_FOLDER);
+        folder.mkdir();
+
+        try {
+
+            ArrayList<Spectrum> spectra = new ArrayList<>();
+            ArrayList<Integer> charges = new ArrayList<>(Arrays.asList(2, -3));
+            spectra.add(getSpectrum("shared rt", new Precursor(12.5, 500.25, 1000.0, charges, 12.0, 13.0), new double[]{12.5, 12.5, 12.5}, 12.5));
+            spectra.add(getSpectrum("different rts", new Precursor(20.0, 600.5, charges), new double[]{20.0, 20.5, 21.0}, 20.0));
+            spectra.add(getSpectrum("no rt", null, new double[]{-1.0, -1.0}, 0.0));
+            spectra.add(getSpectrum("no peak", null, new double[0], 30.0));
+
+            File cmsFile = new File(folder, "test" + CmsFormat.EXTENSION);
+
+            try (CmsFileWriter cmsFileWriter = new CmsFileWriter(cmsFile, "test.mzML")) {
+
+                for (Spectrum spectrum : spectra) {
+                    cmsFileWriter.addSpectrum(spectrum);
+                }
+            }
+
+            try (CmsFileReader cmsFileReader = new CmsFileReader(cmsFile)) {
+
+                Assert.assertEquals(spectra.size(), cmsFileReader.getNSpectra());
+
+                for (int i = 0; i < spectra.size(); i++) {
+
+                    compare(spectra.get(i), cmsFileReader.getSpectrum(i));
+
+                    double[][] peaks = cmsFileReader.getPeaks(i);
+                    Assert.assertEquals(2, peaks.length);
+                    Assert.assertEquals(spectra.get(i).getNPeaks(), peaks[0].length);
+
+                }
+            }
+
+        } finally {
+
+            Util.deleteDir(folder);
+
+        }
+    }
+
+    /**
+     * Tests that the spectrum factory can load a cms file again.
+     *
+     * @throws Exception exception thrown if an error occurred while reading or
+     * writing a file
+     */
+    public void testSpectrumFactory() throws Exception {
+
+        File folder = new File(TEMP_FOLDER);
+        folder.mkdir();
+
+        SpectrumFactory spectrumFactory = SpectrumFactory.getInstance();
+
+        try {
+
+            File mgfFile = writeMgf(new File(folder, "test.mgf"));
+            File cmsFile = CmsConverter.convert(mgfFile, null);
+
+            spectrumFactory.addSpectra(cmsFile);
+            spectrumFactory.addSpectra(cmsFile);
+
+            Spectrum expected = new MgfFileIterator(mgfFile).next();
+            compare(expected, spectrumFactory.getSpectrum(cmsFile.getName(), expected.getSpectrumTitle()));
+
+        } finally {
+
+            spectrumFactory.closeFiles();
+            spectrumFactory.clearFactory();
+            Util.deleteDir(folder);
+
+        }
+    }
+
+    /**
+     * Compares a spectrum read from a cms file to the original spectrum.
+     *
+     * @param expected the original spectrum
+     * @param actual the spectrum read from the cms file
+     */
+    private void compare(Spectrum expected, Spectrum actual) {
+
+        Assert.assertEquals(expected.getSpectrumTitle(), actual.getSpectrumTitle());
+        Assert.assertEquals(expected.getScanNumber(), actual.getScanNumber());
+        Assert.assertEquals(expected.getLevel(), actual.getLevel());
+        Assert.assertEquals(expected.getScanStartTime(), actual.getScanStartTime());
+
+        Precursor expectedPrecursor = expected.getPrecursor();
+        Precursor actualPrecursor = actual.getPrecursor();
+
+        if (expectedPrecursor == null) {
+
+            Assert.assertNull(actualPrecursor);
+
+        } else {
+
+            Assert.assertEquals(expectedPrecursor.getMz(), actualPrecursor.getMz());
+            Assert.assertEquals(expectedPrecursor.getIntensity(), actualPrecursor.getIntensity());
+            Assert.assertEquals(expectedPrecursor.getRt(), actualPrecursor.getRt());
+            Assert.assertTrue(Arrays.equals(expectedPrecursor.getRtWindow(), actualPrecursor.getRtWindow()));
+            Assert.assertEquals(expectedPrecursor.getPossibleCharges(), actualPrecursor.getPossibleCharges());
+
+        }
+
+        Assert.assertEquals(expected.getNPeaks(), actual.getNPeaks());
+
+        double[] expectedMzs = expected.getOrderedMzValues();
+        double[] actualMzs = actual.getOrderedMzValues();
+
+        for (int i = 0; i < expectedMzs.length; i++) {
+
+            Assert.assertEquals(expectedMzs[i], actualMzs[i], CmsFormat.MZ_RESOLUTION);
+
+            Peak expectedPeak = expected.getPeakMap().get(expectedMzs[i]);
+            Peak actualPeak = actual.getPeakMap().get(actualMzs[i]);
+            Assert.assertEquals((double) (float) expectedPeak.intensity, actualPeak.intensity);
+            Assert.assertEquals(expectedPeak.rt, actualPeak.rt);
+
+        }
+    }
+
+    /**
+     * Returns a spectrum with one peak per retention time.
+     *
+     * @param title the title of the spectrum
+     * @param precursor the precursor
+     * @param rts the retention times of the peaks
+     * @param scanStartTime the scan start time
+     *
+     * @return a spectrum
+     */
+    private Spectrum getSpectrum(String title, Precursor precursor, double[] rts, double scanStartTime) {
+
+        HashMap<Double, Peak> peakMap = new HashMap<>(rts.length);
+
+        for (int i = 0; i < rts.length; i++) {
+
+            double mz = 100.123456 + 50.5 * i;
+            peakMap.put(mz, new Peak(mz, 10.1 * (i + 1), rts[i]));
+
+        }
+
+        return new Spectrum(precursor == null ? 1 : 2, precursor, title, peakMap, "test.mzML", scanStartTime);
+    }
+
+    /**
+     * Writes an mgf file where some spectra have no charge, several charges,
+     * a retention time window, a scan number, or peaks of zero intensity.
+     *
+     * @param file the file
+     *
+     * @return the file
+     *
+     * @throws IOException exception thrown if an error occurred while writing
+     * the file
+     */
+    private File writeMgf(File file) throws IOException {
+
+        StringBuilder content = new StringBuilder();
+
+        for (int i = 0; i < N_SPECTRA; i++) {
+
+            content.append("BEGIN IONS\n");
+            content.append("TITLE=spectrum ").append(i).append('\n');
+            content.append("PEPMASS=").append(400.123456789 + i).append(' ').append(1000.5 * i).append('\n');
+
+            if (i % 5 == 1) {
+                content.append("CHARGE=3+ and 4+\n");
+            } else if (i % 5 != 3) {
+                content.append("CHARGE=").append(1 + i % 3).append("+\n");
+            }
+
+            if (i % 4 == 0) {
+                content.append("RTINSECONDS=").append(10.0 * i).append('-').append(10.0 * i + 5).append('\n');
+            } else {
+                content.append("RTINSECONDS=").append(10.0 * i).append('\n');
+            }
+
+            if (i % 6 == 0) {
+                content.append("SCANS=").append(1000 + i).append('\n');
+            }
+
+            for (int j = 0; j < i % 9; j++) {
+                content.append(100.0 + 12.3456789 * j + 0.001 * i).append(' ').append(j % 4 == 3 ? 0.0 : 1.1 * j + i).append('\n');
+            }
+
+            content.append("END IONS\n\n");
+
+        }
+
+        try (FileOutputStream outputStream = new FileOutputStream(file)) {
+            outputStream.write(content.toString().getBytes(StandardCharsets.US_ASCII));
+        }
+
+        return file;
+    }
+}
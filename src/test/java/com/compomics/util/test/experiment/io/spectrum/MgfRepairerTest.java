@@ -0,0 +1,229 @@
+package com.compomics.util.test.experiment.io.spectrum;
+
+import com.compomics.util.Util;
+import com.compomics.util.experiment.io.mass_spectrometry.mgf.MgfIndex;
+import com.compomics.util.experiment.io.mass_spectrometry.mgf.MgfReader;
+import com.compomics.util.experiment.io.mass_spectrometry.mgf.MgfRepairer;
+import com.compomics.util.experiment.io.mass_spectrometry.mgf.MgfRepairer.Repair;
+import com.compomics.util.experiment.mass_spectrometry.SpectrumFactory;
+import com.compomics.util.parameters.UtilitiesUserParameters;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.EnumSet;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * This class tests the repair of malformed mgf files.
+ *
+ * @author Marc Vaudel
+ */
+public class MgfRepairerTest extends TestCase {
+
+    /**
+     * The folder where the test files are written.
+     */
+    private static final String TEMP_FOLDER = "src/test/resources/experiment/mgfRepairer";
+    /**
+     * A malformed mgf file: the first title is duplicated, the third spectrum
+     * has no charge, the first spectrum has a zero intensity peak, and the
+     * last spectrum has no END IONS tag.
+     */
+    private static final String[] MALFORMED_MGF = {
+        "BEGIN IONS",
+        "TITLE=spectrum 1",
+        "PEPMASS=500.0",
+        "CHARGE=2+",
+        "100.0 10.0",
+        "200.0 0.0",
+        "END IONS",
+        "BEGIN IONS",
+        "TITLE=spectrum 1",
+        "PEPMASS=600.0",
+        "CHARGE=3+",
+        "300.0 20.0",
+        "END IONS",
+        "BEGIN IONS",
+        "TITLE=spectrum 3",
+        "PEPMASS=700.0",
+        "400.0 30.0",
+        "END IONS",
+        "BEGIN IONS",
+        "TITLE=spectrum 4",
+        "PEPMASS=800.0",
+        "CHARGE=2+",
+        "500.0 40.0"
+    };
+
+    /**
+     * Tests the renaming of duplicate titles, the addition of missing charges,
+     * the removal of zeroes, and the closing of the last spectrum, with line
+     * feeds and Windows line breaks.
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * or writing a file
+     */
+    public void testRenameDuplicates() throws IOException {
+
+        String chargeLine = getDefaultChargeLine();
+        String[] expected = {
+            "BEGIN IONS",
+            "TITLE=spectrum 1",
+            "PEPMASS=500.0",
+            "CHARGE=2+",
+            "100.0 10.0",
+            "END IONS",
+            "BEGIN IONS",
+            "TITLE=spectrum 1 (2)",
+            "PEPMASS=600.0",
+            "CHARGE=3+",
+            "300.0 20.0",
+            "END IONS",
+            "BEGIN IONS",
+            "TITLE=spectrum 3",
+            "PEPMASS=700.0",
+            chargeLine,
+            "400.0 30.0",
+            "END IONS",
+            "BEGIN IONS",
+            "TITLE=spectrum 4",
+            "PEPMASS=800.0",
+            "CHARGE=2+",
+            "500.0 40.0",
+            "END IONS"
+        };
+
+        EnumSet<Repair> repairs = EnumSet.of(Repair.RENAME_DUPLICATE_TITLES, Repair.ADD_MISSING_CHARGES, Repair.REMOVE_ZEROES);
+
+        for (String lineBreak : new String[]{"\n", "\r\n"}) {
+
+            MgfIndex mgfIndex = testRepair(repairs, lineBreak, expected);
+            Assert.assertEquals(4, mgfIndex.getNSpectra());
+            Assert.assertFalse(mgfIndex.isPrecursorChargesMissing());
+            Assert.assertTrue(mgfIndex.isPeakPicked());
+
+        }
+    }
+
+    /**
+     * Tests the removal of duplicate titles, without charge repair.
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * or writing a file
+     */
+    public void testRemoveDuplicates() throws IOException {
+
+        String[] expected = {
+            "BEGIN IONS",
+            "TITLE=spectrum 1",
+            "PEPMASS=500.0",
+            "CHARGE=2+",
+            "100.0 10.0",
+            "200.0 0.0",
+            "END IONS",
+            "BEGIN IONS",
+            "TITLE=spectrum 3",
+            "PEPMASS=700.0",
+            "400.0 30.0",
+            "END IONS",
+            "BEGIN IONS",
+            "TITLE=spectrum 4",
+            "PEPMASS=800.0",
+            "CHARGE=2+",
+            "500.0 40.0",
+            "END IONS"
+        };
+
+        for (String lineBreak : new String[]{"\n", "\r\n"}) {
+
+            MgfIndex mgfIndex = testRepair(EnumSet.of(Repair.REMOVE_DUPLICATE_TITLES), lineBreak, expected);
+            Assert.assertEquals(3, mgfIndex.getNSpectra());
+            Assert.assertTrue(mgfIndex.isPrecursorChargesMissing());
+            Assert.assertFalse(mgfIndex.isPeakPicked());
+
+        }
+    }
+
+    /**
+     * Writes the malformed file, repairs it, and compares the repaired file to
+     * the expected lines and the index to the index of the repaired file.
+     *
+     * @param repairs the repairs to apply
+     * @param lineBreak the line break to use in the malformed file
+     * @param expected the expected lines of the repaired file
+     *
+     * @return the index returned by the repairer
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * or writing a file
+     */
+    private MgfIndex testRepair(EnumSet<Repair> repairs, String lineBreak, String[] expected) throws IOException {
+
+        File folder = new File(TEMP_FOLDER);
+        folder.mkdir();
+
+        try {
+
+            File mgfFile = new File(folder, "malformed.mgf");
+
+            try (FileOutputStream outputStream = new FileOutputStream(mgfFile)) {
+                outputStream.write(String.join(lineBreak, MALFORMED_MGF).getBytes(StandardCharsets.UTF_8));
+            }
+
+            MgfIndex mgfIndex = new MgfRepairer(repairs).repair(mgfFile, null);
+
+            String outputLineBreak = System.getProperty("line.separator");
+            String repaired = new String(Files.readAllBytes(mgfFile.toPath()), StandardCharsets.UTF_8);
+            Assert.assertEquals(String.join(outputLineBreak, expected) + outputLineBreak, repaired);
+
+            Assert.assertTrue(new File(folder, SpectrumFactory.getIndexName(mgfFile.getName())).exists());
+
+            MgfIndex expectedIndex = MgfReader.getIndexMap(mgfFile);
+            Assert.assertEquals(expectedIndex.getSpectrumTitles(), mgfIndex.getSpectrumTitles());
+            Assert.assertEquals(expectedIndex.getNSpectra(), mgfIndex.getNSpectra());
+            Assert.assertEquals(expectedIndex.getMaxCharge(), mgfIndex.getMaxCharge());
+            Assert.assertEquals(expectedIndex.getMaxMz(), mgfIndex.getMaxMz());
+
+            for (String title : expectedIndex.getSpectrumTitles()) {
+
+                Assert.assertEquals(expectedIndex.getIndex(title), mgfIndex.getIndex(title));
+                Assert.assertEquals(expectedIndex.getSpectrumIndex(title), mgfIndex.getSpectrumIndex(title));
+
+            }
+
+            return mgfIndex;
+
+        } finally {
+
+            Util.deleteDir(folder);
+
+        }
+    }
+
+    /**
+     * Returns the charge line added by the repairer when the charge is
+     * missing.
+     *
+     * @return the charge line added by the repairer
+     */
+    private String getDefaultChargeLine() {
+
+        UtilitiesUserParameters userPreferences = UtilitiesUserParameters.loadUserParameters();
+        StringBuilder chargeLine = new StringBuilder("CHARGE=");
+
+        for (int i = userPreferences.getMinSpectrumChargeRange(); i <= userPreferences.getMaxSpectrumChargeRange(); i++) {
+
+            if (i > userPreferences.getMinSpectrumChargeRange()) {
+                chargeLine.append(" and ");
+            }
+
+            chargeLine.append(i).append('+');
+
+        }
+
+        return chargeLine.toString();
+    }
+}
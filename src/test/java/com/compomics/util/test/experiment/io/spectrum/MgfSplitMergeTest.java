@@ -0,0 +1,248 @@
+package com.compomics.util.test.experiment.io.spectrum;
+
+import com.compomics.util.Util;
+import com.compomics.util.experiment.io.mass_spectrometry.mgf.MgfIndex;
+import com.compomics.util.experiment.io.mass_spectrometry.mgf.MgfReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * This class tests the index based split and merge of mgf files.
+ *
+ * @author Marc Vaudel
+ */
+public class MgfSplitMergeTest extends TestCase {
+
+    /**
+     * The folder where the test files are written.
+     */
+    private static final String TEMP_FOLDER = "src/test/resources/experiment/mgfSplitMerge";
+    /**
+     * The number of spectra of the generated file.
+     */
+    private static final int N_SPECTRA = 250;
+    /**
+     * The number of spectra per split file.
+     */
+    private static final int N_SPECTRA_PER_FILE = 40;
+
+    /**
+     * Splits and merges files with unique titles, with line feeds and Windows
+     * line breaks.
+     *
+     * @throws Exception exception thrown if an error occurred while reading or
+     * writing a file, or if a thread was interrupted
+     */
+    public void testRoundTrip() throws Exception {
+
+        testRoundTrip(getContent(false), "\n");
+        testRoundTrip(getContent(false), "\r\n");
+
+    }
+
+    /**
+     * Splits and merges a file with duplicate titles, where the split files
+     * are indexed from their content.
+     *
+     * @throws Exception exception thrown if an error occurred while reading or
+     * writing a file, or if a thread was interrupted
+     */
+    public void testDuplicateTitles() throws Exception {
+
+        testRoundTrip(getContent(true), "\n");
+
+    }
+
+    /**
+     * Tests that a non-positive number of spectra per file is rejected.
+     *
+     * @throws Exception exception thrown if an error occurred while reading or
+     * writing a file, or if a thread was interrupted
+     */
+    public void testInvalidNumberOfSpectra() throws Exception {
+
+        File folder = new File(TEMP_FOLDER);
+        folder.mkdir();
+
+        try {
+
+            File mgfFile = write(getContent(false), "\n", new File(folder, "test.mgf"));
+            MgfIndex mgfIndex = MgfReader.getIndexMap(mgfFile);
+
+            for (int nSpectra : new int[]{0, -1}) {
+
+                try {
+                    new MgfReader().splitFile(mgfFile, mgfIndex, nSpectra, 2, null);
+                    Assert.fail("No exception thrown for " + nSpectra + " spectra per file.");
+                } catch (IllegalArgumentException e) {
+                    // expected
+                }
+            }
+
+        } finally {
+
+            Util.deleteDir(folder);
+
+        }
+    }
+
+    /**
+     * Writes the given content, splits the file, compares the indexes of the
+     * split files to the indexes of their content, merges the split files,
+     * and compares the merged file to the original file.
+     *
+     * @param lines the lines of the mgf file
+     * @param lineBreak the line break to use
+     *
+     * @throws Exception exception thrown if an error occurred while reading or
+     * writing a file, or if a thread was interrupted
+     */
+    private void testRoundTrip(ArrayList<String> lines, String lineBreak) throws Exception {
+
+        File folder = new File(TEMP_FOLDER);
+        folder.mkdir();
+
+        try {
+
+            File mgfFile = write(lines, lineBreak, new File(folder, "test.mgf"));
+            byte[] original = Files.readAllBytes(mgfFile.toPath());
+            MgfIndex mgfIndex = MgfReader.getIndexMap(mgfFile);
+
+            for (int nThreads = 1; nThreads <= 3; nThreads++) {
+
+                ArrayList<MgfIndex> splittedIndexes = new MgfReader().splitFile(mgfFile, mgfIndex, N_SPECTRA_PER_FILE, nThreads, null);
+                Assert.assertEquals(6, splittedIndexes.size());
+
+                ArrayList<File> splittedFiles = new ArrayList<>();
+                int nSpectra = 0;
+
+                for (MgfIndex splittedIndex : splittedIndexes) {
+
+                    File splittedFile = new File(folder, splittedIndex.getFileName());
+                    splittedFiles.add(splittedFile);
+                    compare(MgfReader.getIndexMap(splittedFile), splittedIndex);
+                    nSpectra += splittedIndex.getNSpectra();
+
+                }
+
+                Assert.assertEquals(mgfIndex.getNSpectra(), nSpectra);
+
+                File mergedFile = new File(folder, "merged.mgf");
+                MgfReader.mergeFiles(splittedFiles, mergedFile, nThreads, null);
+                Assert.assertTrue(Arrays.equals(original, Files.readAllBytes(mergedFile.toPath())));
+
+                for (File splittedFile : splittedFiles) {
+                    Assert.assertTrue(splittedFile.delete());
+                }
+
+                Assert.assertTrue(mergedFile.delete());
+
+            }
+
+        } finally {
+
+            Util.deleteDir(folder);
+
+        }
+    }
+
+    /**
+     * Compares the index of a split file to the index of its content.
+     *
+     * @param expected the index of the content of the file
+     * @param actual the index returned when splitting the file
+     */
+    private void compare(MgfIndex expected, MgfIndex actual) {
+
+        Assert.assertEquals(expected.getFileName(), actual.getFileName());
+        Assert.assertEquals(expected.getSpectrumTitles(), actual.getSpectrumTitles());
+        Assert.assertEquals(expected.getDuplicatedSpectrumTitles(), actual.getDuplicatedSpectrumTitles());
+        Assert.assertEquals(expected.getNSpectra(), actual.getNSpectra());
+        Assert.assertEquals(expected.getMaxMz(), actual.getMaxMz());
+
+        for (String title : expected.getSpectrumTitles()) {
+
+            Assert.assertEquals(expected.getIndex(title), actual.getIndex(title));
+            Assert.assertEquals(expected.getSpectrumIndex(title), actual.getSpectrumIndex(title));
+
+        }
+
+        for (int i = 0; i < expected.getNSpectra(); i++) {
+
+            Assert.assertEquals(expected.getPrecursorMz(i), actual.getPrecursorMz(i));
+
+        }
+    }
+
+    /**
+     * Returns the lines of an mgf file where some spectra have no title.
+     *
+     * @param duplicates if true, some titles are used twice
+     *
+     * @return the lines of an mgf file
+     */
+    private ArrayList<String> getContent(boolean duplicates) {
+
+        ArrayList<String> lines = new ArrayList<>();
+
+        for (int i = 0; i < N_SPECTRA; i++) {
+
+            lines.add("BEGIN IONS");
+
+            if (i % 17 != 5) {
+
+                int titleNumber = duplicates && i % 23 == 0 ? i / 2 : i;
+                lines.add("TITLE=spectrum " + titleNumber);
+
+            }
+
+            lines.add("PEPMASS=" + (400.0 + i) + " " + (1000.0 * i));
+            lines.add("CHARGE=" + (2 + i % 3) + "+");
+            lines.add("RTINSECONDS=" + (10.0 * i));
+
+            for (int j = 0; j < 1 + i % 7; j++) {
+                lines.add((100.0 + 10 * j) + " " + (j + 1.0));
+            }
+
+            lines.add("END IONS");
+            lines.add("");
+
+        }
+
+        return lines;
+    }
+
+    /**
+     * Writes the given lines to a file.
+     *
+     * @param lines the lines
+     * @param lineBreak the line break to use
+     * @param file the file
+     *
+     * @return the file
+     *
+     * @throws IOException exception thrown if an error occurred while writing
+     * the file
+     */
+    private File write(ArrayList<String> lines, String lineBreak, File file) throws IOException {
+
+        try (FileOutputStream outputStream = new FileOutputStream(file)) {
+
+            for (String line : lines) {
+
+                outputStream.write(line.getBytes(StandardCharsets.US_ASCII));
+                outputStream.write(lineBreak.getBytes(StandardCharsets.US_ASCII));
+
+            }
+        }
+
+        return file;
+    }
+}
@@ -0,0 +1,487 @@
+package com.compomics.util.test.experiment.sequences.digestion;
+
+import com.compomics.util.Util;
+import com.compomics.util.experiment.biology.modifications.ModificationFactory;
+import com.compomics.util.experiment.identification.protein_sequences.candidates.PeptideCandidateStore;
+import com.compomics.util.experiment.identification.protein_sequences.candidates.PeptideCandidateStoreBuilder;
+import com.compomics.util.experiment.identification.protein_sequences.digestion.ExtendedPeptide;
+import com.compomics.util.experiment.identification.protein_sequences.digestion.IteratorFactory;
+import com.compomics.util.experiment.identification.protein_sequences.digestion.SequenceIterator;
+import com.compomics.util.parameters.identification.search.DigestionParameters;
+import com.compomics.util.parameters.identification.search.ModificationParameters;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * This class tests the peptide candidate store against a brute force
+ * digestion of the proteins.
+ *
+ * @author Marc Vaudel
+ */
+public class PeptideCandidateStoreTest extends TestCase {
+
+    /**
+     * The folder where the test files are written.
+     */
+    private static final String TEMP_FOLDER = "src/test/resources/experiment/peptideCandidateStore";
+    /**
+     * The accessions of the test proteins.
+     */
+    private static final String[] ACCESSIONS = {"P1", "P2", "P3", "P4", "P5"};
+    /**
+     * The sequences of the test proteins. Some peptides are shared between
+     * proteins, at a protein terminus for some of the proteins only.
+     */
+    private static final String[] SEQUENCES = {
+        "MACDEFGHIKLMNPQRSTVWYKCCMEPTIDEKAMMSTRGGHK",
+        "ELVISLIVESKMACDEFGHIKPEPTIDECMKRAAAMLLLGGGR",
+        "MACDEFGHIKWWWMCRDDDEEEKSAMPLEMKGLYCEGMFR",
+        "SAMPLEPEPTIDERHIGHMASSKLMNPQRSTVWYK",
+        "PEPTIDEKMMMCCCKAAAHHHR"
+    };
+    /**
+     * The minimal mass of the candidates.
+     */
+    private static final double MASS_MIN = 500.0;
+    /**
+     * The maximal mass of the candidates.
+     */
+    private static final double MASS_MAX = 3000.0;
+    /**
+     * The maximal number of variable modifications.
+     */
+    private static final int MAX_VARIABLE_MODIFICATIONS = 2;
+    /**
+     * The variable modifications, sorted by name.
+     */
+    private static final String[] VARIABLE_MODIFICATIONS = {"Acetylation of protein N-term", "Oxidation of M"};
+
+    /**
+     * Builds a store with different numbers of threads and compares its
+     * peptides, protein references, variants, and range queries to a brute
+     * force digestion of the proteins.
+     *
+     * @throws Exception exception thrown if an error occurred while writing,
+     * reading, or digesting the fasta file
+     */
+    public void testStore() throws Exception {
+
+        File folder = new File(TEMP_FOLDER);
+        folder.mkdir();
+
+        try {
+
+            File fastaFile = writeFasta(new File(folder, "test.fasta"));
+            DigestionParameters digestionParameters = DigestionParameters.getDefaultParameters();
+            ModificationParameters modificationParameters = getModificationParameters();
+
+            TreeMap<String, ExpectedPeptide> expectedPeptides = digest(digestionParameters, modificationParameters);
+            HashMap<String, Double> expectedEntries = getExpectedEntries(expectedPeptides);
+
+            // MACDEFGHIK is at the N-terminus of two proteins out of three
+            Assert.assertTrue(expectedEntries.keySet().stream().anyMatch(key -> key.startsWith("MACDEFGHIK[") && key.endsWith("_1_1")));
+
+            for (int nThreads = 1; nThreads <= 3; nThreads += 2) {
+
+                PeptideCandidateStoreBuilder builder = new PeptideCandidateStoreBuilder(digestionParameters, modificationParameters,
+                        MASS_MIN, MASS_MAX, MAX_VARIABLE_MODIFICATIONS);
+                PeptideCandidateStore store = builder.build(fastaFile, nThreads, null);
+
+                Assert.assertEquals(ACCESSIONS.length, store.getNProteins());
+                Assert.assertTrue(Arrays.equals(VARIABLE_MODIFICATIONS, store.getVariableModifications()));
+
+                // Peptides and protein references, peptides outside the mass range can be stored
+
+                TreeSet<String> storedPeptides = new TreeSet<>();
+
+                for (int peptideIndex = 0; peptideIndex < store.getNPeptides(); peptideIndex++) {
+
+                    String key = getPeptideKey(store, peptideIndex);
+                    storedPeptides.add(key);
+                    ExpectedPeptide expectedPeptide = expectedPeptides.get(key);
+
+                    Assert.assertNotNull(key, expectedPeptide);
+
+                    TreeSet<String> references = new TreeSet<>();
+
+                    for (int reference = 0; reference < store.getNProteinReferences(peptideIndex); reference++) {
+                        references.add(store.getProteinAccession(peptideIndex, reference) + "_" + store.getProteinPosition(peptideIndex, reference));
+                    }
+
+                    Assert.assertEquals(expectedPeptide.references, references);
+
+                }
+
+                Assert.assertEquals(store.getNPeptides(), storedPeptides.size());
+
+                for (String entryKey : expectedEntries.keySet()) {
+                    Assert.assertTrue(entryKey, storedPeptides.contains(entryKey.substring(0, entryKey.indexOf('_'))));
+                }
+
+                // Entries
+
+                Assert.assertEquals(expectedEntries.size(), store.size());
+
+                for (int entry = 0; entry < store.size(); entry++) {
+
+                    String entryKey = getEntryKey(store, entry);
+                    Double expectedMass = expectedEntries.get(entryKey);
+
+                    Assert.assertNotNull(entryKey, expectedMass);
+                    Assert.assertEquals(expectedMass, store.getMass(entry), 1e-9);
+
+                    if (entry > 0) {
+                        Assert.assertTrue(store.getMass(entry - 1) <= store.getMass(entry));
+                    }
+                }
+
+                // Range queries
+
+                Random random = new Random(42);
+
+                for (int i = 0; i < 500; i++) {
+
+                    double mass = i % 2 == 0
+                            ? MASS_MIN + (MASS_MAX - MASS_MIN) * random.nextDouble()
+                            : store.getMass(random.nextInt(store.size()));
+                    boolean ppm = random.nextBoolean();
+                    double tolerance = ppm ? 10.0 : 0.5;
+                    double deviation = ppm ? mass * tolerance / 1000000 : tolerance;
+
+                    TreeSet<String> expected = new TreeSet<>();
+
+                    for (String entryKey : expectedEntries.keySet()) {
+
+                        double entryMass = expectedEntries.get(entryKey);
+
+                        if (entryMass >= mass - deviation && entryMass <= mass + deviation) {
+                            expected.add(entryKey);
+                        }
+                    }
+
+                    int[] range = store.getRange(mass, tolerance, ppm);
+                    TreeSet<String> result = new TreeSet<>();
+
+                    for (int entry = range[0]; entry < range[1]; entry++) {
+                        result.add(getEntryKey(store, entry));
+                    }
+
+                    Assert.assertEquals(expected, result);
+
+                }
+            }
+
+        } finally {
+
+            Util.deleteDir(folder);
+
+        }
+    }
+
+    /**
+     * Tests that a store is saved, reloaded with the same content, and
+     * rebuilt if the parameters or the format version differ.
+     *
+     * @throws Exception exception thrown if an error occurred while writing,
+     * reading, or digesting the fasta file
+     */
+    public void testReadWrite() throws Exception {
+
+        File folder = new File(TEMP_FOLDER);
+        folder.mkdir();
+
+        try {
+
+            File fastaFile = writeFasta(new File(folder, "test.fasta"));
+            DigestionParameters digestionParameters = DigestionParameters.getDefaultParameters();
+            ModificationParameters modificationParameters = getModificationParameters();
+            PeptideCandidateStoreBuilder builder = new PeptideCandidateStoreBuilder(digestionParameters, modificationParameters,
+                    MASS_MIN, MASS_MAX, MAX_VARIABLE_MODIFICATIONS);
+
+            PeptideCandidateStore store = builder.getStore(fastaFile, folder, 2, null);
+            File storeFile = builder.getStoreFile(fastaFile, folder);
+
+            Assert.assertTrue(storeFile.exists());
+
+            PeptideCandidateStore readStore = PeptideCandidateStore.read(storeFile);
+            assertSameContent(store, readStore);
+            assertSameContent(store, builder.getStore(fastaFile, folder, 2, null));
+
+            // Stores built with other parameters are saved in other files
+            PeptideCandidateStoreBuilder otherBuilder = new PeptideCandidateStoreBuilder(digestionParameters, modificationParameters,
+                    MASS_MIN, MASS_MAX, 1);
+
+            Assert.assertFalse(storeFile.equals(otherBuilder.getStoreFile(fastaFile, folder)));
+
+            // Stores written in another format version are rebuilt
+            try (RandomAccessFile randomAccessFile = new RandomAccessFile(storeFile, "rw")) {
+                randomAccessFile.writeInt(PeptideCandidateStore.FORMAT_VERSION - 1);
+            }
+
+            Assert.assertNull(PeptideCandidateStore.read(storeFile));
+            assertSameContent(store, builder.getStore(fastaFile, folder, 2, null));
+            assertSameContent(store, PeptideCandidateStore.read(storeFile));
+
+        } finally {
+
+            Util.deleteDir(folder);
+
+        }
+    }
+
+    /**
+     * Checks that two stores have the same content.
+     *
+     * @param expected the expected store
+     * @param store the store to check
+     */
+    private void assertSameContent(PeptideCandidateStore expected, PeptideCandidateStore store) {
+
+        Assert.assertEquals(expected.getParametersKey(), store.getParametersKey());
+        Assert.assertEquals(expected.getNProteins(), store.getNProteins());
+        Assert.assertEquals(expected.getNPeptides(), store.getNPeptides());
+        Assert.assertEquals(expected.size(), store.size());
+        Assert.assertTrue(Arrays.equals(expected.getVariableModifications(), store.getVariableModifications()));
+
+        for (int peptideIndex = 0; peptideIndex < expected.getNPeptides(); peptideIndex++) {
+
+            Assert.assertEquals(expected.getSequence(peptideIndex), store.getSequence(peptideIndex));
+            Assert.assertTrue(Arrays.equals(expected.getFixedModifications(peptideIndex), store.getFixedModifications(peptideIndex)));
+            Assert.assertEquals(expected.getNProteinReferences(peptideIndex), store.getNProteinReferences(peptideIndex));
+
+            for (int reference = 0; reference < expected.getNProteinReferences(peptideIndex); reference++) {
+
+                Assert.assertEquals(expected.getProteinAccession(peptideIndex, reference), store.getProteinAccession(peptideIndex, reference));
+                Assert.assertEquals(expected.getProteinPosition(peptideIndex, reference), store.getProteinPosition(peptideIndex, reference));
+
+            }
+        }
+
+        for (int entry = 0; entry < expected.size(); entry++) {
+
+            Assert.assertEquals(expected.getMass(entry), store.getMass(entry));
+            Assert.assertEquals(expected.getPeptideIndex(entry), store.getPeptideIndex(entry));
+            Assert.assertEquals(expected.getVariableModifications(entry), store.getVariableModifications(entry));
+
+        }
+    }
+
+    /**
+     * Returns the modification parameters of the test: carbamidomethylation of
+     * C as fixed modification, oxidation of M and acetylation of the protein
+     * N-terminus as variable modifications.
+     *
+     * @return the modification parameters
+     */
+    private ModificationParameters getModificationParameters() {
+
+        ModificationFactory modificationFactory = ModificationFactory.getInstance();
+        ModificationParameters modificationParameters = new ModificationParameters();
+        modificationParameters.addFixedModification(modificationFactory.getModification("Carbamidomethylation of C"));
+
+        for (String modification : VARIABLE_MODIFICATIONS) {
+            modificationParameters.addVariableModification(modificationFactory.getModification(modification));
+        }
+
+        return modificationParameters;
+    }
+
+    /**
+     * Digests the test proteins one peptide at a time.
+     *
+     * @param digestionParameters the digestion parameters
+     * @param modificationParameters the modification parameters
+     *
+     * @return the distinct peptides indexed by key
+     *
+     * @throws InterruptedException exception thrown if a thread was
+     * interrupted
+     */
+    private TreeMap<String, ExpectedPeptide> digest(DigestionParameters digestionParameters, ModificationParameters modificationParameters) throws InterruptedException {
+
+        IteratorFactory iteratorFactory = new IteratorFactory(modificationParameters.getFixedModifications());
+        TreeMap<String, ExpectedPeptide> peptides = new TreeMap<>();
+
+        for (int i = 0; i < SEQUENCES.length; i++) {
+
+            String proteinSequence = SEQUENCES[i];
+            SequenceIterator sequenceIterator = iteratorFactory.getSequenceIterator(proteinSequence, digestionParameters, 0.0, Double.MAX_VALUE);
+            ExtendedPeptide extendedPeptide;
+
+            while ((extendedPeptide = sequenceIterator.getNextPeptide()) != null) {
+
+                String sequence = extendedPeptide.peptide.getSequence();
+                String key = sequence + Arrays.toString(extendedPeptide.fixedModifications);
+                ExpectedPeptide expectedPeptide = peptides.get(key);
+
+                if (expectedPeptide == null) {
+
+                    expectedPeptide = new ExpectedPeptide(sequence, extendedPeptide.peptide.getMass());
+                    peptides.put(key, expectedPeptide);
+
+                }
+
+                expectedPeptide.references.add(ACCESSIONS[i] + "_" + extendedPeptide.position);
+                expectedPeptide.proteinNTerm = expectedPeptide.proteinNTerm || extendedPeptide.position == 0;
+
+            }
+        }
+
+        return peptides;
+    }
+
+    /**
+     * Enumerates the expected entries of the store, i.e. the combinations of
+     * acetylation of the protein N-terminus and oxidations within the mass
+     * range.
+     *
+     * @param peptides the distinct peptides indexed by key
+     *
+     * @return the mass of the entries indexed by entry key
+     */
+    private HashMap<String, Double> getExpectedEntries(TreeMap<String, ExpectedPeptide> peptides) {
+
+        ModificationFactory modificationFactory = ModificationFactory.getInstance();
+        double acetylationMass = modificationFactory.getModification(VARIABLE_MODIFICATIONS[0]).getMass();
+        double oxidationMass = modificationFactory.getModification(VARIABLE_MODIFICATIONS[1]).getMass();
+        HashMap<String, Double> entries = new HashMap<>();
+
+        for (String key : peptides.keySet()) {
+
+            ExpectedPeptide peptide = peptides.get(key);
+            int nAcetylations = peptide.proteinNTerm ? 1 : 0;
+            int nOxidations = (int) peptide.sequence.chars().filter(aa -> aa == 'M').count();
+
+            for (int acetylations = 0; acetylations <= nAcetylations; acetylations++) {
+
+                for (int oxidations = 0; oxidations <= nOxidations && acetylations + oxidations <= MAX_VARIABLE_MODIFICATIONS; oxidations++) {
+
+                    double mass = peptide.mass + acetylations * acetylationMass + oxidations * oxidationMass;
+
+                    if (mass >= MASS_MIN && mass <= MASS_MAX) {
+                        entries.put(getEntryKey(key, acetylations, oxidations), mass);
+                    }
+                }
+            }
+        }
+
+        return entries;
+    }
+
+    /**
+     * Returns the key of a peptide of the store.
+     *
+     * @param store the store
+     * @param peptideIndex the index of the peptide
+     *
+     * @return the key of the peptide
+     */
+    private String getPeptideKey(PeptideCandidateStore store, int peptideIndex) {
+        return store.getSequence(peptideIndex) + Arrays.toString(store.getFixedModifications(peptideIndex));
+    }
+
+    /**
+     * Returns the key of an entry of the store.
+     *
+     * @param store the store
+     * @param entry the index of the entry
+     *
+     * @return the key of the entry
+     */
+    private String getEntryKey(PeptideCandidateStore store, int entry) {
+
+        ArrayList<String> variableModifications = store.getVariableModifications(entry);
+        int acetylations = (int) variableModifications.stream().filter(VARIABLE_MODIFICATIONS[0]::equals).count();
+        int oxidations = (int) variableModifications.stream().filter(VARIABLE_MODIFICATIONS[1]::equals).count();
+
+        return getEntryKey(getPeptideKey(store, store.getPeptideIndex(entry)), acetylations, oxidations);
+    }
+
+    /**
+     * Returns the key of an entry.
+     *
+     * @param peptideKey the key of the peptide
+     * @param acetylations the number of acetylations
+     * @param oxidations the number of oxidations
+     *
+     * @return the key of the entry
+     */
+    private String getEntryKey(String peptideKey, int acetylations, int oxidations) {
+        return peptideKey + "_" + acetylations + "_" + oxidations;
+    }
+
+    /**
+     * Writes the test proteins to a fasta file.
+     *
+     * @param file the file
+     *
+     * @return the file
+     *
+     * @throws IOException exception thrown if an error occurred while writing
+     * the file
+     */
+    private File writeFasta(File file) throws IOException {
+
+        StringBuilder content = new StringBuilder();
+
+        for (int i = 0; i < SEQUENCES.length; i++) {
+
+            content.append('>').append(ACCESSIONS[i]).append('\n');
+            content.append(SEQUENCES[i]).append('\n');
+
+        }
+
+        try (FileOutputStream outputStream = new FileOutputStream(file)) {
+            outputStream.write(content.toString().getBytes(StandardCharsets.US_ASCII));
+        }
+
+        return file;
+    }
+
+    /**
+     * A peptide expected in the store.
+     */
+    private static class ExpectedPeptide {
+
+        /**
+         * The sequence of the peptide.
+         */
+        private final String sequence;
+        /**
+         * The mass of the peptide including fixed modifications.
+         */
+        private final double mass;
+        /**
+         * The protein references as accession_position.
+         */
+        private final TreeSet<String> references = new TreeSet<>();
+        /**
+         * Indicates whether the peptide is at the N-terminus of a protein.
+         */
+        private boolean proteinNTerm = false;
+
+        /**
+         * Constructor.
+         *
+         * @param sequence the sequence of the peptide
+         * @param mass the mass of the peptide including fixed modifications
+         */
+        private ExpectedPeptide(String sequence, double mass) {
+
+            this.sequence = sequence;
+            this.mass = mass;
+
+        }
+    }
+}
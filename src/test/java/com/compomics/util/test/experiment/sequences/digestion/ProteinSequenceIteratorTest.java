@@ -1,13 +1,22 @@
 package com.compomics.util.test.experiment.sequences.digestion;
 
+import com.compomics.util.experiment.biology.aminoacids.sequence.AminoAcidPattern;
+import com.compomics.util.experiment.biology.atoms.Atom;
+import com.compomics.util.experiment.biology.atoms.AtomChain;
+import com.compomics.util.experiment.biology.atoms.AtomImpl;
+import com.compomics.util.experiment.biology.modifications.Modification;
 import com.compomics.util.experiment.biology.modifications.ModificationFactory;
+import com.compomics.util.experiment.biology.modifications.ModificationType;
 import com.compomics.util.experiment.biology.proteins.Peptide;
 import com.compomics.util.experiment.identification.protein_sequences.digestion.IteratorFactory;
 import com.compomics.util.experiment.identification.protein_sequences.digestion.ExtendedPeptide;
+import com.compomics.util.experiment.identification.protein_sequences.digestion.SequenceCursor;
 import com.compomics.util.experiment.identification.protein_sequences.digestion.SequenceIterator;
 import com.compomics.util.parameters.identification.search.DigestionParameters;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import junit.framework.Assert;
 import junit.framework.TestCase;
 import org.xmlpull.v1.XmlPullParserException;
@@ -281,4 +290,107 @@ public class ProteinSequenceIteratorTest extends TestCase {
 //        
 //        
     }
+
+    /**
+     * Tests the fixed modifications of the peptides: the peptide C-term
+     * modification is set on all peptides, including the one at the protein
+     * C-terminus, and a modification targeting a pattern is only set where the
+     * pattern is found on the protein.
+     *
+     * @throws InterruptedException exception thrown if a thread is interrupted
+     */
+    public void testFixedModifications() throws InterruptedException {
+
+        // user modification on N targeting the NCS pattern
+        AtomChain atomChainAdded = new AtomChain();
+        atomChainAdded.append(new AtomImpl(Atom.O, 0), 1);
+        String patternModification = "Oxidation of N in NCS";
+        String cTermModification = "Amidation of the peptide C-term";
+        ModificationFactory modificationFactory = ModificationFactory.getInstance();
+        modificationFactory.addUserModification(new Modification(ModificationType.modaa, patternModification, "ox", atomChainAdded, new AtomChain(), AminoAcidPattern.getAminoAcidPatternFromString("NCS")));
+
+        try {
+
+            ArrayList<String> fixedModifications = new ArrayList<>();
+            fixedModifications.add(patternModification);
+            fixedModifications.add(cTermModification);
+
+            IteratorFactory iteratorFactoryNoModifications = new IteratorFactory(new ArrayList<>(), 0);
+            IteratorFactory iteratorFactoryModifications = new IteratorFactory(fixedModifications, 0);
+            DigestionParameters digestionPreferences = DigestionParameters.getDefaultParameters();
+
+            String testSequence = "NATKNCSKTEST";
+
+            HashMap<String, String[]> expected = new HashMap<>();
+            expected.put("NATK", new String[]{null, null, null, null, null, cTermModification});
+            expected.put("NCSK", new String[]{null, patternModification, null, null, null, cTermModification});
+            expected.put("TEST", new String[]{null, null, null, null, null, cTermModification});
+            expected.put("NATKNCSK", new String[]{null, null, null, null, null, patternModification, null, null, null, cTermModification});
+            expected.put("NCSKTEST", new String[]{null, patternModification, null, null, null, null, null, null, null, cTermModification});
+            expected.put("NATKNCSKTEST", new String[]{null, null, null, null, null, patternModification, null, null, null, null, null, null, null, cTermModification});
+
+            HashMap<String, Double> unmodifiedMasses = new HashMap<>();
+            for (ExtendedPeptide extendedPeptide : getPeptides(iteratorFactoryNoModifications.getSequenceIterator(testSequence, digestionPreferences, 0.0, Double.MAX_VALUE))) {
+                unmodifiedMasses.put(extendedPeptide.peptide.getSequence(), extendedPeptide.peptide.getMass());
+            }
+
+            double patternModificationMass = modificationFactory.getModification(patternModification).getMass();
+            double cTermModificationMass = modificationFactory.getModification(cTermModification).getMass();
+
+            // iterator
+            ArrayList<ExtendedPeptide> peptides = getPeptides(iteratorFactoryModifications.getSequenceIterator(testSequence, digestionPreferences, 0.0, Double.MAX_VALUE));
+            Assert.assertEquals(expected.size(), peptides.size());
+
+            for (ExtendedPeptide extendedPeptide : peptides) {
+
+                String sequence = extendedPeptide.peptide.getSequence();
+                Assert.assertEquals(sequence, Arrays.toString(expected.get(sequence)), Arrays.toString(extendedPeptide.fixedModifications));
+
+                double modificationsMass = sequence.contains("NCS") ? patternModificationMass + cTermModificationMass : cTermModificationMass;
+                Assert.assertEquals(sequence, unmodifiedMasses.get(sequence) + modificationsMass, extendedPeptide.peptide.getMass(), 1e-6);
+
+            }
+
+            // cursor
+            SequenceCursor sequenceCursor = iteratorFactoryModifications.getSequenceCursor(testSequence, digestionPreferences, 0.0, Double.MAX_VALUE);
+            int nPeptides = 0;
+
+            while (sequenceCursor.next()) {
+
+                String sequence = sequenceCursor.getSequence();
+                Assert.assertEquals(sequence, Arrays.toString(expected.get(sequence)), Arrays.toString(sequenceCursor.getFixedModifications()));
+                Assert.assertEquals(sequence, cTermModification, sequenceCursor.getCTermModification());
+                nPeptides++;
+
+            }
+
+            Assert.assertEquals(expected.size(), nPeptides);
+
+        } finally {
+
+            modificationFactory.removeUserPtm(patternModification);
+
+        }
+    }
+
+    /**
+     * Returns the peptides of the given iterator.
+     *
+     * @param sequenceIterator the sequence iterator
+     *
+     * @return the peptides of the given iterator
+     *
+     * @throws InterruptedException exception thrown if a thread is interrupted
+     */
+    private ArrayList<ExtendedPeptide> getPeptides(SequenceIterator sequenceIterator) throws InterruptedException {
+
+        ArrayList<ExtendedPeptide> peptides = new ArrayList<>();
+        ExtendedPeptide peptideWithPosition;
+
+        while ((peptideWithPosition = sequenceIterator.getNextPeptide()) != null) {
+            peptides.add(peptideWithPosition);
+        }
+
+        return peptides;
+    }
 }
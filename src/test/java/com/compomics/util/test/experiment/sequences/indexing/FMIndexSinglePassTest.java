@@ -0,0 +1,339 @@
+package com.compomics.util.test.experiment.sequences.indexing;
+
+import com.compomics.util.Util;
+import com.compomics.util.experiment.biology.proteins.Protein;
+import com.compomics.util.experiment.identification.protein_inference.PeptideProteinMapping;
+import com.compomics.util.experiment.identification.protein_inference.fm_index.FMIndex;
+import com.compomics.util.experiment.identification.utils.ProteinUtils;
+import com.compomics.util.experiment.io.biology.protein.FastaParameters;
+import com.compomics.util.experiment.io.biology.protein.FastaSummary;
+import com.compomics.util.experiment.io.biology.protein.Header;
+import com.compomics.util.experiment.io.biology.protein.ProteinDatabase;
+import com.compomics.util.experiment.io.biology.protein.iterators.FastaIterator;
+import com.compomics.util.experiment.io.biology.protein.iterators.HeaderIterator;
+import com.compomics.util.parameters.identification.advanced.PeptideVariantsParameters;
+import com.compomics.util.parameters.identification.advanced.SequenceMatchingParameters;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.TreeMap;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * This class tests the FM index and the FASTA summary built while reading the
+ * FASTA file once against the summary parsed from the headers and the
+ * proteins read from the file.
+ *
+ * @author Marc Vaudel
+ */
+public class FMIndexSinglePassTest extends TestCase {
+
+    /**
+     * The folder where the test files are written.
+     */
+    private static final String TEMP_FOLDER = "src/test/resources/experiment/fmIndexSinglePass";
+    /**
+     * The amino acids used for the random sequences.
+     */
+    private static final String AMINO_ACIDS = "ACDEFGHIKLMNPQRSTVWY";
+    /**
+     * The species used in the headers.
+     */
+    private static final String[] SPECIES = {"Homo sapiens", "Mus musculus", "Arabidopsis thaliana"};
+
+    /**
+     * Compares the summary of the test FASTA file gathered by the index to the
+     * summary parsed from the headers, and checks that the summary is saved.
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * or writing a file
+     */
+    public void testTestSequences() throws IOException {
+
+        File fastaFile = new File("src/test/resources/experiment/testSequences.fasta");
+        testFile(fastaFile, FastaParameters.inferParameters(fastaFile.getAbsolutePath()));
+
+    }
+
+    /**
+     * Compares the summary, proteins, and peptide mappings of a FASTA file
+     * with random proteins of different databases, species, and decoys to the
+     * summary parsed from the headers and to the proteins read from the file.
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * or writing a file
+     */
+    public void testRandomSequences() throws IOException {
+
+        File folder = new File(TEMP_FOLDER);
+        folder.mkdir();
+
+        try {
+
+            File fastaFile = new File(folder, "randomSequences.fasta");
+            writeRandomFasta(fastaFile, new Random(42), 300);
+
+            FastaParameters fastaParameters = FastaParameters.inferParameters(fastaFile.getAbsolutePath());
+            Assert.assertTrue(fastaParameters.isTargetDecoy());
+
+            testFile(fastaFile, fastaParameters);
+
+        } finally {
+
+            Util.deleteDir(folder);
+
+        }
+    }
+
+    /**
+     * Builds the index of the given file and compares its summary, proteins,
+     * and peptide mappings to the ones obtained from the file.
+     *
+     * @param fastaFile the FASTA file
+     * @param fastaParameters the FASTA parameters
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * or writing a file
+     */
+    private void testFile(File fastaFile, FastaParameters fastaParameters) throws IOException {
+
+        FMIndex fmIndex = new FMIndex(fastaFile, fastaParameters, null, false, PeptideVariantsParameters.getNoVariantPreferences(), null);
+
+        FastaSummary expected = parseSummary(fastaFile, fastaParameters);
+        compare(expected, fmIndex.getFastaSummary());
+        compare(expected, FastaSummary.getSummary(fastaFile.getAbsolutePath(), fastaParameters, null));
+
+        HashMap<String, String> sequences = new HashMap<>();
+        FastaIterator fastaIterator = new FastaIterator(fastaFile);
+        Protein protein;
+
+        while ((protein = fastaIterator.getNextProtein()) != null) {
+
+            String accession = protein.getAccession();
+            String sequence = protein.getSequence().toUpperCase();
+            sequences.put(accession, sequence);
+
+            Assert.assertEquals(sequence, fmIndex.getSequence(accession));
+            Assert.assertEquals(fastaIterator.getLastHeader().getRawHeader().substring(1), fmIndex.getHeader(accession));
+
+        }
+
+        Assert.assertEquals(sequences.keySet(), new HashSet<>(fmIndex.getAccessions()));
+
+        Random random = new Random(7);
+        ArrayList<String> accessions = new ArrayList<>(sequences.keySet());
+
+        for (int i = 0; i < 200; i++) {
+
+            String sequence = sequences.get(accessions.get(random.nextInt(accessions.size())));
+            int length = 4 + random.nextInt(8);
+
+            if (sequence.length() < length) {
+                continue;
+            }
+
+            int start = random.nextInt(sequence.length() - length + 1);
+            String peptide = sequence.substring(start, start + length);
+
+            if (!peptide.matches("[" + AMINO_ACIDS + "]+")) {
+                continue;
+            }
+
+            ArrayList<PeptideProteinMapping> peptideProteinMappings = fmIndex.getProteinMapping(peptide, SequenceMatchingParameters.defaultStringMatching);
+            HashMap<String, int[]> proteinMapping = PeptideProteinMapping.getPeptideProteinIndexesMap(peptideProteinMappings).get(peptide);
+
+            Assert.assertNotNull(proteinMapping);
+
+            HashMap<String, int[]> expectedMapping = getMapping(peptide, sequences);
+            Assert.assertEquals(expectedMapping.keySet(), proteinMapping.keySet());
+
+            for (String accession : expectedMapping.keySet()) {
+
+                int[] indexes = proteinMapping.get(accession).clone();
+                Arrays.sort(indexes);
+                Assert.assertTrue(Arrays.equals(expectedMapping.get(accession), indexes));
+
+            }
+        }
+    }
+
+    /**
+     * Returns the indexes of all occurrences of the peptide in the proteins.
+     *
+     * @param peptide the peptide sequence
+     * @param sequences the protein sequences indexed by accession
+     *
+     * @return the sorted indexes of the peptide indexed by accession
+     */
+    private HashMap<String, int[]> getMapping(String peptide, HashMap<String, String> sequences) {
+
+        HashMap<String, int[]> result = new HashMap<>();
+
+        for (String accession : sequences.keySet()) {
+
+            String sequence = sequences.get(accession);
+            ArrayList<Integer> indexes = new ArrayList<>(1);
+
+            for (int index = sequence.indexOf(peptide); index >= 0; index = sequence.indexOf(peptide, index + 1)) {
+                indexes.add(index);
+            }
+
+            if (!indexes.isEmpty()) {
+                result.put(accession, indexes.stream().mapToInt(Integer::intValue).toArray());
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Compares two summaries.
+     *
+     * @param expected the expected summary
+     * @param fastaSummary the summary to test
+     */
+    private void compare(FastaSummary expected, FastaSummary fastaSummary) {
+
+        Assert.assertNotNull(fastaSummary);
+        Assert.assertEquals(expected.fastaFile.getAbsolutePath(), fastaSummary.fastaFile.getAbsolutePath());
+        Assert.assertEquals(expected.lastModified, fastaSummary.lastModified);
+        Assert.assertEquals(expected.nSequences, fastaSummary.nSequences);
+        Assert.assertEquals(expected.nTarget, fastaSummary.nTarget);
+        Assert.assertEquals(expected.speciesOccurrence, fastaSummary.speciesOccurrence);
+        Assert.assertEquals(expected.databaseType, fastaSummary.databaseType);
+
+    }
+
+    /**
+     * Parses the summary of a FASTA file from its headers in a dedicated pass
+     * through the file.
+     *
+     * @param fastaFile the FASTA file
+     * @param fastaParameters the FASTA parameters
+     *
+     * @return the summary of the file
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * the file
+     */
+    private FastaSummary parseSummary(File fastaFile, FastaParameters fastaParameters) throws IOException {
+
+        TreeMap<String, Integer> speciesOccurrence = new TreeMap<>();
+        HashMap<ProteinDatabase, Integer> databaseType = new HashMap<>(1);
+        int nSequences = 0;
+        int nTarget = 0;
+
+        HeaderIterator headerIterator = new HeaderIterator(fastaFile);
+        String fastaHeader;
+
+        while ((fastaHeader = headerIterator.getNextHeader()) != null) {
+
+            Header header = Header.parseFromFASTA(fastaHeader);
+
+            String species = header.getTaxonomy();
+
+            if (species == null) {
+                species = "Unknown";
+            }
+
+            speciesOccurrence.merge(species, 1, Integer::sum);
+
+            ProteinDatabase proteinDatabase = header.getDatabaseType();
+
+            if (proteinDatabase == null) {
+                proteinDatabase = ProteinDatabase.Unknown;
+            }
+
+            databaseType.merge(proteinDatabase, 1, Integer::sum);
+
+            if (!ProteinUtils.isDecoy(header.getAccessionOrRest(), fastaParameters)) {
+                nTarget++;
+            }
+
+            nSequences++;
+
+        }
+
+        return new FastaSummary(fastaFile, speciesOccurrence, databaseType, nSequences, nTarget, fastaFile.lastModified());
+
+    }
+
+    /**
+     * Writes a FASTA file with random UniProt and generic entries, every
+     * other UniProt entry followed by its reversed decoy.
+     *
+     * @param fastaFile the file to write
+     * @param random the random number generator
+     * @param nProteins the number of target proteins
+     *
+     * @throws IOException exception thrown if an error occurred while writing
+     * the file
+     */
+    private void writeRandomFasta(File fastaFile, Random random, int nProteins) throws IOException {
+
+        try (BufferedWriter bw = new BufferedWriter(new FileWriter(fastaFile))) {
+
+            for (int i = 0; i < nProteins; i++) {
+
+                StringBuilder sequence = new StringBuilder();
+                int length = 20 + random.nextInt(400);
+
+                for (int j = 0; j < length; j++) {
+                    sequence.append(AMINO_ACIDS.charAt(random.nextInt(AMINO_ACIDS.length())));
+                }
+
+                if (i % 10 == 9) {
+
+                    bw.write(">generic|GEN" + i + "|Generic protein " + i);
+                    bw.newLine();
+                    writeSequence(bw, sequence.toString());
+
+                } else {
+
+                    String accession = String.format("P%05d", i);
+                    String species = SPECIES[random.nextInt(SPECIES.length)];
+                    String description = "|PROT" + i + "_RANDOM Random protein " + i + " OS=" + species + " GN=GENE" + i + " PE=1 SV=1";
+                    String database = i % 3 == 0 ? "tr" : "sp";
+
+                    bw.write(">" + database + "|" + accession + description);
+                    bw.newLine();
+                    writeSequence(bw, sequence.toString());
+
+                    if (i % 2 == 0) {
+
+                        bw.write(">" + database + "|" + accession + "-REVERSED" + description + "-REVERSED");
+                        bw.newLine();
+                        writeSequence(bw, sequence.reverse().toString());
+
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes a sequence on lines of 60 characters.
+     *
+     * @param bw the writer
+     * @param sequence the sequence
+     *
+     * @throws IOException exception thrown if an error occurred while writing
+     * the file
+     */
+    private void writeSequence(BufferedWriter bw, String sequence) throws IOException {
+
+        for (int i = 0; i < sequence.length(); i += 60) {
+
+            bw.write(sequence, i, Math.min(60, sequence.length() - i));
+            bw.newLine();
+
+        }
+    }
+}
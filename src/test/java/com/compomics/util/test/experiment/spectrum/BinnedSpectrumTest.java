@@ -0,0 +1,203 @@
+package com.compomics.util.test.experiment.spectrum;
+
+import com.compomics.util.experiment.mass_spectrometry.similarity.BinnedSpectrum;
+import com.compomics.util.experiment.mass_spectrometry.similarity.SimilarityScore;
+import java.util.Random;
+import java.util.TreeMap;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * This class tests the binning of spectra and the similarity scores.
+ *
+ * @author Marc Vaudel
+ */
+public class BinnedSpectrumTest extends TestCase {
+
+    /**
+     * The number of random spectra to test.
+     */
+    private static final int N_SPECTRA = 50;
+    /**
+     * The tolerance used to compare weights and scores.
+     */
+    private static final double TOLERANCE = 1e-6;
+
+    /**
+     * Tests the binning of a small spectrum where peaks share a bin and a
+     * peak has no intensity.
+     */
+    public void testBinning() {
+
+        double[] mzs = {100.1, 100.2, 250.0, 300.0, 400.0};
+        double[] intensities = {1.0, 2.0, 4.0, 0.0, 2.0};
+
+        BinnedSpectrum binnedSpectrum = BinnedSpectrum.getBinnedSpectrum(mzs, intensities, 1.0, false);
+
+        Assert.assertEquals(3, binnedSpectrum.size());
+        Assert.assertEquals(100, binnedSpectrum.getBins()[0]);
+        Assert.assertEquals(250, binnedSpectrum.getBins()[1]);
+        Assert.assertEquals(400, binnedSpectrum.getBins()[2]);
+
+        // the weights are 3, 4, and 2 normalized by the square root of 29
+        double norm = Math.sqrt(29.0);
+        Assert.assertEquals(3.0 / norm, binnedSpectrum.getWeights()[0], TOLERANCE);
+        Assert.assertEquals(4.0 / norm, binnedSpectrum.getWeights()[1], TOLERANCE);
+        Assert.assertEquals(2.0 / norm, binnedSpectrum.getWeights()[2], TOLERANCE);
+
+        BinnedSpectrum emptySpectrum = BinnedSpectrum.getBinnedSpectrum(new double[]{100.0}, new double[]{0.0}, 1.0, false);
+        Assert.assertEquals(0, emptySpectrum.size());
+        Assert.assertEquals(0.0, emptySpectrum.dotProduct(binnedSpectrum));
+
+        try {
+            BinnedSpectrum.getBinnedSpectrum(new double[]{200.0, 100.0}, new double[]{1.0, 1.0}, 1.0, false);
+            Assert.fail("No exception thrown for unsorted m/z values.");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Compares the binning and the scores of random spectra with a dense
+     * implementation.
+     */
+    public void testRandomSpectra() {
+
+        Random random = new Random(42);
+
+        for (boolean squareRoot : new boolean[]{false, true}) {
+
+            double[][][] spectra = new double[N_SPECTRA][][];
+            BinnedSpectrum[] binnedSpectra = new BinnedSpectrum[N_SPECTRA];
+
+            for (int i = 0; i < N_SPECTRA; i++) {
+
+                spectra[i] = getRandomPeaks(random);
+                binnedSpectra[i] = BinnedSpectrum.getBinnedSpectrum(spectra[i][0], spectra[i][1], BinnedSpectrum.DEFAULT_BIN_WIDTH, squareRoot);
+
+                TreeMap<Integer, Double> expected = getDenseVector(spectra[i][0], spectra[i][1], BinnedSpectrum.DEFAULT_BIN_WIDTH, squareRoot);
+                BinnedSpectrum binnedSpectrum = binnedSpectra[i];
+                Assert.assertEquals(expected.size(), binnedSpectrum.size());
+
+                int j = 0;
+
+                for (Integer bin : expected.keySet()) {
+
+                    Assert.assertEquals(bin.intValue(), binnedSpectrum.getBins()[j]);
+                    Assert.assertEquals(expected.get(bin), binnedSpectrum.getWeights()[j], TOLERANCE);
+                    j++;
+
+                }
+
+                if (binnedSpectrum.size() > 0) {
+
+                    Assert.assertEquals(1.0, binnedSpectrum.dotProduct(binnedSpectrum), TOLERANCE);
+                    Assert.assertEquals(1.0, SimilarityScore.spectralContrastAngle.getScore(binnedSpectrum, binnedSpectrum), 1e-3);
+
+                }
+            }
+
+            for (int i = 0; i < N_SPECTRA; i++) {
+
+                TreeMap<Integer, Double> vector1 = getDenseVector(spectra[i][0], spectra[i][1], BinnedSpectrum.DEFAULT_BIN_WIDTH, squareRoot);
+
+                for (int j = 0; j < N_SPECTRA; j++) {
+
+                    TreeMap<Integer, Double> vector2 = getDenseVector(spectra[j][0], spectra[j][1], BinnedSpectrum.DEFAULT_BIN_WIDTH, squareRoot);
+                    double expected = 0.0;
+
+                    for (Integer bin : vector1.keySet()) {
+
+                        Double weight2 = vector2.get(bin);
+
+                        if (weight2 != null) {
+                            expected += vector1.get(bin) * weight2;
+                        }
+                    }
+
+                    double dotProduct = binnedSpectra[i].dotProduct(binnedSpectra[j]);
+                    Assert.assertEquals(expected, dotProduct, TOLERANCE);
+                    Assert.assertEquals(dotProduct, binnedSpectra[j].dotProduct(binnedSpectra[i]));
+                    Assert.assertEquals(dotProduct, SimilarityScore.dotProduct.getScore(binnedSpectra[i], binnedSpectra[j]));
+                    Assert.assertEquals(SimilarityScore.getSpectralContrastAngle(dotProduct), SimilarityScore.spectralContrastAngle.getScore(binnedSpectra[i], binnedSpectra[j]));
+
+                }
+            }
+        }
+    }
+
+    /**
+     * Tests the spectral contrast angle score for known angles.
+     */
+    public void testSpectralContrastAngle() {
+
+        Assert.assertEquals(1.0, SimilarityScore.getSpectralContrastAngle(1.0), TOLERANCE);
+        Assert.assertEquals(0.0, SimilarityScore.getSpectralContrastAngle(0.0), TOLERANCE);
+        Assert.assertEquals(0.5, SimilarityScore.getSpectralContrastAngle(Math.cos(Math.PI / 4)), TOLERANCE);
+
+        // rounding errors outside [0, 1] are clamped
+        Assert.assertEquals(1.0, SimilarityScore.getSpectralContrastAngle(1.0000001), TOLERANCE);
+        Assert.assertEquals(0.0, SimilarityScore.getSpectralContrastAngle(-0.0000001), TOLERANCE);
+
+    }
+
+    /**
+     * Returns random peaks sorted by m/z, with some peaks of zero intensity
+     * and some peaks sharing a bin.
+     *
+     * @param random the random number generator
+     *
+     * @return the m/z and intensities of the peaks
+     */
+    private double[][] getRandomPeaks(Random random) {
+
+        int nPeaks = random.nextInt(40);
+        double[] mzs = new double[nPeaks];
+        double[] intensities = new double[nPeaks];
+        double mz = 100.0;
+
+        for (int i = 0; i < nPeaks; i++) {
+
+            mz += random.nextDouble() * 5.0;
+            mzs[i] = mz;
+            intensities[i] = random.nextInt(10) == 0 ? 0.0 : random.nextDouble() * 1000.0;
+
+        }
+
+        return new double[][]{mzs, intensities};
+    }
+
+    /**
+     * Returns the normalized binned vector of the given peaks as a map.
+     *
+     * @param mzs the m/z values
+     * @param intensities the intensities
+     * @param binWidth the bin width
+     * @param squareRoot if true the square root of the intensities is used
+     *
+     * @return the normalized binned vector of the given peaks
+     */
+    private TreeMap<Integer, Double> getDenseVector(double[] mzs, double[] intensities, double binWidth, boolean squareRoot) {
+
+        TreeMap<Integer, Double> vector = new TreeMap<>();
+
+        for (int i = 0; i < mzs.length; i++) {
+
+            if (intensities[i] > 0.0) {
+
+                int bin = (int) Math.floor(mzs[i] / binWidth);
+                double weight = squareRoot ? Math.sqrt(intensities[i]) : intensities[i];
+                vector.merge(bin, weight, Double::sum);
+
+            }
+        }
+
+        double norm = Math.sqrt(vector.values().stream().mapToDouble(weight -> weight * weight).sum());
+
+        if (norm > 0.0) {
+            vector.replaceAll((bin, weight) -> weight / norm);
+        }
+
+        return vector;
+    }
+}
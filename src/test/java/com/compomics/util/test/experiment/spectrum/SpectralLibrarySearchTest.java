@@ -0,0 +1,390 @@
+package com.compomics.util.test.experiment.spectrum;
+
+import com.compomics.util.Util;
+import com.compomics.util.experiment.mass_spectrometry.similarity.BinnedSpectrum;
+import com.compomics.util.experiment.mass_spectrometry.similarity.SimilarityScore;
+import com.compomics.util.experiment.mass_spectrometry.spectra.Peak;
+import com.compomics.util.experiment.mass_spectrometry.spectra.Precursor;
+import com.compomics.util.experiment.mass_spectrometry.spectra.Spectrum;
+import com.compomics.util.experiment.mass_spectrometry.spectral_library.LibraryMatch;
+import com.compomics.util.experiment.mass_spectrometry.spectral_library.SpectralLibraryIndex;
+import com.compomics.util.experiment.mass_spectrometry.spectral_library.SpectralLibrarySearch;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * This class tests the spectral library index and search.
+ *
+ * @author Marc Vaudel
+ */
+public class SpectralLibrarySearchTest extends TestCase {
+
+    /**
+     * The folder where the test files are written.
+     */
+    private static final String TEMP_FOLDER = "src/test/resources/experiment/spectralLibrary";
+    /**
+     * The number of library entries.
+     */
+    private static final int N_ENTRIES = 500;
+    /**
+     * The number of query spectra.
+     */
+    private static final int N_QUERIES = 300;
+    /**
+     * The maximal number of matches per spectrum.
+     */
+    private static final int N_MATCHES = 5;
+    /**
+     * The minimal score of the matches.
+     */
+    private static final double MIN_SCORE = 0.05;
+
+    /**
+     * Tests that the library entries are sorted by precursor m/z and that the
+     * first index of an m/z matches a linear scan.
+     */
+    public void testIndex() {
+
+        Random random = new Random(7);
+        ArrayList<Spectrum> library = getLibrary(random);
+        SpectralLibraryIndex libraryIndex = new SpectralLibraryIndex(library, "library.msp", BinnedSpectrum.DEFAULT_BIN_WIDTH, true);
+
+        // the spectrum without precursor is not indexed
+        Assert.assertEquals(N_ENTRIES, libraryIndex.size());
+
+        HashMap<String, Spectrum> libraryMap = new HashMap<>(library.size());
+
+        for (Spectrum spectrum : library) {
+            libraryMap.put(spectrum.getSpectrumTitle(), spectrum);
+        }
+
+        for (int i = 0; i < libraryIndex.size(); i++) {
+
+            if (i > 0) {
+                Assert.assertTrue(libraryIndex.getPrecursorMz(i - 1) <= libraryIndex.getPrecursorMz(i));
+            }
+
+            Spectrum spectrum = libraryMap.get(libraryIndex.getTitle(i));
+            Precursor precursor = spectrum.getPrecursor();
+            Assert.assertEquals(precursor.getMz(), libraryIndex.getPrecursorMz(i));
+            Assert.assertEquals(precursor.getPossibleCharges().isEmpty() ? 0 : precursor.getPossibleCharges().get(0).intValue(), libraryIndex.getCharge(i));
+            Assert.assertTrue(Arrays.equals(libraryIndex.getBinnedSpectrum(spectrum).getBins(), libraryIndex.getBinnedSpectrum(i).getBins()));
+
+        }
+
+        for (double mz = 350.0; mz < 1100.0; mz += 3.7) {
+
+            int expected = 0;
+
+            while (expected < libraryIndex.size() && libraryIndex.getPrecursorMz(expected) < mz) {
+                expected++;
+            }
+
+            Assert.assertEquals(expected, libraryIndex.getFirstIndex(mz));
+
+        }
+    }
+
+    /**
+     * Compares the matches of random spectra to an exhaustive comparison with
+     * all library entries.
+     *
+     * @throws IOException exception thrown if an error occurred while
+     * searching
+     */
+    public void testSearch() throws IOException {
+
+        Random random = new Random(11);
+        ArrayList<Spectrum> library = getLibrary(random);
+        SpectralLibraryIndex libraryIndex = new SpectralLibraryIndex(library, "library.msp", BinnedSpectrum.DEFAULT_BIN_WIDTH, true);
+        ArrayList<Spectrum> queries = getQueries(random, library);
+
+        for (SimilarityScore similarityScore : SimilarityScore.values()) {
+
+            for (boolean ppm : new boolean[]{false, true}) {
+
+                double tolerance = ppm ? 2000.0 : 1.5;
+                SpectralLibrarySearch search = new SpectralLibrarySearch(libraryIndex, tolerance, ppm, similarityScore, N_MATCHES, MIN_SCORE);
+                int nMatched = 0;
+
+                for (Spectrum query : queries) {
+
+                    LibraryMatch[] expected = getExpectedMatches(libraryIndex, query, tolerance, ppm, similarityScore);
+                    compare(expected, search.search(query));
+
+                    if (expected.length > 0) {
+                        nMatched++;
+                    }
+                }
+
+                Assert.assertTrue(nMatched > N_QUERIES / 2);
+
+                for (int nThreads = 1; nThreads <= 3; nThreads++) {
+
+                    LibraryMatch[][] results = search.search(queries, nThreads, null);
+                    Assert.assertEquals(queries.size(), results.length);
+
+                    for (int i = 0; i < queries.size(); i++) {
+                        compare(search.search(queries.get(i)), results[i]);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Tests that the search of a file returns the matches of every spectrum
+     * in the order of the file, also when titles are missing or duplicated.
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * or writing a file
+     */
+    public void testSearchFile() throws IOException {
+
+        Random random = new Random(13);
+        ArrayList<Spectrum> library = getLibrary(random);
+        SpectralLibraryIndex libraryIndex = new SpectralLibraryIndex(library, "library.msp", BinnedSpectrum.DEFAULT_BIN_WIDTH, true);
+        ArrayList<Spectrum> queries = getQueries(random, library);
+        SpectralLibrarySearch search = new SpectralLibrarySearch(libraryIndex, 1.5, false, SimilarityScore.dotProduct, N_MATCHES, MIN_SCORE);
+
+        File folder = new File(TEMP_FOLDER);
+        folder.mkdir();
+
+        try {
+
+            File mgfFile = new File(folder, "queries.mgf");
+            StringBuilder content = new StringBuilder();
+
+            for (int i = 0; i < queries.size(); i++) {
+
+                Spectrum query = queries.get(i);
+                content.append("BEGIN IONS\n");
+
+                // some titles are missing and some are duplicated
+                if (i % 10 != 3) {
+                    content.append("TITLE=").append(i % 10 == 7 ? "duplicate" : query.getSpectrumTitle()).append('\n');
+                }
+
+                content.append("PEPMASS=").append(query.getPrecursor().getMz()).append('\n');
+
+                if (!query.getPrecursor().getPossibleCharges().isEmpty()) {
+                    content.append("CHARGE=").append(query.getPrecursor().getPossibleCharges().get(0)).append("+\n");
+                }
+
+                double[][] peaks = query.getMzAndIntensityAsArray();
+
+                for (int j = 0; j < peaks[0].length; j++) {
+                    content.append(peaks[0][j]).append(' ').append(peaks[1][j]).append('\n');
+                }
+
+                content.append("END IONS\n\n");
+
+            }
+
+            try (FileOutputStream outputStream = new FileOutputStream(mgfFile)) {
+                outputStream.write(content.toString().getBytes(StandardCharsets.US_ASCII));
+            }
+
+            for (int nThreads = 1; nThreads <= 3; nThreads++) {
+
+                ArrayList<LibraryMatch[]> results = search.search(mgfFile, nThreads, null);
+                Assert.assertEquals(queries.size(), results.size());
+
+                for (int i = 0; i < queries.size(); i++) {
+                    compare(search.search(queries.get(i)), results.get(i));
+                }
+            }
+
+        } finally {
+
+            Util.deleteDir(folder);
+
+        }
+    }
+
+    /**
+     * Returns the expected matches of a spectrum by comparing it to all
+     * library entries.
+     *
+     * @param libraryIndex the library index
+     * @param query the spectrum
+     * @param tolerance the precursor tolerance
+     * @param ppm boolean indicating whether the tolerance is in ppm
+     * @param similarityScore the similarity score
+     *
+     * @return the expected matches
+     */
+    private LibraryMatch[] getExpectedMatches(SpectralLibraryIndex libraryIndex, Spectrum query, double tolerance, boolean ppm, SimilarityScore similarityScore) {
+
+        double precursorMz = query.getPrecursor().getMz();
+        double window = ppm ? precursorMz * tolerance / 1000000 : tolerance;
+        ArrayList<Integer> charges = query.getPrecursor().getPossibleCharges();
+        BinnedSpectrum binnedSpectrum = libraryIndex.getBinnedSpectrum(query);
+        ArrayList<LibraryMatch> matches = new ArrayList<>();
+
+        for (int i = 0; i < libraryIndex.size(); i++) {
+
+            double libraryMz = libraryIndex.getPrecursorMz(i);
+            int libraryCharge = libraryIndex.getCharge(i);
+
+            if (libraryMz >= precursorMz - window && libraryMz <= precursorMz + window
+                    && (libraryCharge == 0 || charges.isEmpty() || charges.contains(libraryCharge))) {
+
+                double score = similarityScore.getScore(binnedSpectrum, libraryIndex.getBinnedSpectrum(i));
+
+                if (score >= MIN_SCORE) {
+                    matches.add(new LibraryMatch(i, libraryIndex.getTitle(i), score));
+                }
+            }
+        }
+
+        // best scores first, the first entry first in case of ties
+        matches.sort((match1, match2) -> {
+            int comparison = Double.compare(match2.score, match1.score);
+            return comparison != 0 ? comparison : Integer.compare(match1.libraryIndex, match2.libraryIndex);
+        });
+
+        return matches.subList(0, Math.min(N_MATCHES, matches.size())).toArray(new LibraryMatch[0]);
+    }
+
+    /**
+     * Compares two arrays of matches.
+     *
+     * @param expected the expected matches
+     * @param actual the actual matches
+     */
+    private void compare(LibraryMatch[] expected, LibraryMatch[] actual) {
+
+        Assert.assertEquals(expected.length, actual.length);
+
+        for (int i = 0; i < expected.length; i++) {
+
+            Assert.assertEquals(expected[i].libraryIndex, actual[i].libraryIndex);
+            Assert.assertEquals(expected[i].libraryTitle, actual[i].libraryTitle);
+            Assert.assertEquals(expected[i].score, actual[i].score);
+
+        }
+    }
+
+    /**
+     * Returns a random library, where some entries share peaks and some have
+     * no charge, and a spectrum without precursor.
+     *
+     * @param random the random number generator
+     *
+     * @return a random library
+     */
+    private ArrayList<Spectrum> getLibrary(Random random) {
+
+        ArrayList<Spectrum> library = new ArrayList<>(N_ENTRIES + 1);
+
+        for (int i = 0; i < N_ENTRIES; i++) {
+
+            double precursorMz = 400.0 + random.nextInt(600) + random.nextDouble();
+            int charge = random.nextInt(5) == 0 ? 0 : 2 + random.nextInt(2);
+            library.add(getSpectrum("entry " + i, precursorMz, charge, getRandomPeaks(random, 40)));
+
+        }
+
+        library.add(new Spectrum(1, null, "no precursor", getRandomPeaks(random, 10), "library.msp"));
+
+        return library;
+    }
+
+    /**
+     * Returns random queries, where most queries are noisy copies of library
+     * entries.
+     *
+     * @param random the random number generator
+     * @param library the library
+     *
+     * @return random queries
+     */
+    private ArrayList<Spectrum> getQueries(Random random, ArrayList<Spectrum> library) {
+
+        ArrayList<Spectrum> queries = new ArrayList<>(N_QUERIES);
+
+        for (int i = 0; i < N_QUERIES; i++) {
+
+            if (i % 4 == 0) {
+
+                double precursorMz = 400.0 + random.nextInt(600) + random.nextDouble();
+                queries.add(getSpectrum("query " + i, precursorMz, random.nextInt(3) + 1, getRandomPeaks(random, 30)));
+
+            } else {
+
+                Spectrum entry = library.get(random.nextInt(N_ENTRIES));
+                HashMap<Double, Peak> peaks = new HashMap<>();
+
+                for (Peak peak : entry.getPeakList()) {
+
+                    if (random.nextInt(4) != 0) {
+                        double mz = peak.mz + 0.01 * random.nextGaussian();
+                        peaks.put(mz, new Peak(mz, peak.intensity * (0.5 + random.nextDouble())));
+                    }
+                }
+
+                peaks.putAll(getRandomPeaks(random, 10));
+
+                int charge = i % 5 == 0 ? 0 : 2 + random.nextInt(2);
+                queries.add(getSpectrum("query " + i, entry.getPrecursor().getMz() + 0.2 * random.nextGaussian(), charge, peaks));
+
+            }
+        }
+
+        return queries;
+    }
+
+    /**
+     * Returns a spectrum.
+     *
+     * @param title the title
+     * @param precursorMz the precursor m/z
+     * @param charge the charge, 0 if unknown
+     * @param peaks the peaks
+     *
+     * @return a spectrum
+     */
+    private Spectrum getSpectrum(String title, double precursorMz, int charge, HashMap<Double, Peak> peaks) {
+
+        ArrayList<Integer> charges = new ArrayList<>(1);
+
+        if (charge != 0) {
+            charges.add(charge);
+        }
+
+        return new Spectrum(2, new Precursor(-1.0, precursorMz, charges), title, peaks, "test.mgf");
+    }
+
+    /**
+     * Returns random peaks.
+     *
+     * @param random the random number generator
+     * @param maxPeaks the maximal number of peaks
+     *
+     * @return random peaks
+     */
+    private HashMap<Double, Peak> getRandomPeaks(Random random, int maxPeaks) {
+
+        int nPeaks = 1 + random.nextInt(maxPeaks);
+        HashMap<Double, Peak> peaks = new HashMap<>(nPeaks);
+
+        for (int i = 0; i < nPeaks; i++) {
+
+            double mz = 100.0 + random.nextInt(400) + random.nextDouble();
+            peaks.put(mz, new Peak(mz, 1.0 + random.nextDouble() * 1000.0));
+
+        }
+
+        return peaks;
+    }
+}
@@ -0,0 +1,395 @@
+package com.compomics.util.test.experiment.spectrum;
+
+import com.compomics.util.Util;
+import com.compomics.util.experiment.io.mass_spectrometry.mgf.MgfFileIterator;
+import com.compomics.util.experiment.mass_spectrometry.clustering.SpectrumClusterer;
+import com.compomics.util.experiment.mass_spectrometry.similarity.BinnedSpectrum;
+import com.compomics.util.experiment.mass_spectrometry.spectra.Precursor;
+import com.compomics.util.experiment.mass_spectrometry.spectra.Spectrum;
+import com.compomics.util.gui.waiting.waitinghandlers.WaitingHandlerDummy;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * This class tests the clustering of spectra.
+ *
+ * @author Marc Vaudel
+ */
+public class SpectrumClustererTest extends TestCase {
+
+    /**
+     * The folder where the test files are written.
+     */
+    private static final String TEMP_FOLDER = "src/test/resources/experiment/spectrumClusterer";
+    /**
+     * The precursor m/z tolerance in Th.
+     */
+    private static final double PRECURSOR_TOLERANCE = 0.5;
+    /**
+     * The minimal cosine similarity.
+     */
+    private static final double MIN_SIMILARITY = 0.55;
+
+    /**
+     * Tests that clusters do not grow by chaining, and that spectra of
+     * incompatible charge or precursor m/z are not clustered.
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * or writing a file
+     */
+    public void testChaining() throws IOException {
+
+        // ten peaks of equal intensity in distinct bins, the cosine similarity is the share of common peaks
+        int[] peaks0 = {0, 1, 2, 3, 4, 5, 6, 7, 8, 9};
+        int[] peaks1 = {0, 1, 2, 3, 4, 5, 6, 10, 11, 12};
+        int[] peaks2 = {4, 5, 6, 10, 11, 12, 13, 14, 15, 16};
+
+        ArrayList<String> spectra = new ArrayList<>();
+        spectra.add(getSpectrum("spectrum 0", 500.0, "2+", peaks0));
+        spectra.add(getSpectrum("spectrum 1", 500.1, "2+", peaks1));
+        spectra.add(getSpectrum("spectrum 2", 500.2, "2+", peaks2));
+        spectra.add(getSpectrum("spectrum 3", 500.0, "3+", peaks0));
+        spectra.add(getSpectrum("spectrum 4", 510.0, "2+", peaks0));
+        spectra.add(getSpectrum("spectrum 5", 500.3, "", peaks0));
+        spectra.add(getSpectrum("spectrum 6", 500.0, "2+", peaks2));
+
+        File folder = new File(TEMP_FOLDER);
+        folder.mkdir();
+
+        try {
+
+            File mgfFile = write(spectra, new File(folder, "chain.mgf"));
+
+            for (int nThreads = 1; nThreads <= 3; nThreads++) {
+
+                SpectrumClusterer clusterer = new SpectrumClusterer(PRECURSOR_TOLERANCE, false, BinnedSpectrum.DEFAULT_BIN_WIDTH, MIN_SIMILARITY, 0.5, nThreads);
+                int[] clusters = clusterer.cluster(mgfFile, null);
+
+                // spectrum 1 is similar to both spectrum 0 and 2, but spectrum 2 is not similar to spectrum 0
+                Assert.assertTrue(Arrays.equals(new int[]{0, 0, 1, 2, 3, 0, 1}, clusters));
+
+            }
+
+        } finally {
+
+            Util.deleteDir(folder);
+
+        }
+    }
+
+    /**
+     * Compares the clusters of random spectra to a sequential implementation
+     * and tests that every spectrum is similar to the representative of its
+     * cluster.
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * or writing a file
+     */
+    public void testRandomSpectra() throws IOException {
+
+        File folder = new File(TEMP_FOLDER);
+        folder.mkdir();
+
+        try {
+
+            File mgfFile = write(getRandomSpectra(new Random(5)), new File(folder, "random.mgf"));
+
+            ArrayList<Spectrum> spectra = new ArrayList<>();
+            MgfFileIterator iterator = new MgfFileIterator(mgfFile);
+
+            while (iterator.hasNext()) {
+                spectra.add(iterator.next());
+            }
+
+            for (boolean ppm : new boolean[]{false, true}) {
+
+                double tolerance = ppm ? 1000.0 : PRECURSOR_TOLERANCE;
+                int[] expected = getExpectedClusters(spectra, tolerance, ppm);
+                HashSet<Integer> clusterSet = new HashSet<>();
+
+                for (int cluster : expected) {
+                    clusterSet.add(cluster);
+                }
+
+                Assert.assertTrue(clusterSet.size() > 20);
+                Assert.assertTrue(clusterSet.size() < spectra.size() / 2);
+
+                for (int nThreads = 1; nThreads <= 3; nThreads++) {
+
+                    SpectrumClusterer clusterer = new SpectrumClusterer(tolerance, ppm, BinnedSpectrum.DEFAULT_BIN_WIDTH, MIN_SIMILARITY, 0.5, nThreads);
+                    WaitingHandlerDummy waitingHandler = new WaitingHandlerDummy();
+                    int[] clusters = clusterer.cluster(mgfFile, waitingHandler);
+                    Assert.assertTrue(Arrays.equals(expected, clusters));
+
+                }
+            }
+
+        } finally {
+
+            Util.deleteDir(folder);
+
+        }
+    }
+
+    /**
+     * Tests the export of the clusters and that no file is left when the
+     * export is canceled.
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * or writing a file
+     */
+    public void testWriteClusters() throws IOException {
+
+        File folder = new File(TEMP_FOLDER);
+        folder.mkdir();
+
+        try {
+
+            File mgfFile = write(getRandomSpectra(new Random(17)), new File(folder, "random.mgf"));
+            SpectrumClusterer clusterer = new SpectrumClusterer(PRECURSOR_TOLERANCE, false, BinnedSpectrum.DEFAULT_BIN_WIDTH, MIN_SIMILARITY, 0.5, 2);
+            int[] clusters = clusterer.cluster(mgfFile, null);
+
+            int nClusters = 0;
+            int[] clusterSizes = new int[clusters.length];
+
+            for (int cluster : clusters) {
+                nClusters = Math.max(nClusters, cluster + 1);
+                clusterSizes[cluster]++;
+            }
+
+            File destinationFile = new File(folder, "clusters.mgf");
+            File clustersFile = new File(folder, "clusters.txt");
+            clusterer.writeClusters(mgfFile, clusters, destinationFile, clustersFile, null);
+
+            HashSet<String> expectedTitles = new HashSet<>();
+            MgfFileIterator iterator = new MgfFileIterator(mgfFile);
+            int rank = 0;
+
+            while (iterator.hasNext()) {
+
+                Spectrum spectrum = iterator.next();
+                int cluster = clusters[rank++];
+                expectedTitles.add(clusterSizes[cluster] == 1 ? spectrum.getSpectrumTitle() : SpectrumClusterer.getClusterTitle(cluster));
+
+            }
+
+            HashSet<String> titles = new HashSet<>();
+            iterator = new MgfFileIterator(destinationFile);
+
+            while (iterator.hasNext()) {
+                titles.add(iterator.next().getSpectrumTitle());
+            }
+
+            Assert.assertEquals(nClusters, titles.size());
+            Assert.assertEquals(expectedTitles, titles);
+
+            List<String> lines = Files.readAllLines(clustersFile.toPath());
+            Assert.assertEquals(clusters.length + 1, lines.size());
+            Assert.assertEquals(SpectrumClusterer.getClusterTitle(clusters[0]), lines.get(1).split("\t")[0]);
+
+            // cancel the export after a few spectra
+            Assert.assertTrue(destinationFile.delete());
+            Assert.assertTrue(clustersFile.delete());
+
+            WaitingHandlerDummy waitingHandler = new WaitingHandlerDummy() {
+
+                /**
+                 * The number of spectra processed.
+                 */
+                private int nProcessed = 0;
+
+                @Override
+                public synchronized void increaseSecondaryProgressCounter() {
+
+                    if (++nProcessed == 10) {
+                        setRunCanceled();
+                    }
+                }
+            };
+
+            clusterer.writeClusters(mgfFile, clusters, destinationFile, clustersFile, waitingHandler);
+            Assert.assertTrue(waitingHandler.isRunCanceled());
+            Assert.assertFalse(destinationFile.exists());
+            Assert.assertFalse(clustersFile.exists());
+
+            waitingHandler = new WaitingHandlerDummy();
+            waitingHandler.setRunCanceled();
+            Assert.assertNull(clusterer.cluster(mgfFile, waitingHandler));
+
+        } finally {
+
+            Util.deleteDir(folder);
+
+        }
+    }
+
+    /**
+     * Returns the clusters of the given spectra computed sequentially: every
+     * spectrum joins the most similar preceding representative, or becomes a
+     * representative.
+     *
+     * @param spectra the spectra
+     * @param tolerance the precursor tolerance
+     * @param ppm boolean indicating whether the tolerance is in ppm
+     *
+     * @return the cluster of every spectrum
+     */
+    private int[] getExpectedClusters(ArrayList<Spectrum> spectra, double tolerance, boolean ppm) {
+
+        int nSpectra = spectra.size();
+        BinnedSpectrum[] binnedSpectra = new BinnedSpectrum[nSpectra];
+
+        for (int i = 0; i < nSpectra; i++) {
+            binnedSpectra[i] = BinnedSpectrum.getBinnedSpectrum(spectra.get(i), BinnedSpectrum.DEFAULT_BIN_WIDTH, true);
+        }
+
+        int[] clusters = new int[nSpectra];
+        ArrayList<Integer> representatives = new ArrayList<>();
+
+        for (int j = 0; j < nSpectra; j++) {
+
+            Precursor precursor = spectra.get(j).getPrecursor();
+            double window = ppm ? precursor.getMz() * tolerance / 1000000 : tolerance;
+            int bestCluster = -1;
+            double bestSimilarity = MIN_SIMILARITY;
+
+            for (int cluster = 0; cluster < representatives.size(); cluster++) {
+
+                int i = representatives.get(cluster);
+                Precursor representativePrecursor = spectra.get(i).getPrecursor();
+
+                if (representativePrecursor.getMz() >= precursor.getMz() - window
+                        && representativePrecursor.getMz() <= precursor.getMz() + window
+                        && (precursor.getPossibleCharges().isEmpty() || representativePrecursor.getPossibleCharges().isEmpty()
+                        || !Collections.disjoint(precursor.getPossibleCharges(), representativePrecursor.getPossibleCharges()))) {
+
+                    double similarity = binnedSpectra[j].dotProduct(binnedSpectra[i]);
+
+                    if (similarity > bestSimilarity || bestCluster == -1 && similarity >= bestSimilarity) {
+                        bestCluster = cluster;
+                        bestSimilarity = similarity;
+                    }
+                }
+            }
+
+            if (bestCluster == -1) {
+                bestCluster = representatives.size();
+                representatives.add(j);
+            }
+
+            clusters[j] = bestCluster;
+
+        }
+
+        return clusters;
+    }
+
+    /**
+     * Returns random spectra as mgf: noisy copies of random spectra in random
+     * order, where the copies have various charges.
+     *
+     * @param random the random number generator
+     *
+     * @return random spectra as mgf
+     */
+    private ArrayList<String> getRandomSpectra(Random random) {
+
+        ArrayList<String> spectra = new ArrayList<>();
+
+        for (int i = 0; i < 60; i++) {
+
+            double precursorMz = 400.0 + 20.0 * random.nextInt(30) + random.nextDouble();
+            int[] peaks = new int[10 + random.nextInt(20)];
+
+            for (int j = 0; j < peaks.length; j++) {
+                peaks[j] = random.nextInt(150);
+            }
+
+            for (int copy = 0; copy < 2 + random.nextInt(10); copy++) {
+
+                int[] copyPeaks = peaks.clone();
+
+                for (int j = 0; j < copyPeaks.length; j++) {
+
+                    if (random.nextInt(4) == 0) {
+                        copyPeaks[j] = random.nextInt(150);
+                    }
+                }
+
+                String charge = random.nextInt(8) == 0 ? "" : random.nextInt(5) == 0 ? "3+" : "2+";
+                spectra.add(getSpectrum("spectrum " + spectra.size(), precursorMz + 0.3 * random.nextDouble(), charge, copyPeaks));
+
+            }
+        }
+
+        Collections.shuffle(spectra, random);
+
+        return spectra;
+    }
+
+    /**
+     * Returns a spectrum as mgf with peaks of equal intensity.
+     *
+     * @param title the title of the spectrum
+     * @param precursorMz the precursor m/z
+     * @param charge the charge, empty if not known
+     * @param peaks the peaks as indexes of m/z bins
+     *
+     * @return the spectrum as mgf
+     */
+    private String getSpectrum(String title, double precursorMz, String charge, int[] peaks) {
+
+        StringBuilder spectrum = new StringBuilder();
+        spectrum.append("BEGIN IONS\n");
+        spectrum.append("TITLE=").append(title).append('\n');
+        spectrum.append("PEPMASS=").append(precursorMz).append('\n');
+
+        if (!charge.isEmpty()) {
+            spectrum.append("CHARGE=").append(charge).append('\n');
+        }
+
+        int[] sortedPeaks = Arrays.stream(peaks).distinct().sorted().toArray();
+
+        for (int peak : sortedPeaks) {
+            spectrum.append(200.5 + 10 * peak).append(" 100.0\n");
+        }
+
+        spectrum.append("END IONS\n\n");
+
+        return spectrum.toString();
+    }
+
+    /**
+     * Writes the given spectra to a file.
+     *
+     * @param spectra the spectra as mgf
+     * @param file the file
+     *
+     * @return the file
+     *
+     * @throws IOException exception thrown if an error occurred while writing
+     * the file
+     */
+    private File write(ArrayList<String> spectra, File file) throws IOException {
+
+        try (FileOutputStream outputStream = new FileOutputStream(file)) {
+
+            for (String spectrum : spectra) {
+                outputStream.write(spectrum.getBytes(StandardCharsets.US_ASCII));
+            }
+        }
+
+        return file;
+    }
+}
@@ -33,6 +33,27 @@ public class TestBinomialDistribution extends TestCase {
         }
     }
 
+    /**
+     * Tests that the cumulative probabilities do not depend on the
+     * probabilities previously queried.
+     */
+    public void testCumulativeP() {
+        double tolerance = Math.pow(10, -10);
+        int n = 30;
+        double p = 0.125;
+        BinomialDistribution binomialDistribution = new BinomialDistribution(n, p);
+        for (int k = 0; k < n; k++) {
+            double expected = 0.0;
+            for (int j = k + 1; j <= n; j++) {
+                expected += binomialDistribution.getProbabilityAt((double) j);
+            }
+            binomialDistribution.getProbabilityAt((double) k);
+            Assert.assertEquals(expected, binomialDistribution.getDescendingCumulativeProbabilityAt((double) k), tolerance);
+            Assert.assertEquals(expected, binomialDistribution.getDescendingCumulativeProbabilityAt((double) k), tolerance);
+            Assert.assertEquals(1.0 - expected, binomialDistribution.getCumulativeProbabilityAt((double) k), tolerance);
+        }
+    }
+
     /**
      * Results obtained using excel
      */
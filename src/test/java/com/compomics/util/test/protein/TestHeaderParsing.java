@@ -0,0 +1,251 @@
+package com.compomics.util.test.protein;
+
+import com.compomics.util.experiment.io.biology.protein.Header;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * Tests the parsing of fasta headers against the fields obtained with the
+ * parser before the headers were dispatched on their database prefix.
+ *
+ * @author Marc Vaudel
+ */
+public class TestHeaderParsing extends TestCase {
+
+    /**
+     * The fasta files to test.
+     */
+    private static final String[] FASTA_FILES = new String[]{
+        "src/test/resources/experiment/sgd.fasta",
+        "src/test/resources/experiment/terminiSequence.fasta",
+        "src/test/resources/experiment/testSequences.fasta",
+        "src/test/resources/experiment/testSequences_1.fasta",
+        "src/test/resources/experiment/uniprot.fasta"
+    };
+
+    /**
+     * The file containing the expected fields of every header tested. Each
+     * header is followed by one line per field, with the name and value
+     * separated by a tab, the value is missing when null.
+     */
+    private static final String EXPECTED_FIELDS_FILE = "src/test/resources/experiment/headerParsing.txt";
+
+    /**
+     * Headers covering the formats dispatched on the database prefix and
+     * their edge cases.
+     */
+    private static final String[] HEADERS = new String[]{
+        ">sp|P31946|1433B_HUMAN 14-3-3 protein beta/alpha OS=Homo sapiens OX=9606 GN=YWHAB PE=1 SV=3",
+        ">sp|P31946|1433B_HUMAN 14-3-3 protein beta/alpha OS=Homo sapiens GN=YWHAB PE=1 SV=3",
+        ">sp|P31946|1433B_HUMAN 14-3-3 protein beta/alpha",
+        ">sp|P31946-2|1433B_HUMAN Isoform Short of 14-3-3 protein beta/alpha OS=Homo sapiens GN=YWHAB",
+        ">sp|P31946 14-3-3 protein beta/alpha",
+        ">sp|P31946|1433B_HUMAN 14-3-3 protein beta/alpha OS=Homo sapiens PE=1 SV=3 (+3)",
+        ">tr|A0A1C9NAB2|A0A1C9NAB2_9VIRU Envelope glycoprotein OS=Hepatitis C virus OX=11103 GN=E2 PE=4 SV=1",
+        ">tr|Q6ZMM9|Q6ZMM9_HUMAN Uncharacterized protein OS=Homo sapiens PE=2 SV=1",
+        ">tr|Q6ZMM9 Uncharacterized protein",
+        ">en|AT1G01010.1|ensembl_plants NAC domain containing protein 1",
+        ">en|AT1G01010.1 NAC domain containing protein 1",
+        ">nxp|NX_P31946-1|YWHAB|14-3-3 protein beta/alpha|Iso 1",
+        ">nxp|NX_P31946-1|YWHAB|14-3-3 protein beta/alpha",
+        ">UniRef100_Q6GZX4 Putative transcription factor 001R n=1 Tax=Frog virus 3 RepID=001R_FRG3G",
+        ">UniRef50_Q6GZX4 Putative transcription factor 001R n=12 Tax=Iridoviridae TaxID=10486 RepID=001R_FRG3G",
+        ">UniRef90_P31946 (P31946) 14-3-3 protein",
+        ">UniRef90_P31946|foo (P31946) 14-3-3 protein",
+        ">UniRef100_Q6GZX4",
+        ">generic|TEST_ACC|A generic protein",
+        ">sp|P31946|1433B_HUMAN SGDID:S000001234 14-3-3 protein",
+        ">YPL008W CHL1 SGDID:S000005929, Chr XVI from 539342-541927, Verified ORF",
+        ">sw|O95229|ZWIN_HUMAN ZW10 interactor (ZW10 interacting protein-1) (Zwint-1).",
+        ">gi|20149565|ref|NP_004878.2| small inducible cytokine B14 precursor",
+        ">IPI:IPI00232014.1|REFSEQ_XP:XP_303976 Tax_Id=9606 hypothetical protein XP_303976",
+        ">K1CI_HUMAN (P35527) Keratin, type I cytoskeletal 9",
+        ">t",
+        ">sp",
+        ">Unknown header type."
+    };
+
+    /**
+     * Tests the headers of the example fasta files.
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * a file
+     */
+    public void testFastaFiles() throws IOException {
+
+        HashMap<String, LinkedHashMap<String, String>> expectedFields = getExpectedFields();
+
+        for (String fastaFile : FASTA_FILES) {
+
+            for (String header : getHeaders(new File(fastaFile))) {
+
+                compare(header, expectedFields);
+
+            }
+        }
+    }
+
+    /**
+     * Tests the example headers.
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * a file
+     */
+    public void testHeaders() throws IOException {
+
+        HashMap<String, LinkedHashMap<String, String>> expectedFields = getExpectedFields();
+
+        for (String header : HEADERS) {
+
+            compare(header, expectedFields);
+
+        }
+    }
+
+    /**
+     * Returns the header lines of the given fasta file.
+     *
+     * @param fastaFile the fasta file
+     *
+     * @return the header lines
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * the file
+     */
+    private ArrayList<String> getHeaders(File fastaFile) throws IOException {
+
+        ArrayList<String> headers = new ArrayList<>();
+
+        try (BufferedReader br = new BufferedReader(new FileReader(fastaFile))) {
+
+            String line;
+
+            while ((line = br.readLine()) != null) {
+
+                line = line.trim();
+
+                if (line.startsWith(">")) {
+
+                    headers.add(line);
+
+                }
+            }
+        }
+
+        return headers;
+    }
+
+    /**
+     * Returns the expected fields of the headers.
+     *
+     * @return the expected fields indexed by header
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * the file
+     */
+    private HashMap<String, LinkedHashMap<String, String>> getExpectedFields() throws IOException {
+
+        HashMap<String, LinkedHashMap<String, String>> expectedFields = new HashMap<>();
+        List<String> lines = Files.readAllLines(new File(EXPECTED_FIELDS_FILE).toPath(), StandardCharsets.UTF_8);
+        LinkedHashMap<String, String> fields = null;
+
+        for (String line : lines) {
+
+            if (line.isEmpty()) {
+
+                fields = null;
+
+            } else if (fields == null) {
+
+                fields = new LinkedHashMap<>();
+                expectedFields.put(line, fields);
+
+            } else {
+
+                int separator = line.indexOf('\t');
+
+                if (separator == -1) {
+
+                    fields.put(line, null);
+
+                } else {
+
+                    fields.put(line.substring(0, separator), line.substring(separator + 1));
+
+                }
+            }
+        }
+
+        return expectedFields;
+    }
+
+    /**
+     * Returns the fields of the given header.
+     *
+     * @param header the parsed header
+     *
+     * @return the fields of the header
+     */
+    private LinkedHashMap<String, String> getFields(Header header) {
+
+        LinkedHashMap<String, String> fields = new LinkedHashMap<>();
+
+        fields.put("databaseType", toString(header.getDatabaseType()));
+        fields.put("id", header.getID());
+        fields.put("foreignId", header.getForeignID());
+        fields.put("accession", header.getAccession());
+        fields.put("foreignAccession", header.getForeignAccession());
+        fields.put("description", header.getDescription());
+        fields.put("descriptionShort", header.getDescriptionShort());
+        fields.put("proteinName", header.getDescriptionProteinName());
+        fields.put("geneName", header.getGeneName());
+        fields.put("proteinEvidence", toString(header.getProteinEvidence()));
+        fields.put("taxonomy", header.getTaxonomy());
+        fields.put("foreignDescription", header.getForeignDescription());
+        fields.put("rest", header.getRest());
+        fields.put("rawHeader", header.getRawHeader());
+        fields.put("addenda", header.getAddenda());
+        fields.put("start", toString(header.getStartLocation()));
+        fields.put("end", toString(header.getEndLocation()));
+        fields.put("abbreviatedHeader", header.getAbbreviatedFASTAHeaderWithAddenda());
+
+        return fields;
+    }
+
+    /**
+     * Returns the string representation of the given object, null if the
+     * object is null.
+     *
+     * @param object the object
+     *
+     * @return the string representation of the object
+     */
+    private static String toString(Object object) {
+        return object == null ? null : object.toString();
+    }
+
+    /**
+     * Compares the fields of the parsed header to the expected fields.
+     *
+     * @param fastaHeader the header line
+     * @param expectedFields the expected fields indexed by header
+     */
+    private void compare(String fastaHeader, HashMap<String, LinkedHashMap<String, String>> expectedFields) {
+
+        LinkedHashMap<String, String> expected = expectedFields.get(fastaHeader);
+        Assert.assertNotNull("No expected fields for " + fastaHeader, expected);
+
+        Assert.assertEquals(fastaHeader, expected, getFields(Header.parseFromFASTA(fastaHeader)));
+
+    }
+}